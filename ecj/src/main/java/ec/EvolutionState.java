@@ -96,6 +96,14 @@ import java.io.*;
  <tr><td valign=top><tt>checkpoint-directory</tt><br>
  <font size=-1>File (default is empty)</td>
  <td valign=top>(directory where the checkpoint files should be located)</td></tr>
+
+ <tr><td valign=top><tt>checkpoint-async</tt><br>
+ <font size=-1>bool = <tt>true</tt> or <tt>false</tt> (default)</td>
+ <td valign=top>(should checkpoint files be written in a background thread?  See ec.util.IncrementalCheckpoint)</td></tr>
+
+ <tr><td valign=top><tt>checkpoint-incremental</tt><br>
+ <font size=-1>bool = <tt>true</tt> or <tt>false</tt> (default)</td>
+ <td valign=top>(should checkpoints only write the parts of the state which have changed?  See ec.util.IncrementalCheckpoint)</td></tr>
  
  <tr><td valign=top><tt>quit-on-run-complete</tt><br>
  <font size=-1>bool = <tt>true</tt> or <tt>false</tt> (default)</td>
@@ -190,6 +198,10 @@ public class EvolutionState implements Singleton
     /** The requested number of generations that should pass before we write out a checkpoint file. */
     public int checkpointModulo;
 
+    /** Writes checkpoints asynchronously or incrementally, or null if checkpoints are written the traditional way by ec.util.Checkpoint.  
+        This is rebuilt from the parameters when restoring from a checkpoint. */
+    public transient IncrementalCheckpoint checkpointer;
+
     /** An amount to add to each random number generator seed to "offset" it -- often this is simply the job number.  
         If you are using more random number generators
         internally than the ones initially created for you in the EvolutionState, you might want to create them with the seed
@@ -350,6 +362,12 @@ public class EvolutionState implements Singleton
                 output.fatal("The checkpoint directory location is not a directory: " + checkpointDirectory, p);
             }
         else checkpointDirectory = null;
+
+        if (checkpoint && IncrementalCheckpoint.isEnabled(parameters))
+            {
+            checkpointer = new IncrementalCheckpoint();
+            checkpointer.setup(this);
+            }
             
         p = new Parameter(P_EVALUATIONS);
         if (parameters.exists(p, null))
@@ -416,6 +434,28 @@ public class EvolutionState implements Singleton
         generation = 0;
         }
 
+    /** Makes sure there are at least the given number of random number generators, adding any new ones with the
+        seeds <tt>seed.</tt><i>n</i> if they exist, else with seeds drawn from a copy of random[0].  Classes which
+        give threads of their own their own generators must call this before EvolutionState.setup(...), which
+        sets up the per-thread data for each generator. */
+    public void addGenerators(int needed)
+        {
+        if (random.length >= needed) return;
+        MersenneTwisterFast[] r = new MersenneTwisterFast[needed];
+        System.arraycopy(random, 0, r, 0, random.length);
+        MersenneTwisterFast seeder = (MersenneTwisterFast)(random[0].clone());  // so we don't disturb random[0]
+        int time = (int)(System.currentTimeMillis());
+        for(int x = random.length; x < needed; x++)
+            {
+            Parameter p = new Parameter(Evolve.P_SEED).push("" + x);
+            int seed = (parameters.exists(p, null) ?
+                Evolve.determineSeed(output, parameters, p, time + x, needed * randomSeedOffset, false) :
+                seeder.nextInt());
+            r[x] = Evolve.primeGenerator(new MersenneTwisterFast(seed));
+            }
+        random = r;
+        }
+
     /** This method is called after a checkpoint
         is restored from but before the run starts up again.  You might use this
         to set up file pointers that were lost, etc. */
@@ -423,6 +463,11 @@ public class EvolutionState implements Singleton
     public void resetFromCheckpoint() throws IOException
         {
         output.restart();   // may throw an exception if there's a bad file
+        if (checkpointer == null && checkpoint && IncrementalCheckpoint.isEnabled(parameters))
+            {
+            checkpointer = new IncrementalCheckpoint();
+            checkpointer.setup(this);
+            }
         exchanger.reinitializeContacts(this);
         evaluator.reinitializeContacts(this);
         }
@@ -62,6 +62,10 @@ import java.io.PrintWriter;
  <font size=-1> int >= 1 (default)</font></td>
  <td valign=top>(The number of jobs to iterate.  The current job number (0...jobs-1) will be added to each seed UNLESS the seed is loaded from the system time.  The job number also gets added as a prefix (if the number of jobs is more than 1)).</td></tr>
 
+ <tr><td valign=top><tt>parallel-jobs</tt></br>
+ <font size=-1> int >= 1 (default is 1), or string = <tt>auto</tt></font></td>
+ <td valign=top>(The number of jobs to run at the same time.  See ec.JobScheduler.)</td></tr>
+
  <tr><td valign=top><tt>nostore</tt><br>
  <font size=-1> bool = <tt>true</tt> or <tt>false</tt> (default)</font></td>
  <td valign=top>(should the ec.util.Output facility <i>not</i> store announcements in memory?)</td></tr>
@@ -70,6 +74,10 @@ import java.io.PrintWriter;
  <font size=-1> bool = <tt>true</tt> or <tt>false</tt> (default)</font></td>
  <td valign=top>(should I flush all output as soon as it's printed (useful for debugging when an exception occurs))</td></tr>
 
+ <tr><td valign=top><tt>async-output</tt><br>
+ <font size=-1> bool = <tt>true</tt> or <tt>false</tt> (default)</font></td>
+ <td valign=top>(should ec.util.Output write to its logs in a background thread, so that printing doesn't hold up the threads doing the printing?  See ec.util.AsyncLogWriter.)</td></tr>
+
  <tr><td valign=top><tt>evalthreads</tt><br>
  <font size=-1>int &gt;= 1</font></td>
  <td valign=top>(the number of threads to spawn for evaluation)</td></tr>
@@ -78,6 +86,10 @@ import java.io.PrintWriter;
  <font size=-1>int &gt;= 1</font></td>
  <td valign=top>(the number of threads to spawn for breeding)</td></tr>
 
+ <tr><td valign=top><tt>threadpool</tt><br>
+ <font size=-1>String, one of: <tt>classic</tt> (default), <tt>executor</tt>, or <tt>virtual</tt></font></td>
+ <td valign=top>(the kind of threads SimpleEvaluator and SimpleBreeder run their threads on: see ec.util.ThreadPool)</td></tr>
+
  <tr><td valign=top><tt>seed.</tt><i>n</i><br>
  <font size=-1>int != 0, or string  = <tt>time</tt></font></td>
  <td valign=top>(the seed for random number generator #<i>n</i>.  <i>n</i> should range from 0 to Max(evalthreads,breedthreads)-1.  If value is <tt>time</tt>, then the seed is based on the system clock plus <i>n</i>.)</td></tr>
@@ -160,6 +172,9 @@ public class Evolve
     /** Should we muzzle stdout and stderr? [deprecated] */
     static final String P_MUZZLE = "muzzle";
 
+    /** Should Output write to its logs in a background thread? */
+    public static final String P_ASYNC_OUTPUT = "async-output";
+
 
 
     /** Optionally prints the help message. */
@@ -442,6 +457,9 @@ public class Evolve
             output.getLog(1).silent = true;
             }
 
+        if (parameters.getBoolean(new Parameter(P_ASYNC_OUTPUT), null, false))
+            output.setAsynchronous(true);
+
         // output was already created for us.  
         output.systemMessage(Version.message());
                 
@@ -498,6 +516,10 @@ public class Evolve
         
     public static void cleanup(EvolutionState state)
         {
+        // finish writing any checkpoint in the background
+        if (state.checkpointer != null)
+            state.checkpointer.close(state);
+
         // flush the output
         state.output.flush();
 
@@ -733,6 +755,14 @@ public class Evolve
         int numJobs = parameters.getIntWithDefault(new Parameter("jobs"), null, 1);
         if (numJobs < 1)
             Output.initialError("The 'jobs' parameter must be >= 1 (or not exist, which defaults to 1)", true);
+
+        // Should we run the remaining jobs in parallel?  If so, ec.JobScheduler does it for us.
+        int parallelJobs = JobScheduler.determineParallelJobs(parameters, numJobs - currentJob);
+        if (parallelJobs > 1)
+            {
+            new JobScheduler(args, parameters, numJobs, parallelJobs).run(currentJob);
+            System.exit(0);
+            }
                 
                 
         // Now we know how many jobs remain.  Let's loop for that many jobs.  Each time we'll
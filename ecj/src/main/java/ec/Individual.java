@@ -356,6 +356,46 @@ public abstract class Individual implements Prototype, Comparable<Individual>
         fitness.readFitness(state,dataInput);
         readGenotype(state,dataInput);
         }
+
+    /** Writes the binary form of an individual out to a DataOutput in a more compact form than
+        writeIndividual(...), as is done by the compact ec.util.Codec when sending individuals over a network.
+        The default version of this method writes the evaluated and fitness information, then calls
+        writeCompactGenotype(). */
+    public void writeCompactIndividual(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        dataOutput.writeBoolean(evaluated);
+        fitness.writeFitness(state,dataOutput);
+        writeCompactGenotype(state,dataOutput);
+        }
+
+    /** Reads the binary form of an individual written by writeCompactIndividual(...), erasing the previous
+        information stored in this Individual.  The default version of this method reads the evaluated and
+        fitness information, then calls readCompactGenotype(). */
+    public void readCompactIndividual(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        evaluated = dataInput.readBoolean();
+        fitness.readFitness(state,dataInput);
+        readCompactGenotype(state,dataInput);
+        }
+
+    /** Writes the genotypic information to a DataOutput in a compact form.  Largely called by
+        writeCompactIndividual(), and nothing else.  The default simply calls writeGenotype().  Override this
+        if your genotype has a considerably more compact form, such as writing an array in one go. */
+    public void writeCompactGenotype(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        writeGenotype(state,dataOutput);
+        }
+
+    /** Reads in the genotypic information written by writeCompactGenotype(), erasing the previous genotype
+        of this Individual.  The default simply calls readGenotype(). */
+    public void readCompactGenotype(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        readGenotype(state,dataInput);
+        }
     
     /** Returns the metric distance to another individual, if such a thing can be measured.
         Subclassess of Individual should implement this if it exists for their representation.
@@ -0,0 +1,300 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec;
+import ec.util.*;
+import java.io.*;
+import java.lang.management.*;
+import java.util.concurrent.*;
+
+/*
+ * JobScheduler.java
+ */
+
+/**
+ * JobScheduler runs the jobs of Evolve's main() loop concurrently, rather than one after another, when
+ * <tt>parallel-jobs</tt> is more than 1 or is <tt>auto</tt>.  At most <tt>parallel-jobs</tt> jobs run at any one time,
+ * each in its own thread.  Jobs are otherwise set up exactly as Evolve does it: each is initialized with its job
+ * number as its seed offset, and each has the file prefix <tt>job.</tt><i>n</i><tt>.</tt> for its output and
+ * checkpoint files.
+ *
+ * <p>The parameter database is loaded and parsed just once.  Each job gets its own private copy of it, made
+ * from the parsed copy in memory without reading any files, so jobs may still modify their parameters as they like.
+ *
+ * <p>If <tt>parallel-jobs</tt> is <tt>auto</tt>, the available cores are split between jobs and threads per job:
+ * as many jobs run at once as there are cores for the threads each job asks for (by <tt>evalthreads</tt> and
+ * <tt>breedthreads</tt>).  If <tt>evalthreads</tt> or <tt>breedthreads</tt> is <tt>auto</tt>, each job instead
+ * gets an equal share of the cores, and any seeds it is missing are set to <tt>time</tt>, as they are for
+ * <tt>auto</tt> threads in a single job.
+ *
+ * <p>When every job is done, a summary of each job's wall-clock time and CPU time is printed to stderr, and
+ * optionally to the file <tt>job-summary</tt>.  A job's CPU time is the total CPU time of the threads it started
+ * (directly or through its thread pools) which are still alive when the job ends, so it may miss threads which
+ * came and went during the run.
+ *
+ * <p>Jobs share a single JVM, so any static variables in your Problem or other classes are shared among jobs
+ * running at the same time.  And if one job has a fatal error, ECJ quits as always, taking the other jobs with it.
+ * If a job instead throws an exception, such as running out of memory, it is reported on stderr along with its
+ * stack trace, and marked as failed in the summary, and the other jobs carry on.
+ * If you restart from a checkpoint of job <i>n</i>, that job is finished and the jobs after <i>n</i> are run; any
+ * jobs before <i>n</i> which hadn't finished when the checkpoint was written are not restarted.
+
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><tt>parallel-jobs</tt><br>
+ <font size=-1>int &gt;= 1 (default is 1), or string = <tt>auto</tt></font></td>
+ <td valign=top>(the maximum number of jobs to run at once.  If 1, jobs are run one after another in the traditional way)</td></tr>
+
+ <tr><td valign=top><tt>job-summary</tt><br>
+ <font size=-1>File (default is none)</font></td>
+ <td valign=top>(a file to write the summary of job times to)</td></tr>
+ </table>
+*/
+
+public class JobScheduler
+    {
+    public static final String P_PARALLEL_JOBS = "parallel-jobs";
+    public static final String P_JOB_SUMMARY = "job-summary";
+
+    /** The runtime arguments. */
+    public String[] args;
+    /** The total number of jobs, as given by the <tt>jobs</tt> parameter. */
+    public int numJobs;
+    /** The maximum number of jobs run at once. */
+    public int parallelJobs;
+    /** The number of threads each job is given for <tt>evalthreads</tt> or <tt>breedthreads</tt> if they are <tt>auto</tt>. */
+    public int threadsPerJob;
+    /** The summary file, or null. */
+    public File summaryFile;
+
+    // the parsed parameter database, serialized, from which each job gets its own copy
+    byte[] parameters;
+
+    // per job
+    long[] wallTime;
+    long[] cpuTime;
+    String[] result;
+    Throwable[] failure;      // what ended the job, or null if it finished
+
+    static int availableProcessors()
+        {
+        return Runtime.getRuntime().availableProcessors();
+        }
+
+    static boolean isAuto(ParameterDatabase parameters, String parameter)
+        {
+        return Evolve.V_THREADS_AUTO.equalsIgnoreCase(parameters.getString(new Parameter(parameter), null));
+        }
+
+    /** Returns how many jobs should be run at once, given the parameters and the number of jobs remaining. */
+    public static int determineParallelJobs(ParameterDatabase parameters, int remainingJobs)
+        {
+        Parameter p = new Parameter(P_PARALLEL_JOBS);
+        if (!parameters.exists(p, null))
+            return 1;
+        int parallel;
+        if (isAuto(parameters, P_PARALLEL_JOBS))
+            {
+            // how many threads does each job need for itself?
+            int threads = 1;
+            if (!isAuto(parameters, Evolve.P_EVALTHREADS))
+                threads = Math.max(threads, parameters.getIntWithDefault(new Parameter(Evolve.P_EVALTHREADS), null, 1));
+            if (!isAuto(parameters, Evolve.P_BREEDTHREADS))
+                threads = Math.max(threads, parameters.getIntWithDefault(new Parameter(Evolve.P_BREEDTHREADS), null, 1));
+            parallel = Math.max(1, availableProcessors() / threads);
+            }
+        else
+            {
+            parallel = parameters.getInt(p, null, 1);
+            if (parallel < 1)
+                Output.initialError("The 'parallel-jobs' parameter must be >= 1 or 'auto' (or not exist, which defaults to 1)", true);
+            }
+        return Math.max(1, Math.min(parallel, remainingJobs));
+        }
+
+    /** Builds a JobScheduler for the given runtime arguments and the parameters loaded from them. */
+    public JobScheduler(String[] args, ParameterDatabase parameters, int numJobs, int parallelJobs)
+        {
+        this.args = args;
+        this.numJobs = numJobs;
+        this.parallelJobs = parallelJobs;
+        threadsPerJob = Math.max(1, availableProcessors() / parallelJobs);
+        summaryFile = parameters.getFile(new Parameter(P_JOB_SUMMARY), null);
+
+        try
+            {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream s = new ObjectOutputStream(bytes);
+            s.writeObject(parameters);
+            s.close();
+            this.parameters = bytes.toByteArray();
+            }
+        catch (IOException e)
+            {
+            Output.initialError("Could not copy the parameter database for the jobs:\n" + e, true);
+            }
+        }
+
+    /** Returns a fresh copy of the parameter database for the given job. */
+    public ParameterDatabase copyParameters(int job)
+        {
+        ParameterDatabase copy = null;
+        try
+            {
+            ObjectInputStream s = new ObjectInputStream(new ByteArrayInputStream(parameters));
+            copy = (ParameterDatabase)(s.readObject());
+            s.close();
+            }
+        catch (Exception e)
+            {
+            Output.initialError("Could not copy the parameter database for job " + job + ":\n" + e, true);
+            }
+
+        // split the cores among the jobs if the threads are automatic
+        boolean autoEval = isAuto(copy, Evolve.P_EVALTHREADS);
+        boolean autoBreed = isAuto(copy, Evolve.P_BREEDTHREADS);
+        if (autoEval || autoBreed)
+            {
+            if (autoEval) copy.set(new Parameter(Evolve.P_EVALTHREADS), "" + threadsPerJob);
+            if (autoBreed) copy.set(new Parameter(Evolve.P_BREEDTHREADS), "" + threadsPerJob);
+            int threads = Math.max(copy.getIntWithDefault(new Parameter(Evolve.P_EVALTHREADS), null, 1),
+                copy.getIntWithDefault(new Parameter(Evolve.P_BREEDTHREADS), null, 1));
+            for(int x = 0; x < threads; x++)
+                {
+                Parameter seed = new Parameter(Evolve.P_SEED).push("" + x);
+                if (!copy.exists(seed, null))
+                    copy.set(seed, Evolve.V_SEED_TIME);
+                }
+            }
+        return copy;
+        }
+
+    /** Runs jobs <i>firstJob</i> through numJobs - 1, at most parallelJobs at a time, then prints the summary. */
+    public void run(int firstJob)
+        {
+        wallTime = new long[numJobs];
+        cpuTime = new long[numJobs];
+        result = new String[numJobs];
+        failure = new Throwable[numJobs];
+        Output.initialMessage("Running jobs " + firstJob + " through " + (numJobs - 1) + ", " + parallelJobs +
+            " at a time, with " + threadsPerJob + " automatic thread(s) each");
+
+        long start = System.nanoTime();
+        final Semaphore permits = new Semaphore(parallelJobs);
+        Thread[] threads = new Thread[numJobs];
+        for(int job = firstJob; job < numJobs; job++)
+            {
+            permits.acquireUninterruptibly();
+            final int j = job;
+            // each job gets its own thread group, so we can find the threads it started
+            final ThreadGroup group = new ThreadGroup("ECJ Job " + job);
+            threads[job] = new Thread(group, new Runnable()
+                {
+                public void run()
+                    {
+                    try { runJob(j, group); }
+                    finally { permits.release(); }
+                    }
+                }, "ECJ Job " + job);
+            threads[job].start();
+            }
+        for(int job = firstJob; job < numJobs; job++)
+            {
+            boolean joined = false;
+            while(!joined)
+                {
+                try { threads[job].join(); joined = true; }
+                catch (InterruptedException e) { }
+                }
+            }
+        writeSummary(firstJob, System.nanoTime() - start);
+        }
+
+    /** Sets up and runs a single job, as Evolve's main() loop would. */
+    public void runJob(int job, ThreadGroup group)
+        {
+        long start = System.nanoTime();
+        try
+            {
+            EvolutionState state = Evolve.initialize(copyParameters(job), job);
+            state.output.systemMessage("Job: " + job);
+            state.job = new Object[1];
+            state.job[0] = Integer.valueOf(job);
+            state.runtimeArguments = args;
+            String jobFilePrefix = "job." + job + ".";
+            state.output.setFilePrefix(jobFilePrefix);
+            state.checkpointPrefix = jobFilePrefix + state.checkpointPrefix;
+
+            state.run(EvolutionState.C_STARTED_FRESH);
+            cpuTime[job] = cpuTime(group);
+            Evolve.cleanup(state);
+            result[job] = "done";
+            }
+        catch (Throwable e)  // such as an out of memory error caused by this job
+            {
+            cpuTime[job] = cpuTime(group);
+            result[job] = "failed: " + e;
+            failure[job] = e;
+            StringWriter trace = new StringWriter();
+            e.printStackTrace(new PrintWriter(trace));
+            Output.initialMessage("Job " + job + " failed:\n" + trace);
+            }
+        wallTime[job] = System.nanoTime() - start;
+        }
+
+    /** Returns the total CPU time, in nanoseconds, of the live threads in the given group, or -1 if this isn't supported. */
+    public static long cpuTime(ThreadGroup group)
+        {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadCpuTimeSupported())
+            return -1;
+        Thread[] threads = new Thread[group.activeCount() * 2 + 1];
+        int count = group.enumerate(threads, true);
+        long total = 0;
+        for(int i = 0; i < count; i++)
+            {
+            long time = bean.getThreadCpuTime(threads[i].getId());
+            if (time > 0) total += time;
+            }
+        return total;
+        }
+
+    static String seconds(long nanos)
+        {
+        return (nanos < 0 ? "?" : String.format("%.3f", nanos / 1.0e9));
+        }
+
+    void writeSummary(int firstJob, long totalWallTime)
+        {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.println("job\twall (s)\tcpu (s)\tresult");
+        long totalCpuTime = 0;
+        for(int job = firstJob; job < numJobs; job++)
+            {
+            out.println(job + "\t" + seconds(wallTime[job]) + "\t" + seconds(cpuTime[job]) + "\t" + result[job]);
+            if (cpuTime[job] > 0) totalCpuTime += cpuTime[job];
+            }
+        out.println("all\t" + seconds(totalWallTime) + "\t" + seconds(totalCpuTime) + "\t" + parallelJobs + " at a time");
+        out.flush();
+
+        Output.initialMessage("\nJob Summary\n===========\n" + text);
+        if (summaryFile != null)
+            {
+            try
+                {
+                PrintWriter file = new PrintWriter(new FileWriter(summaryFile));
+                file.print(text);
+                file.close();
+                }
+            catch (IOException e)
+                {
+                Output.initialMessage("Could not write the job summary to " + summaryFile + ":\n" + e);
+                }
+            }
+        }
+    }
@@ -105,6 +105,15 @@ public abstract class Problem implements Prototype
         {
         }
 
+    /** Returns true if evaluating the same individual always gives the same fitness, so the Evaluator may
+        give an individual the remembered fitness of an identical one rather than evaluating it (see
+        ec.simple.FitnessCache).  Override this to return false if your fitness is noisy or changes during
+        the run.  The default returns true. */
+    public boolean canCacheFitness()
+        {
+        return true;
+        }
+
     /** Called to set up remote evaluation network contacts when the run is started.  By default does nothing. */
     public void initializeContacts( EvolutionState state )
         {
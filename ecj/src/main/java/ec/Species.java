@@ -193,6 +193,24 @@ public abstract class Species implements Prototype
         // and we're ready!
         return newind;  
         }
+
+    /**
+       Provides an individual read from a DataInput source in the compact form
+       written by writeCompactIndividual(...), as newIndividual(state, dataInput) does
+       for the standard form.
+    */
+
+    public Individual newCompactIndividual(final EvolutionState state,
+        final DataInput dataInput)
+        throws IOException
+        {
+        Individual newind = (Individual)(i_prototype.clone());
+        newind.fitness = (Fitness)(f_prototype.clone());
+        newind.evaluated = false;
+        newind.species = this;
+        newind.readCompactIndividual(state,dataInput);
+        return newind;  
+        }
         
         
     /** The default version of setup(...) loads requested pipelines and calls setup(...) on them and normalizes their probabilities.  
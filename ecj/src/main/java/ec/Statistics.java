@@ -204,6 +204,15 @@ public class Statistics implements Singleton
             children[x].finalStatistics(state, result);
         }
     
+    /** PIPELINED: called by PipelinedEvolutionState's evaluation threads each time an individual of the given
+        subpopulation has been evaluated, while the rest of its generation is still being bred or evaluated.
+        Several threads may call this method at the same time, so overriding methods must be thread-safe. */
+    public void individualEvaluatedStatistics(final EvolutionState state, final Individual individual, final int subpop, final int threadnum)
+        {
+        for(int x=0;x<children.length;x++)
+            children[x].individualEvaluatedStatistics(state, individual, subpop, threadnum);
+        }
+    
     /** STEADY-STATE: called when we created an empty initial Population. */
     public void enteringInitialPopulationStatistics(final SteadyStateEvolutionState state)
         {
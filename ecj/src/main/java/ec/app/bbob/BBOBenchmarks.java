@@ -230,11 +230,19 @@ public class BBOBenchmarks extends Problem implements SimpleProblemForm {
             }else{
             xOpt = state.parameters.getDoublesWithMax(base.push(P_XOPT),null,-5,5,genomeSize);
             }
-        rotation = new double[genomeSize][genomeSize];
-        rot2 = new double[genomeSize][genomeSize];
-        linearTF = new double[genomeSize][genomeSize];
-        computeRotation(rotation, state.random[0], genomeSize);
-        computeRotation(rot2, state.random[0], genomeSize);
+        if (problemType <= LINEAR_SLOPE && noise == NONE) {
+            /* The noiseless separable functions never use the rotations, which
+               take O(genomeSize^2) memory and O(genomeSize^3) time to build, so we
+               only draw the random numbers they would have used. */
+            skipRotation(state.random[0], genomeSize);
+            skipRotation(state.random[0], genomeSize);
+            } else {
+            rotation = new double[genomeSize][genomeSize];
+            rot2 = new double[genomeSize][genomeSize];
+            linearTF = new double[genomeSize][genomeSize];
+            computeRotation(rotation, state.random[0], genomeSize);
+            computeRotation(rot2, state.random[0], genomeSize);
+            }
         scales = Math.max(1.0, Math.sqrt(genomeSize) / 8.);
 
         switch (problemType) {
@@ -1943,6 +1951,14 @@ public class BBOBenchmarks extends Problem implements SimpleProblemForm {
             }
         }
 
+    /* draws the same random numbers as computeRotation(...), so the rest of the
+       benchmark is the same whether or not we build the rotation */
+    void skipRotation(MersenneTwisterFast random, int genomeSize) {
+        long n = 2L * genomeSize * genomeSize;
+        for (long i = 0; i < n; i++)
+            nextDoubleClosedInterval(random);
+        }
+
     double fGauss(double fTrue, double beta, MersenneTwisterFast random) {
         double fVal = fTrue * Math.exp(beta * nextDoubleClosedInterval(random));
         fVal += 1.01 * TOL;
@@ -0,0 +1,92 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.app.command;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import ec.vector.DoubleVectorIndividual;
+import java.io.*;
+
+/**
+ * CommandBenchmark compares the throughput of CommandProblem when it forks the external command for every batch
+ * with that when it keeps a pool of persistent workers, in both the text and the binary encodings.  The command
+ * must understand both modes, as SpheroidWorker does.
+ *
+ * <p>Usage: <tt>java ec.app.command.CommandBenchmark [batches] [batch size] [genome length] [command]</tt>
+ *
+ * <p>The defaults are 20 batches of 100 genomes of length 50, evaluated by SpheroidWorker, run with this JVM's
+ * classpath through a temporary shell script.
+ */
+
+public class CommandBenchmark
+    {
+    static EvolutionState buildState(String command, String mode, String encoding)
+        {
+        EvolutionState state = new EvolutionState();
+        state.output = Evolve.buildOutput();
+        state.parameters = new ParameterDatabase();
+        state.evalthreads = 1;
+        Parameter base = new Parameter("problem");
+        state.parameters.set(base.push(CommandProblem.P_COMMAND), command);
+        state.parameters.set(base.push(CommandProblem.P_MODE), mode);
+        state.parameters.set(base.push(CommandProblem.P_ENCODING), encoding);
+        return state;
+        }
+
+    static double run(String command, String mode, String encoding, Individual[] batch, int batches)
+        {
+        EvolutionState state = buildState(command, mode, encoding);
+        CommandProblem problem = new CommandProblem();
+        problem.setup(state, new Parameter("problem"));
+        problem.evaluate(state, batch, null, false, null, 0);      // warm up, and start the workers
+        long start = System.nanoTime();
+        for(int i = 0; i < batches; i++)
+            problem.evaluate(state, batch, null, false, null, 0);
+        double seconds = (System.nanoTime() - start) / 1.0e9;
+        problem.closeContacts(state, EvolutionState.R_SUCCESS);
+        return batches * batch.length / seconds;
+        }
+
+    public static void main(String[] args) throws IOException
+        {
+        int batches = (args.length > 0 ? Integer.parseInt(args[0]) : 20);
+        int size = (args.length > 1 ? Integer.parseInt(args[1]) : 100);
+        int length = (args.length > 2 ? Integer.parseInt(args[2]) : 50);
+        String command;
+        if (args.length > 3) command = args[3];
+        else
+            {
+            File script = File.createTempFile("spheroid", ".sh");
+            script.deleteOnExit();
+            PrintWriter out = new PrintWriter(new FileWriter(script));
+            out.println("#!/bin/sh");
+            out.println("exec java -cp '" + System.getProperty("java.class.path") + "' ec.app.command.SpheroidWorker");
+            out.close();
+            script.setExecutable(true);
+            command = script.getPath();
+            }
+
+        java.util.Random random = new java.util.Random(0);
+        Individual[] batch = new Individual[size];
+        for(int i = 0; i < size; i++)
+            {
+            DoubleVectorIndividual ind = new DoubleVectorIndividual();
+            ind.genome = new double[length];
+            for(int j = 0; j < length; j++)
+                ind.genome[j] = random.nextDouble() * 10 - 5;
+            batch[i] = ind;
+            }
+
+        System.out.println("mode\tencoding\tgenomes/s");
+        System.out.println("fork\ttext\t" + String.format("%.0f", run(command, "fork", "text", batch, batches)));
+        System.out.println("persistent\ttext\t" + String.format("%.0f", run(command, "persistent", "text", batch, batches)));
+        System.out.println("persistent\tbinary\t" + String.format("%.0f", run(command, "persistent", "binary", batch, batches)));
+        }
+    }
@@ -9,6 +9,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import ec.EvolutionState;
@@ -24,22 +25,139 @@ import ec.vector.DoubleVectorIndividual;
 /**
  * A problem that ferries real-valued genomes out to an external shell command to have their 
  * fitnesses evaluated.
+ *
+ * <p>By default (<tt>mode = fork</tt>) the command is started anew for each batch of individuals.
+ * It is sent one line per individual, its genes separated by commas, and its stdin is then closed;
+ * it must answer with one fitness per line on its stdout and exit.
+ *
+ * <p>If starting the command takes much of the time, <tt>mode = persistent</tt> instead keeps a pool
+ * of long-lived copies of the command running (see CommandWorkerPool), by default one per evaluation
+ * thread, and sends each of them batch after batch.  The command must then understand the framed
+ * protocol described in CommandWorkerPool, in either the <tt>text</tt> or <tt>binary</tt> encoding.
+ * A worker which takes longer than <tt>timeout</tt> milliseconds to answer, or which exits, is restarted
+ * and the batch is tried again, up to <tt>retries</tt> times.
+ *
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><i>base</i>.<tt>command</tt><br>
+ <font size=-1>String</font></td>
+ <td valign=top>(the external command which computes fitnesses)</td></tr>
+
+ <tr><td valign=top><i>base</i>.<tt>error-file</tt><br>
+ <font size=-1>File (default is <tt>problem_err.txt</tt>)</font></td>
+ <td valign=top>(where the command's stderr is written)</td></tr>
+
+ <tr><td valign=top><i>base</i>.<tt>mode</tt><br>
+ <font size=-1>String, one of: <tt>fork</tt> (default) or <tt>persistent</tt></font></td>
+ <td valign=top>(start the command for every batch, or keep a pool of workers running)</td></tr>
+
+ <tr><td valign=top><i>base</i>.<tt>workers</tt><br>
+ <font size=-1>int &gt;= 1 (default is <tt>evalthreads</tt>)</font></td>
+ <td valign=top>(in persistent mode, how many workers to run)</td></tr>
+
+ <tr><td valign=top><i>base</i>.<tt>encoding</tt><br>
+ <font size=-1>String, one of: <tt>text</tt> (default) or <tt>binary</tt></font></td>
+ <td valign=top>(in persistent mode, how genomes and fitnesses are sent)</td></tr>
+
+ <tr><td valign=top><i>base</i>.<tt>timeout</tt><br>
+ <font size=-1>int &gt;= 0 (default is 0)</font></td>
+ <td valign=top>(in persistent mode, the milliseconds to wait for a worker to answer before restarting it, or 0 to wait forever)</td></tr>
+
+ <tr><td valign=top><i>base</i>.<tt>retries</tt><br>
+ <font size=-1>int &gt;= 0 (default is 1)</font></td>
+ <td valign=top>(in persistent mode, how many times to restart a failed worker and retry a batch before giving up)</td></tr>
+ </table>
  */
 public class CommandProblem extends Problem implements SimpleProblemForm, GroupedProblemForm
     {
     private static final long serialVersionUID = 1;
 
     public final static String P_COMMAND = "command";
+    public final static String P_ERROR_FILE = "error-file";
+    public final static String P_MODE = "mode";
+    public final static String P_WORKERS = "workers";
+    public final static String P_ENCODING = "encoding";
+    public final static String P_TIMEOUT = "timeout";
+    public final static String P_RETRIES = "retries";
+    public final static String V_FORK = "fork";
+    public final static String V_PERSISTENT = "persistent";
+    public final static String V_TEXT = "text";
+    public final static String V_BINARY = "binary";
+    public final static String DEFAULT_ERROR_FILE = "problem_err.txt";
     public final static String DELIMITER = ",";
 
     private ProcessBuilder processBuilder;
 
+    /** Whether we keep a pool of workers rather than starting the command for each batch. */
+    public boolean persistent;
+    public int workers;
+    public boolean binary;
+    public long timeout;
+    public int retries;
+
+    /** The worker pool, shared by all the clones of this Problem, or null if we're not persistent. */
+    transient CommandWorkerPool pool;
+
     public void setup(final EvolutionState state, final Parameter base)
         {
         final String command = state.parameters.getString(base.push(P_COMMAND), null);
         if (command == null)
             state.output.fatal(String.format("%s: no value given for parameter '%s', but we need a command to run.", this.getClass().getSimpleName(), base.push(P_COMMAND)));
         this.processBuilder = new ProcessBuilder(command);
+
+        File errorFile = state.parameters.getFile(base.push(P_ERROR_FILE), null);
+        if (errorFile == null) errorFile = new File(DEFAULT_ERROR_FILE);
+
+        String mode = state.parameters.getStringWithDefault(base.push(P_MODE), null, V_FORK);
+        if (mode.equalsIgnoreCase(V_PERSISTENT)) persistent = true;
+        else if (!mode.equalsIgnoreCase(V_FORK))
+            state.output.fatal("Mode must be either '" + V_FORK + "' or '" + V_PERSISTENT + "'.", base.push(P_MODE));
+
+        if (!persistent)
+            {
+            processBuilder.redirectError(errorFile);
+            return;
+            }
+
+        // all the workers write their stderr to the same file
+        processBuilder.redirectError(ProcessBuilder.Redirect.appendTo(errorFile));
+
+        workers = state.evalthreads;
+        if (state.parameters.exists(base.push(P_WORKERS), null))
+            {
+            workers = state.parameters.getInt(base.push(P_WORKERS), null, 1);
+            if (workers < 1)
+                state.output.fatal("The number of workers must be >= 1.", base.push(P_WORKERS));
+            }
+
+        String encoding = state.parameters.getStringWithDefault(base.push(P_ENCODING), null, V_TEXT);
+        if (encoding.equalsIgnoreCase(V_BINARY)) binary = true;
+        else if (!encoding.equalsIgnoreCase(V_TEXT))
+            state.output.fatal("Encoding must be either '" + V_TEXT + "' or '" + V_BINARY + "'.", base.push(P_ENCODING));
+
+        timeout = state.parameters.getLongWithDefault(base.push(P_TIMEOUT), null, 0);
+        if (timeout < 0)
+            state.output.fatal("The timeout must be >= 0.", base.push(P_TIMEOUT));
+
+        retries = state.parameters.getIntWithDefault(base.push(P_RETRIES), null, 1);
+        if (retries < 0)
+            state.output.fatal("The number of retries must be >= 0.", base.push(P_RETRIES));
+
+        pool = new CommandWorkerPool(processBuilder, workers, binary, timeout, retries);
+        }
+
+    /** Starts a new worker pool if we're restarting from a checkpoint, since the old workers are gone. */
+    public void reinitializeContacts(EvolutionState state)
+        {
+        if (persistent && pool == null)
+            pool = new CommandWorkerPool(processBuilder, workers, binary, timeout, retries);
+        }
+
+    /** Shuts down the worker pool. */
+    public void closeContacts(EvolutionState state, int result)
+        {
+        if (pool != null)
+            pool.close();
         }
 
 	@Override
@@ -77,17 +195,24 @@ public class CommandProblem extends Problem implements SimpleProblemForm, Groupe
         
         try
             {
-            final String simulationResult = runCommand(individuals);
-            final List<Double> fitnesses = parseFitnesses(simulationResult);
+            final double[] fitnesses;
+            if (persistent)
+                {
+                final double[][] genomes = new double[individuals.length][];
+                for (int i = 0; i < individuals.length; i++)
+                    genomes[i] = ((DoubleVectorIndividual) individuals[i]).genome;
+                fitnesses = pool.evaluate(genomes);
+                }
+            else fitnesses = runCommand(individuals);
 
-            if (fitnesses.size() != individuals.length)
-                    throw new IllegalStateException(String.format("Sent %d individuals to external command, but the returned simulation results had %d lines.", CommandProblem.class.getSimpleName(), individuals.length, fitnesses.size()));
+            if (fitnesses.length != individuals.length)
+                    throw new IllegalStateException(String.format("Sent %d individuals to external command, but the returned simulation results had %d lines.", individuals.length, fitnesses.length));
                 
             for (int i = 0; i < individuals.length; i++)
                 {
                 final Individual ind = individuals[i];
                 ind.fitness = new SimpleFitness();
-                ((SimpleFitness)ind.fitness).setFitness(state, fitnesses.get(i), false);
+                ((SimpleFitness)ind.fitness).setFitness(state, fitnesses[i], false);
                 ind.evaluated = true;
                 }
             }
@@ -112,13 +237,12 @@ public class CommandProblem extends Problem implements SimpleProblemForm, Groupe
      * it is given.
      * 
      * @param individuals Array of DoubleVectorIndividuals to be sent to the command.
-     * @return The results the command writes back.
+     * @return The fitnesses the command writes back, one per line.
      * @throws IOException
      * @throws InterruptedException
      */
-    private String runCommand(final Individual[] individuals) throws IOException, InterruptedException
+    private double[] runCommand(final Individual[] individuals) throws IOException, InterruptedException
         {
-        processBuilder.redirectError(new File("problem_err.txt"));  // TODO Make this filename a parameter
         final Process p = processBuilder.start();
 
         // Write genomes to the command's stdin
@@ -130,14 +254,23 @@ public class CommandProblem extends Problem implements SimpleProblemForm, Groupe
         if (exitCode != 0)
             throw new IllegalStateException(String.format("External command terminated with exit code %d.", exitCode));
 
-        // Read the output from the command's stdout
-        final StringBuilder sb = new StringBuilder();
+        // Read the fitnesses from the command's stdout
         final BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        double[] fitnesses = new double[individuals.length];
+        int count = 0;
         String line = "";			
-        while ((line = reader.readLine())!= null) {
-            sb.append(line).append(System.getProperty("line.separator"));
-        }
-        return sb.toString();
+        while ((line = reader.readLine())!= null)
+            {
+            if (count == fitnesses.length) fitnesses = Arrays.copyOf(fitnesses, count * 2 + 1);
+            try { fitnesses[count++] = Double.parseDouble(line.trim()); }
+            catch (NumberFormatException e)
+                {
+                throw new IllegalArgumentException(String.format("%s: error (%s) while parsing fitness response \"%s\"", CommandProblem.class.getSimpleName(), e, line));
+                }
+            }
+        if (count == 0)
+            throw new IllegalArgumentException(String.format("%s: response from external fitness command was empty.", CommandProblem.class.getSimpleName()));
+        return Arrays.copyOf(fitnesses, count);
         }
     
     /** Take a list of DoubleVectorIndividuals and output them to a tab-delimited file.
@@ -164,6 +297,19 @@ public class CommandProblem extends Problem implements SimpleProblemForm, Groupe
             }
         }
 
+    /** Appends a genome to sb as a line of comma-separated genes, for the persistent workers.  Unlike
+        writeIndividuals(...), which keeps the format that existing commands expect, genes are written
+        at full precision and lines always end in '\n'. */
+    static void appendGenome(final double[] genome, final StringBuilder sb)
+        {
+        for (int i = 0; i < genome.length; i++)
+            {
+            if (i > 0) sb.append(DELIMITER);
+            sb.append(genome[i]);
+            }
+        sb.append('\n');
+        }
+
     /**
      * Parse the String of results that we get back from the external command by
      * interpreting it as a list of fitness values, one per line.
@@ -0,0 +1,254 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.app.command;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of long-lived worker processes for CommandProblem.  Each worker is a copy of the external command,
+ * started once and then sent batch after batch of genomes over its stdin, answering each with the batch's fitnesses
+ * on its stdout.  A batch goes to whichever worker is free; if none is, the evaluating thread waits for one.
+ *
+ * <p>Batches are framed so that the worker knows where each ends.  In the text encoding, a batch is the line
+ * <tt>T</tt> <i>n</i>, followed by <i>n</i> lines of comma-separated genes (as in the fork-per-batch mode, but at full precision), and
+ * the worker answers with <i>n</i> lines, one fitness per line.  In the binary encoding, a batch is the line
+ * <tt>B</tt> <i>n</i> <i>length</i>, followed by <i>n</i> &times; <i>length</i> genes as 8-byte big-endian doubles
+ * (as written by DataOutputStream), and the worker answers with <i>n</i> fitnesses as 8-byte big-endian doubles.
+ * A worker should exit when its stdin is closed.  See SpheroidWorker for an example.
+ *
+ * <p>If a worker doesn't answer within the timeout, or exits, or answers with garbage, it is killed and a new
+ * one is started in its place, and the batch is sent to the new worker.  If that fails too, up to the given
+ * number of retries, evaluate(...) gives up and throws an IOException.
+ */
+
+public class CommandWorkerPool
+    {
+    final ProcessBuilder builder;
+    final int size;
+    final boolean binary;
+    final long timeout;
+    final int retries;
+
+    final BlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+    final ArrayList<Worker> workers = new ArrayList<Worker>();
+    boolean closed;
+
+    final AtomicLong batches = new AtomicLong();
+    final AtomicLong restarts = new AtomicLong();
+
+    /** Builds a pool of <i>size</i> workers, each running the command given by <i>builder</i>.  If <i>timeout</i> is
+        more than 0, a worker which takes more than <i>timeout</i> milliseconds to answer is restarted.
+        Workers aren't started until they're first needed. */
+    public CommandWorkerPool(ProcessBuilder builder, int size, boolean binary, long timeout, int retries)
+        {
+        this.builder = builder;
+        this.size = size;
+        this.binary = binary;
+        this.timeout = timeout;
+        this.retries = retries;
+        for(int i = 0; i < size; i++)
+            {
+            Worker worker = new Worker(i);
+            workers.add(worker);
+            idle.add(worker);
+            }
+        }
+
+    /** Sends the genomes to a free worker and returns their fitnesses. */
+    public double[] evaluate(double[][] genomes) throws IOException, InterruptedException
+        {
+        Worker worker = idle.take();
+        try
+            {
+            for(int attempt = 0; ; attempt++)
+                {
+                try
+                    {
+                    double[] fitnesses = worker.evaluate(genomes);
+                    batches.incrementAndGet();
+                    return fitnesses;
+                    }
+                catch (IOException e)
+                    {
+                    worker.stop();
+                    restarts.incrementAndGet();
+                    if (attempt >= retries)
+                        throw new IOException("Worker " + worker.number + " failed " + (attempt + 1) + " time(s): " + e.getMessage(), e);
+                    }
+                }
+            }
+        finally
+            {
+            idle.add(worker);
+            }
+        }
+
+    /** Closes the workers' stdins, waits briefly for them to exit, and kills any which haven't. */
+    public void close()
+        {
+        synchronized(this) { closed = true; }
+        for(Worker worker : workers)
+            worker.close();
+        }
+
+    /** Returns the number of batches evaluated so far. */
+    public long getBatches() { return batches.get(); }
+
+    /** Returns the number of times a worker was killed and restarted because it failed. */
+    public long getRestarts() { return restarts.get(); }
+
+    /** Returns the number of workers. */
+    public int getSize() { return size; }
+
+
+    class Worker
+        {
+        final int number;
+        Process process;
+        DataOutputStream out;
+        DataInputStream in;                 // binary answers
+        BufferedReader reader;              // text answers
+        ExecutorService waiter;             // reads answers when there's a timeout
+
+        Worker(int number)
+            {
+            this.number = number;
+            }
+
+        void start() throws IOException
+            {
+            synchronized(CommandWorkerPool.this)
+                {
+                if (closed) throw new IOException("The worker pool has been closed");
+                process = builder.start();
+                }
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            if (binary) in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            else reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            }
+
+        double[] evaluate(final double[][] genomes) throws IOException
+            {
+            if (process == null) start();
+            write(genomes);
+
+            if (timeout <= 0)
+                return read(genomes.length);
+
+            if (waiter == null)
+                waiter = Executors.newSingleThreadExecutor(new ThreadFactory()
+                    {
+                    public Thread newThread(Runnable r)
+                        {
+                        Thread thread = new Thread(r, "CommandWorkerPool Worker " + number);
+                        thread.setDaemon(true);
+                        return thread;
+                        }
+                    });
+            Future<double[]> answer = waiter.submit(new Callable<double[]>()
+                {
+                public double[] call() throws IOException { return read(genomes.length); }
+                });
+            try
+                {
+                return answer.get(timeout, TimeUnit.MILLISECONDS);
+                }
+            catch (TimeoutException e)
+                {
+                answer.cancel(true);
+                throw new IOException("no answer within " + timeout + " ms");
+                }
+            catch (ExecutionException e)
+                {
+                if (e.getCause() instanceof IOException) throw (IOException)(e.getCause());
+                throw new IOException(e.getCause());
+                }
+            catch (InterruptedException e)
+                {
+                answer.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted");
+                }
+            }
+
+        void write(double[][] genomes) throws IOException
+            {
+            if (binary)
+                {
+                int length = (genomes.length == 0 ? 0 : genomes[0].length);
+                // check before writing anything, so a bad batch never leaves half a frame in the buffer
+                for(int i = 0; i < genomes.length; i++)
+                    if (genomes[i].length != length)
+                        throw new IllegalArgumentException("All genomes in a binary batch must be the same length");
+                out.writeBytes("B " + genomes.length + " " + length + "\n");
+                for(int i = 0; i < genomes.length; i++)
+                    for(int j = 0; j < length; j++)
+                        out.writeDouble(genomes[i][j]);
+                }
+            else
+                {
+                StringBuilder sb = new StringBuilder();
+                sb.append("T ").append(genomes.length).append('\n');
+                for(int i = 0; i < genomes.length; i++)
+                    CommandProblem.appendGenome(genomes[i], sb);
+                out.writeBytes(sb.toString());
+                }
+            out.flush();
+            }
+
+        double[] read(int n) throws IOException
+            {
+            double[] fitnesses = new double[n];
+            if (binary)
+                for(int i = 0; i < n; i++)
+                    fitnesses[i] = in.readDouble();     // EOFException if the worker died
+            else
+                for(int i = 0; i < n; i++)
+                    {
+                    String line = reader.readLine();
+                    if (line == null)
+                        throw new EOFException("the worker exited after " + i + " of " + n + " fitnesses");
+                    try { fitnesses[i] = Double.parseDouble(line.trim()); }
+                    catch (NumberFormatException e) { throw new IOException("bad fitness \"" + line + "\""); }
+                    }
+            return fitnesses;
+            }
+
+        // kills the process; the next batch starts a new one
+        void stop()
+            {
+            if (waiter != null)
+                {
+                waiter.shutdownNow();
+                waiter = null;
+                }
+            if (process != null)
+                {
+                process.destroyForcibly();
+                process = null;
+                }
+            }
+
+        void close()
+            {
+            if (process != null)
+                {
+                try
+                    {
+                    out.close();    // EOF
+                    process.waitFor(1, TimeUnit.SECONDS);
+                    }
+                catch (IOException e) { }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                }
+            stop();
+            }
+        }
+    }
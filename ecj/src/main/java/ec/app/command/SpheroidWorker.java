@@ -0,0 +1,121 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.app.command;
+
+import java.io.*;
+
+/**
+ * An example external fitness command for CommandProblem, which computes the spheroid function (the sum of
+ * the squares of the genes), like spheroid.sh.  It understands both of CommandProblem's modes.  If the first line
+ * it reads starts with <tt>T</tt> or <tt>B</tt>, it is a persistent worker and answers framed batches (see
+ * CommandWorkerPool) until its stdin is closed.  Otherwise it reads one genome per line until its stdin is
+ * closed, then prints their fitnesses, as CommandProblem's fork mode expects.
+ *
+ * <p>Usage: <tt>java ec.app.command.SpheroidWorker [delay in milliseconds per batch]</tt>
+ *
+ * <p>The optional delay simulates a slower fitness function.
+ */
+
+public class SpheroidWorker
+    {
+    static long delay;
+
+    static double spheroid(double[] genome)
+        {
+        double sum = 0;
+        for(int i = 0; i < genome.length; i++)
+            sum += genome[i] * genome[i];
+        return sum;
+        }
+
+    static double spheroid(String line)
+        {
+        double sum = 0;
+        String[] genes = line.split(CommandProblem.DELIMITER);
+        for(int i = 0; i < genes.length; i++)
+            {
+            double gene = Double.parseDouble(genes[i].trim());
+            sum += gene * gene;
+            }
+        return sum;
+        }
+
+    static void pause()
+        {
+        if (delay > 0)
+            try { Thread.sleep(delay); } catch (InterruptedException e) { }
+        }
+
+    // reads a line of ASCII text from a binary stream, or returns null at EOF
+    static String readLine(DataInputStream in) throws IOException
+        {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while((c = in.read()) != '\n')
+            {
+            if (c == -1) return (sb.length() == 0 ? null : sb.toString());
+            sb.append((char)c);
+            }
+        return sb.toString();
+        }
+
+    public static void main(String[] args) throws IOException
+        {
+        if (args.length > 0) delay = Long.parseLong(args[0]);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out));
+
+        String line = readLine(in);
+        if (line == null) return;
+        if (!line.startsWith("T ") && !line.startsWith("B "))
+            {
+            // fork mode: one genome per line until EOF
+            StringBuilder sb = new StringBuilder();
+            while(line != null)
+                {
+                if (line.trim().length() > 0)
+                    sb.append(spheroid(line)).append('\n');
+                line = readLine(in);
+                }
+            pause();
+            out.writeBytes(sb.toString());
+            out.flush();
+            return;
+            }
+
+        // persistent mode
+        while(line != null)
+            {
+            String[] header = line.trim().split(" ");
+            int n = Integer.parseInt(header[1]);
+            if (header[0].equals("B"))
+                {
+                double[] genome = new double[Integer.parseInt(header[2])];
+                double[] fitnesses = new double[n];
+                for(int i = 0; i < n; i++)
+                    {
+                    for(int j = 0; j < genome.length; j++)
+                        genome[j] = in.readDouble();
+                    fitnesses[i] = spheroid(genome);
+                    }
+                pause();
+                for(int i = 0; i < n; i++)
+                    out.writeDouble(fitnesses[i]);
+                }
+            else
+                {
+                StringBuilder sb = new StringBuilder();
+                for(int i = 0; i < n; i++)
+                    sb.append(spheroid(readLine(in))).append('\n');
+                pause();
+                out.writeBytes(sb.toString());
+                }
+            out.flush();
+            line = readLine(in);
+            }
+        }
+    }
@@ -663,6 +663,8 @@ public class Benchmarks extends GPProblem implements SimpleProblemForm
     public double[] trainingOutputs;
     public double[][] testingInputs;
     public double[] testingOutputs;
+    /** trainingInputs stored by column rather than by row, for batch evaluation. */
+    public double[][] trainingColumns;
 
     // don't bother cloning the inputs and outputs; they're read-only :-)
     // don't bother cloning the current value, it's only set during evaluation
@@ -843,6 +845,10 @@ public class Benchmarks extends GPProblem implements SimpleProblemForm
                     param);
             else state.output.message("Using function set " + pval);
             }
+
+        // set up the columns for batch evaluation now, before we're cloned
+        if (batch != null)
+            trainingColumns = GPBatchEvaluator.columns(trainingInputs);
         }
 
 
@@ -857,15 +863,40 @@ public class Benchmarks extends GPProblem implements SimpleProblemForm
         {
         if (!ind.evaluated)  // don't bother reevaluating
             {
-            RegressionData input = (RegressionData)(this.input);
+            final RegressionData input = (RegressionData)(this.input);
+
+            // evaluate the tree on all cases at once, or compile it, if we've been asked to
+            double[] results = null;
+            GPCompiledTree compiled = null;
+            GPCompiledTree.Interpreter interpreter = null;
+            if (batch != null)
+                {
+                if (trainingColumns == null)  // batch was turned on after setup
+                    trainingColumns = GPBatchEvaluator.columns(trainingInputs);
+                interpreter = new Interpreter(state, threadnum, (GPIndividual)ind);
+                results = batch.evaluate(((GPIndividual)ind).trees[0].child,
+                    trainingColumns, trainingInputs.length, interpreter);
+                }
+            else if (compiler != null)
+                {
+                compiled = compiler.compile(state, ((GPIndividual)ind).trees[0].child);
+                interpreter = new Interpreter(state, threadnum, (GPIndividual)ind);
+                }
 
             int hits = 0;
             double sum = 0.0;
             for (int y=0;y<trainingInputs.length;y++)
                 {
-                currentValue = trainingInputs[y];
-                ((GPIndividual)ind).trees[0].child.eval(
-                    state,threadnum,input,stack,((GPIndividual)ind),this);
+                if (results != null)
+                    input.x = results[y];
+                else if (compiled != null)
+                    input.x = compiled.eval(trainingInputs[y], interpreter);
+                else
+                    {
+                    currentValue = trainingInputs[y];
+                    ((GPIndividual)ind).trees[0].child.eval(
+                        state,threadnum,input,stack,((GPIndividual)ind),this);
+                    }
 
                 double error = error(input.x, trainingOutputs[y]);
                                 
@@ -885,6 +916,29 @@ public class Benchmarks extends GPProblem implements SimpleProblemForm
         }
 
 
+    /** Evaluates the subtrees of compiled or batch-evaluated trees which could not themselves
+        be compiled or batch-evaluated. */
+    class Interpreter implements GPCompiledTree.Interpreter
+        {
+        EvolutionState state;
+        int threadnum;
+        GPIndividual ind;
+        
+        Interpreter(EvolutionState state, int threadnum, GPIndividual ind)
+            {
+            this.state = state;
+            this.threadnum = threadnum;
+            this.ind = ind;
+            }
+        
+        public double interpret(GPNode node, double[] variables)
+            {
+            currentValue = variables;
+            node.eval(state, threadnum, input, stack, ind, Benchmarks.this);
+            return ((RegressionData)input).x;
+            }
+        }
+
     public void describe(EvolutionState state, Individual ind, int subpopulation, int threadnum, int log)
         {
         RegressionData input = (RegressionData)(this.input);
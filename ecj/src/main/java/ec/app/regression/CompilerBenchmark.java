@@ -0,0 +1,135 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.app.regression;
+import ec.*;
+import ec.gp.*;
+import ec.gp.koza.*;
+import ec.util.*;
+import java.util.*;
+
+/**
+ * CompilerBenchmark compares the speed of evaluating GP trees with the ordinary
+ * interpreter against evaluating them with ec.gp.GPCompiler, on a selection of the
+ * problems in Benchmarks.  For each problem it builds a random initial population
+ * (ramped half-and-half, as set up by benchmark.params), then times repeated
+ * evaluation of the whole population, first interpreted, then compiled.  The first
+ * compiled pass, which includes compiling every tree, is reported separately from the
+ * later passes, which are served from the GPCompiler's cache.  Last it times evaluating the
+ * population with ec.gp.GPBatchEvaluator, which evaluates each tree on all fitness cases at
+ * once.  It also checks that all three approaches compute the same fitnesses.
+ *
+ * <p>Usage: <tt>java ec.app.regression.CompilerBenchmark [popsize] [repetitions] [benchmark ...]</tt>
+ *
+ * <p>By default the population size is 1024, there are 10 repetitions, and the
+ * benchmarks are koza-1, nguyen-5, pagie-1, keijzer-6, and korns-12.
+ */
+
+public class CompilerBenchmark
+    {
+    public static final String[] DEFAULT_BENCHMARKS = { "koza-1", "nguyen-5", "pagie-1", "keijzer-6", "korns-12" };
+
+    public static void main(String[] args)
+        {
+        int popsize = (args.length > 0 ? Integer.parseInt(args[0]) : 1024);
+        int repetitions = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+        String[] benchmarks = DEFAULT_BENCHMARKS;
+        if (args.length > 2)
+            benchmarks = Arrays.copyOfRange(args, 2, args.length);
+
+        System.out.println("Benchmark\tCases\tInterpreted (ms)\tCompiled, cold (ms)\tCompiled, warm (ms)\tSpeedup\tMismatches\tBatch (ms)\tSpeedup\tMismatches");
+        for(int i = 0; i < benchmarks.length; i++)
+            run(benchmarks[i], popsize, repetitions);
+        }
+
+    static void run(String benchmark, int popsize, int repetitions)
+        {
+        int b = -1;
+        for(int i = 0; i < Benchmarks.names.length; i++)
+            if (Benchmarks.names[i].equals(benchmark))
+                b = i;
+        if (b == -1)
+            {
+            System.out.println(benchmark + "\tunknown benchmark");
+            return;
+            }
+
+        ParameterDatabase parameters = Evolve.loadParameterDatabase(new String[]
+            {
+            "-from", "app/regression/benchmark.params",
+            "-p", "silent=true",
+            "-p", "seed.0=" + (b + 1),
+            "-p", "pop.subpop.0.size=" + popsize,
+            "-p", "eval.problem.type=" + benchmark,
+            "-p", "gp.tc.0.fset=" + Benchmarks.fs[b],
+            });
+        EvolutionState state = Evolve.initialize(parameters, 0);
+        state.startFresh();
+
+        Benchmarks problem = (Benchmarks)(state.evaluator.p_problem);
+        ArrayList<Individual> inds = state.population.subpops.get(0).individuals;
+
+        // interpreted
+        problem.compiler = null;
+        problem.batch = null;
+        double[] interpreted = new double[inds.size()];
+        long interpretedTime = 0;
+        for(int r = 0; r < repetitions; r++)
+            interpretedTime += time(state, problem, inds, interpreted);
+
+        // compiled
+        problem.compiler = new GPCompiler();
+        double[] compiled = new double[inds.size()];
+        long coldTime = time(state, problem, inds, compiled);
+        long warmTime = 0;
+        for(int r = 0; r < repetitions; r++)
+            warmTime += time(state, problem, inds, compiled);
+
+        // batch
+        problem.compiler = null;
+        problem.batch = new GPBatchEvaluator();
+        double[] batched = new double[inds.size()];
+        long batchTime = 0;
+        for(int r = 0; r < repetitions; r++)
+            batchTime += time(state, problem, inds, batched);
+
+        System.out.println(benchmark + "\t" + problem.trainingInputs.length + "\t" +
+            (interpretedTime / 1000000 / repetitions) + "\t" +
+            (coldTime / 1000000) + "\t" +
+            (warmTime / 1000000 / repetitions) + "\t" +
+            (warmTime == 0 ? "-" : String.format("%.2f", interpretedTime / (double)warmTime)) + "\t" +
+            mismatches(interpreted, compiled) + "\t" +
+            (batchTime / 1000000 / repetitions) + "\t" +
+            (batchTime == 0 ? "-" : String.format("%.2f", interpretedTime / (double)batchTime)) + "\t" +
+            mismatches(interpreted, batched));
+        Evolve.cleanup(state);
+        }
+
+    // Returns the number of fitnesses which are not identical
+    static int mismatches(double[] a, double[] b)
+        {
+        int mismatches = 0;
+        for(int i = 0; i < a.length; i++)
+            if (Double.doubleToLongBits(a[i]) != Double.doubleToLongBits(b[i]))
+                mismatches++;
+        return mismatches;
+        }
+
+    // Evaluates every individual once, storing standardized fitnesses, and returns the time in nanoseconds
+    static long time(EvolutionState state, Benchmarks problem, ArrayList<Individual> inds, double[] fitnesses)
+        {
+        long start = System.nanoTime();
+        for(int i = 0; i < inds.size(); i++)
+            {
+            Individual ind = inds.get(i);
+            ind.evaluated = false;
+            problem.evaluate(state, ind, 0, 0);
+            fitnesses[i] = ((KozaFitness)(ind.fitness)).standardizedFitness();
+            }
+        return System.nanoTime() - start;
+        }
+    }
@@ -154,14 +154,41 @@ public class Regression extends GPProblem implements SimpleProblemForm
             {
             RegressionData input = (RegressionData)(this.input);
 
+            // evaluate the tree on all cases at once, or compile it, if we've been asked to
+            double[] results = null;
+            GPCompiledTree compiled = null;
+            GPCompiledTree.Interpreter interpreter = null;
+            double[] variables = new double[1];
+            if (batch != null)
+                {
+                interpreter = new Interpreter(state, threadnum, (GPIndividual)ind);
+                results = batch.evaluate(((GPIndividual)ind).trees[0].child,
+                    new double[][] { inputs }, trainingSetSize, interpreter);
+                }
+            else if (compiler != null)
+                {
+                compiled = compiler.compile(state, ((GPIndividual)ind).trees[0].child);
+                interpreter = new Interpreter(state, threadnum, (GPIndividual)ind);
+                }
+
             int hits = 0;
             double sum = 0.0;
             double result;
             for (int y=0;y<trainingSetSize;y++)
                 {
-                currentValue = inputs[y];
-                ((GPIndividual)ind).trees[0].child.eval(
-                    state,threadnum,input,stack,((GPIndividual)ind),this);
+                if (results != null)
+                    input.x = results[y];
+                else if (compiled != null)
+                    {
+                    variables[0] = inputs[y];
+                    input.x = compiled.eval(variables, interpreter);
+                    }
+                else
+                    {
+                    currentValue = inputs[y];
+                    ((GPIndividual)ind).trees[0].child.eval(
+                        state,threadnum,input,stack,((GPIndividual)ind),this);
+                    }
 
                 // It's possible to get NaN because cos(infinity) and
                 // sin(infinity) are undefined (hence cos(exp(3000)) zings ya!)
@@ -198,4 +225,27 @@ public class Regression extends GPProblem implements SimpleProblemForm
             ind.evaluated = true;
             }
         }
+
+    /** Evaluates the subtrees of compiled or batch-evaluated trees which could not themselves
+        be compiled or batch-evaluated. */
+    class Interpreter implements GPCompiledTree.Interpreter
+        {
+        EvolutionState state;
+        int threadnum;
+        GPIndividual ind;
+        
+        Interpreter(EvolutionState state, int threadnum, GPIndividual ind)
+            {
+            this.state = state;
+            this.threadnum = threadnum;
+            this.ind = ind;
+            }
+        
+        public double interpret(GPNode node, double[] variables)
+            {
+            currentValue = variables[0];
+            node.eval(state, threadnum, input, stack, ind, Regression.this);
+            return ((RegressionData)input).x;
+            }
+        }
     }
@@ -23,7 +23,7 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class Add extends GPNode
+public class Add extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     public String toString() { return "+"; }
 
@@ -43,6 +43,19 @@ public class Add extends GPNode
     public int expectedChildren() { return 2; }
 
 
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.add();
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        double[] b = children[1];
+        for(int i = 0; i < length; i++)
+            result[i] = a[i] + b[i];
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
@@ -27,12 +27,27 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class Cube extends GPNode
+public class Cube extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     public String toString() { return "cube"; }
 
     public int expectedChildren() { return 1; }
 
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.dup();
+        emitter.dup();
+        emitter.multiply();
+        emitter.multiply();
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        for(int i = 0; i < length; i++)
+            result[i] = a[i] * a[i] * a[i];
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
@@ -23,7 +23,7 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class Div extends GPNode
+public class Div extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     public String toString() { return "%"; }
 
@@ -42,6 +42,25 @@ public class Div extends GPNode
     */
     public int expectedChildren() { return 2; }
 
+    /** The protected division computed by this node: 1.0 if the denominator is 0.0. */
+    public static double div(double numerator, double denominator)
+        {
+        return (denominator == 0.0 ? 1.0 : numerator / denominator);
+        }
+
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.invoke(Div.class, "div", 2);
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        double[] b = children[1];
+        for(int i = 0; i < length; i++)
+            result[i] = div(a[i], b[i]);
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
@@ -28,12 +28,30 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class Inv extends GPNode
+public class Inv extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     public String toString() { return "1/"; }
 
     public int expectedChildren() { return 1; }
 
+    /** The function computed by this node. */
+    public static double inv(double x)
+        {
+        return 1.0 / x;
+        }
+
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.invoke(Inv.class, "inv", 1);
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        for(int i = 0; i < length; i++)
+            result[i] = inv(a[i]);
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
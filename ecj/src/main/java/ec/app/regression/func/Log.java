@@ -23,7 +23,7 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class Log extends GPNode
+public class Log extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     private static final long serialVersionUID = 1;
 
@@ -44,6 +44,24 @@ public class Log extends GPNode
     */
     public int expectedChildren() { return 1; }
 
+    /** The protected log computed by this node: log |x|, or 0.0 if x is 0.0. */
+    public static double rlog(double x)
+        {
+        return (x == 0.0 ? 0.0 : /*Strict*/Math.log(/*Strict*/Math.abs(x)));
+        }
+
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.invoke(Log.class, "rlog", 1);
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        for(int i = 0; i < length; i++)
+            result[i] = rlog(a[i]);
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
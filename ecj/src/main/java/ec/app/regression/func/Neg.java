@@ -26,12 +26,30 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class Neg extends GPNode
+public class Neg extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     public String toString() { return "0-"; }
 
     public int expectedChildren() { return 1; }
 
+    /** The function computed by this node.  This is 0.0 - x rather than -x, which differs when x is 0.0. */
+    public static double neg(double x)
+        {
+        return 0.0 - x;
+        }
+
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.invoke(Neg.class, "neg", 1);
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        for(int i = 0; i < length; i++)
+            result[i] = neg(a[i]);
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
@@ -25,12 +25,30 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class NegExp extends GPNode
+public class NegExp extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     public String toString() { return "negexp"; }
 
     public int expectedChildren() { return 1; }
 
+    /** The function computed by this node. */
+    public static double negexp(double x)
+        {
+        return Math.exp(0 - x);
+        }
+
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.invoke(NegExp.class, "negexp", 1);
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        for(int i = 0; i < length; i++)
+            result[i] = negexp(a[i]);
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
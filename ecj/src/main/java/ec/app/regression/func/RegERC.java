@@ -11,6 +11,7 @@ import ec.app.regression.*;
 import ec.gp.*;
 import ec.util.*;
 import java.io.*;
+import java.util.*;
 
 
 /* 
@@ -25,7 +26,7 @@ import java.io.*;
  * @version 1.0 
  */
 
-public class RegERC extends ERC
+public class RegERC extends ERC implements GPCompilable, GPBatchEvaluable
     {
     public double value;
 
@@ -96,6 +97,16 @@ public class RegERC extends ERC
     public String toStringForHumans()
         { return "" + value; }
 
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.constant(value);
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        Arrays.fill(result, 0, length, value);
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
@@ -23,7 +23,7 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class Sin extends GPNode
+public class Sin extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     public String toString() { return "sin"; }
 
@@ -42,6 +42,18 @@ public class Sin extends GPNode
     */
     public int expectedChildren() { return 1; }
 
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.invoke(Math.class, "sin", 1);
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        for(int i = 0; i < length; i++)
+            result[i] = Math.sin(a[i]);
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
@@ -27,12 +27,25 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class Square extends GPNode
+public class Square extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     public String toString() { return "square"; }
 
     public int expectedChildren() { return 1; }
 
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.dup();
+        emitter.multiply();
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        for(int i = 0; i < length; i++)
+            result[i] = a[i] * a[i];
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
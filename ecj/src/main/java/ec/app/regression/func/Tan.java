@@ -28,12 +28,24 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class Tan extends GPNode
+public class Tan extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     public String toString() { return "tan"; }
 
     public int expectedChildren() { return 1; }
 
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.invoke(Math.class, "tan", 1);
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        for(int i = 0; i < length; i++)
+            result[i] = Math.tan(a[i]);
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
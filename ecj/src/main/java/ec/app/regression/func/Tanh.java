@@ -28,12 +28,24 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class Tanh extends GPNode
+public class Tanh extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     public String toString() { return "tanh"; }
 
     public int expectedChildren() { return 1; }
 
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.invoke(Math.class, "tanh", 1);
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        for(int i = 0; i < length; i++)
+            result[i] = Math.tanh(a[i]);
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
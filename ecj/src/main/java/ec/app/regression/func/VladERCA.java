@@ -43,6 +43,19 @@ public class VladERCA extends RegERC
     public String toStringForHumans()
         { return "n^" + value; }
 
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.constant(value);
+        emitter.invoke(Math.class, "pow", 2);
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        double[] a = children[0];
+        for(int i = 0; i < length; i++)
+            result[i] = Math.pow(a[i], value);
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
@@ -23,7 +23,7 @@ import ec.util.*;
  * @version 1.0 
  */
 
-public class X4 extends GPNode
+public class X4 extends GPNode implements GPCompilable, GPBatchEvaluable
     {
     public String toString() { return "x4"; }
 
@@ -42,6 +42,16 @@ public class X4 extends GPNode
     */
     public int expectedChildren() { return 0; }
 
+    public void compile(final GPCompiler.Emitter emitter)
+        {
+        emitter.variable(3);
+        }
+
+    public void evalBatch(final double[][] variables, final double[][] children, final double[] result, final int length)
+        {
+        GPBatchEvaluator.variable(variables, 3, result, length);
+        }
+
     public void eval(final EvolutionState state,
         final int thread,
         final GPData input,
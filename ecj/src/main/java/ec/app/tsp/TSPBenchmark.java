@@ -0,0 +1,123 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.app.tsp;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import java.io.*;
+import java.util.*;
+
+/**
+ * TSPBenchmark compares the speed of Ant System on TSP using ECJ's general-purpose ACO classes (as.params:
+ * SimplePheromoneTable, SimpleConstructionRule, and ProportionateComponentSelector) against that using
+ * DensePheromoneTable and TourConstructionRule (dense.params).  For each graph it runs the same number of
+ * generations in each mode, after a one-generation warm-up, and reports the time per generation (building,
+ * evaluating, and depositing pheromones for every ant), the time per ant, and the length of the best tour in
+ * the last generation.  The two modes make different choices (the dense one uses beta = 2 and candidate lists),
+ * so their tours are not meant to be identical.
+ *
+ * <p>Usage: <tt>java ec.app.tsp.TSPBenchmark [graph] [ants] [generations] [threads]</tt>
+ *
+ * <p>The graph is either a TSPLIB file or a number of cities, in which case a random graph of that many cities
+ * on a 10000 by 10000 square is built.  By default the benchmark runs on att532.tsp (from ECJ's top directory)
+ * and on random graphs of 1000 and 2000 cities, with 10 ants, 5 generations, and 1 thread.  The dense mode
+ * builds its ants in the given number of breeding threads.
+ */
+
+public class TSPBenchmark
+    {
+    public static void main(String[] args) throws IOException
+        {
+        int ants = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+        int generations = (args.length > 2 ? Integer.parseInt(args[2]) : 5);
+        int threads = (args.length > 3 ? Integer.parseInt(args[3]) : 1);
+        String[] graphs = (args.length > 0 ? new String[] { args[0] } :
+            new String[] { "src/main/resources/ec/app/tsp/att532.tsp", "1000", "2000" });
+
+        System.out.println("Graph\tCities\tMode\tms/generation\tms/ant\tBest tour");
+        for(int i = 0; i < graphs.length; i++)
+            {
+            File file = graphFile(graphs[i]);
+            for(int dense = 0; dense < 2; dense++)
+                {
+                run(file, dense == 1, ants, 1, threads, null);         // warm up
+                double[] result = new double[3];
+                run(file, dense == 1, ants, generations, threads, result);
+                System.out.println(graphs[i] + "\t" + (int)result[2] + "\t" + (dense == 1 ? "Dense" : "Simple") + "\t" +
+                    String.format("%.1f\t%.2f\t%.0f", result[0] / generations, result[0] / generations / ants, result[1]));
+                }
+            }
+        }
+
+    // Returns the file for a graph, building a random one if the graph is a number of cities
+    static File graphFile(String graph) throws IOException
+        {
+        int cities;
+        try
+            {
+            cities = Integer.parseInt(graph);
+            }
+        catch (NumberFormatException e)
+            {
+            return new File(graph).getAbsoluteFile();
+            }
+
+        File file = File.createTempFile("random" + cities, ".tsp");
+        file.deleteOnExit();
+        Random random = new Random(cities);
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        out.println("NAME : random" + cities);
+        out.println("TYPE : TSP");
+        out.println("DIMENSION : " + cities);
+        out.println("EDGE_WEIGHT_TYPE : EUC_2D");
+        out.println("NODE_COORD_SECTION");
+        for(int i = 0; i < cities; i++)
+            out.println((i + 1) + " " + random.nextInt(10000) + " " + random.nextInt(10000));
+        out.println("EOF");
+        out.close();
+        return file;
+        }
+
+    // Runs Ant System for the given number of generations, storing the total time in milliseconds, the length of
+    // the best tour in the last generation, and the number of cities in result, if it's not null
+    static void run(File file, boolean dense, int ants, int generations, int threads, double[] result)
+        {
+        String[] args = new String[]
+            {
+            "-from", "app/tsp/" + (dense ? "dense.params" : "as.params"),
+            "-p", "silent=true",
+            "-p", "stat=ec.Statistics",
+            "-p", "seed.0=1",
+            "-p", "breedthreads=" + (dense ? threads : 1),
+            "-p", "generations=" + (generations + 1),
+            "-p", "pop.subpop.0.size=" + ants,
+            "-p", "eval.problem.file=" + file.getPath(),
+            };
+        EvolutionState state = Evolve.initialize(Evolve.loadParameterDatabase(args), 0);
+        state.startFresh();
+
+        long start = System.nanoTime();
+        for(int g = 0; g < generations; g++)
+            state.evolve();
+        long time = System.nanoTime() - start;
+
+        // The last generation's ants haven't been evaluated yet
+        state.evaluator.evaluatePopulation(state);
+        double best = Double.POSITIVE_INFINITY;
+        ArrayList<Individual> inds = state.population.subpops.get(0).individuals;
+        for(int i = 0; i < inds.size(); i++)
+            best = Math.min(best, 1.0 / inds.get(i).fitness.fitness());
+        if (result != null)
+            {
+            result[0] = time / 1000000.0;
+            result[1] = best;
+            result[2] = ((TSPProblem)(state.evaluator.p_problem)).numNodes();
+            }
+        Evolve.cleanup(state);
+        }
+    }
@@ -209,52 +209,14 @@ public class TSPGraph {
 
         public double distance()
             {
-            switch (weightType())
-                {
-                default:
-                case EUC_2D:
-                    return euclideanDistance();
-                case ATT:
-                    return attDistance();
-                case GEO:
-                    return geoDistance();
-                }
+            return TSPGraph.this.distance(from, to);
             }
         
-        /** Euclidean distance, rounded to the nearest integer. */
-        private double euclideanDistance()
-            {
-            final double dist = Math.sqrt(Math.pow(from[0] - to[0], 2) + Math.pow(from[1] - to[1], 2));
-
-            // TSPLIB's Euclidean distance metric rounds to the nearest integer.  Most (all?) TSPLIB benchmark tasks
-            // don't have distances small enough to be rounded down to zero.  We want to make sure that truly identical
-            // points have a distance of zero, but that different points have non-zero distance:
-            if (dist == 0.0)
-                return 0.0;
-            else return Math.max(1.0, Math.rint(dist));
-            }
-
-        /** A "pseudo-Euclidean" distance, used in some TSPLIB instances. */
-        private double attDistance()
-            {
-            final double xd = from[0] - to[0];
-            final double yd = from[1] - to[1];
-            final double rft = Math.sqrt((xd*xd + yd*yd) / 10.0);
-            final double tft = Math.rint(rft);
-            if (tft < rft)
-                return tft + 1;
-            else
-                return tft;
-            }
-
-        /** A geographical distance based on latitude and longitude. */
-        private double geoDistance()
+        /** @return The edge's index in the adjacency matrix, <code>from() * numNodes() + to()</code>. */
+        @Override
+        public int id()
             {
-            final double rrr = 6378.388;
-            final double q1 = Math.cos(longitude(from) - longitude(to));
-            final double q2 = Math.cos(latitude(from) - latitude(to));
-            final double q3 = Math.cos(latitude(from) + latitude(to));
-            return (int) (rrr * Math.acos(0.5 * ((1.0 + q1)*q2 - (1.0 - q1)*q3) ) + 1.0);
+            return fromNode * nodes.size() + toNode;
             }
         
         @Override
@@ -317,6 +279,63 @@ public class TSPGraph {
             }
         }
 
+    /** The distance from one node to another: the same as <code>getEdge(from, to).distance()</code>,
+     * but without creating the edge. */
+    public double distance(final int from, final int to)
+        {
+        return distance(nodes.get(from), nodes.get(to));
+        }
+    
+    private double distance(final double[] from, final double[] to)
+        {
+        switch (weightType())
+            {
+            default:
+            case EUC_2D:
+                return euclideanDistance(from, to);
+            case ATT:
+                return attDistance(from, to);
+            case GEO:
+                return geoDistance(from, to);
+            }
+        }
+        
+    /** Euclidean distance, rounded to the nearest integer. */
+    private static double euclideanDistance(final double[] from, final double[] to)
+        {
+        final double dist = Math.sqrt(Math.pow(from[0] - to[0], 2) + Math.pow(from[1] - to[1], 2));
+
+        // TSPLIB's Euclidean distance metric rounds to the nearest integer.  Most (all?) TSPLIB benchmark tasks
+        // don't have distances small enough to be rounded down to zero.  We want to make sure that truly identical
+        // points have a distance of zero, but that different points have non-zero distance:
+        if (dist == 0.0)
+            return 0.0;
+        else return Math.max(1.0, Math.rint(dist));
+        }
+
+    /** A "pseudo-Euclidean" distance, used in some TSPLIB instances. */
+    private static double attDistance(final double[] from, final double[] to)
+        {
+        final double xd = from[0] - to[0];
+        final double yd = from[1] - to[1];
+        final double rft = Math.sqrt((xd*xd + yd*yd) / 10.0);
+        final double tft = Math.rint(rft);
+        if (tft < rft)
+            return tft + 1;
+        else
+            return tft;
+        }
+
+    /** A geographical distance based on latitude and longitude. */
+    private static double geoDistance(final double[] from, final double[] to)
+        {
+        final double rrr = 6378.388;
+        final double q1 = Math.cos(longitude(from) - longitude(to));
+        final double q2 = Math.cos(latitude(from) - latitude(to));
+        final double q3 = Math.cos(latitude(from) + latitude(to));
+        return (int) (rrr * Math.acos(0.5 * ((1.0 + q1)*q2 - (1.0 - q1)*q3) ) + 1.0);
+        }
+
     /** Latitude is encoded in DDD.MM format by the first element of a point,
      * where DDD is degrees and MM is minutes.
      */
@@ -11,7 +11,7 @@ import ec.Problem;
 import ec.app.tsp.TSPGraph.TSPComponent;
 import ec.co.Component;
 import ec.co.ConstructiveIndividual;
-import ec.co.ConstructiveProblemForm;
+import ec.co.TourProblemForm;
 import ec.simple.SimpleFitness;
 import ec.simple.SimpleProblemForm;
 import ec.util.Parameter;
@@ -30,7 +30,7 @@ import java.util.Set;
  * 
  * @author Eric O. Scott
  */
-public class TSPProblem extends Problem implements SimpleProblemForm, ConstructiveProblemForm<TSPComponent> {
+public class TSPProblem extends Problem implements SimpleProblemForm, TourProblemForm<TSPComponent> {
     private static final long serialVersionUID = 1;
 
     public final static String P_FILE = "file";
@@ -95,6 +95,11 @@ public class TSPProblem extends Problem implements SimpleProblemForm, Constructi
         return graph.numNodes();
         }
     
+    public double desirability(final int from, final int to)
+        {
+        return 1.0/graph.distance(from, to);
+        }
+    
     @Override
     public void setup(EvolutionState state, Parameter base)
         {
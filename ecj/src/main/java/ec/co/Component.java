@@ -23,6 +23,14 @@ public abstract class Component {
     /** @return The heuristic value of the component (higher is better). */
     public abstract double desirability();
     
+    /** @return A unique index for the component, from 0 to the problem's <code>numComponents()</code> - 1, or -1
+        if the component has none (the default).  Tables such as <code>ec.co.ant.DensePheromoneTable</code> use
+        this to store values for each component in an array rather than a hash table. */
+    public int id()
+        {
+        return -1;
+        }
+    
     public void writeComponent(EvolutionState state, DataOutput output) throws IOException
         {
         state.output.fatal(String.format("%s: writeComponent() is not implemented.  This method is required in order to use a %s with ECJ's distributed evaluation or island model mechanisms.", this.getClass().getSimpleName(), Component.class.getSimpleName()));
@@ -7,6 +7,7 @@ package ec.co;
 
 import ec.*;
 import ec.util.Parameter;
+import ec.util.ThreadPool;
 
 /**
  * A basic Breeder that generates a new population by asking each subpopulation's
@@ -15,16 +16,24 @@ import ec.util.Parameter;
  * This is used with algorithms like GRASP, which generate new individuals at
  * each step (rather than producing them by running an old population through a pipeline).
  *
+ * With more than one breeding thread (<code>breedthreads</code>), each subpopulation's new
+ * individuals are built in parallel, each thread building a contiguous block of them with
+ * its own random number generator, so the Species must be able to build several individuals
+ * at once.  The new individuals are added to the subpopulation in the same order whatever
+ * the number of threads, but which random number generator builds each one depends on it.
+ *
  * @author Eric O. Scott
  */
 public class ConstructiveBreeder extends Breeder
     {
     private static final long serialVersionUID = 1;
 
+    public ThreadPool pool = new ThreadPool();
+
     @Override
     public void setup(final EvolutionState state, final Parameter base)
         {
-        // Do nothing
+        pool = ThreadPool.create(state, new Parameter(ThreadPool.P_THREADPOOL), ThreadPool.BACKEND_CLASSIC);
         }
 
     @Override
@@ -38,13 +47,36 @@ public class ConstructiveBreeder extends Breeder
             {
             final Subpopulation oldSubpop = state.population.subpops.get(i);
             final Species species = state.population.subpops.get(i).species;
+            final Individual[] newInds = new Individual[oldSubpop.individuals.size()];
 
             // Execute ants
-            for (int j = 0; j < oldSubpop.individuals.size(); j++)
+            final int numThreads = Math.max(1, Math.min(state.breedthreads, newInds.length));
+            if (numThreads == 1)
                 {
-                final Individual newInd = species.newIndividual(state, i);
-                newPop.subpops.get(i).individuals.add(newInd);
+                for (int j = 0; j < newInds.length; j++)
+                    newInds[j] = species.newIndividual(state, 0);
                 }
+            else
+                {
+                for (int t = 0; t < numThreads; t++)
+                    {
+                    final int thread = t;
+                    final int from = (int)((long)newInds.length * t / numThreads);
+                    final int to = (int)((long)newInds.length * (t + 1) / numThreads);
+                    pool.startWithAffinity(new Runnable()
+                        {
+                        public void run()
+                            {
+                            for (int j = from; j < to; j++)
+                                newInds[j] = species.newIndividual(state, thread);
+                            }
+                        }, "ECJ Breeding Thread " + t, t);
+                    }
+                pool.joinAll();
+                }
+
+            for (int j = 0; j < newInds.length; j++)
+                newPop.subpops.get(i).individuals.add(newInds[j]);
             }
         return newPop;
         }
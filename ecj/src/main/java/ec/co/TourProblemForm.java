@@ -0,0 +1,34 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.co;
+
+/**
+ * Defines a combinatorial optimization problem whose solutions are tours: paths that visit each of the nodes of
+ * a graph exactly once, built by adding one edge after another.  The Traveling Salesman Problem is the classic
+ * example.
+ *
+ * <br/><br/>
+ *
+ * On top of <code>ConstructiveProblemForm</code>, this lets algorithms refer to nodes and edges by number rather
+ * than by asking for lists of <code>Component</code> objects, which is much faster on large graphs.  The
+ * component for the edge from node <code>i</code> to node <code>j</code> must have an <code>id()</code> of
+ * <code>i * numNodes() + j</code>, so <code>numComponents()</code> should be <code>numNodes()</code> squared.
+ *
+ * @see ec.co.ant.TourConstructionRule
+ * @see ec.app.tsp
+ */
+public interface TourProblemForm<T extends Component> extends ConstructiveProblemForm<T> {
+
+    /** @return The number of nodes in the graph. */
+    public abstract int numNodes();
+
+    /** @return The component for the edge from node <code>from</code> to node <code>to</code>. */
+    public abstract T getComponent(final int from, final int to);
+
+    /** @return The heuristic value of the edge from node <code>from</code> to node <code>to</code> (higher is
+     * better): the same as <code>getComponent(from, to).desirability()</code>. */
+    public abstract double desirability(final int from, final int to);
+    }
@@ -87,6 +87,24 @@ public class AntSystemUpdateRule implements UpdateRule
 
         decayPheromones(state, pheromones);
 
+        if (pheromones instanceof DensePheromoneTable)
+            {
+            // Deposit straight into the table rather than adding up the contributions in a hash table first
+            final DensePheromoneTable dense = (DensePheromoneTable) pheromones;
+            for (final Object o : individuals)
+                {
+                final ConstructiveIndividual<?> ind = (ConstructiveIndividual<?>) o;
+                assert(ind.size() > 0);
+                for (final Object oo : ind)
+                    {
+                    final Component c = (Component) oo;
+                    dense.deposit(c.id(), pheromoneContribution(ind, c));
+                    }
+                }
+            assert(repOK());
+            return;
+            }
+
         final Map<Component, Double> contributions = new HashMap<>();
         // Loop through every individual and record its pheremone contributions (scores) for each edge
         for (final Object o : individuals)
@@ -118,6 +136,11 @@ public class AntSystemUpdateRule implements UpdateRule
         {
         assert(state != null);
         assert(pheromones != null);
+        if (pheromones instanceof DensePheromoneTable)
+            {
+            ((DensePheromoneTable) pheromones).evaporate(decayRate, 0.0);
+            return;
+            }
         final List<? extends Component> components = ((ConstructiveProblemForm<?>)state.evaluator.p_problem).getAllComponents();
         for (final Component c : components)
             pheromones.set(c, (1.0-decayRate)*pheromones.get(state, c, 0)); // Using thread 0 because we are in a single-threaded function
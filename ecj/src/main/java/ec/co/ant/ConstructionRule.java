@@ -18,5 +18,5 @@ import ec.co.ConstructiveIndividual;
  */
 public interface ConstructionRule extends Setup
     {
-    public abstract ConstructiveIndividual constructSolution(EvolutionState state, ConstructiveIndividual ind, PheromoneTable pheromones, int thread);
+    public abstract ConstructiveIndividual<?> constructSolution(EvolutionState state, ConstructiveIndividual<?> ind, PheromoneTable pheromones, int thread);
     }
@@ -0,0 +1,211 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.co.ant;
+
+import ec.EvolutionState;
+import ec.co.Component;
+import ec.co.ConstructiveProblemForm;
+import ec.util.Parameter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pheromone table that stores the concentrations in a <code>double[]</code> indexed by
+ * <code>Component.id()</code>, so every component of the problem must have an id.  This is much faster and
+ * smaller than <code>SimplePheromoneTable</code>'s hash table on problems with many components, such as TSP
+ * on large graphs, but it holds a value for every component from the start: for TSP this is
+ * <code>numNodes()</code> squared, or 8MB for a thousand cities.
+ *
+ * <br/><br/>
+ *
+ * Unlike <code>SimplePheromoneTable</code>, the table is thread-safe.  Every concentration is set when the
+ * table is set up, so reading one never changes the table, and the table is split into blocks of components,
+ * each with its own lock, so that many threads can read and update it at once.  <code>deposit()</code> adds to
+ * a concentration atomically.  The table counts its changes in <code>version()</code>, so that others (such
+ * as <code>TourConstructionRule</code>'s choice table) can tell when something they computed from it is out of
+ * date.
+ *
+ * <p><b>Parameters</b><br>
+ * <table>
+ * <tr><td valign=top><i>base</i><tt>.initialize-with-noise</tt><br>
+ * <font size=-1>boolean (default = true)</font></td>
+ * <td valign=top>(whether to start each concentration at a random value from 0 to <tt>starting-noise</tt>)</td></tr>
+ * <tr><td valign=top><i>base</i><tt>.starting-noise</tt><br>
+ * <font size=-1>double &gt; 0 (default = 0.000001)</font></td>
+ * <td valign=top>(the largest random starting concentration)</td></tr>
+ * <tr><td valign=top><i>base</i><tt>.initial-concentration</tt><br>
+ * <font size=-1>double (default = 0.000001)</font></td>
+ * <td valign=top>(the starting concentration, if <tt>initialize-with-noise</tt> is false)</td></tr>
+ * </table>
+ *
+ * @see SimplePheromoneTable
+ */
+public class DensePheromoneTable implements PheromoneTable {
+    private static final long serialVersionUID = 1;
+
+    public final static String P_INITIAL_CONCENTRATION = SimplePheromoneTable.P_INITIAL_CONCENTRATION;
+    public final static String P_INITIALIZE_WITH_NOISE = SimplePheromoneTable.P_INITIALIZE_WITH_NOISE;
+    public final static String P_NOISE = SimplePheromoneTable.P_NOISE;
+
+    /** The number of blocks the table is split into, each with its own lock. */
+    public final static int BLOCKS = 64;
+
+    private double[] pheromones;
+    private int blockSize;
+    private transient Object[] locks;
+    private final AtomicLong version = new AtomicLong();
+
+    @Override
+    public void setup(final EvolutionState state, final Parameter base) {
+        assert(state != null);
+        assert(base != null);
+        if (!(state.evaluator.p_problem instanceof ConstructiveProblemForm))
+            state.output.fatal(String.format("%s: tried to use pheromone table with a %s, but must be %s.", this.getClass().getSimpleName(), state.evaluator.p_problem.getClass().getSimpleName(), ConstructiveProblemForm.class.getSimpleName()));
+        final int numComponents = ((ConstructiveProblemForm)state.evaluator.p_problem).numComponents();
+        pheromones = new double[numComponents];
+        blockSize = Math.max(1, (numComponents + BLOCKS - 1) / BLOCKS);
+        buildLocks();
+
+        final boolean initializeWithNoise = state.parameters.getBoolean(base.push(P_INITIALIZE_WITH_NOISE), null, true);
+        if (initializeWithNoise)
+            {
+            if (state.parameters.exists(base.push(P_INITIAL_CONCENTRATION), null))
+                state.output.warnOnce(String.format("%s: '%s' is set to true, so I'm ignoring the '%s' parameter.  Is this what you intended?", this.getClass().getSimpleName(), base.push(P_INITIALIZE_WITH_NOISE), base.push(P_INITIAL_CONCENTRATION)), base.push(P_INITIAL_CONCENTRATION));
+            final double noise = state.parameters.getDoubleWithDefault(base.push(P_NOISE), null, 0.000001);
+            if (noise <= 0.0)
+                state.output.fatal(String.format("%s: '%s' is set to '%f', but must be positive.", this.getClass().getSimpleName(), base.push(P_NOISE), noise), base.push(P_NOISE));
+            for (int i = 0; i < pheromones.length; i++)
+                pheromones[i] = state.random[0].nextDouble(false, true)*noise;  // never zero
+            }
+        else
+            {
+            if (state.parameters.exists(base.push(P_NOISE), null))
+                state.output.warnOnce(String.format("%s: '%s' is set to false, so I'm ignoring the '%s' parameter.  Is this what you intended?", this.getClass().getSimpleName(), base.push(P_INITIALIZE_WITH_NOISE), base.push(P_NOISE)), base.push(P_NOISE));
+            Arrays.fill(pheromones, state.parameters.getDoubleWithDefault(base.push(P_INITIAL_CONCENTRATION), null, 0.000001));
+            }
+        version.incrementAndGet();
+        assert(repOK());
+        }
+
+    private void buildLocks()
+        {
+        locks = new Object[(pheromones.length + blockSize - 1) / blockSize];
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+        }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+        {
+        in.defaultReadObject();
+        buildLocks();
+        }
+
+    /** @return The number of components in the table. */
+    public int size()
+        {
+        return pheromones.length;
+        }
+
+    /** @return A number which goes up every time the table changes. */
+    public long version()
+        {
+        return version.get();
+        }
+
+    private int id(final EvolutionState state, final Component c)
+        {
+        assert(c != null);
+        final int id = c.id();
+        if (id < 0 || id >= pheromones.length)
+            {
+            final String message = String.format("%s: component %s has id %d, but must have an id from 0 to %d.", this.getClass().getSimpleName(), c, id, pheromones.length - 1);
+            if (state != null)
+                state.output.fatal(message);
+            throw new IllegalArgumentException(message);
+            }
+        return id;
+        }
+
+    @Override
+    public double get(final EvolutionState state, final Component c, final int thread)
+        {
+        return get(id(state, c));
+        }
+
+    @Override
+    public void set(final Component c, final double value)
+        {
+        set(id(null, c), value);
+        }
+
+    /** @return The concentration for the component with the given id. */
+    public double get(final int id)
+        {
+        synchronized(locks[id / blockSize])
+            {
+            return pheromones[id];
+            }
+        }
+
+    /** Sets the concentration for the component with the given id. */
+    public void set(final int id, final double value)
+        {
+        synchronized(locks[id / blockSize])
+            {
+            pheromones[id] = value;
+            }
+        version.incrementAndGet();
+        }
+
+    /** Atomically adds amount to the concentration for the component with the given id. */
+    public void deposit(final int id, final double amount)
+        {
+        synchronized(locks[id / blockSize])
+            {
+            pheromones[id] += amount;
+            }
+        version.incrementAndGet();
+        }
+
+    /** Multiplies every concentration by (1 - rate), but lets none fall below minimum. */
+    public void evaporate(final double rate, final double minimum)
+        {
+        final double keep = 1.0 - rate;
+        for (int b = 0; b < locks.length; b++)
+            synchronized(locks[b])
+                {
+                final int end = Math.min(pheromones.length, (b + 1) * blockSize);
+                for (int i = b * blockSize; i < end; i++)
+                    {
+                    final double value = keep*pheromones[i];
+                    pheromones[i] = (value < minimum ? minimum : value);
+                    }
+                }
+        version.incrementAndGet();
+        }
+
+    /** Copies every concentration into the given array, which must be at least <code>size()</code> long. */
+    public void copyTo(final double[] values)
+        {
+        for (int b = 0; b < locks.length; b++)
+            synchronized(locks[b])
+                {
+                final int start = b * blockSize;
+                System.arraycopy(pheromones, start, values, start, Math.min(pheromones.length, start + blockSize) - start);
+                }
+        }
+
+    public boolean repOK()
+        {
+        return pheromones != null
+            && pheromones.length > 0
+            && blockSize > 0
+            && locks != null
+            && (long)locks.length * blockSize >= pheromones.length;
+        }
+    }
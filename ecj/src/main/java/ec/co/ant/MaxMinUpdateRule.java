@@ -127,6 +127,11 @@ public class MaxMinUpdateRule implements UpdateRule {
     {
         assert(state != null);
         assert(pheromones != null);
+        if (pheromones instanceof DensePheromoneTable)
+        {
+            ((DensePheromoneTable) pheromones).evaporate(decayRate, min);
+            return;
+        }
         final List<Component> components = ((ConstructiveProblemForm)state.evaluator.p_problem).getAllComponents();
         for (final Component c : components) {
             Double pherVal = (1.0-decayRate)*pheromones.get(state, c, 0);
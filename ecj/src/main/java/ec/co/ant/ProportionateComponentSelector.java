@@ -9,7 +9,6 @@ import ec.EvolutionState;
 import ec.Setup;
 import ec.co.Component;
 import ec.util.Parameter;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -69,13 +68,15 @@ public class ProportionateComponentSelector implements ComponentSelector, Setup
         assert(thread >= 0);
         
         double denominator = 0.0;
-        final List<Double> scores = new ArrayList<Double>();
-        for (final Component c : components)
+        final double[] scores = new double[components.size()];
+        for (int i = 0; i < scores.length; i++)
             {
+            final Component c = components.get(i);
             final double tau = pheromones.get(state, c, thread);
             final double eta = c.desirability();
-            final double score = Math.pow(tau, alpha)*Math.pow(eta, beta);
-            scores.add(score);
+            // Math.pow(x, 1.0) is x, so skip it in the common case
+            final double score = (alpha == 1.0 ? tau : Math.pow(tau, alpha))*(beta == 1.0 ? eta : Math.pow(eta, beta));
+            scores[i] = score;
             denominator += score;
             }
         assert(!Double.isInfinite(denominator));
@@ -84,9 +85,9 @@ public class ProportionateComponentSelector implements ComponentSelector, Setup
         
         final double dart = state.random[thread].nextDouble();
         int i = 0;
-        double val = scores.get(0)/denominator;
+        double val = scores[0]/denominator;
         while (val < dart)
-            val += scores.get(++i)/denominator;
+            val += scores[++i]/denominator;
         assert(i < components.size());
         assert(repOK());
         return components.get(i);
@@ -14,6 +14,11 @@ import java.util.HashMap;
 /**
  * A straightforward table that stores and retrieves pheromone concentrations
  * (doubles) independently for a number of components.
+ *
+ * Concentrations are created lazily, the first time they are read, so <code>get()</code>
+ * modifies the table.  Both <code>get()</code> and <code>set()</code> are synchronized so
+ * that ants may be constructed in several threads at once.  For problems with many
+ * components, <code>DensePheromoneTable</code> is much faster.
  * 
  * @author Eric O. Scott
  */
@@ -55,7 +60,7 @@ public class SimplePheromoneTable implements PheromoneTable {
         }
     
     @Override
-    public double get(final EvolutionState state, final Component c, final int thread) {
+    public synchronized double get(final EvolutionState state, final Component c, final int thread) {
         assert(c != null);
         if (pheromones.containsKey(c))
             {
@@ -80,7 +85,7 @@ public class SimplePheromoneTable implements PheromoneTable {
         }
 
     @Override
-    public void set(final Component c, final double value) {
+    public synchronized void set(final Component c, final double value) {
         assert(c != null);
         pheromones.put(c, value);
         }
@@ -0,0 +1,342 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.co.ant;
+
+import ec.EvolutionState;
+import ec.co.Component;
+import ec.co.ConstructiveIndividual;
+import ec.co.TourProblemForm;
+import ec.util.MersenneTwisterFast;
+import ec.util.Parameter;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A fast construction rule for tour problems such as TSP, in the style of Dorigo and St&uuml;tzle's ACOTSP.
+ * It must be used with a <code>TourProblemForm</code> and a <code>DensePheromoneTable</code>.
+ *
+ * <br/><br/>
+ *
+ * Each ant starts at a random node and repeatedly moves to an unvisited node, choosing the edge from node
+ * <code>i</code> to node <code>j</code> with probability proportional to
+ * <code>tau(i,j)^alpha * eta(i,j)^beta</code>, as <code>ProportionateComponentSelector</code> does.  Rather than
+ * computing these scores for every candidate at every step, the rule keeps them in a <i>choice table</i>,
+ * which it recomputes only when the pheromones have changed (normally once per generation); and
+ * <code>eta(i,j)^beta</code> is computed once, when the rule is set up.  Furthermore, each ant only considers the
+ * <code>candidates</code> nearest (most desirable) neighbors of its current node.  Only when all of them have
+ * been visited does it look at the rest of the nodes, and then it moves to the one with the highest score.  Set
+ * <code>candidates</code> to 0 to consider every unvisited node at every step.
+ *
+ * <br/><br/>
+ *
+ * With probability <code>prob-best</code>, an ant instead moves to the candidate with the highest score, as
+ * <code>PseudorandomProportionateComponentSelector</code> does for Ant Colony System.
+ *
+ * <br/><br/>
+ *
+ * Many ants may be constructed at once, in different threads (see <code>ConstructiveBreeder</code>).  The choice
+ * table is shared by all of them, and each thread has its own scratch space.  The tables have
+ * <code>numNodes()</code> squared entries, so this rule suits graphs of up to a few thousand nodes.
+ *
+ * <p><b>Parameters</b><br>
+ * <table>
+ * <tr><td valign=top><i>base</i><tt>.alpha</tt><br>
+ * <font size=-1>double &gt;= 0 (default = 1.0)</font></td>
+ * <td valign=top>(the exponent of the pheromone concentrations)</td></tr>
+ * <tr><td valign=top><i>base</i><tt>.beta</tt><br>
+ * <font size=-1>double &gt;= 0 (default = 2.0)</font></td>
+ * <td valign=top>(the exponent of the heuristic values)</td></tr>
+ * <tr><td valign=top><i>base</i><tt>.candidates</tt><br>
+ * <font size=-1>int &gt;= 0 (default = 20)</font></td>
+ * <td valign=top>(the number of nearest neighbors an ant considers, or 0 to consider all nodes)</td></tr>
+ * <tr><td valign=top><i>base</i><tt>.prob-best</tt><br>
+ * <font size=-1>0.0 &lt;= double &lt;= 1.0 (default = 0.0)</font></td>
+ * <td valign=top>(the probability of moving to the best candidate rather than choosing proportionately)</td></tr>
+ * </table>
+ *
+ * @see DensePheromoneTable
+ * @see ec.co.TourProblemForm
+ */
+public class TourConstructionRule implements ConstructionRule {
+    private static final long serialVersionUID = 1;
+
+    public final static String P_ALPHA = ProportionateComponentSelector.P_ALPHA;
+    public final static String P_BETA = ProportionateComponentSelector.P_BETA;
+    public final static String P_CANDIDATES = "candidates";
+    public final static String P_PROB_BEST = PseudorandomProportionateComponentSelector.P_PROB_BEST;
+
+    private double alpha;
+    private double beta;
+    private double probBest;
+    private int numNodes;
+
+    /** For each node, its nearest neighbors, the most desirable first. */
+    private int[][] candidates;
+    /** eta(i,j)^beta, at i * numNodes + j. */
+    private double[] heuristic;
+
+    /** tau(i,j)^alpha * eta(i,j)^beta, at i * numNodes + j, and the version of the pheromone table it was built from. */
+    private transient volatile double[] choice;
+    private transient volatile long choiceVersion = -1;
+    private transient double[] spareChoice;
+    private transient double[] tau;
+
+    /** Scratch space for each thread. */
+    private boolean[][] visited;
+    private double[][] weights;
+
+    public double getAlpha() { return alpha; }
+
+    public double getBeta() { return beta; }
+
+    public double getProbBest() { return probBest; }
+
+    /** @return The nearest neighbors of the given node, the most desirable first.  Don't modify them. */
+    public int[] getCandidates(final int node) { return candidates[node]; }
+
+    @Override
+    public void setup(final EvolutionState state, final Parameter base)
+        {
+        assert(state != null);
+        assert(base != null);
+        if (!(state.evaluator.p_problem instanceof TourProblemForm))
+            state.output.fatal(String.format("%s: tried to construct tours for a %s, but must be %s.", this.getClass().getSimpleName(), state.evaluator.p_problem.getClass().getSimpleName(), TourProblemForm.class.getSimpleName()));
+        final TourProblemForm<?> problem = (TourProblemForm<?>) state.evaluator.p_problem;
+
+        alpha = state.parameters.getDoubleWithDefault(base.push(P_ALPHA), null, 1.0);
+        if (alpha < 0.0 || !Double.isFinite(alpha))
+            state.output.fatal(String.format("%s: '%s' is set to '%f', but must be non-negative and finite.", this.getClass().getSimpleName(), base.push(P_ALPHA), alpha), base.push(P_ALPHA));
+        beta = state.parameters.getDoubleWithDefault(base.push(P_BETA), null, 2.0);
+        if (beta < 0.0 || !Double.isFinite(beta))
+            state.output.fatal(String.format("%s: '%s' is set to '%f', but must be non-negative and finite.", this.getClass().getSimpleName(), base.push(P_BETA), beta), base.push(P_BETA));
+        probBest = state.parameters.getDoubleWithDefault(base.push(P_PROB_BEST), null, 0.0);
+        if (probBest < 0.0 || probBest > 1.0 || Double.isNaN(probBest))
+            state.output.fatal(String.format("%s: '%s' is set to '%f', but must be between 0 and 1.", this.getClass().getSimpleName(), base.push(P_PROB_BEST), probBest), base.push(P_PROB_BEST));
+        final int numCandidates = state.parameters.getIntWithDefault(base.push(P_CANDIDATES), null, 20);
+        if (numCandidates < 0)
+            state.output.fatal(String.format("%s: '%s' is set to '%d', but must be non-negative.", this.getClass().getSimpleName(), base.push(P_CANDIDATES), numCandidates), base.push(P_CANDIDATES));
+
+        numNodes = problem.numNodes();
+        if (numNodes < 2)
+            state.output.fatal(String.format("%s: the problem has %d nodes, but must have at least 2.", this.getClass().getSimpleName(), numNodes));
+        if ((long)numNodes * numNodes > Integer.MAX_VALUE - 8)
+            state.output.fatal(String.format("%s: the problem has %d nodes, which is too many for its tables.", this.getClass().getSimpleName(), numNodes));
+
+        // The heuristic part of the choice table never changes
+        heuristic = new double[numNodes * numNodes];
+        final double[] eta = new double[numNodes];
+        for (int i = 0; i < numNodes; i++)
+            {
+            for (int j = 0; j < numNodes; j++)
+                {
+                eta[j] = (i == j ? 0.0 : problem.desirability(i, j));
+                heuristic[i * numNodes + j] = (beta == 1.0 ? eta[j] : Math.pow(eta[j], beta));
+                }
+            if (numCandidates > 0 && numCandidates < numNodes - 1)
+                {
+                if (candidates == null)
+                    candidates = new int[numNodes][];
+                candidates[i] = nearest(i, eta, numCandidates);
+                }
+            }
+        if (candidates == null)  // every node is a candidate
+            {
+            candidates = new int[numNodes][];
+            for (int i = 0; i < numNodes; i++)
+                {
+                candidates[i] = new int[numNodes - 1];
+                for (int j = 0, k = 0; j < numNodes; j++)
+                    if (j != i)
+                        candidates[i][k++] = j;
+                }
+            }
+
+        final int numThreads = state.random.length;
+        visited = new boolean[numThreads][];
+        weights = new double[numThreads][];
+        choice = null;
+        choiceVersion = -1;
+        assert(repOK());
+        }
+
+    /** Returns the k nodes other than node which have the highest eta, the highest first. */
+    private static int[] nearest(final int node, final double[] eta, final int k)
+        {
+        final Integer[] others = new Integer[eta.length - 1];
+        for (int j = 0, n = 0; j < eta.length; j++)
+            if (j != node)
+                others[n++] = j;
+        Arrays.sort(others, new Comparator<Integer>()
+            {
+            public int compare(final Integer a, final Integer b)
+                {
+                final int c = Double.compare(eta[b], eta[a]);
+                return (c != 0 ? c : Integer.compare(a, b));
+                }
+            });
+        final int[] result = new int[k];
+        for (int n = 0; n < k; n++)
+            result[n] = others[n];
+        return result;
+        }
+
+    /** Returns the choice table for the current pheromones, recomputing it if they have changed. */
+    double[] choiceTable(final DensePheromoneTable pheromones)
+        {
+        double[] table = choice;
+        if (table != null && choiceVersion == pheromones.version())
+            return table;
+        synchronized(this)
+            {
+            final long version = pheromones.version();
+            if (choice != null && choiceVersion == version)
+                return choice;
+            if (pheromones.size() != heuristic.length)
+                throw new IllegalStateException(String.format("%s: the pheromone table has %d components, but the problem has %d nodes, so it must have %d.", this.getClass().getSimpleName(), pheromones.size(), numNodes, heuristic.length));
+
+            // Build into a spare table, so ants still using the old one aren't disturbed
+            if (tau == null)
+                tau = new double[heuristic.length];
+            table = (spareChoice != null ? spareChoice : new double[heuristic.length]);
+            pheromones.copyTo(tau);
+            if (alpha == 1.0)
+                for (int i = 0; i < table.length; i++)
+                    table[i] = tau[i] * heuristic[i];
+            else
+                for (int i = 0; i < table.length; i++)
+                    table[i] = Math.pow(tau[i], alpha) * heuristic[i];
+            spareChoice = choice;
+            choice = table;
+            choiceVersion = version;
+            return table;
+            }
+        }
+
+    @Override
+    public ConstructiveIndividual<?> constructSolution(final EvolutionState state, final ConstructiveIndividual<?> ind, final PheromoneTable pheromones, final int thread)
+        {
+        assert(state != null);
+        assert(ind != null);
+        assert(ind.isEmpty());
+        assert(thread >= 0);
+        if (!(pheromones instanceof DensePheromoneTable))
+            state.output.fatal(String.format("%s: requires a %s, but was given a %s.", this.getClass().getSimpleName(), DensePheromoneTable.class.getSimpleName(), (pheromones == null ? "null" : pheromones.getClass().getSimpleName())));
+        final TourProblemForm<?> problem = (TourProblemForm<?>) state.evaluator.p_problem;
+        final double[] table = choiceTable((DensePheromoneTable) pheromones);
+        final MersenneTwisterFast random = state.random[thread];
+
+        if (visited[thread] == null)
+            {
+            visited[thread] = new boolean[numNodes];
+            weights[thread] = new double[numNodes];
+            }
+        final boolean[] visited = this.visited[thread];
+        final double[] weights = this.weights[thread];
+        Arrays.fill(visited, false);
+
+        int current = random.nextInt(numNodes);
+        visited[current] = true;
+        for (int step = 1; step < numNodes; step++)
+            {
+            final int next = chooseNext(current, table, visited, weights, random);
+            addEdge(state, ind, problem, current, next);
+            visited[next] = true;
+            current = next;
+            }
+        return ind;
+        }
+
+    // adds the problem's component for the edge from one node to the next to the tour.  The problem
+    // makes all of the individual's components, so they have the same type
+    @SuppressWarnings("unchecked")
+    static <T extends Component> void addEdge(final EvolutionState state, final ConstructiveIndividual<T> ind, final TourProblemForm<?> problem, final int from, final int to)
+        {
+        ind.add(state, (T)(problem.getComponent(from, to)));
+        }
+
+    /** Chooses the next node to move to from current. */
+    private int chooseNext(final int current, final double[] table, final boolean[] visited, final double[] weights, final MersenneTwisterFast random)
+        {
+        final int[] nearest = candidates[current];
+        final int row = current * numNodes;
+
+        if (probBest > 0.0 && random.nextBoolean(probBest))
+            {
+            int best = -1;
+            double bestScore = -1;
+            for (int k = 0; k < nearest.length; k++)
+                {
+                final int j = nearest[k];
+                if (!visited[j] && table[row + j] > bestScore)
+                    {
+                    best = j;
+                    bestScore = table[row + j];
+                    }
+                }
+            return (best >= 0 ? best : bestOfAll(current, table, visited));
+            }
+
+        double total = 0.0;
+        for (int k = 0; k < nearest.length; k++)
+            {
+            final int j = nearest[k];
+            final double w = (visited[j] ? 0.0 : table[row + j]);
+            weights[k] = w;
+            total += w;
+            }
+        if (total <= 0.0 || !Double.isFinite(total))  // every candidate has been visited, or scores have over- or underflowed
+            return bestOfAll(current, table, visited);
+
+        final double dart = random.nextDouble() * total;
+        double sum = 0.0;
+        int last = -1;
+        for (int k = 0; k < nearest.length; k++)
+            {
+            if (weights[k] > 0.0)
+                {
+                last = nearest[k];
+                sum += weights[k];
+                if (dart < sum)
+                    return last;
+                }
+            }
+        return last;  // rounding error
+        }
+
+    /** Returns the unvisited node with the highest score, or the first unvisited node if none has a score. */
+    private int bestOfAll(final int current, final double[] table, final boolean[] visited)
+        {
+        final int row = current * numNodes;
+        int best = -1;
+        double bestScore = -1;
+        for (int j = 0; j < numNodes; j++)
+            if (!visited[j] && table[row + j] > bestScore)
+                {
+                best = j;
+                bestScore = table[row + j];
+                }
+        for (int j = 0; best < 0 && j < numNodes; j++)  // all NaN
+            if (!visited[j])
+                best = j;
+        assert(best >= 0);
+        return best;
+        }
+
+    public final boolean repOK()
+        {
+        return Double.isFinite(alpha)
+            && alpha >= 0.0
+            && Double.isFinite(beta)
+            && beta >= 0.0
+            && probBest >= 0.0
+            && probBest <= 1.0
+            && numNodes > 1
+            && candidates != null
+            && candidates.length == numNodes
+            && heuristic != null
+            && heuristic.length == numNodes * numNodes;
+        }
+    }
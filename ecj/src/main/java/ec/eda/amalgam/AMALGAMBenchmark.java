@@ -0,0 +1,77 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.eda.amalgam;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.simple.SimpleStatistics;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import java.io.*;
+
+/**
+ * AMALGAMBenchmark times AMALGAMSpecies on the sphere function for genomes of 100, 250, and 500 genes.
+ * For each it prints the time taken to set up and build the initial population, the mean time per generation,
+ * and the best fitness found.
+ *
+ * <p>Usage: <tt>java ec.eda.amalgam.AMALGAMBenchmark [generations] [population size per gene]</tt>
+ *
+ * <p>The defaults are 50 generations and a population of 5 individuals per gene (so 2500 individuals for
+ * 500 genes).  The optimum is 0.  The genes are bounded by [-100, 100].  Because the first generation is
+ * uniform over the bounds, early in the run most samples in high dimensions fall outside them, so the benchmark
+ * sets <tt>max-resamples</tt> to 1 to keep regenerating them from dominating the timings.
+ */
+
+public class AMALGAMBenchmark
+    {
+    public static final int[] SIZES = { 100, 250, 500 };
+
+    static ParameterDatabase parameters(int n, int popSize, int generations) throws IOException
+        {
+        ParameterDatabase parameters = new ParameterDatabase("amalgam.params", AMALGAMBenchmark.class);
+        parameters.set(new Parameter(Evolve.P_SILENT), "true");
+        parameters.set(new Parameter("stat.silent"), "true");
+        parameters.set(new Parameter("generations"), "" + generations);
+        parameters.set(new Parameter("seed.0"), "1");
+        parameters.set(new Parameter("eval.problem"), "ec.app.ecsuite.ECSuite");
+        parameters.set(new Parameter("eval.problem.type"), "sphere");
+        parameters.set(new Parameter("pop.subpop.0.size"), "" + popSize);
+        Parameter species = new Parameter("pop.subpop.0.species");
+        parameters.set(species.push("fitness"), "ec.simple.SimpleFitness");
+        parameters.set(species.push("genome-size"), "" + n);
+        parameters.set(species.push("min-gene"), "-100.0");
+        parameters.set(species.push("max-gene"), "100.0");
+        parameters.set(species.push(AMALGAMSpecies.P_MAX_RESAMPLES), "1");
+        return parameters;
+        }
+
+    public static void main(String[] args) throws IOException
+        {
+        int generations = (args.length > 0 ? Integer.parseInt(args[0]) : 50);
+        int perGene = (args.length > 1 ? Integer.parseInt(args[1]) : 5);
+
+        System.out.println("n\tpopulation\tsetup (ms)\tms/generation\tbest fitness");
+        for(int s = 0; s < SIZES.length; s++)
+            {
+            int n = SIZES[s];
+            EvolutionState state = Evolve.initialize(parameters(n, n * perGene, generations), 0);
+            long start = System.nanoTime();
+            state.startFresh();
+            long setup = System.nanoTime();
+            int result = EvolutionState.R_NOTDONE;
+            while(result == EvolutionState.R_NOTDONE)
+                result = state.evolve();
+            long end = System.nanoTime();
+            double best = ((SimpleStatistics)(state.statistics)).getBestSoFar()[0].fitness.fitness();
+            state.finish(result);
+            Evolve.cleanup(state);
+
+            System.out.println(n + "\t" + (n * perGene) + "\t" + ((setup - start) / 1000000) + "\t" +
+                String.format("%.2f", (end - setup) / 1.0e6 / Math.max(1, state.generation)) + "\t" + best);
+            }
+        }
+    }
@@ -43,8 +43,7 @@ public class AMALGAMBreeder extends Breeder
             ArrayList<Individual> inds = subpop.individuals;
 
             // The first individual (which is sorted by update distrbution to have the best fitness) remains unchanged 
-            for(int j = 1; j < inds.size(); j++)
-                inds.set(j, species.newIndividual(state, 0));
+            species.newIndividuals(state, 0, inds, 1);
 
             // shift some number of individuals in the direction of the anticipated mean shift
             // as the individuals are random currently, just use the the first N
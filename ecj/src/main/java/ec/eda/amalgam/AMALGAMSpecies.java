@@ -20,9 +20,9 @@ import org.ejml.ops.NormOps;
 import org.ejml.ops.RandomMatrices;
 import org.ejml.simple.SimpleMatrix;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.IdentityHashMap;
 
 
@@ -51,6 +51,14 @@ import java.util.IdentityHashMap;
  * when the "distribution multiplier" is lower than 10^(-10), or when the distribution
  * variance is less than the fitness variance tolerance.  
  *
+ * <p>To scale to large genomes (500 genes or more), AMALGAMSpecies keeps the selected individuals
+ * in a single contiguous matrix, computes their covariance with one symmetric matrix product, reuses
+ * its matrices and its Cholesky decomposition from generation to generation, and (after the first
+ * generation) generates the whole next population with a single matrix multiply in newIndividuals(...).
+ * An individual which falls outside the min/max gene bounds is regenerated, but after <tt>max-resamples</tt>
+ * failed attempts it is instead generated uniformly within the bounds, as in Bosman's reference implementation.
+ * Otherwise in high dimensions nearly every sample can fall out of bounds early in the run.
+ *
  * <p>AMALGAMSpecies relies on the EJML matrix library, available at 
  * <a href="http://ejml.org/">http://ejml.org/</a>
 
@@ -110,6 +118,12 @@ import java.util.IdentityHashMap;
  If not provided, defaults to 1.0
  </td></tr>
 
+ <tr><td valign=top><i>base</i>.<tt>max-resamples</tt><br>
+ <font size=-1>0 &lt;= Integer</font></td>
+ <td valign=top>(how many times to regenerate an out-of-bounds individual before generating it uniformly within the bounds instead; 0 means never give up)<br>
+ If not provided, defaults to 100
+ </td></tr>
+
  <tr><td valign=top><i>base</i>.<tt>alternative-termination</tt><br>
  <font size=-1>boolean, default false</td>
  <td valign=top>Should we also terminate on AMALGAM's additional termination conditions?.
@@ -141,10 +155,14 @@ public class AMALGAMSpecies extends FloatVectorSpecies
 
         
     public static final String P_ALTERNATIVE_TERMINATION = "alternative-termination";
+    public static final String P_MAX_RESAMPLES = "max-resamples";
     public static final int P_PARAMETER_MISSING = -1;
 
     public boolean useAltTermination;
 
+    /** How many times an out-of-bounds individual is regenerated before it is generated uniformly instead (0 = forever) */
+    public int maxResamples;
+
     // 0 <= tau <= 1
     // defaults to 0.35
     public double tau;
@@ -207,6 +225,15 @@ public class AMALGAMSpecies extends FloatVectorSpecies
     public DenseMatrix64F temp3;
     public DenseMatrix64F tempMatrix;
 
+    /** The genomes of the selected (best tau) individuals, one per row, filled in by computeMean(...) */
+    public DenseMatrix64F selected;
+
+    // scratch space, reused from generation to generation and allocated on demand
+    transient DenseMatrix64F centered;
+    transient DenseMatrix64F samples;
+    transient DenseMatrix64F sampled;
+    transient CholeskyDecomposition<DenseMatrix64F> chol;
+
     public IdentityHashMap<Individual, Integer> constraintViolations;
 
     // some stuff is different for the first generation
@@ -293,6 +320,9 @@ public class AMALGAMSpecies extends FloatVectorSpecies
                 state.output.fatal("If AMALGAM nis-max is provided, it must be a valid integer > 0", base.push(P_NIS_MAX), def.push(P_NIS_MAX));
             }
 
+        maxResamples = state.parameters.getIntWithDefault(base.push(P_MAX_RESAMPLES), def.push(P_MAX_RESAMPLES), 100);
+        if (maxResamples < 0)
+            state.output.fatal("If AMALGAM max-resamples is provided, it must be a valid integer >= 0", base.push(P_MAX_RESAMPLES), def.push(P_MAX_RESAMPLES));
 
         if (!state.parameters.exists(base.push(P_DELTA_AMS), def.push(P_DELTA_AMS)))
             {
@@ -403,6 +433,12 @@ public class AMALGAMSpecies extends FloatVectorSpecies
 
         myobj.constraintViolations = (IdentityHashMap<Individual, Integer>) constraintViolations.clone();
 
+        // don't share scratch space
+        myobj.centered = null;
+        myobj.samples = null;
+        myobj.sampled = null;
+        myobj.chol = null;
+
         return myobj;
         }
 
@@ -465,6 +501,48 @@ public class AMALGAMSpecies extends FloatVectorSpecies
         else return a.compareTo(b);  // compares based on fitness, with 0 as a tie
         }
 
+    /** Sorts the individuals in the same order as compareIndividuals(...): first by the number of
+        genes which violate their bounds, then by fitness.  Rather than look up both individuals' 
+        constraint violations on every comparison, this groups the individuals by their number of
+        constraint violations and then sorts each group by fitness.  Like Collections.sort(...),
+        this is stable. */
+    public void sortIndividuals(final Subpopulation subpop)
+        {
+        ArrayList<Individual> inds = subpop.individuals;
+        int size = inds.size();
+        int[] cv = new int[size];
+        int max = 0;
+        for (int i = 0; i < size; i++)
+            {
+            cv[i] = constraintViolations.get(inds.get(i));
+            if (cv[i] > max) max = cv[i];
+            }
+
+        if (max == 0)  // the usual case
+            {
+            Collections.sort(inds);
+            return;
+            }
+
+        // counting sort by constraint violations
+        int[] start = new int[max + 2];
+        for (int i = 0; i < size; i++)
+            start[cv[i] + 1]++;
+        for (int v = 1; v < start.length; v++)
+            start[v] += start[v - 1];
+        int[] next = (int[])(start.clone());
+        Individual[] sorted = new Individual[size];
+        for (int i = 0; i < size; i++)
+            sorted[next[cv[i]]++] = inds.get(i);
+
+        // then each group by fitness
+        for (int v = 0; v <= max; v++)
+            if (start[v + 1] - start[v] > 1)
+                Arrays.sort(sorted, start[v], start[v + 1]);
+        for (int i = 0; i < size; i++)
+            inds.set(i, sorted[i]);
+        }
+
     public boolean isValid(DoubleVectorIndividual dvind)
         {
         for (int i = 0; i < genomeSize; i++)
@@ -481,19 +559,26 @@ public class AMALGAMSpecies extends FloatVectorSpecies
     public Individual newIndividual(final EvolutionState state, int thread) 
         {
         Individual newind = super.newIndividual(state, thread);
-        MersenneTwisterFast random = state.random[thread];
 
         if (!(newind instanceof DoubleVectorIndividual))  // uh oh
             state.output.fatal("To use AMALGAMSpecies, the species must be initialized with a DoubleVectorIndividual.  But it contains a " + newind);
 
-
         DoubleVectorIndividual dvind = (DoubleVectorIndividual)(newind);
+        fillGenome(state, thread, dvind, 0);
+        return newind;
+        }
+
+    /** Fills the genome of <i>dvind</i> under the current distribution, given that <i>attempts</i> out-of-bounds 
+        genomes have already been generated for it. */
+    void fillGenome(final EvolutionState state, int thread, DoubleVectorIndividual dvind, int attempts)
+        {
+        MersenneTwisterFast random = state.random[thread];
         DenseMatrix64F genome = DenseMatrix64F.wrap(genomeSize,1,dvind.genome);
 
         while (true) 
             {
 
-            if (!firstGeneration) 
+            if (!firstGeneration && (maxResamples == 0 || attempts++ < maxResamples))
                 {
                 for ( int i = 0; i < genomeSize; i++ )
                     dvind.genome[i] = random.nextGaussian();
@@ -506,15 +591,61 @@ public class AMALGAMSpecies extends FloatVectorSpecies
                     continue;
                     }
                 } 
-            else 
+            else   // first generation, or we've given up
                 {
                 for ( int i = 0; i < genomeSize; i++ )
                     dvind.genome[i] = minGene(i) + (maxGene[i] - minGene(i)) * random.nextDouble();
                 }
 
-            return newind;
+            return;
+            }
+        }
+
+    /** Replaces the individuals in <i>inds</i>, from index <i>start</i> onwards, with new individuals generated
+        under the current distribution.  After the first generation, this generates them all at once by multiplying
+        the Cholesky factor by a single matrix of standard normal vectors, rather than calling newIndividual(...) for
+        each of them.  Individuals which violate the min/max gene bounds are then regenerated one at a time,
+        as in newIndividual(...). */
+    public void newIndividuals(final EvolutionState state, int thread, ArrayList<Individual> inds, int start)
+        {
+        int num = inds.size() - start;
+        if (firstGeneration || num <= 0)
+            {
+            for (int k = start; k < inds.size(); k++)
+                inds.set(k, newIndividual(state, thread));
+            return;
+            }
+
+        MersenneTwisterFast random = state.random[thread];
+        if (samples == null || samples.numCols != num)
+            {
+            samples = new DenseMatrix64F(genomeSize, num);
+            sampled = new DenseMatrix64F(genomeSize, num);
+            }
+
+        DoubleVectorIndividual[] newinds = new DoubleVectorIndividual[num];
+        for (int k = 0; k < num; k++)
+            {
+            Individual newind = super.newIndividual(state, thread);
+            if (!(newind instanceof DoubleVectorIndividual))  // uh oh
+                state.output.fatal("To use AMALGAMSpecies, the species must be initialized with a DoubleVectorIndividual.  But it contains a " + newind);
+            newinds[k] = (DoubleVectorIndividual)newind;
+            for (int i = 0; i < genomeSize; i++)
+                samples.unsafe_set(i, k, random.nextGaussian());
             }
 
+        // each column of sampled is choleskyLower times the corresponding column of samples
+        multLower(choleskyLower, samples, sampled);
+
+        for (int k = 0; k < num; k++)
+            {
+            double[] genome = newinds[k].genome;
+            for (int i = 0; i < genomeSize; i++)
+                genome[i] = sampled.unsafe_get(i, k) + mean.data[i];
+            if (!isValid(newinds[k]))
+                fillGenome(state, thread, newinds[k], 1);  // try again the slow way
+            inds.set(start + k, newinds[k]);
+            }
         }
 
     public void adaptDistributionMultiplier(final EvolutionState state, final Subpopulation subpop) 
@@ -540,7 +671,7 @@ public class AMALGAMSpecies extends FloatVectorSpecies
             noImprovementStretch = 0;
             if (distributionMultiplier < 1) distributionMultiplier = 1;
 
-            xAvgImp = new DenseMatrix64F(genomeSize, 1);
+            CommonOps.fill(xAvgImp, 0);
             int count = 0;
             for (int j = 1; j < tau*subpop.individuals.size(); j++) 
                 {
@@ -555,9 +686,17 @@ public class AMALGAMSpecies extends FloatVectorSpecies
                 }
             CommonOps.scale(1.0/count,xAvgImp,xAvgImp);
 
+            // temp3 = choleskyLower^-1 * (xAvgImp - mean).  choleskyLower is lower triangular,
+            // so we can do this by forward substitution rather than inverting it
             CommonOps.subtract(xAvgImp, mean, temp);
-            CommonOps.invert(choleskyLower, tempMatrix);
-            CommonOps.mult(tempMatrix, temp, temp3);
+            double[] lower = choleskyLower.data;
+            for (int r = 0; r < genomeSize; r++)
+                {
+                double sum = temp.data[r];
+                for (int c = 0; c < r; c++)
+                    sum -= lower[r * genomeSize + c] * temp3.data[c];
+                temp3.data[r] = sum / lower[r * genomeSize + r];
+                }
             double sdr = CommonOps.elementMaxAbs(temp3);
 
             if (sdr > stDevRatioThresh) 
@@ -617,20 +756,35 @@ public class AMALGAMSpecies extends FloatVectorSpecies
 
         }
 
+    /** Copies the genomes of the best tau individuals into the rows of selected. */
+    public void loadSelected(final EvolutionState state, final Subpopulation subpop)
+        {
+        int numSelected = (int)Math.ceil(tau*subpop.individuals.size());
+        if (selected == null || selected.numRows != numSelected)
+            selected = new DenseMatrix64F(numSelected, genomeSize);
+        for (int i = 0; i < numSelected; i++) 
+            {
+            DoubleVectorIndividual dvind = (DoubleVectorIndividual)(subpop.individuals.get(i));
+            System.arraycopy(dvind.genome, 0, selected.data, i * genomeSize, genomeSize);
+            }
+        }
+
     public void computeMean(final EvolutionState state, final Subpopulation subpop) 
         {
+        loadSelected(state, subpop);
         prevMean.set(mean);
         CommonOps.fill(mean,0);
         if (distributionMultiplier >= 1.0) 
             {
-            int i;
-            for (i = 0; i < tau*subpop.individuals.size(); i++) 
+            double[] m = mean.data;
+            double[] s = selected.data;
+            for (int i = 0; i < selected.numRows; i++) 
                 {
-                DoubleVectorIndividual dvind = (DoubleVectorIndividual)(subpop.individuals.get(i));
-                DenseMatrix64F genome = DenseMatrix64F.wrap(genomeSize,1,dvind.genome);
-                CommonOps.add(mean,genome,mean);
+                int row = i * genomeSize;
+                for (int j = 0; j < genomeSize; j++)
+                    m[j] += s[row + j];
                 }
-            CommonOps.scale(1.0/i,mean,mean);
+            CommonOps.scale(1.0/selected.numRows,mean,mean);
             } 
         else 
             {
@@ -640,29 +794,99 @@ public class AMALGAMSpecies extends FloatVectorSpecies
             }
         }
 
-    public void computeCovariance(final EvolutionState state, final Subpopulation subpop) 
+    /** The width of the blocks of the covariance matrix computed by multInner(...).  A block of the matrix
+        (32K) stays in cache while the rows of the selected individuals are streamed past it. */
+    public static final int BLOCK_SIZE = 64;
+
+    /** Sets <i>c</i> to a' * a.  Since c is symmetric, this only computes its upper triangle, one 
+        BLOCK_SIZE x BLOCK_SIZE block at a time, and then copies it to the lower triangle.  Unlike
+        CommonOps.multInner(...), this reads <i>a</i> a row at a time.  */
+    public static void multInner(DenseMatrix64F a, DenseMatrix64F c)
         {
-        CommonOps.fill(genCovarMatrix, 0);
+        int rows = a.numRows;
+        int n = a.numCols;
+        double[] ad = a.data;
+        double[] cd = c.data;
+        CommonOps.fill(c, 0);
 
-        int i;
-        for (i = 0; i < tau*subpop.individuals.size(); i++) 
+        for (int bi = 0; bi < n; bi += BLOCK_SIZE)
             {
-            DoubleVectorIndividual dvind = (DoubleVectorIndividual)(subpop.individuals.get(i));
-            DenseMatrix64F genome = DenseMatrix64F.wrap(genomeSize,1,dvind.genome);
-            CommonOps.subtract(genome,mean,temp);
-            CommonOps.transpose(temp,temp2);
-            CommonOps.multAdd(temp,temp2,genCovarMatrix);
+            int endi = Math.min(bi + BLOCK_SIZE, n);
+            for (int bj = bi; bj < n; bj += BLOCK_SIZE)
+                {
+                int endj = Math.min(bj + BLOCK_SIZE, n);
+                for (int r = 0; r < rows; r++)
+                    {
+                    int row = r * n;
+                    for (int i = bi; i < endi; i++)
+                        {
+                        double v = ad[row + i];
+                        if (v == 0) continue;
+                        int ci = i * n;
+                        for (int j = Math.max(i, bj); j < endj; j++)
+                            cd[ci + j] += v * ad[row + j];
+                        }
+                    }
+                }
             }
 
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < i; j++)
+                cd[i * n + j] = cd[j * n + i];
+        }
 
+    /** Sets <i>c</i> to l * b, where <i>l</i> is lower triangular, skipping its upper triangle of zeros.  
+        Each row of c is built up by adding multiples of the rows of b, so b and c are read a row at a time. */
+    public static void multLower(DenseMatrix64F l, DenseMatrix64F b, DenseMatrix64F c)
+        {
+        int n = l.numRows;
+        int cols = b.numCols;
+        double[] ld = l.data;
+        double[] bd = b.data;
+        double[] cd = c.data;
+        CommonOps.fill(c, 0);
+
+        for (int i = 0; i < n; i++)
+            {
+            int ci = i * cols;
+            for (int k = 0; k <= i; k++)
+                {
+                double v = ld[i * n + k];
+                if (v == 0) continue;
+                int bk = k * cols;
+                for (int j = 0; j < cols; j++)
+                    cd[ci + j] += v * bd[bk + j];
+                }
+            }
+        }
 
-        CommonOps.scale(1.0/i,genCovarMatrix,genCovarMatrix);
+    /** Computes the covariance of the selected individuals, which computeMean(...) must have loaded. */
+    public void computeCovariance(final EvolutionState state, final Subpopulation subpop) 
+        {
+        int numSelected = selected.numRows;
+        if (centered == null || centered.numRows != numSelected)
+            centered = new DenseMatrix64F(numSelected, genomeSize);
+
+        // genCovarMatrix = centered' * centered / numSelected, where each row of centered
+        // is a selected individual minus the mean
+        double[] c = centered.data;
+        double[] s = selected.data;
+        for (int i = 0; i < numSelected; i++)
+            {
+            int row = i * genomeSize;
+            for (int j = 0; j < genomeSize; j++)
+                c[row + j] = s[row + j] - mean.data[j];
+            }
+        multInner(centered, genCovarMatrix);
+        CommonOps.scale(1.0/numSelected,genCovarMatrix,genCovarMatrix);
 
         if (!firstGeneration) 
             {
-            CommonOps.scale(etaS, genCovarMatrix, genCovarMatrix);
-            CommonOps.scale(1-etaS, aggCovarMatrix, aggCovarMatrix);
-            CommonOps.add(aggCovarMatrix, genCovarMatrix, aggCovarMatrix);
+            // aggCovarMatrix = (1 - etaS) * aggCovarMatrix + etaS * genCovarMatrix
+            double[] agg = aggCovarMatrix.data;
+            double[] gen = genCovarMatrix.data;
+            for (int i = 0; i < agg.length; i++)
+                agg[i] = (1-etaS) * agg[i] + etaS * gen[i];
             } 
         else 
             {
@@ -670,7 +894,7 @@ public class AMALGAMSpecies extends FloatVectorSpecies
             }    
         CommonOps.scale(distributionMultiplier, aggCovarMatrix, covarMatrix);
 
-        for ( i = 0; i < genomeSize; i++ )
+        for (int i = 0; i < genomeSize; i++ )
             for (int j = 0; j < i; j++ )
                 covarMatrix.set(i,j,covarMatrix.get(j,i));
         }
@@ -721,13 +945,7 @@ public class AMALGAMSpecies extends FloatVectorSpecies
             adaptDistributionMultiplier(state, subpop);
             }
 
-        Collections.sort(subpop.individuals, new Comparator<Individual>() 
-                {
-                public int compare(Individual a, Individual b) 
-                    {
-                    return compareIndividuals(a, b);
-                    }
-            });
+        sortIndividuals(subpop);
         // printStats(state,subpop);
 
         if (subpop.individuals.get((int)tau*subpop.individuals.size()).fitness.fitness() == subpop.individuals.get(0).fitness.fitness()) 
@@ -747,7 +965,8 @@ public class AMALGAMSpecies extends FloatVectorSpecies
 
 
         // System.out.println("distributionMultiplier: " + distributionMultiplier);
-        CholeskyDecomposition chol = DecompositionFactory.chol(genomeSize, true);
+        if (chol == null)
+            chol = DecompositionFactory.chol(genomeSize, true);
 
         tempMatrix.set(covarMatrix);
 
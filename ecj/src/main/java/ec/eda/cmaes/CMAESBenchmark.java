@@ -0,0 +1,91 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.eda.cmaes;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.simple.SimpleStatistics;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import java.io.*;
+
+/**
+ * CMAESBenchmark times the three modes of CMAESSpecies (full, sep, and lm) on the BBOB sphere and
+ * separable ellipsoid functions for genomes of 100, 1000, and 10000 genes.  For each it prints the time
+ * taken to set up and build the initial population, the mean time per generation, and the best fitness found.
+ *
+ * <p>Usage: <tt>java ec.eda.cmaes.CMAESBenchmark [generations] [largest genome size for the full mode]</tt>
+ *
+ * <p>The defaults are 100 generations, and 1000 for the largest genome size for the full mode.  The full mode
+ * needs several n x n matrices, which at n = 10000 come to several gigabytes, so by default it is skipped there.
+ * The optimum of each function is 0.  The genes are bounded by [-100, 100], well outside the region of
+ * interest ([-5, 5]), so that rejecting out-of-bounds individuals doesn't dominate the timings.
+ */
+
+public class CMAESBenchmark
+    {
+    public static final int[] SIZES = { 100, 1000, 10000 };
+    public static final String[] MODES = { CMAESSpecies.V_FULL, CMAESSpecies.V_SEP, CMAESSpecies.V_LM };
+    public static final String[] PROBLEMS = { "sphere", "ellipsoidal" };
+
+    static ParameterDatabase parameters(String problem, String mode, int n, int generations) throws IOException
+        {
+        ParameterDatabase parameters = new ParameterDatabase("cmaes.params", CMAESBenchmark.class);
+        parameters.set(new Parameter(Evolve.P_SILENT), "true");
+        parameters.set(new Parameter("stat.silent"), "true");
+        parameters.set(new Parameter("generations"), "" + generations);
+        parameters.set(new Parameter("seed.0"), "1");
+        parameters.set(new Parameter("eval.problem"), "ec.app.bbob.BBOBenchmarks");
+        parameters.set(new Parameter("eval.problem.type"), problem);
+        parameters.set(new Parameter("eval.problem.noise"), "none");
+        parameters.set(new Parameter("eval.problem").push(ec.app.bbob.BBOBenchmarks.P_ZERO_IS_BEST), "true");
+        Parameter species = new Parameter("pop.subpop.0.species");
+        parameters.set(species.push("fitness"), "ec.simple.SimpleFitness");
+        parameters.set(species.push("genome-size"), "" + n);
+        parameters.set(species.push("min-gene"), "-100.0");
+        parameters.set(species.push("max-gene"), "100.0");
+        parameters.set(species.push(CMAESSpecies.P_MEAN), CMAESSpecies.V_ZERO);
+        parameters.set(species.push(CMAESSpecies.P_SIGMA), "1.0");
+        parameters.set(species.push(CMAESSpecies.P_MODE), mode);
+        return parameters;
+        }
+
+    public static void main(String[] args) throws IOException
+        {
+        int generations = (args.length > 0 ? Integer.parseInt(args[0]) : 100);
+        int maxFull = (args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+
+        System.out.println("problem\tn\tmode\tsetup (ms)\tms/generation\tbest fitness");
+        for(int p = 0; p < PROBLEMS.length; p++)
+            for(int s = 0; s < SIZES.length; s++)
+                for(int m = 0; m < MODES.length; m++)
+                    {
+                    int n = SIZES[s];
+                    if (MODES[m].equals(CMAESSpecies.V_FULL) && n > maxFull)
+                        {
+                        System.out.println(PROBLEMS[p] + "\t" + n + "\t" + MODES[m] + "\tskipped");
+                        continue;
+                        }
+
+                    EvolutionState state = Evolve.initialize(parameters(PROBLEMS[p], MODES[m], n, generations), 0);
+                    long start = System.nanoTime();
+                    state.startFresh();
+                    long setup = System.nanoTime();
+                    int result = EvolutionState.R_NOTDONE;
+                    while(result == EvolutionState.R_NOTDONE)
+                        result = state.evolve();
+                    long end = System.nanoTime();
+                    double best = ((SimpleStatistics)(state.statistics)).getBestSoFar()[0].fitness.fitness();
+                    state.finish(result);
+                    Evolve.cleanup(state);
+
+                    System.out.println(PROBLEMS[p] + "\t" + n + "\t" + MODES[m] + "\t" +
+                        ((setup - start) / 1000000) + "\t" +
+                        String.format("%.2f", (end - setup) / 1.0e6 / Math.max(1, state.generation)) + "\t" + best);
+                    }
+        }
+    }
@@ -18,8 +18,10 @@ import org.ejml.ops.NormOps;
 import org.ejml.ops.RandomMatrices;
 import org.ejml.simple.SimpleMatrix;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 
 /* 
  * CMAESSpecies.java
@@ -83,7 +85,27 @@ import java.util.Collections;
  * if a specific gene bound is violated, then *for that gene only* the value is chosen at
  * random uniformly from within the gene bounds.
  *
- * <p>CMAESSpecies relies on the EJML matrix library, available at 
+ * <p>The standard ("full") version of CMA-ES keeps an n x n covariance matrix, so each
+ * individual costs O(n^2) to generate, and every so often the matrix must be
+ * eigendecomposed at a cost of O(n^3).  This makes genomes much larger than 1000 genes
+ * impractical.  The <tt>mode</tt> parameter offers two variants which scale to much larger
+ * genomes.  The <b>sep</b> mode is sep-CMA-ES (Ros and Hansen 2008), which only adapts the
+ * diagonal of the covariance matrix: it costs O(n) per individual and never needs an
+ * eigendecomposition, but cannot learn correlations between genes.  By default it
+ * multiplies c1 and cmu by (n+2)/3, which compensates for the fewer parameters it has to learn.
+ * The <b>lm</b> mode is the limited-memory LM-MA-ES (Loshchilov, Glasmachers, and Beyer 2018),
+ * which represents the covariance matrix implicitly with a small number of direction
+ * vectors (<tt>memory</tt>, by default 4 + floor(3 ln n)), at a cost of O(memory x n) per individual.
+ * LM-MA-ES has its own learning rates for these directions: it ignores cc, c1, cmu, and damps,
+ * and defaults cs to min(1, 2 lambda / n).  It only supports the identity initial covariance,
+ * and does not do the alternative termination.
+ *
+ * <p>In the full mode, CMAESBreeder generates the whole population at once with
+ * newIndividuals(...), which does a single matrix multiply rather than one per individual.
+ * The covariance matrix is updated in place, and the eigendecomposition is only redone when
+ * the covariance matrix has had time to change enough to matter.
+ *
+ * <p>CMAESSpecies relies on the EJML matrix library, available at
  * <a href="http://ejml.org/">http://ejml.org/</a>
 
  <p><b>Parameters</b><br>
@@ -196,6 +218,18 @@ import java.util.Collections;
  <td valign=top>Should we also terminate on CMA-ES's additional termination conditions?.
  </td></tr>
 
+ <tr><td valign=top><i>base</i>.<tt>mode</tt><br>
+ <font size=-1>String, one of full (default), sep, or lm</td>
+ <td valign=top>Which variant of CMA-ES to use: the full covariance matrix, only its diagonal
+ (sep-CMA-ES), or a limited-memory approximation (LM-MA-ES).
+ </td></tr>
+
+ <tr><td valign=top><i>base</i>.<tt>memory</tt><br>
+ <font size=-1>Integer > 0</td>
+ <td valign=top>(number of direction vectors in the lm mode)<br>
+ If not provided, this defaults to 4 + Math.floor(3 * Math.log(n)).
+ </td></tr>
+
  </table>
 
 
@@ -235,6 +269,19 @@ public class CMAESSpecies extends FloatVectorSpecies
     public static final String P_ALTERNATIVE_GENERATOR = "alternative-generator";
     public static final String P_ALTERNATIVE_GENERATOR_TRIES = "alternative-generator-tries";
 
+    public static final String P_MODE = "mode";
+    public static final String V_FULL = "full";
+    public static final String V_SEP = "sep";
+    public static final String V_LM = "lm";
+    public static final String P_MEMORY = "memory";
+
+    public static final int MODE_FULL = 0;
+    public static final int MODE_SEP = 1;
+    public static final int MODE_LM = 2;
+
+    /** Which variant of CMA-ES we're using: MODE_FULL, MODE_SEP, or MODE_LM. */
+    public int mode = MODE_FULL;
+
     /** The individuals generated from the distribution. 
         If not specified in the parameters, by default 
         lambda = 4+(int)Math.floor(3*Math.log(n));
@@ -300,13 +347,13 @@ public class CMAESSpecies extends FloatVectorSpecies
     /** The mean of the distribution. */
     public SimpleMatrix xmean;
 
-    /** The "C" covariance matrix of the distribution. */
+    /** The "C" covariance matrix of the distribution.  Only used in the full mode, otherwise null. */
     public SimpleMatrix c;
 
-    /** The "B" matrix, eigendecomposed from the "C" covariance matrix of the distribution. */
+    /** The "B" matrix, eigendecomposed from the "C" covariance matrix of the distribution.  Only used in the full mode, otherwise null. */
     public SimpleMatrix b;
 
-    /** The "C" matrix, eigendecomposed from the "C" covariance matrix of the distribution. */
+    /** The "C" matrix, eigendecomposed from the "C" covariance matrix of the distribution.  Only used in the full mode, otherwise null. */
     public SimpleMatrix d;
     
     /** b x d */
@@ -324,6 +371,36 @@ public class CMAESSpecies extends FloatVectorSpecies
     /** The p_c evolution path vector. */
     public SimpleMatrix pc;
     
+    /** In the sep mode, the diagonal of the "C" covariance matrix, otherwise null. */
+    public double[] diagC;
+
+    /** In the sep mode, the square roots of diagC, otherwise null. */
+    public double[] diagD;
+
+    /** In the lm mode, the maximum number of direction vectors.
+        If not specified in the parameters, by default
+        memory = 4 + (int)Math.floor(3 * Math.log(n))
+        where n is the genome size.
+    */
+    public int memory;
+
+    /** In the lm mode, the direction vectors which stand in for the covariance matrix, otherwise null. */
+    public double[][] directions;
+
+    /** In the lm mode, how many of the direction vectors are presently in use.  This grows by one each generation up to memory. */
+    public int numDirections;
+
+    /** In the lm mode, the c_d learning rate for applying each direction vector when generating an individual.
+        This is cd[j] = 1 / (1.5^j * n), where n is the genome size. */
+    public double[] cd;
+
+    /** In the lm mode, the c_c learning rate for updating each direction vector.
+        This is ccd[j] = Math.min(1, lambda / (4^j * n)), where n is the genome size. */
+    public double[] ccd;
+
+    /** In the lm mode, the standard normal vectors from which each individual was generated, needed to update the distribution. */
+    IdentityHashMap<Individual, double[]> lmSamples;
+
     /** An estimate of the expected size of the standard multivariate gaussian N(0,I). 
         This is chiN = Math.sqrt(n)*(1.0-1.0/(4.0*n)+1.0/(21.0*n*n))
     */
@@ -345,6 +422,18 @@ public class CMAESSpecies extends FloatVectorSpecies
     /** Default value (100) for altGeneratorTries. */
     public static final int DEFAULT_ALT_GENERATOR_TRIES = 100;
         
+    // Scratch space, reused from generation to generation so we don't have to keep allocating
+    // large matrices.  It is all allocated on demand, and not checkpointed.
+    transient EigenDecomposition<DenseMatrix64F> eig;
+    transient DenseMatrix64F eigenCopy;
+    transient double[] xold;
+    transient DenseMatrix64F y;
+    transient DenseMatrix64F bz;
+    transient DenseMatrix64F artmp;
+    transient DenseMatrix64F artmpw;
+    transient DenseMatrix64F arz;
+    transient DenseMatrix64F arx;
+    transient double[] zmean;
 
 
     public Parameter defaultBase()
@@ -374,12 +463,26 @@ public class CMAESSpecies extends FloatVectorSpecies
                 state.output.fatal("If CMA-ES sigma is provided, it must be > 0.0", base.push(P_SIGMA), def.push(P_SIGMA));
             }
 
+        String m = state.parameters.getStringWithDefault(base.push(P_MODE), def.push(P_MODE), V_FULL);
+        if (m.equals(V_FULL))
+            mode = MODE_FULL;
+        else if (m.equals(V_SEP))
+            mode = MODE_SEP;
+        else if (m.equals(V_LM))
+            mode = MODE_LM;
+        else
+            state.output.fatal("Invalid CMA-ES mode " + m + ", must be one of " + V_FULL + ", " + V_SEP + ", or " + V_LM,
+                base.push(P_MODE), def.push(P_MODE));
+
         double[] cvals = new double[genomeSize];
         String covarianceInitialization = state.parameters.getStringWithDefault(base.push(P_COVARIANCE), def.push(P_COVARIANCE), V_IDENTITY);
-        String covs = "Initial Covariance: <";
+        if (mode == MODE_LM && !covarianceInitialization.equals(V_IDENTITY))
+            state.output.fatal("The CMA-ES " + V_LM + " mode only supports " + V_IDENTITY + " covariance initialization.",
+                base.push(P_COVARIANCE), def.push(P_COVARIANCE));
+        StringBuilder covs = new StringBuilder("Initial Covariance: <");
         for(int i = 0; i < genomeSize; i++)
             {
-            if (i > 0) covs += ", ";
+            if (i > 0) covs.append(", ");
             if (covarianceInitialization.equals(V_SCALED))
                 {
                 cvals[i] = (maxGene(i) - minGene(i));
@@ -396,49 +499,37 @@ public class CMAESSpecies extends FloatVectorSpecies
                                 
             // cvals is standard deviations, so we change them to variances now
             cvals[i] *= cvals[i];
-            covs += cvals[i];
+            covs.append(cvals[i]);
             }
-        state.output.message(covs + ">");
+        state.output.message(covs.append(">").toString());
                 
         // set myself up and define my initial distribution here
         int n = genomeSize;
-        b = SimpleMatrix.identity(n);
-        c = new SimpleMatrix(CommonOps.diag(cvals));
-        
-        d = SimpleMatrix.identity(n);
-        bd = CommonOps.identity(n,n);
-        sbd = CommonOps.identity(n,n);
-        invsqrtC = SimpleMatrix.identity(n);
-
-        
-        // Here we do one FIRST round of eigendecomposition, because newIndividual needs
-        // a valid version of sbd.  If c is initially the identity matrix (and sigma = 1), 
-        // then sbd is too, and we're done.  But if c is scaled in any way, we need to compute
-        // the proper value of sbd.  Along the way we'll wind up computing b, d, bd, and invsqrtC
-                
-        EigenDecomposition<DenseMatrix64F> eig = DecompositionFactory.eig(genomeSize,true,true);
-        if( eig.decompose(c.copy().getMatrix())) 
+        if (mode == MODE_FULL)
             {
-            SimpleMatrix dinv = new SimpleMatrix(genomeSize,genomeSize);
-            for(int i = 0; i < genomeSize; i++)
-                {
-                double eigrt = Math.sqrt(eig.getEigenvalue(i).real);
-                d.set(i,i,eigrt);
-                dinv.set(i,i,1/eigrt);
-                CommonOps.insert(eig.getEigenVector(i), b.getMatrix(),0,i);
-                }
-
-            invsqrtC = b.mult(dinv.mult(b.transpose()));
-            CommonOps.mult(b.getMatrix(),d.getMatrix(), bd);
+            b = SimpleMatrix.identity(n);
+            c = new SimpleMatrix(CommonOps.diag(cvals));
+        
+            d = SimpleMatrix.identity(n);
+            bd = CommonOps.identity(n,n);
+            sbd = CommonOps.identity(n,n);
+            invsqrtC = SimpleMatrix.identity(n);
+
+            // Here we do one FIRST round of eigendecomposition, because newIndividual needs
+            // a valid version of sbd.  If c is initially the identity matrix (and sigma = 1), 
+            // then sbd is too, and we're done.  But if c is scaled in any way, we need to compute
+            // the proper value of sbd.  Along the way we'll wind up computing b, d, bd, and invsqrtC
+            if (!covarianceInitialization.equals(V_IDENTITY))
+                eigenDecomposition(state);
+            CommonOps.scale(sigma, bd, sbd);
             }
-        else
+        else if (mode == MODE_SEP)
             {
-            state.output.fatal("CMA-ES eigendecomposition failed. ");
+            diagC = cvals;
+            diagD = new double[n];
+            for(int i = 0; i < n; i++)
+                diagD[i] = Math.sqrt(diagC[i]);
             }
-        CommonOps.scale(sigma, bd, sbd);
-                
-        // End FIRST round of eigendecomposition
-        
         
 
         // Initialize dynamic (internal) strategy parameters and constants
@@ -506,11 +597,11 @@ public class CMAESSpecies extends FloatVectorSpecies
             state.output.warning("A default mean value was specified, but certain mean values were overridden."); 
             }
 
-        String mes = "Initial Mean: <";
+        StringBuilder mean = new StringBuilder("Initial Mean: <");
         for(int i = 0; i < genomeSize - 1; i++)
-            mes = mes + xmean.get(i,0) + ", ";
-        mes = mes + xmean.get(genomeSize-1, 0) + ">";
-        state.output.message(mes);              
+            mean.append(xmean.get(i,0)).append(", ");
+        mean.append(xmean.get(genomeSize-1, 0)).append(">");
+        state.output.message(mean.toString());              
 
         if(!state.parameters.exists(base.push(P_LAMBDA), def.push(P_LAMBDA)))
             {
@@ -580,7 +671,7 @@ public class CMAESSpecies extends FloatVectorSpecies
             sumSqr += weights[i]*weights[i];
         mueff=1.0/sumSqr;
 
-        mes = "Weights: <";
+        String mes = "Weights: <";
         for(int i = 0; i < weights.length -1; i++)
             mes = mes + weights[i] + ", ";
         mes = mes + (weights.length - 1) + ">";
@@ -606,7 +697,10 @@ public class CMAESSpecies extends FloatVectorSpecies
 
         if(!state.parameters.exists(base.push(P_CS), def.push(P_CS)))
             {
-            cs = (mueff+2.0)/(n+mueff+5.0);  // t-const for cumulation for sigma control
+            if (mode == MODE_LM)
+                cs = Math.min(1.0, 2.0*lambda/n);
+            else
+                cs = (mueff+2.0)/(n+mueff+5.0);  // t-const for cumulation for sigma control
             }
         else
             {
@@ -618,6 +712,8 @@ public class CMAESSpecies extends FloatVectorSpecies
         if(!state.parameters.exists(base.push(P_C1), def.push(P_C1)))
             {
             c1 = 2.0 / ((n+1.3)*(n+1.3)+mueff);  // learning rate for rank-one update of C
+            if (mode == MODE_SEP)
+                c1 *= (n+2.0)/3.0;
             }
         else
             {
@@ -628,7 +724,10 @@ public class CMAESSpecies extends FloatVectorSpecies
         
         if(!state.parameters.exists(base.push(P_CMU), def.push(P_CMU)))
             {
-            cmu = Math.min(1.0-c1, 2.0*(mueff-2.0+1.0/mueff) / ((n+2.0)*(n+2.0)+mueff));
+            if (mode == MODE_SEP)
+                cmu = Math.min(1.0-c1, (n+2.0)/3.0 * 2.0*(mueff-2.0+1.0/mueff) / ((n+2.0)*(n+2.0)+mueff));
+            else
+                cmu = Math.min(1.0-c1, 2.0*(mueff-2.0+1.0/mueff) / ((n+2.0)*(n+2.0)+mueff));
             }
         else
             {
@@ -658,14 +757,48 @@ public class CMAESSpecies extends FloatVectorSpecies
         if (damps > damps_max || damps < damps_min)
             state.output.warning("CMA-ES damps ought to be close to 1.  You are using damps = " + damps);  
 
+        if (mode == MODE_LM)
+            {
+            if(!state.parameters.exists(base.push(P_MEMORY), def.push(P_MEMORY)))
+                {
+                memory = 4+(int)Math.floor(3*Math.log(n));
+                }
+            else
+                {
+                memory = state.parameters.getInt(base.push(P_MEMORY), def.push(P_MEMORY),1);
+                if (memory <= 0) 
+                    state.output.fatal("If the CMA-ES memory parameter is provided, it must be a valid integer > 0", base.push(P_MEMORY), def.push(P_MEMORY));
+                }
+
+            directions = new double[memory][n];
+            numDirections = 0;
+            cd = new double[memory];
+            ccd = new double[memory];
+            for(int j = 0; j < memory; j++)
+                {
+                cd[j] = 1.0 / (Math.pow(1.5, j) * n);
+                ccd[j] = Math.min(1.0, lambda / (Math.pow(4.0, j) * n));
+                }
+            lmSamples = new IdentityHashMap<Individual, double[]>();
+            }
+
+        state.output.message("mode:   " + m);
         state.output.message("lambda: " + lambda);
         state.output.message("mu:     " + mu);
         state.output.message("mueff:  " + mueff);
-        state.output.message("cmu:    " + cmu);
-        state.output.message("c1:     " + c1);
-        state.output.message("cc:     " + cc);
+        if (mode == MODE_LM)
+            {
+            state.output.message("memory: " + memory);
+            }
+        else
+            {
+            state.output.message("cmu:    " + cmu);
+            state.output.message("c1:     " + c1);
+            state.output.message("cc:     " + cc);
+            }
         state.output.message("cs:     " + cs);
-        state.output.message("damps:  " + damps);
+        if (mode != MODE_LM)
+            state.output.message("damps:  " + damps);
         }
 
 
@@ -675,16 +808,43 @@ public class CMAESSpecies extends FloatVectorSpecies
         CMAESSpecies myobj = (CMAESSpecies) (super.clone());
             
         // clone the distribution and other variables here
-        myobj.c = c.copy();
-        myobj.b = b.copy();
-        myobj.d = d.copy();
-        myobj.bd = bd.copy();
-        myobj.sbd = sbd.copy();
-        myobj.invsqrtC = invsqrtC.copy();
+        if (c != null)
+            {
+            myobj.c = c.copy();
+            myobj.b = b.copy();
+            myobj.d = d.copy();
+            myobj.bd = bd.copy();
+            myobj.sbd = sbd.copy();
+            myobj.invsqrtC = invsqrtC.copy();
+            }
+        if (diagC != null)
+            {
+            myobj.diagC = diagC.clone();
+            myobj.diagD = diagD.clone();
+            }
+        if (directions != null)
+            {
+            myobj.directions = new double[directions.length][];
+            for(int j = 0; j < directions.length; j++)
+                myobj.directions[j] = directions[j].clone();
+            myobj.lmSamples = new IdentityHashMap<Individual, double[]>(lmSamples);
+            }
     
         myobj.xmean = xmean.copy();
         myobj.ps = ps.copy();
         myobj.pc = pc.copy();
+
+        // don't share scratch space
+        myobj.eig = null;
+        myobj.eigenCopy = null;
+        myobj.xold = null;
+        myobj.y = null;
+        myobj.bz = null;
+        myobj.artmp = null;
+        myobj.artmpw = null;
+        myobj.arz = null;
+        myobj.arx = null;
+        myobj.zmean = null;
             
         return myobj;
         } 
@@ -703,37 +863,34 @@ public class CMAESSpecies extends FloatVectorSpecies
         DoubleVectorIndividual dvind = (DoubleVectorIndividual)(newind);
 
         DenseMatrix64F genome = DenseMatrix64F.wrap(genomeSize,1,dvind.genome);
-        DenseMatrix64F temp = new DenseMatrix64F(genomeSize,1);
+        DenseMatrix64F temp = (mode == MODE_FULL ? new DenseMatrix64F(genomeSize,1) : null);
+        double[] z = (mode == MODE_LM ? new double[genomeSize] : null);
 
         // arz(:,k) = randn(N,1); % standard normally distributed vector
         // arx(:,k) = xmean + sigma*(B*D*arz(:,k));
         int tries = 0;
         while(true)
             {           
-            for( int i = 0; i < genomeSize; i++ ) 
-                dvind.genome[i] = random.nextGaussian();
-
-            CommonOps.mult(sbd,genome,temp); // temp = sigma*b*d*genome;
-            CommonOps.add(temp,xmean.getMatrix(),genome); // genome = temp + xmean;
+            if (mode == MODE_SEP)
+                {
+                double[] xm = xmean.getMatrix().data;
+                for( int i = 0; i < genomeSize; i++ ) 
+                    dvind.genome[i] = xm[i] + sigma * diagD[i] * random.nextGaussian();
+                }
+            else if (mode == MODE_LM)
+                {
+                sampleLM(random, dvind.genome, z);
+                }
+            else
+                {
+                for( int i = 0; i < genomeSize; i++ ) 
+                    dvind.genome[i] = random.nextGaussian();
 
-            boolean invalid_value = false;
-            for (int i = 0; i < genomeSize; i++)
-                if (dvind.genome[i] < minGene(i) || dvind.genome[i] > maxGene(i))
-                    {
-                    if (useAltGenerator && tries > altGeneratorTries)
-                        {
-                        // instead of just failing, we're going to select uniformly from
-                        // possible values for this particular gene.
-                        dvind.genome[i] = state.random[thread].nextDouble() * (maxGene(i) - minGene(i)) + minGene(i);
-                        }
-                    else
-                        {
-                        invalid_value = true;
-                        break;
-                        }
-                    }
+                CommonOps.mult(sbd,genome,temp); // temp = sigma*b*d*genome;
+                CommonOps.add(temp,xmean.getMatrix(),genome); // genome = temp + xmean;
+                }
 
-            if (invalid_value) 
+            if (!inBounds(state, thread, dvind.genome, tries)) 
                 {
                 if (++tries > MAX_TRIES_BEFORE_WARNING)
                     state.output.warnOnce("CMA-ES may be slow because many individuals are being generated which\n" +
@@ -747,11 +904,111 @@ public class CMAESSpecies extends FloatVectorSpecies
                 continue;
                 }
 
+            if (z != null)
+                synchronized(lmSamples) { lmSamples.put(newind, z); }
             return newind;
             }
         }
 
 
+    /** Replaces every individual in <i>inds</i> with a new individual generated under the current distribution.
+        In the full mode, this generates them all at once with a single matrix multiply, which is a good deal
+        faster than calling newIndividual(...) for each of them.  Individuals which violate the min/max gene
+        bounds are then regenerated one at a time with newIndividual(...), after the others have been generated: so
+        only then do the random numbers drawn differ from calling newIndividual(...) for each individual.  In the other modes, this simply
+        calls newIndividual(...) for each individual. */
+    public void newIndividuals(final EvolutionState state, int thread, ArrayList<Individual> inds)
+        {
+        int num = inds.size();
+        if (mode != MODE_FULL)
+            {
+            for(int k = 0; k < num; k++)
+                inds.set(k, newIndividual(state, thread));
+            return;
+            }
+
+        MersenneTwisterFast random = state.random[thread];
+        if (arz == null || arz.numCols != num)
+            {
+            arz = new DenseMatrix64F(genomeSize, num);
+            arx = new DenseMatrix64F(genomeSize, num);
+            }
+
+        // arz = randn(N,lambda); % standard normally distributed vectors
+        // arx = repmat(xmean, 1, lambda) + sigma*(B*D*arz);
+        // Each individual is built (which resets its genome) and then given its gaussians, in the same
+        // order newIndividual(...) draws them, so the random numbers only differ if an individual is out of bounds.
+        for(int k = 0; k < num; k++)
+            {
+            Individual newind = super.newIndividual(state, thread);
+            if (!(newind instanceof DoubleVectorIndividual))  // uh oh
+                state.output.fatal("To use CMAESSpecies, the species must be initialized with a DoubleVectorIndividual.  But it contains a " + newind);
+            inds.set(k, newind);
+            for(int i = 0; i < genomeSize; i++)
+                arz.unsafe_set(i, k, random.nextGaussian());
+            }
+        CommonOps.mult(sbd, arz, arx);
+
+        double[] xm = xmean.getMatrix().data;
+        for(int k = 0; k < num; k++)
+            {
+            double[] genome = ((DoubleVectorIndividual)(inds.get(k))).genome;
+            for(int i = 0; i < genomeSize; i++)
+                genome[i] = arx.unsafe_get(i, k) + xm[i];
+            if (!inBounds(state, thread, genome, 0))
+                inds.set(k, newIndividual(state, thread));  // try again the slow way
+            }
+        }
+
+
+    /** Returns true if the genome lies within the min/max gene bounds.  If we are using the alternative 
+        generator and have already made more than altGeneratorTries tries, then genes which violate their
+        bounds are instead replaced with values chosen uniformly between them. */
+    boolean inBounds(final EvolutionState state, int thread, double[] genome, int tries)
+        {
+        for (int i = 0; i < genomeSize; i++)
+            if (genome[i] < minGene(i) || genome[i] > maxGene(i))
+                {
+                if (useAltGenerator && tries > altGeneratorTries)
+                    {
+                    // instead of just failing, we're going to select uniformly from
+                    // possible values for this particular gene.
+                    genome[i] = state.random[thread].nextDouble() * (maxGene(i) - minGene(i)) + minGene(i);
+                    }
+                else
+                    {
+                    return false;
+                    }
+                }
+        return true;
+        }
+
+
+    /** Generates a genome in the lm mode, storing the standard normal vector it was generated from in z.
+        The direction vectors are applied one by one: d = (1 - cd[j]) d + cd[j] directions[j] (directions[j] . d) */
+    void sampleLM(MersenneTwisterFast random, double[] genome, double[] z)
+        {
+        for(int i = 0; i < genomeSize; i++)
+            genome[i] = z[i] = random.nextGaussian();
+
+        for(int j = 0; j < numDirections; j++)
+            {
+            double[] direction = directions[j];
+            double dot = 0.0;
+            for(int i = 0; i < genomeSize; i++)
+                dot += direction[i] * genome[i];
+            double a = 1.0 - cd[j];
+            double b = cd[j] * dot;
+            for(int i = 0; i < genomeSize; i++)
+                genome[i] = a * genome[i] + b * direction[i];
+            }
+
+        double[] xm = xmean.getMatrix().data;
+        for(int i = 0; i < genomeSize; i++)
+            genome[i] = xm[i] + sigma * genome[i];
+        }
+
+
     /** Revises the CMA-ES distribution to reflect the current fitness results in the provided subpopulation. */
     public void updateDistribution(final EvolutionState state, final Subpopulation subpop)
         {
@@ -763,92 +1020,259 @@ public class CMAESSpecies extends FloatVectorSpecies
         // only need partial sort?
         Collections.sort(subpop.individuals);
 
-        SimpleMatrix artmp = new SimpleMatrix(genomeSize,mu);
-        SimpleMatrix xold = xmean;
-        xmean = new SimpleMatrix(genomeSize, 1);
+        if (xold == null)
+            {
+            xold = new double[genomeSize];
+            y = new DenseMatrix64F(genomeSize, 1);
+            }
 
+        double[] xm = xmean.getMatrix().data;
+        System.arraycopy(xm, 0, xold, 0, genomeSize);
+        Arrays.fill(xm, 0.0);
         for(int i = 0; i < mu; i++)
             {
-            DoubleVectorIndividual dvind = (DoubleVectorIndividual)(subpop.individuals.get(i));
+            double[] genome = ((DoubleVectorIndividual)(subpop.individuals.get(i))).genome;
+            for(int j = 0; j < genomeSize; j++) 
+                xm[j] += weights[i] * genome[j];
+            }
 
-            // won't modify the genome
-            SimpleMatrix arz = new SimpleMatrix(genomeSize,1,true,dvind.genome);
-            arz = (arz.minus(xold).divide(sigma));
+        // y = (xmean - xold) / sigma
+        for(int j = 0; j < genomeSize; j++)
+            y.data[j] = (xm[j] - xold[j]) / sigma;
 
-            for(int j = 0; j < genomeSize; j++) 
+        if (mode == MODE_SEP)
+            updateSep(state, subpop);
+        else if (mode == MODE_LM)
+            updateLM(state, subpop);
+        else
+            updateFull(state, subpop);
+        }
+
+
+    void updateFull(final EvolutionState state, final Subpopulation subpop)
+        {
+        if (artmp == null || artmp.numCols != mu)
+            {
+            artmp = new DenseMatrix64F(genomeSize, mu);
+            artmpw = new DenseMatrix64F(genomeSize, mu);
+            bz = new DenseMatrix64F(genomeSize, 1);
+            }
+
+        // artmp = (arx(:,arindex(1:mu)) - repmat(xold,1,mu)) / sigma, and artmpw = artmp * diag(weights)
+        for(int i = 0; i < mu; i++)
+            {
+            double[] genome = ((DoubleVectorIndividual)(subpop.individuals.get(i))).genome;
+            for(int j = 0; j < genomeSize; j++)
                 {
-                xmean.set(j,0, xmean.get(j,0)+weights[i]*dvind.genome[j]);
-                artmp.set(j,i,arz.get(j,0));
+                double a = (genome[j] - xold[j]) / sigma;
+                artmp.unsafe_set(j, i, a);
+                artmpw.unsafe_set(j, i, a * weights[i]);
                 }
             }
             
         // % Cumulation: Update evolution paths
 
-        SimpleMatrix y = xmean.minus(xold).divide(sigma);
-        SimpleMatrix bz = invsqrtC.mult( y );
-        SimpleMatrix bz_scaled = bz.scale(Math.sqrt(cs*(2.0-cs) * mueff));
-        ps = ps.scale(1.0-cs).plus(bz_scaled);
+        CommonOps.mult(invsqrtC.getMatrix(), y, bz);
+        double[] p = ps.getMatrix().data;
+        double scale = Math.sqrt(cs*(2.0-cs) * mueff);
+        double psps = 0.0;
+        for(int j = 0; j < genomeSize; j++)
+            {
+            p[j] = (1.0-cs) * p[j] + scale * bz.data[j];
+            psps += p[j] * p[j];
+            }
 
-        double h_sigma_value = ((ps.dot(ps) / (1.0 - Math.pow(1.0 - cs, 2.0 * (state.generation+1)) )) / genomeSize);
+        double h_sigma_value = ((psps / (1.0 - Math.pow(1.0 - cs, 2.0 * (state.generation+1)) )) / genomeSize);
         int hsig = (h_sigma_value < (2.0 + (4.0 / (genomeSize + 1)))) ? 1 : 0;
 
-        SimpleMatrix y_scaled = y.scale(hsig * Math.sqrt(cc * (2.0-cc) * mueff));
-        pc = pc.scale(1.0-cc).plus(y_scaled);
+        double[] q = pc.getMatrix().data;
+        scale = hsig * Math.sqrt(cc * (2.0-cc) * mueff);
+        for(int j = 0; j < genomeSize; j++)
+            q[j] = (1.0-cc) * q[j] + scale * y.data[j];
 
-        // % Adapt covariance matrix C
-        c = c.scale(1.0-c1-cmu);
-        c = c.plus( pc.mult(pc.transpose()).plus(c.scale((1.0-hsig)*cc*(2.0-cc))).scale(c1) );
-        c = c.plus( (artmp.mult(SimpleMatrix.diag(weights).mult(artmp.transpose()))).scale(cmu) );
+        // % Adapt covariance matrix C, in place:
+        // C = (1-c1-cmu) * C + c1 * (pc*pc' + (1-hsig) * cc*(2-cc) * C) + cmu * artmp * diag(weights) * artmp'
+        DenseMatrix64F cm = c.getMatrix();
+        CommonOps.scale((1.0-c1-cmu) * (1.0 + c1*(1.0-hsig)*cc*(2.0-cc)), cm);
+        CommonOps.multAddTransB(c1, pc.getMatrix(), pc.getMatrix(), cm);
+        CommonOps.multAddTransB(cmu, artmpw, artmp, cm);
 
         // % Adapt step-size sigma
-        sigma = sigma*Math.exp((cs/damps)*(ps.normF()/chiN - 1.0));
+        sigma = sigma*Math.exp((cs/damps)*(Math.sqrt(psps)/chiN - 1.0));
 
-        // % Update B and D from C
+        // % Update B and D from C, but only once C has had time to change enough to be worth it
         if((state.generation - lastEigenDecompositionGeneration) > 1.0/((c1+cmu)*genomeSize*10.0) )
             {
             lastEigenDecompositionGeneration = state.generation;
+            eigenDecomposition(state);
+            }
 
-            // make sure the matrix is symmetric (it should be already)
-            // not sure if this is necessary           
-            for(int i = 0; i < genomeSize; i++)
-                for(int j = 0; j < i; j++)
-                    c.set(j,i,c.get(i,j));
+        CommonOps.scale(sigma, bd, sbd);
 
-            // this copy gets modified by the decomposition
-            DenseMatrix64F copy = c.copy().getMatrix();
-            EigenDecomposition<DenseMatrix64F> eig = DecompositionFactory.eig(genomeSize,true,true);
-            if(eig.decompose(copy)) 
+        // % Break, if fitness is good enough or condition exceeds 1e14, better termination methods are advisable 
+        // if arfitness(1) <= stopfitness || max(D) > 1e7 * min(D)
+        //   break;
+        // end
+        if (useAltTermination)
+            {
+            DenseMatrix64F dm = d.getMatrix();
+            double max = dm.unsafe_get(0,0);
+            double min = max;
+            for(int i = 1; i < genomeSize; i++)
                 {
-                SimpleMatrix dinv = new SimpleMatrix(genomeSize,genomeSize);
-                for(int i = 0; i < genomeSize; i++)
-                    {
-                    double eigrt = Math.sqrt(eig.getEigenvalue(i).real);
-                    d.set(i,i,eigrt);
-                    dinv.set(i,i,1/eigrt);
-                    CommonOps.insert(eig.getEigenVector(i), b.getMatrix(),0,i);
-                    }
-
-                invsqrtC = b.mult(dinv.mult(b.transpose()));
-                CommonOps.mult(b.getMatrix(),d.getMatrix(), bd);
+                max = Math.max(max, dm.unsafe_get(i,i));
+                min = Math.min(min, dm.unsafe_get(i,i));
                 }
-            else
+            if (max > 1e7*min)
+                state.evaluator.setRunComplete("CMAESSpecies: Stopped because matrix condition exceeded limit.");
+            }
+        }
+
+
+    /** Eigendecomposes C into B and D, and from them recomputes bd and invsqrtC.
+        This is O(n^3), so it is only called every so often. */
+    public void eigenDecomposition(final EvolutionState state)
+        {
+        DenseMatrix64F cm = c.getMatrix();
+
+        // make sure the matrix is symmetric (it should be already)
+        // not sure if this is necessary           
+        for(int i = 0; i < genomeSize; i++)
+            for(int j = 0; j < i; j++)
+                cm.unsafe_set(j,i,cm.unsafe_get(i,j));
+
+        if (eig == null)
+            {
+            eig = DecompositionFactory.eig(genomeSize,true,true);
+            eigenCopy = new DenseMatrix64F(genomeSize,genomeSize);
+            }
+
+        // this copy gets modified by the decomposition
+        eigenCopy.set(cm);
+        if(!eig.decompose(eigenCopy)) 
+            {
+            state.output.fatal("CMA-ES eigendecomposition failed. ");
+            }
+
+        DenseMatrix64F bm = b.getMatrix();
+        DenseMatrix64F dm = d.getMatrix();
+        for(int i = 0; i < genomeSize; i++)
+            {
+            dm.unsafe_set(i,i,Math.sqrt(eig.getEigenvalue(i).real));
+            CommonOps.insert(eig.getEigenVector(i), bm,0,i);
+            }
+
+        // bd = B * D and invsqrtC = B * D^{-1} * B', since D is diagonal we just scale the columns of B.
+        // We reuse eigenCopy to hold B * D^{-1}
+        for(int i = 0; i < genomeSize; i++)
+            for(int j = 0; j < genomeSize; j++)
                 {
-                state.output.fatal("CMA-ES eigendecomposition failed. ");
+                double eigrt = dm.unsafe_get(j,j);
+                bd.unsafe_set(i,j,bm.unsafe_get(i,j) * eigrt);
+                eigenCopy.unsafe_set(i,j,bm.unsafe_get(i,j) / eigrt);
                 }
+        CommonOps.multTransB(eigenCopy, bm, invsqrtC.getMatrix());
+        }
+
+
+    void updateSep(final EvolutionState state, final Subpopulation subpop)
+        {
+        // % Cumulation: Update evolution paths.  Here C^{-1/2} is just 1/diagD
+        double[] p = ps.getMatrix().data;
+        double scale = Math.sqrt(cs*(2.0-cs) * mueff);
+        double psps = 0.0;
+        for(int j = 0; j < genomeSize; j++)
+            {
+            p[j] = (1.0-cs) * p[j] + scale * y.data[j] / diagD[j];
+            psps += p[j] * p[j];
             }
 
-        CommonOps.scale(sigma, bd, sbd);
+        double h_sigma_value = ((psps / (1.0 - Math.pow(1.0 - cs, 2.0 * (state.generation+1)) )) / genomeSize);
+        int hsig = (h_sigma_value < (2.0 + (4.0 / (genomeSize + 1)))) ? 1 : 0;
 
-        // % Break, if fitness is good enough or condition exceeds 1e14, better termination methods are advisable 
-        // if arfitness(1) <= stopfitness || max(D) > 1e7 * min(D)
-        //   break;
-        // end
-        if(useAltTermination && CommonOps.elementMax(d.extractDiag().getMatrix()) > 1e7*CommonOps.elementMin(d.extractDiag().getMatrix()))
+        double[] q = pc.getMatrix().data;
+        scale = hsig * Math.sqrt(cc * (2.0-cc) * mueff);
+        for(int j = 0; j < genomeSize; j++)
+            q[j] = (1.0-cc) * q[j] + scale * y.data[j];
+
+        // % Adapt the diagonal of C, as in the full mode but ignoring everything off the diagonal
+        double k = (1.0-c1-cmu) * (1.0 + c1*(1.0-hsig)*cc*(2.0-cc));
+        for(int j = 0; j < genomeSize; j++)
+            diagC[j] = k * diagC[j] + c1 * q[j] * q[j];
+        for(int i = 0; i < mu; i++)
             {
-            state.evaluator.setRunComplete("CMAESSpecies: Stopped because matrix condition exceeded limit.");
+            double[] genome = ((DoubleVectorIndividual)(subpop.individuals.get(i))).genome;
+            double w = cmu * weights[i];
+            for(int j = 0; j < genomeSize; j++)
+                {
+                double a = (genome[j] - xold[j]) / sigma;
+                diagC[j] += w * a * a;
+                }
             }
+
+        double max = 0;
+        double min = Double.POSITIVE_INFINITY;
+        for(int j = 0; j < genomeSize; j++)
+            {
+            diagD[j] = Math.sqrt(diagC[j]);
+            max = Math.max(max, diagD[j]);
+            min = Math.min(min, diagD[j]);
+            }
+
+        // % Adapt step-size sigma
+        sigma = sigma*Math.exp((cs/damps)*(Math.sqrt(psps)/chiN - 1.0));
+
+        if (useAltTermination && max > 1e7*min)
+            state.evaluator.setRunComplete("CMAESSpecies: Stopped because matrix condition exceeded limit.");
         }
 
 
-    }
+    void updateLM(final EvolutionState state, final Subpopulation subpop)
+        {
+        if (zmean == null)
+            zmean = new double[genomeSize];
 
+        // zmean = sum_i weights[i] * z_i, where z_i is the standard normal vector individual i was generated from
+        Arrays.fill(zmean, 0.0);
+        for(int i = 0; i < mu; i++)
+            {
+            Individual ind = subpop.individuals.get(i);
+            double[] z;
+            synchronized(lmSamples) { z = lmSamples.get(ind); }
+            if (z == null)  // someone else made this individual, so we just treat it as if the directions were unused
+                {
+                double[] genome = ((DoubleVectorIndividual)ind).genome;
+                z = new double[genomeSize];
+                for(int j = 0; j < genomeSize; j++)
+                    z[j] = (genome[j] - xold[j]) / sigma;
+                }
+            for(int j = 0; j < genomeSize; j++)
+                zmean[j] += weights[i] * z[j];
+            }
+        synchronized(lmSamples) { lmSamples.clear(); }
+
+        // % Cumulation: Update the evolution path for sigma
+        double[] p = ps.getMatrix().data;
+        double scale = Math.sqrt(cs*(2.0-cs) * mueff);
+        double psps = 0.0;
+        for(int j = 0; j < genomeSize; j++)
+            {
+            p[j] = (1.0-cs) * p[j] + scale * zmean[j];
+            psps += p[j] * p[j];
+            }
+
+        // % Update the direction vectors, each of which is an evolution path with its own learning rate
+        for(int i = 0; i < memory; i++)
+            {
+            double[] direction = directions[i];
+            double a = 1.0 - ccd[i];
+            double b = Math.sqrt(mueff * ccd[i] * (2.0 - ccd[i]));
+            for(int j = 0; j < genomeSize; j++)
+                direction[j] = a * direction[j] + b * zmean[j];
+            }
+        numDirections = Math.min(numDirections + 1, memory);
+
+        // % Adapt step-size sigma, with a fixed dampening of 2
+        sigma = sigma*Math.exp((cs/2.0)*(psps/genomeSize - 1.0));
+        }
+    }
@@ -0,0 +1,162 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.eval;
+
+import ec.*;
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+
+/**
+ * AsyncSlaveConnection.java
+ *
+
+ The SlaveConnection used by AsyncSlaveMonitor.  Rather than being handed jobs, its writer thread
+ takes them from the monitor's queue of pending jobs whenever it has a credit to spend, and its
+ reader thread returns the credit when the job comes back.  The <tt>jobs</tt> list holds only the
+ jobs which have been sent to the slave and not yet come back, oldest first, which is the order
+ in which the slave returns them.
+*/
+
+class AsyncSlaveConnection extends SlaveConnection
+    {
+    // the number of further jobs we may send to the slave before one comes back
+    Semaphore credits;
+
+    AsyncSlaveMonitor asyncMonitor;
+
+    public AsyncSlaveConnection( EvolutionState state,
+        String slaveName,
+        Socket evalSocket,
+        DataOutputStream dataOut,
+        DataInputStream dataIn,
+        AsyncSlaveMonitor slaveMonitor )
+        {
+        super(state, slaveName, evalSocket, dataOut, dataIn, slaveMonitor);
+        asyncMonitor = slaveMonitor;
+        credits = new Semaphore(slaveMonitor.maxJobsPerSlave);
+        }
+
+    boolean writeLoop()
+        {
+        Job job;
+        try
+            {
+            credits.acquire();
+            job = asyncMonitor.nextJob(this);
+            }
+        catch (InterruptedException e)
+            {
+            return false;  // we're being shut down
+            }
+
+        Job original = (job.original == null ? job : job.original);
+        try
+            {
+            // Lock the original so no speculative copy updates its individuals while we're writing them out.
+            // Copies have individuals of their own.
+            synchronized(original)
+                {
+                if (original.finished)  // a rescheduled job which a copy has finished in the meantime
+                    {
+                    credits.release();
+                    return true;
+                    }
+                job.sent = true;
+                job.sentAt = System.nanoTime();
+                synchronized(jobs)
+                    {
+                    jobs.addLast(job);
+                    }
+                writeJob(job);
+                }
+            dataOut.flush();
+            }
+        catch (Exception e)     // just in case RuntimeException is thrown
+            {
+            shutdown(state);
+            return false;
+            }
+        return true;
+        }
+
+    boolean readLoop()
+        {
+        Job job = null;
+
+        try
+            {
+            // block on an incoming job
+            byte val = dataIn.readByte();
+            debug(toString() + " Incoming Job");
+
+            // the slave returns jobs in the order we sent them
+            synchronized(jobs)
+                {
+                job = jobs.getFirst();                           // NO SUCH ELEMENT EXCEPTION
+                }
+            debug("Got job: " + job);
+
+            Job original = (job.original == null ? job : job.original);
+            synchronized(original)
+                {
+                job.copyIndividualsForward();
+                }
+            readJob(job, val);
+
+            synchronized(jobs)
+                {
+                jobs.removeFirst();
+                }
+            credits.release();
+
+            asyncMonitor.jobReturned(this, job, state);
+            }
+        catch (IOException e)
+            {
+            shutdown(state);  // will redistribute jobs
+            return false;
+            }
+
+        return true;
+        }
+
+    /**
+       Jobs are taken from the monitor's queue, not scheduled directly on a slave.
+    */
+    public void scheduleJob( final Job job )
+        {
+        asyncMonitor.scheduleJobForEvaluation(state, job);
+        }
+
+    /**
+       Puts the unfinished jobs which were sent to this slave back in the monitor's queue.  Speculative copies are
+       dropped, since the originals are still out on other slaves.
+    */
+    void rescheduleJobs( final EvolutionState state )
+        {
+        while( true )
+            {
+            Job job = null;
+            synchronized(jobs)
+                {
+                if( jobs.isEmpty() ) { return; }
+                job = jobs.removeLast();  // so that they go back into the queue in the original order
+                }
+            if (job.original != null)  // a copy: let the original be copied again
+                {
+                synchronized(job.original) { job.original.speculated = false; }
+                continue;
+                }
+            if (job.isFinished()) continue;
+            debug(Thread.currentThread().getName() + " Rescheduling the evaluation.");
+            job.sent = false;  // reuse
+            asyncMonitor.rescheduleJob(state, job);
+            }
+        }
+    }
@@ -0,0 +1,278 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.eval;
+
+import ec.*;
+import ec.util.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * AsyncSlaveMonitor.java
+ *
+
+ <p>AsyncSlaveMonitor is a SlaveMonitor which does not hand jobs to slaves itself.  Instead,
+ scheduleJobForEvaluation(...) just adds the job to a bounded queue of pending jobs (blocking only
+ if the queue is full), and each slave's connection pulls jobs off the queue as fast as the slave can take them.
+ Thus the threads submitting jobs never wait on the slaves or on one another.
+
+ <p>Flow control is credit-based: each slave has <tt>eval.masterproblem.max-jobs-per-slave</tt> credits.
+ Sending a job to the slave uses up one credit, and its result coming back returns it, so each slave has up to
+ that many jobs pipelined at once.  Results come back in whatever order the slaves finish them, and each
+ job is finished (its individuals updated, its waiters woken, and its Job.Callback called) as soon as it comes back.
+
+ <p>If a slave has nothing to do because the queue is empty, it looks for a <i>straggler</i>: a job which has
+ been out on some other slave for more than <tt>eval.masterproblem.speculation</tt> times the average time a job
+ takes to come back.  It then evaluates a copy of the oldest straggler itself.  Whichever copy comes back first
+ finishes the job, and the other is thrown away.  Each job is copied at most once.  Speculation only starts once
+ a few jobs have come back, so that the average is meaningful; setting <tt>eval.masterproblem.speculation</tt> to 0
+ turns it off.  Since a copy may win, the individuals might not be evaluated by the slave they were first sent to, so
+ speculation should be turned off if evaluation has side effects on the slaves.
+
+ <p>If a slave is lost, its jobs (but not its speculative copies) are put back at the front of the queue.
+
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><tt>eval.masterproblem.queue-size</tt><br>
+ <font size=-1>int &gt; 0 (default 1024)</font></td>
+ <td valign=top>(the maximum number of jobs waiting to be sent to a slave)</td></tr>
+
+ <tr><td valign=top><tt>eval.masterproblem.speculation</tt><br>
+ <font size=-1>double &gt;= 0 (default 2.0)</font></td>
+ <td valign=top>(how many times longer than average a job must take before an idle slave evaluates a copy of it, or 0 for never)</td></tr>
+ </table>
+*/
+
+public class AsyncSlaveMonitor extends SlaveMonitor
+    {
+    public static final String P_QUEUE_SIZE = "eval.masterproblem.queue-size";
+    public static final String P_SPECULATION = "eval.masterproblem.speculation";
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+    public static final double DEFAULT_SPECULATION = 2.0;
+    /** How many jobs must come back before any job is considered a straggler. */
+    public static final int MIN_JOBS_BEFORE_SPECULATION = 8;
+    /** How long (in milliseconds) an idle slave waits for a job before looking for a straggler. */
+    public static final int POLL_INTERVAL = 20;
+    /** The weight of each new job in the running average of the time jobs take to come back. */
+    public static final double LATENCY_WEIGHT = 0.1;
+
+    /** How many times longer than average a job must take before an idle slave evaluates a copy of it, or 0 for never. */
+    public double speculation;
+
+    // the jobs waiting to be sent to a slave
+    LinkedBlockingDeque<Job> pending;
+
+    // the connections, for looking for stragglers
+    CopyOnWriteArrayList<AsyncSlaveConnection> connections;
+
+    // the number of jobs scheduled but not yet finished
+    AtomicInteger outstanding;
+    Object outstandingLock;
+
+    // running average of the time, in nanoseconds, jobs take to come back
+    Object latencyLock;
+    double meanLatency;
+    int jobsReturned;
+
+    // speculation statistics
+    AtomicInteger speculativeJobs;
+    AtomicInteger speculativeWins;
+
+    public AsyncSlaveMonitor( final EvolutionState state, boolean showDebugInfo, final MasterProblem problemPrototype)
+        {
+        super(state, showDebugInfo, problemPrototype, false);
+
+        if (maxJobsPerSlave <= 0)
+            state.output.fatal("The maximum number of jobs per slave must be an integer > 0.", new Parameter(P_MAXIMUMNUMBEROFCONCURRENTJOBSPERSLAVE));
+
+        int queueSize = state.parameters.getIntWithDefault(new Parameter(P_QUEUE_SIZE), null, DEFAULT_QUEUE_SIZE);
+        if (queueSize <= 0)
+            state.output.fatal("The queue size must be an integer > 0.", new Parameter(P_QUEUE_SIZE));
+
+        speculation = state.parameters.getDoubleWithDefault(new Parameter(P_SPECULATION), null, DEFAULT_SPECULATION);
+        if (speculation < 0)
+            state.output.fatal("Speculation must be a number >= 0.", new Parameter(P_SPECULATION));
+
+        pending = new LinkedBlockingDeque<>(queueSize);
+        connections = new CopyOnWriteArrayList<>();
+        outstanding = new AtomicInteger();
+        outstandingLock = new Object[0];
+        latencyLock = new Object[0];
+        speculativeJobs = new AtomicInteger();
+        speculativeWins = new AtomicInteger();
+
+        start();
+        }
+
+    SlaveConnection newConnection( EvolutionState state, String slaveName, Socket socket, DataOutputStream dataOut, DataInputStream dataIn, Codec codec )
+        {
+        AsyncSlaveConnection connection = new AsyncSlaveConnection( state, slaveName, socket, dataOut, dataIn, this );
+        connection.codec = codec;
+        connections.add(connection);
+        return connection;
+        }
+
+    public void unregisterSlave( SlaveConnection slave )
+        {
+        connections.remove(slave);
+        super.unregisterSlave(slave);
+        }
+
+    /**
+       Adds a job to the queue of pending jobs, blocking only if the queue is full.
+    */
+    public void scheduleJobForEvaluation( final EvolutionState state, Job job )
+        {
+        if (isShutdownInProgress()) return;  // no more jobs allowed
+
+        outstanding.incrementAndGet();
+        try
+            {
+            pending.putLast(job);
+            }
+        catch (InterruptedException e)
+            {
+            jobDone(job);
+            }
+        }
+
+    // puts a job back at the front of the queue, because its slave was lost
+    void rescheduleJob( final EvolutionState state, Job job )
+        {
+        if (isShutdownInProgress()) { jobDone(job); return; }
+        try
+            {
+            pending.putFirst(job);
+            }
+        catch (InterruptedException e)
+            {
+            jobDone(job);
+            }
+        }
+
+    // notes that a job is finished, or never will be
+    void jobDone(Job job)
+        {
+        if (outstanding.decrementAndGet() == 0)
+            synchronized(outstandingLock) { outstandingLock.notifyAll(); }
+        }
+
+    /**
+       Blocks until every job scheduled so far (by anyone) is finished.
+    */
+    public void waitForAllSlavesToFinishEvaluating( final EvolutionState state )
+        {
+        synchronized(outstandingLock)
+            {
+            while(outstanding.get() > 0)
+                {
+                debug("Waiting for slaves to finish their jobs." );
+                if (!waitOnMonitor(outstandingLock)) break;
+                }
+            }
+        debug("All slaves have finished their jobs." );
+        }
+
+    /** Returns how many more jobs the slaves can take right now, that is, the number of unused credits less the
+        number of jobs waiting to use them. */
+    int numAvailableSlaves()
+        {
+        int credits = 0;
+        for(AsyncSlaveConnection connection : connections)
+            credits += connection.credits.availablePermits();
+        return Math.max(0, credits - pending.size());
+        }
+
+    /** Returns the number of speculative copies of straggling jobs which have been made so far. */
+    public int getSpeculativeJobs() { return speculativeJobs.get(); }
+
+    /** Returns the number of jobs which have been finished by a speculative copy rather than the original. */
+    public int getSpeculativeWins() { return speculativeWins.get(); }
+
+    // returns the next job for the given slave to do, blocking until there is one.
+    // If there's nothing in the queue, this may be a copy of a straggler.
+    Job nextJob( AsyncSlaveConnection slave ) throws InterruptedException
+        {
+        while(true)
+            {
+            Job job = pending.pollFirst(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            if (job != null)
+                {
+                if (!job.isFinished())  // it could have been rescheduled, then finished by a copy
+                    return job;
+                }
+            else
+                {
+                job = straggler(slave);
+                Job copy = (job == null ? null : job.speculativeCopy());
+                if (copy != null)
+                    {
+                    speculativeJobs.incrementAndGet();
+                    debug("Copying straggling job " + job + " to " + slave);
+                    return copy;
+                    }
+                }
+            }
+        }
+
+    // returns the oldest job out on some other slave for more than speculation times the average, if it has
+    // not been copied already, or null if there is none.
+    Job straggler( AsyncSlaveConnection slave )
+        {
+        if (speculation == 0) return null;
+        double limit;
+        synchronized(latencyLock)
+            {
+            if (jobsReturned < MIN_JOBS_BEFORE_SPECULATION) return null;
+            limit = meanLatency * speculation;
+            }
+
+        long now = System.nanoTime();
+        Job oldest = null;
+        for(AsyncSlaveConnection connection : connections)
+            {
+            if (connection == slave) continue;
+            synchronized(connection.jobs)
+                {
+                for(Job job : connection.jobs)
+                    // we don't lock the job to look at it: speculativeCopy() checks again
+                    if (job.original == null && !job.speculated && !job.finished && now - job.sentAt > limit &&
+                        (oldest == null || job.sentAt < oldest.sentAt))
+                        oldest = job;
+                }
+            }
+        return oldest;
+        }
+
+    // called by a connection when it has read back a job (which may be a speculative copy).
+    void jobReturned( AsyncSlaveConnection slave, Job job, EvolutionState state )
+        {
+        long latency = System.nanoTime() - job.sentAt;
+        synchronized(latencyLock)
+            {
+            meanLatency = (jobsReturned == 0 ? latency : (1 - LATENCY_WEIGHT) * meanLatency + LATENCY_WEIGHT * latency);
+            jobsReturned++;
+            }
+
+        Job original = (job.original == null ? job : job.original);
+        if (original.merge(state, job))
+            {
+            if (job != original)
+                {
+                speculativeWins.incrementAndGet();
+                debug("Speculative copy of " + original + " won on " + slave);
+                }
+            individualsEvaluated(original, state);
+            original.finish(state);
+            jobDone(original);
+            }
+        }
+    }
@@ -26,6 +26,11 @@ import ec.*;
  pointers to the individuals, boolean flags indicating whether their fitness is to be updated or
  not, and another boolean flag indicating whether to count only victories in competitive tournament.
 
+ <p>A job is <i>finished</i> once its individuals have come back and been updated.  You can wait for this
+ with waitUntilFinished(), or be told about it by giving the job a Callback.  Under asynchronous
+ evaluation (see AsyncSlaveMonitor) a job which is taking too long may be copied and the copy sent to
+ another slave as well: whichever comes back first finishes the job.
+
  * @author Liviu Panait
  * @version 1.0 
  */
@@ -41,6 +46,20 @@ public class Job
     int[] subPops; 
     boolean countVictoriesOnly;
     boolean[] updateFitness;
+
+    /** Called when a job is finished, from the thread which read its individuals back from the slave. */
+    public interface Callback
+        {
+        public void finished(EvolutionState state, Individual[] inds, int[] subpopulations);
+        }
+
+    Callback callback;
+    boolean finished = false;
+    
+    // the following are only used by asynchronous evaluation
+    Job original;       // if this job is a speculative copy, the job it is a copy of
+    boolean speculated; // has this job been copied?
+    long sentAt;        // System.nanoTime() when the job was sent
     
     void copyIndividualsForward()
         {
@@ -58,8 +77,75 @@ public class Job
         
     void copyIndividualsBack(EvolutionState state)
         {
-        for(int i = 0; i < inds.length; i++)
-            inds[i].merge(state, newinds[i]);
+        copyIndividualsBack(state, inds);
+        }
+
+    // merges newinds into the given individuals
+    void copyIndividualsBack(EvolutionState state, Individual[] into)
+        {
+        for(int i = 0; i < into.length; i++)
+            into[i].merge(state, newinds[i]);
         newinds = null;
         }
+
+    /** Returns true if the job's individuals have come back and been updated. */
+    public synchronized boolean isFinished() { return finished; }
+
+    /** Blocks until the job is finished.  If the thread is interrupted meanwhile, it keeps waiting, since
+        the caller needs the job's individuals, but its interrupt status is set again before returning. */
+    public synchronized void waitUntilFinished()
+        {
+        boolean interrupted = false;
+        while(!finished)
+            {
+            try { wait(); }
+            catch (InterruptedException e) { interrupted = true; }
+            }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        }
+
+    // marks the job as finished and calls the callback.  The individuals must already have been updated.
+    void finish(EvolutionState state)
+        {
+        synchronized(this)
+            {
+            finished = true;
+            notifyAll();
+            }
+        if (callback != null)
+            callback.finished(state, inds, subPops);
+        }
+
+    // merges the individuals read back by the given job, which is either this job or a speculative copy of it,
+    // into this job's individuals and marks this job as finished, unless it was finished already.  Returns true
+    // if it did so, in which case you must then call finish(...).
+    boolean merge(EvolutionState state, Job job)
+        {
+        synchronized(this)
+            {
+            if (finished) { job.newinds = null; return false; }
+            job.copyIndividualsBack(state, inds);
+            finished = true;
+            }
+        return true;
+        }
+
+    // returns a copy of this job, with clones of its individuals, to be sent to another slave,
+    // or null if the job has already been copied or is finished
+    synchronized Job speculativeCopy()
+        {
+        if (speculated || finished) return null;
+        speculated = true;
+        Job job = new Job();
+        job.type = type;
+        job.subPops = subPops;
+        job.countVictoriesOnly = countVictoriesOnly;
+        job.updateFitness = updateFitness;
+        job.original = this;
+        job.inds = new Individual[inds.length];
+        for(int i = 0; i < inds.length; i++)
+            job.inds[i] = (Individual)(inds[i].clone());
+        return job;
+        }
     }
@@ -60,6 +60,14 @@ import java.util.List;
  evaluatedIndividualAvailable().  If this returns true, you may then call getNextEvaluatedIndividual()
  to get the individual.  Note that this isn't atomic, so don't use it if you have multiple threads.
  </ul>
+
+ <p>If <tt>async</tt> is true, the MasterProblem uses an AsyncSlaveMonitor rather than a plain SlaveMonitor.
+ Jobs are then put in a bounded queue from which the slaves pull them, several at a time, and come back in
+ whatever order the slaves finish them.  Outside batch mode evaluate() waits only for its own job rather
+ than for every slave, and finishEvaluating() waits only for the jobs submitted through this MasterProblem (or clone).
+ You can also submit a job and be called back when it is finished, without waiting at all, with
+ evaluate(state, inds, subpopulations, threadnum, callback).  See AsyncSlaveMonitor for the details, including
+ speculative re-evaluation of straggling jobs.
   
  <p><b>Parameters</b><br>
  <table>
@@ -72,6 +80,11 @@ import java.util.List;
  <td valign=top>(how large should a job be at most?)<br>
  </td></tr>
 
+ <tr><td valign=top><i>base.</i><tt>async</tt><br>
+ <font size=-1>boolean (default false)</font></td>
+ <td valign=top>(should we use an asynchronous, pipelined AsyncSlaveMonitor?)<br>
+ </td></tr>
+
 
  <!-- technically these are handled by the SlaveMonitor -->
 
@@ -83,10 +96,26 @@ import java.util.List;
  <font size=-1>boolean</font></td>
  <td valign=top>(whether the communication with the slaves should be compressed or not)<br>
  </td></tr>
+ <tr><td valign=top><tt>eval.codec</tt><br>
+ <font size=-1>String, one of: <tt>standard</tt> (default) or <tt>compact</tt></font></td>
+ <td valign=top>(how individuals are encoded when sent to the slaves: see ec.util.Codec)<br>
+ </td></tr>
+ <tr><td valign=top><tt>eval.codec.compression</tt><br>
+ <font size=-1>String, one of: <tt>none</tt>, <tt>jzlib</tt>, <tt>deflate</tt>, or <tt>fast</tt> (default is <tt>jzlib</tt> if eval.compression is true, else <tt>none</tt>)</font></td>
+ <td valign=top>(how the communication with the slaves is compressed)<br>
+ </td></tr>
  <tr><td valign=top><tt>eval.masterproblem.max-jobs-per-slave</tt><br>
  <font size=-1>int</font></td>
  <td valign=top>(the maximum load (number of jobs) per slave at any point in time)<br>
  </td></tr>
+ <tr><td valign=top><tt>eval.masterproblem.queue-size</tt><br>
+ <font size=-1>int &gt; 0 (default 1024)</font></td>
+ <td valign=top>(if <tt>async</tt>, the maximum number of jobs waiting to be sent to a slave)<br>
+ </td></tr>
+ <tr><td valign=top><tt>eval.masterproblem.speculation</tt><br>
+ <font size=-1>double &gt;= 0 (default 2.0)</font></td>
+ <td valign=top>(if <tt>async</tt>, how many times longer than average a job must take before an idle slave evaluates a copy of it, or 0 for never)<br>
+ </td></tr>
 
  </table>
 
@@ -100,10 +129,17 @@ public class MasterProblem extends Problem implements SimpleProblemForm, Grouped
     
     public static final String P_DEBUG_INFO = "debug-info";
     public static final String P_JOB_SIZE = "job-size";
+    public static final String P_ASYNC = "async";
     
     int jobSize;
     boolean showDebugInfo;
     public boolean batchMode;
+    /** Are we using an AsyncSlaveMonitor? */
+    public boolean async;
+    // in asynchronous batch mode, the jobs we've submitted which might not have finished
+    transient ArrayList<Job> submitted;
+    // when submitted gets this big, we weed out the finished jobs
+    transient int submittedLimit;
     public transient SlaveMonitor monitor;               // note transient.  We rebuild it.
     public Problem problem;
 
@@ -116,6 +152,8 @@ public class MasterProblem extends Problem implements SimpleProblemForm, Grouped
         c.monitor = monitor;
         c.batchMode = batchMode;
         c.jobSize = jobSize; 
+        c.async = async;
+        c.submitted = null;
         
         c.showDebugInfo = showDebugInfo;
 
@@ -136,9 +174,17 @@ public class MasterProblem extends Problem implements SimpleProblemForm, Grouped
         if (jobSize<=0)
             state.output.fatal("The job size must be an integer > 0.", base.push(P_JOB_SIZE));
 
+        async = state.parameters.getBoolean(base.push(P_ASYNC),null,false);
+
         batchMode = false;
         }
 
+    /** Returns whether the underlying problem's fitnesses can be cached. */
+    public boolean canCacheFitness()
+        {
+        return problem.canCacheFitness();
+        }
+
     // prepare for a batch of evaluations
     public void prepareToEvaluate(final EvolutionState state, final int threadnum)
         {
@@ -154,7 +200,14 @@ public class MasterProblem extends Problem implements SimpleProblemForm, Grouped
         flush(state, threadnum);
         queue = null;  // get rid of it just in case
                 
-        monitor.waitForAllSlavesToFinishEvaluating( state );
+        if (async)
+            {
+            if (submitted != null)
+                for(int i = 0; i < submitted.size(); i++)
+                    submitted.get(i).waitUntilFinished();
+            submitted = null;
+            }
+        else monitor.waitForAllSlavesToFinishEvaluating( state );
         batchMode = false;
         if(showDebugInfo)
             state.output.message(Thread.currentThread().getName() + "All slaves have finished their jobs.");
@@ -200,6 +253,28 @@ public class MasterProblem extends Problem implements SimpleProblemForm, Grouped
             state.output.message(Thread.currentThread().getName() + "Starting a " + (batchMode ? "batched " : "") + "SimpleProblemForm evaluation.");
 
         // Acquire a slave socket
+        Job job = newJob(inds, subpopulations);
+        monitor.scheduleJobForEvaluation(state,job);
+        waitForJob(state, job);
+        if(showDebugInfo) state.output.message(Thread.currentThread().getName() + "Finished a " + (batchMode ? "batched " : "") + "SimpleProblemForm evaluation.");
+        }
+
+    /** Sends a group of individuals to a slave for evaluation as a single job, and returns without waiting
+        for them to be evaluated.  When they come back the individuals are updated in place, then the callback,
+        if not null, is called from the thread which read them in, so it should be quick.  This method still blocks
+        if there is no room for the job: with an AsyncSlaveMonitor, if the queue is full; otherwise until some slave can take it.
+        The job is not waited for by finishEvaluating(). */
+    public Job evaluate(EvolutionState state, Individual[] inds, int[] subpopulations, int threadnum, Job.Callback callback)
+        {
+        Job job = newJob(inds, subpopulations);
+        job.callback = callback;
+        monitor.scheduleJobForEvaluation(state,job);
+        return job;
+        }
+
+    // builds a SimpleProblemForm job
+    Job newJob(Individual[] inds, int[] subpopulations)
+        {
         Job job = new Job();
         job.type = Slave.V_EVALUATESIMPLE;
         job.inds = inds;
@@ -207,10 +282,32 @@ public class MasterProblem extends Problem implements SimpleProblemForm, Grouped
         job.updateFitness = new boolean[inds.length]; 
         for (int i=0 ; i < inds.length; i++) 
             job.updateFitness[i]=true; 
-        monitor.scheduleJobForEvaluation(state,job);
-        if( !batchMode )
-            monitor.waitForAllSlavesToFinishEvaluating( state );
-        if(showDebugInfo) state.output.message(Thread.currentThread().getName() + "Finished a " + (batchMode ? "batched " : "") + "SimpleProblemForm evaluation.");
+        return job;
+        }
+
+    // Outside batch mode, waits until the job is finished (or if we're not asynchronous, until every job is).
+    // In asynchronous batch mode, remembers the job so finishEvaluating(...) can wait for it.
+    void waitForJob(EvolutionState state, Job job)
+        {
+        if (!batchMode)
+            {
+            if (async) job.waitUntilFinished();
+            else monitor.waitForAllSlavesToFinishEvaluating( state );
+            }
+        else if (async)
+            {
+            if (submitted == null)
+                {
+                submitted = new ArrayList<>();
+                submittedLimit = 1024;
+                }
+            if (submitted.size() >= submittedLimit)  // steady-state evolution never calls finishEvaluating(...)
+                {
+                submitted.removeIf(Job::isFinished);
+                submittedLimit = Math.max(submittedLimit, submitted.size() * 2);
+                }
+            submitted.add(job);
+            }
         }
         
         
@@ -268,9 +365,7 @@ public class MasterProblem extends Problem implements SimpleProblemForm, Grouped
         job.inds = inds;
         job.updateFitness = updateFitness;
         monitor.scheduleJobForEvaluation(state,job);
-                
-        if( !batchMode )
-            monitor.waitForAllSlavesToFinishEvaluating( state );
+        waitForJob(state, job);
 
         if(showDebugInfo)
             state.output.message("Finished the GroupedProblemForm evaluation.");
@@ -293,7 +388,7 @@ public class MasterProblem extends Problem implements SimpleProblemForm, Grouped
         {
         if(showDebugInfo)
             state.output.message(Thread.currentThread().getName() + "Spawning the server thread.");
-        monitor = new SlaveMonitor(state, showDebugInfo, this);
+        monitor = (async ? new AsyncSlaveMonitor(state, showDebugInfo, this) : new SlaveMonitor(state, showDebugInfo, this));
         }
 
     /** Reinitialize contacts with the slaves */
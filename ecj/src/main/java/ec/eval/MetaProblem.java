@@ -13,6 +13,7 @@ import ec.*;
 import java.io.*;
 import ec.vector.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /* 
  * MetaProblem.java
@@ -213,6 +214,29 @@ import java.util.*;
  * the <b>describe(...)</b> method, and appears at the end of the statistics file
  * if you are using SimpleStatistics at the meta-level.
  * 
+ * <p><b>Parallel runs, racing, and caching.</b>  Ordinarily the N runs which assess a meta-individual
+ * are done one after another in the evaluating thread.  If you set <tt>run-threads</tt> to more than 1, they are
+ * instead handed to a ThreadPool (shared by all of the evaluation threads, whose backend is set by
+ * <tt>threadpool</tt>) and done at the same time, with up to <tt>run-threads</tt> runs going at once across
+ * all of the evaluation threads.  Each run has its own Output and its own parameter database layered over the
+ * shared, frozen base-level database; if <tt>set-random</tt> is true, each run is seeded from its own generator,
+ * itself seeded from the evaluating thread's generator.
+ *
+ * <tt><pre>    eval.problem.run-threads = 8    </pre></tt>
+ *
+ * <p>If you set <tt>race</tt> to true, a meta-individual which is clearly bad stops being tested before all of
+ * its N runs are done, in the manner of asynchronous successive halving.  Its runs are done in rungs: first
+ * <tt>race.min-runs</tt> runs, then enough more to bring it to <tt>race.min-runs</tt> &times; <tt>race.eta</tt>
+ * runs, then to <tt>race.min-runs</tt> &times; <tt>race.eta</tt><sup>2</sup>, and so on up to N.  After each
+ * rung the fitness of the runs so far (per combine(...)) is compared against those of every meta-individual
+ * which has reached the same rung before it, and it goes on only if it is among the best 1/<tt>race.eta</tt>
+ * of them.  The first <tt>race.eta</tt> meta-individuals to reach a rung always go on.  A meta-individual which
+ * is stopped gets the fitness of the runs it did.
+ *
+ * <p>If you set <tt>cache</tt> to true, MetaProblem remembers the fitness of every meta-individual it has
+ * evaluated, by the parameters it sets (see cacheKey(...)), and gives that fitness to later meta-individuals with
+ * the same parameters rather than testing them again, even if <tt>reevaluate</tt> is true.
+ *
  * <p>Finally, <b>yes, MetaProblem can be recursive.</b>  You can set things up so that you're
  * evolving the parameters for an EC system which evolves the parameters for an EC system which
  * evolves the parameters for an EC system.
@@ -233,6 +257,24 @@ import java.util.*;
  <tr><td valign=top><tt><i>base</i>.set-random</tt><br>
  <font size=-1>boolean (default=false)</font></td>
  <td valign=top>(Should we silence the stdout and stderr logs of the Output of the base EA?)</td></tr>
+ <tr><td valign=top><tt><i>base</i>.run-threads</tt><br>
+ <font size=-1>int >= 1 (default=1)</font></td>
+ <td valign=top>(How many base-level runs may be done at the same time, across all evaluation threads?)</td></tr>
+ <tr><td valign=top><tt><i>base</i>.threadpool</tt><br>
+ <font size=-1>String, one of: <tt>classic</tt> (default), <tt>executor</tt>, or <tt>virtual</tt></font></td>
+ <td valign=top>(The backend of the ThreadPool which does the base-level runs, if run-threads > 1)</td></tr>
+ <tr><td valign=top><tt><i>base</i>.race</tt><br>
+ <font size=-1>boolean (default=false)</font></td>
+ <td valign=top>(Should we stop testing clearly bad meta individuals before all of their runs are done?)</td></tr>
+ <tr><td valign=top><tt><i>base</i>.race.min-runs</tt><br>
+ <font size=-1>int >= 1 (default=1)</font></td>
+ <td valign=top>(When racing, how many runs are in the first rung?)</td></tr>
+ <tr><td valign=top><tt><i>base</i>.race.eta</tt><br>
+ <font size=-1>int >= 2 (default=2)</font></td>
+ <td valign=top>(When racing, by what factor the runs grow from rung to rung, and the reciprocal of the fraction of meta individuals which go on at each rung)</td></tr>
+ <tr><td valign=top><tt><i>base</i>.cache</tt><br>
+ <font size=-1>boolean (default=false)</font></td>
+ <td valign=top>(Should meta individuals whose parameters have already been tested get the earlier fitness rather than being tested again?)</td></tr>
  <tr><td valign=top><tt><i>base</i>.num-params</tt><br>
  <font size=-1>int >= 1</td>
  <td valign=top>(How many parameters are being evolved?  This should match the genome length of the meta-level EA individuals)</td></tr>
@@ -278,16 +320,22 @@ public class MetaProblem extends Problem implements SimpleProblemForm
     public static final String P_VAL = "val";
     public static final String P_MUZZLE = "muzzle";
     public static final String P_SET_RANDOM = "set-random";
+    public static final String P_RUN_THREADS = "run-threads";
+    public static final String P_RACE = "race";
+    public static final String P_MIN_RUNS = "min-runs";
+    public static final String P_ETA = "eta";
+    public static final String P_CACHE = "cache";
     
     
     /** The parameter base from which the MetaProblem was loaded. */
     public Parameter base;
     
-    /** A prototypical parameter database for the underlying (base-level) evolutionary computation system.  This is never directly used, just cloned. */
+    /** A prototypical parameter database for the underlying (base-level) evolutionary computation system.  This is never directly used.
+        It is frozen (see ec.util.FrozenParameterDatabase), so that the runs in different threads may all look up parameters in it at once. */
     public ParameterDatabase p_database;
 
-    /** This points to the database presently used by the underlying (base-level) evolutionary computation system.  It is a cloned and modified version
-        of p_database. */
+    /** This points to the database presently used by the underlying (base-level) evolutionary computation system.  It is an empty database,
+        modified by modifyParameters(...), whose parent is p_database. */
     public ParameterDatabase currentDatabase;
     
     /** The number of base-level evolutionary runs to perform to evaluate an individual.  */
@@ -296,6 +344,36 @@ public class MetaProblem extends Problem implements SimpleProblemForm
     /** Whether to reevaluate individuals if and when they appear for evaluation in the future.  */
     public boolean reevaluateIndividuals;
     
+    /** How many base-level runs may be done at the same time, across all the evaluation threads.  If 1, each run is done in the evaluating thread. */
+    public int runThreads;
+    
+    /** The pool which does base-level runs if runThreads > 1. */
+    public ThreadPool pool;  // not deep cloned
+    
+    /** Whether to stop testing clearly bad meta-individuals early. */
+    public boolean race;
+    
+    /** When racing, the number of runs in the first rung. */
+    public int raceMinRuns;
+    
+    /** When racing, the factor by which the runs grow from rung to rung, and the reciprocal of the fraction of meta-individuals which go on. */
+    public int raceEta;
+    
+    /** Whether to remember the fitnesses of meta-individuals by their parameters. */
+    public boolean cache;
+    
+    /** The fitnesses of the meta-individuals evaluated so far, keyed by cacheKey(...).  Acquire the lock before accessing this. */
+    public HashMap<String, Fitness> fitnessCache = new HashMap<String, Fitness>();  // not deep cloned
+    
+    /** For each rung, the fitnesses of the meta-individuals which have reached it so far.  Acquire the lock before accessing this. */
+    public ArrayList<ArrayList<Fitness>> rungs = new ArrayList<ArrayList<Fitness>>();  // not deep cloned
+    
+    /** The number of meta-individuals given a fitness from the cache. */
+    public AtomicLong cacheHits = new AtomicLong();  // not deep cloned
+    
+    /** The number of base-level runs not done because their meta-individuals were stopped early. */
+    public AtomicLong runsSkipped = new AtomicLong();  // not deep cloned
+    
     
     /** The best underlying individual array, one per subpopulation.
         We retain the best underlying individual here rather than
@@ -341,7 +419,7 @@ public class MetaProblem extends Problem implements SimpleProblemForm
         File file = state.parameters.getFile(base.push(P_FILE),null);
         try
             {
-            p_database = new ParameterDatabase(file, new String[] { "-file", file.getCanonicalPath() });  // command line has just the parameter database
+            p_database = new ParameterDatabase(file, new String[] { "-file", file.getCanonicalPath() }).freeze(false);  // command line has just the parameter database
             }
         catch (IOException e)
             {
@@ -363,6 +441,28 @@ public class MetaProblem extends Problem implements SimpleProblemForm
         
         setRandom = state.parameters.getBoolean(base.push(P_SET_RANDOM), null, false);
         
+        runThreads = state.parameters.getIntWithDefault(base.push(P_RUN_THREADS), null, 1);
+        if (runThreads < 1)
+            state.output.fatal("Number of run threads must be >= 1",
+                base.push(P_RUN_THREADS));
+        if (runThreads > 1)
+            pool = ThreadPool.create(state, base.push(ThreadPool.P_THREADPOOL), ThreadPool.BACKEND_CLASSIC);
+
+        race = state.parameters.getBoolean(base.push(P_RACE), null, false);
+        if (race)
+            {
+            raceMinRuns = state.parameters.getIntWithDefault(base.push(P_RACE).push(P_MIN_RUNS), null, 1);
+            if (raceMinRuns < 1)
+                state.output.fatal("The minimum number of runs when racing must be >= 1",
+                    base.push(P_RACE).push(P_MIN_RUNS));
+            raceEta = state.parameters.getIntWithDefault(base.push(P_RACE).push(P_ETA), null, 2);
+            if (raceEta < 2)
+                state.output.fatal("The racing eta must be >= 2",
+                    base.push(P_RACE).push(P_ETA));
+            }
+        
+        cache = state.parameters.getBoolean(base.push(P_CACHE), null, false);
+        
         loadDomain(state, base);
         }
     
@@ -494,29 +594,47 @@ public class MetaProblem extends Problem implements SimpleProblemForm
         }
 
 
-    public void evaluate(EvolutionState state,
-        Individual ind,
-        int subpopulation,
-        int threadnum)
+    /** One base-level run of a meta-individual.  It is built in the evaluating thread, and run either there
+        or in the pool. */
+    class BaseRun implements Runnable
         {
-        if (ind.evaluated && !reevaluateIndividuals) return;
+        EvolutionState state;
+        ParameterDatabase database;
+        MersenneTwisterFast seeder;
         
-        ArrayList<Fitness> fits = new ArrayList<>();
+        /** The best fitness of run, or null if the run failed. */
+        Fitness fitness;
+        /** The best individual found during the run. */
+        Individual best;
+        /** Something thrown by the meta-level system (such as a fatal error) to be rethrown in the evaluating thread. */
+        RuntimeException exception;
         
-        Individual bestOfRuns = null;
-        for(int run = 0; run < runs; run++)
+        BaseRun(EvolutionState state, int run, Individual ind, int threadnum)
             {
-            // too annoying
-            //state.output.message("Thread " + threadnum + " Run " + run);
-            try {
-                currentDatabase = (ParameterDatabase)(DataPipe.copy(p_database));  // ugly hack
+            this.state = state;
+            // the run's own changes sit on top of the shared, frozen database
+            database = new ParameterDatabase();
+            database.addParent(p_database);
+            modifyParameters(state, database, run, ind);
+            currentDatabase = database;
+            if (setRandom)
+                seeder = (runThreads > 1 ? new MersenneTwisterFast(state.random[threadnum].nextInt()) : state.random[threadnum]);
+            }
+        
+        public void run()
+            {
+            try
+                {
+                perform();
                 }
-            catch (Exception e)
+            catch (RuntimeException e)
                 {
-                state.output.fatal("Exception copying database.\n" + e);
+                exception = e;
                 }
-            modifyParameters(state, currentDatabase, run, ind);
-            
+            }
+        
+        void perform()
+            {
             Output out = new Output(false);          // do not store messages, just print them
             out.addLog(ec.util.Log.D_STDOUT,false);
             out.addLog(ec.util.Log.D_STDERR,true);
@@ -525,7 +643,7 @@ public class MetaProblem extends Problem implements SimpleProblemForm
             EvolutionState evaluatedState = null;
             try
                 {
-                evaluatedState = Evolve.initialize(currentDatabase, 0, out);
+                evaluatedState = Evolve.initialize(database, 0, out);
                 
                 // should we override the seeds?
                 if (setRandom)
@@ -536,7 +654,7 @@ public class MetaProblem extends Problem implements SimpleProblemForm
                         
                     for(int i = 0; i < evaluatedState.random.length; i++)
                         {
-                        int seed = state.random[threadnum].nextInt();
+                        int seed = seeder.nextInt();
                         evaluatedState.random[i] = Evolve.primeGenerator(new MersenneTwisterFast(seed));
                         }
                     }
@@ -567,7 +685,7 @@ public class MetaProblem extends Problem implements SimpleProblemForm
                     else inds = ((SimpleShortStatistics)(evaluatedState.statistics)).getBestSoFar();
                     if (inds == null)
                         state.output.fatal("Underlying evolution state has a Statistics object which provides a null best-so-far array.  Can't extract fitness.");
-                    fits.add((Fitness)(inds[0].fitness));
+                    fitness = (Fitness)(inds[0].fitness);
                     //System.err.println("" + inds[0] + " " + inds[0].fitness);
                     }
                 else if (evaluatedState.statistics == null)
@@ -585,19 +703,14 @@ public class MetaProblem extends Problem implements SimpleProblemForm
                     MetaProblem mp = (MetaProblem)(evaluatedState.evaluator.p_problem);
                     synchronized(mp.lock)
                         {
-                        Individual bestind = mp.bestUnderlyingIndividual[0];
-                    
-                        if (bestOfRuns == null || bestind.fitness.betterThan(bestOfRuns.fitness))
-                            bestOfRuns = (Individual)(bestind.clone());
+                        best = (Individual)(mp.bestUnderlyingIndividual[0].clone());
                         }
                     }
                 // otherwise we grab the best individual found in the underlying evolutionary run,
                 // gathered from the inds array we used earlier.
                 else
                     {
-                    // gather the best individual found during the runs
-                    if (bestOfRuns == null || inds[0].fitness.betterThan(bestOfRuns.fitness))
-                        bestOfRuns = (Individual)(inds[0].clone());
+                    best = (Individual)(inds[0].clone());
                     }
                 
             
@@ -617,6 +730,68 @@ public class MetaProblem extends Problem implements SimpleProblemForm
                 state.output.warning("An Out of Memory error occurred in underlying evolutionary run.  Attempting to recover and reset.  NOTE: multiple threads may still be running:\n" + e.getMessage());
                 }
             }
+        }
+
+
+    public void evaluate(EvolutionState state,
+        Individual ind,
+        int subpopulation,
+        int threadnum)
+        {
+        if (ind.evaluated && !reevaluateIndividuals) return;
+        
+        String key = null;
+        if (cache)
+            {
+            key = cacheKey(state, ind);
+            synchronized(lock)
+                {
+                Fitness cached = fitnessCache.get(key);
+                if (cached != null)
+                    {
+                    ind.fitness = (Fitness)(cached.clone());
+                    ind.evaluated = true;
+                    cacheHits.incrementAndGet();
+                    return;
+                    }
+                }
+            }
+        
+        ArrayList<Fitness> fits = new ArrayList<>();
+        
+        Individual bestOfRuns = null;
+        int run = 0;
+        int rungEnd = (race ? Math.min(raceMinRuns, runs) : runs);
+        for(int rung = 0; ; rung++)
+            {
+            // too annoying
+            //state.output.message("Thread " + threadnum + " Runs " + run + " to " + (rungEnd - 1));
+            BaseRun[] baseRuns = new BaseRun[rungEnd - run];
+            for(int i = 0; i < baseRuns.length; i++)
+                baseRuns[i] = new BaseRun(state, run + i, ind, threadnum);
+            perform(baseRuns);
+
+            for(int i = 0; i < baseRuns.length; i++)
+                {
+                if (baseRuns[i].exception != null)
+                    throw baseRuns[i].exception;
+                if (baseRuns[i].fitness != null)
+                    fits.add(baseRuns[i].fitness);
+                // gather the best individual found during the runs
+                if (baseRuns[i].best != null &&
+                        (bestOfRuns == null || baseRuns[i].best.fitness.betterThan(bestOfRuns.fitness)))
+                    bestOfRuns = baseRuns[i].best;
+                }
+            
+            run = rungEnd;
+            if (run >= runs) break;
+            if (!survives(state, ind, fits, rung))
+                {
+                runsSkipped.addAndGet(runs - run);
+                break;
+                }
+            rungEnd = (int)Math.min(runs, (long)rungEnd * raceEta);
+            }
         
         
         // Load the fitness into our individual 
@@ -637,9 +812,51 @@ public class MetaProblem extends Problem implements SimpleProblemForm
                 {
                 bestUnderlyingIndividual[subpopulation] = bestOfRuns;  // no clone necessary
                 }
+            if (cache)
+                fitnessCache.put(key, (Fitness)(ind.fitness.clone()));
             }
 
         }
+    
+    /** Does the given runs, one after another in this thread, or at the same time in the pool. */
+    void perform(BaseRun[] baseRuns)
+        {
+        if (pool == null || baseRuns.length == 1)
+            {
+            for(int i = 0; i < baseRuns.length; i++)
+                baseRuns[i].run();
+            return;
+            }
+        
+        ThreadPool.Worker[] workers = new ThreadPool.Worker[baseRuns.length];
+        for(int i = 0; i < baseRuns.length; i++)
+            workers[i] = pool.start(baseRuns[i], runThreads, "ECJ MetaProblem Run");
+        for(int i = 0; i < baseRuns.length; i++)
+            pool.join(workers[i], baseRuns[i]);
+        }
+    
+    /** When racing, returns true if the meta-individual, whose runs so far have the given fitnesses, should go
+        on to the next rung.  It does so if it is among the best 1/raceEta of the meta-individuals which have
+        reached this rung so far, or if fewer than raceEta meta-individuals have reached this rung before it. */
+    protected boolean survives(EvolutionState state, Individual ind, ArrayList<Fitness> fits, int rung)
+        {
+        if (fits.size() == 0) return true;  // nothing to go on
+        
+        Fitness partial = (Fitness)(ind.fitness.clone());
+        combine(state, fits.toArray(new Fitness[fits.size()]), partial);
+        synchronized(lock)
+            {
+            while(rungs.size() <= rung)
+                rungs.add(new ArrayList<Fitness>());
+            ArrayList<Fitness> reached = rungs.get(rung);
+            int better = 0;
+            for(int i = 0; i < reached.size(); i++)
+                if (reached.get(i).betterThan(partial))
+                    better++;
+            reached.add(partial);
+            return (reached.size() <= raceEta || better < (reached.size() + raceEta - 1) / raceEta);
+            }
+        }
         
     /** Combines fitness results from multiple runs into a final Fitness.  By default this
         is done by using setToMeanOf. */
@@ -648,6 +865,37 @@ public class MetaProblem extends Problem implements SimpleProblemForm
         finalFitness.setToMeanOf(state, runs);
         }
 
+    /** Returns a String which identifies the parameters which the given meta-individual sets, for
+        the fitness cache.  By default this lists each parameter and its value as mapped by map(...):
+        if you override modifyParameters(...), you should override this method to match. */
+    public String cacheKey(EvolutionState state, Individual metaIndividual)
+        {
+        if (!(metaIndividual instanceof DoubleVectorIndividual))
+            state.output.fatal("Meta-individual is not a DoubleVectorIndividual.");
+        DoubleVectorIndividual individual = (DoubleVectorIndividual)metaIndividual;
+        FloatVectorSpecies species = (FloatVectorSpecies) individual.species;
+        double[] genome = individual.genome;
+        
+        StringBuilder key = new StringBuilder();
+        Parameter pb = base.push(P_PARAM);
+        for(int i = 0; i < genome.length; i++)
+            key.append(state.parameters.getString(pb.push("" + i), null)).append(" = ").append(map(state, genome, species, i)).append('\n');
+        return key.toString();
+        }
+
+    /** The base-level runs are random, so the same meta-individual may get a different fitness each
+        time.  So an Evaluator may reuse fitnesses only if MetaProblem's own <tt>cache</tt> is true. */
+    public boolean canCacheFitness()
+        {
+        return cache;
+        }
+
+    public void closeContacts(EvolutionState state, int result)
+        {
+        super.closeContacts(state, result);
+        if (pool != null) pool.killAll();
+        }
+
     public void describe(EvolutionState state, Individual ind, int subpopulation, int threadnum, int log) 
         {
         // the default implementation works just like the default implementation of modifyParameters(...)
@@ -143,6 +143,9 @@ public class Slave
     public static final byte V_EVALUATESIMPLE = 1;
     public static final byte V_EVALUATEGROUPED = 2;
 
+    /** Sent by the master in place of the compression flag when the two sides must agree on a Codec. */
+    public static final byte V_NEGOTIATECODEC = 2;
+
     /** The argument indicating that we're starting fresh from a parameter file stored in a jar file or as some resource. */
     public static final String A_FROM = "-from";
 
@@ -169,6 +172,9 @@ public class Slave
         
     public static final ThreadPool pool = new ThreadPool();
     
+    /** The Codec agreed with the current master, used to read and write individuals. */
+    public static Codec codec = Codec.STANDARD;
+
     /** My unique slave number. At present this is just used to define a unique name. */
     public static int slaveNum = -1;
 
@@ -370,13 +376,17 @@ public class Slave
                         InputStream tmpIn = socket.getInputStream();
                         OutputStream tmpOut = socket.getOutputStream();
                         
-                        // The first thing we do is read a single byte telling us whether to use compression or nt
-                        boolean useCompression = (tmpIn.read() != 0);
+                        // The first thing we do is read a single byte telling us whether to use compression or nt,
+                        // or that the master wants to negotiate a Codec
+                        int first = tmpIn.read();
+                        if (first == V_NEGOTIATECODEC)
+                            codec = Codec.accept(tmpIn, tmpOut);
+                        else codec = new Codec(Codec.CODEC_STANDARD, first != 0 ? Codec.COMPRESSION_JZLIB : Codec.COMPRESSION_NONE);
                         
-                        if (useCompression)
+                        if (codec.compression != Codec.COMPRESSION_NONE)
                             {
-                            tmpIn = Output.makeCompressingInputStream(tmpIn);
-                            tmpOut = Output.makeCompressingOutputStream(tmpOut);
+                            tmpIn = codec.decompress(tmpIn);
+                            tmpOut = codec.compress(tmpOut);
                             if (tmpIn == null || tmpOut == null)
                                 {
                                 String err = "You do not appear to have JZLib installed on your system, and so must set eval.compression=false.  " +
@@ -619,7 +629,7 @@ public class Slave
                 for(int i = 0 ; i < numInds; i++)
                     {
                     // load individual
-                    inds[i] = state.population.subpops.get(subpops[i]).species.newIndividual(state, dataIn);
+                    inds[i] = codec.newIndividual(state, state.population.subpops.get(subpops[i]).species, dataIn);
                     updateFitness[i] = dataIn.readBoolean(); 
 
                     // get next thread index
@@ -675,7 +685,7 @@ public class Slave
                 {
                 for (int i=0; i < numInds; i++) 
                     { 
-                    inds[i] = state.population.subpops.get(subpops[i]).species.newIndividual(state, dataIn);
+                    inds[i] = codec.newIndividual(state, state.population.subpops.get(subpops[i]).species, dataIn);
                     updateFitness[i] = dataIn.readBoolean(); 
                     }
                 }
@@ -779,7 +789,7 @@ public class Slave
             {
             for(int i=0;i<inds.length;++i)
                 {
-                inds[i] = state.population.subpops.get(subpops[i]).species.newIndividual( state, dataIn );
+                inds[i] = codec.newIndividual(state, state.population.subpops.get(subpops[i]).species, dataIn);
                 updateFitness[i] = dataIn.readBoolean();
                 }
             }
@@ -816,7 +826,7 @@ public class Slave
             dataOut.writeByte(returnIndividuals ? V_INDIVIDUAL : (updateFitness[i] ? V_FITNESS : V_NOTHING));
             if (returnIndividuals)
                 {
-                inds[i].writeIndividual(state, dataOut);
+                codec.writeIndividual(state, inds[i], dataOut);
                 }
             else if (updateFitness[i])
                 {
@@ -44,6 +44,9 @@ class SlaveConnection
         
     /**  Used to read results and randoms state from slave. */
     public DataInputStream dataIn;
+
+    /**  How individuals are written to and read from the slave. */
+    Codec codec = Codec.STANDARD;
         
     // a pointer to the evolution state
     EvolutionState state;
@@ -63,9 +66,8 @@ class SlaveConnection
 
     /**
        The constructor also creates the queue storing the jobs that the slave
-       has been asked to evaluate.  It also creates and launches the worker
-       thread that is communicating with the remote slave to read back the results
-       of the evaluations.
+       has been asked to evaluate.  The SlaveMonitor then calls buildThreads() to launch
+       the worker threads that communicate with the remote slave.
     */
     public SlaveConnection( EvolutionState state,
         String slaveName,
@@ -80,7 +82,6 @@ class SlaveConnection
         this.dataIn = dataIn;
         this.state = state;
         this.slaveMonitor = slaveMonitor;
-        buildThreads();
         showDebugInfo = slaveMonitor.showDebugInfo;
         }
         
@@ -202,36 +203,7 @@ class SlaveConnection
             if (job != null)  // we got a job inside our synchronized wait
                 {
                 // send the job
-                debug("" + Thread.currentThread().getName() + "Sending Job");
-                if( job.type == Slave.V_EVALUATESIMPLE )
-                    {
-                    // Tell the server we're evaluating a SimpleProblemForm
-                    dataOut.writeByte(Slave.V_EVALUATESIMPLE);
-                    }
-                else
-                    {
-                    // Tell the server we're evaluating a GroupedProblemForm
-                    dataOut.writeByte(Slave.V_EVALUATEGROUPED);
-                                        
-                    // Tell the server whether to count victories only or not.
-                    dataOut.writeBoolean(job.countVictoriesOnly);
-                    }
-                                
-                // transmit number of individuals 
-                dataOut.writeInt(job.inds.length); 
-                            
-                // Transmit the subpopulations to the slave 
-                for(int x=0;x<job.subPops.length;x++)
-                    dataOut.writeInt(job.subPops[x]);
-                            
-                debug("Starting to transmit individuals"); 
-                            
-                // Transmit the individuals to the server for evaluation...
-                for(int i=0;i<job.inds.length;i++)
-                    {
-                    job.inds[i].writeIndividual(state, dataOut);
-                    dataOut.writeBoolean(job.updateFitness[i]);
-                    }
+                writeJob(job);
                 dataOut.flush();
                 }
             }
@@ -243,9 +215,40 @@ class SlaveConnection
         return true;
         }
         
-        
-        
-        
+    // writes a job out to the slave, but does not flush
+    void writeJob(Job job) throws IOException
+        {
+        debug("" + Thread.currentThread().getName() + "Sending Job");
+        if( job.type == Slave.V_EVALUATESIMPLE )
+            {
+            // Tell the server we're evaluating a SimpleProblemForm
+            dataOut.writeByte(Slave.V_EVALUATESIMPLE);
+            }
+        else
+            {
+            // Tell the server we're evaluating a GroupedProblemForm
+            dataOut.writeByte(Slave.V_EVALUATEGROUPED);
+                                
+            // Tell the server whether to count victories only or not.
+            dataOut.writeBoolean(job.countVictoriesOnly);
+            }
+                        
+        // transmit number of individuals 
+        dataOut.writeInt(job.inds.length); 
+                    
+        // Transmit the subpopulations to the slave 
+        for(int x=0;x<job.subPops.length;x++)
+            dataOut.writeInt(job.subPops[x]);
+                    
+        debug("Starting to transmit individuals"); 
+                    
+        // Transmit the individuals to the server for evaluation...
+        for(int i=0;i<job.inds.length;i++)
+            {
+            codec.writeIndividual(state, job.inds[i], dataOut);
+            dataOut.writeBoolean(job.updateFitness[i]);
+            }
+        }
         
     boolean readLoop()
         {
@@ -274,28 +277,7 @@ class SlaveConnection
             job.copyIndividualsForward();
 
             // now start reading.  Remember that we've already got a byte.
-            
-            for(int i = 0; i < job.newinds.length; i++)
-                {
-                debug(SlaveConnection.this.toString() + " Individual# " + i);
-                debug(SlaveConnection.this.toString() + " Reading Byte" );
-                if (i > 0) val = dataIn.readByte();  // otherwise we've got it already
-                debug(SlaveConnection.this.toString() + " Reading Individual" );
-                if (val == Slave.V_INDIVIDUAL)
-                    {
-                    job.newinds[i].readIndividual(state, dataIn);
-                    }
-                else if (val == Slave.V_FITNESS)
-                    {
-                    job.newinds[i].evaluated = dataIn.readBoolean();
-                    job.newinds[i].fitness.readFitness(state,dataIn);
-                    }
-                else if (val == Slave.V_NOTHING)
-                    {
-                    // do nothing
-                    }
-                debug( SlaveConnection.this.toString() + " Read Individual" );
-                }
+            readJob(job, val);
 
             ///// NEXT STEP: COPY THE NEWLY-READ INDIVIDUALS BACK INTO THE ORIGINAL
             ///// INDIVIDUALS.  THIS IS QUITE A HACK, IF YOU READ JOB.JAVA
@@ -322,7 +304,31 @@ class SlaveConnection
         return true;
         }
 
-    
+    // reads the individuals of a job back into its newinds, given the first byte, which has already been read
+    void readJob(Job job, byte val) throws IOException
+        {
+        for(int i = 0; i < job.newinds.length; i++)
+            {
+            debug(SlaveConnection.this.toString() + " Individual# " + i);
+            debug(SlaveConnection.this.toString() + " Reading Byte" );
+            if (i > 0) val = dataIn.readByte();  // otherwise we've got it already
+            debug(SlaveConnection.this.toString() + " Reading Individual" );
+            if (val == Slave.V_INDIVIDUAL)
+                {
+                codec.readIndividual(state, job.newinds[i], dataIn);
+                }
+            else if (val == Slave.V_FITNESS)
+                {
+                job.newinds[i].evaluated = dataIn.readBoolean();
+                job.newinds[i].fitness.readFitness(state,dataIn);
+                }
+            else if (val == Slave.V_NOTHING)
+                {
+                // do nothing
+                }
+            debug( SlaveConnection.this.toString() + " Read Individual" );
+            }
+        }
 
 
     /**
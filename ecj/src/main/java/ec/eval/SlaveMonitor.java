@@ -46,6 +46,8 @@ public class SlaveMonitor
 
     public static final String P_EVALMASTERPORT = "eval.master.port";
     public static final String P_EVALCOMPRESSION = "eval.compression";
+    public static final String P_EVALCODEC = "eval.codec";
+    public static final String P_EVALTHREADPOOL = "eval.masterproblem.threadpool";
     public static final String P_MAXIMUMNUMBEROFCONCURRENTJOBSPERSLAVE = "eval.masterproblem.max-jobs-per-slave";
     public static final String P_RESCHEDULELOSTJOBS = "eval.masterproblem.reschedule-lost-jobs";
     public static final int SEED_INCREMENT = 7919; // a large value (prime for fun) bigger than expected number of threads per slave
@@ -75,6 +77,11 @@ public class SlaveMonitor
      */
     public boolean useCompression;
 
+    /**
+     * The Codec we propose to slaves, which determines how individuals are encoded and how the streams are compressed.
+     */
+    public Codec codec;
+
     boolean shutdownInProgress = false;
     Object[] shutdownInProgressLock = new Object[0];  // arrays are serializable
     final boolean isShutdownInProgress() { synchronized (shutdownInProgressLock) { return shutdownInProgress; } }
@@ -83,6 +90,12 @@ public class SlaveMonitor
     int randomSeed;
     Thread thread;
 
+    // passed on to registerSlave(...) by the accept thread
+    MasterProblem problemPrototype;
+    int noDelay;
+    int sendBuffer;
+    int recvBuffer;
+
     public boolean waitOnMonitor(Object monitor)
         {
         try
@@ -126,11 +139,21 @@ public class SlaveMonitor
        that a slave can be entrusted with at each time).
     */
     public SlaveMonitor( final EvolutionState state, boolean showDebugInfo, final MasterProblem problemPrototype)
+        {
+        this(state, showDebugInfo, problemPrototype, true);
+        }
+
+    /**
+       Initializes the monitor, and if <i>start</i> is true, also starts accepting slaves.  Subclasses which
+       need to set themselves up before any slave connects should pass in false, then call start() themselves.
+    */
+    protected SlaveMonitor( final EvolutionState state, boolean showDebugInfo, final MasterProblem problemPrototype, boolean start)
         {
         this.showDebugInfo = showDebugInfo;
         this.state = state;
+        this.problemPrototype = problemPrototype;
         
-        pool = new ThreadPool();
+        pool = ThreadPool.create(state, new Parameter(P_EVALTHREADPOOL), ThreadPool.BACKEND_CLASSIC);
                 
         int port = state.parameters.getInt(
             new Parameter( P_EVALMASTERPORT ),null);
@@ -141,12 +164,13 @@ public class SlaveMonitor
         rescheduleLostJobs = state.parameters.getBoolean(new Parameter(P_RESCHEDULELOSTJOBS), null, true);
 
         useCompression = state.parameters.getBoolean(new Parameter(P_EVALCOMPRESSION),null,false);
+        codec = Codec.load(state, new Parameter(P_EVALCODEC), useCompression ? Codec.COMPRESSION_JZLIB : Codec.COMPRESSION_NONE);
                 
-        final int noDelay = state.parameters.exists(new Parameter(P_EVALNODELAY), null) ? 
+        noDelay = state.parameters.exists(new Parameter(P_EVALNODELAY), null) ? 
         	(state.parameters.getBoolean(new Parameter(P_EVALNODELAY), null, true) ? 1 : 0) : -1;
 
-        final int sendBuffer = state.parameters.getInt(new Parameter(P_EVALSENDBUFER), null, -1); 
-        final int recvBuffer = state.parameters.getInt(new Parameter(P_EVALRECVBUFFER), null, -1); 
+        sendBuffer = state.parameters.getInt(new Parameter(P_EVALSENDBUFER), null, -1); 
+        recvBuffer = state.parameters.getInt(new Parameter(P_EVALRECVBUFFER), null, -1); 
         
         try
             {
@@ -159,6 +183,12 @@ public class SlaveMonitor
                 
         randomSeed = (int)(System.currentTimeMillis());
 
+        if (start) start();
+        }
+
+    /** Spawns the thread which accepts connections from slaves. */
+    protected void start()
+        {
         // spawn the thread
         thread = new Thread(new Runnable()
             {
@@ -233,13 +263,23 @@ public class SlaveMonitor
 			InputStream tmpIn = socket.getInputStream();
 			OutputStream tmpOut = socket.getOutputStream();
 			
-			// The first thing we do is send a single byte indicating whether we're using compression or not
-			tmpOut.write((byte)(useCompression ? 1 : 0));
+			// The first thing we do is send a single byte indicating whether we're using compression or not.
+			// Any other Codec than the traditional ones must be negotiated, which older slaves can't do.
+			Codec agreed = codec;
+			if (codec.codec == Codec.CODEC_STANDARD && codec.compression == (useCompression ? Codec.COMPRESSION_JZLIB : Codec.COMPRESSION_NONE))
+				tmpOut.write((byte)(useCompression ? 1 : 0));
+			else
+				{
+				tmpOut.write(Slave.V_NEGOTIATECODEC);
+				agreed = codec.propose(tmpIn, tmpOut);
+				if (!agreed.equals(codec))
+					state.output.warnOnce("Slaves could only agree to the codec " + agreed + " rather than " + codec);
+				}
 			
-			if (useCompression)
+			if (agreed.compression != Codec.COMPRESSION_NONE)
 				{
-				tmpIn = Output.makeCompressingInputStream(tmpIn);
-				tmpOut = Output.makeCompressingOutputStream(tmpOut);
+				tmpIn = agreed.decompress(tmpIn);
+				tmpOut = agreed.compress(tmpOut);
 				if (tmpIn == null || tmpOut == null)
 					state.output.fatal("You do not appear to have JZLib installed on your system, and so must set eval.compression=false. " +
 						"To get JZLib, download from the ECJ website or from http://www.jcraft.com/jzlib/");
@@ -272,7 +312,8 @@ public class SlaveMonitor
 				return slaveName;
 				}
 
-			SlaveConnection newSlave = new SlaveConnection( state, slaveName, socket, dataOut, dataIn, this );
+			SlaveConnection newSlave = newConnection( state, slaveName, socket, dataOut, dataIn, agreed );
+			newSlave.buildThreads();
 		
 			synchronized(allSlaves)
 				{
@@ -294,6 +335,16 @@ public class SlaveMonitor
         
         }
 
+    /**
+       Builds the SlaveConnection for a newly registered slave.  Override this to use a different kind of connection.
+    */
+    SlaveConnection newConnection( EvolutionState state, String slaveName, Socket socket, DataOutputStream dataOut, DataInputStream dataIn, Codec codec )
+        {
+        SlaveConnection connection = new SlaveConnection( state, slaveName, socket, dataOut, dataIn, this );
+        connection.codec = codec;
+        return connection;
+        }
+
     /**
        Unregisters a dead slave from the monitor.
     */
@@ -475,7 +526,13 @@ public class SlaveMonitor
         debug("Notify the monitor that the slave is available." );
 
         // now announce that we've got a new completed individual if someone is waiting for it
+        individualsEvaluated( job, state );
+        job.finish(state);
+        }
 
+    // adds the individuals of a finished job to evaluatedIndividuals if we're doing steady-state evolution
+    void individualsEvaluated( final Job job, EvolutionState state )
+        {
         if( state instanceof ec.steadystate.SteadyStateEvolutionState )
             {
             // Perhaps we should the individuals by fitness first, so the fitter ones show up later
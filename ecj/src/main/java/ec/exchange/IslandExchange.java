@@ -114,6 +114,16 @@ import ec.util.*;
  * This has the effect of locking all the clients together generation-wise; no
  * clients can run faster than any other clients.
  * 
+ * <p>By default migrants travel over blocking sockets: a mailbox thread per island polls a socket from each
+ * island sending to it, and migrants are written to each destination island in turn, so a slow island holds
+ * up the one sending to it.  If the server's <tt>transport</tt> is <tt>nio</tt>, every island instead uses an
+ * IslandExchangeTransport: a single thread running a java.nio Selector over non-blocking channels.  Sending
+ * migrants then never blocks: they wait in a bounded queue per destination (<tt>outbound-capacity</tt>
+ * frames, beyond which the oldest are dropped) until the destination can take them.  Connections to destinations
+ * are made, and remade if they fail, in the background, so a destination whose mailbox is late in coming up, or which
+ * restarts, gets its migrants once it's up.  When the island shuts down, it reports (if chatty) the bytes, migrants,
+ * dropped migrants, and latency of each link.
+ *
  * <p>One last item: normally in this model, the server is also a client.  But 
  * if for some reason you need the server to be a process all by itself, without
  * creating a client as well, you can do that.  You spawn such a server differently
@@ -173,6 +183,21 @@ import ec.util.*;
  <td valign=top>
  <i>client</i>: Whether the communication with other islands should be compressed or not.  Compressing uses more CPU, but it may also significantly reduce communication.
  </td></tr>
+ <tr><td valign=top><tt><i>base</i>.codec</tt><br>
+ <font size=-1>String, one of: <tt>standard</tt> (default) or <tt>compact</tt></font></td>
+ <td valign=top>
+ <i>client</i>: How individuals sent to other islands are encoded: see ec.util.Codec.  <tt>compact</tt> is usually smaller and faster to read and write.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.codec.compression</tt><br>
+ <font size=-1>String, one of: <tt>none</tt>, <tt>jzlib</tt>, <tt>deflate</tt>, or <tt>fast</tt> (default is <tt>jzlib</tt> if <i>base</i>.compressed is true, else <tt>none</tt>)</font></td>
+ <td valign=top>
+ <i>client</i>: How communication with other islands is compressed.  An island whose codec is anything but <tt>standard</tt> with <tt>none</tt> or <tt>jzlib</tt> asks the islands sending to it to propose theirs, and uses the closest one it supports.  Otherwise islands talk just as older versions did, and the islands sending to it use <tt>standard</tt> with its compression.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.outbound-capacity</tt><br>
+ <font size=-1>int >= 1 (default = 16)</font></td>
+ <td valign=top>
+ <i>client</i>: With the <tt>nio</tt> transport, how many frames of migrants (one per subpopulation per exchange) may wait to be sent to each island before the oldest are dropped.
+ </td></tr>
  <tr><td valign=top><tt><i>base</i>.i-am-server</tt><br>
  <font size=-1>bool = <tt>true</tt> or <tt>false</tt> (default)</font></td>
  <td valign=top>
@@ -183,6 +208,11 @@ import ec.util.*;
  <td valign=top>
  <i>server</i>: Are we doing a synchronous island model?  If so, the server's modulo and offset override any client's stated modulo and offset.
  </td></tr>
+ <tr><td valign=top><tt><i>base</i>.transport</tt><br>
+ <font size=-1>String, one of: <tt>blocking</tt> (default) or <tt>nio</tt></font></td>
+ <td valign=top>
+ <i>server</i>: How the islands send migrants to one another: over blocking sockets, or with an IslandExchangeTransport.  Only islands from this version of ECJ onwards can use <tt>nio</tt>; with <tt>blocking</tt>, the server talks to islands just as older versions did.
+ </td></tr>
  <tr><td valign=top><tt><i>base</i>.num-islands</tt><br>
  <font size=-1>int >= 1</font></td>
  <td valign=top>
@@ -280,6 +310,12 @@ public class IslandExchange extends Exchanger
     /** Whether the communication is compressed or not */
     public static final String P_COMPRESSED_COMMUNICATION = "compressed";
 
+    /** How individuals are encoded and communication is compressed */
+    public static final String P_CODEC = "codec";
+
+    /** How many frames of migrants may wait to be sent to each island, with the nio transport */
+    public static final String P_OUTBOUND_CAPACITY = "outbound-capacity";
+
     /** The selection method for sending individuals to other islands */
     public static final String P_SELECT_METHOD = "select";
 
@@ -339,6 +375,10 @@ public class IslandExchange extends Exchanger
     // SERIALIZE
     public boolean compressedCommunication;
 
+    /** the codec we propose to the islands we send to */
+    // SERIALIZE
+    public Codec codec;
+
     /** the selection method for immigrants */
     // SERIALIZE
     public SelectionMethod immigrantsSelectionMethod;
@@ -347,9 +387,22 @@ public class IslandExchange extends Exchanger
     // SERIALIZE
     public SelectionMethod indsToDieSelectionMethod;
 
+    /** how many frames of migrants may wait to be sent to each island, with the nio transport */
+    // SERIALIZE
+    public int outboundCapacity;
+
     // the mailbox of the current client (exchanger)
     IslandExchangeMailbox mailbox;
 
+    // the transport, which replaces the mailbox and the sockets to the destination islands if we're using nio
+    IslandExchangeTransport transport;
+
+    // the links to the destination islands, with the nio transport
+    IslandExchangeTransport.Link[] outLinks;
+
+    // the capacity of our mailbox, per subpopulation
+    int mailboxCapacity;
+
     // the thread of the mailbox
     Thread mailboxThread;
 
@@ -375,6 +428,9 @@ public class IslandExchange extends Exchanger
     // DataOutputStream to the destination islands
     DataOutputStream[] outWriters;
 
+    // the codecs agreed with the destination islands
+    Codec[] outCodecs;
+
     // so we can print out nice names for our outgoing connections
     public String[] outgoingIds;
 
@@ -499,6 +555,7 @@ public class IslandExchange extends Exchanger
             //            state.output.fatal("JDK 1.5 has broken compression.  For now, you must set " + base.push(P_COMPRESSED_COMMUNICATION) + "=false");
             state.output.message( "Communication will be compressed" ); 
             }
+        codec = Codec.load(state, base.push(P_CODEC), compressedCommunication ? Codec.COMPRESSION_JZLIB : Codec.COMPRESSION_NONE);
             
         // check whether it has to launch the main server for coordination
         p = base.push( P_IS_SERVER );
@@ -548,6 +605,12 @@ public class IslandExchange extends Exchanger
             ownId = state.parameters.getStringWithDefault( p, null, "" );
             if( ownId.equals("") )
                 state.output.fatal( "Could not get the Id of the island.", p );
+
+            // get the capacity of the outbound queues
+            p = base.push( P_OUTBOUND_CAPACITY );
+            outboundCapacity = state.parameters.getIntWithDefault( p, null, 16 );
+            if( outboundCapacity < 1 )
+                state.output.fatal( "The outbound capacity must be >= 1.", p );
             }
         }
 
@@ -566,6 +629,8 @@ public class IslandExchange extends Exchanger
         out.writeInt(serverPort);
         out.writeInt(clientPort);
         out.writeBoolean(iAmServer);
+        out.writeObject(codec);
+        out.writeInt(outboundCapacity);
         }
 
     /** Custom serialization */
@@ -583,6 +648,8 @@ public class IslandExchange extends Exchanger
         serverPort = in.readInt();
         clientPort = in.readInt();
         iAmServer = in.readBoolean();
+        codec = (Codec)(in.readObject());
+        outboundCapacity = in.readInt();
         }
     
     
@@ -659,14 +726,40 @@ public class IslandExchange extends Exchanger
 
             // Launch the mailbox thread (read from the server how many sockets to allocate
             // on the mailbox. Obtain the port and address of the mailbox.
-            mailbox = new IslandExchangeMailbox( state, clientPort, fromServer.readInt(),
-                fromServer.readInt(), ownId, chatty, compressedCommunication );
-            mailboxThread = new Thread( mailbox );
-            mailboxThread.setDaemon(true);
-            mailboxThread.start();
-
-            // record that the mailbox has been created
-            state.output.message( "IslandExchangeMailbox created." );
+            int numIncoming = fromServer.readInt();
+            int serverTransport = IslandExchangeServer.TRANSPORT_BLOCKING;
+            if( numIncoming == IslandExchangeServer.V_TRANSPORT )  // the transport comes first
+                {
+                serverTransport = fromServer.readInt();
+                numIncoming = fromServer.readInt();
+                }
+            mailboxCapacity = fromServer.readInt();
+            if( serverTransport == IslandExchangeServer.TRANSPORT_NIO )
+                {
+                int numSubpops = state.parameters.getInt( new Parameter( ec.Initializer.P_POP ).push( ec.Population.P_SIZE ), null, 1 );
+                try
+                    {
+                    transport = new IslandExchangeTransport( state.output, clientPort, Math.max( numSubpops, 0 ),
+                        mailboxCapacity, outboundCapacity, ownId, chatty );
+                    }
+                catch( IOException e )
+                    {
+                    state.output.fatal( "Could not start mailbox for incoming messages.  Perhaps the port (" + clientPort + ") is bad?\n...or someone else already has it?" );
+                    }
+                transport.start();
+                state.output.message( "IslandExchangeTransport created." );
+                }
+            else
+                {
+                mailbox = new IslandExchangeMailbox( state, clientPort, numIncoming,
+                    mailboxCapacity, ownId, chatty, codec );
+                mailboxThread = new Thread( mailbox );
+                mailboxThread.setDaemon(true);
+                mailboxThread.start();
+
+                // record that the mailbox has been created
+                state.output.message( "IslandExchangeMailbox created." );
+                }
 
             // tell the server the address and port of the mailbox
             try
@@ -679,7 +772,7 @@ public class IslandExchange extends Exchanger
                 {
                 state.output.fatal( "Could not get the address of the local computer." );
                 }
-            toServer.writeInt( mailbox.getPort() );
+            toServer.writeInt( transport != null ? transport.getPort() : mailbox.getPort() );
             toServer.flush();
 
             // read from the server the modulo, offset and size it has to use.
@@ -704,8 +797,10 @@ public class IslandExchange extends Exchanger
             // allocate the arrays
             outSockets = new Socket[ number_of_destination_islands ];
             outWriters = new DataOutputStream[ number_of_destination_islands ];
+            outCodecs = new Codec[ number_of_destination_islands ];
             running = new boolean[ number_of_destination_islands ];
             outgoingIds = new String[ number_of_destination_islands ];
+            outLinks = new IslandExchangeTransport.Link[ number_of_destination_islands ];
 
             // open connections to each of the destination islands
             for( int y = 0 ; y < number_of_destination_islands ; y++ )
@@ -713,6 +808,14 @@ public class IslandExchange extends Exchanger
                 // get the address and the port
                 String address = fromServer.readUTF().trim();
                 int port = fromServer.readInt();
+                if( transport != null )
+                    {
+                    // the transport connects in the background
+                    outLinks[y] = transport.connect( address, port, codec );
+                    outgoingIds[y] = address + " : " + port;
+                    running[y] = ( port >= 0 );
+                    continue;
+                    }
                 try
                     {
                     try
@@ -729,29 +832,33 @@ public class IslandExchange extends Exchanger
                         continue;
                         }
 
-                    if( compressedCommunication )
-                        {
-                        /*                        
-                                                  outWriters[y] = new DataOutputStream(new CompressingOutputStream(outSockets[y].getOutputStream()));
-                                                  // read the mailbox's id, then write my own id
-                                                  outgoingIds[y] = new DataInputStream(new CompressingInputStream(outSockets[y].getInputStream())).readUTF().trim();
-                        */
-                        
-                        OutputStream compressedo = Output.makeCompressingOutputStream(outSockets[y].getOutputStream());
-                        InputStream compressedi = Output.makeCompressingInputStream(outSockets[y].getInputStream());
-                        if (compressedi == null || compressedo == null) 
-                            state.output.fatal( "You do not appear to have JZLib installed on your system, and so may must have compression turned off for IslandExchange.  "+ 
-                                "To get JZLib, download from the ECJ website or from http://www.jcraft.com/jzlib/");
-                        outWriters[y] = new DataOutputStream(compressedo);
-                        outgoingIds[y] = new DataInputStream(compressedi).readUTF().trim();
-                        }
+                    // a mailbox which wants to agree on a codec says so first; otherwise it starts with its
+                    // id, just as older mailboxes do, and we use the traditional codec it's using.  A compressed
+                    // id starts with the zlib compression method, 8, in its low four bits, which the first byte
+                    // of an uncompressed id (the high byte of its length) never has.
+                    PushbackInputStream rawi = new PushbackInputStream(outSockets[y].getInputStream());
+                    OutputStream rawo = outSockets[y].getOutputStream();
+                    int first = rawi.read();
+                    if( first < 0 )
+                        throw new EOFException( "The mailbox closed the connection" );
+                    if( first == IslandExchangeMailbox.V_NEGOTIATECODEC )
+                        outCodecs[y] = codec.propose(rawi, rawo);
                     else
                         {
-                        outWriters[y] = new DataOutputStream(outSockets[y].getOutputStream());
-
-                        // read the mailbox's id, then write my own id
-                        outgoingIds[y] = new DataInputStream(outSockets[y].getInputStream()).readUTF().trim();
+                        rawi.unread( first );
+                        outCodecs[y] = new Codec( Codec.CODEC_STANDARD, ( first & 0x0F ) == 8 ? Codec.COMPRESSION_JZLIB : Codec.COMPRESSION_NONE );
+                        if( !outCodecs[y].equals( codec ) )
+                            state.output.warnOnce( "Some islands could only use the codec " + outCodecs[y] + " rather than " + codec );
                         }
+                    OutputStream compressedo = outCodecs[y].compress(rawo);
+                    InputStream compressedi = outCodecs[y].decompress(rawi);
+                    if (compressedi == null || compressedo == null) 
+                        state.output.fatal( "You do not appear to have JZLib installed on your system, and so may must have compression turned off for IslandExchange.  "+ 
+                            "To get JZLib, download from the ECJ website or from http://www.jcraft.com/jzlib/");
+                    outWriters[y] = new DataOutputStream(compressedo);
+
+                    // read the mailbox's id, then write my own id
+                    outgoingIds[y] = new DataInputStream(compressedi).readUTF().trim();
                         
                     outWriters[y].writeUTF(ownId);
                     outWriters[y].flush();
@@ -838,7 +945,13 @@ public class IslandExchange extends Exchanger
                     {
 
                     // check whether the communication is ok with the current island
-                    if( running[x] )
+                    if( running[x] && transport != null )
+                        {
+                        if (chatty) state.output.message( "Sending " + size + " immigrants to island " + outgoingName( x ) );
+                        for(int subpop = 0; subpop < state.population.subpops.size(); subpop++ )
+                            transport.send( outLinks[x], encodeEmigrants( state, x, subpop ) );
+                        }
+                    else if( running[x] )
                         {
 
                         if (chatty) state.output.message( "Sending " + size + " immigrants to island " + outgoingIds[x] );
@@ -859,7 +972,7 @@ public class IslandExchange extends Exchanger
                             for( int y = 0 ; y < size ; y++ ) // send all necesary individuals
                                 {
                                 int index = immigrantsSelectionMethod.produce( subpop, state, 0 );
-                                process(state, 0, outgoingIds[x], subpop, state.population.subpops.get(subpop).individuals.get(index)).writeIndividual( state, outWriters[x] );
+                                outCodecs[x].writeIndividual( state, process(state, 0, outgoingIds[x], subpop, state.population.subpops.get(subpop).individuals.get(index)), outWriters[x] );
                                 // TODO -- should we move this to the end?
                                 outWriters[x].flush();  // just in case the individuals didn't do a println
                                 }
@@ -877,6 +990,100 @@ public class IslandExchange extends Exchanger
 
         }
 
+    // the name of a destination island: its id, once we know it
+    String outgoingName(int x)
+        {
+        if( outLinks[x] != null && outLinks[x].getId() != null )
+            return outLinks[x].getId();
+        return outgoingIds[x];
+        }
+
+    // selects "size" individuals from the subpopulation and encodes them into a frame for the given destination island
+    IslandExchangeTransport.Frame encodeEmigrants(EvolutionState state, int x, int subpop) throws IOException
+        {
+        Codec c = outLinks[x].getCodec();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream compressed = c.compress( bytes );
+        if( compressed == null )
+            state.output.fatal( "You do not appear to have JZLib installed on your system, and so may must have compression turned off for IslandExchange.  "+ 
+                "To get JZLib, download from the ECJ website or from http://www.jcraft.com/jzlib/");
+        DataOutputStream out = new DataOutputStream( compressed );
+        immigrantsSelectionMethod.prepareToProduce( state, subpop, 0 );
+        for( int y = 0 ; y < size ; y++ )
+            {
+            int index = immigrantsSelectionMethod.produce( subpop, state, 0 );
+            c.writeIndividual( state, process(state, 0, outgoingName( x ), subpop, state.population.subpops.get(subpop).individuals.get(index)), out );
+            }
+        immigrantsSelectionMethod.finishProducing( state, subpop, 0 );
+        out.close();  // finishes the compression
+        return new IslandExchangeTransport.Frame( subpop, size, c, bytes.toByteArray() );
+        }
+
+    // decodes the frames which have arrived for a subpopulation, keeping the most recent mailboxCapacity individuals
+    ArrayList<Individual> decodeImmigrants(EvolutionState state, int subpop)
+        {
+        ArrayList<Individual> inds = new ArrayList<Individual>();
+        ArrayList<IslandExchangeTransport.Frame> frames = transport.receive( subpop );
+        for( int i = 0 ; i < frames.size() ; i++ )
+            {
+            IslandExchangeTransport.Frame frame = frames.get(i);
+            InputStream decompressed = ( frame.codec.isSupported() ? frame.codec.decompress( new ByteArrayInputStream( frame.payload ) ) : null );
+            if( decompressed == null )
+                {
+                state.output.warning( "Cannot decode immigrants from island " + frame.link.getId() + " encoded with " + frame.codec );
+                continue;
+                }
+            DataInputStream in = new DataInputStream( decompressed );
+            try
+                {
+                for( int y = 0 ; y < frame.count ; y++ )
+                    inds.add( frame.codec.newIndividual( state, state.population.subpops.get(subpop).species, in ) );
+                }
+            catch( IOException e )
+                {
+                state.output.warning( "Could not decode immigrants from island " + frame.link.getId() + ": " + e );
+                }
+            }
+        if( inds.size() > mailboxCapacity )
+            inds = new ArrayList<Individual>( inds.subList( inds.size() - mailboxCapacity, inds.size() ) );
+        return inds;
+        }
+
+    // replaces individuals picked by indsToDieSelectionMethod with the given immigrants
+    void immigrate(EvolutionState state, int x, Individual[] immigrants, int nImmigrants)
+        {
+        if (chatty) state.output.message( "Immigrating " +  nImmigrants + " individuals from mailbox for subpopulation " + x );
+
+        boolean[] selected = new boolean[ state.population.subpops.get(x).individuals.size() ];
+        int[] indices = new int[ nImmigrants ];
+        for( int i = 0 ; i < selected.length ; i++ )
+            selected[i] = false;
+        indsToDieSelectionMethod.prepareToProduce( state, x, 0 );
+        for( int i = 0 ; i < nImmigrants ; i++ )
+            {
+            do {
+                indices[i] = indsToDieSelectionMethod.produce( x, state, 0 );
+                } while( selected[indices[i]] );
+            selected[indices[i]] = true;
+            }
+        indsToDieSelectionMethod.finishProducing( state, x, 0 );
+
+        // there is no need to check for the differences in size: the mailbox.immigrants,
+        // state.population.subpops and the mailbox.nextIndexPosition should have the same size
+        for( int y = 0 ; y < nImmigrants ; y++ )
+            {
+
+            // read the individual
+            state.population.subpops.get(x).
+                individuals.set(indices[y],immigrants[y]);
+
+            // reset the evaluated flag (the individuals are not evaluated in the current island */
+            state.population.subpops.get(x).
+                individuals.get(indices[y]).evaluated = false;
+
+            }
+        }
+
 
     public Population postBreedingExchangePopulation(EvolutionState state)
         {
@@ -929,6 +1136,18 @@ public class IslandExchange extends Exchanger
             //state.output.message( "Synchronized. Reading individuals...." );
             }
 
+        // the transport's mailbox is lock-free: just take what has arrived
+        if( transport != null )
+            {
+            for( int x = 0 ; x < state.population.subpops.size() ; x++ )
+                {
+                ArrayList<Individual> immigrants = decodeImmigrants( state, x );
+                if( immigrants.size() > 0 )
+                    immigrate( state, x, immigrants.toArray( new Individual[ immigrants.size() ] ), immigrants.size() );
+                }
+            return state.population;
+            }
+
         // synchronize, because immigrants is also accessed by the mailbox thread
         synchronized( mailbox.immigrants )
             {
@@ -936,36 +1155,7 @@ public class IslandExchange extends Exchanger
                 {
                 if( mailbox.nImmigrants[x] > 0 )
                     {
-                    if (chatty) state.output.message( "Immigrating " +  mailbox.nImmigrants[x] + " individuals from mailbox for subpopulation " + x );
-
-                    boolean[] selected = new boolean[ state.population.subpops.get(x).individuals.size() ];
-                    int[] indices = new int[ mailbox.nImmigrants[x] ];
-                    for( int i = 0 ; i < selected.length ; i++ )
-                        selected[i] = false;
-                    indsToDieSelectionMethod.prepareToProduce( state, x, 0 );
-                    for( int i = 0 ; i < mailbox.nImmigrants[x] ; i++ )
-                        {
-                        do {
-                            indices[i] = indsToDieSelectionMethod.produce( x, state, 0 );
-                            } while( selected[indices[i]] );
-                        selected[indices[i]] = true;
-                        }
-                    indsToDieSelectionMethod.finishProducing( state, x, 0 );
-
-                    // there is no need to check for the differences in size: the mailbox.immigrants,
-                    // state.population.subpops and the mailbox.nextIndexPosition should have the same size
-                    for( int y = 0 ; y < mailbox.nImmigrants[x] ; y++ )
-                        {
-
-                        // read the individual
-                        state.population.subpops.get(x).
-                            individuals.set(indices[y],mailbox.immigrants[x][y]);
-
-                        // reset the evaluated flag (the individuals are not evaluated in the current island */
-                        state.population.subpops.get(x).
-                            individuals.get(indices[y]).evaluated = false;
-
-                        }
+                    immigrate( state, x, mailbox.immigrants[x], mailbox.nImmigrants[x] );
 
                     // reset the number of immigrants in the mailbox for the current subpopulation
                     // this doesn't need another synchronization, because the thread is already synchronized
@@ -1076,6 +1266,42 @@ public class IslandExchange extends Exchanger
             {
             }
 
+        if( transport != null )
+            {
+            // give the migrants already sent a moment to leave, then report on the links
+            transport.flush( 1000 );
+            if( chatty )
+                {
+                List<IslandExchangeTransport.Link> links = transport.getLinks();
+                for( int x = 0 ; x < links.size() ; x++ )
+                    state.output.message( "Link " + links.get(x) );
+                }
+            state.output.message( "Shutting down the transport" );
+            transport.shutDown();
+            state.output.message( "Transport shut down" );
+            }
+        else
+            closeMailbox( state );
+
+        // if the island also hosts the server, wait till it terminates
+        if( iAmServer )
+            {
+            state.output.message( "Shutting down the server" );
+            try
+                {
+                serverThread.join();
+                }
+            catch( InterruptedException e )
+                {
+                }
+            state.output.message( "Server shut down" );
+            }
+
+        }
+
+    // shuts down the mailbox and closes the sockets to the destination islands
+    void closeMailbox(EvolutionState state)
+        {
         state.output.message( "Shutting down the mailbox" );
         // close the mailbox and wait for the thread to terminate
         mailbox.shutDown();
@@ -1102,21 +1328,6 @@ public class IslandExchange extends Exchanger
                 {
                 }
             }
-
-        // if the island also hosts the server, wait till it terminates
-        if( iAmServer )
-            {
-            state.output.message( "Shutting down the server" );
-            try
-                {
-                serverThread.join();
-                }
-            catch( InterruptedException e )
-                {
-                }
-            state.output.message( "Server shut down" );
-            }
-
         }
 
     /* (non-Javadoc)
@@ -1185,8 +1396,15 @@ class IslandExchangeMailbox implements Runnable
     // the number of islands that send messages to the current mailbox
     int n_incoming;
 
-    // whether the information on sockets is compressed or not (receives this information in the constructor)
-    boolean compressedCommunication;
+    /** Sent by a mailbox, before agreeing on a codec with an island, in place of its id.  Neither the
+        uncompressed id (which starts with its length) nor a compressed one can start with this byte. */
+    public static final int V_NEGOTIATECODEC = 0xFF;
+
+    // the codec we'd like the islands sending to us to use
+    Codec codec;
+
+    // the codecs agreed with the islands sending to us, which say how their sockets are compressed
+    Codec[] codecs;
 
     // the sockets and readers for receiving incoming messages
     Socket[] inSockets;
@@ -1213,11 +1431,13 @@ class IslandExchangeMailbox implements Runnable
        port : the port used to listen for incoming messages
        n_incoming_p : the number of islands that will send messages to the current island
        how_many : how many immigrants to manage in the queue-like storage for each of the subpopulations
+       codec : the codec the islands sending to us should use.  Unless it's a traditional one (the standard
+       encoding, compressed with jzlib or not at all), we agree on it with each island as it connects.
     */
-    public IslandExchangeMailbox( final EvolutionState state_p, int port, int n_incoming_p, int how_many, String _myId, boolean chatty, boolean _compressedCommunication )
+    public IslandExchangeMailbox( final EvolutionState state_p, int port, int n_incoming_p, int how_many, String _myId, boolean chatty, Codec codec )
         {
         myId = _myId;
-        compressedCommunication = _compressedCommunication;
+        this.codec = codec;
         
         this.chatty = chatty;
     
@@ -1260,6 +1480,7 @@ class IslandExchangeMailbox implements Runnable
         // allocate the sockets and the readers (will be used in the near future)
         inSockets = new Socket[ n_incoming ];
         dataInput = new DataInputStream[ n_incoming ];
+        codecs = new Codec[ n_incoming ];
         incomingIds = new String[ n_incoming ];
 
         // allocate the status of the different readers
@@ -1267,6 +1488,14 @@ class IslandExchangeMailbox implements Runnable
 
         }
 
+    /** Returns true if the codec is a traditional one (the standard encoding, compressed with jzlib or not at all),
+        which islands use without agreeing on it first. */
+    public static boolean isTraditional( Codec codec )
+        {
+        return codec.codec == Codec.CODEC_STANDARD &&
+            ( codec.compression == Codec.COMPRESSION_NONE || codec.compression == Codec.COMPRESSION_JZLIB );
+        }
+
     /** The main functionality of the mailbox: waiting for incoming messages and dealing with the incoming immigrants */
     public void run()
         {
@@ -1281,28 +1510,24 @@ class IslandExchangeMailbox implements Runnable
                 {
                 inSockets[x] = serverSocket.accept();
 
-                DataOutputStream dataOutput;
-
-                if( compressedCommunication )
+                // any codec other than the traditional ones must be agreed on (the closest to what the island
+                // proposes that we support), which older islands can't do.  Then compress the streams accordingly.
+                InputStream rawi = inSockets[x].getInputStream();
+                OutputStream rawo = inSockets[x].getOutputStream();
+                if( isTraditional( codec ) )
                     {
-                    /*
-                      dataInput[x] = new DataInputStream(new CompressingInputStream(inSockets[x].getInputStream()));
-                      dataOutput = new DataOutputStream(new CompressingOutputStream(inSockets[x].getOutputStream()));
-                    */
-                    OutputStream compressedo = Output.makeCompressingOutputStream(inSockets[x].getOutputStream());
-                    InputStream compressedi = Output.makeCompressingInputStream(inSockets[x].getInputStream());
-                    if (compressedi == null || compressedo == null) 
-                        state.output.fatal( "You do not appear to have JZLib installed on your system, and so may must have compression turned off for IslandExchange.  "+ 
-                            "To get JZLib, download from the ECJ website or from http://www.jcraft.com/jzlib/");
-
-                    dataInput[x] = new DataInputStream(compressedi);
-                    dataOutput = new DataOutputStream(compressedo);
+                    codecs[x] = codec.closestSupported();
+                    if( !codecs[x].equals( codec ) )
+                        state.output.warnOnce( "Islands sending to this one can only use the codec " + codecs[x] + " rather than " + codec );
                     }
                 else
                     {
-                    dataInput[x] = new DataInputStream(inSockets[x].getInputStream());
-                    dataOutput = new DataOutputStream(inSockets[x].getOutputStream());
+                    rawo.write( V_NEGOTIATECODEC );
+                    rawo.flush();
+                    codecs[x] = Codec.accept(rawi, rawo);
                     }
+                dataInput[x] = new DataInputStream(codecs[x].decompress(rawi));
+                DataOutputStream dataOutput = new DataOutputStream(codecs[x].compress(rawo));
 
                 // send my id, then read an id
                 dataOutput.writeUTF(myId);
@@ -1393,7 +1618,7 @@ class IslandExchangeMailbox implements Runnable
                                     try
                                         {
                                         // read the immigrant in the storage
-                                        immigrants[subpop][nextIndexPosition[subpop]] = state.population.subpops.get(subpop).species.newIndividual( state, dataInput[x] );
+                                        immigrants[subpop][nextIndexPosition[subpop]] = codecs[x].newIndividual( state, state.population.subpops.get(subpop).species, dataInput[x] );
 
                                         //state.output.message( "Individual received." );
                                         
@@ -1590,6 +1815,17 @@ class IslandExchangeServer implements Runnable
     /** Whether the execution should be synchronous or asynchronous */
     public static final String P_SYNCHRONOUS = "sync";
 
+    /** How the islands send migrants to one another */
+    public static final String P_TRANSPORT = "transport";
+    public static final String V_BLOCKING = "blocking";
+    public static final String V_NIO = "nio";
+    public static final int TRANSPORT_BLOCKING = 0;
+    public static final int TRANSPORT_NIO = 1;
+
+    /** Sent to an island, in place of the number of islands sending to it, when the transport isn't blocking.
+        The transport and then the number of islands follow.  Blocking islands see the same handshake as always. */
+    public static final int V_TRANSPORT = -1;
+
     /** The run message to be sent to the clients */
     public static final String RUN = "run";
 
@@ -1666,6 +1902,9 @@ class IslandExchangeServer implements Runnable
     // int global_modulo, global_offset;
     boolean synchronous;
 
+    // TRANSPORT_BLOCKING or TRANSPORT_NIO
+    int transport;
+
     // how many individuals asked to be synchronized (when it reaches the total number of
     // running clients, the server resets this variable and allows everybody to continue running)
     boolean[] who_is_synchronized;
@@ -1738,6 +1977,19 @@ class IslandExchangeServer implements Runnable
 
             }
 
+        // how will the islands send migrants?
+        p = base.push( P_TRANSPORT );
+        String t = state.parameters.getStringWithDefault( p, null, V_BLOCKING );
+        if( t.equalsIgnoreCase( V_NIO ) )
+            {
+            transport = TRANSPORT_NIO;
+            state.output.message( "The islands will use the nio transport." );
+            }
+        else if( t.equalsIgnoreCase( V_BLOCKING ) )
+            transport = TRANSPORT_BLOCKING;
+        else
+            state.output.fatal( "The transport must be either " + V_BLOCKING + " or " + V_NIO + ".", p );
+
         // get a new local base
         Parameter islandBase = base.push( P_ISLAND );
 
@@ -1961,6 +2213,13 @@ class IslandExchangeServer implements Runnable
                     continue;
                     }
             
+                // send the transport, unless it's the blocking one, which older islands assume
+                if( transport != TRANSPORT_BLOCKING )
+                    {
+                    dataOut[x].writeInt( V_TRANSPORT );
+                    dataOut[x].writeInt( transport );
+                    }
+
                 // send the number of ids that will be send through the communication link
                 dataOut[x].writeInt( ieii.num_incoming );
 
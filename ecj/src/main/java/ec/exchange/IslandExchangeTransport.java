@@ -0,0 +1,643 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.exchange;
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import ec.util.*;
+
+/**
+ * IslandExchangeTransport moves migrants between islands for IslandExchange when the server's
+ * <tt>transport</tt> is <tt>nio</tt>.  It replaces the IslandExchangeMailbox thread, with its blocking
+ * ServerSocket and one blocking Socket per island, with a single thread per island running a
+ * java.nio Selector over non-blocking channels: the mailbox's listening channel, a channel from each
+ * island sending to us, and a channel to each island we send to.
+ *
+ * <p>Migrants travel as frames, each holding the individuals sent to one subpopulation, already encoded
+ * (and compressed) by IslandExchange with a Codec.  The frame says which Codec, so the receiver can decode it.
+ * On the wire, every message is an int length followed by that many bytes: first a byte saying what kind of
+ * message it is.  A <i>hello</i> message carries a Codec and an island id; a <i>migrants</i> message carries a
+ * Codec, the subpopulation, the number of individuals, and the encoded individuals.  When an island connects
+ * to another's mailbox, it sends a hello proposing a Codec, and the mailbox answers with a hello giving the
+ * closest Codec it supports.
+ *
+ * <p>Sending never blocks.  send(...) puts a frame on the link's outbound queue, and the transport's thread
+ * writes it when the channel can take it.  Each queue holds at most <i>outboundCapacity</i> frames: if it is
+ * full, the oldest frame is dropped, so a slow or dead island can't hold up evolution nor use up memory.
+ * Connections to other islands are made in the background: frames sent before a link has connected wait
+ * in its queue, and a link which fails is reopened every RECONNECT_DELAY milliseconds, so an island
+ * whose mailbox is late in starting up, or which restarts, gets its migrants once it's up.
+ *
+ * <p>Incoming frames are put on lock-free queues, one per subpopulation, which receive(...) empties.  Each
+ * queue keeps the most recent frames holding at least <i>mailboxCapacity</i> individuals, dropping older ones.
+ *
+ * <p>Each Link keeps counts of the bytes, frames, and migrants it has carried and dropped, and outgoing
+ * links keep the latency from send(...) until the frame has been written to the network.
+ */
+
+public class IslandExchangeTransport implements Runnable
+    {
+    /** How long to wait before reopening a failed connection to another island, in milliseconds */
+    public static final int RECONNECT_DELAY = 1000;
+
+    /** The largest message we'll accept */
+    public static final int MAX_MESSAGE_LENGTH = 1 << 28;
+
+    /** Message types */
+    public static final byte HELLO = 0;
+    public static final byte MIGRANTS = 1;
+
+    // the length of a migrants message before the individuals: type, codec, compression, subpop, count
+    static final int MIGRANTS_HEADER_LENGTH = 11;
+
+    /** Some individuals, encoded, bound for or received from another island. */
+    public static class Frame
+        {
+        /** The subpopulation the individuals are sent to */
+        public final int subpop;
+        /** The number of individuals */
+        public final int count;
+        /** How the individuals were encoded */
+        public final Codec codec;
+        /** The encoded individuals */
+        public final byte[] payload;
+        /** The link the frame came in on, for received frames */
+        public Link link;
+
+        // when the frame was sent, in nanoseconds
+        long sent;
+
+        public Frame(int subpop, int count, Codec codec, byte[] payload)
+            {
+            this.subpop = subpop;
+            this.count = count;
+            this.codec = codec;
+            this.payload = payload;
+            }
+
+        // the whole message, ready to write
+        ByteBuffer encode()
+            {
+            ByteBuffer buffer = ByteBuffer.allocate(4 + MIGRANTS_HEADER_LENGTH + payload.length);
+            buffer.putInt(MIGRANTS_HEADER_LENGTH + payload.length);
+            buffer.put(MIGRANTS);
+            buffer.put((byte)codec.codec);
+            buffer.put((byte)codec.compression);
+            buffer.putInt(subpop);
+            buffer.putInt(count);
+            buffer.put(payload);
+            buffer.flip();
+            return buffer;
+            }
+        }
+
+    /** A connection to another island: either one we send migrants over, or one we receive migrants over. */
+    public class Link
+        {
+        /** Whether we send migrants over this link, as opposed to receiving them */
+        public final boolean outgoing;
+
+        // the other island's mailbox, for outgoing links
+        final InetSocketAddress address;
+        // the codec we propose, for outgoing links
+        final Codec proposal;
+
+        volatile String id;
+        volatile Codec codec;
+        volatile boolean connected;
+
+        // the following are only touched by the transport's thread
+        SocketChannel channel;
+        SelectionKey key;
+        long reconnectAt;
+        boolean reportedFailure;
+        ByteBuffer in = ByteBuffer.allocate(8192);
+        ByteBuffer out;
+        Frame outFrame;
+
+        // frames waiting to be sent, for outgoing links
+        final ConcurrentLinkedQueue<Frame> queue = new ConcurrentLinkedQueue<Frame>();
+        final AtomicInteger queued = new AtomicInteger();
+
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong frames = new AtomicLong();
+        final AtomicLong migrants = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong droppedMigrants = new AtomicLong();
+        final AtomicLong latencyNanos = new AtomicLong();
+        volatile long maxLatencyNanos;
+
+        Link(boolean outgoing, InetSocketAddress address, Codec proposal)
+            {
+            this.outgoing = outgoing;
+            this.address = address;
+            this.proposal = proposal;
+            this.codec = proposal;
+            }
+
+        /** Returns the id of the island on the other end, or null if we don't know it yet. */
+        public String getId() { return id; }
+
+        /** Returns the Codec agreed with the other island, or, for an outgoing link which hasn't connected yet, the one we propose. */
+        public Codec getCodec() { return codec; }
+
+        /** Returns whether the link is presently connected, and has agreed on a Codec. */
+        public boolean isConnected() { return connected; }
+
+        /** Returns the number of bytes sent (for outgoing links) or received (for incoming links) over the link. */
+        public long getBytes() { return bytes.get(); }
+
+        /** Returns the number of frames sent or received over the link. */
+        public long getFrames() { return frames.get(); }
+
+        /** Returns the number of migrants sent or received over the link. */
+        public long getMigrants() { return migrants.get(); }
+
+        /** Returns the number of frames dropped because the outbound queue or mailbox was full, or the link failed. */
+        public long getDropped() { return dropped.get(); }
+
+        /** Returns the number of migrants in the dropped frames. */
+        public long getDroppedMigrants() { return droppedMigrants.get(); }
+
+        /** Returns the number of frames waiting to be sent. */
+        public int getQueued() { return queued.get(); }
+
+        /** Returns the mean time, in milliseconds, from send(...) until a frame was written to the network, for outgoing links. */
+        public double getMeanLatency() { long f = frames.get(); return (f == 0 ? 0 : latencyNanos.get() / (f * 1.0e6)); }
+
+        /** Returns the largest time, in milliseconds, from send(...) until a frame was written to the network, for outgoing links. */
+        public double getMaxLatency() { return maxLatencyNanos / 1.0e6; }
+
+        String name() { return (id == null ? (address == null ? "(unknown)" : address.toString()) : id); }
+
+        public String toString()
+            {
+            if (outgoing)
+                return "to " + name() + ": " + frames.get() + " frames, " + migrants.get() + " migrants, " + bytes.get() + " bytes, " +
+                    dropped.get() + " frames (" + droppedMigrants.get() + " migrants) dropped, latency mean " +
+                    String.format("%.3f", getMeanLatency()) + " ms max " + String.format("%.3f", getMaxLatency()) + " ms";
+            else
+                return "from " + name() + ": " + frames.get() + " frames, " + migrants.get() + " migrants, " + bytes.get() + " bytes, " +
+                    dropped.get() + " frames (" + droppedMigrants.get() + " migrants) dropped from the mailbox";
+            }
+        }
+
+    // My ID
+    final String ownId;
+
+    // where to print messages
+    final Output output;
+
+    boolean chatty;
+
+    final int mailboxCapacity;
+    final int outboundCapacity;
+
+    final Selector selector;
+    final ServerSocketChannel serverChannel;
+
+    // the incoming frames, and how many individuals they hold, one per subpopulation
+    final ArrayList<ConcurrentLinkedQueue<Frame>> immigrants;
+    final AtomicInteger[] nImmigrants;
+
+    // every link we've had, for reporting
+    final CopyOnWriteArrayList<Link> links = new CopyOnWriteArrayList<Link>();
+
+    // outgoing links which have been given frames to send since the thread last looked
+    final ConcurrentLinkedQueue<Link> wakeups = new ConcurrentLinkedQueue<Link>();
+
+    volatile boolean closed;
+    Thread thread;
+
+    /** Opens the mailbox on the given port (0 for any free port).  Call start() to start moving migrants. */
+    public IslandExchangeTransport(Output output, int port, int numSubpops, int mailboxCapacity, int outboundCapacity, String ownId, boolean chatty) throws IOException
+        {
+        this.output = output;
+        this.ownId = ownId;
+        this.chatty = chatty;
+        this.mailboxCapacity = mailboxCapacity;
+        this.outboundCapacity = outboundCapacity;
+
+        immigrants = new ArrayList<ConcurrentLinkedQueue<Frame>>(numSubpops);
+        nImmigrants = new AtomicInteger[numSubpops];
+        for(int i = 0; i < numSubpops; i++)
+            {
+            immigrants.add(new ConcurrentLinkedQueue<Frame>());
+            nImmigrants[i] = new AtomicInteger();
+            }
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try
+            {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+        catch (IOException e)
+            {
+            serverChannel.close();
+            selector.close();
+            throw e;
+            }
+        }
+
+    /** Returns the port of the mailbox. */
+    public int getPort()
+        {
+        return serverChannel.socket().getLocalPort();
+        }
+
+    /** Starts the transport's thread. */
+    public void start()
+        {
+        thread = new Thread(this, "ECJ IslandExchange Transport " + ownId);
+        thread.setDaemon(true);
+        thread.start();
+        }
+
+    /** Adds a link to the mailbox of another island, at the given address and port, proposing the given Codec.
+        The connection is made in the background.  If the port is negative (the server didn't know where the island is),
+        the link never connects, and frames sent over it are dropped. */
+    public Link connect(String address, int port, Codec codec)
+        {
+        Link link = new Link(true, port < 0 ? null : InetSocketAddress.createUnresolved(address, port), codec);
+        if (port < 0) link.id = address;
+        links.add(link);
+        selector.wakeup();
+        return link;
+        }
+
+    /** Puts a frame on the outbound queue of the given outgoing link, dropping the oldest frame there if the queue
+        is full.  Returns false if the link can never connect, in which case the frame is dropped. */
+    public boolean send(Link link, Frame frame)
+        {
+        if (link.address == null)
+            {
+            link.dropped.incrementAndGet();
+            link.droppedMigrants.addAndGet(frame.count);
+            return false;
+            }
+        frame.sent = System.nanoTime();
+        link.queue.add(frame);
+        if (link.queued.incrementAndGet() > outboundCapacity)
+            {
+            Frame oldest = link.queue.poll();
+            if (oldest != null)
+                {
+                link.queued.decrementAndGet();
+                link.dropped.incrementAndGet();
+                link.droppedMigrants.addAndGet(oldest.count);
+                }
+            }
+        wakeups.add(link);
+        selector.wakeup();
+        return true;
+        }
+
+    /** Removes and returns all the frames which have arrived for the given subpopulation, oldest first. */
+    public ArrayList<Frame> receive(int subpop)
+        {
+        ArrayList<Frame> frames = new ArrayList<Frame>();
+        Frame frame;
+        while((frame = immigrants.get(subpop).poll()) != null)
+            {
+            nImmigrants[subpop].addAndGet(-frame.count);
+            frames.add(frame);
+            }
+        return frames;
+        }
+
+    /** Returns every link, incoming and outgoing, including those which have closed. */
+    public List<Link> getLinks()
+        {
+        return new ArrayList<Link>(links);
+        }
+
+    /** Waits up to the given number of milliseconds for the outbound queues of the connected links to empty. */
+    public void flush(long millis)
+        {
+        long end = System.currentTimeMillis() + millis;
+        while(System.currentTimeMillis() < end)
+            {
+            boolean empty = true;
+            for(Link link : links)
+                if (link.outgoing && link.connected && link.queued.get() > 0)
+                    empty = false;
+            if (empty) return;
+            try { Thread.sleep(10); }
+            catch (InterruptedException e) { return; }
+            }
+        }
+
+    /** Closes every channel and stops the thread. */
+    public void shutDown()
+        {
+        closed = true;
+        selector.wakeup();
+        if (thread != null)
+            {
+            try { thread.join(); }
+            catch (InterruptedException e) { }
+            }
+        }
+
+    /** The event loop */
+    public void run()
+        {
+        try
+            {
+            while(!closed)
+                {
+                long now = System.currentTimeMillis();
+                for(Link link : links)
+                    if (link.outgoing && link.address != null && link.channel == null && now >= link.reconnectAt)
+                        open(link);
+
+                Link link;
+                while((link = wakeups.poll()) != null)
+                    if (link.connected && link.key != null && link.key.isValid())
+                        link.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+
+                selector.select(RECONNECT_DELAY);
+
+                Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+                while(i.hasNext())
+                    {
+                    SelectionKey key = i.next();
+                    i.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable())
+                        {
+                        accept();
+                        continue;
+                        }
+                    link = (Link)(key.attachment());
+                    try
+                        {
+                        if (key.isConnectable() && link.channel.finishConnect())
+                            opened(link);
+                        if (key.isValid() && key.isReadable())
+                            read(link);
+                        if (key.isValid() && key.isWritable())
+                            write(link);
+                        }
+                    catch (IOException e)
+                        {
+                        fail(link, e);
+                        }
+                    }
+                }
+            }
+        catch (IOException e)
+            {
+            if (!closed) output.warning("The IslandExchange transport failed: " + e);
+            }
+        finally
+            {
+            for(Link link : links)
+                if (link.channel != null)
+                    {
+                    try { link.channel.close(); }
+                    catch (IOException e) { }
+                    link.connected = false;
+                    }
+            try { serverChannel.close(); }
+            catch (IOException e) { }
+            try { selector.close(); }
+            catch (IOException e) { }
+            }
+        }
+
+    // starts connecting an outgoing link
+    void open(Link link)
+        {
+        try
+            {
+            link.channel = SocketChannel.open();
+            link.channel.configureBlocking(false);
+            link.channel.socket().setTcpNoDelay(true);
+            boolean done = link.channel.connect(new InetSocketAddress(link.address.getHostString(), link.address.getPort()));
+            link.key = link.channel.register(selector, done ? 0 : SelectionKey.OP_CONNECT, link);
+            if (done) opened(link);
+            }
+        catch (IOException e)
+            {
+            fail(link, e);
+            }
+        catch (UnresolvedAddressException e)
+            {
+            fail(link, new UnknownHostException(link.address.getHostString()));
+            }
+        }
+
+    // an outgoing link has connected: say hello
+    void opened(Link link)
+        {
+        link.out = hello(link.proposal);
+        link.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+    void accept() throws IOException
+        {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Link link = new Link(false, null, null);
+        link.channel = channel;
+        link.key = channel.register(selector, SelectionKey.OP_READ, link);
+        links.add(link);
+        }
+
+    ByteBuffer hello(Codec codec)
+        {
+        try
+            {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);  // length, filled in below
+            out.writeByte(HELLO);
+            out.writeByte(codec.codec);
+            out.writeByte(codec.compression);
+            out.writeUTF(ownId);
+            out.close();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            buffer.putInt(0, buffer.capacity() - 4);
+            return buffer;
+            }
+        catch (IOException e)  // can't happen
+            {
+            throw new RuntimeException(e);
+            }
+        }
+
+    void read(Link link) throws IOException
+        {
+        int n = link.channel.read(link.in);
+        if (n < 0) throw new EOFException("connection closed");
+        if (!link.outgoing) link.bytes.addAndGet(n);
+
+        ByteBuffer in = link.in;
+        in.flip();
+        int needed = 0;
+        while(in.remaining() >= 4)
+            {
+            int length = in.getInt(in.position());
+            if (length < 1 || length > MAX_MESSAGE_LENGTH)
+                throw new IOException("bad message length " + length);
+            if (in.remaining() < 4 + length)
+                {
+                needed = 4 + length;
+                break;
+                }
+            in.getInt();
+            byte[] message = new byte[length];
+            in.get(message);
+            received(link, message);
+            }
+        in.compact();
+        if (needed > in.capacity())
+            {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, in.capacity() * 2));
+            in.flip();
+            bigger.put(in);
+            link.in = bigger;
+            }
+        }
+
+    void received(Link link, byte[] message) throws IOException
+        {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+        byte type = in.readByte();
+        Codec codec = new Codec(in.readUnsignedByte(), in.readUnsignedByte());
+        if (type == HELLO)
+            {
+            link.id = in.readUTF().trim();
+            if (link.outgoing)
+                {
+                // the mailbox's answer: the codec it accepted
+                link.codec = codec;
+                link.connected = true;
+                link.reportedFailure = false;
+                if (chatty) output.message("Connected to the mailbox of island " + link.id + " (" + codec + ")");
+                if (link.queued.get() > 0)
+                    link.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            else
+                {
+                link.codec = codec.closestSupported();
+                link.connected = true;
+                link.out = hello(link.codec);
+                link.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                output.message("Island " + link.id + " connected to my mailbox");
+                }
+            }
+        else if (type == MIGRANTS && !link.outgoing && link.connected)
+            {
+            int subpop = in.readInt();
+            int count = in.readInt();
+            byte[] payload = new byte[message.length - MIGRANTS_HEADER_LENGTH];
+            in.readFully(payload);
+            Frame frame = new Frame(subpop, count, codec, payload);
+            frame.link = link;
+            link.frames.incrementAndGet();
+            link.migrants.addAndGet(count);
+            if (subpop < 0 || subpop >= immigrants.size())
+                {
+                output.warning("Island " + link.id + " sent immigrants for a nonexistent subpopulation " + subpop);
+                return;
+                }
+            if (chatty) output.message("Receiving " + count + " immigrants for subpopulation " + subpop + " from island " + link.id);
+
+            // add to the mailbox, then drop the oldest frames we no longer need to fill it
+            immigrants.get(subpop).add(frame);
+            int total = nImmigrants[subpop].addAndGet(count);
+            Frame oldest;
+            while((oldest = immigrants.get(subpop).peek()) != null && oldest != frame && total - oldest.count >= mailboxCapacity)
+                {
+                if (immigrants.get(subpop).remove(oldest))
+                    {
+                    total = nImmigrants[subpop].addAndGet(-oldest.count);
+                    oldest.link.dropped.incrementAndGet();
+                    oldest.link.droppedMigrants.addAndGet(oldest.count);
+                    }
+                else total = nImmigrants[subpop].get();
+                }
+            }
+        else throw new IOException("unexpected message of type " + type);
+        }
+
+    void write(Link link) throws IOException
+        {
+        while(true)
+            {
+            if (link.out == null)
+                {
+                Frame frame = (link.connected ? link.queue.poll() : null);
+                if (frame == null) break;
+                link.queued.decrementAndGet();
+                link.out = frame.encode();
+                link.outFrame = frame;
+                }
+            int n = link.channel.write(link.out);
+            if (link.outgoing) link.bytes.addAndGet(n);
+            if (link.out.hasRemaining()) return;  // the channel is full: wait until it can take more
+
+            Frame frame = link.outFrame;
+            if (frame != null)
+                {
+                long latency = System.nanoTime() - frame.sent;
+                link.frames.incrementAndGet();
+                link.migrants.addAndGet(frame.count);
+                link.latencyNanos.addAndGet(latency);
+                if (latency > link.maxLatencyNanos) link.maxLatencyNanos = latency;
+                }
+            link.out = null;
+            link.outFrame = null;
+            }
+        link.key.interestOps(SelectionKey.OP_READ);
+        }
+
+    void fail(Link link, IOException e)
+        {
+        if (link.channel != null)
+            {
+            try { link.channel.close(); }
+            catch (IOException f) { }
+            }
+        link.channel = null;
+        link.key = null;
+        link.in.clear();
+        link.out = null;
+        if (link.outFrame != null)
+            {
+            link.dropped.incrementAndGet();
+            link.droppedMigrants.addAndGet(link.outFrame.count);
+            link.outFrame = null;
+            }
+        boolean wasConnected = link.connected;
+        link.connected = false;
+
+        if (link.outgoing)
+            {
+            link.reconnectAt = System.currentTimeMillis() + RECONNECT_DELAY;
+            if (wasConnected)
+                output.message("Lost the connection to island " + link.name() + " (" + e + "), will reconnect");
+            else if (chatty && !link.reportedFailure)
+                output.message("Could not yet connect to island " + link.name() + " (" + e + "), will retry");
+            link.reportedFailure = true;
+            }
+        else output.message("Island " + link.name() + " disconnected from my mailbox");
+        }
+    }
@@ -0,0 +1,621 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.exchange;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.*;
+import ec.*;
+import ec.util.*;
+
+/*
+ * SharedMemoryExchange.java
+ */
+
+/**
+ * SharedMemoryExchange is an Exchanger which implements an asynchronous island model among several
+ * EvolutionStates running in the same process, each in its own thread.  It's meant for large machines,
+ * where the islands of IslandExchange would otherwise talk to one another over sockets on the same host,
+ * and where InterPopulationExchange, whose islands are the subpopulations of a single EvolutionState,
+ * would force every island to breed and evaluate in lockstep.  Here each island is a complete evolutionary
+ * run, with its own random number generators, population, statistics, and so on, and islands never wait
+ * for one another.
+ *
+ * <p>The topology is given with the same parameters as IslandExchange's server uses, and islands are
+ * identified by their ids in the same way.  Every few generations, an island selects <tt>size</tt> migrants
+ * per subpopulation and puts copies of them in the mailbox of each island it sends to.  Migrants are not
+ * serialized: they are simply cloned.  A mailbox holds a lock-free queue per subpopulation, which keeps the
+ * most recent <tt>mailbox-capacity</tt> migrants and drops older ones.  After breeding, an island takes whatever
+ * is in its mailbox and replaces individuals picked by <tt>select-to-die</tt> with the immigrants, which are
+ * considered unevaluated.  As in IslandExchange, every island must have the same kind of subpopulations and
+ * species, and migrants from a subpopulation go to the same subpopulation.
+ *
+ * <p>If an island finds the ideal individual, the other islands quit at their next exchange (if they
+ * would quit on finding the ideal individual themselves).
+ *
+ * <p>The islands are normally started all together by running SharedMemoryExchange itself in place of
+ * ec.Evolve:
+ <p><pre>
+ java ec.exchange.SharedMemoryExchange -file islands.params
+ </pre>
+ * <p>...which sets up one EvolutionState per island in the topology, from the same parameters, except that
+ * each island's <tt>exch.id</tt> is set to its id, each island's random number seeds are offset by its
+ * island number (as a job number would offset them), and each island's output and checkpoint files are prefixed with
+ * its id and a period.  Each island runs in its own thread until all are done.  Since the islands share one
+ * JVM, static variables are shared among them, and if one island has a fatal error, they all quit.
+ *
+ * <p>Alternatively you may set up and run the EvolutionStates yourself, in whatever threads you like: islands
+ * meet in an Archipelago, found by name with getArchipelago(...), so all you need to do is to give each
+ * of them the same <tt>exch.archipelago</tt> and its own <tt>exch.id</tt>.  Islands restarted from checkpoint
+ * rejoin their archipelago, but migrants in their mailboxes at the time of the checkpoint are lost.
+
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><tt><i>base</i>.chatty</tt><br>
+ <font size=-1>boolean, default = true</font></td>
+ <td valign=top> Should we be verbose or silent about our exchanges?
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.id</tt><br>
+ <font size=-1>String</font></td>
+ <td valign=top> The id of this island, one of the ids in the topology (set for you when islands are started by SharedMemoryExchange).
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.archipelago</tt><br>
+ <font size=-1>String (default = <tt>default</tt>)</font></td>
+ <td valign=top> The name of the Archipelago in which the islands meet (set for you when islands are started by SharedMemoryExchange).
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.island.<i>n</i>.select</tt><br>
+ <font size=-1>classname, inherits and != ec.SelectionMethod</font></td>
+ <td valign=top> The selection method used by island #n for picking migrants.  If not set, uses the default parameter below.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.select</tt><br>
+ <font size=-1>classname, inherits and != ec.SelectionMethod</font></td>
+ <td valign=top> Default parameter: the selection method used for picking migrants.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.island.<i>n</i>.select-to-die</tt><br>
+ <font size=-1>classname, inherits and != ec.SelectionMethod</font></td>
+ <td valign=top> The selection method used by island #n for picking individuals to be replaced by immigrants.  If not set, uses the default parameter below.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.select-to-die</tt><br>
+ <font size=-1>classname, inherits and != ec.SelectionMethod (default is ec.select.RandomSelection)</font></td>
+ <td valign=top> Default parameter: the selection method used for picking individuals to be replaced by immigrants.
+ As in IslandExchange, this must <i>not</i> pick individuals based on fitness, since it's called after breeding.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.num-islands</tt><br>
+ <font size=-1>int >= 1</font></td>
+ <td valign=top> The number of islands in the topology.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.island.<i>n</i>.id</tt><br>
+ <font size=-1>String</font></td>
+ <td valign=top> The id of island #n.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.island.<i>n</i>.num-mig</tt><br>
+ <font size=-1>int >= 0</font></td>
+ <td valign=top> The number of islands that island #n sends migrants to.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.island.<i>n</i>.mig.<i>m</i></tt><br>
+ <font size=-1>String</font></td>
+ <td valign=top> The id of the island #m that island #n sends migrants to.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.island.<i>n</i>.size</tt><br>
+ <font size=-1>int >= 1</font></td>
+ <td valign=top> The number of migrants (per subpopulation) that island #n sends to each of its islands.  If not set, uses <tt><i>base</i>.size</tt>.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.island.<i>n</i>.start</tt><br>
+ <font size=-1>int >= 0</font></td>
+ <td valign=top> The generation when island #n begins sending migrants.  If not set, uses <tt><i>base</i>.start</tt>.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.island.<i>n</i>.mod</tt><br>
+ <font size=-1>int >= 1</font></td>
+ <td valign=top> The number of generations that island #n waits between sending migrants.  If not set, uses <tt><i>base</i>.mod</tt>.
+ </td></tr>
+ <tr><td valign=top><tt><i>base</i>.island.<i>n</i>.mailbox-capacity</tt><br>
+ <font size=-1>int >= 1</font></td>
+ <td valign=top> The maximum number of immigrants (per subpopulation) waiting in the mailbox of island #n.  If not set, uses <tt><i>base</i>.mailbox-capacity</tt>.
+ </td></tr>
+ </table>
+
+ <p><b>Parameter bases</b><br>
+ <table>
+ <tr><td valign=top><tt><i>base</i>.island.<i>n</i>.select</tt></td>
+ <td>selection method for island #n's migrants</td></tr>
+ <tr><td valign=top><tt><i>base</i>.island.<i>n</i>.select-to-die</tt></td>
+ <td>selection method for the individuals island #n's immigrants replace</td></tr>
+ </table>
+ */
+
+public class SharedMemoryExchange extends Exchanger
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The id of this island */
+    public static final String P_OWN_ID = IslandExchange.P_OWN_ID;
+
+    /** The name of the archipelago */
+    public static final String P_ARCHIPELAGO = "archipelago";
+
+    /** The default name of the archipelago */
+    public static final String V_DEFAULT_ARCHIPELAGO = "default";
+
+    /** The selection method for sending individuals to other islands */
+    public static final String P_SELECT_METHOD = IslandExchange.P_SELECT_METHOD;
+
+    /** The selection method for deciding individuals to be replaced by immigrants */
+    public static final String P_SELECT_TO_DIE_METHOD = IslandExchange.P_SELECT_TO_DIE_METHOD;
+
+    /** Whether or not we're chatty */
+    public static final String P_CHATTY = IslandExchange.P_CHATTY;
+
+    // The topology parameters are the same as IslandExchange's server's
+
+    /** The number of islands */
+    public static final String P_NUM_ISLANDS = "num-islands";
+
+    /** The parameter for the island's information */
+    public static final String P_ISLAND = "island";
+
+    /** The id */
+    public static final String P_ID = "id";
+
+    /** The number of islands where immigrants will be sent */
+    public static final String P_NUM_MIGRATING_COUNTRIES = "num-mig";
+
+    /** the parameter for migrating islands' ids */
+    public static final String P_MIGRATING_ISLAND = "mig";
+
+    /** The size of the mailbox (for each of the subpopulations) */
+    public static final String P_MAILBOX_CAPACITY = "mailbox-capacity";
+
+    /** The parameter for the modulo (how many generations should pass between consecutive sendings of individuals */
+    public static final String P_MODULO = "mod";
+
+    /** The number of immigrants to be sent */
+    public static final String P_SIZE = "size";
+
+    /** How many generations to pass at the beginning of the evolution before the first emigration from the current island */
+    public static final String P_OFFSET = "start";
+
+    /** Stands for the index of an island whose id isn't in the topology */
+    public static final int ISLAND_INDEX_LOOKUP_FAILED = -1;
+
+    /** My parameter base */
+    public Parameter base;
+
+    public boolean chatty;
+
+    /** The name of the archipelago */
+    public String archipelagoName;
+
+    /** The id of this island */
+    public String ownId;
+
+    /** The number of this island in the topology */
+    public int island;
+
+    /** The selection method for picking migrants */
+    public SelectionMethod immigrantsSelectionMethod;
+
+    /** The selection method for picking individuals to be replaced by immigrants */
+    public SelectionMethod indsToDieSelectionMethod;
+
+    /** How many generations we wait between sending migrants */
+    public int modulo;
+
+    /** The generation when we begin sending migrants */
+    public int offset;
+
+    /** How many migrants (per subpopulation) we send to each island */
+    public int size;
+
+    /** How many immigrants (per subpopulation) our mailbox holds */
+    public int mailboxCapacity;
+
+    /** The ids of the islands we send migrants to */
+    public String[] outgoingIds;
+
+    // the mailbox capacities of the islands we send migrants to
+    int[] outgoingCapacities;
+
+    int numSubpops;
+
+    // these are rebuilt by reinitializeContacts(...) after a checkpoint
+    transient Archipelago archipelago;
+    transient Mailbox mailbox;
+    transient Mailbox[] outgoing;
+
+    boolean reportedFound;
+
+    public void setup( final EvolutionState state, final Parameter _base )
+        {
+        base = _base;
+        Parameter p;
+
+        chatty = state.parameters.getBoolean(base.push(P_CHATTY), null, true);
+        archipelagoName = state.parameters.getStringWithDefault(base.push(P_ARCHIPELAGO), null, V_DEFAULT_ARCHIPELAGO);
+        numSubpops = state.parameters.getInt( new Parameter( Initializer.P_POP ).push( Population.P_SIZE ), null, 1 );
+
+        p = base.push( P_OWN_ID );
+        ownId = state.parameters.getStringWithDefault( p, null, "" );
+        if( ownId.equals("") )
+            state.output.fatal( "Could not get the Id of the island.", p );
+
+        p = base.push( P_NUM_ISLANDS );
+        int numIslands = state.parameters.getInt( p, null, 1 );
+        if( numIslands == 0 )
+            state.output.fatal( "The number of islands must be >0.", p );
+
+        island = islandIndex( state, ownId );
+        if( island == ISLAND_INDEX_LOOKUP_FAILED )
+            state.output.fatal( "Island " + ownId + " is not in the topology.", p );
+        Parameter localBase = base.push( P_ISLAND ).push( "" + island );
+
+        // setup the selection methods
+        p = localBase.push( P_SELECT_METHOD );
+        immigrantsSelectionMethod = (SelectionMethod)
+            state.parameters.getInstanceForParameter( p, base.push( P_SELECT_METHOD ), ec.SelectionMethod.class );
+        immigrantsSelectionMethod.setup( state, p );
+
+        p = localBase.push( P_SELECT_TO_DIE_METHOD );
+        if( state.parameters.exists( p, base.push( P_SELECT_TO_DIE_METHOD ) ) )
+            indsToDieSelectionMethod = (SelectionMethod)
+                state.parameters.getInstanceForParameter( p, base.push( P_SELECT_TO_DIE_METHOD ), ec.SelectionMethod.class );
+        else // use RandomSelection
+            indsToDieSelectionMethod = new ec.select.RandomSelection();
+        indsToDieSelectionMethod.setup( state, p );
+
+        p = localBase.push( P_MODULO );
+        modulo = state.parameters.getInt( p, base.push( P_MODULO ), 1 );
+        if( modulo == 0 )
+            state.output.fatal( "Parameter not found, or it has an incorrect value.", p, base.push( P_MODULO ) );
+
+        p = localBase.push( P_OFFSET );
+        offset = state.parameters.getInt( p, base.push( P_OFFSET ), 0 );
+        if( offset == -1 )
+            state.output.fatal( "Parameter not found, or it has an incorrect value.", p, base.push( P_OFFSET ) );
+
+        p = localBase.push( P_SIZE );
+        size = state.parameters.getInt( p, base.push( P_SIZE ), 1 );
+        if( size == 0 )
+            state.output.fatal( "Parameter not found, or it has an incorrect value.", p, base.push( P_SIZE ) );
+
+        mailboxCapacity = mailboxCapacity( state, island );
+
+        // the islands we send to, and how much their mailboxes hold
+        p = localBase.push( P_NUM_MIGRATING_COUNTRIES );
+        int numOutgoing = state.parameters.getInt( p, null, 0 );
+        if( numOutgoing == -1 )
+            state.output.fatal( "Parameter not found, or it has an incorrect value.", p );
+        outgoingIds = new String[ numOutgoing ];
+        outgoingCapacities = new int[ numOutgoing ];
+        for( int x = 0 ; x < numOutgoing ; x++ )
+            {
+            p = localBase.push( P_MIGRATING_ISLAND ).push( "" + x );
+            outgoingIds[x] = state.parameters.getStringWithDefault( p, null, "" );
+            int dest = islandIndex( state, outgoingIds[x] );
+            if( dest == ISLAND_INDEX_LOOKUP_FAILED )
+                state.output.fatal( "Unknown island " + outgoingIds[x] + ".", p );
+            outgoingCapacities[x] = mailboxCapacity( state, dest );
+            }
+        }
+
+    // the number of the island with the given id in the topology, or ISLAND_INDEX_LOOKUP_FAILED
+    int islandIndex( EvolutionState state, String id )
+        {
+        int numIslands = state.parameters.getInt( base.push( P_NUM_ISLANDS ), null, 1 );
+        for( int x = 0 ; x < numIslands ; x++ )
+            if( id.equals( state.parameters.getString( base.push( P_ISLAND ).push( "" + x ).push( P_ID ), null ) ) )
+                return x;
+        return ISLAND_INDEX_LOOKUP_FAILED;
+        }
+
+    int mailboxCapacity( EvolutionState state, int x )
+        {
+        Parameter p = base.push( P_ISLAND ).push( "" + x ).push( P_MAILBOX_CAPACITY );
+        int capacity = state.parameters.getInt( p, base.push( P_MAILBOX_CAPACITY ), 1 );
+        if( capacity == 0 )
+            state.output.fatal( "Parameter not found, or it has an incorrect value.", p, base.push( P_MAILBOX_CAPACITY ) );
+        return capacity;
+        }
+
+    /** Joins the archipelago, and finds the mailboxes of the islands we send migrants to. */
+    public void initializeContacts( EvolutionState state )
+        {
+        archipelago = getArchipelago( archipelagoName );
+        mailbox = archipelago.getMailbox( ownId, numSubpops, mailboxCapacity );
+        outgoing = new Mailbox[ outgoingIds.length ];
+        for( int x = 0 ; x < outgoingIds.length ; x++ )
+            outgoing[x] = archipelago.getMailbox( outgoingIds[x], numSubpops, outgoingCapacities[x] );
+        }
+
+    /** Rejoins the archipelago after restarting from a checkpoint. */
+    public void reinitializeContacts( EvolutionState state )
+        {
+        initializeContacts( state );
+        }
+
+    public Population preBreedingExchangePopulation( EvolutionState state )
+        {
+        if( ( state.generation >= offset ) &&
+            ( ( modulo == 0 ) || ( ( ( state.generation - offset ) % modulo ) == 0 ) ) )
+            {
+            for( int x = 0 ; x < outgoing.length ; x++ )
+                {
+                if (chatty) state.output.message( "Sending " + size + " immigrants to island " + outgoingIds[x] );
+                for( int subpop = 0 ; subpop < state.population.subpops.size() ; subpop++ )
+                    {
+                    immigrantsSelectionMethod.prepareToProduce( state, subpop, 0 );
+                    for( int y = 0 ; y < size ; y++ )
+                        {
+                        int index = immigrantsSelectionMethod.produce( subpop, state, 0 );
+                        outgoing[x].offer( subpop, process( state, 0, outgoingIds[x], subpop,
+                                (Individual)( state.population.subpops.get(subpop).individuals.get(index).clone() ) ) );
+                        }
+                    immigrantsSelectionMethod.finishProducing( state, subpop, 0 );
+                    }
+                }
+            }
+        return state.population;
+        }
+
+    public Population postBreedingExchangePopulation( EvolutionState state )
+        {
+        for( int x = 0 ; x < state.population.subpops.size() ; x++ )
+            {
+            ArrayList<Individual> immigrants = mailbox.drain( x );
+            if( immigrants.size() == 0 ) continue;
+
+            Subpopulation subpop = state.population.subpops.get(x);
+            int len = subpop.individuals.size();
+            // double check that we won't go into an infinite loop!
+            if ( immigrants.size() >= len )
+                state.output.fatal("Number of immigrants (" + immigrants.size() +
+                    ") is larger than subpopulation #" + x + "'s size (" +
+                    len + ").  This would cause an infinite loop in the selection-to-die procedure.");
+
+            if (chatty) state.output.message( "Immigrating " +  immigrants.size() + " individuals from mailbox for subpopulation " + x );
+
+            boolean[] selected = new boolean[ len ];
+            int[] indices = new int[ immigrants.size() ];
+            indsToDieSelectionMethod.prepareToProduce( state, x, 0 );
+            for( int i = 0 ; i < indices.length ; i++ )
+                {
+                do {
+                    indices[i] = indsToDieSelectionMethod.produce( x, state, 0 );
+                    } while( selected[indices[i]] );
+                selected[indices[i]] = true;
+                }
+            indsToDieSelectionMethod.finishProducing( state, x, 0 );
+
+            for( int y = 0 ; y < indices.length ; y++ )
+                {
+                Individual ind = immigrants.get(y);
+                // the immigrant belongs to our species now, and it's not evaluated on this island
+                ind.species = subpop.species;
+                ind.evaluated = false;
+                subpop.individuals.set( indices[y], ind );
+                }
+            }
+        return state.population;
+        }
+
+    /** Returns a message, asking us to quit, if another island has found the ideal individual. */
+    public String runComplete( EvolutionState state )
+        {
+        String found = archipelago.getFound();
+        if( found == null || found.equals( ownId ) )
+            return null;
+        if( state.quitOnRunComplete )
+            return "Exit: Island " + found + " found the perfect individual.";
+        if( !reportedFound )
+            state.output.message( "Island " + found + " found the perfect individual." );
+        reportedFound = true;
+        return null;
+        }
+
+    /** Tells the other islands if we found the ideal individual. */
+    public void closeContacts( EvolutionState state, int result )
+        {
+        if( result == EvolutionState.R_SUCCESS )
+            archipelago.setFound( ownId );
+        if (chatty) state.output.message( "Island " + ownId + " received " + mailbox.getReceived() +
+            " immigrants, of which " + mailbox.getDropped() + " were dropped because the mailbox was full." );
+        }
+
+
+
+    static final ConcurrentHashMap<String, Archipelago> archipelagos = new ConcurrentHashMap<String, Archipelago>();
+
+    /** Returns the archipelago with the given name, creating it if there is none. */
+    public static Archipelago getArchipelago( String name )
+        {
+        Archipelago archipelago = archipelagos.get( name );
+        if( archipelago == null )
+            {
+            archipelagos.putIfAbsent( name, new Archipelago( name ) );
+            archipelago = archipelagos.get( name );
+            }
+        return archipelago;
+        }
+
+    /** Forgets the archipelago with the given name, so that islands which join an archipelago of
+        that name later on will find a fresh one. */
+    public static void removeArchipelago( String name )
+        {
+        archipelagos.remove( name );
+        }
+
+    /** The place where islands in the same process meet: it holds their mailboxes, and remembers
+        whether one of them has found the ideal individual. */
+    public static class Archipelago
+        {
+        final String name;
+        final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<String, Mailbox>();
+        final AtomicReference<String> found = new AtomicReference<String>();
+
+        public Archipelago( String name )
+            {
+            this.name = name;
+            }
+
+        public String getName() { return name; }
+
+        /** Returns the mailbox of the given island, creating it if there is none.  The mailbox may be created
+            by an island sending to it before the island itself has joined. */
+        public Mailbox getMailbox( String id, int numSubpops, int capacity )
+            {
+            Mailbox mailbox = mailboxes.get( id );
+            if( mailbox == null )
+                {
+                mailboxes.putIfAbsent( id, new Mailbox( id, numSubpops, capacity ) );
+                mailbox = mailboxes.get( id );
+                }
+            return mailbox;
+            }
+
+        /** Returns the id of the first island to have found the ideal individual, or null. */
+        public String getFound() { return found.get(); }
+
+        /** Records that the given island has found the ideal individual, unless another already had. */
+        public void setFound( String id ) { found.compareAndSet( null, id ); }
+        }
+
+    /** An island's mailbox: a lock-free queue of immigrants per subpopulation, which keeps only
+        the most recent <i>capacity</i> immigrants. */
+    public static class Mailbox
+        {
+        final String id;
+        final int capacity;
+        final ConcurrentLinkedQueue<Individual>[] queues;
+        final AtomicInteger[] counts;
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+
+        @SuppressWarnings("unchecked")
+        public Mailbox( String id, int numSubpops, int capacity )
+            {
+            this.id = id;
+            this.capacity = capacity;
+            queues = (ConcurrentLinkedQueue<Individual>[])(new ConcurrentLinkedQueue<?>[ numSubpops ]);
+            counts = new AtomicInteger[ numSubpops ];
+            for( int i = 0 ; i < numSubpops ; i++ )
+                {
+                queues[i] = new ConcurrentLinkedQueue<Individual>();
+                counts[i] = new AtomicInteger();
+                }
+            }
+
+        /** Adds an immigrant for the given subpopulation, dropping the oldest if the mailbox is full. */
+        public void offer( int subpop, Individual ind )
+            {
+            queues[subpop].offer( ind );
+            received.incrementAndGet();
+            if( counts[subpop].incrementAndGet() > capacity && queues[subpop].poll() != null )
+                {
+                counts[subpop].decrementAndGet();
+                dropped.incrementAndGet();
+                }
+            }
+
+        /** Removes and returns the immigrants for the given subpopulation, at most <i>capacity</i> of them. */
+        public ArrayList<Individual> drain( int subpop )
+            {
+            ArrayList<Individual> inds = new ArrayList<Individual>();
+            Individual ind;
+            while( ( ind = queues[subpop].poll() ) != null )
+                {
+                counts[subpop].decrementAndGet();
+                inds.add( ind );
+                }
+            // senders may briefly overfill the queue between offering and dropping
+            if( inds.size() > capacity )
+                {
+                dropped.addAndGet( inds.size() - capacity );
+                inds = new ArrayList<Individual>( inds.subList( inds.size() - capacity, inds.size() ) );
+                }
+            return inds;
+            }
+
+        public String getId() { return id; }
+
+        public int getCapacity() { return capacity; }
+
+        /** Returns the number of immigrants which have arrived so far. */
+        public long getReceived() { return received.get(); }
+
+        /** Returns the number of immigrants dropped so far because the mailbox was full. */
+        public long getDropped() { return dropped.get(); }
+        }
+
+
+
+    static final AtomicInteger archipelagoCount = new AtomicInteger();
+
+    /** Sets up an EvolutionState for each island in the topology given by the runtime arguments, runs them
+        all at once in their own threads, and returns them when they're all done. */
+    public static EvolutionState[] runIslands( String[] args )
+        {
+        ParameterDatabase parameters = Evolve.loadParameterDatabase( args );
+        Parameter base = new Parameter( EvolutionState.P_EXCHANGER );
+        int numIslands = parameters.getInt( base.push( P_NUM_ISLANDS ), null, 1 );
+        if( numIslands < 1 )
+            Output.initialError( "The number of islands must be >0.", base.push( P_NUM_ISLANDS ), true );
+
+        String name = "islands." + archipelagoCount.getAndIncrement();
+        final EvolutionState[] states = new EvolutionState[ numIslands ];
+        for( int x = 0 ; x < numIslands ; x++ )
+            {
+            if( parameters == null )
+                parameters = Evolve.loadParameterDatabase( args );
+            Parameter p = base.push( P_ISLAND ).push( "" + x ).push( P_ID );
+            String id = parameters.getString( p, null );
+            if( id == null )
+                Output.initialError( "Parameter not found.", p, true );
+            parameters.set( base.push( P_OWN_ID ), id );
+            parameters.set( base.push( P_ARCHIPELAGO ), name );
+
+            states[x] = Evolve.initialize( parameters, x );            // pass in the island number as the seed increment
+            states[x].output.systemMessage( "Island: " + id );
+            states[x].runtimeArguments = args;
+            states[x].output.setFilePrefix( id + "." );
+            states[x].checkpointPrefix = id + "." + states[x].checkpointPrefix;
+            parameters = null;  // so each island gets a fresh database
+            }
+
+        Thread[] threads = new Thread[ numIslands ];
+        for( int x = 0 ; x < numIslands ; x++ )
+            {
+            final EvolutionState state = states[x];
+            threads[x] = new Thread( new Runnable()
+                {
+                public void run()
+                    {
+                    state.run( EvolutionState.C_STARTED_FRESH );
+                    Evolve.cleanup( state );
+                    }
+                }, "ECJ Island " + x );
+            threads[x].start();
+            }
+        for( int x = 0 ; x < numIslands ; x++ )
+            {
+            boolean joined = false;
+            while( !joined )
+                {
+                try { threads[x].join(); joined = true; }
+                catch( InterruptedException e ) { }
+                }
+            }
+        removeArchipelago( name );
+        return states;
+        }
+
+    public static void main( String[] args )
+        {
+        Evolve.checkForHelp( args, "ec.exchange.SharedMemoryExchange", false );
+        runIslands( args );
+        System.exit(0);
+        }
+    }
@@ -0,0 +1,45 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.gp;
+
+/**
+ * GPBatchEvaluable is implemented by GPNodes which can compute their value on
+ * every fitness case at once, rather than on one fitness case per call to eval(...).
+ * Like GPCompilable, it is meant for nodes which compute a single double from an
+ * array of double-valued variables, as is the case in symbolic regression.
+ *
+ * <p>A GPBatchEvaluator evaluates a tree bottom-up: by the time evalBatch(...)
+ * is called, each of the node's children has already been evaluated on all
+ * fitness cases, and <tt>children[i][c]</tt> holds the value of child <i>i</i>
+ * on fitness case <i>c</i>.  The node must then fill <tt>result[0 ... length-1]</tt>.
+ * Variables are stored by column, so <tt>variables[v][c]</tt> is variable <i>v</i>
+ * on fitness case <i>c</i>; as in GPCompiledTree, a variable beyond the end of
+ * <tt>variables</tt> is 0 (see GPBatchEvaluator.variable(...)).  For example, a
+ * two-child Add node would do:
+ *
+ * <pre><tt>
+ * double[] a = children[0];
+ * double[] b = children[1];
+ * for(int i = 0; i < length; i++)
+ *     result[i] = a[i] + b[i];
+ * </tt></pre>
+ *
+ * <p>Simple loops like this over primitive arrays are the sort of code which
+ * the JIT compiler can unroll and turn into SIMD instructions.  Arrays may be longer
+ * than <tt>length</tt>: don't read or write beyond it.
+ *
+ * <p>Nodes which do not implement GPBatchEvaluable (ADFs, for example) are
+ * evaluated one fitness case at a time by calling back into the ordinary eval(...)
+ * method for the subtree rooted at that node.
+ */
+
+public interface GPBatchEvaluable
+    {
+    /** Computes this node on fitness cases 0 ... length-1 from the values of its children. */
+    public void evalBatch(double[][] variables, double[][] children, double[] result, int length);
+    }
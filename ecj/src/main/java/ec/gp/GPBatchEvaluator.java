@@ -0,0 +1,153 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.gp;
+import java.util.*;
+
+/**
+ * GPBatchEvaluator evaluates a GP tree on all fitness cases at once, one node
+ * at a time, rather than traversing the whole tree once per fitness case.  Each
+ * GPBatchEvaluable node is called once per tree evaluation and processes an entire
+ * array of fitness cases, which removes nearly all of the per-case method dispatch
+ * of the ordinary interpreter.  Subtrees whose roots are not GPBatchEvaluable are
+ * handed, one fitness case at a time, to a GPCompiledTree.Interpreter, just as
+ * GPCompiler does for subtrees it cannot compile.
+ *
+ * <p>The evaluator keeps a stack of scratch arrays, one per pending child value,
+ * which grows to the size it needs and is then reused from tree to tree, so
+ * evaluation doesn't allocate.  As a result a GPBatchEvaluator is not thread-safe:
+ * GPProblem gives each of its clones its own copy.
+ */
+
+public class GPBatchEvaluator implements Cloneable
+    {
+    // scratch arrays.  buffers[0] holds the result of the root.
+    double[][] buffers = new double[0][];
+    // slices[i][n] is { buffers[i], ..., buffers[i + n - 1] }, built as needed
+    double[][][][] slices = new double[0][][][];
+    // the length of every array in buffers
+    int capacity;
+    // the next free array in buffers
+    int top;
+    // a single fitness case, for interpreted subtrees
+    double[] row = new double[0];
+
+    public Object clone()
+        {
+        try
+            {
+            GPBatchEvaluator other = (GPBatchEvaluator)(super.clone());
+            // scratch space is never shared
+            other.buffers = new double[0][];
+            other.slices = new double[0][][][];
+            other.capacity = 0;
+            other.row = new double[0];
+            return other;
+            }
+        catch (CloneNotSupportedException e) { throw new InternalError(); } // never happens
+        }
+
+    /** Evaluates the tree rooted at <i>root</i> on fitness cases 0 ... length-1, where
+        <tt>variables[v][c]</tt> is variable <i>v</i> in fitness case <i>c</i>.  Returns an array
+        whose first <i>length</i> values are the results: this array belongs to the
+        GPBatchEvaluator and will be overwritten by the next call.  The interpreter
+        is only used if the tree contains nodes which are not GPBatchEvaluable, and may
+        be null if it does not. */
+    public double[] evaluate(GPNode root, double[][] variables, int length, GPCompiledTree.Interpreter interpreter)
+        {
+        if (length > capacity)
+            {
+            // throw everything away and start over
+            buffers = new double[buffers.length][];
+            slices = new double[0][][][];
+            capacity = length;
+            }
+        top = 1;
+        eval(root, variables, buffer(0), length, interpreter);
+        return buffers[0];
+        }
+
+    void eval(GPNode node, double[][] variables, double[] result, int length, GPCompiledTree.Interpreter interpreter)
+        {
+        if (!(node instanceof GPBatchEvaluable))
+            {
+            interpret(node, variables, result, length, interpreter);
+            return;
+            }
+
+        GPNode[] children = node.children;
+        int first = top;
+        top += children.length;
+        for(int i = 0; i < children.length; i++)
+            eval(children[i], variables, buffer(first + i), length, interpreter);
+        ((GPBatchEvaluable)node).evalBatch(variables, slice(first, children.length), result, length);
+        top = first;
+        }
+
+    void interpret(GPNode node, double[][] variables, double[] result, int length, GPCompiledTree.Interpreter interpreter)
+        {
+        if (row.length != variables.length)
+            row = new double[variables.length];
+        for(int c = 0; c < length; c++)
+            {
+            for(int v = 0; v < row.length; v++)
+                row[v] = variables[v][c];
+            result[c] = interpreter.interpret(node, row);
+            }
+        }
+
+    // returns scratch array i, allocating it if need be
+    double[] buffer(int i)
+        {
+        if (i >= buffers.length)
+            buffers = Arrays.copyOf(buffers, Math.max(i + 1, buffers.length * 2));
+        if (buffers[i] == null)
+            buffers[i] = new double[capacity];
+        return buffers[i];
+        }
+
+    // returns { buffers[first], ..., buffers[first + n - 1] }, which must already exist
+    double[][] slice(int first, int n)
+        {
+        if (first >= slices.length)
+            slices = Arrays.copyOf(slices, Math.max(first + 1, slices.length * 2));
+        if (slices[first] == null || slices[first].length <= n)
+            slices[first] = Arrays.copyOf(slices[first] == null ? new double[0][][] : slices[first], n + 1);
+        double[][] s = slices[first][n];
+        if (s == null)
+            {
+            s = new double[n][];
+            for(int i = 0; i < n; i++)
+                s[i] = buffers[first + i];
+            slices[first][n] = s;
+            }
+        return s;
+        }
+
+    /** Converts fitness cases stored by row, where <tt>rows[c][v]</tt> is variable <i>v</i> in
+        fitness case <i>c</i>, into the column form used by GPBatchEvaluable.  All fitness
+        cases are assumed to have as many variables as the first. */
+    public static double[][] columns(double[][] rows)
+        {
+        int numVariables = (rows.length == 0 ? 0 : rows[0].length);
+        double[][] columns = new double[numVariables][rows.length];
+        for(int c = 0; c < rows.length; c++)
+            for(int v = 0; v < numVariables; v++)
+                columns[v][c] = rows[c][v];
+        return columns;
+        }
+
+    /** Sets <tt>result[0 ... length-1]</tt> to variable <i>index</i>, or to 0 if there
+        is no such variable.  A convenience method for GPBatchEvaluable terminals. */
+    public static void variable(double[][] variables, int index, double[] result, int length)
+        {
+        if (index < variables.length)
+            System.arraycopy(variables[index], 0, result, 0, length);
+        else
+            Arrays.fill(result, 0, length, 0.0);
+        }
+    }
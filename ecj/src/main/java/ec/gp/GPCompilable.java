@@ -0,0 +1,32 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.gp;
+
+/**
+ * GPCompilable is implemented by GPNodes which can be translated by a GPCompiler
+ * into Java bytecode.  Compilable trees compute a single double from an array of
+ * double-valued variables, as is the case in symbolic regression.
+ *
+ * <p>By the time compile(...) is called, the GPCompiler has already emitted code
+ * for each of the node's children, in order, so that their results sit on the
+ * operand stack with the last child's result on top.  The node must emit
+ * code which consumes all of these values and leaves exactly one value of its own,
+ * using the methods in GPCompiler.Emitter.  For example, a two-child Add node would
+ * simply call <tt>emitter.add()</tt>, and a terminal which returns variable 2 would
+ * call <tt>emitter.variable(2)</tt>.
+ *
+ * <p>Nodes which do not implement GPCompilable (ADFs, for example) are not compiled:
+ * instead the compiled code calls back into the ordinary eval(...) method for the
+ * subtree rooted at that node.
+ */
+
+public interface GPCompilable
+    {
+    /** Emits code which computes this node from the values of its children. */
+    public void compile(GPCompiler.Emitter emitter);
+    }
@@ -0,0 +1,48 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.gp;
+
+/**
+ * GPCompiledTree is the superclass of the classes generated by GPCompiler.  Each
+ * generated class overrides eval(...) with straight-line bytecode computing its
+ * tree for a given array of variables, so the JIT can inline the whole expression.
+ *
+ * <p>Subtrees whose roots were not GPCompilable are kept in the <tt>uncompiled</tt>
+ * array.  When the generated code reaches one of them, it asks the provided
+ * Interpreter to evaluate it the ordinary way.
+ */
+
+public abstract class GPCompiledTree
+    {
+    /** Subtrees which are interpreted rather than compiled. */
+    public GPNode[] uncompiled;
+
+    /** Evaluates the tree on the given variables.  The interpreter is
+        only used if the tree has uncompiled subtrees. */
+    public abstract double eval(double[] variables, Interpreter interpreter);
+
+    /** Called by generated code to evaluate uncompiled subtree number <i>index</i>. */
+    public final double interpret(int index, double[] variables, Interpreter interpreter)
+        {
+        return interpreter.interpret(uncompiled[index], variables);
+        }
+
+    /** Called by generated code to load a variable.  As is the case for the
+        terminals in ec.app.regression, variables beyond the end of the array are 0. */
+    public static double variable(double[] variables, int index)
+        {
+        return (index < variables.length ? variables[index] : 0.0);
+        }
+
+    /** Evaluates uncompiled subtrees, typically by setting up the Problem
+        with the variables and calling eval(...) on the subtree in the usual way. */
+    public interface Interpreter
+        {
+        public double interpret(GPNode node, double[] variables);
+        }
+    }
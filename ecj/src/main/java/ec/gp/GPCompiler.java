@@ -0,0 +1,524 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.gp;
+import ec.*;
+import ec.util.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * GPCompiler translates GP trees built from GPCompilable nodes into generated Java
+ * classes (subclasses of GPCompiledTree), so that evaluating a tree on many fitness
+ * cases costs one call to straight-line code with unboxed locals rather than one
+ * virtual eval(...) call per node per fitness case.  Subtrees rooted at nodes which
+ * are not GPCompilable are interpreted instead, via GPCompiledTree.Interpreter.
+ *
+ * <p>Compiled trees are kept in a bounded least-recently-used cache, keyed by
+ * rootedTreeHashCode() and compared with rootedTreeEquals(...), so the many
+ * duplicate trees in a typical GP population (and trees which survive from generation
+ * to generation) are only compiled once.  The cache is shared by all clones of the
+ * Problem, and so by all evaluation threads.  It is not written out to checkpoints.
+ *
+ * <p>Each tree is loaded by its own small ClassLoader so that its class can be
+ * garbage collected once it has been evicted from the cache.  Trees whose code
+ * would exceed <tt>MAX_CODE_LENGTH</tt> bytes are not compiled at all, since HotSpot
+ * will not JIT-compile such large methods, and compile(...) returns null for them, as it
+ * does for trees whose root is not GPCompilable.  Callers should then interpret the tree.
+ *
+ * <p>Compilation is not free: generating and loading a class costs far more than
+ * interpreting a tree once, and HotSpot only JIT-compiles a generated class after it has
+ * been called many times.  So compilation pays off when each tree is evaluated on many
+ * fitness cases (hundreds or more), and may well be slower than interpretation on
+ * problems with just a few dozen.  ec.app.regression.CompilerBenchmark measures this.
+ *
+ * <p>Usually you don't make a GPCompiler yourself: GPProblem makes one if its
+ * <tt>compile</tt> parameter is true, and GP problems which support compilation
+ * (such as ec.app.regression.Regression and ec.app.regression.Benchmarks) use it.
+ *
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><i>base</i><tt>.cache-size</tt><br>
+ <font size=-1>int &gt;= 1 (default = 10000)</font></td>
+ <td valign=top>(the maximum number of compiled trees to hold in the cache)</td></tr>
+ </table>
+*/
+
+public class GPCompiler implements Setup
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final String P_CACHE_SIZE = "cache-size";
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** Trees whose eval(...) bytecode would be longer than this are not compiled.
+        This is HotSpot's default HugeMethodLimit. */
+    public static final int MAX_CODE_LENGTH = 8000;
+
+    /** The maximum number of compiled trees held in the cache. */
+    public int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /** The number of cache hits and misses so far. */
+    public long hits;
+    public long misses;
+
+    // Built lazily, and not checkpointed: generated classes aren't serializable
+    transient LinkedHashMap<TreeKey, Object> cache;
+
+    // Stored in the cache for trees which aren't compilable, so we don't try again
+    static final Object NOT_COMPILABLE = new Object();
+
+    static int generatedClasses = 0;
+
+    public void setup(final EvolutionState state, final Parameter base)
+        {
+        cacheSize = state.parameters.getIntWithDefault(base.push(P_CACHE_SIZE), null, DEFAULT_CACHE_SIZE);
+        if (cacheSize < 1)
+            state.output.fatal("The GP compiler's cache size must be an integer >= 1.", base.push(P_CACHE_SIZE));
+        }
+
+    /** Returns a compiled version of the tree rooted at the given node, or null if the root
+        is not GPCompilable or the tree is too large to compile.  The result is cached. */
+    public GPCompiledTree compile(final EvolutionState state, final GPNode root)
+        {
+        TreeKey key = new TreeKey(root);
+        synchronized(this)
+            {
+            if (cache == null) cache = buildCache();
+            Object result = cache.get(key);
+            if (result != null)
+                {
+                hits++;
+                return (result == NOT_COMPILABLE ? null : (GPCompiledTree)result);
+                }
+            misses++;
+            }
+
+        // Compile outside the lock.  Two threads may occasionally compile
+        // the same tree; that's harmless.  We compile a copy of the tree, which we keep
+        // as the key, because the original will be modified by breeding later on.
+        key = new TreeKey((GPNode)(root.clone()));
+        GPCompiledTree compiled = generate(state, key.root);
+        synchronized(this)
+            {
+            cache.put(key, compiled == null ? NOT_COMPILABLE : compiled);
+            }
+        return compiled;
+        }
+
+    /** Empties the cache. */
+    public synchronized void clear()
+        {
+        cache = null;
+        }
+
+    LinkedHashMap<TreeKey, Object> buildCache()
+        {
+        return new LinkedHashMap<TreeKey, Object>(16, 0.75f, true)  // access order, for LRU
+            {
+            protected boolean removeEldestEntry(Map.Entry<TreeKey, Object> eldest)
+                {
+                return size() > cacheSize;
+                }
+            };
+        }
+
+    /** Generates, loads, and instantiates a class for the given tree, or returns null if it can't. */
+    GPCompiledTree generate(final EvolutionState state, final GPNode root)
+        {
+        if (!(root instanceof GPCompilable)) return null;
+
+        Emitter emitter = new Emitter(state);
+        emitter.compileTree(root);
+        if (emitter.code.length() > MAX_CODE_LENGTH) return null;
+        emitter.code.u1(DRETURN);
+
+        String name;
+        synchronized(GPCompiler.class) { name = "ec.gp.GPCompiledTree$Generated" + (generatedClasses++); }
+        byte[] bytes = emitter.buildClass(name.replace('.', '/'));
+
+        try
+            {
+            Class<?> c = new TreeLoader(GPCompiler.class.getClassLoader(), emitter.referenced).define(name, bytes);
+            GPCompiledTree tree = (GPCompiledTree)(c.getDeclaredConstructor().newInstance());
+            tree.uncompiled = emitter.uncompiled.toArray(new GPNode[emitter.uncompiled.size()]);
+            return tree;
+            }
+        catch (Exception e)
+            {
+            state.output.fatal("Could not load the compiled form of the GP tree " + root.makeLispTree() + "\n" + e);
+            return null;  // never happens
+            }
+        catch (LinkageError e)  // most likely a verification error from a badly written compile(...) method
+            {
+            state.output.fatal("Could not load the compiled form of the GP tree " + root.makeLispTree() + "\n" + e);
+            return null;  // never happens
+            }
+        }
+
+
+
+    // Cache key for trees: equal if the trees are rootedTreeEquals(...)
+    static class TreeKey
+        {
+        final GPNode root;
+        final int hash;
+
+        TreeKey(GPNode root) { this.root = root; hash = root.rootedTreeHashCode(); }
+        public int hashCode() { return hash; }
+        public boolean equals(Object other)
+            {
+            if (!(other instanceof TreeKey)) return false;
+            TreeKey k = (TreeKey)other;
+            return k.hash == hash && k.root.rootedTreeEquals(root);
+            }
+        }
+
+    // Loads a single generated class.  Classes named by GPCompilable nodes in invoke(...)
+    // are resolved directly, in case they came from a different ClassLoader than ECJ itself.
+    static class TreeLoader extends ClassLoader
+        {
+        HashMap<String, Class<?>> referenced;
+
+        TreeLoader(ClassLoader parent, HashMap<String, Class<?>> referenced)
+            {
+            super(parent);
+            this.referenced = referenced;
+            }
+
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+            {
+            Class<?> c = referenced.get(name);
+            if (c != null) return c;
+            return super.loadClass(name, resolve);
+            }
+
+        Class<?> define(String name, byte[] bytes)
+            {
+            return defineClass(name, bytes, 0, bytes.length);
+            }
+        }
+
+
+
+    //// BYTECODE GENERATION
+
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int ALOAD_2 = 0x2c;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int DUP2 = 0x5c;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DRETURN = 0xaf;
+    static final int RETURN = 0xb1;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+
+    static final String COMPILED_TREE = "ec/gp/GPCompiledTree";
+    static final String INTERPRETER = "ec/gp/GPCompiledTree$Interpreter";
+    static final String EVAL_DESCRIPTOR = "([DL" + INTERPRETER + ";)D";
+
+    // A growable byte array for writing class files
+    static class Bytes
+        {
+        byte[] b = new byte[256];
+        int len = 0;
+
+        void u1(int v)
+            {
+            if (len == b.length) b = Arrays.copyOf(b, b.length * 2);
+            b[len++] = (byte)v;
+            }
+        void u2(int v) { u1(v >>> 8); u1(v); }
+        void u4(int v) { u2(v >>> 16); u2(v); }
+        void u8(long v) { u4((int)(v >>> 32)); u4((int)v); }
+        void bytes(Bytes other) { for(int i = 0; i < other.len; i++) u1(other.b[i]); }
+        int length() { return len; }
+        }
+
+    /**
+       An Emitter writes the bytecode for a single tree.  GPCompilable nodes call its methods
+       to emit their own computation; see GPCompilable.  Each method notes how it changes the
+       operand stack, where each value is a double.
+    */
+    public static class Emitter
+        {
+        EvolutionState state;
+        Bytes code = new Bytes();
+        Bytes pool = new Bytes();
+        int poolCount = 1;  // constant pool indices start at 1
+        HashMap<String, Integer> poolIndices = new HashMap<String, Integer>();
+        HashMap<String, Class<?>> referenced = new HashMap<String, Class<?>>();
+        ArrayList<GPNode> uncompiled = new ArrayList<GPNode>();
+        int depth = 0;          // in JVM stack slots: a double takes two
+        int maxDepth = 0;
+
+        Emitter(EvolutionState state) { this.state = state; }
+
+        void push(int slots) { depth += slots; if (depth > maxDepth) maxDepth = depth; }
+        void pop(int slots) { depth -= slots; }
+
+        void compileTree(GPNode node)
+            {
+            if (node instanceof GPCompilable)
+                {
+                int before = depth;
+                for(int i = 0; i < node.children.length; i++)
+                    compileTree(node.children[i]);
+                ((GPCompilable)node).compile(this);
+                if (depth != before + 2)
+                    state.output.fatal("GPCompilable node " + node.toStringForError() + " did not consume exactly its " +
+                        node.children.length + " children's values and leave one value of its own.");
+                }
+            else  // interpret it
+                {
+                code.u1(ALOAD_0);
+                push(1);
+                pushInt(uncompiled.size());
+                code.u1(ALOAD_1);
+                push(1);
+                code.u1(ALOAD_2);
+                push(1);
+                code.u1(INVOKEVIRTUAL);
+                code.u2(methodRef(COMPILED_TREE, "interpret", "(I[DL" + INTERPRETER + ";)D"));
+                pop(4);
+                push(2);
+                uncompiled.add(node);
+                }
+            }
+
+        void pushInt(int val)
+            {
+            if (val >= 0 && val <= 5) code.u1(ICONST_0 + val);
+            else if (val >= Byte.MIN_VALUE && val <= Byte.MAX_VALUE) { code.u1(BIPUSH); code.u1(val); }
+            else if (val >= Short.MIN_VALUE && val <= Short.MAX_VALUE) { code.u1(SIPUSH); code.u2(val); }
+            else { code.u1(LDC_W); code.u2(integerConstant(val)); }
+            push(1);
+            }
+
+        /** Pushes the given constant.  ( -- value ) */
+        public void constant(double val)
+            {
+            if (Double.doubleToRawLongBits(val) == 0L) code.u1(DCONST_0);   // but not -0.0
+            else if (val == 1.0) code.u1(DCONST_1);
+            else { code.u1(LDC2_W); code.u2(doubleConstant(val)); }
+            push(2);
+            }
+
+        /** Pushes the given variable, or 0 if there are fewer variables than that.  ( -- value ) */
+        public void variable(int index)
+            {
+            code.u1(ALOAD_1);
+            push(1);
+            pushInt(index);
+            code.u1(INVOKESTATIC);
+            code.u2(methodRef(COMPILED_TREE, "variable", "([DI)D"));
+            pop(2);
+            push(2);
+            }
+
+        /** Adds the top two values.  ( a b -- a+b ) */
+        public void add() { code.u1(DADD); pop(2); }
+        /** Subtracts the top value from the one below it.  ( a b -- a-b ) */
+        public void subtract() { code.u1(DSUB); pop(2); }
+        /** Multiplies the top two values.  ( a b -- a*b ) */
+        public void multiply() { code.u1(DMUL); pop(2); }
+        /** Divides the value below the top by the top value, unprotected.  ( a b -- a/b ) */
+        public void divide() { code.u1(DDIV); pop(2); }
+        /** Duplicates the top value.  ( a -- a a ) */
+        public void dup() { code.u1(DUP2); push(2); }
+
+        /** Calls a public static method on the top <i>arity</i> values, which must take
+            <i>arity</i> doubles and return a double.  The deepest value is the first
+            argument.  ( a1 ... an -- method(a1, ..., an) ) */
+        public void invoke(Class<?> cls, String name, int arity)
+            {
+            Class<?>[] args = new Class<?>[arity];
+            StringBuilder desc = new StringBuilder("(");
+            for(int i = 0; i < arity; i++)
+                {
+                args[i] = double.class;
+                desc.append('D');
+                }
+            desc.append(")D");
+
+            try
+                {
+                Method m = cls.getMethod(name, args);
+                if (!Modifier.isStatic(m.getModifiers()) || m.getReturnType() != double.class ||
+                    !Modifier.isPublic(cls.getModifiers()))
+                    state.output.fatal("GPCompiler can only invoke public static methods returning a double, in public classes, not " + m);
+                }
+            catch (NoSuchMethodException e)
+                {
+                state.output.fatal("GPCompiler could not find the method " + name + desc + " in " + cls);
+                }
+
+            referenced.put(cls.getName(), cls);
+            code.u1(INVOKESTATIC);
+            code.u2(methodRef(cls.getName().replace('.', '/'), name, desc.toString()));
+            pop(2 * arity);
+            push(2);
+            }
+
+
+        //// CONSTANT POOL
+
+        int utf8(String s)
+            {
+            String k = "U" + s;
+            Integer i = poolIndices.get(k);
+            if (i != null) return i.intValue();
+            pool.u1(1);
+            byte[] b;
+            try { b = s.getBytes("UTF-8"); }    // good enough: we only write ASCII names
+            catch (java.io.UnsupportedEncodingException e) { throw new InternalError(); }  // never happens
+            pool.u2(b.length);
+            for(int j = 0; j < b.length; j++) pool.u1(b[j]);
+            poolIndices.put(k, Integer.valueOf(poolCount));
+            return poolCount++;
+            }
+
+        int classRef(String internalName)
+            {
+            String k = "C" + internalName;
+            Integer i = poolIndices.get(k);
+            if (i != null) return i.intValue();
+            int n = utf8(internalName);
+            pool.u1(7);
+            pool.u2(n);
+            poolIndices.put(k, Integer.valueOf(poolCount));
+            return poolCount++;
+            }
+
+        int nameAndType(String name, String descriptor)
+            {
+            String k = "N" + name + " " + descriptor;
+            Integer i = poolIndices.get(k);
+            if (i != null) return i.intValue();
+            int n = utf8(name);
+            int d = utf8(descriptor);
+            pool.u1(12);
+            pool.u2(n);
+            pool.u2(d);
+            poolIndices.put(k, Integer.valueOf(poolCount));
+            return poolCount++;
+            }
+
+        int methodRef(String owner, String name, String descriptor)
+            {
+            String k = "M" + owner + " " + name + " " + descriptor;
+            Integer i = poolIndices.get(k);
+            if (i != null) return i.intValue();
+            int c = classRef(owner);
+            int nt = nameAndType(name, descriptor);
+            pool.u1(10);
+            pool.u2(c);
+            pool.u2(nt);
+            poolIndices.put(k, Integer.valueOf(poolCount));
+            return poolCount++;
+            }
+
+        int integerConstant(int val)
+            {
+            String k = "I" + val;
+            Integer i = poolIndices.get(k);
+            if (i != null) return i.intValue();
+            pool.u1(3);
+            pool.u4(val);
+            poolIndices.put(k, Integer.valueOf(poolCount));
+            return poolCount++;
+            }
+
+        int doubleConstant(double val)
+            {
+            long bits = Double.doubleToRawLongBits(val);
+            String k = "D" + bits;
+            Integer i = poolIndices.get(k);
+            if (i != null) return i.intValue();
+            pool.u1(6);
+            pool.u8(bits);
+            poolIndices.put(k, Integer.valueOf(poolCount));
+            int index = poolCount;
+            poolCount += 2;  // doubles take two constant pool entries
+            return index;
+            }
+
+
+        //// CLASS FILE
+
+        byte[] buildClass(String internalName)
+            {
+            int thisClass = classRef(internalName);
+            int superClass = classRef(COMPILED_TREE);
+            int superInit = methodRef(COMPILED_TREE, "<init>", "()V");
+            int codeName = utf8("Code");
+            int initName = utf8("<init>");
+            int initDesc = utf8("()V");
+            int evalName = utf8("eval");
+            int evalDesc = utf8(EVAL_DESCRIPTOR);
+
+            Bytes out = new Bytes();
+            out.u4(0xCAFEBABE);
+            out.u2(0);              // minor version
+            out.u2(49);             // Java 5: there are no branches anyway, so no stack maps needed
+            out.u2(poolCount);
+            out.bytes(pool);
+            out.u2(0x0001 | 0x0010 | 0x0020);  // public final super
+            out.u2(thisClass);
+            out.u2(superClass);
+            out.u2(0);              // interfaces
+            out.u2(0);              // fields
+            out.u2(2);              // methods
+
+            // public <init>() { super(); }
+            out.u2(0x0001);
+            out.u2(initName);
+            out.u2(initDesc);
+            out.u2(1);              // attributes
+            out.u2(codeName);
+            out.u4(2 + 2 + 4 + 5 + 2 + 2);
+            out.u2(1);              // max stack
+            out.u2(1);              // max locals
+            out.u4(5);              // code length
+            out.u1(ALOAD_0);
+            out.u1(INVOKESPECIAL);
+            out.u2(superInit);
+            out.u1(RETURN);
+            out.u2(0);              // exceptions
+            out.u2(0);              // attributes
+
+            // public double eval(double[] variables, Interpreter interpreter) { ... }
+            out.u2(0x0001);
+            out.u2(evalName);
+            out.u2(evalDesc);
+            out.u2(1);              // attributes
+            out.u2(codeName);
+            out.u4(2 + 2 + 4 + code.length() + 2 + 2);
+            out.u2(maxDepth);
+            out.u2(3);              // this, variables, interpreter
+            out.u4(code.length());
+            out.bytes(code);
+            out.u2(0);              // exceptions
+            out.u2(0);              // attributes
+
+            out.u2(0);              // class attributes
+            return Arrays.copyOf(out.b, out.len);
+            }
+        }
+    }
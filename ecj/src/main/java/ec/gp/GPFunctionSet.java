@@ -100,6 +100,10 @@ public class GPFunctionSet implements Clique
         this will be O(n^2).  Obviously, the number of nonterminals at arity slot 0 is all the 
         nonterminals of that type. */
     public GPNode[][][]nonterminalsOverArity;
+
+    /** For each type, a map from the class of each node to its id (see nodeId(...)), or to -1 if more than
+        one node of that type has that class. */
+    public HashMap<Class<?>, Integer>[] idsByClass;
     
     /** Returns the name. */
     public String toString() { return name; }
@@ -199,6 +203,49 @@ public class GPFunctionSet implements Clique
                     if (nonterminals[x][y].children.length >= a )
                         nonterminalsOverArity[x][a][cur_a++] = nonterminals[x][y];
                 }
+
+        // finally, set up the id lookup
+        @SuppressWarnings("unchecked")  // there are no arrays of generic types
+        HashMap<Class<?>, Integer>[] ids = (HashMap<Class<?>, Integer>[])(new HashMap<?, ?>[nodes.length]);
+        idsByClass = ids;
+        for(int x=0;x<nodes.length;x++)
+            {
+            idsByClass[x] = new HashMap<Class<?>, Integer>();
+            int numIds = nonterminals[x].length + terminals[x].length;
+            for(int id = 0; id < numIds; id++)
+                {
+                Class<?> c = nodeForId(x, id).getClass();
+                idsByClass[x].put(c, Integer.valueOf(idsByClass[x].containsKey(c) ? -1 : id));
+                }
+            }
+        }
+
+
+    /** Returns the node's id among the nodes of the given type: its index in nonterminals[type] if it is
+        a nonterminal, else the number of nonterminals plus its index in terminals[type].  The node's prototype
+        is the one which is nodeEquivalentTo(...) it.  Returns -1 if there is no such prototype. */
+    public int nodeId(GPNode node, int type)
+        {
+        // usually there's one prototype of each class
+        Integer id = idsByClass[type].get(node.getClass());
+        if (id != null && id.intValue() >= 0 && nodeForId(type, id.intValue()).nodeEquivalentTo(node))
+            return id.intValue();
+
+        // else look for it
+        GPNode[] gpfi = nonterminals[type];
+        for(int x=0;x<gpfi.length;x++)
+            if (gpfi[x].nodeEquivalentTo(node)) return x;
+        GPNode[] gpfi2 = terminals[type];
+        for(int x=0;x<gpfi2.length;x++)
+            if (gpfi2[x].nodeEquivalentTo(node)) return gpfi.length + x;
+        return -1;
+        }
+
+    /** Returns the prototype with the given id among the nodes of the given type, as described in nodeId(...). */
+    public GPNode nodeForId(int type, int id)
+        {
+        int numNonterminals = nonterminals[type].length;
+        return (id < numNonterminals ? nonterminals[type][id] : terminals[type][id - numNonterminals]);
         }
 
 
@@ -251,6 +251,25 @@ public class GPIndividual extends Individual
             trees[x].readTree(state,dataInput);
         }
 
+    /** Writes each tree with GPTree.writeCompactTree(...). */
+    public void writeCompactGenotype(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        Codec.writeVarInt(dataOutput, trees.length);
+        for(int x=0;x<trees.length;x++)
+            trees[x].writeCompactTree(state,dataOutput);
+        }
+
+    public void readCompactGenotype(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        int treelength = Codec.readVarInt(dataInput);
+        if (trees == null || treelength != trees.length) // wrong size!
+            state.output.fatal("Number of trees differ in GPIndividual when reading from readCompactGenotype(EvolutionState, DataInput).");
+        for(int x=0;x<trees.length;x++)
+            trees[x].readCompactTree(state,dataInput);
+        }
+
     public void parseGenotype(final EvolutionState state,
         final LineNumberReader reader) throws IOException
         {
@@ -1366,6 +1366,50 @@ public abstract class GPNode implements GPNodeParent, Prototype
         return node;
         }
 
+    /** Writes the tree in a compact binary form: each node, in prefix order, is written as its id in the
+        function set (see GPFunctionSet.nodeId(...)), as a variable-length int, followed by writeNode(...).  The number
+        of children isn't written, since the id determines it. */
+    public void writeCompactRootedTree(final EvolutionState state,final GPType expectedType,
+        final GPFunctionSet set, final DataOutput dataOutput) throws IOException
+        {
+        int id = set.nodeId(this, expectedType.type);
+        if (id < 0)  // uh oh
+            state.output.fatal("No node in the function set can be found that is equivalent to the node " + this +
+                " when performing writeCompactRootedTree(EvolutionState, GPType, GPFunctionSet, DataOutput).");
+        Codec.writeVarInt(dataOutput, id);
+        writeNode(state,dataOutput);
+
+        GPInitializer initializer = ((GPInitializer)state.initializer);
+        for(int x=0;x<children.length;x++)
+            children[x].writeCompactRootedTree(state,constraints(initializer).childtypes[x],set,dataOutput);
+        }
+
+
+    /** Reads a tree written by writeCompactRootedTree(...). */
+    public static GPNode readCompactRootedTree(final EvolutionState state,
+        final DataInput dataInput,
+        GPType expectedType,
+        GPFunctionSet set,
+        GPNodeParent parent,
+        int argposition) throws IOException
+        {
+        int id = Codec.readVarInt(dataInput);
+        if (id < 0 || id >= set.nonterminals[expectedType.type].length + set.terminals[expectedType.type].length)
+            throw new IOException("Invalid node id " + id + " for type " + expectedType + " when performing readCompactRootedTree(...)");
+
+        GPNode node = set.nodeForId(expectedType.type, id).lightClone();
+        node.parent = parent;
+        node.argposition = (byte)argposition;
+        node.readNode(state,dataInput);
+
+        // do its children
+        GPInitializer initializer = ((GPInitializer)state.initializer);
+        for(int x=0;x<node.children.length;x++)
+            node.children[x] = readCompactRootedTree(state,dataInput,node.constraints(initializer).childtypes[x],set, node, x);
+
+        return node;
+        }
+
     /** Override this to write any additional node-specific information to dataOutput besides: the number of arguments, 
         the specific node class, the children, and the parent.  The default version of this method does nothing. */
     public void writeNode(final EvolutionState state, final DataOutput dataOutput) throws IOException
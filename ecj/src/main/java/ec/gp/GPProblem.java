@@ -24,6 +24,15 @@ import ec.simple.*;
  * and reallocated.  Be sure to call stack.reset() after each
  * tree evaluation.
  *
+ * <p>If the <tt>compile</tt> parameter is true, the GPProblem also holds a GPCompiler,
+ * which subclasses may use to compile trees made of GPCompilable nodes into bytecode
+ * before evaluating them on many fitness cases.  Not every GPProblem makes use of it.
+ *
+ * <p>Similarly, if the <tt>batch</tt> parameter is true, the GPProblem holds a
+ * GPBatchEvaluator, which subclasses may use to evaluate trees made of GPBatchEvaluable
+ * nodes on all of their fitness cases at once.  Problems which support both generally
+ * prefer the GPBatchEvaluator if both are turned on.
+ *
  <p><b>Parameters</b><br>
  <table>
  <tr><td valign=top><i>base</i><tt>.stack</tt><br>
@@ -32,6 +41,12 @@ import ec.simple.*;
  <tr><td valign=top><i>base</i><tt>.data</tt><br>
  <font size=-1>classname, inherits and != ec.GPData</font></td>
  <td valign=top>(the class for the GPProblem's basic GPData type)</td></tr>
+ <tr><td valign=top><i>base</i><tt>.compile</tt><br>
+ <font size=-1>boolean (default = false)</font></td>
+ <td valign=top>(should trees be compiled, if the problem supports it?)</td></tr>
+ <tr><td valign=top><i>base</i><tt>.batch</tt><br>
+ <font size=-1>boolean (default = false)</font></td>
+ <td valign=top>(should trees be evaluated on all fitness cases at once, if the problem supports it?)</td></tr>
  </table>
 
  <p><b>Default Base</b><br>
@@ -43,6 +58,8 @@ import ec.simple.*;
  <td valign=top>(stack)</td></tr> 
  <tr><td valign=top><i>base</i><tt>.data</tt><br>
  <td valign=top>(data)</td></tr> 
+ <tr><td valign=top><i>base</i><tt>.compile</tt><br>
+ <td valign=top>(compiler)</td></tr> 
  </table>
 
  * @author Sean Luke
@@ -54,6 +71,8 @@ public abstract class GPProblem extends Problem implements SimpleProblemForm
     public final static String P_GPPROBLEM = "problem";
     public final static String P_STACK = "stack";
     public final static String P_DATA = "data";
+    public final static String P_COMPILE = "compile";
+    public final static String P_BATCH = "batch";
 
     /** The GPProblem's stack */
     public ADFStack stack;
@@ -61,6 +80,12 @@ public abstract class GPProblem extends Problem implements SimpleProblemForm
     /** The GPProblem's GPData */
     public GPData input;
 
+    /** The GPProblem's GPCompiler, or null if trees are not to be compiled.  Shared among clones. */
+    public GPCompiler compiler;
+
+    /** The GPProblem's GPBatchEvaluator, or null if trees are not to be evaluated in batches.  Not shared among clones. */
+    public GPBatchEvaluator batch;
+
     /** GPProblem defines a default base so your subclass doesn't
         absolutely have to. */
     public Parameter defaultBase()
@@ -83,6 +108,17 @@ public abstract class GPProblem extends Problem implements SimpleProblemForm
             (state.parameters.getInstanceForParameterEq(
                 p,def.push(P_DATA),GPData.class));
         input.setup(state,p);
+
+        p = base.push(P_COMPILE);
+        if (state.parameters.getBoolean(p, def.push(P_COMPILE), false))
+            {
+            compiler = new GPCompiler();
+            compiler.setup(state, p);
+            }
+
+        p = base.push(P_BATCH);
+        if (state.parameters.getBoolean(p, def.push(P_BATCH), false))
+            batch = new GPBatchEvaluator();
         }
 
     public Object clone()
@@ -94,6 +130,10 @@ public abstract class GPProblem extends Problem implements SimpleProblemForm
         
         // deep-clone the data
         prob.input = (GPData)(input.clone());
+
+        // the batch evaluator has scratch space, so it's not shared either
+        if (batch != null)
+            prob.batch = (GPBatchEvaluator)(batch.clone());
         
         return prob;
         }
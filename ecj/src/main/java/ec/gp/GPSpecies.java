@@ -114,4 +114,17 @@ public class GPSpecies extends Species
         return newind;  
         }
 
+    // Likewise for the compact form
+    public Individual newCompactIndividual(final EvolutionState state,
+        final DataInput dataInput)
+        throws IOException
+        {
+        GPIndividual newind = ((GPIndividual)i_prototype).lightClone();
+        newind.fitness = (Fitness)(f_prototype.clone());
+        newind.evaluated = false;
+        newind.species = this;
+        newind.readCompactIndividual(state,dataInput);
+        return newind;  
+        }
+
     }
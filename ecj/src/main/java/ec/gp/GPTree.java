@@ -392,6 +392,22 @@ public class GPTree implements GPNodeParent, Prototype
         child = GPNode.readRootedTree(state,dataInput,constraints(initializer).treetype, constraints(initializer).functionset, this,0);
         }
 
+    /** Writes the tree with GPNode.writeCompactRootedTree(...). */
+    public void writeCompactTree(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        GPInitializer initializer = ((GPInitializer)state.initializer);
+        child.writeCompactRootedTree(state,constraints(initializer).treetype, constraints(initializer).functionset, dataOutput);
+        }
+
+    /** Reads a tree written by writeCompactTree(...). */
+    public void readCompactTree(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        GPInitializer initializer = ((GPInitializer)state.initializer);
+        child = GPNode.readCompactRootedTree(state,dataInput,constraints(initializer).treetype, constraints(initializer).functionset, this,0);
+        }
+
 
     /** Prints out the tree in a readable Lisp-like fashion. O(n). 
         The default version of this method simply calls child's 
@@ -0,0 +1,119 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.gp.flat;
+import ec.*;
+import ec.gp.*;
+import ec.gp.koza.*;
+import ec.util.*;
+import java.util.*;
+
+/**
+ * FlatBenchmark compares the speed of breeding GP trees with ec.gp.koza.CrossoverPipeline against breeding
+ * FlatGPTrees with FlatCrossoverPipeline.  It sets up ec/app/regression/benchmark.params, with deeper initial
+ * trees than usual so that crossover has some work to do, and then runs the same number of generations of
+ * breeding in each mode, from the same seed, after running each mode once to warm up.  Rather than evaluating
+ * the individuals, each generation it gives them random fitnesses, which are the same in both modes, so only
+ * breeding is timed.  The first generation, in which the FlatTrees of the initial population are built, is
+ * reported separately from the rest.  Last it checks that both modes bred the same individuals.
+ *
+ * <p>Usage: <tt>java ec.gp.flat.FlatBenchmark [popsize] [generations] [min-depth] [max-depth]</tt>
+ *
+ * <p>By default the population size is 1024, there are 20 generations, and the initial trees are
+ * built by ramped half-and-half with depths from 8 to 11.
+ */
+
+public class FlatBenchmark
+    {
+    public static void main(String[] args)
+        {
+        int popsize = (args.length > 0 ? Integer.parseInt(args[0]) : 1024);
+        int generations = (args.length > 1 ? Integer.parseInt(args[1]) : 20);
+        int minDepth = (args.length > 2 ? Integer.parseInt(args[2]) : 8);
+        int maxDepth = (args.length > 3 ? Integer.parseInt(args[3]) : 11);
+
+        // warm up
+        run(false, popsize, generations, minDepth, maxDepth, new long[2]);
+        run(true, popsize, generations, minDepth, maxDepth, new long[2]);
+
+        long[] pointer = new long[2];
+        ArrayList<Individual> pointerInds = run(false, popsize, generations, minDepth, maxDepth, pointer);
+        long[] flat = new long[2];
+        ArrayList<Individual> flatInds = run(true, popsize, generations, minDepth, maxDepth, flat);
+
+        int mismatches = 0;
+        long nodes = 0;
+        for(int i = 0; i < pointerInds.size(); i++)
+            {
+            GPTree a = ((GPIndividual)(pointerInds.get(i))).trees[0];
+            GPTree b = ((GPIndividual)(flatInds.get(i))).trees[0];
+            if (!a.child.rootedTreeEquals(b.child))
+                mismatches++;
+            nodes += a.child.numNodes(GPNode.NODESEARCH_ALL);
+            }
+
+        System.out.println("Mode\tFirst generation (ms)\tLater generations (ms/generation)");
+        System.out.println("Pointer\t" + (pointer[0] / 1000000) + "\t" + (pointer[1] / 1000000 / Math.max(1, generations - 1)));
+        System.out.println("Flat\t" + (flat[0] / 1000000) + "\t" + (flat[1] / 1000000 / Math.max(1, generations - 1)));
+        System.out.println("Speedup\t" +
+            (flat[0] == 0 ? "-" : String.format("%.2f", pointer[0] / (double)flat[0])) + "\t" +
+            (flat[1] == 0 ? "-" : String.format("%.2f", pointer[1] / (double)flat[1])));
+        System.out.println("Mean tree size\t" + (nodes / Math.max(1, pointerInds.size())));
+        System.out.println("Mismatches\t" + mismatches);
+        }
+
+    // Breeds for the given number of generations, storing the time taken by the first generation and then
+    // by the rest in nanoseconds, and returns the final individuals
+    static ArrayList<Individual> run(boolean flat, int popsize, int generations, int minDepth, int maxDepth, long[] times)
+        {
+        String[] args = new String[]
+            {
+            "-from", "app/regression/benchmark.params",
+            "-p", "silent=true",
+            "-p", "seed.0=1",
+            "-p", "pop.subpop.0.size=" + popsize,
+            "-p", "gp.koza.half.min-depth=" + minDepth,
+            "-p", "gp.koza.half.max-depth=" + maxDepth,
+            };
+        if (flat)
+            {
+            String[] more = new String[]
+                {
+                "-p", "pop.subpop.0.species.ind.tree.0=ec.gp.flat.FlatGPTree",
+                "-p", "pop.subpop.0.species.pipe.source.0=ec.gp.flat.FlatCrossoverPipeline",
+                };
+            String[] all = Arrays.copyOf(args, args.length + more.length);
+            System.arraycopy(more, 0, all, args.length, more.length);
+            args = all;
+            }
+
+        EvolutionState state = Evolve.initialize(Evolve.loadParameterDatabase(args), 0);
+        state.startFresh();
+
+        for(int g = 0; g < generations; g++)
+            {
+            // the same fitnesses in both modes
+            Random random = new Random(g);
+            ArrayList<Individual> inds = state.population.subpops.get(0).individuals;
+            for(int i = 0; i < inds.size(); i++)
+                {
+                Individual ind = inds.get(i);
+                ((KozaFitness)(ind.fitness)).setStandardizedFitness(state, random.nextDouble());
+                ind.evaluated = true;
+                }
+
+            long start = System.nanoTime();
+            state.population = state.breeder.breedPopulation(state);
+            times[g == 0 ? 0 : 1] += System.nanoTime() - start;
+            state.generation++;
+            }
+
+        ArrayList<Individual> inds = state.population.subpops.get(0).individuals;
+        Evolve.cleanup(state);
+        return inds;
+        }
+    }
@@ -0,0 +1,304 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.gp.flat;
+import ec.*;
+import ec.gp.*;
+import ec.gp.koza.*;
+import ec.util.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * FlatCrossoverPipeline is a CrossoverPipeline which crosses over FlatGPTrees using their FlatTrees.
+ * It takes the same parameters as CrossoverPipeline (and the same default base), and does the same thing: but
+ * it picks nodes by position in O(1), checks depth and size limits without walking the trees, and builds each
+ * crossed-over tree with System.arraycopy(...) before decoding it into GPNodes.  Since it never modifies its
+ * parents, it doesn't clone the ones it gets from SelectionMethods, as CrossoverPipeline does.  Trees which aren't crossed
+ * over are copied along with their FlatTrees, which they share.  Because the trees it makes keep their
+ * FlatTrees, pipelines which modify trees in place (such as MutateERCPipeline) should not take their
+ * individuals from a FlatCrossoverPipeline: see FlatGPTree.
+ *
+ * <p>The trees being crossed over must be FlatGPTrees.  If a node selector is exactly a KozaNodeSelector,
+ * FlatCrossoverPipeline picks nodes itself from the FlatTree, drawing the same random numbers in the same
+ * order as KozaNodeSelector would, so it breeds exactly the same individuals as CrossoverPipeline.  Other
+ * node selectors are asked to pick a GPNode as usual, and the node is then found in the FlatTree, which is O(n).
+
+ <p><b>Default Base</b><br>
+ gp.koza.xover
+*/
+
+public class FlatCrossoverPipeline extends CrossoverPipeline
+    {
+    private static final long serialVersionUID = 1;
+
+    /** Picks the position of a node in the given tree, using the given node selector. */
+    public int pickPosition(final EvolutionState state, final int subpopulation, final int thread,
+        final GPIndividual ind, final FlatGPTree tree, final FlatTree flat, final GPNodeSelector selector)
+        {
+        if (selector.getClass() != KozaNodeSelector.class)
+            return FlatTree.position(tree.child, selector.pickNode(state, subpopulation, thread, ind, tree));
+
+        // this follows KozaNodeSelector.pickNode(...)
+        KozaNodeSelector ns = (KozaNodeSelector)selector;
+        MersenneTwisterFast random = state.random[thread];
+        double rnd = random.nextDouble();
+
+        if (rnd > ns.nonterminalProbability + ns.terminalProbability + ns.rootProbability)  // pick anyone
+            {
+            return random.nextInt(flat.program.length);
+            }
+        else if (rnd > ns.nonterminalProbability + ns.terminalProbability)  // pick the root
+            {
+            return 0;
+            }
+        else if (rnd > ns.nonterminalProbability)  // pick terminals
+            {
+            int[] terminals = flat.terminals();
+            return terminals[random.nextInt(terminals.length)];
+            }
+        else  // pick nonterminals if you can
+            {
+            int[] nonterminals = flat.nonterminals();
+            if (nonterminals.length > 0) // there are some nonterminals
+                return nonterminals[random.nextInt(nonterminals.length)];
+            else // there ARE no nonterminals!  It must be the root node
+                return 0;
+            }
+        }
+
+    /** Returns true if the subtree at pos1 in tree1 can feasibly be swapped into pos2's position in tree2.
+        This is verifyPoints(...) for FlatTrees.  Both trees have the given tree constraints. */
+    public boolean verifyPoints(final GPInitializer initializer, final GPTreeConstraints constraints,
+        final FlatTree tree1, final int pos1, final FlatTree tree2, final int pos2)
+        {
+        // first check to see if the node at pos1 is swap-compatible with the node at pos2
+        // on a type basis, as GPNode.swapCompatibleWith(...) would
+        GPType returntype = tree1.node(pos1).constraints(initializer).returntype;
+        if (returntype != tree2.node(pos2).constraints(initializer).returntype)
+            {
+            int parent = tree2.parent(pos2);
+            GPType type = (parent == -1 ? constraints.treetype :
+                tree2.node(parent).constraints(initializer).childtypes[tree2.argposition(pos2)]);
+            if (!returntype.compatibleWith(initializer, type)) return false;
+            }
+
+        // next check to see if the node at pos1 can fit in pos2's spot
+        if (tree1.height(pos1) + tree2.depth(pos2) > maxDepth) return false;
+
+        // check for size
+        if (maxSize != NO_SIZE_LIMIT)
+            {
+            int size1 = tree1.sizes[pos1];
+            int size2 = tree2.sizes[pos2];
+            if (size1 > size2 && tree2.program.length - size2 + size1 > maxSize)
+                return false;
+            }
+
+        // checks done!
+        return true;
+        }
+
+    // Returns the given tree, which must be a FlatGPTree
+    FlatGPTree flatTree(final EvolutionState state, final GPIndividual ind, final int tree)
+        {
+        if (!(ind.trees[tree] instanceof FlatGPTree))
+            state.output.fatal("FlatCrossoverPipeline can only cross over FlatGPTrees, but tree " + tree + " of an individual is a " + ind.trees[tree].getClass().getName());
+        return (FlatGPTree)(ind.trees[tree]);
+        }
+
+    // Makes a copy of the parent whose trees are all copies of the parent's, except for tree t, which is
+    // set to the given FlatTree if it isn't null
+    GPIndividual breed(final GPIndividual parent, final int t, final FlatTree flat)
+        {
+        GPIndividual j = parent.lightClone();
+        j.trees = new GPTree[parent.trees.length];
+        for(int x = 0; x < j.trees.length; x++)
+            {
+            if (x == t && flat != null)  // we've got a tree with a kicking cross position!
+                {
+                FlatGPTree tree = (FlatGPTree)(parent.trees[x].lightClone());
+                tree.setFlat(flat);
+                j.trees[x] = tree;
+                j.evaluated = false;
+                }  // it's changed
+            else
+                {
+                j.trees[x] = (GPTree)(parent.trees[x].clone());
+                if (j.trees[x] instanceof FlatGPTree)
+                    ((FlatGPTree)(j.trees[x])).shareFlat((FlatGPTree)(parent.trees[x]));
+                }
+            j.trees[x].owner = j;
+            }
+        return j;
+        }
+
+    /** Adds n parents from the given source to <tt>parents</tt>.  The parents are never modified, so if the
+        source is a SelectionMethod, they are not cloned, and keep their FlatTrees. */
+    public void produceParents(final BreedingSource source, final int n, final int subpopulation,
+        final EvolutionState state, final int thread, HashMap<String, Object> misc)
+        {
+        if (source instanceof SelectionMethod)
+            ((SelectionMethod)source).produceWithoutCloning(n, n, subpopulation, parents, state, thread, misc);
+        else source.produce(n, n, subpopulation, parents, state, thread, misc);
+        }
+
+    public int produce(final int min,
+        final int max,
+        final int subpopulation,
+        final ArrayList<Individual> inds,
+        final EvolutionState state,
+        final int thread, HashMap<String, Object> misc)
+
+        {
+        int start = inds.size();
+
+        // how many individuals should we make?
+        int n = typicalIndsProduced();
+        if (n < min) n = min;
+        if (n > max) n = max;
+
+        // should we bother?
+        if (!state.random[thread].nextBoolean(likelihood))
+            {
+            // just load from source 0 and clone 'em
+            sources[0].produce(n,n,subpopulation,inds, state,thread,misc);
+            return n;
+            }
+
+        IntBag[] parentparents = null;
+        IntBag[] preserveParents = null;
+        if (misc!=null&&misc.get(KEY_PARENTS) != null)
+            {
+            preserveParents = (IntBag[])misc.get(KEY_PARENTS);
+            parentparents = new IntBag[2];
+            misc.put(KEY_PARENTS, parentparents);
+            }
+
+        GPInitializer initializer = ((GPInitializer)state.initializer);
+
+        for(int q=start;q<n+start; /* no increment */)  // keep on going until we're filled up
+            {
+            parents.clear();
+
+            // grab two individuals from our sources
+            if (sources[0]==sources[1])  // grab from the same source
+                produceParents(sources[0], 2, subpopulation, state, thread, misc);
+            else // grab from different sources
+                {
+                produceParents(sources[0], 1, subpopulation, state, thread, misc);
+                produceParents(sources[1], 1, subpopulation, state, thread, misc);
+                }
+
+            GPIndividual parent1 = (GPIndividual)(parents.get(0));
+            GPIndividual parent2 = (GPIndividual)(parents.get(1));
+
+            // are our tree values valid?
+            if (tree1!=TREE_UNFIXED && (tree1<0 || tree1 >= parent1.trees.length))
+                // uh oh
+                state.output.fatal("GP Crossover Pipeline attempted to fix tree.0 to a value which was out of bounds of the array of the individual's trees.  Check the pipeline's fixed tree values -- they may be negative or greater than the number of trees in an individual");
+            if (tree2!=TREE_UNFIXED && (tree2<0 || tree2 >= parent2.trees.length))
+                // uh oh
+                state.output.fatal("GP Crossover Pipeline attempted to fix tree.1 to a value which was out of bounds of the array of the individual's trees.  Check the pipeline's fixed tree values -- they may be negative or greater than the number of trees in an individual");
+
+            int t1=0; int t2=0;
+            if (tree1==TREE_UNFIXED || tree2==TREE_UNFIXED)
+                {
+                do
+                    // pick random trees  -- their GPTreeConstraints must be the same
+                    {
+                    if (tree1==TREE_UNFIXED)
+                        if (parent1.trees.length > 1)
+                            t1 = state.random[thread].nextInt(parent1.trees.length);
+                        else t1 = 0;
+                    else t1 = tree1;
+
+                    if (tree2==TREE_UNFIXED)
+                        if (parent2.trees.length>1)
+                            t2 = state.random[thread].nextInt(parent2.trees.length);
+                        else t2 = 0;
+                    else t2 = tree2;
+                    } while (parent1.trees[t1].constraints(initializer) != parent2.trees[t2].constraints(initializer));
+                }
+            else
+                {
+                t1 = tree1;
+                t2 = tree2;
+                // make sure the constraints are okay
+                if (parent1.trees[t1].constraints(initializer) != parent2.trees[t2].constraints(initializer)) // uh oh
+                    state.output.fatal("GP Crossover Pipeline's two tree choices are both specified by the user -- but their GPTreeConstraints are not the same");
+                }
+
+            GPTreeConstraints constraints = parent1.trees[t1].constraints(initializer);
+            FlatGPTree flatTree1 = flatTree(state, parent1, t1);
+            FlatGPTree flatTree2 = flatTree(state, parent2, t2);
+            FlatTree flat1 = flatTree1.flat(state);
+            FlatTree flat2 = flatTree2.flat(state);
+
+            // validity results...
+            boolean res1 = false;
+            boolean res2 = false;
+
+            // prepare the nodeselectors
+            nodeselect1.reset();
+            nodeselect2.reset();
+
+            // pick some nodes
+            int p1 = 0;
+            int p2 = 0;
+
+            for(int x=0;x<numTries;x++)
+                {
+                // pick a node in individual 1
+                p1 = pickPosition(state, subpopulation, thread, parent1, flatTree1, flat1, nodeselect1);
+
+                // pick a node in individual 2
+                p2 = pickPosition(state, subpopulation, thread, parent2, flatTree2, flat2, nodeselect2);
+
+                // check for depth and swap-compatibility limits
+                res1 = verifyPoints(initializer, constraints, flat2, p2, flat1, p1);  // p2 can fill p1's spot -- order is important!
+                if (n-(q-start)<2 || tossSecondParent) res2 = true;
+                else res2 = verifyPoints(initializer, constraints, flat1, p1, flat2, p2);  // p1 can fill p2's spot -- order is important!
+
+                // did we get something that had both nodes verified?
+                // we reject if EITHER of them is invalid.  This is what lil-gp does.
+                if (res1 && res2) break;
+                }
+
+            // at this point, res1 AND res2 are valid, OR either res1
+            // OR res2 is valid and we ran out of tries, OR neither is
+            // valid and we ran out of tries.  So now we will transfer
+            // to a tree which has res1 or res2 valid, otherwise it'll
+            // just get replicated, as in CrossoverPipeline.
+
+            GPIndividual j1 = breed(parent1, t1, res1 ? flat1.replace(p1, flat2, p2) : null);
+            GPIndividual j2 = null;
+            if (n-(q-start)>=2 && !tossSecondParent)
+                j2 = breed(parent2, t2, res2 ? flat2.replace(p2, flat1, p1) : null);
+
+            // add the individuals to the population
+            inds.add(j1);
+            if (preserveParents != null)
+                {
+                parentparents[0].addAll(parentparents[1]);
+                preserveParents[q] = parentparents[0];
+                }
+            q++;
+            if (q<n+start && !tossSecondParent)
+                {
+                inds.add(j2);
+                if (preserveParents != null)
+                    {
+                    parentparents[0].addAll(parentparents[1]);
+                    preserveParents[q] = parentparents[0];
+                    }
+                q++;
+                }
+            }
+        return n;
+        }
+    }
@@ -0,0 +1,122 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.gp.flat;
+import ec.*;
+import ec.gp.*;
+import ec.util.*;
+
+/**
+ * FlatGPTree is a GPTree which also keeps its tree as a FlatTree, so that breeding pipelines
+ * such as FlatCrossoverPipeline can pick nodes and swap subtrees on arrays rather than walking and
+ * cloning graphs of GPNodes.
+ *
+ * <p>The GPNode tree in <tt>child</tt> is still there, and is still the tree which gets evaluated, printed,
+ * and so on, so existing GPNode.eval(...) methods, problems, statistics, and breeding pipelines all work
+ * unchanged.  The FlatTree is built from <tt>child</tt> the first time flat(...) is called, and again
+ * whenever <tt>child</tt> has been replaced since then.  Going the other way, setFlat(...) decodes a
+ * FlatTree into a new <tt>child</tt>.  FlatTrees are never modified, so trees may share them.
+ *
+ * <p>Several of ECJ's mutation pipelines (MutateERCPipeline, for example) modify the nodes of a copy of a
+ * tree in place.  So clone() does not copy the FlatTree: a tree which has been cloned builds its FlatTree
+ * again when it is next asked for it.  The trees made by FlatCrossoverPipeline do keep their FlatTrees, so
+ * a pipeline which modifies trees in place should not take its individuals from a FlatCrossoverPipeline,
+ * or else it must call invalidate() on the trees it has modified.
+ *
+ * <p>To use FlatGPTrees, set your trees' class to ec.gp.flat.FlatGPTree and replace your
+ * ec.gp.koza.CrossoverPipelines with ec.gp.flat.FlatCrossoverPipelines.  FlatGPTree takes the same
+ * parameters as GPTree.
+
+ <p><b>Default Base</b><br>
+ gp.tree
+*/
+
+public class FlatGPTree extends GPTree
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The ids of the nodes in this tree's function set.  Shared among clones. */
+    public FlatNodeTable table;
+
+    /** The tree in flat form, or null if it hasn't been built. */
+    FlatTree flat;
+
+    /** The child which flat was built from or decoded into.  If child is no longer this, flat is out of date. */
+    GPNode flatRoot;
+
+    public void setup(final EvolutionState state, final Parameter base)
+        {
+        super.setup(state, base);
+        table = new FlatNodeTable(constraints((GPInitializer)(state.initializer)).functionset);
+        }
+
+    /** Returns the tree as a FlatTree, building it from child if need be. */
+    public FlatTree flat(final EvolutionState state)
+        {
+        if (flat == null || flatRoot != child)
+            {
+            flat = FlatTree.encode(state, table, child);
+            flatRoot = child;
+            }
+        return flat;
+        }
+
+    /** Returns true if flat(...) would not have to build the FlatTree. */
+    public boolean hasFlat()
+        {
+        return (flat != null && flatRoot == child);
+        }
+
+    /** Sets the tree to the given FlatTree, decoding it into a new child. */
+    public void setFlat(final FlatTree flat)
+        {
+        child = flat.decode();
+        child.parent = this;
+        child.argposition = 0;
+        this.flat = flat;
+        flatRoot = child;
+        }
+
+    /** Makes this tree, which must be a copy of the given tree, share its FlatTree if it has one. */
+    public void shareFlat(final FlatGPTree original)
+        {
+        if (original.hasFlat())
+            {
+            flat = original.flat;
+            flatRoot = child;
+            }
+        else invalidate();
+        }
+
+    /** Discards the FlatTree.  Call this if you have modified the tree's nodes in place without replacing child. */
+    public void invalidate()
+        {
+        flat = null;
+        flatRoot = null;
+        }
+
+    public Object clone()
+        {
+        FlatGPTree newtree = (FlatGPTree)(super.clone());
+        newtree.invalidate();  // the copy may be modified in place
+        return newtree;
+        }
+
+    public boolean treeEquals(GPTree tree)
+        {
+        if (hasFlat() && tree instanceof FlatGPTree && ((FlatGPTree)tree).hasFlat())
+            return flat.treeEquals(((FlatGPTree)tree).flat);
+        return super.treeEquals(tree);
+        }
+
+    public int treeHashCode()
+        {
+        if (hasFlat())
+            return flat.treeHashCode();  // the same as child.rootedTreeHashCode()
+        return super.treeHashCode();
+        }
+    }
@@ -0,0 +1,89 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.gp.flat;
+import ec.gp.*;
+import java.util.*;
+
+/**
+ * FlatNodeTable gives each of the node prototypes in a GPFunctionSet an id, so that a FlatTree can
+ * store a node as an int.  Unlike GPFunctionSet.nodeId(...), which numbers the nodes of each type
+ * separately, the ids here are the same whatever type of slot a node sits in, so subtrees can be moved
+ * from one tree to another without renumbering them.
+ *
+ * <p>A node's prototype is the first one which is nodeEquivalentTo(...) it.  Nodes which are not simply
+ * light clones of their prototypes (ERCs, or ADFs which share a class and constraints with another ADF,
+ * for example) must also be stored alongside their ids: see isValueNode(...).
+ */
+
+public class FlatNodeTable implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The function set whose nodes are in the table. */
+    public GPFunctionSet functionSet;
+
+    /** The prototypes, indexed by id. */
+    public GPNode[] nodes;
+
+    /** The number of children of each prototype, indexed by id. */
+    public int[] arity;
+
+    // From the class of each prototype to its id, or to -1 if more than one prototype has that class
+    HashMap<Class<?>, Integer> idsByClass = new HashMap<Class<?>, Integer>();
+
+    public FlatNodeTable(GPFunctionSet functionSet)
+        {
+        this.functionSet = functionSet;
+
+        // a prototype can appear under several types, so gather them without duplicates
+        ArrayList<GPNode> list = new ArrayList<GPNode>();
+        IdentityHashMap<GPNode, GPNode> seen = new IdentityHashMap<GPNode, GPNode>();
+        for(int type = 0; type < functionSet.nodes.length; type++)
+            for(int i = 0; i < functionSet.nodes[type].length; i++)
+                {
+                GPNode node = functionSet.nodes[type][i];
+                if (!seen.containsKey(node))
+                    {
+                    seen.put(node, node);
+                    list.add(node);
+                    }
+                }
+
+        nodes = list.toArray(new GPNode[list.size()]);
+        arity = new int[nodes.length];
+        for(int id = 0; id < nodes.length; id++)
+            {
+            arity[id] = nodes[id].children.length;
+            Class<?> c = nodes[id].getClass();
+            idsByClass.put(c, Integer.valueOf(idsByClass.containsKey(c) ? -1 : id));
+            }
+        }
+
+    /** Returns the id of the node's prototype, or -1 if the node isn't from this table's function set. */
+    public int id(GPNode node)
+        {
+        // usually there's one prototype of each class
+        Integer id = idsByClass.get(node.getClass());
+        if (id != null && id.intValue() >= 0 && nodes[id.intValue()].nodeEquivalentTo(node))
+            return id.intValue();
+
+        // else look for it
+        for(int i = 0; i < nodes.length; i++)
+            if (nodes[i].nodeEquivalentTo(node))
+                return i;
+        return -1;
+        }
+
+    /** Returns true if the node can't be rebuilt just by light-cloning the prototype with the given id,
+        and so must be stored itself.  This is the case for all ERCs, and for any other node which isn't
+        nodeEquals(...) its prototype. */
+    public boolean isValueNode(GPNode node, int id)
+        {
+        return (node instanceof ERC || !nodes[id].nodeEquals(node));
+        }
+    }
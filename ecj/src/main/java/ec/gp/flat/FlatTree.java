@@ -0,0 +1,341 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.gp.flat;
+import ec.*;
+import ec.gp.*;
+
+/**
+ * FlatTree stores a tree of GPNodes as arrays rather than as a graph of objects.  The tree is
+ * laid out in prefix order (the order of GPNode.nodeInPosition(...)), so the root is at position 0, its
+ * first child at position 1, and the subtree rooted at position <i>p</i> runs from <i>p</i> to
+ * <i>p</i> + sizes[<i>p</i>].  For each position the tree holds:
+ *
+ * <ul>
+ * <li><b>program</b>: the id of the node's prototype in a FlatNodeTable.
+ * <li><b>sizes</b>: the number of nodes in the subtree rooted there.
+ * <li><b>ercs</b>: the node itself, if it is an ERC or otherwise can't be rebuilt from its prototype
+ * (see FlatNodeTable.isValueNode(...)), else null.  If there are no such nodes at all, ercs is null.
+ * </ul>
+ *
+ * <p>So the <i>k</i>th node of a tree is found in O(1), where GPNode.nodeInPosition(...) is O(n), and replacing
+ * a subtree with one from another tree (replace(...)) is done with System.arraycopy(...).  Heights of
+ * subtrees and the positions of the terminals and nonterminals are computed the first time they are asked for.
+ *
+ * <p>FlatTrees are never modified once built, so they may be shared among trees and threads.  So are
+ * the nodes in ercs: decode(...) makes light clones of them.
+ */
+
+public class FlatTree implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** The table which gives the prototype for each id in program. */
+    public FlatNodeTable table;
+
+    /** The node ids, in prefix order. */
+    public int[] program;
+
+    /** The number of nodes in the subtree rooted at each position. */
+    public int[] sizes;
+
+    /** The nodes which can't be rebuilt from their prototypes, by position, else null.  Null if there are none. */
+    public GPNode[] ercs;
+
+    // Built lazily
+    transient int[] heights;
+    transient int[] terminals;
+    transient int[] nonterminals;
+    // 0 if not computed yet.  A single field, as in String, so threads sharing the tree can race to fill it in safely
+    transient int hash;
+
+    public FlatTree(FlatNodeTable table, int[] program, int[] sizes, GPNode[] ercs)
+        {
+        this.table = table;
+        this.program = program;
+        this.sizes = sizes;
+        this.ercs = ercs;
+        }
+
+    /** Builds a FlatTree from the tree rooted at root, using the given table. */
+    public static FlatTree encode(final EvolutionState state, final FlatNodeTable table, final GPNode root)
+        {
+        int n = root.numNodes(GPNode.NODESEARCH_ALL);
+        FlatTree tree = new FlatTree(table, new int[n], new int[n], null);
+        tree.encode(state, root, 0);
+        return tree;
+        }
+
+    // Fills in the subtree rooted at node, starting at pos, and returns the position following it
+    int encode(final EvolutionState state, final GPNode node, int pos)
+        {
+        int id = table.id(node);
+        if (id < 0)
+            state.output.fatal("The node " + node.toStringForError() + " is not in the function set " + table.functionSet.name + ", so it can't be stored in a FlatTree.");
+        program[pos] = id;
+        if (table.isValueNode(node, id))
+            {
+            if (ercs == null) ercs = new GPNode[program.length];
+            GPNode copy = node.lightClone();
+            copy.parent = null;         // so we don't hang on to the rest of the original tree
+            ercs[pos] = copy;
+            }
+
+        int next = pos + 1;
+        for(int x = 0; x < node.children.length; x++)
+            next = encode(state, node.children[x], next);
+        sizes[pos] = next - pos;
+        return next;
+        }
+
+    /** Builds a new tree of GPNodes from this tree.  The root's parent and argposition are not set. */
+    public GPNode decode()
+        {
+        return decode(0);
+        }
+
+    /** Builds a new tree of GPNodes from the subtree rooted at pos.  The root's parent and argposition are not set. */
+    public GPNode decode(int pos)
+        {
+        GPNode node = node(pos).lightClone();
+        int child = pos + 1;
+        for(int x = 0; x < node.children.length; x++)
+            {
+            GPNode c = decode(child);
+            c.parent = node;
+            c.argposition = (byte)x;
+            node.children[x] = c;
+            child += sizes[child];
+            }
+        return node;
+        }
+
+    /** Returns the node at pos (its prototype, or the node in ercs).  Don't modify it or put it in a tree. */
+    public GPNode node(int pos)
+        {
+        if (ercs != null && ercs[pos] != null) return ercs[pos];
+        return table.nodes[program[pos]];
+        }
+
+    /** Returns the number of children of the node at pos. */
+    public int arity(int pos)
+        {
+        return table.arity[program[pos]];
+        }
+
+    /** Returns the number of nodes in the tree, constrained by nodesearch (GPNode.NODESEARCH_ALL,
+        GPNode.NODESEARCH_TERMINALS, or GPNode.NODESEARCH_NONTERMINALS). */
+    public int numNodes(int nodesearch)
+        {
+        if (nodesearch == GPNode.NODESEARCH_TERMINALS) return terminals().length;
+        else if (nodesearch == GPNode.NODESEARCH_NONTERMINALS) return nonterminals().length;
+        else return program.length;
+        }
+
+    /** Returns the positions of the terminals, in prefix order. */
+    public int[] terminals()
+        {
+        if (terminals == null)
+            {
+            int count = 0;
+            for(int i = 0; i < sizes.length; i++)
+                if (sizes[i] == 1) count++;
+            int[] t = new int[count];
+            count = 0;
+            for(int i = 0; i < sizes.length; i++)
+                if (sizes[i] == 1) t[count++] = i;
+            terminals = t;
+            }
+        return terminals;
+        }
+
+    /** Returns the positions of the nonterminals, in prefix order. */
+    public int[] nonterminals()
+        {
+        if (nonterminals == null)
+            {
+            int count = 0;
+            for(int i = 0; i < sizes.length; i++)
+                if (sizes[i] > 1) count++;
+            int[] t = new int[count];
+            count = 0;
+            for(int i = 0; i < sizes.length; i++)
+                if (sizes[i] > 1) t[count++] = i;
+            nonterminals = t;
+            }
+        return nonterminals;
+        }
+
+    /** Returns the depth of the subtree rooted at pos, as GPNode.depth() would: a single node has depth 1. */
+    public int height(int pos)
+        {
+        if (heights == null)
+            {
+            // children follow their parents, so fill in from the end
+            int[] h = new int[program.length];
+            for(int i = program.length - 1; i >= 0; i--)
+                {
+                int max = 0;
+                int child = i + 1;
+                for(int x = arity(i); x > 0; x--)
+                    {
+                    if (h[child] > max) max = h[child];
+                    child += sizes[child];
+                    }
+                h[i] = max + 1;
+                }
+            heights = h;
+            }
+        return heights[pos];
+        }
+
+    /** Returns the depth at which the node at pos appears, as GPNode.atDepth() would: the root is at depth 0. */
+    public int depth(int pos)
+        {
+        int depth = 0;
+        int node = 0;
+        while(node != pos)
+            {
+            node = childContaining(node, pos);
+            depth++;
+            }
+        return depth;
+        }
+
+    /** Returns the position of the parent of the node at pos, or -1 if pos is the root. */
+    public int parent(int pos)
+        {
+        int parent = -1;
+        int node = 0;
+        while(node != pos)
+            {
+            parent = node;
+            node = childContaining(node, pos);
+            }
+        return parent;
+        }
+
+    /** Returns which child of its parent the node at pos is, or 0 if pos is the root. */
+    public int argposition(int pos)
+        {
+        int parent = parent(pos);
+        if (parent == -1) return 0;
+        int x = 0;
+        for(int child = parent + 1; child != pos; child += sizes[child])
+            x++;
+        return x;
+        }
+
+    // Returns the child of node whose subtree contains pos, which must be in node's subtree but not node itself
+    int childContaining(int node, int pos)
+        {
+        int child = node + 1;
+        while(child + sizes[child] <= pos)
+            child += sizes[child];
+        return child;
+        }
+
+    /** Returns a new tree: this one, with the subtree rooted at pos replaced by the subtree rooted at otherPos in other.
+        Both trees must be built from the same function set. */
+    public FlatTree replace(int pos, FlatTree other, int otherPos)
+        {
+        int oldSize = sizes[pos];
+        int newSize = other.sizes[otherPos];
+        int end = pos + oldSize;
+        int rest = program.length - end;
+        int n = pos + newSize + rest;
+
+        int[] p = new int[n];
+        System.arraycopy(program, 0, p, 0, pos);
+        System.arraycopy(other.program, otherPos, p, pos, newSize);
+        System.arraycopy(program, end, p, pos + newSize, rest);
+
+        int[] s = new int[n];
+        System.arraycopy(sizes, 0, s, 0, pos);
+        System.arraycopy(other.sizes, otherPos, s, pos, newSize);
+        System.arraycopy(sizes, end, s, pos + newSize, rest);
+
+        GPNode[] e = null;
+        if (ercs != null || other.ercs != null)
+            {
+            e = new GPNode[n];
+            if (ercs != null)
+                {
+                System.arraycopy(ercs, 0, e, 0, pos);
+                System.arraycopy(ercs, end, e, pos + newSize, rest);
+                }
+            if (other.ercs != null)
+                System.arraycopy(other.ercs, otherPos, e, pos, newSize);
+            }
+
+        // the ancestors of pos have grown or shrunk
+        int delta = newSize - oldSize;
+        if (delta != 0)
+            for(int node = 0; node != pos; node = childContaining(node, pos))
+                s[node] += delta;
+
+        return new FlatTree(table, p, s, e);
+        }
+
+    /** Returns the same hash code as GPNode.rootedTreeHashCode() would for the decoded tree. */
+    public int treeHashCode()
+        {
+        int hash = this.hash;
+        if (hash == 0)
+            {
+            int[] h = new int[program.length];
+            for(int i = program.length - 1; i >= 0; i--)
+                {
+                int hi = node(i).nodeHashCode();
+                int child = i + 1;
+                for(int x = arity(i); x > 0; x--)
+                    {
+                    // rotate hash and XOR
+                    hi = (hi << 1 | hi >>> 31) ^ h[child];
+                    child += sizes[child];
+                    }
+                h[i] = hi;
+                }
+            hash = h[0];
+            this.hash = hash;
+            }
+        return hash;
+        }
+
+    /** Returns true if the decoded trees would be rootedTreeEquals(...). */
+    public boolean treeEquals(FlatTree other)
+        {
+        if (other == this) return true;
+        if (!java.util.Arrays.equals(program, other.program)) return false;
+        if (ercs == null && other.ercs == null) return true;
+        for(int i = 0; i < program.length; i++)
+            {
+            boolean value = (ercs != null && ercs[i] != null);
+            boolean otherValue = (other.ercs != null && other.ercs[i] != null);
+            if ((value || otherValue) && !node(i).nodeEquals(other.node(i)))
+                return false;
+            }
+        return true;
+        }
+
+    /** Returns the position of node in the tree rooted at root, in prefix order, or -1 if it's not there. */
+    public static int position(GPNode root, GPNode node)
+        {
+        int[] count = new int[1];
+        return (position(root, node, count) ? count[0] : -1);
+        }
+
+    static boolean position(GPNode current, GPNode node, int[] count)
+        {
+        if (current == node) return true;
+        count[0]++;
+        for(int x = 0; x < current.children.length; x++)
+            if (position(current.children[x], node, count))
+                return true;
+        return false;
+        }
+    }
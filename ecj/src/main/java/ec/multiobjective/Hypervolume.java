@@ -0,0 +1,400 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.multiobjective;
+import ec.*;
+import ec.util.*;
+import java.util.*;
+
+/**
+ * Hypervolume holds the hypervolume algorithms used by HypervolumeStatistics.  They work on
+ * primitive arrays of points, laid out as in NonDominatedSorting.objectiveMatrix(...): coordinate
+ * <i>o</i> of point <i>i</i> is stored at position <tt>i * numObjectives + o</tt>, and lower values
+ * are always better.  Use points(...) and reference(...) to build these arrays from Individuals.
+ *
+ * <p>exact(...) computes the hypervolume exactly with the WFG algorithm:
+ *
+ * <p>Lyndon While, Lucas Bradstreet, and Luigi Barone, "A Fast Way of Calculating
+ * Exact Hypervolumes," IEEE Transactions on Evolutionary Computation, 16 (1),
+ * February, 2012.
+ *
+ * <p>WFG slices the points along their last objective: each point contributes the depth of its
+ * slice times its exclusive hypervolume in the remaining objectives relative to the points
+ * which follow it, which in turn is computed by recursing on the non-dominated <i>limit set</i>
+ * of those points.  The recursion bottoms out at three objectives, where we use a sweep along
+ * the third objective which maintains the two-dimensional staircase of the points seen so far
+ * (O(n log n)), and at two objectives, where we use a simple sort and sweep.
+ *
+ * <p>monteCarlo(...) instead estimates the hypervolume by sampling points uniformly from the box
+ * between the best value of each objective and the reference point, and counting the fraction
+ * of samples which are dominated.  Its cost grows only linearly with the number of objectives.
+ * By Hoeffding's inequality, if you draw samples(error, confidence) samples, then with
+ * probability at least <i>confidence</i> the estimate is off by no more than <i>error</i> times
+ * the volume of the box.
+ */
+
+public class Hypervolume
+    {
+    /** Returns the objectives of the given individuals, whose fitnesses must be MultiObjectiveFitness, as a
+        single array of points as described in the class comment: objectives which are maximized are negated.
+        Throws an IllegalStateException if an individual has the wrong number of objectives, or if it does not
+        Pareto-dominate the reference point, as hypervolume is undefined in this case. */
+    public static double[] points(final ArrayList<Individual> inds, final double[] referencePoint)
+        {
+        final int m = referencePoint.length;
+        final double[] points = new double[inds.size() * m];
+        for(int i = 0; i < inds.size(); i++)
+            {
+            final Individual ind = inds.get(i);
+            if (!(ind.fitness instanceof MultiObjectiveFitness))
+                throw new IllegalStateException(String.format("%s: found an individual with a %s.  Hypervolume can only be computed for %s.", HypervolumeStatistics.class.getSimpleName(), ind.fitness.getClass().getSimpleName(), MultiObjectiveFitness.class.getSimpleName()));
+            final MultiObjectiveFitness fitness = (MultiObjectiveFitness)(ind.fitness);
+            final double[] objectives = fitness.getObjectives();
+            if (objectives.length != m)
+                throw new IllegalStateException(String.format("%s: %s has %d dimensions, but we encountered an individual with an %d-dimensional fitness.", HypervolumeStatistics.class.getSimpleName(), HypervolumeStatistics.P_REFERENCE_POINT, m, objectives.length));
+
+            boolean better = false;
+            boolean worse = false;
+            for(int o = 0; o < m; o++)
+                {
+                final double p = (fitness.isMaximizing(o) ? 0.0 - objectives[o] : objectives[o]);
+                final double r = (fitness.isMaximizing(o) ? 0.0 - referencePoint[o] : referencePoint[o]);
+                if (p < r) better = true;
+                else if (p > r || p != p) worse = true;
+                points[i * m + o] = p;
+                }
+            if (!better || worse)
+                throw new IllegalStateException(String.format("%s: found an individual (fitness: %s) that does not dominate the reference point (%s).  Cowardly refusing to compute a negative hypervolume contribution for this individual.  You probably need to choosing a different reference pointor check the maximization/minimization setting for the objectives.", HypervolumeStatistics.class.getSimpleName(), Arrays.toString(objectives), Arrays.toString(referencePoint)));
+            }
+        return points;
+        }
+
+    /** Returns the reference point in the form used by points(...): objectives which are
+        maximized according to the given fitness are negated. */
+    public static double[] reference(final MultiObjectiveFitness fitness, final double[] referencePoint)
+        {
+        final double[] reference = new double[referencePoint.length];
+        for(int o = 0; o < reference.length; o++)
+            reference[o] = (fitness.isMaximizing(o) ? 0.0 - referencePoint[o] : referencePoint[o]);
+        return reference;
+        }
+
+    /** Returns the volume of the box between point <i>index</i> and the reference point. */
+    public static double inclusive(final double[] points, final int index, final int m, final double[] reference)
+        {
+        return box(points, index * m, m, reference);
+        }
+
+    // The volume of the box between the reference point and the first d coordinates starting at offset
+    static double box(final double[] pts, final int offset, final int d, final double[] reference)
+        {
+        double product = 1.0;
+        for(int o = 0; o < d; o++)
+            product *= reference[o] - pts[offset + o];
+        return product;
+        }
+
+
+
+    ///// EXACT HYPERVOLUME
+
+
+    /** Returns the exact hypervolume of the <i>n</i> points, each with <i>m</i> objectives, relative to the
+        reference point, which every point must weakly dominate.  The points need not be mutually non-dominated,
+        and the array is not modified. */
+    public static double exact(final double[] points, final int n, final int m, final double[] reference)
+        {
+        // Points which equal the reference point in some objective enclose no volume, so we drop them.
+        // This also means that every point we recurse on is strictly inside the reference box.
+        final double[] pts = new double[n * m];
+        int count = 0;
+        for(int i = 0; i < n; i++)
+            {
+            boolean inside = true;
+            for(int o = 0; o < m; o++)
+                if (!(points[i * m + o] < reference[o]))
+                    { inside = false; break; }
+            if (inside)
+                {
+                System.arraycopy(points, i * m, pts, count * m, m);
+                count++;
+                }
+            }
+        return wfg(pts, count, m, reference);
+        }
+
+    /** Returns the hypervolume which the point <i>index</i> adds to the other <i>n - 1</i> points: the
+        hypervolume of all <i>n</i> points minus the hypervolume of all but point <i>index</i>. */
+    public static double exclusive(final double[] points, final int n, final int m, final int index, final double[] reference)
+        {
+        for(int o = 0; o < m; o++)
+            if (!(points[index * m + o] < reference[o]))
+                return 0.0;
+        final double[] limit = new double[Math.max(0, n - 1) * m];
+        final int size = limitSet(points, m, index, 0, n, m, limit);
+        if (size < 0) return 0.0;                 // some other point dominates it
+        return Math.max(0.0, inclusive(points, index, m, reference) - wfg(limit, nondominated(limit, size, m), m, reference));
+        }
+
+    // The hypervolume of the n points, which must all be strictly inside the reference box.  Sorts pts.
+    static double wfg(final double[] pts, final int n, final int m, final double[] reference)
+        {
+        if (n == 0) return 0.0;
+        if (n == 1) return inclusive(pts, 0, m, reference);
+        if (m == 1)
+            {
+            double best = pts[0];
+            for(int i = 1; i < n; i++)
+                best = Math.min(best, pts[i]);
+            return reference[0] - best;
+            }
+        if (m == 2) return sweep2D(pts, n, reference);
+        if (m == 3) return sweep3D(pts, n, reference);
+
+        // Sort by the last objective, worst first.  Then the slice between point i and the reference
+        // point along the last objective contains the projections of point i and all of the points after it,
+        // and point i contributes its exclusive hypervolume relative to those points to this slice.
+        final int last = m - 1;
+        sort(pts, n, m, last, true);
+        final double[] limit = new double[(n - 1) * last];
+        double total = 0.0;
+        for(int i = 0; i < n; i++)
+            {
+            final double depth = reference[last] - pts[i * m + last];
+            final int size = limitSet(pts, m, i, i + 1, n, last, limit);
+            if (size < 0) continue;              // a later point dominates it in the first m - 1 objectives
+            total += depth * (box(pts, i * m, last, reference) - wfg(limit, nondominated(limit, size, last), last, reference));
+            }
+        return total;
+        }
+
+    // Fills limit with the limit set of point i relative to points from ... n-1 other than i, in their first
+    // d objectives: each point in the limit set is the worse, objective by objective, of point i and the other
+    // point.  Returns the size of the limit set, or -1 if one of the other points weakly dominates point i,
+    // in which case point i has no exclusive hypervolume.
+    static int limitSet(final double[] pts, final int m, final int i, final int from, final int n, final int d, final double[] limit)
+        {
+        final int pi = i * m;
+        int size = 0;
+        for(int j = from; j < n; j++)
+            {
+            if (j == i) continue;
+            final int pj = j * m;
+            final int l = size * d;
+            boolean same = true;
+            for(int o = 0; o < d; o++)
+                {
+                final double a = pts[pi + o];
+                final double b = pts[pj + o];
+                if (a >= b) limit[l + o] = a;
+                else { limit[l + o] = b; same = false; }
+                }
+            if (same) return -1;
+            size++;
+            }
+        return size;
+        }
+
+    /** Removes the points which are weakly dominated by another point (including all but one of any
+        duplicates) from the first <i>n</i> points of the array, compacting the rest to the front,
+        and returns how many remain.  The order of the remaining points is not preserved. */
+    public static int nondominated(final double[] pts, final int n, final int m)
+        {
+        if (n < 2) return n;
+        // After sorting lexicographically, a point can only be weakly dominated by a point before it
+        sortLexicographically(pts, n, m);
+        int kept = 0;
+        for(int i = 0; i < n; i++)
+            {
+            final int pi = i * m;
+            boolean dominated = false;
+            for(int k = 0; k < kept && !dominated; k++)
+                {
+                final int pk = k * m;
+                dominated = true;
+                for(int o = 1; o < m; o++)         // objective 0 is already <=
+                    if (pts[pk + o] > pts[pi + o])
+                        { dominated = false; break; }
+                }
+            if (!dominated)
+                {
+                if (kept != i)
+                    System.arraycopy(pts, pi, pts, kept * m, m);
+                kept++;
+                }
+            }
+        return kept;
+        }
+
+    /** Returns the hypervolume of <i>n</i> two-objective points which are all strictly inside the
+        reference box.  Sorts the points. */
+    public static double sweep2D(final double[] pts, final int n, final double[] reference)
+        {
+        sortLexicographically(pts, n, 2);
+        double area = 0.0;
+        double top = reference[1];
+        for(int i = 0; i < n; i++)
+            {
+            final double y = pts[i * 2 + 1];
+            if (y < top)
+                {
+                area += (reference[0] - pts[i * 2]) * (top - y);
+                top = y;
+                }
+            }
+        return area;
+        }
+
+    /** Returns the hypervolume of <i>n</i> three-objective points which are all strictly inside the
+        reference box.  We sweep upwards along the third objective, keeping the two-dimensional
+        non-dominated staircase of the points seen so far in a TreeMap, together with its area, and
+        add the area times the depth of each slab.  Sorts the points. */
+    public static double sweep3D(final double[] pts, final int n, final double[] reference)
+        {
+        sort(pts, n, 3, 2, false);
+        final TreeMap<Double, Double> staircase = new TreeMap<Double, Double>();
+        final double rx = reference[0];
+        final double ry = reference[1];
+        double area = 0.0;
+        double volume = 0.0;
+        for(int i = 0; i < n; i++)
+            {
+            final double x = pts[i * 3];
+            final double y = pts[i * 3 + 1];
+            final double z = pts[i * 3 + 2];
+
+            Map.Entry<Double, Double> floor = staircase.floorEntry(x);
+            if (floor == null || floor.getValue() > y)     // the point is not dominated in x and y
+                {
+                // The staircase at x currently covers everything above the height of its left neighbor.
+                Map.Entry<Double, Double> lower = staircase.lowerEntry(x);
+                double top = (lower == null ? ry : lower.getValue());
+                double left = x;
+                // Walk right, removing the points this point dominates and adding the area it uncovers
+                Map.Entry<Double, Double> next = staircase.ceilingEntry(x);
+                while(true)
+                    {
+                    if (next == null)
+                        {
+                        area += (rx - left) * (top - y);
+                        break;
+                        }
+                    final double nx = next.getKey();
+                    final double ny = next.getValue();
+                    area += (nx - left) * (top - y);
+                    if (ny < y) break;
+                    staircase.remove(nx);
+                    left = nx;
+                    top = ny;
+                    next = staircase.higherEntry(nx);
+                    }
+                staircase.put(x, y);
+                }
+
+            final double nextZ = (i + 1 < n ? pts[(i + 1) * 3 + 2] : reference[2]);
+            volume += area * (nextZ - z);
+            }
+        return volume;
+        }
+
+    // Sorts the n points by objective o, in ascending order (or descending if descending is true)
+    static void sort(final double[] pts, final int n, final int m, final int o, final boolean descending)
+        {
+        final int[] order = new int[n];
+        for(int i = 0; i < n; i++)
+            order[i] = i;
+        QuickSort.qsort(order, new SortComparatorL()
+            {
+            public boolean lt(long a, long b)
+                {
+                return descending ? pts[(int)a * m + o] > pts[(int)b * m + o] : pts[(int)a * m + o] < pts[(int)b * m + o];
+                }
+            public boolean gt(long a, long b)
+                {
+                return descending ? pts[(int)a * m + o] < pts[(int)b * m + o] : pts[(int)a * m + o] > pts[(int)b * m + o];
+                }
+            });
+        permute(pts, n, m, order);
+        }
+
+    // Sorts the n points lexicographically, in ascending order
+    static void sortLexicographically(final double[] pts, final int n, final int m)
+        {
+        final int[] order = new int[n];
+        for(int i = 0; i < n; i++)
+            order[i] = i;
+        QuickSort.qsort(order, new SortComparatorL()
+            {
+            public boolean lt(long a, long b) { return NonDominatedSorting.compare(pts, (int)a, (int)b, m) < 0; }
+            public boolean gt(long a, long b) { return NonDominatedSorting.compare(pts, (int)a, (int)b, m) > 0; }
+            });
+        permute(pts, n, m, order);
+        }
+
+    // Rearranges the points so that point i is the old point order[i]
+    static void permute(final double[] pts, final int n, final int m, final int[] order)
+        {
+        final double[] copy = Arrays.copyOf(pts, n * m);
+        for(int i = 0; i < n; i++)
+            System.arraycopy(copy, order[i] * m, pts, i * m, m);
+        }
+
+
+
+    ///// MONTE CARLO HYPERVOLUME
+
+
+    /** Returns the number of samples needed so that, with probability at least <i>confidence</i>,
+        monteCarlo(...) is off by at most <i>error</i> times the volume of its sampling box. */
+    public static int samples(final double error, final double confidence)
+        {
+        // Hoeffding: P(|estimate - mean| >= error) <= 2 exp(-2 samples error^2)
+        return (int)Math.min(Integer.MAX_VALUE, Math.ceil(Math.log(2.0 / (1.0 - confidence)) / (2.0 * error * error)));
+        }
+
+    /** Returns an estimate of the hypervolume of the <i>n</i> points, each with <i>m</i> objectives, relative
+        to the reference point, which every point must weakly dominate, by drawing the given number of samples
+        from the box between the best value of each objective and the reference point.  The array is not modified. */
+    public static double monteCarlo(final double[] points, final int n, final int m, final double[] reference,
+        final int samples, final MersenneTwisterFast random)
+        {
+        if (n == 0) return 0.0;
+        final double[] pts = Arrays.copyOf(points, n * m);
+        final int size = nondominated(pts, n, m);          // also sorts the points by their first objective
+
+        final double[] low = new double[m];
+        double box = 1.0;
+        for(int o = 0; o < m; o++)
+            {
+            low[o] = Double.POSITIVE_INFINITY;
+            for(int i = 0; i < size; i++)
+                low[o] = Math.min(low[o], pts[i * m + o]);
+            box *= reference[o] - low[o];
+            }
+        if (!(box > 0.0)) return 0.0;
+
+        final double[] sample = new double[m];
+        int dominated = 0;
+        for(int s = 0; s < samples; s++)
+            {
+            for(int o = 0; o < m; o++)
+                sample[o] = low[o] + random.nextDouble() * (reference[o] - low[o]);
+            for(int i = 0; i < size; i++)
+                {
+                final int pi = i * m;
+                if (pts[pi] > sample[0]) break;     // no later point can dominate the sample either
+                boolean dominates = true;
+                for(int o = 1; o < m; o++)
+                    if (pts[pi + o] > sample[o])
+                        { dominates = false; break; }
+                if (dominates)
+                    { dominated++; break; }
+                }
+            }
+        return box * dominated / samples;
+        }
+    }
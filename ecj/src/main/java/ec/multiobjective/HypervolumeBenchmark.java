@@ -0,0 +1,93 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.multiobjective;
+
+import ec.util.*;
+
+/**
+ * HypervolumeBenchmark times Hypervolume.exact(...) and Hypervolume.monteCarlo(...) on random
+ * mutually non-dominated fronts of various sizes (N) and numbers of objectives (M): the points
+ * are drawn uniformly from the positive part of the unit sphere, and the reference point is
+ * the point (1, 1, ..., 1) of the minimization problem.  The Monte Carlo estimate uses the
+ * default error bound of HypervolumeStatistics (0.01 with confidence 0.99), and the benchmark
+ * reports how far off it actually was, relative to the volume of its sampling box.
+ *
+ * <p>Usage: <tt>java ec.multiobjective.HypervolumeBenchmark [maximum exact objectives]</tt>
+ *
+ * <p>The exact hypervolume is only computed for up to 8 objectives by default, as beyond that it
+ * becomes very slow for the larger fronts.
+ */
+
+public class HypervolumeBenchmark
+    {
+    public static final int[] SIZES = { 50, 100, 200 };
+    public static final int[] OBJECTIVES = { 2, 3, 4, 5, 6, 8, 10 };
+
+    public static void main(String[] args)
+        {
+        int maxExact = (args.length > 0 ? Integer.parseInt(args[0]) : 8);
+        MersenneTwisterFast random = new MersenneTwisterFast(1);
+        int samples = Hypervolume.samples(0.01, 0.99);
+
+        System.out.println("N\tM\texact (ms)\tmonte-carlo (ms)\thypervolume\testimate\terror / box");
+        for(int o = 0; o < OBJECTIVES.length; o++)
+            for(int s = 0; s < SIZES.length; s++)
+                {
+                int n = SIZES[s];
+                int m = OBJECTIVES[o];
+                double[] points = front(random, n, m);
+                double[] reference = new double[m];
+                java.util.Arrays.fill(reference, 1.0);
+                System.out.print(n + "\t" + m + "\t");
+
+                double exact = Double.NaN;
+                if (m <= maxExact)
+                    {
+                    long start = System.nanoTime();
+                    exact = Hypervolume.exact(points, n, m, reference);
+                    System.out.print(((System.nanoTime() - start) / 1000000) + "\t");
+                    }
+                else System.out.print("-\t");
+
+                long start = System.nanoTime();
+                double estimate = Hypervolume.monteCarlo(points, n, m, reference, samples, random);
+                System.out.print(((System.nanoTime() - start) / 1000000) + "\t");
+
+                double box = 1.0;
+                for(int x = 0; x < m; x++)
+                    {
+                    double low = 1.0;
+                    for(int i = 0; i < n; i++)
+                        low = Math.min(low, points[i * m + x]);
+                    box *= 1.0 - low;
+                    }
+                System.out.println(exact + "\t" + estimate + "\t" +
+                    (exact == exact ? String.format("%.5f", Math.abs(exact - estimate) / box) : "-"));
+                }
+        }
+
+    // Returns n points on the positive part of the unit sphere, as a minimization problem
+    // relative to (1, 1, ..., 1): that is, each point is 1 minus a point on the sphere
+    static double[] front(MersenneTwisterFast random, int n, int m)
+        {
+        double[] points = new double[n * m];
+        for(int i = 0; i < n; i++)
+            {
+            double length = 0.0;
+            for(int x = 0; x < m; x++)
+                {
+                double v = Math.abs(random.nextGaussian());
+                points[i * m + x] = v;
+                length += v * v;
+                }
+            length = Math.sqrt(length);
+            for(int x = 0; x < m; x++)
+                points[i * m + x] = 1.0 - points[i * m + x] / length;
+            }
+        return points;
+        }
+    }
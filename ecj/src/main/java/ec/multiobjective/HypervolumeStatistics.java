@@ -8,19 +8,66 @@ package ec.multiobjective;
 import ec.EvolutionState;
 import ec.Individual;
 import ec.simple.SimpleStatistics;
+import ec.util.MersenneTwisterFast;
 import ec.util.Parameter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 
 /**
  * Measures the hypervolume of a population's Pareto front.
  * 
- * Our implementation follows the WFG algorithm, described in
+ * The hypervolume is computed by ec.multiobjective.Hypervolume, either exactly, with the
+ * WFG algorithm, described in
  * 
  * Lyndon While, Lucas Bradstreet, and Luigi Barone, "A Fast Way of Calculating
  * Exact Hypervolumes," IEEE Transactions on Evolutionary Computation, 16 (1),
  * February, 2012.
  * 
+ * with dedicated sweeps for two and three objectives, or, if <tt>algorithm</tt> is
+ * <tt>monte-carlo</tt>, approximately, by sampling.  With many objectives the exact hypervolume
+ * becomes very costly, while the cost of the Monte Carlo estimate only depends on the number of
+ * samples.  These are chosen so that, with probability at least <tt>confidence</tt>, the estimate
+ * is within <tt>error</tt> times the volume of the box between the reference point and the best
+ * value of each objective on the front.  The samples are drawn from the statistics' own random
+ * number generator, seeded with <tt>seed</tt> if given, else from a copy of the first of the
+ * EvolutionState's generators, so that estimating hypervolumes doesn't change the course of the run.
+ * 
+ * <p>If <tt>incremental</tt> is true, exact hypervolumes are computed incrementally
+ * from one generation to the next: we remember the points of each subpopulation's front along
+ * with its hypervolume, and if only a few points have entered or left the front since then, we
+ * only compute the exclusive contributions of these points.  This is much faster for slowly changing
+ * fronts, but floating-point error builds up in the hypervolume until the front next changes a lot,
+ * so it is off by default.
+ *
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><i>base.</i><tt>reference-point</tt><br>
+ <font size=-1>doubles</font></td>
+ <td valign=top>(the reference point, one value per objective)</td></tr>
+
+ <tr><td valign=top><i>base.</i><tt>algorithm</tt><br>
+ <font size=-1>String: <tt>exact</tt> (default) or <tt>monte-carlo</tt></font></td>
+ <td valign=top>(how to compute hypervolumes)</td></tr>
+
+ <tr><td valign=top><i>base.</i><tt>error</tt><br>
+ <font size=-1>0.0 &lt; double &lt; 1.0 (default 0.01)</font></td>
+ <td valign=top>(the Monte Carlo error bound, relative to the volume of the sampling box)</td></tr>
+
+ <tr><td valign=top><i>base.</i><tt>confidence</tt><br>
+ <font size=-1>0.0 &lt; double &lt; 1.0 (default 0.99)</font></td>
+ <td valign=top>(the probability with which the Monte Carlo error bound must hold)</td></tr>
+
+ <tr><td valign=top><i>base.</i><tt>seed</tt><br>
+ <font size=-1>int (default: copy the state's first random number generator)</font></td>
+ <td valign=top>(the seed of the random number generator for Monte Carlo sampling)</td></tr>
+
+ <tr><td valign=top><i>base.</i><tt>incremental</tt><br>
+ <font size=-1> bool = <tt>true</tt> or <tt>false</tt> (default)</font></td>
+ <td valign=top>(should exact hypervolumes be computed incrementally from generation to generation?)</td></tr>
+ </table>
+ * 
  * @author Eric O. Scott
  */
 public class HypervolumeStatistics extends SimpleStatistics
@@ -28,8 +75,29 @@ public class HypervolumeStatistics extends SimpleStatistics
     private static final long serialVersionUID = 1;
     
     public final static String P_REFERENCE_POINT = "reference-point";
+    public final static String P_ALGORITHM = "algorithm";
+    public final static String P_ERROR = "error";
+    public final static String P_CONFIDENCE = "confidence";
+    public final static String P_INCREMENTAL = "incremental";
+    public final static String P_SEED = "seed";
+    public final static String V_EXACT = "exact";
+    public final static String V_MONTE_CARLO = "monte-carlo";
     private double[] referencePoint;
     
+    /** Should hypervolumes be estimated by Monte Carlo sampling rather than computed exactly? */
+    public boolean monteCarlo;
+    /** The number of samples for each Monte Carlo estimate. */
+    public int samples;
+    /** Should exact hypervolumes be computed incrementally? */
+    public boolean incremental;
+    /** Draws the Monte Carlo samples, so they don't disturb the EvolutionState's generators. */
+    public MersenneTwisterFast random;
+    
+    // For incremental computation, the distinct points of each subpopulation's front when we last
+    // computed its hypervolume, and that hypervolume
+    ArrayList<LinkedHashSet<Point>> fronts = new ArrayList<LinkedHashSet<Point>>();
+    ArrayList<Double> frontHypervolumes = new ArrayList<Double>();
+    
     public double[] getReferencePoint()
         {
         return Arrays.copyOf(referencePoint, referencePoint.length);
@@ -49,8 +117,38 @@ public class HypervolumeStatistics extends SimpleStatistics
         referencePoint = state.parameters.getDoubles(base.push(P_REFERENCE_POINT), null, Double.NEGATIVE_INFINITY);
         if (referencePoint == null)
             state.output.fatal("Missing required parameter.", base.push(P_REFERENCE_POINT));
-        if (doGeneration && referencePoint.length > 3)
-            state.output.warnOnce(String.format("You calculating hypervolume on %d objectives at every generation.  Note that hypervolume calculation can very costly for more than a few objectives.", referencePoint.length), base.push(P_REFERENCE_POINT));
+        
+        String algorithm = state.parameters.getStringWithDefault(base.push(P_ALGORITHM), null, V_EXACT);
+        if (algorithm.equals(V_MONTE_CARLO))
+            monteCarlo = true;
+        else if (!algorithm.equals(V_EXACT))
+            state.output.fatal("Unknown hypervolume algorithm \"" + algorithm + "\".  Must be " + V_EXACT + " or " + V_MONTE_CARLO + ".", base.push(P_ALGORITHM));
+        
+        double error = 0.01;
+        if (state.parameters.exists(base.push(P_ERROR), null))
+            {
+            error = state.parameters.getDouble(base.push(P_ERROR), null, 0.0);
+            if (error <= 0.0 || error >= 1.0)
+                state.output.fatal("Error must be > 0.0 and < 1.0", base.push(P_ERROR));
+            }
+        double confidence = 0.99;
+        if (state.parameters.exists(base.push(P_CONFIDENCE), null))
+            {
+            confidence = state.parameters.getDouble(base.push(P_CONFIDENCE), null, 0.0);
+            if (confidence <= 0.0 || confidence >= 1.0)
+                state.output.fatal("Confidence must be > 0.0 and < 1.0", base.push(P_CONFIDENCE));
+            }
+        samples = Hypervolume.samples(error, confidence);
+        if (monteCarlo)
+            {
+            if (state.parameters.exists(base.push(P_SEED), null))
+                random = new MersenneTwisterFast(state.parameters.getInt(base.push(P_SEED), null));
+            else random = (MersenneTwisterFast)(state.random[0].clone());
+            }
+        incremental = state.parameters.getBoolean(base.push(P_INCREMENTAL), null, false);
+        
+        if (doGeneration && !monteCarlo && referencePoint.length > 6)
+            state.output.warnOnce(String.format("You calculating hypervolume on %d objectives at every generation.  Note that exact hypervolume calculation can very costly for more than a few objectives: consider setting %s to %s.", referencePoint.length, P_ALGORITHM, V_MONTE_CARLO), base.push(P_REFERENCE_POINT));
         }
     
     @Override
@@ -66,7 +164,7 @@ public class HypervolumeStatistics extends SimpleStatistics
                 ArrayList<Individual> paretoFront = MultiObjectiveFitness.partitionIntoParetoFront(state.population.subpops.get(s).individuals, null, null);
                 try
                     {
-                    final double hv = hypervolume(paretoFront, referencePoint);
+                    final double hv = hypervolume(state, s, paretoFront);
                     state.output.print(", " + hv, statisticslog);
                     }
                 catch (final Exception e)
@@ -78,6 +176,75 @@ public class HypervolumeStatistics extends SimpleStatistics
         state.output.print("\n", statisticslog);
         }
     
+    /** Compute the hypervolume of the Pareto front of the given subpopulation, relative to the reference
+        point that was provided to this class's setup() method, with the algorithm chosen in setup().  Exact
+        hypervolumes are computed incrementally from the last front passed in for the same subpopulation,
+        if <tt>incremental</tt> is true. */
+    public double hypervolume(final EvolutionState state, final int subpopulation, final ArrayList<Individual> paretoFront)
+        {
+        assert(paretoFront != null);
+        if (paretoFront.isEmpty())
+            return 0.0;
+        final int m = referencePoint.length;
+        final double[] points = Hypervolume.points(paretoFront, referencePoint);
+        final double[] reference = Hypervolume.reference((MultiObjectiveFitness)(paretoFront.get(0).fitness), referencePoint);
+        if (monteCarlo)
+            return Hypervolume.monteCarlo(points, paretoFront.size(), m, reference, samples, random);
+        if (!incremental)
+            return Hypervolume.exact(points, paretoFront.size(), m, reference);
+        
+        final LinkedHashSet<Point> front = new LinkedHashSet<Point>();
+        for(int i = 0; i < paretoFront.size(); i++)
+            front.add(new Point(Arrays.copyOfRange(points, i * m, i * m + m)));
+        while (fronts.size() <= subpopulation)
+            {
+            fronts.add(null);
+            frontHypervolumes.add(0.0);
+            }
+        final LinkedHashSet<Point> previous = fronts.get(subpopulation);
+        
+        double hv;
+        ArrayList<Point> removed = new ArrayList<Point>();
+        ArrayList<Point> added = new ArrayList<Point>();
+        if (previous != null)
+            {
+            for(Point p : previous)
+                if (!front.contains(p))
+                    removed.add(p);
+            for(Point p : front)
+                if (!previous.contains(p))
+                    added.add(p);
+            }
+        
+        if (previous == null || 2 * (removed.size() + added.size()) >= front.size())
+            {
+            // too much has changed: start over
+            hv = Hypervolume.exact(Point.toArray(front, m), front.size(), m, reference);
+            }
+        else
+            {
+            // take the points which left the front out one by one, then put the new ones in
+            hv = frontHypervolumes.get(subpopulation);
+            final ArrayList<Point> current = new ArrayList<Point>(previous);
+            for(Point p : removed)
+                {
+                current.remove(p);
+                current.add(p);         // move it to the end
+                hv -= Hypervolume.exclusive(Point.toArray(current, m), current.size(), m, current.size() - 1, reference);
+                current.remove(current.size() - 1);
+                }
+            for(Point p : added)
+                {
+                current.add(p);
+                hv += Hypervolume.exclusive(Point.toArray(current, m), current.size(), m, current.size() - 1, reference);
+                }
+            hv = Math.max(0.0, hv);
+            }
+        fronts.set(subpopulation, front);
+        frontHypervolumes.set(subpopulation, hv);
+        return hv;
+        }
+    
     /** Compute the hypervolume of the Pareto front induced by a collection of points,
      *  relative to the reference point that was provided to this class's setup() method. */
     public double hypervolume(final ArrayList<Individual> paretoFront)
@@ -85,49 +252,16 @@ public class HypervolumeStatistics extends SimpleStatistics
         return hypervolume(paretoFront, referencePoint);
         }
     
-    /** Compute the hypervolume of the Pareto front induced by a collection of points,
+    /** Compute the exact hypervolume of the Pareto front induced by a collection of points,
      *  relative to the provided reference point. */
     public static double hypervolume(final ArrayList<Individual> paretoFront, final double[] referencePoint)
         {
         assert(paretoFront != null);
-        double exclusiveSum = 0.0;
-        for (int i = 0; i < paretoFront.size(); i++)
-            exclusiveSum += exclusiveHypervolume(paretoFront, i, referencePoint);
-        return exclusiveSum;
-        }
-    
-    /** Compute the exclusive hypervolume of the indIDth element of a collection 
-     * of points against the elements whose ID is greater than indID.
-     * 
-     * Note that this does not compute the exclusive hypervolume with respect to
-     * *every* other element in the collection, but only the elements that follow
-     * indID!
-     */
-    private static double exclusiveHypervolume(final ArrayList<Individual> paretoFront, final int indID, final double[] referencePoint)
-        {
-        assert(paretoFront != null);
-        assert(indID >= 0);
-        assert(indID < paretoFront.size());
-        
-        final Individual ind = paretoFront.get(indID);
-        if (!(ind.fitness instanceof MultiObjectiveFitness))
-            throw new IllegalStateException(String.format("%s: found an individual with a %s.  Hypervolume can only be computed for %s.", HypervolumeStatistics.class.getSimpleName(), ind.fitness.getClass().getSimpleName(), MultiObjectiveFitness.class.getSimpleName()));
-        
-        final MultiObjectiveFitness indFitness = (MultiObjectiveFitness) ind.fitness;
-        final MultiObjectiveFitness refFitness = (MultiObjectiveFitness) ind.fitness.clone();
-        refFitness.objectives = referencePoint;
-        
-        if (!indFitness.paretoDominates(refFitness))
-            throw new IllegalStateException(String.format("%s: found an individual (fitness: %s) that does not dominate the reference point (%s).  Cowardly refusing to compute a negative hypervolume contribution for this individual.  You probably need to choosing a different reference pointor check the maximization/minimization setting for the objectives.", HypervolumeStatistics.class.getSimpleName(), Arrays.toString(indFitness.objectives), Arrays.toString(referencePoint)));
-        
-        final ArrayList<Individual> limitSet = limitSet(paretoFront, indID, referencePoint);
-        final double ihv = inclusiveHypervolume(ind, referencePoint);
-        assert(ihv >= 0);
-        final double result = limitSet.isEmpty() ?
-            ihv :
-            ihv - hypervolume(MultiObjectiveFitness.partitionIntoParetoFront(limitSet, null, null), referencePoint);
-        assert(result >= 0);
-        return result;
+        if (paretoFront.isEmpty())
+            return 0.0;
+        final double[] points = Hypervolume.points(paretoFront, referencePoint);
+        final double[] reference = Hypervolume.reference((MultiObjectiveFitness)(paretoFront.get(0).fitness), referencePoint);
+        return Hypervolume.exact(points, paretoFront.size(), referencePoint.length, reference);
         }
     
     /** Compute the hypervolume covered by a single individual,
@@ -152,42 +286,6 @@ public class HypervolumeStatistics extends SimpleStatistics
         return product;
         }
     
-    /** Compute a set of points that define the boundary of the *intersection* 
-     * between an individual's inclusive hypervolume and the area dominated by
-     * all the points in the front that follow indID (i.e. that have an index 
-     * greater than indID). */
-    private static ArrayList<Individual> limitSet(final ArrayList<Individual> paretoFront, final int indID, final double[] referencePoint)
-        {
-        assert(paretoFront != null);
-        assert(indID >= 0);
-        assert(indID < paretoFront.size());
-        
-        final Individual contributingPoint = paretoFront.get(indID);
-        assert(contributingPoint != null);
-        assert(contributingPoint.fitness instanceof MultiObjectiveFitness);
-        final MultiObjectiveFitness contributingFitness = (MultiObjectiveFitness) contributingPoint.fitness;
-        if (contributingFitness.objectives.length != referencePoint.length)
-            throw new IllegalStateException(String.format("%s: %s has %d dimensions, but we encountered an individual with an %d-dimensional fitness.", HypervolumeStatistics.class.getSimpleName(), P_REFERENCE_POINT, referencePoint.length, contributingFitness.objectives.length));
-
-        final ArrayList<Individual> set = new ArrayList<Individual>(paretoFront.size());
-        for (int i = indID + 1; i < paretoFront.size(); i++)
-            {
-            final MultiObjectiveFitness refFitness = (MultiObjectiveFitness) paretoFront.get(i).fitness;
-            final double[] newPoint = new double[referencePoint.length];
-            for (int j = 0; j < newPoint.length; j++)
-                {
-                newPoint[j] = contributingFitness.isMaximizing(j) ? 
-                    Math.min(contributingFitness.getObjective(j), refFitness.getObjective(j)) :
-                    Math.max(contributingFitness.getObjective(j), refFitness.getObjective(j));
-                }
-            final Individual newPointInd = (Individual) contributingPoint.clone();
-            newPointInd.fitness = (MultiObjectiveFitness) contributingFitness.clone();
-            ((MultiObjectiveFitness)newPointInd.fitness).objectives = newPoint;
-            set.add(newPointInd);
-            }
-        return set;
-        }
-
     /** Logs the best individual of the run. */
     @Override
     public void finalStatistics(final EvolutionState state, final int result)
@@ -200,9 +298,34 @@ public class HypervolumeStatistics extends SimpleStatistics
         for (int s = 0; s < state.population.subpops.size(); s++)
             {
             ArrayList<Individual> paretoFront = MultiObjectiveFitness.partitionIntoParetoFront(state.population.subpops.get(s).individuals, null, null);
-            final double hv = hypervolume(paretoFront, referencePoint);
+            final double hv = hypervolume(state, s, paretoFront);
             state.output.println(", " + hv, statisticslog);
             }
         state.output.print("\n", statisticslog);
         }
+    
+    // The objectives of a point on a front, compared by value so we can find it again in the next generation
+    static class Point implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+        final double[] values;
+        
+        Point(final double[] values) { this.values = values; }
+        
+        public int hashCode() { return Arrays.hashCode(values); }
+        
+        public boolean equals(final Object other)
+            {
+            return (other instanceof Point) && Arrays.equals(values, ((Point)other).values);
+            }
+        
+        static double[] toArray(final Collection<Point> points, final int m)
+            {
+            final double[] array = new double[points.size() * m];
+            int i = 0;
+            for(Point p : points)
+                System.arraycopy(p.values, 0, array, (i++) * m, m);
+            return array;
+            }
+        }
     }
@@ -0,0 +1,624 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.multiobjective;
+
+import ec.*;
+import ec.util.*;
+import java.util.*;
+
+/**
+ * NonDominatedSorting divides a population into Pareto front ranks (rank 0 is the
+ * nondominated front, rank 1 is the front of everyone else, and so on), as is done by
+ * MultiObjectiveFitness.partitionIntoRanks(...), but far faster for large populations.
+ * The population's objectives are first copied into a single array of doubles, and all
+ * the work is done on that array.  Four algorithms are provided:
+ *
+ * <dl>
+ * <dt><tt>deb</tt><dd>Deb's fast non-dominated sort (Deb et al. 2002), which compares every pair
+ * of individuals once, then peels off fronts.  O(MN<sup>2</sup>) time and O(N<sup>2</sup>) bits of
+ * memory.  This is the only algorithm which can use more than one thread.
+ * <dt><tt>ens-ss</tt><dd>Efficient non-dominated sort with sequential search (Zhang et al. 2015).
+ * Individuals are sorted lexicographically, then each one is placed into the first front with nobody
+ * who dominates it, searching the fronts in order.  O(MN<sup>2</sup>) worst case, but usually much faster
+ * when there are few fronts.
+ * <dt><tt>ens-bs</tt><dd>The same, but with binary search among the fronts.  Usually faster when
+ * there are many fronts.
+ * <dt><tt>divide-and-conquer</tt><dd>Jensen's divide-and-conquer algorithm, as generalized by
+ * Buzdalov and Shalyto (2014) to handle equal objective values.  O(N log<sup>M-1</sup> N).  The
+ * best choice for very large populations, but its advantage shrinks as the number of objectives grows.
+ * </dl>
+ *
+ * <p>All algorithms compute the same ranks.  Individuals with identical objectives do not
+ * dominate one another, so they always share a rank.
+ */
+
+public class NonDominatedSorting
+    {
+    public static final int SORT_DEB = 0;
+    public static final int SORT_ENS_SS = 1;
+    public static final int SORT_ENS_BS = 2;
+    public static final int SORT_DIVIDE_AND_CONQUER = 3;
+    /** Names of the algorithms, indexed by the SORT_ constants. */
+    public static final String[] SORT_NAMES = { "deb", "ens-ss", "ens-bs", "divide-and-conquer" };
+    /** The algorithm used by MultiObjectiveFitness.partitionIntoRanks(...) */
+    public static final int SORT_DEFAULT = SORT_ENS_BS;
+
+    /** Returns the SORT_ constant for the given algorithm name, or -1 if there is none. */
+    public static int algorithm(String name)
+        {
+        for(int i = 0; i < SORT_NAMES.length; i++)
+            if (SORT_NAMES[i].equalsIgnoreCase(name))
+                return i;
+        return -1;
+        }
+
+    /** Copies the objectives of the given individuals, whose fitnesses must all be MultiObjectiveFitness
+        with the same number of objectives, into a single array: objective <i>o</i> of individual <i>i</i>
+        is stored at position <tt>i * numObjectives + o</tt>.  Objectives which are maximized are negated, so
+        in the array lower values are always better. */
+    public static double[] objectiveMatrix(ArrayList<Individual> inds)
+        {
+        if (inds.size() == 0) return new double[0];
+        MultiObjectiveFitness first = (MultiObjectiveFitness)(inds.get(0).fitness);
+        int m = first.getNumObjectives();
+        double[] objectives = new double[inds.size() * m];
+        for(int i = 0; i < inds.size(); i++)
+            {
+            MultiObjectiveFitness f = (MultiObjectiveFitness)(inds.get(i).fitness);
+            double[] o = f.getObjectives();
+            if (o.length != m)
+                throw new RuntimeException("Attempt made to compare two multiobjective fitnesses; but they have different numbers of objectives.");
+            for(int x = 0; x < m; x++)
+                {
+                if (f.maximize[x] != first.maximize[x])  // uh oh
+                    throw new RuntimeException(
+                        "Attempt made to compare two multiobjective fitnesses; but for objective #" + x +
+                        ", one expects higher values to be better and the other expectes lower values to be better.");
+                objectives[i * m + x] = (f.maximize[x] ? 0.0 - o[x] : o[x]);
+                }
+            }
+        return objectives;
+        }
+
+    /** Divides inds into pareto front ranks (each an ArrayList), and returns them, in order,
+        stored in an ArrayList.  Within each rank, individuals appear in the same order as in inds.
+        If the algorithm is SORT_DEB and threads is greater than 1, the pool is used to compare
+        individuals in parallel. */
+    public static ArrayList<ArrayList<Individual>> partitionIntoRanks(ArrayList<Individual> inds, int algorithm, ThreadPool pool, int threads)
+        {
+        ArrayList<ArrayList<Individual>> frontsByRank = new ArrayList<ArrayList<Individual>>();
+        if (inds.size() == 0) return frontsByRank;
+
+        int m = ((MultiObjectiveFitness)(inds.get(0).fitness)).getNumObjectives();
+        int[] ranks = rank(objectiveMatrix(inds), inds.size(), m, algorithm, pool, threads);
+        for(int i = 0; i < ranks.length; i++)
+            {
+            while (frontsByRank.size() <= ranks[i])
+                frontsByRank.add(new ArrayList<Individual>());
+            frontsByRank.get(ranks[i]).add(inds.get(i));
+            }
+        return frontsByRank;
+        }
+
+    /** Returns the rank of each of the <i>n</i> individuals in the given objective matrix, which has <i>m</i>
+        objectives per individual and lower values are better, as produced by objectiveMatrix(...). */
+    public static int[] rank(double[] objectives, int n, int m, int algorithm, ThreadPool pool, int threads)
+        {
+        switch(algorithm)
+            {
+            case SORT_DEB:
+                return deb(objectives, n, m, pool, threads);
+            case SORT_ENS_SS:
+                return ens(objectives, n, m, false);
+            case SORT_ENS_BS:
+                return ens(objectives, n, m, true);
+            case SORT_DIVIDE_AND_CONQUER:
+                return divideAndConquer(objectives, n, m);
+            default:
+                throw new IllegalArgumentException("Invalid non-dominated sorting algorithm " + algorithm);
+            }
+        }
+
+
+
+    ///// DOMINANCE
+
+
+    /** Returns true if individual a dominates individual b. */
+    static boolean dominates(final double[] obj, final int a, final int b, final int m)
+        {
+        boolean better = false;
+        final int ia = a * m;
+        final int ib = b * m;
+        for(int x = 0; x < m; x++)
+            {
+            if (obj[ia + x] < obj[ib + x])
+                better = true;
+            else if (obj[ia + x] > obj[ib + x])
+                return false;
+            }
+        return better;
+        }
+
+    /** Returns 1 if individual a dominates individual b, -1 if b dominates a, else 0. */
+    static int dominance(final double[] obj, final int a, final int b, final int m)
+        {
+        boolean aBetter = false;
+        boolean bBetter = false;
+        final int ia = a * m;
+        final int ib = b * m;
+        for(int x = 0; x < m; x++)
+            {
+            if (obj[ia + x] < obj[ib + x])
+                {
+                aBetter = true;
+                if (bBetter) return 0;
+                }
+            else if (obj[ia + x] > obj[ib + x])
+                {
+                bBetter = true;
+                if (aBetter) return 0;
+                }
+            }
+        return (aBetter ? 1 : (bBetter ? -1 : 0));
+        }
+
+    /** Compares individuals a and b lexicographically. */
+    static int compare(final double[] obj, final int a, final int b, final int m)
+        {
+        final int ia = a * m;
+        final int ib = b * m;
+        for(int x = 0; x < m; x++)
+            {
+            if (obj[ia + x] < obj[ib + x]) return -1;
+            else if (obj[ia + x] > obj[ib + x]) return 1;
+            }
+        return 0;
+        }
+
+    /** Returns the indices of the individuals, sorted lexicographically by their objectives. */
+    static int[] lexicographicOrder(final double[] obj, final int n, final int m)
+        {
+        int[] order = new int[n];
+        for(int i = 0; i < n; i++)
+            order[i] = i;
+        QuickSort.qsort(order, new SortComparatorL()
+            {
+            public boolean lt(long a, long b) { return compare(obj, (int)a, (int)b, m) < 0; }
+            public boolean gt(long a, long b) { return compare(obj, (int)a, (int)b, m) > 0; }
+            });
+        return order;
+        }
+
+
+
+    ///// DEB'S FAST NON-DOMINATED SORT
+
+
+    /** Deb's fast non-dominated sort.  Uses the pool if threads is greater than 1. */
+    public static int[] deb(final double[] obj, final int n, final int m, ThreadPool pool, int threads)
+        {
+        final int words = (n + 63) >>> 6;
+        final long[] dominated = new long[n * words];      // bit j of row i is set if i dominates j
+        final int[] count = new int[n];                     // how many individuals dominate i
+
+        if (threads <= 1 || n < threads)
+            {
+            // each pair is compared once
+            for(int i = 0; i < n; i++)
+                for(int j = i + 1; j < n; j++)
+                    {
+                    int d = dominance(obj, i, j, m);
+                    if (d > 0) { dominated[i * words + (j >>> 6)] |= (1L << j); count[j]++; }
+                    else if (d < 0) { dominated[j * words + (i >>> 6)] |= (1L << i); count[i]++; }
+                    }
+            }
+        else
+            {
+            // each thread fills its own rows, so each pair is compared twice
+            if (pool == null) pool = new ThreadPool();
+            for(int t = 0; t < threads; t++)
+                {
+                final int from = (int)((long)n * t / threads);
+                final int to = (int)((long)n * (t + 1) / threads);
+                pool.start(new Runnable()
+                    {
+                    public void run()
+                        {
+                        for(int i = from; i < to; i++)
+                            for(int j = 0; j < n; j++)
+                                {
+                                int d = dominance(obj, i, j, m);
+                                if (d > 0) dominated[i * words + (j >>> 6)] |= (1L << j);
+                                else if (d < 0) count[i]++;
+                                }
+                        }
+                    }, "ECJ Sorting Thread " + t);
+                }
+            pool.joinAll();
+            }
+
+        // peel off the fronts
+        int[] rank = new int[n];
+        int[] front = new int[n];
+        int[] next = new int[n];
+        int size = 0;
+        for(int i = 0; i < n; i++)
+            if (count[i] == 0)
+                front[size++] = i;
+        for(int r = 1; size > 0; r++)
+            {
+            int nextSize = 0;
+            for(int f = 0; f < size; f++)
+                {
+                int row = front[f] * words;
+                for(int w = 0; w < words; w++)
+                    {
+                    long bits = dominated[row + w];
+                    while (bits != 0)
+                        {
+                        int q = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        if (--count[q] == 0)
+                            {
+                            rank[q] = r;
+                            next[nextSize++] = q;
+                            }
+                        }
+                    }
+                }
+            int[] tmp = front; front = next; next = tmp;
+            size = nextSize;
+            }
+        return rank;
+        }
+
+
+
+    ///// EFFICIENT NON-DOMINATED SORT
+
+
+    /** Efficient non-dominated sort, with binary search if binarySearch is true, else sequential search. */
+    public static int[] ens(final double[] obj, final int n, final int m, boolean binarySearch)
+        {
+        int[] order = lexicographicOrder(obj, n, m);
+        int[] rank = new int[n];
+        int[][] fronts = new int[0][];
+        int[] frontSizes = new int[0];
+        int numFronts = 0;
+
+        for(int i = 0; i < n; i++)
+            {
+            int s = order[i];
+            // Because of the lexicographic order, only individuals already in the
+            // fronts can dominate s.
+            int k;
+            if (binarySearch)
+                {
+                int lo = 0;
+                int hi = numFronts;
+                while (lo < hi)
+                    {
+                    int mid = (lo + hi) >>> 1;
+                    if (dominated(obj, fronts[mid], frontSizes[mid], s, m))
+                        lo = mid + 1;
+                    else hi = mid;
+                    }
+                k = lo;
+                }
+            else
+                {
+                k = 0;
+                while (k < numFronts && dominated(obj, fronts[k], frontSizes[k], s, m))
+                    k++;
+                }
+
+            if (k == numFronts)
+                {
+                if (numFronts == fronts.length)
+                    {
+                    fronts = Arrays.copyOf(fronts, numFronts * 2 + 1);
+                    frontSizes = Arrays.copyOf(frontSizes, numFronts * 2 + 1);
+                    }
+                fronts[numFronts] = new int[4];
+                numFronts++;
+                }
+            if (frontSizes[k] == fronts[k].length)
+                fronts[k] = Arrays.copyOf(fronts[k], frontSizes[k] * 2);
+            fronts[k][frontSizes[k]++] = s;
+            rank[s] = k;
+            }
+        return rank;
+        }
+
+    /** Returns true if any of the first <i>size</i> members of <i>front</i> dominate s.  The most recently added
+        members are lexicographically closest to s, so they are checked first. */
+    static boolean dominated(final double[] obj, final int[] front, final int size, final int s, final int m)
+        {
+        for(int i = size - 1; i >= 0; i--)
+            if (dominates(obj, front[i], s, m))
+                return true;
+        return false;
+        }
+
+
+
+    ///// DIVIDE AND CONQUER
+
+
+    /** Jensen's divide-and-conquer non-dominated sort, in the generalized form of Buzdalov and Shalyto. */
+    public static int[] divideAndConquer(final double[] obj, final int n, final int m)
+        {
+        int[] order = lexicographicOrder(obj, n, m);
+
+        // individuals with identical objectives share a rank, so we only sort one of them
+        int[] unique = new int[n];
+        int[] representative = new int[n];
+        int numUnique = 0;
+        for(int i = 0; i < n; i++)
+            {
+            int s = order[i];
+            if (i > 0 && compare(obj, s, order[i - 1], m) == 0)
+                representative[s] = representative[order[i - 1]];
+            else
+                {
+                unique[numUnique++] = s;
+                representative[s] = s;
+                }
+            }
+
+        int[] rank = new int[n];
+        if (m == 1)
+            {
+            for(int i = 0; i < numUnique; i++)
+                rank[unique[i]] = i;
+            }
+        else new DivideAndConquer(obj, m, rank).helperA(Arrays.copyOf(unique, numUnique), m - 1);
+
+        for(int i = 0; i < n; i++)
+            rank[i] = rank[representative[i]];
+        return rank;
+        }
+
+    /*
+      The recursion works on arrays of individuals with distinct objectives, each array always
+      sorted lexicographically.  helperA(S, k) ranks S, given that for any a before b in S, a
+      dominates b if and only if a <= b on objectives 0...k.  helperB(L, H, k) raises the ranks
+      of the individuals in H to account for those in L, whose ranks are final, given that
+      l dominates h if and only if l <= h on objectives 0...k.  Each splits its individuals
+      on the median of objective k, and recurses on the parts.  Two objectives are
+      handled directly with a sweep.
+    */
+    static class DivideAndConquer
+        {
+        // below this, helperA and helperB just compare everyone with everyone
+        static final int BRUTE_FORCE = 16;
+
+        final double[] obj;
+        final int m;
+        final int[] rank;
+
+        DivideAndConquer(double[] obj, int m, int[] rank)
+            {
+            this.obj = obj;
+            this.m = m;
+            this.rank = rank;
+            }
+
+        double get(int s, int k) { return obj[s * m + k]; }
+
+        boolean weaklyDominates(int a, int b, int k)
+            {
+            final int ia = a * m;
+            final int ib = b * m;
+            for(int x = 0; x <= k; x++)
+                if (obj[ia + x] > obj[ib + x])
+                    return false;
+            return true;
+            }
+
+        void update(int target, int source)
+            {
+            if (rank[target] <= rank[source])
+                rank[target] = rank[source] + 1;
+            }
+
+        double median(int[] s, int k)
+            {
+            double[] values = new double[s.length];
+            for(int i = 0; i < s.length; i++)
+                values[i] = get(s[i], k);
+            Arrays.sort(values);
+            return values[values.length / 2];
+            }
+
+        double median(int[] l, int[] h, int k)
+            {
+            double[] values = new double[l.length + h.length];
+            for(int i = 0; i < l.length; i++)
+                values[i] = get(l[i], k);
+            for(int i = 0; i < h.length; i++)
+                values[l.length + i] = get(h[i], k);
+            Arrays.sort(values);
+            return values[values.length / 2];
+            }
+
+        // returns the members of s whose objective k is >= low (if lowInclusive, else >) and <= high (if highInclusive, else <)
+        int[] filter(int[] s, int k, double low, boolean lowInclusive, double high, boolean highInclusive)
+            {
+            int count = 0;
+            int[] result = new int[s.length];
+            for(int i = 0; i < s.length; i++)
+                {
+                double v = get(s[i], k);
+                if ((lowInclusive ? v >= low : v > low) && (highInclusive ? v <= high : v < high))
+                    result[count++] = s[i];
+                }
+            return Arrays.copyOf(result, count);
+            }
+
+        void helperA(int[] s, int k)
+            {
+            if (s.length < 2) return;
+            if (s.length <= BRUTE_FORCE)
+                {
+                for(int j = 1; j < s.length; j++)
+                    for(int i = 0; i < j; i++)
+                        if (weaklyDominates(s[i], s[j], k))
+                            update(s[j], s[i]);
+                return;
+                }
+            if (k == 1) { sweepA(s); return; }
+
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for(int i = 0; i < s.length; i++)
+                {
+                double v = get(s[i], k);
+                if (v < min) min = v;
+                if (v > max) max = v;
+                }
+            if (min == max) { helperA(s, k - 1); return; }
+
+            double med = median(s, k);
+            int[] low = filter(s, k, Double.NEGATIVE_INFINITY, true, med, false);
+            int[] middle = filter(s, k, med, true, med, true);
+            int[] lowAndMiddle = filter(s, k, Double.NEGATIVE_INFINITY, true, med, true);
+            int[] high = filter(s, k, med, false, Double.POSITIVE_INFINITY, true);
+            helperA(low, k);
+            helperB(low, middle, k - 1);
+            helperA(middle, k - 1);
+            helperB(lowAndMiddle, high, k - 1);
+            helperA(high, k);
+            }
+
+        void helperB(int[] l, int[] h, int k)
+            {
+            if (l.length == 0 || h.length == 0) return;
+            if (l.length * (long)h.length <= BRUTE_FORCE * BRUTE_FORCE)
+                {
+                for(int j = 0; j < h.length; j++)
+                    for(int i = 0; i < l.length; i++)
+                        if (weaklyDominates(l[i], h[j], k))
+                            update(h[j], l[i]);
+                return;
+                }
+            if (k == 1) { sweepB(l, h); return; }
+
+            double lmin = Double.POSITIVE_INFINITY;
+            double lmax = Double.NEGATIVE_INFINITY;
+            for(int i = 0; i < l.length; i++)
+                {
+                double v = get(l[i], k);
+                if (v < lmin) lmin = v;
+                if (v > lmax) lmax = v;
+                }
+            double hmin = Double.POSITIVE_INFINITY;
+            double hmax = Double.NEGATIVE_INFINITY;
+            for(int i = 0; i < h.length; i++)
+                {
+                double v = get(h[i], k);
+                if (v < hmin) hmin = v;
+                if (v > hmax) hmax = v;
+                }
+            if (lmax <= hmin) { helperB(l, h, k - 1); return; }
+            if (lmin > hmax) return;
+
+            double med = median(l, h, k);
+            helperB(filter(l, k, Double.NEGATIVE_INFINITY, true, med, false), filter(h, k, Double.NEGATIVE_INFINITY, true, med, false), k);
+            helperB(filter(l, k, Double.NEGATIVE_INFINITY, true, med, true), filter(h, k, med, true, Double.POSITIVE_INFINITY, true), k - 1);
+            helperB(filter(l, k, med, false, Double.POSITIVE_INFINITY, true), filter(h, k, med, false, Double.POSITIVE_INFINITY, true), k);
+            }
+
+        // returns the number of values in sorted[0...length-1] which are <= v
+        static int countAtMost(double[] sorted, int length, double v)
+            {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi)
+                {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] <= v) lo = mid + 1;
+                else hi = mid;
+                }
+            return lo;
+            }
+
+        // sorts and removes duplicates from the objective 1 values of s, returning how many remain
+        int objective1Values(int[] s, double[] values)
+            {
+            for(int i = 0; i < s.length; i++)
+                values[i] = get(s[i], 1);
+            Arrays.sort(values, 0, s.length);
+            int count = 0;
+            for(int i = 0; i < s.length; i++)
+                if (count == 0 || values[count - 1] != values[i])
+                    values[count++] = values[i];
+            return count;
+            }
+
+        // two-objective helperA.  s is sorted by objective 0 then objective 1.  A Fenwick tree over the
+        // objective 1 values holds the maximum rank of the individuals seen so far.
+        void sweepA(int[] s)
+            {
+            double[] values = new double[s.length];
+            int numValues = objective1Values(s, values);
+            int[] tree = new int[numValues + 1];
+            Arrays.fill(tree, -1);
+            for(int i = 0; i < s.length; i++)
+                {
+                int pos = countAtMost(values, numValues, get(s[i], 1));
+                int best = query(tree, pos);
+                if (best >= 0 && rank[s[i]] <= best)
+                    rank[s[i]] = best + 1;
+                insert(tree, pos, rank[s[i]]);
+                }
+            }
+
+        // two-objective helperB.  Merges l and h by objective 0 then objective 1, l first on ties,
+        // adding l to a Fenwick tree over its objective 1 values and querying it for h.
+        void sweepB(int[] l, int[] h)
+            {
+            double[] values = new double[l.length];
+            int numValues = objective1Values(l, values);
+            int[] tree = new int[numValues + 1];
+            Arrays.fill(tree, -1);
+            int i = 0;
+            for(int j = 0; j < h.length; j++)
+                {
+                double h0 = get(h[j], 0);
+                double h1 = get(h[j], 1);
+                while (i < l.length && (get(l[i], 0) < h0 || (get(l[i], 0) == h0 && get(l[i], 1) <= h1)))
+                    {
+                    insert(tree, countAtMost(values, numValues, get(l[i], 1)), rank[l[i]]);
+                    i++;
+                    }
+                int best = query(tree, countAtMost(values, numValues, h1));
+                if (best >= 0 && rank[h[j]] <= best)
+                    rank[h[j]] = best + 1;
+                }
+            }
+
+        // sets position pos (1-based) to at least value
+        static void insert(int[] tree, int pos, int value)
+            {
+            for(; pos < tree.length; pos += pos & (-pos))
+                if (tree[pos] < value)
+                    tree[pos] = value;
+            }
+
+        // returns the maximum value at positions 1...pos, or -1 if there is none
+        static int query(int[] tree, int pos)
+            {
+            int best = -1;
+            for(; pos > 0; pos -= pos & (-pos))
+                if (tree[pos] > best)
+                    best = tree[pos];
+            return best;
+            }
+        }
+    }
@@ -0,0 +1,101 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.multiobjective;
+
+import ec.*;
+import ec.util.*;
+import ec.vector.*;
+import java.util.*;
+
+/**
+ * NonDominatedSortingBenchmark times each of the NonDominatedSorting algorithms on random
+ * populations of various sizes (N) and numbers of objectives (M), alongside the original
+ * approach of peeling off one Pareto front at a time with
+ * MultiObjectiveFitness.partitionIntoParetoFront(...), which is only run for N up to 5000 because
+ * it is so slow.  Objectives are uniformly random doubles, and times include building
+ * the objective matrix.  It also reports whether every algorithm computed the same ranks.
+ *
+ * <p>Usage: <tt>java ec.multiobjective.NonDominatedSortingBenchmark [threads]</tt>
+ *
+ * <p>The number of threads, used by the parallel version of <tt>deb</tt>, defaults to the
+ * number of available processors.
+ */
+
+public class NonDominatedSortingBenchmark
+    {
+    public static final int[] SIZES = { 1000, 5000, 20000 };
+    public static final int[] OBJECTIVES = { 2, 3, 5, 10 };
+    public static final int MAX_PEEL_SIZE = 5000;
+
+    public static void main(String[] args)
+        {
+        int threads = (args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors());
+        ThreadPool pool = new ThreadPool();
+        MersenneTwisterFast random = new MersenneTwisterFast(1);
+
+        System.out.print("N\tM\tpeel (ms)");
+        for(int a = 0; a < NonDominatedSorting.SORT_NAMES.length; a++)
+            System.out.print("\t" + NonDominatedSorting.SORT_NAMES[a] + " (ms)");
+        System.out.println("\tdeb, " + threads + " threads (ms)\tagree");
+
+        for(int s = 0; s < SIZES.length; s++)
+            for(int o = 0; o < OBJECTIVES.length; o++)
+                {
+                int n = SIZES[s];
+                int m = OBJECTIVES[o];
+                ArrayList<Individual> inds = population(random, n, m);
+                System.out.print(n + "\t" + m + "\t");
+
+                if (n <= MAX_PEEL_SIZE)
+                    {
+                    long start = System.nanoTime();
+                    ArrayList<Individual> remainder = inds;
+                    while(remainder.size() > 0)
+                        {
+                        ArrayList<Individual> nonFront = new ArrayList<Individual>();
+                        MultiObjectiveFitness.partitionIntoParetoFront(remainder, null, nonFront);
+                        remainder = nonFront;
+                        }
+                    System.out.print((System.nanoTime() - start) / 1000000);
+                    }
+                else System.out.print("-");
+
+                int[] expected = null;
+                boolean agree = true;
+                for(int a = 0; a <= NonDominatedSorting.SORT_NAMES.length; a++)
+                    {
+                    long start = System.nanoTime();
+                    int[] ranks = (a < NonDominatedSorting.SORT_NAMES.length ?
+                        NonDominatedSorting.rank(NonDominatedSorting.objectiveMatrix(inds), n, m, a, null, 1) :
+                        NonDominatedSorting.rank(NonDominatedSorting.objectiveMatrix(inds), n, m, NonDominatedSorting.SORT_DEB, pool, threads));
+                    System.out.print("\t" + (System.nanoTime() - start) / 1000000);
+                    if (expected == null) expected = ranks;
+                    else agree = agree && Arrays.equals(expected, ranks);
+                    }
+                System.out.println("\t" + agree);
+                }
+        pool.killAll();
+        }
+
+    static ArrayList<Individual> population(MersenneTwisterFast random, int n, int m)
+        {
+        boolean[] maximize = new boolean[m];
+        ArrayList<Individual> inds = new ArrayList<Individual>();
+        for(int i = 0; i < n; i++)
+            {
+            DoubleVectorIndividual ind = new DoubleVectorIndividual();
+            MultiObjectiveFitness fitness = new MultiObjectiveFitness();
+            fitness.objectives = new double[m];
+            for(int x = 0; x < m; x++)
+                fitness.objectives[x] = random.nextDouble();
+            fitness.maximize = maximize;
+            ind.fitness = fitness;
+            inds.add(ind);
+            }
+        return inds;
+        }
+    }
@@ -27,6 +27,20 @@ import ec.multiobjective.*;
  * <p>NSGA-II has fixed archive size (the population size), and so ignores the 'elites'
  * declaration.  However it will adhere to the 'reevaluate-elites' parameter in SimpleBreeder
  * to determine whether to force fitness reevaluation.
+ *
+ * <p>The population is divided into Pareto front ranks using one of the algorithms in
+ * ec.multiobjective.NonDominatedSorting, by default <tt>ens-bs</tt>.  The <tt>deb</tt>
+ * algorithm can also be spread over several threads.
+
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><i>base</i>.<tt>sort</tt><br>
+ <font size=-1>String, one of: deb, ens-ss, ens-bs (default), or divide-and-conquer</font></td>
+ <td valign=top>(the non-dominated sorting algorithm)</td></tr>
+ <tr><td valign=top><i>base</i>.<tt>sort-threads</tt><br>
+ <font size=-1>int &gt;= 1 (default 1)</font></td>
+ <td valign=top>(the number of threads used by the deb algorithm)</td></tr>
+ </table>
 
  */
 
@@ -34,6 +48,14 @@ public class NSGA2Breeder extends SimpleBreeder
     {
     private static final long serialVersionUID = 1;
 
+    public static final String P_SORT = "sort";
+    public static final String P_SORT_THREADS = "sort-threads";
+
+    /** The non-dominated sorting algorithm, one of the NonDominatedSorting.SORT_ constants */
+    public int sort = NonDominatedSorting.SORT_DEFAULT;
+    /** The number of threads for non-dominated sorting */
+    public int sortThreads = 1;
+
     /** We use a state variable to make sure that the nextSubpopulationSize() method
      * is only called at the appropriate time.
      */
@@ -56,6 +78,15 @@ public class NSGA2Breeder extends SimpleBreeder
         if (!clonePipelineAndPopulation)
             state.output.fatal(P_CLONE_PIPELINE_AND_POPULATION + " must be true for " + this.getClass().getSimpleName());
         
+        String s = state.parameters.getStringWithDefault(base.push(P_SORT), null, NonDominatedSorting.SORT_NAMES[NonDominatedSorting.SORT_DEFAULT]);
+        sort = NonDominatedSorting.algorithm(s);
+        if (sort < 0)
+            state.output.fatal("Unknown non-dominated sorting algorithm: " + s, base.push(P_SORT));
+
+        sortThreads = state.parameters.getIntWithDefault(base.push(P_SORT_THREADS), null, 1);
+        if (sortThreads < 1)
+            state.output.fatal("The number of sorting threads must be >= 1", base.push(P_SORT_THREADS));
+        
         breedingState = BreedingState.BREEDING_COMPLETE;
         }
 
@@ -187,7 +218,7 @@ public class NSGA2Breeder extends SimpleBreeder
     public ArrayList<ArrayList<Individual>> assignFrontRanks(Subpopulation subpop)
         {
         ArrayList<Individual> inds = subpop.individuals;
-        ArrayList<ArrayList<Individual>> frontsByRank = MultiObjectiveFitness.partitionIntoRanks(inds);
+        ArrayList<ArrayList<Individual>> frontsByRank = NonDominatedSorting.partitionIntoRanks(inds, sort, pool, sortThreads);
 
         int numRanks = frontsByRank.size();
         for(int rank = 0; rank < numRanks; rank++)
@@ -27,7 +27,8 @@ import ec.multiobjective.nsga2.*;
  *
  * <p>NSGA-III has fixed archive size (the population size), and so ignores the 'elites'
  * declaration.  However it will adhere to the 'reevaluate-elites' parameter in SimpleBreeder
- * to determine whether to force fitness reevaluation.
+ * to determine whether to force fitness reevaluation.  It sorts the population into ranks
+ * just as NSGA2Breeder does.
 
  */
 
@@ -84,7 +85,7 @@ public class NSGA3Breeder extends NSGA2Breeder
     public ArrayList<ArrayList<Individual>> assignFrontRanks(Subpopulation subpop)
         {
         ArrayList<Individual> inds = subpop.individuals;
-        ArrayList<ArrayList<Individual>> frontsByRank = MultiObjectiveFitness.partitionIntoRanks(inds);
+        ArrayList<ArrayList<Individual>> frontsByRank = NonDominatedSorting.partitionIntoRanks(inds, sort, pool, sortThreads);
 
         int numRanks = frontsByRank.size();
         for(int rank = 0; rank < numRanks; rank++)
@@ -0,0 +1,89 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.multiobjective.spea2;
+
+import ec.*;
+import ec.multiobjective.*;
+import ec.util.*;
+import ec.vector.*;
+import java.util.*;
+
+/**
+ * SPEA2Benchmark times SPEA2Breeder.loadElites(...), which computes the SPEA2 fitnesses of
+ * a population and then builds the archive, on random populations of various sizes (N).
+ * Every individual lies on the same two-objective Pareto front, so the archive, of N/2
+ * individuals, must always be truncated from the whole population.
+ *
+ * <p>Usage: <tt>java ec.multiobjective.spea2.SPEA2Benchmark [threads]</tt>
+ *
+ * <p>The number of breed threads defaults to the number of available processors.
+ */
+
+public class SPEA2Benchmark
+    {
+    public static final int[] SIZES = { 500, 1000, 2500, 5000, 10000 };
+
+    public static void main(String[] args)
+        {
+        int threads = (args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors());
+        System.out.println("N\tArchive\tThreads\tloadElites (ms)");
+        for(int s = 0; s < SIZES.length; s++)
+            {
+            int n = SIZES[s];
+            EvolutionState state = state(n, threads);
+            Population pop = population(state, n);
+            SPEA2Breeder breeder = new SPEA2Breeder();
+            breeder.setup(state, new Parameter("breed"));
+            state.population = pop;
+
+            long start = System.nanoTime();
+            breeder.loadElites(state, pop.emptyClone());
+            System.out.println(n + "\t" + (n / 2) + "\t" + threads + "\t" + ((System.nanoTime() - start) / 1000000));
+            breeder.pool.killAll();
+            }
+        }
+
+    static EvolutionState state(int n, int threads)
+        {
+        EvolutionState state = new EvolutionState();
+        state.breedthreads = threads;
+        state.output = Evolve.buildOutput();
+        state.output.getLog(0).silent = true;
+        state.output.getLog(1).silent = true;
+        state.parameters = new ParameterDatabase();
+        state.parameters.set(new Parameter(Initializer.P_POP).push(Population.P_SIZE), "1");
+        state.parameters.set(new Parameter("breed").push(SPEA2Breeder.P_ELITE).push("0"), "" + (n / 2));
+        state.parameters.set(new Parameter("fitness").push(MultiObjectiveFitness.P_NUMOBJECTIVES), "2");
+        state.random = new MersenneTwisterFast[threads];
+        for(int i = 0; i < threads; i++)
+            state.random[i] = new MersenneTwisterFast(i + 1);
+        return state;
+        }
+
+    // Individuals spread randomly along the front x + y = 1
+    static Population population(EvolutionState state, int n)
+        {
+        SPEA2MultiObjectiveFitness prototype = new SPEA2MultiObjectiveFitness();
+        prototype.setup(state, new Parameter("fitness"));
+        Population pop = new Population();
+        pop.subpops = new ArrayList<Subpopulation>();
+        pop.subpops.add(new Subpopulation());
+        pop.subpops.get(0).individuals = new ArrayList<Individual>();
+        pop.subpops.get(0).species = new FloatVectorSpecies();
+        for(int i = 0; i < n; i++)
+            {
+            DoubleVectorIndividual ind = new DoubleVectorIndividual();
+            ind.genome = new double[] { i };
+            SPEA2MultiObjectiveFitness fitness = (SPEA2MultiObjectiveFitness)(prototype.clone());
+            double x = state.random[0].nextDouble();
+            fitness.setObjectives(state, new double[] { x, 1.0 - x });
+            ind.fitness = fitness;
+            pop.subpops.get(0).individuals.add(ind);
+            }
+        return pop;
+        }
+    }
@@ -23,6 +23,10 @@ import java.util.*;
 /**
  * This subclass of SimpleBreeder overrides the loadElites method to build an archive in the top elites[subpopnum]
  * of each subpopulation.  It computes the sparsity metric, then constructs the archive.
+ *
+ * <p>Computing the fitnesses and truncating an overfull archive both take time quadratic in the size of the
+ * population, and are divided among the breed threads.  Truncation works from a matrix of the distances
+ * between the members of the archive, with each member's neighbors ordered by distance: see truncate(...).
  */
 
 public class SPEA2Breeder extends SimpleBreeder
@@ -192,103 +196,267 @@ public class SPEA2Breeder extends SimpleBreeder
                         
 
         // step 3: if the archive is OVERFULL, iterively remove the most crowded individuals
-        while(archive.size() > archiveSize)
+        if (archive.size() > archiveSize)
+            archive = truncate(state, archive, archiveSize);
+                                                
+        // step 4: put archive into the new individuals
+        newInds.addAll(archive);
+        }
+
+
+    /** Returns the archive with its most crowded individuals removed, one by one, until only archiveSize remain.
+        The most crowded individual is the one whose distance to its nearest neighbor in what remains of the archive
+        is smallest, with ties broken by the distance to its second nearest neighbor, and so on.  We compute the
+        distances between all archive members once (in parallel across the breed threads), and order each member's
+        neighbors by distance, lazily: see Neighbors.  Thereafter removed neighbors are skipped: each member keeps
+        track of where its nearest remaining neighbor is in its order, and only the members whose nearest neighbor
+        is at the smallest distance need to be compared further.  This takes at most O(N^2 log N) time and O(N^2)
+        space, for an archive of N members before truncation. */
+    ArrayList<Individual> truncate(final EvolutionState state, final ArrayList<Individual> archive, final int archiveSize)
+        {
+        final int n = archive.size();
+        final SPEA2MultiObjectiveFitness[] fitnesses = new SPEA2MultiObjectiveFitness[n];
+        for(int i = 0; i < n; i++)
+            fitnesses[i] = (SPEA2MultiObjectiveFitness)(archive.get(i).fitness);
+        
+        final Neighbors neighbors = new Neighbors(n);
+        parallel(state, n, new Rows()
             {
-            Individual closest = (Individual)(archive.get(0));
-            int closestIndex = 0;
-            double[] closestD = calculateDistancesFromIndividual(closest, archive);
-                        
-            for(int i = 1; i < archive.size(); i++)
+            public void run(int from, int to, int thread)
                 {
-                Individual competitor = (Individual)(archive.get(i));
-                double[] competitorD = calculateDistancesFromIndividual(competitor, archive);
-                                
-                for(int k = 0; k < archive.size(); k++)
+                for(int i = from; i < to; i++)
                     {
-                    if (closestD[i] > competitorD[i])
-                        { closest = competitor ; closestD = competitorD;  closestIndex = k; break; }
-                    else if (closestD[i] < competitorD[i])
-                        { break; }
+                    for(int j = 0; j < n; j++)
+                        neighbors.distances[i * n + j] = fitnesses[i].sumSquaredObjectiveDistance(fitnesses[j], normalize);
+                    neighbors.order(i);
                     }
                 }
+            });
+        
+        final boolean[] removed = new boolean[n];
+        final int[] head = new int[n];          // the position in each member's order of its nearest neighbor not yet removed
+        final int[] candidates = new int[n];
+        for(int alive = n; alive > archiveSize; alive--)
+            {
+            // find the members whose nearest neighbor is nearest
+            double best = Double.POSITIVE_INFINITY;
+            int numCandidates = 0;
+            for(int i = 0; i < n; i++)
+                {
+                if (removed[i]) continue;
+                int j;
+                while((j = neighbors.get(i, head[i])) >= 0 && removed[j])
+                    head[i]++;
+                final double d = (j >= 0 ? neighbors.distances[i * n + j] : Double.POSITIVE_INFINITY);
+                if (d < best)
+                    { best = d; numCandidates = 0; }
+                if (d == best)
+                    candidates[numCandidates++] = i;
+                }
             
-            // remove him destructively -- put the top guy in his place and remove the top guy.  This is O(1)
-            archive.set(closestIndex, archive.get(archive.size()-1));
-            archive.remove(archive.size()-1);
+            // of those, remove the one whose remaining neighbors are lexicographically nearest
+            int victim = candidates[0];
+            for(int c = 1; c < numCandidates; c++)
+                if (neighbors.compare(candidates[c], victim, head, removed) < 0)
+                    victim = candidates[c];
+            removed[victim] = true;
+            }
+        
+        final ArrayList<Individual> truncated = new ArrayList<Individual>(archiveSize);
+        for(int i = 0; i < n; i++)
+            if (!removed[i])
+                truncated.add(archive.get(i));
+        return truncated;
+        }
+    
+    /** The distances between the N members of an archive, with each member's N - 1 neighbors ordered by
+        distance.  Usually only a member's first few neighbors are ever looked at, so rather than sorting
+        them all, we keep each member's row of neighbors as a sorted prefix followed by a binary heap of the
+        rest, and move neighbors from the heap to the prefix, in O(log N) each, only as they are needed. */
+    static class Neighbors
+        {
+        final int n;
+        /** distances[i * n + j] is the squared distance between members i and j. */
+        final double[] distances;
+        // row i holds the neighbors of member i: the first sorted[i] in order, then a heap of the rest
+        // whose root is at the end of the row
+        final int[] rows;
+        final int[] sorted;
+        
+        Neighbors(int n)
+            {
+            this.n = n;
+            distances = new double[n * n];
+            rows = new int[n * n];
+            sorted = new int[n];
+            }
+        
+        // where element k of the heap of row i is stored
+        int slot(int i, int k) { return i * n + (n - 2) - k; }
+        
+        /** Builds the heap of member i's neighbors, once its distances have been filled in. */
+        void order(int i)
+            {
+            int k = 0;
+            for(int j = 0; j < n; j++)
+                if (j != i)
+                    rows[slot(i, k++)] = j;
+            sorted[i] = 0;
+            for(k = (n - 1) / 2 - 1; k >= 0; k--)
+                siftDown(i, k, n - 1);
+            }
+        
+        void siftDown(int i, int k, int size)
+            {
+            final int offset = i * n;
+            final int top = rows[slot(i, k)];
+            final double d = distances[offset + top];
+            while(true)
+                {
+                int child = 2 * k + 1;
+                if (child >= size) break;
+                if (child + 1 < size && distances[offset + rows[slot(i, child + 1)]] < distances[offset + rows[slot(i, child)]])
+                    child++;
+                if (!(distances[offset + rows[slot(i, child)]] < d)) break;
+                rows[slot(i, k)] = rows[slot(i, child)];
+                k = child;
+                }
+            rows[slot(i, k)] = top;
+            }
+        
+        /** Returns the neighbor of member i at the given position in order of distance, or -1 if there is none. */
+        int get(int i, int position)
+            {
+            if (position >= n - 1) return -1;
+            while(sorted[i] <= position)
+                {
+                // move the root of the heap to the end of the sorted prefix
+                final int size = n - 1 - sorted[i];
+                final int root = rows[slot(i, 0)];
+                rows[slot(i, 0)] = rows[slot(i, size - 1)];      // which is where the prefix ends
+                siftDown(i, 0, size - 1);
+                rows[i * n + sorted[i]] = root;
+                sorted[i]++;
+                }
+            return rows[i * n + position];
+            }
+        
+        /** Compares the distances from a and from b to their remaining neighbors, in order, lexicographically.
+            head[x] is the position of x's nearest neighbor not yet removed. */
+        int compare(int a, int b, int[] head, boolean[] removed)
+            {
+            int pa = head[a];
+            int pb = head[b];
+            while(true)
+                {
+                int na, nb;
+                while((na = get(a, pa)) >= 0 && removed[na]) pa++;
+                while((nb = get(b, pb)) >= 0 && removed[nb]) pb++;
+                if (na < 0 || nb < 0)
+                    return 0;
+                final double da = distances[a * n + na];
+                final double db = distances[b * n + nb];
+                if (da < db) return -1;
+                if (da > db) return 1;
+                pa++;
+                pb++;
+                }
             }
-                                                
-        // step 4: put archive into the new individuals
-        newInds.addAll(archive);
         }
 
 
     /** Computes the strength of individuals, then the raw fitness (wimpiness) and kth-closest sparsity
-        measure.  Finally, computes the final fitness of the individuals.  */
-    private void computeAuxiliaryData(EvolutionState state, ArrayList<Individual> inds)
+        measure.  Finally, computes the final fitness of the individuals.  Each of these steps is done
+        in parallel across the breed threads.  Rather than storing all the distances between individuals,
+        each thread computes the distances from one individual at a time and picks out the kth-closest
+        from them. */
+    private void computeAuxiliaryData(final EvolutionState state, ArrayList<Individual> inds)
         {
-        double[][] distances = calculateDistances(state, inds);
-                        
+        final int n = inds.size();
+        final SPEA2MultiObjectiveFitness[] fitnesses = new SPEA2MultiObjectiveFitness[n];
+        for(int i = 0; i < n; i++)
+            fitnesses[i] = (SPEA2MultiObjectiveFitness)(inds.get(i).fitness);
+        
         // For each individual calculate the strength
-        for(int y=0;y<inds.size();y++)
+        parallel(state, n, new Rows()
             {
-            // Calculate the node strengths
-            int myStrength = 0;
-            for(int z=0;z<inds.size();z++)
-                if (((SPEA2MultiObjectiveFitness)inds.get(y).fitness).paretoDominates((MultiObjectiveFitness)inds.get(z).fitness)) 
-                    myStrength++;
-            ((SPEA2MultiObjectiveFitness)inds.get(y).fitness).strength = myStrength;
-            } //For each individual y calculate the strength
-                
+            public void run(int from, int to, int thread)
+                {
+                for(int y = from; y < to; y++)
+                    {
+                    // Calculate the node strengths
+                    int myStrength = 0;
+                    for(int z = 0; z < n; z++)
+                        if (fitnesses[y].paretoDominates(fitnesses[z]))
+                            myStrength++;
+                    fitnesses[y].strength = myStrength;
+                    }
+                }
+            });
+        
         // calculate k value
-        final int kTH = (k == NOT_SET) ? (int) Math.sqrt(inds.size()) : k;  // note that the first element is k=1, not k=0 
+        final int kTH = Math.min((k == NOT_SET) ? (int) Math.sqrt(n) : k, n - 1);  // note that the first element is k=1, not k=0 
         
         // For each individual calculate the Raw fitness and kth-distance
-        for(int y=0;y<inds.size();y++)
+        parallel(state, n, new Rows()
             {
-            double fitness = 0;
-            for(int z=0;z<inds.size();z++)
+            public void run(int from, int to, int thread)
                 {
-                // Raw fitness 
-                if ( ((SPEA2MultiObjectiveFitness)inds.get(z).fitness).paretoDominates((MultiObjectiveFitness)inds.get(y).fitness) )
+                final double[] distances = new double[n];
+                for(int y = from; y < to; y++)
                     {
-                    fitness += ((SPEA2MultiObjectiveFitness)inds.get(z).fitness).strength;
+                    double fitness = 0;
+                    for(int z = 0; z < n; z++)
+                        {
+                        // Raw fitness 
+                        if (fitnesses[z].paretoDominates(fitnesses[y]))
+                            fitness += fitnesses[z].strength;
+                        distances[z] = fitnesses[y].sumSquaredObjectiveDistance(fitnesses[z], normalize);
+                        }
+                    
+                    // Density component
+                    
+                    // calc k-th nearest neighbor distance.
+                    // we add 1 to k because the distances[] array includes the distance to self (which we wish to ignore)
+                    // distances are squared, so we need to take the square root.
+                    double kthDistance = Math.sqrt(orderStatistics(distances, kTH + 1, state.random[thread]));
+                    
+                    // Set SPEA2 k-th NN distance value for each individual
+                    fitnesses[y].kthNNDistance = 1.0 / ( 2 + kthDistance);
+                    
+                    // Set SPEA2 fitness value for each individual
+                    fitnesses[y].fitness = fitness + fitnesses[y].kthNNDistance;
                     }
-                } // For each individual z calculate RAW fitness distances
-            // Set SPEA2 raw fitness value for each individual
-                                    
-            SPEA2MultiObjectiveFitness indYFitness = ((SPEA2MultiObjectiveFitness)inds.get(y).fitness);
-                        
-            // Density component
-                        
-            // calc k-th nearest neighbor distance.
-            // we add 1 to k because the distances[] array includes the distance to self (which we wish to ignore)
-            // distances are squared, so we need to take the square root.
-            double kthDistance = Math.sqrt(orderStatistics(distances[y], kTH + 1, state.random[0]));
-                        
-            // Set SPEA2 k-th NN distance value for each individual
-            indYFitness.kthNNDistance = 1.0 / ( 2 + kthDistance);
-                        
-            // Set SPEA2 fitness value for each individual
-            indYFitness.fitness = fitness + indYFitness.kthNNDistance;
-            }
+                }
+            });
         }
     
-        
-    /** Returns a matrix of sum squared distances from each individual to each other individual. */
-    private double[][] calculateDistances(EvolutionState state, ArrayList<Individual> inds)
+    // A block of rows of some computation
+    interface Rows
+        {
+        public void run(int from, int to, int thread);
+        }
+    
+    // Splits the rows 0 ... n-1 into blocks, one per breed thread, and runs them in our pool
+    void parallel(final EvolutionState state, final int n, final Rows rows)
         {
-        double[][] distances = new double[inds.size()][inds.size()];
-        for(int y=0;y<inds.size();y++)
+        final int threads = Math.min(state.breedthreads, n);
+        if (threads <= 1)
             {
-            distances[y][y] = 0;
-            for(int z=y+1;z<inds.size();z++)
+            rows.run(0, n, 0);
+            return;
+            }
+        for(int t = 0; t < threads; t++)
+            {
+            final int from = (int)((long)n * t / threads);
+            final int to = (int)((long)n * (t + 1) / threads);
+            final int thread = t;
+            pool.start(new Runnable()
                 {
-                distances[z][y] = distances[y][z] =
-                    ((SPEA2MultiObjectiveFitness)inds.get(y).fitness).
-                    sumSquaredObjectiveDistance( (SPEA2MultiObjectiveFitness)inds.get(z).fitness , normalize);
-                }
+                public void run() { rows.run(from, to, thread); }
+                }, "ECJ SPEA2 Thread " + t);
             }
-        return distances;
+        pool.joinAll();
         }
 
 
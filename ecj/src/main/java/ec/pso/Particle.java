@@ -604,6 +604,19 @@ public class Particle extends DoubleVectorIndividual
         else dataOutput.writeBoolean(false);
         }
 
+    /** Particles carry more than their genome, so they are written in the standard form. */
+    public void writeCompactIndividual(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        writeIndividual(state, dataOutput);
+        }
+
+    public void readCompactIndividual(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        readIndividual(state, dataInput);
+        }
+
     public void readIndividual(final EvolutionState state,
         final DataInput dataInput) throws IOException
         {
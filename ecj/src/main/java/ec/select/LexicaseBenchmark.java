@@ -0,0 +1,140 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.select;
+import ec.*;
+import ec.gp.koza.*;
+import ec.util.*;
+import ec.vector.*;
+import java.util.*;
+
+/**
+ * LexicaseBenchmark measures how many selections per second LexicaseSelection can make,
+ * in its plain, epsilon, and down-sampled forms, and compares it against the original
+ * implementation, which compared the Fitness objects in each individual's trials directly.
+ * The population is made of individuals whose trials are KozaFitness objects with random
+ * errors from 0 to 9 inclusive.  The time to load the errors (prepareToProduce(...)) is
+ * included, once per "generation" of <i>popsize</i> selections.
+ *
+ * <p>Usage: <tt>java ec.select.LexicaseBenchmark [popsize] [cases] [generations]</tt>
+ *
+ * <p>By default the population size is 5000, there are 500 cases, and 5 generations.
+ */
+
+public class LexicaseBenchmark
+    {
+    public static void main(String[] args)
+        {
+        int popsize = (args.length > 0 ? Integer.parseInt(args[0]) : 5000);
+        int numCases = (args.length > 1 ? Integer.parseInt(args[1]) : 500);
+        int generations = (args.length > 2 ? Integer.parseInt(args[2]) : 5);
+
+        EvolutionState state = new EvolutionState();
+        state.output = Evolve.buildOutput();
+        state.output.getLog(0).silent = true;
+        state.output.getLog(1).silent = true;
+        state.random = new MersenneTwisterFast[] { new MersenneTwisterFast(1) };
+        state.parameters = new ParameterDatabase();
+        state.population = new Population();
+        state.population.subpops = new ArrayList<Subpopulation>();
+        state.population.subpops.add(new Subpopulation());
+
+        ArrayList<Individual> inds = new ArrayList<Individual>();
+        for(int i = 0; i < popsize; i++)
+            {
+            DoubleVectorIndividual ind = new DoubleVectorIndividual();
+            KozaFitness fitness = new KozaFitness();
+            ArrayList<Object> trials = new ArrayList<Object>();
+            for(int c = 0; c < numCases; c++)
+                {
+                KozaFitness trial = new KozaFitness();
+                trial.setStandardizedFitness(state, state.random[0].nextInt(10));
+                trials.add(trial);
+                }
+            fitness.trials = trials;
+            ind.fitness = fitness;
+            inds.add(ind);
+            }
+        state.population.subpops.get(0).individuals = inds;
+
+        System.out.println("Method\tSelections/sec");
+        Parameter base = new Parameter("lexicase");
+        System.out.println("original\t" + (long)(original(state, generations)));
+        for(int r = 0; r < 3; r++)
+            {
+            state.parameters.set(base.push(LexicaseSelection.P_EPSILON), "" + (r == 1));
+            state.parameters.set(base.push(LexicaseSelection.P_DOWNSAMPLE), (r == 2 ? "0.1" : "1.0"));
+            LexicaseSelection selection = new LexicaseSelection();
+            selection.setup(state, base);
+            System.out.println((r == 0 ? "lexicase" : r == 1 ? "epsilon" : "downsample 0.1") + "\t" +
+                (long)(time(state, selection, generations)));
+            }
+        }
+
+    // Returns the selections per second made by a LexicaseSelection
+    static double time(EvolutionState state, LexicaseSelection selection, int generations)
+        {
+        int popsize = state.population.subpops.get(0).individuals.size();
+        long start = System.nanoTime();
+        for(int g = 0; g < generations; g++)
+            {
+            selection.prepareToProduce(state, 0, 0);
+            for(int i = 0; i < popsize; i++)
+                selection.produce(0, state, 0);
+            selection.finishProducing(state, 0, 0);
+            }
+        return popsize * (double)generations / ((System.nanoTime() - start) / 1.0E9);
+        }
+
+    // Returns the selections per second made by the original implementation
+    static double original(EvolutionState state, int generations)
+        {
+        int popsize = state.population.subpops.get(0).individuals.size();
+        long start = System.nanoTime();
+        for(int g = 0; g < generations; g++)
+            for(int i = 0; i < popsize; i++)
+                original(state);
+        return popsize * (double)generations / ((System.nanoTime() - start) / 1.0E9);
+        }
+
+    // The original LexicaseSelection.produce(...)
+    static int original(EvolutionState state)
+        {
+        final ArrayList<Individual> pop = state.population.subpops.get(0).individuals;
+        final ArrayList<Integer> candidates = new ArrayList<Integer>();
+        for (int i = 0; i < pop.size(); i++)
+            candidates.add(i);
+
+        final int numCases = pop.get(0).fitness.trials.size();
+        final int[] caseOrder = new int[numCases];
+        for (int i = 0; i < numCases; i++)
+            caseOrder[i] = i;
+        LexicaseSelection.shuffle(state.random[0], caseOrder, numCases, numCases);
+
+        for (int i = 0; i < caseOrder.length; i++)
+            {
+            final int currentCase = caseOrder[i];
+            Fitness best = (Fitness) pop.get(candidates.get(0)).fitness.trials.get(currentCase);
+            for (int j = 1; j < candidates.size(); j++)
+                {
+                final Fitness caseFitness = (Fitness) pop.get(candidates.get(j)).fitness.trials.get(currentCase);
+                if (caseFitness.betterThan(best))
+                    best = caseFitness;
+                }
+            final Iterator<Integer> it = candidates.iterator();
+            while (it.hasNext())
+                {
+                final Fitness caseFitness = (Fitness) pop.get(it.next()).fitness.trials.get(currentCase);
+                if (caseFitness.compareTo(best) > 0)
+                    it.remove();
+                }
+            if (candidates.size() == 1)
+                return candidates.get(0);
+            }
+        return candidates.get(state.random[0].nextInt(candidates.size()));
+        }
+    }
@@ -4,20 +4,95 @@ import ec.EvolutionState;
 import ec.Fitness;
 import ec.Individual;
 import ec.SelectionMethod;
+import ec.gp.koza.KozaFitness;
+import ec.steadystate.SteadyStateBSourceForm;
+import ec.steadystate.SteadyStateEvolutionState;
 import ec.util.MersenneTwisterFast;
 import ec.util.Parameter;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 
 /**
+ * Lexicase selection.  Each selection shuffles the test cases, then goes through them
+ * one by one, each time keeping only those individuals which do best on the current case,
+ * until a single individual is left or the cases run out, in which case a random survivor
+ * is chosen.  The result of each test case must be stored in the <tt>trials</tt> list of
+ * the individual's Fitness, and every individual must have the same number of trials.
+ *
+ * <p>Rather than comparing Fitness objects, LexicaseSelection copies every individual's
+ * trials into a dense array of errors (lower is better) in prepareToProduce(...), and
+ * then works from that array alone, reusing its scratch arrays from selection to selection.
+ * The error of a trial is computed by error(...): the standardized fitness of a KozaFitness,
+ * else the negated fitness() of any other Fitness, else the negated value of a Number
+ * (trials which are Numbers are assumed to be higher-is-better, as in Fitness).  NaN counts
+ * as the worst possible error.  Override error(...) if you need something else.
+ * Under Steady-State Evolution, an individual's errors are recopied when it is replaced.
+ *
+ * <p>If <tt>epsilon</tt> is true, LexicaseSelection does <i>epsilon-lexicase</i> selection
+ * (La Cava, Spector, and Danai 2016): on each case, individuals survive if their error
+ * is within epsilon of the best surviving error, where epsilon is the median absolute
+ * deviation of the errors of the whole population on that case.  This is appropriate for
+ * continuous-valued errors, where exact ties are rare.
+ *
+ * <p>If <tt>downsample</tt> is less than 1.0, LexicaseSelection does <i>down-sampled</i>
+ * lexicase selection (Hernandez et al. 2019): each generation it picks a random fraction of the
+ * test cases, and only these cases are used for selection.  The sample is drawn once per generation
+ * and subpopulation from a random number generator of its own, and shared with every clone of this
+ * LexicaseSelection, so that all breeding threads select on the same cases.
+ *
+ <p><b>Typical Number of Individuals Produced Per <tt>produce(...)</tt> call</b><br>
+ Always 1.
+
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><i>base.</i><tt>epsilon</tt><br>
+ <font size=-1> bool = <tt>true</tt> or <tt>false</tt> (default)</font></td>
+ <td valign=top>(should we do epsilon-lexicase selection?)</td></tr>
+
+ <tr><td valign=top><i>base.</i><tt>downsample</tt><br>
+ <font size=-1>0.0 &lt; double &lt;= 1.0 (default 1.0)</font></td>
+ <td valign=top>(the fraction of test cases used each generation)</td></tr>
+ </table>
+
+ <p><b>Default Base</b><br>
+ select.lexicaseselect
+
  *
  * @author Eric 'Siggy' Scott
  */
-public class LexicaseSelection extends SelectionMethod
+public class LexicaseSelection extends SelectionMethod implements SteadyStateBSourceForm
     {
     private static final long serialVersionUID = 1;
-    
+
     public static final String P_LEXICASESELECT = "lexicaseselect";
+    public static final String P_EPSILON = "epsilon";
+    public static final String P_DOWNSAMPLE = "downsample";
+
+    /** Should we do epsilon-lexicase selection? */
+    public boolean epsilon;
+    /** The fraction of test cases used each generation. */
+    public double downsample;
+
+    /** The errors of the individuals on each test case, stored by case: the error of individual
+        <i>i</i> on case <i>c</i> is <tt>errors[c * numIndividuals + i]</tt>.  null until the first
+        selection. */
+    public double[] errors;
+    /** The number of individuals in <tt>errors</tt>. */
+    public int numIndividuals;
+    /** The number of test cases in <tt>errors</tt>. */
+    public int numCases;
+    /** For epsilon-lexicase selection, the epsilon of each test case. */
+    public double[] epsilons;
+
+    // the down-sampled test cases, shared among our clones.  null if we're not down-sampling
+    Downsample sample;
+    // the test cases in use.  The first numCasesUsed are shuffled anew for each selection
+    int[] cases;
+    int numCasesUsed;
+    // the surviving candidates
+    int[] candidates;
+    // scratch space for computing medians
+    double[] scratch;
 
     @Override
     public Parameter defaultBase()
@@ -25,6 +100,137 @@ public class LexicaseSelection extends SelectionMethod
         return SelectDefaults.base().push(P_LEXICASESELECT);
         }
 
+    @Override
+    public void setup(final EvolutionState state, final Parameter base)
+        {
+        super.setup(state, base);
+        Parameter def = defaultBase();
+
+        epsilon = state.parameters.getBoolean(base.push(P_EPSILON), def.push(P_EPSILON), false);
+        downsample = 1.0;
+        if (state.parameters.exists(base.push(P_DOWNSAMPLE), def.push(P_DOWNSAMPLE)))
+            {
+            downsample = state.parameters.getDoubleWithMax(base.push(P_DOWNSAMPLE), def.push(P_DOWNSAMPLE), 0.0, 1.0);
+            if (downsample <= 0.0)
+                state.output.fatal("Downsample fraction must be > 0.0 and <= 1.0", base.push(P_DOWNSAMPLE), def.push(P_DOWNSAMPLE));
+            }
+        sample = null;
+        if (downsample < 1.0)
+            sample = new Downsample(new MersenneTwisterFast(state.random[0].nextLong()));
+        }
+
+    @Override
+    public Object clone()
+        {
+        LexicaseSelection other = (LexicaseSelection)(super.clone());
+        // our arrays are per-thread scratch space, but the sample is shared
+        other.errors = null;
+        other.epsilons = null;
+        other.cases = null;
+        other.candidates = null;
+        other.scratch = null;
+        return other;
+        }
+
+    @Override
+    public void prepareToProduce(final EvolutionState state, final int subpopulation, final int thread)
+        {
+        super.prepareToProduce(state, subpopulation, thread);
+        loadErrors(state, subpopulation, thread);
+        }
+
+    @Override
+    public void finishProducing(final EvolutionState state, final int subpopulation, final int thread)
+        {
+        super.finishProducing(state, subpopulation, thread);
+        // we keep our arrays to reuse them next generation, but they're stale now
+        numIndividuals = 0;
+        }
+
+    /** Copies the errors of every individual in the subpopulation into <tt>errors</tt>, and picks
+        the test cases to use. */
+    public void loadErrors(final EvolutionState state, final int subpopulation, final int thread)
+        {
+        final ArrayList<Individual> pop = state.population.subpops.get(subpopulation).individuals;
+        assert(pop.size() > 0);
+        assert(pop.get(0).fitness.trials != null);
+
+        numIndividuals = pop.size();
+        numCases = pop.get(0).fitness.trials.size();
+        if (numCases == 0)
+            state.output.fatal(String.format("Attempted to use %s on an individual with an empty list of trials.", this.getClass().getSimpleName()));
+
+        if (errors == null || errors.length < numIndividuals * numCases)
+            errors = new double[numIndividuals * numCases];
+        if (candidates == null || candidates.length < numIndividuals)
+            candidates = new int[numIndividuals];
+        for (int i = 0; i < numIndividuals; i++)
+            loadErrors(state, pop.get(i), i);
+
+        // pick the cases
+        if (cases == null || cases.length != numCases)
+            cases = new int[numCases];
+        numCasesUsed = Math.max(1, (int)Math.round(downsample * numCases));
+        if (numCasesUsed < numCases)
+            System.arraycopy(sample.get(state.generation, subpopulation, numCases, numCasesUsed), 0, cases, 0, numCasesUsed);
+        else for (int c = 0; c < numCases; c++)
+            cases[c] = c;
+
+        if (epsilon)
+            computeEpsilons();
+        }
+
+    // copies the errors of individual number <i>index</i>
+    void loadErrors(final EvolutionState state, final Individual ind, final int index)
+        {
+        final ArrayList<?> trials = ind.fitness.trials;
+        if (trials == null || trials.size() != numCases)
+            state.output.fatal(String.format("%s requires that every individual have the same number of trials (%d), but an individual has %s.",
+                    this.getClass().getSimpleName(), numCases, (trials == null ? "none" : "" + trials.size())));
+        for (int c = 0; c < numCases; c++)
+            {
+            double e = error(trials.get(c));
+            errors[c * numIndividuals + index] = (e != e ? Double.POSITIVE_INFINITY : e);     // NaN is the worst
+            }
+        }
+
+    /** Returns the error of a single trial, where lower errors are better. */
+    public double error(final Object trial)
+        {
+        if (trial instanceof KozaFitness)
+            return ((KozaFitness)trial).standardizedFitness();
+        else if (trial instanceof Fitness)
+            return 0.0 - ((Fitness)trial).fitness();
+        else return 0.0 - ((Number)trial).doubleValue();
+        }
+
+    // sets each case's epsilon to the median absolute deviation of the population's errors
+    void computeEpsilons()
+        {
+        if (epsilons == null || epsilons.length < numCases)
+            epsilons = new double[numCases];
+        if (scratch == null || scratch.length < numIndividuals)
+            scratch = new double[numIndividuals];
+        for (int c = 0; c < numCases; c++)
+            {
+            System.arraycopy(errors, c * numIndividuals, scratch, 0, numIndividuals);
+            double median = median(scratch, numIndividuals);
+            for (int i = 0; i < numIndividuals; i++)
+                scratch[i] = Math.abs(scratch[i] - median);
+            double mad = median(scratch, numIndividuals);
+            epsilons[c] = (mad == mad ? mad : 0.0);     // infinity - infinity is NaN
+            }
+        }
+
+    // sorts the first <i>length</i> values and returns their median
+    static double median(final double[] values, final int length)
+        {
+        Arrays.sort(values, 0, length);
+        if (length % 2 == 1)
+            return values[length / 2];
+        return (values[length / 2 - 1] + values[length / 2]) / 2.0;
+        }
+
     @Override
     public int produce(final int subpopulation, final EvolutionState state, final int thread)
         {
@@ -33,74 +239,121 @@ public class LexicaseSelection extends SelectionMethod
         assert(subpopulation < state.population.subpops.size());
         assert(state.population.subpops.get(subpopulation) != null);
         assert(state.population.subpops.get(subpopulation).individuals.size() > 0);
-        
-        final ArrayList<Individual> pop = state.population.subpops.get(subpopulation).individuals;
-        
+
+        if (numIndividuals != state.population.subpops.get(subpopulation).individuals.size())
+            loadErrors(state, subpopulation, thread);      // prepareToProduce(...) wasn't called
+
+        final MersenneTwisterFast random = state.random[thread];
+        final double[] errors = this.errors;
+        final int[] candidates = this.candidates;
+        final int[] cases = this.cases;
+        final int n = numIndividuals;
+
         // Initialize the candidates to the entire population
-        final ArrayList<Integer> candidates = new ArrayList<Integer>();
-        for (int i = 0; i < pop.size(); i++)
-            candidates.add(i);
-        
-        // Shuffle test cases
-        assert(pop.get(candidates.get(0)).fitness.trials != null);
-        final int numCases = pop.get(0).fitness.trials.size();
-        if (numCases == 0)
-            state.output.fatal(String.format("Attempted to use %s on an individual with an empty list of trials.", this.getClass().getSimpleName()));
-        final int[] caseOrder = new int[numCases];
-        for (int i = 0; i < numCases; i++)
-            caseOrder[i] = i;
-        shuffle(state, caseOrder);
-        
-        for (int i = 0; i < caseOrder.length; i++)
+        int numCandidates = n;
+        for (int i = 0; i < n; i++)
+            candidates[i] = i;
+
+        for (int i = 0; i < numCasesUsed; i++)
             {
-            final int currentCase = caseOrder[i];
-            
+            // Shuffle test cases as we go: we often don't need them all
+            final int swap = i + random.nextInt(numCasesUsed - i);
+            final int currentCase = cases[swap];
+            cases[swap] = cases[i];
+            cases[i] = currentCase;
+            final int offset = currentCase * n;
+
             // Find the best value of the current test case
-            Fitness best = (Fitness) pop.get(candidates.get(0)).fitness.trials.get(currentCase);
-            for (int j = 1; j < candidates.size(); j++)
+            double best = errors[offset + candidates[0]];
+            for (int j = 1; j < numCandidates; j++)
                 {
-                assert(pop.get(candidates.get(j)).fitness.trials != null);
-                assert(pop.get(candidates.get(j)).fitness.trials.size() == numCases);
-                final Fitness caseFitness = (Fitness) pop.get(candidates.get(j)).fitness.trials.get(currentCase);
-                if (caseFitness.betterThan(best))
-                    best = caseFitness;
+                final double e = errors[offset + candidates[j]];
+                if (e < best)
+                    best = e;
                 }
-            
+            if (epsilon)
+                best += epsilons[currentCase];
+
             // Reduce candidates to the subset that performs best on the current test case
-            final Iterator<Integer> it = candidates.iterator();
-            while (it.hasNext())
+            int survivors = 0;
+            for (int j = 0; j < numCandidates; j++)
                 {
-                final Fitness caseFitness = (Fitness) pop.get(it.next()).fitness.trials.get(currentCase);
-                if (caseFitness.compareTo(best) > 0) // if strictly worse than best
-                    it.remove();
+                final int candidate = candidates[j];
+                if (errors[offset + candidate] <= best)
+                    candidates[survivors++] = candidate;
                 }
-            
+            numCandidates = survivors;
+
             // If only one individual is left, return it
-            if (candidates.size() == 1)
+            if (numCandidates == 1)
+                return candidates[0];
+            }
+
+        // We ran out of test cases, return a random candidate
+        return candidates[random.nextInt(numCandidates)];
+        }
+
+    /** The down-sampled test cases of each subpopulation, drawn once per generation by whichever
+        clone asks first.  Its own random number generator keeps the samples the same no matter
+        which thread draws them. */
+    static class Downsample implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+
+        final MersenneTwisterFast random;
+        int[] generations = new int[0];
+        int[][] samples = new int[0][];
+
+        Downsample(final MersenneTwisterFast random)
+            {
+            this.random = random;
+            }
+
+        /** Returns <i>count</i> distinct test cases out of <i>length</i> for the given generation and
+            subpopulation.  The caller must not modify the array. */
+        synchronized int[] get(final int generation, final int subpopulation, final int length, final int count)
+            {
+            if (subpopulation >= samples.length)
                 {
-                return candidates.get(0);
+                generations = Arrays.copyOf(generations, subpopulation + 1);
+                samples = Arrays.copyOf(samples, subpopulation + 1);
                 }
-            
-            // If this was the last test case, return a random candidate
-            if (i == caseOrder.length - 1)
+            int[] sample = samples[subpopulation];
+            if (sample == null || generations[subpopulation] != generation || sample.length != count)
                 {
-                return candidates.get(state.random[0].nextInt(candidates.size()));
+                final int[] a = new int[length];
+                for (int c = 0; c < length; c++)
+                    a[c] = c;
+                shuffle(random, a, length, count);
+                sample = Arrays.copyOf(a, count);
+                samples[subpopulation] = sample;
+                generations[subpopulation] = generation;
                 }
+            return sample;
             }
-        throw new IllegalStateException();
         }
-    
 
-    private void shuffle(final EvolutionState state, final int[] a)
+    // shuffles the first <i>count</i> elements of a[0 ... length-1] into a random sample of all of them
+    static void shuffle(final MersenneTwisterFast random, final int[] a, final int length, final int count)
         {
-        final MersenneTwisterFast mtf = state.random[0];
-        for(int x = a.length - 1; x >= 1; x--)
+        for (int x = 0; x < count; x++)
             {
-            int rand = mtf.nextInt(x+1);
+            int rand = x + random.nextInt(length - x);
             int obj = a[x];
             a[x] = a[rand];
             a[rand] = obj;
             }
         }
-    
+
+    public void individualReplaced(final SteadyStateEvolutionState state,
+        final int subpopulation,
+        final int thread,
+        final int individual)
+        {
+        if (numIndividuals > 0 && individual < numIndividuals)
+            loadErrors(state, state.population.subpops.get(subpopulation).individuals.get(individual), individual);
+        }
+
+    public void sourcesAreProperForm(final SteadyStateEvolutionState state)
+        { return; }
     }
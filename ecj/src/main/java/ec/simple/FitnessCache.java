@@ -0,0 +1,212 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.simple;
+import ec.*;
+import ec.util.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FitnessCache remembers the fitnesses of individuals which have been evaluated, so that an individual
+ * which is identical to one evaluated before (by Individual.equals(...)) can be given a copy of its fitness
+ * rather than being evaluated again.  This happens a lot: reproduced individuals, re-evaluated elites,
+ * and crossovers which swap identical subtrees all produce individuals which have been seen before.
+ * SimpleEvaluator uses a FitnessCache if <tt>eval.cache</tt> is true.  Individuals in different
+ * subpopulations are never considered identical, since the Problem is told which subpopulation an
+ * individual is in and may evaluate it differently.
+ *
+ * <p>A FitnessCache is shared by all evaluation threads and lasts for the whole run.  It holds up to
+ * <tt>size</tt> individuals: when it is full, the least recently used individual is forgotten.  To allow
+ * many threads to use it at once, it is split into SEGMENTS segments by hash code, each of which
+ * holds an equal share of the individuals and has its own lock, so the least recently used individual
+ * is in fact chosen per segment.  The cache keeps a clone of each individual it remembers, and hands out
+ * clones of its fitness.  It counts the number of times an individual was found (hits), was not found
+ * (misses), and was forgotten to make room for another (evictions); SimpleStatistics reports these each
+ * generation.
+ *
+ * <p>Looking up and storing individuals costs hashing, comparing, and cloning them, so the cache
+ * pays off only when evaluating an individual costs more than that.
+ *
+ * <p>The cache assumes that evaluating the same individual always gives the same fitness.  Problems
+ * for which this is not true should override Problem.canCacheFitness() to return false.  The cache
+ * is emptied when the run is restored from a checkpoint.
+ *
+ * <p>See also OffHeapFitnessCache, which stores individuals in serialized form outside the Java heap.
+ *
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><i>base</i><tt>.size</tt><br>
+ <font size=-1>int &gt;= 1 (default = 100000)</font></td>
+ <td valign=top>(the maximum number of individuals in the cache)</td></tr>
+ </table>
+
+ <p><b>Default Base</b><br>
+ eval.cache
+*/
+
+public class FitnessCache implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final String P_SIZE = "size";
+    public static final int DEFAULT_SIZE = 100000;
+
+    /** The number of segments the cache is split into.  A power of two. */
+    public static final int SEGMENTS = 16;
+
+    /** The maximum number of individuals the cache holds. */
+    public int size;
+
+    /** The number of lookups which found a fitness. */
+    public LongAdder hits = new LongAdder();
+    /** The number of lookups which didn't find a fitness. */
+    public LongAdder misses = new LongAdder();
+    /** The number of individuals forgotten to make room for others. */
+    public LongAdder evictions = new LongAdder();
+
+    // The segments, each a LinkedHashMap in access order from a Key holding a clone of an individual to its fitness
+    transient Segment[] segments;
+
+    public void setup(final EvolutionState state, final Parameter base)
+        {
+        size = state.parameters.getIntWithDefault(base.push(P_SIZE), null, DEFAULT_SIZE);
+        if (size < 1)
+            state.output.fatal("The fitness cache size must be an integer >= 1.", base.push(P_SIZE), null);
+        allocate();
+        }
+
+    /** Builds the (empty) storage for the cache.  Called by setup(...) and after restoring from a checkpoint. */
+    protected void allocate()
+        {
+        segments = new Segment[SEGMENTS];
+        int perSegment = Math.max(1, (size + SEGMENTS - 1) / SEGMENTS);
+        for(int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(perSegment);
+        }
+
+    /** Returns the segment in which individuals with the given hash code are stored. */
+    protected static int segment(int hash)
+        {
+        return (hash ^ (hash >>> 16)) & (SEGMENTS - 1);
+        }
+
+    /** Returns a copy of the fitness of an individual in the given subpopulation equal to ind,
+        or null if there is none in the cache. */
+    public Fitness get(final EvolutionState state, final Individual ind, final int subpopulation)
+        {
+        Key key = new Key(ind, subpopulation);
+        Segment segment = segments[segment(key.hash)];
+        Fitness fitness;
+        synchronized(segment)
+            {
+            fitness = segment.get(key);
+            }
+        if (fitness == null)
+            {
+            misses.increment();
+            return null;
+            }
+        hits.increment();
+        return (Fitness)(fitness.clone());
+        }
+
+    /** Remembers the fitness of ind, in the given subpopulation, which must have been evaluated. */
+    public void put(final EvolutionState state, final Individual ind, final int subpopulation)
+        {
+        Individual copy = (Individual)(ind.clone());
+        Key key = new Key(copy, subpopulation);
+        Segment segment = segments[segment(key.hash)];
+        synchronized(segment)
+            {
+            segment.put(key, copy.fitness);
+            }
+        }
+
+    /** Returns the number of individuals in the cache. */
+    public long entries()
+        {
+        long total = 0;
+        for(int i = 0; i < segments.length; i++)
+            synchronized(segments[i])
+                {
+                total += segments[i].size();
+                }
+        return total;
+        }
+
+    /** Empties the cache.  The counters are not reset. */
+    public void clear()
+        {
+        for(int i = 0; i < segments.length; i++)
+            synchronized(segments[i])
+                {
+                segments[i].clear();
+                }
+        }
+
+    /** Describes the counters, for statistics. */
+    public String toString()
+        {
+        return hits.sum() + " hits, " + misses.sum() + " misses, " + evictions.sum() + " evictions, " + entries() + " entries";
+        }
+
+    private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException
+        {
+        in.defaultReadObject();
+        if (size > 0)  // subclasses which don't use size rebuild their own storage
+            allocate();
+        }
+
+    // An individual and its subpopulation, with the individual's hash code, which may be expensive to compute
+    static class Key implements java.io.Serializable
+        {
+        private static final long serialVersionUID = 1;
+        final Individual ind;
+        final int subpopulation;
+        final int hash;
+
+        Key(Individual ind, int subpopulation)
+            {
+            this.ind = ind;
+            this.subpopulation = subpopulation;
+            hash = ind.hashCode() * 31 + subpopulation;
+            }
+
+        public int hashCode() { return hash; }
+
+        public boolean equals(Object other)
+            {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key)other;
+            return (hash == key.hash && subpopulation == key.subpopulation && ind.equals(key.ind));
+            }
+        }
+
+    // A bounded LinkedHashMap which forgets its least recently used entry
+    class Segment extends LinkedHashMap<Key, Fitness>
+        {
+        private static final long serialVersionUID = 1;
+        final int capacity;
+
+        Segment(int capacity)
+            {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            }
+
+        protected boolean removeEldestEntry(Map.Entry<Key, Fitness> eldest)
+            {
+            if (size() > capacity)
+                {
+                evictions.increment();
+                return true;
+                }
+            return false;
+            }
+        }
+    }
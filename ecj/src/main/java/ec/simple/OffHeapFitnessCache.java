@@ -0,0 +1,304 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.simple;
+import ec.*;
+import ec.util.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * OffHeapFitnessCache is a FitnessCache which stores individuals and their fitnesses in serialized form,
+ * in direct ByteBuffers outside the Java heap, so that a very large cache neither fills the heap nor
+ * slows down garbage collection.  An individual is stored as its compact genotype (see
+ * Individual.writeCompactGenotype(...)), and its fitness as written by Fitness.writeFitness(...), so both
+ * must be implemented.  Two individuals are identical if their genotypes are written as the same bytes.
+ *
+ * <p>Each segment of the cache is a ring of <tt>bytes</tt> / SEGMENTS bytes, to which individuals
+ * are appended.  When there is no room for another individual, the oldest individuals are forgotten until
+ * there is: so rather than holding a fixed number of individuals, the cache holds as many as fit in
+ * <tt>bytes</tt>, and forgets them in the order in which they were added rather than the order
+ * in which they were last used.  On the heap, each segment keeps only a map from a 64-bit hash of each
+ * individual to where it is in the ring, about 80 bytes per individual.
+ *
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><i>base</i><tt>.bytes</tt><br>
+ <font size=-1>long &gt;= 1024 (default = 67108864)</font></td>
+ <td valign=top>(the number of bytes of memory outside the heap to store individuals in)</td></tr>
+ </table>
+
+ <p><b>Default Base</b><br>
+ eval.cache
+*/
+
+public class OffHeapFitnessCache extends FitnessCache
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final String P_BYTES = "bytes";
+    public static final long DEFAULT_BYTES = 64L * 1024 * 1024;
+
+    // length, hash, subpopulation, genotype length
+    static final int HEADER = 4 + 8 + 4 + 4;
+
+    /** The number of bytes outside the heap in which to store individuals. */
+    public long bytes;
+
+    transient RingSegment[] rings;
+
+    public void setup(final EvolutionState state, final Parameter base)
+        {
+        bytes = state.parameters.getLongWithDefault(base.push(P_BYTES), null, DEFAULT_BYTES);
+        if (bytes < 1024)
+            state.output.fatal("The off-heap fitness cache must have at least 1024 bytes.", base.push(P_BYTES), null);
+        if (bytes / SEGMENTS > Integer.MAX_VALUE)
+            state.output.fatal("The off-heap fitness cache may have at most " + ((long)Integer.MAX_VALUE * SEGMENTS) + " bytes.", base.push(P_BYTES), null);
+        allocate();
+        }
+
+    protected void allocate()
+        {
+        rings = new RingSegment[SEGMENTS];
+        for(int i = 0; i < SEGMENTS; i++)
+            rings[i] = new RingSegment((int)(bytes / SEGMENTS));
+        }
+
+    private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException
+        {
+        in.defaultReadObject();
+        allocate();
+        }
+
+    /** Returns a 64-bit hash of the given bytes and subpopulation. */
+    public static long hash(byte[] data, int length, int subpopulation)
+        {
+        // FNV-1a, then a final mix so that the low bits, which pick the segment, depend on every byte
+        long hash = 0xcbf29ce484222325L ^ subpopulation;
+        for(int i = 0; i < length; i++)
+            hash = (hash ^ (data[i] & 0xFF)) * 0x100000001b3L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+        }
+
+    // A ByteArrayOutputStream whose buffer we can read without copying it
+    static class Bytes extends ByteArrayOutputStream
+        {
+        byte[] data() { return buf; }
+        }
+
+    Bytes genotype(final EvolutionState state, final Individual ind)
+        {
+        Bytes out = new Bytes();
+        try
+            {
+            ind.writeCompactGenotype(state, new DataOutputStream(out));
+            }
+        catch (IOException e)
+            {
+            state.output.fatal("Could not write an individual's genotype for the fitness cache: " + e);
+            }
+        return out;
+        }
+
+    public Fitness get(final EvolutionState state, final Individual ind, final int subpopulation)
+        {
+        Bytes genotype = genotype(state, ind);
+        long hash = hash(genotype.data(), genotype.size(), subpopulation);
+        RingSegment ring = rings[segment((int)hash)];
+        byte[] fitness;
+        synchronized(ring)
+            {
+            fitness = ring.get(hash, subpopulation, genotype.data(), genotype.size());
+            }
+        if (fitness == null)
+            {
+            misses.increment();
+            return null;
+            }
+        hits.increment();
+
+        Fitness f = (Fitness)(ind.fitness.clone());
+        try
+            {
+            f.readFitness(state, new DataInputStream(new ByteArrayInputStream(fitness)));
+            }
+        catch (IOException e)
+            {
+            state.output.fatal("Could not read a fitness from the fitness cache: " + e);
+            }
+        return f;
+        }
+
+    public void put(final EvolutionState state, final Individual ind, final int subpopulation)
+        {
+        Bytes genotype = genotype(state, ind);
+        long hash = hash(genotype.data(), genotype.size(), subpopulation);
+        Bytes fitness = new Bytes();
+        try
+            {
+            ind.fitness.writeFitness(state, new DataOutputStream(fitness));
+            }
+        catch (IOException e)
+            {
+            state.output.fatal("Could not write a fitness for the fitness cache: " + e);
+            }
+
+        RingSegment ring = rings[segment((int)hash)];
+        synchronized(ring)
+            {
+            ring.put(hash, subpopulation, genotype.data(), genotype.size(), fitness.data(), fitness.size());
+            }
+        }
+
+    public long entries()
+        {
+        long total = 0;
+        for(int i = 0; i < rings.length; i++)
+            synchronized(rings[i])
+                {
+                total += rings[i].index.size();
+                }
+        return total;
+        }
+
+    public void clear()
+        {
+        for(int i = 0; i < rings.length; i++)
+            synchronized(rings[i])
+                {
+                rings[i].clear();
+                }
+        }
+
+    // A ring of records in a direct ByteBuffer.  Each record is its length, the hash, the subpopulation,
+    // the genotype's length, the genotype, and the fitness.  The records in use run from head to tail,
+    // or, if the ring has wrapped around, from head to end and then from 0 to tail.
+    class RingSegment
+        {
+        final ByteBuffer buffer;
+        final int capacity;
+        int head;
+        int tail;
+        int end;
+        boolean wrapped;
+        int records;        // including those which have been replaced in the index
+        final HashMap<Long, Integer> index = new HashMap<Long, Integer>();
+
+        RingSegment(int capacity)
+            {
+            this.capacity = capacity;
+            buffer = ByteBuffer.allocateDirect(capacity);
+            }
+
+        void clear()
+            {
+            head = tail = end = records = 0;
+            wrapped = false;
+            index.clear();
+            }
+
+        // Returns a copy of the bytes at pos
+        byte[] read(int pos, int length)
+            {
+            byte[] data = new byte[length];
+            ByteBuffer b = buffer.duplicate();
+            ((Buffer)b).position(pos);
+            b.get(data);
+            return data;
+            }
+
+        // Returns the position of the record with the given key, or -1
+        int find(long hash, int subpopulation, byte[] genotype, int length)
+            {
+            Integer p = index.get(Long.valueOf(hash));
+            if (p == null) return -1;
+            int pos = p.intValue();
+            if (buffer.getInt(pos + 12) != subpopulation || buffer.getInt(pos + 16) != length)
+                return -1;
+            byte[] stored = read(pos + HEADER, length);
+            for(int i = 0; i < length; i++)
+                if (stored[i] != genotype[i]) return -1;
+            return pos;
+            }
+
+        byte[] get(long hash, int subpopulation, byte[] genotype, int length)
+            {
+            int pos = find(hash, subpopulation, genotype, length);
+            if (pos == -1) return null;
+            int fitnessStart = pos + HEADER + length;
+            return read(fitnessStart, pos + buffer.getInt(pos) - fitnessStart);
+            }
+
+        void put(long hash, int subpopulation, byte[] genotype, int genotypeLength, byte[] fitness, int fitnessLength)
+            {
+            if (find(hash, subpopulation, genotype, genotypeLength) != -1)
+                return;  // another thread got here first
+            int length = HEADER + genotypeLength + fitnessLength;
+            if (length > capacity)
+                return;  // too big to store at all
+
+            int pos = allocate(length);
+            ByteBuffer b = buffer.duplicate();
+            ((Buffer)b).position(pos);
+            b.putInt(length);
+            b.putLong(hash);
+            b.putInt(subpopulation);
+            b.putInt(genotypeLength);
+            b.put(genotype, 0, genotypeLength);
+            b.put(fitness, 0, fitnessLength);
+            tail = pos + length;
+            records++;
+            index.put(Long.valueOf(hash), Integer.valueOf(pos));   // replaces any other individual with the same hash
+            }
+
+        // Returns where to put a record of the given length, forgetting the oldest records until there's room
+        int allocate(int length)
+            {
+            while(true)
+                {
+                if (records == 0)
+                    {
+                    head = tail = end = 0;
+                    wrapped = false;
+                    }
+                if (!wrapped)
+                    {
+                    if (capacity - tail >= length) return tail;
+                    // no room at the end, so go back to the start
+                    end = tail;
+                    tail = 0;
+                    wrapped = true;
+                    }
+                else if (head - tail >= length) return tail;
+                else evict();
+                }
+            }
+
+        // Forgets the oldest record
+        void evict()
+            {
+            Long hash = Long.valueOf(buffer.getLong(head + 4));
+            Integer pos = index.get(hash);
+            if (pos != null && pos.intValue() == head)
+                {
+                index.remove(hash);
+                evictions.increment();
+                }
+            head += buffer.getInt(head);
+            records--;
+            if (head == end)  // unwrap
+                {
+                head = 0;
+                wrapped = false;
+                }
+            }
+        }
+    }
@@ -0,0 +1,477 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.simple;
+import ec.*;
+import ec.coevolve.GroupedProblemForm;
+import ec.util.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * PipelinedEvolutionState.java
+ */
+
+/**
+ * A PipelinedEvolutionState is a SimpleEvolutionState which overlaps breeding with evaluation.
+ * SimpleEvolutionState first evaluates the entire population and then breeds the entire next
+ * population, so the evaluation threads sit idle while breeding and the breeding threads sit
+ * idle while evaluating.  PipelinedEvolutionState instead starts evaluating each child as soon
+ * as a breeding thread has produced it, so by the time breeding is finished most of the next
+ * generation has already been evaluated.  This is worthwhile when breeding is expensive (large
+ * populations, elaborate breeding pipelines, or costly selection) compared to evaluation.
+ *
+ * <p>Generational semantics are unchanged: children are still bred only from the fully-evaluated
+ * previous generation, and the population is replaced in its entirety each generation.  A
+ * deterministic Problem produces the same run as it would under SimpleEvolutionState.  What
+ * changes is when things happen.  While generation <i>g</i> is being bred, <tt>evalthreads</tt>
+ * evaluation threads take each child from a queue as soon as the SimpleBreeder reports it
+ * (see SimpleBreeder.Listener).  Once breeding is done, any remaining unevaluated individuals
+ * (such as elites which must be reevaluated) are queued as well, and the evaluation threads are
+ * allowed to finish.  The following call to evolve() then evaluates only those individuals
+ * which are still unevaluated (the initial population in generation 0, or immigrants from the
+ * Exchanger) before going on as usual.  Thus the preEvaluationStatistics and postEvaluationStatistics
+ * hooks are still called every generation, but by then most of the evaluation work has already been
+ * done, inside the preBreedingStatistics and postBreedingStatistics hooks of the previous generation.
+ * For the same reason the "Evaluations So Far" printed at the start of each generation already
+ * includes most of that generation's evaluations.
+ *
+ * <p>Statistics are also gathered incrementally: each time an individual is evaluated, the
+ * evaluating thread updates the running count, mean fitness, and best individual of its
+ * subpopulation (<tt>numEvaluated</tt>, <tt>meanFitness</tt>, and <tt>bestOfGeneration</tt>)
+ * and calls Statistics.individualEvaluatedStatistics(...).  These only include individuals
+ * actually evaluated in the current generation, and not, for example, elites carried over
+ * with their old fitnesses.  The state also records how long breeding took, how long evaluation
+ * took, how much of the evaluation was hidden behind breeding, and how long each evaluation
+ * thread was busy and idle; set <tt>pipeline.report</tt> to print these each generation.
+ *
+ * <p>Evaluation threads use the thread numbers <tt>breedthreads</tt> through
+ * <tt>breedthreads + evalthreads - 1</tt>, so they never share a random number generator with a
+ * breeding thread.  If fewer generators exist, more are added: generator <i>n</i> is seeded with
+ * <tt>seed.</tt><i>n</i> if it exists, and otherwise from a copy of generator 0.  Each
+ * evaluation thread evaluates individuals one at a time with its own clone of the Problem.
+ *
+ * <p>Overlapping requires the Evaluator to be a plain SimpleEvaluator with <tt>num-tests</tt> of 1, the
+ * Problem to be a SimpleProblemForm but not a GroupedProblemForm, and the Breeder to be a SimpleBreeder.
+ * Otherwise PipelinedEvolutionState issues a warning and behaves exactly like SimpleEvolutionState.
+ * Individuals given a fitness from the SimpleEvaluator's fitness cache, if any, are not counted as
+ * evaluations, nor are individuals which were already evaluated.
+ *
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><tt>pipeline.report</tt><br>
+ <font size=-1>boolean (default = false)</font></td>
+ <td valign=top>(should breeding, evaluation, and overlap times be printed each generation?)</td></tr>
+ </table>
+ */
+
+public class PipelinedEvolutionState extends SimpleEvolutionState implements SimpleBreeder.Listener
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final String P_PIPELINE = "pipeline";
+    public static final String P_REPORT = "report";
+
+    /** Is breeding being overlapped with evaluation?  If false, we behave like SimpleEvolutionState. */
+    public boolean pipelining;
+    /** Should timings be printed each generation? */
+    public boolean report;
+    /** Runs the evaluation threads. */
+    public ThreadPool pool = new ThreadPool();
+
+    /** The thread number of the first evaluation thread. */
+    public int firstEvaluationThread;
+
+    /** Nanoseconds spent breeding the current generation. */
+    public long breedTime;
+    /** Nanoseconds, from starting the evaluation threads to their finishing, spent evaluating the current generation. */
+    public long evaluationTime;
+    /** Nanoseconds the evaluation threads, summed, spent evaluating the current generation while it was still being bred. */
+    public long overlapTime;
+    /** Nanoseconds each evaluation thread spent evaluating individuals in the current generation. */
+    public long[] busyTime = new long[0];
+    /** Nanoseconds each evaluation thread spent waiting for individuals to evaluate in the current generation. */
+    public long[] idleTime = new long[0];
+
+    /** The best individual, per subpopulation, evaluated so far in the current generation, or null if none. */
+    public Individual[] bestOfGeneration = new Individual[0];
+    /** The mean fitness, per subpopulation, of the individuals evaluated so far in the current generation. */
+    public double[] meanFitness = new double[0];
+    /** The number of individuals, per subpopulation, evaluated so far in the current generation. */
+    public int[] numEvaluated = new int[0];
+
+    // The generation which the timings and statistics above describe
+    int currentGeneration = -1;
+    Object[] lock = new Object[0];          // Arrays are serializable
+
+    // The queue of individuals waiting to be evaluated, and every individual ever put in it,
+    // which only exist while the evaluation threads are running
+    transient LinkedBlockingQueue<Job> queue;
+    transient Set<Individual> submitted;
+    transient volatile long breedingEnd;
+    transient volatile Throwable failure;
+    transient long evaluationStart;
+
+    public void setup(final EvolutionState state, final Parameter base)
+        {
+        // EvolutionState sizes its per-thread data by the number of random number generators,
+        // so we have to add ours first
+        firstEvaluationThread = breedthreads;
+        addGenerators(breedthreads + evalthreads);
+
+        super.setup(state, base);
+
+        Parameter p = new Parameter(P_PIPELINE);
+        report = parameters.getBoolean(p.push(P_REPORT), null, false);
+        pool = ThreadPool.create(this, new Parameter(ThreadPool.P_THREADPOOL), ThreadPool.BACKEND_CLASSIC);
+
+        String reason = null;
+        if (evaluator.getClass() != SimpleEvaluator.class)
+            reason = "the Evaluator is not a SimpleEvaluator";
+        else if (((SimpleEvaluator)evaluator).numTests > 1)
+            reason = "each individual is evaluated more than once";
+        else if (!(evaluator.p_problem instanceof SimpleProblemForm) || evaluator.p_problem instanceof GroupedProblemForm)
+            reason = "the Problem is not a SimpleProblemForm";
+        else if (!(breeder instanceof SimpleBreeder))
+            reason = "the Breeder is not a SimpleBreeder";
+        pipelining = (reason == null);
+        if (!pipelining)
+            output.warning("PipelinedEvolutionState cannot overlap breeding with evaluation because " + reason +
+                ".  Breeding and evaluation will be done one after the other, as in SimpleEvolutionState.");
+        }
+
+    public int evolve()
+        {
+        if (!pipelining)
+            return super.evolve();
+
+        if (generation > 0)
+            output.message("Generation " + generation +"\tEvaluations So Far " + evaluations);
+
+        // EVALUATION -- only of individuals which weren't evaluated while being bred
+        statistics.preEvaluationStatistics(this);
+        evaluateRemaining();
+        if (report)
+            report();
+
+        // LOCAL STATE UPDATES
+        for (int i = 0; i < this.population.subpops.size(); i++)
+            {
+            final Subpopulation subpop = this.population.subpops.get(i);
+            for (final Individual ind : subpop.individuals)
+                evaluator.postEvaluationLocalUpdate(this, ind, i);
+            }
+
+        statistics.postEvaluationStatistics(this);
+
+        // SHOULD WE QUIT?
+        String runCompleteMessage = evaluator.runComplete(this);
+        if ((runCompleteMessage != null) && quitOnRunComplete)
+            {
+            output.message(runCompleteMessage);
+            return R_SUCCESS;
+            }
+
+        // SHOULD WE QUIT?
+        if ((numGenerations != UNDEFINED && generation >= numGenerations-1) ||
+            (numEvaluations != UNDEFINED && evaluations >= numEvaluations))
+            {
+            return R_FAILURE;
+            }
+
+        // INCREMENT GENERATION AND CHECKPOINT
+        generation++;
+
+        // PRE-BREEDING EXCHANGING
+        statistics.prePreBreedingExchangeStatistics(this);
+        population = exchanger.preBreedingExchangePopulation(this);
+        statistics.postPreBreedingExchangeStatistics(this);
+
+        String exchangerWantsToShutdown = exchanger.runComplete(this);
+        if (exchangerWantsToShutdown!=null)
+            {
+            output.message(exchangerWantsToShutdown);
+            return R_SUCCESS;
+            }
+
+        /// GLOBAL STATE UPDATE
+        evaluator.postEvaluationGlobalUpdate(this);
+
+        // BREEDING, WHILE EVALUATING
+        statistics.preBreedingStatistics(this);
+        breedAndEvaluate();
+        statistics.postBreedingStatistics(this);
+
+        // POST-BREEDING EXCHANGING
+        statistics.prePostBreedingExchangeStatistics(this);
+        population = exchanger.postBreedingExchangePopulation(this);
+        statistics.postPostBreedingExchangeStatistics(this);
+
+        if (checkpoint && (generation - 1) % checkpointModulo == 0)
+            {
+            output.message("Checkpointing");
+            statistics.preCheckpointStatistics(this);
+            Checkpoint.setCheckpoint(this);
+            statistics.postCheckpointStatistics(this);
+            }
+
+        return R_NOTDONE;
+        }
+
+    /** Breeds the next population, evaluating children with the evaluation threads as soon as they are bred. */
+    protected void breedAndEvaluate()
+        {
+        SimpleBreeder simpleBreeder = (SimpleBreeder)breeder;
+        startEvaluating();
+        long start = System.nanoTime();
+        simpleBreeder.listener = this;
+        try
+            {
+            population = breeder.breedPopulation(this);
+            }
+        catch (RuntimeException e) { failure = e; finishEvaluating(); }  // stops the evaluation threads and throws e
+        catch (Error e) { failure = e; finishEvaluating(); }
+        finally
+            {
+            simpleBreeder.listener = null;
+            breedingEnd = System.nanoTime();
+            breedTime += breedingEnd - start;
+            }
+
+        // elites, for example, are never reported to us
+        for(int x = 0; x < population.subpops.size(); x++)
+            {
+            ArrayList<Individual> inds = population.subpops.get(x).individuals;
+            for(int y = 0; y < inds.size(); y++)
+                {
+                Individual ind = inds.get(y);
+                if (!submitted.contains(ind) && !ind.evaluated)  // in this order: a submitted individual may be being evaluated right now
+                    submit(ind, x);
+                }
+            }
+        finishEvaluating();
+        }
+
+    /** Evaluates, with the evaluation threads, every individual in the population which hasn't been evaluated yet. */
+    protected void evaluateRemaining()
+        {
+        boolean any = false;
+        for(int x = 0; x < population.subpops.size(); x++)
+            {
+            ArrayList<Individual> inds = population.subpops.get(x).individuals;
+            for(int y = 0; y < inds.size(); y++)
+                if (!inds.get(y).evaluated)
+                    {
+                    if (!any)
+                        {
+                        startEvaluating();
+                        breedingEnd = System.nanoTime();  // nothing to overlap with
+                        any = true;
+                        }
+                    submit(inds.get(y), x);
+                    }
+            }
+        if (any)
+            finishEvaluating();
+        else if (currentGeneration != generation)  // nothing at all to evaluate this generation
+            resetGeneration();
+        }
+
+    /** Called by the breeding threads with each batch of children they produce. */
+    public void individualsBred(EvolutionState state, int subpop, ArrayList<Individual> individuals, int start, int threadnum)
+        {
+        for(int i = start; i < individuals.size(); i++)
+            if (!individuals.get(i).evaluated)
+                submit(individuals.get(i), subpop);
+        }
+
+    void submit(Individual ind, int subpop)
+        {
+        synchronized(submitted) { submitted.add(ind); }
+        queue.add(new Job(ind, subpop));
+        }
+
+    // Clears the timings and statistics when we start on a new generation
+    void resetGeneration()
+        {
+        currentGeneration = generation;
+        int numSubpops = population.subpops.size();
+        bestOfGeneration = new Individual[numSubpops];
+        meanFitness = new double[numSubpops];
+        numEvaluated = new int[numSubpops];
+        busyTime = new long[evalthreads];
+        idleTime = new long[evalthreads];
+        breedTime = 0;
+        evaluationTime = 0;
+        overlapTime = 0;
+        }
+
+    // Starts the evaluation threads, which wait for individuals to be submitted
+    void startEvaluating()
+        {
+        if (currentGeneration != generation)
+            resetGeneration();
+        queue = new LinkedBlockingQueue<Job>();
+        submitted = Collections.newSetFromMap(new IdentityHashMap<Individual, Boolean>());
+        breedingEnd = Long.MAX_VALUE;
+        failure = null;
+        evaluationStart = System.nanoTime();
+        for(int i = 0; i < evalthreads; i++)
+            pool.startWithAffinity(new EvaluationThread(i, (Problem)(evaluator.p_problem.clone())), "ECJ Evaluation Thread " + i, i);
+        }
+
+    // Tells the evaluation threads there's nothing more to come, and waits for them to finish
+    void finishEvaluating()
+        {
+        for(int i = 0; i < evalthreads; i++)
+            queue.add(Job.DONE);
+        pool.joinAll();
+        evaluationTime += System.nanoTime() - evaluationStart;
+        queue = null;
+        submitted = null;
+
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException)failure;
+        else if (failure instanceof Error)
+            throw (Error)failure;
+        else if (failure != null)
+            throw new RuntimeException(failure);
+        }
+
+    /** Called by an evaluation thread each time it has evaluated an individual.  Updates the incremental statistics
+        and calls Statistics.individualEvaluatedStatistics(...). */
+    protected void individualEvaluated(Individual ind, int subpop, int threadnum)
+        {
+        synchronized(lock)
+            {
+            numEvaluated[subpop]++;
+            meanFitness[subpop] += (ind.fitness.fitness() - meanFitness[subpop]) / numEvaluated[subpop];
+            if (bestOfGeneration[subpop] == null || ind.fitness.betterThan(bestOfGeneration[subpop].fitness))
+                bestOfGeneration[subpop] = ind;
+            }
+        statistics.individualEvaluatedStatistics(this, ind, subpop, threadnum);
+        }
+
+    void report()
+        {
+        StringBuilder sb = new StringBuilder("Pipeline (ms): breeding " + (breedTime / 1000000) +
+            ", evaluation " + (evaluationTime / 1000000) + ", overlapped " + (overlapTime / 1000000) +
+            ".  Evaluation threads (busy/idle ms):");
+        for(int i = 0; i < busyTime.length; i++)
+            sb.append(" " + i + ": " + (busyTime[i] / 1000000) + "/" + (idleTime[i] / 1000000));
+        output.message(sb.toString());
+        }
+
+    // An individual waiting to be evaluated
+    static class Job
+        {
+        static final Job DONE = new Job(null, -1);
+        final Individual ind;
+        final int subpop;
+        Job(Individual ind, int subpop) { this.ind = ind; this.subpop = subpop; }
+        }
+
+    // Evaluates individuals from the queue, one at a time, until told it's done
+    class EvaluationThread implements Runnable
+        {
+        final int worker;
+        final int threadnum;
+        final Problem prob;
+        final boolean caching;
+        final FitnessCache cache;
+        final ArrayList<Job> deferred = new ArrayList<Job>();
+
+        EvaluationThread(int worker, Problem prob)
+            {
+            this.worker = worker;
+            this.threadnum = firstEvaluationThread + worker;
+            this.prob = prob;
+            cache = ((SimpleEvaluator)evaluator).cache;
+            caching = (cache != null && prob.canCacheFitness());
+            }
+
+        public void run()
+            {
+            long busy = 0;
+            long idle = 0;
+            long overlap = 0;
+            try
+                {
+                prob.prepareToEvaluate(PipelinedEvolutionState.this, threadnum);
+                while(true)
+                    {
+                    long wait = System.nanoTime();
+                    Job job = null;
+                    while(job == null)
+                        {
+                        try { job = queue.take(); }
+                        catch (InterruptedException e) { Thread.interrupted(); }  // ignore
+                        }
+                    long start = System.nanoTime();
+                    idle += start - wait;
+                    if (job == Job.DONE)
+                        break;
+                    if (failure == null)  // don't bother if someone has already failed
+                        evaluate(job);
+                    long end = System.nanoTime();
+                    busy += end - start;
+                    overlap += Math.max(0, Math.min(end, breedingEnd) - start);
+                    }
+                prob.finishEvaluating(PipelinedEvolutionState.this, threadnum);
+
+                // individuals which the Problem didn't finish evaluating until now
+                for(int i = 0; i < deferred.size(); i++)
+                    {
+                    Job job = deferred.get(i);
+                    if (job.ind.evaluated)
+                        {
+                        if (caching)
+                            cache.put(PipelinedEvolutionState.this, job.ind, job.subpop);
+                        individualEvaluated(job.ind, job.subpop, threadnum);
+                        }
+                    }
+                }
+            catch (Throwable e)
+                {
+                synchronized(lock) { if (failure == null) failure = e; }
+                }
+            synchronized(lock)
+                {
+                busyTime[worker] += busy;
+                idleTime[worker] += idle;
+                overlapTime += overlap;
+                }
+            }
+
+        void evaluate(Job job)
+            {
+            Individual ind = job.ind;
+            if (ind.evaluated)
+                return;
+            if (caching)
+                {
+                Fitness fitness = cache.get(PipelinedEvolutionState.this, ind, job.subpop);
+                if (fitness != null)  // we've seen it before
+                    {
+                    ind.fitness = fitness;
+                    ind.evaluated = true;
+                    individualEvaluated(ind, job.subpop, threadnum);
+                    return;
+                    }
+                }
+            ((SimpleProblemForm)prob).evaluate(PipelinedEvolutionState.this, ind, job.subpop, threadnum);
+            incrementEvaluations(1);
+            if (ind.evaluated)
+                {
+                if (caching)
+                    cache.put(PipelinedEvolutionState.this, ind, job.subpop);
+                individualEvaluated(ind, job.subpop, threadnum);
+                }
+            else deferred.add(job);  // the Problem is waiting for finishEvaluating(...)
+            }
+        }
+    }
@@ -85,6 +85,19 @@ public class SimpleBreeder extends Breeder
     
     public ThreadPool pool = new ThreadPool();
 
+    /** Notified by SimpleBreeder's breeding threads of the individuals they have just bred.  */
+    public interface Listener
+        {
+        /** Called by breeding thread <i>threadnum</i> each time its breeding pipeline has produced some children
+            for the given subpopulation, which are individuals[start] onward.  These children won't be modified
+            by the breeder again.  Different breeding threads may call this method at the same time. */
+        public void individualsBred(EvolutionState state, int subpop, ArrayList<Individual> individuals, int start, int threadnum);
+        }
+
+    /** If non-null, told about each batch of children as soon as it has been bred (see PipelinedEvolutionState). 
+        Elites, and individuals copied over from subpopulations which aren't being bred, are not reported. */
+    public Listener listener = null;
+
     public boolean usingElitism(int subpopulation)
         {
         return (elite[subpopulation] > 0 ) || (eliteFrac[subpopulation] > 0);
@@ -121,6 +134,8 @@ public class SimpleBreeder extends Breeder
         for(int i = 0; i < size; i++) 
             eliteFrac[i] = elite[i] = NOT_SET;
         reevaluateElites = new boolean[size];
+
+        pool = ThreadPool.create(state, new Parameter(ThreadPool.P_THREADPOOL), ThreadPool.BACKEND_CLASSIC);
                 
         sequentialBreeding = state.parameters.getBoolean(base.push(P_SEQUENTIAL_BREEDING), null, false);
         if (sequentialBreeding && (size == 1)) // uh oh, this can't be right
@@ -305,7 +320,7 @@ public class SimpleBreeder extends Breeder
                 r.numinds = numinds[y];
                 r.me = this;
                 r.state = state;
-                pool.start(r, "ECJ Breeding Thread " + y );
+                pool.startWithAffinity(r, "ECJ Breeding Thread " + y, y);
                 }
                         
             pool.joinAll();
@@ -372,9 +387,14 @@ public class SimpleBreeder extends Breeder
                                                                         
             int x = 0;
             while(x<numinds[subpop])
+                {
+                int start = putHere.size();
                 x += bp.produce(1,numinds[subpop]-x,subpop,
                     putHere,
                     state,threadnum, newpop.subpops.get(subpop).species.buildMisc(state, subpop, threadnum));
+                if (listener != null)  // the children from start onward are finished
+                    listener.individualsBred(state, subpop, putHere, start, threadnum);
+                }
             if (x>numinds[subpop]) // uh oh!  Someone blew it!
                 state.output.fatal("Whoa!  A breeding source overwrote the space of another source in subpopulation " + subpop + ".  You need to check your breeding pipeline code (in produce() ).");
 
@@ -7,6 +7,7 @@
 
 package ec.simple;
 import java.util.ArrayList;
+import java.util.concurrent.*;
 
 import ec.*;
 import ec.coevolve.GroupedProblemForm;
@@ -32,6 +33,53 @@ import ec.util.*;
  * is provided, then each thread sends individuals sequentially to be evaluated
  * one-at-a-time.
  *
+ * <p>When more than one evaluation thread is used, chunks can be handed out by one of
+ * two schedulers.  The default <tt>pool</tt> scheduler has each ThreadPool worker
+ * grab the next chunk from a shared counter.  The <tt>work-stealing</tt> scheduler
+ * instead recursively splits each subpopulation into ranges on a ForkJoinPool, so
+ * idle threads steal work from busy ones rather than waiting on the slowest thread
+ * at the end of the generation.  Unless a fixed chunk size is given, the size of the
+ * smallest range is chosen adaptively from the average time it took to evaluate an
+ * individual in the previous generation, aiming for ranges which take about
+ * <tt>task-time</tt> microseconds each.  Either scheduler records the time each
+ * thread spent busy and idle during the most recent generation; set <tt>report</tt>
+ * to print these each generation.
+ *
+ * <p>If <tt>cache</tt> is true, the evaluator remembers the fitnesses of the individuals it has
+ * evaluated in a FitnessCache (or, if <tt>cache.off-heap</tt> is true, an OffHeapFitnessCache)
+ * shared by all threads, and gives individuals identical to ones it has seen before a copy of their fitness
+ * rather than evaluating them again.  Individuals given a fitness from the cache are not counted as
+ * evaluations.  The cache is used only with a SimpleProblemForm whose canCacheFitness() method returns
+ * true, and not at all if <tt>num-tests</tt> is greater than 1.
+ *
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><i>base</i><tt>.chunk-size</tt><br>
+ <font size=-1>int &gt;= 1 or "auto" (default = auto)</font></td>
+ <td valign=top>(the number of individuals handed to a thread at a time)</td></tr>
+ <tr><td valign=top><i>base</i><tt>.scheduler</tt><br>
+ <font size=-1>"pool" or "work-stealing" (default = pool)</font></td>
+ <td valign=top>(how chunks are distributed among multiple evaluation threads)</td></tr>
+ <tr><td valign=top><i>base</i><tt>.scheduler.task-time</tt><br>
+ <font size=-1>int &gt;= 1 (default = 1000)</font></td>
+ <td valign=top>(the target duration of a work-stealing range, in microseconds, when chunk-size is auto)</td></tr>
+ <tr><td valign=top><i>base</i><tt>.scheduler.report</tt><br>
+ <font size=-1>boolean (default = false)</font></td>
+ <td valign=top>(should per-thread busy and idle time be printed each generation?)</td></tr>
+ <tr><td valign=top><i>base</i><tt>.cache</tt><br>
+ <font size=-1>boolean (default = false)</font></td>
+ <td valign=top>(should the fitnesses of evaluated individuals be remembered and given to identical individuals?)</td></tr>
+ <tr><td valign=top><i>base</i><tt>.cache.off-heap</tt><br>
+ <font size=-1>boolean (default = false)</font></td>
+ <td valign=top>(should the cache be stored outside the Java heap?)</td></tr>
+ </table>
+
+ <p><b>Parameter bases</b><br>
+ <table>
+ <tr><td valign=top><i>base</i><tt>.cache</tt></td>
+ <td>the FitnessCache or OffHeapFitnessCache</td></tr>
+ </table>
+ *
  * @author Sean Luke
  * @author Eric Scott
  * @version 2.0 
@@ -56,6 +104,21 @@ public class SimpleEvaluator extends Evaluator
     public static final String P_CHUNK_SIZE = "chunk-size";
     public static final String V_AUTO = "auto";
 
+    public static final String P_SCHEDULER = "scheduler";
+    public static final String P_TASK_TIME = "task-time";
+    public static final String P_REPORT = "report";
+    public static final String V_POOL = "pool";
+    public static final String V_WORK_STEALING = "work-stealing";
+
+    public static final String P_CACHE = "cache";
+    public static final String P_OFF_HEAP = "off-heap";
+
+    public static final int SCHEDULER_POOL = 0;
+    public static final int SCHEDULER_WORK_STEALING = 1;
+    
+    /** The smallest number of ranges, per thread, the work-stealing scheduler will split a subpopulation into. */
+    public static final int MIN_TASKS_PER_THREAD = 4;
+
     public static final int MERGE_MEAN = 0;
     public static final int MERGE_MEDIAN = 1;
     public static final int MERGE_BEST = 2;
@@ -72,10 +135,32 @@ public class SimpleEvaluator extends Evaluator
         
     public ThreadPool pool = new ThreadPool();
 
+    /** Which scheduler hands out chunks when there is more than one evaluation thread. */
+    public int scheduler = SCHEDULER_POOL;
+    /** The target duration, in nanoseconds, of a single work-stealing range when chunk-size is auto. */
+    public long taskTime;
+    /** Should per-thread timings be printed each generation? */
+    public boolean report;
+    
+    /** Nanoseconds each evaluation thread spent evaluating individuals during the most recent generation. */
+    public long[] busyTime = new long[0];
+    /** Nanoseconds each evaluation thread spent waiting or scheduling during the most recent generation. */
+    public long[] idleTime = new long[0];
+    /** The average nanoseconds spent evaluating a single individual in the most recent generation, or 0 if unknown. */
+    public double costPerIndividual = 0;
+
+    /** The fitness cache, or null if there is none. */
+    public FitnessCache cache = null;
+
+    // The ForkJoinPool is built lazily, and rebuilt after restoring from a checkpoint
+    transient ForkJoinPool forkJoinPool;
+
     public void setup(final EvolutionState state, final Parameter base)
         {
         super.setup(state,base);
 
+        pool = ThreadPool.create(state, new Parameter(ThreadPool.P_THREADPOOL), ThreadPool.BACKEND_CLASSIC);
+
         cloneProblem =state.parameters.getBoolean(base.push(P_CLONE_PROBLEM), null, true);
         if (!cloneProblem && (state.breedthreads > 1)) // uh oh, this can't be right
             state.output.fatal("The Evaluator is not cloning its Problem, but you have more than one thread.", base.push(P_CLONE_PROBLEM));
@@ -112,6 +197,33 @@ public class SimpleEvaluator extends Evaluator
                 state.output.fatal("Chunk Size must be either an integer >= 1 or 'auto'", base.push(P_CHUNK_SIZE), null);
             }
 
+        String s = state.parameters.getStringWithDefault(base.push(P_SCHEDULER), null, V_POOL);
+        if (s.equalsIgnoreCase(V_POOL))
+            scheduler = SCHEDULER_POOL;
+        else if (s.equalsIgnoreCase(V_WORK_STEALING))
+            scheduler = SCHEDULER_WORK_STEALING;
+        else
+            state.output.fatal("Scheduler must be either '" + V_POOL + "' or '" + V_WORK_STEALING + "'", base.push(P_SCHEDULER));
+
+        taskTime = state.parameters.getIntWithDefault(base.push(P_SCHEDULER).push(P_TASK_TIME), null, 1000);
+        if (taskTime < 1)
+            state.output.fatal("The scheduler's task time must be an integer >= 1", base.push(P_SCHEDULER).push(P_TASK_TIME));
+        taskTime *= 1000L;  // microseconds -> nanoseconds
+
+        report = state.parameters.getBoolean(base.push(P_SCHEDULER).push(P_REPORT), null, false);
+
+        if (state.parameters.getBoolean(base.push(P_CACHE), null, false))
+            {
+            if (numTests > 1)
+                state.output.warning("The fitness cache is not used when each individual is evaluated more than once.", base.push(P_CACHE), base.push(P_NUM_TESTS));
+            else
+                {
+                if (state.parameters.getBoolean(base.push(P_CACHE).push(P_OFF_HEAP), null, false))
+                    cache = new OffHeapFitnessCache();
+                else cache = new FitnessCache();
+                cache.setup(state, base.push(P_CACHE));
+                }
+            }
         } 
 
     Population oldpop = null;
@@ -209,24 +321,266 @@ public class SimpleEvaluator extends Evaluator
             }
         else
             {
-            ThreadPool.Worker[] threads = new ThreadPool.Worker[state.evalthreads];
-            for(int i = 0; i < threads.length; i++)
+            if (busyTime.length != state.evalthreads)
                 {
-                SimpleEvaluatorThread run = new SimpleEvaluatorThread();
-                run.threadnum = i;
-                run.state = state;
-                run.prob = (Problem)p_problem.clone();
-                threads[i] = pool.start(run, "ECJ Evaluation Thread " + i);
+                busyTime = new long[state.evalthreads];
+                idleTime = new long[state.evalthreads];
                 }
+            for(int i = 0; i < busyTime.length; i++)
+                busyTime[i] = 0;
+            long start = System.nanoTime();
+                
+            if (scheduler == SCHEDULER_WORK_STEALING)
+                {
+                evaluateWorkStealing(state);
+                }
+            else
+                {
+                ThreadPool.Worker[] threads = new ThreadPool.Worker[state.evalthreads];
+                for(int i = 0; i < threads.length; i++)
+                    {
+                    SimpleEvaluatorThread run = new SimpleEvaluatorThread();
+                    run.threadnum = i;
+                    run.state = state;
+                    run.prob = (Problem)p_problem.clone();
+                    threads[i] = pool.startWithAffinity(run, "ECJ Evaluation Thread " + i, i);
+                    }
                         
-            // join
-            pool.joinAll();
+                // join
+                pool.joinAll();
+                }
+            
+            updateTimings(state, System.nanoTime() - start);
             }
 
         if (numTests > 1)
             contract(state);
         }
 
+    // Fills in idleTime and costPerIndividual once all threads have finished, and reports if asked to
+    void updateTimings(EvolutionState state, long elapsed)
+        {
+        long totalBusy = 0;
+        int totalInds = 0;
+        for(int i = 0; i < busyTime.length; i++)
+            {
+            idleTime[i] = Math.max(0, elapsed - busyTime[i]);
+            totalBusy += busyTime[i];
+            }
+        for(int i = 0; i < state.population.subpops.size(); i++)
+            totalInds += state.population.subpops.get(i).individuals.size();
+        if (totalInds > 0)
+            costPerIndividual = totalBusy / (double) totalInds;
+                
+        if (report)
+            {
+            StringBuilder sb = new StringBuilder("Evaluation threads (busy/idle ms):");
+            for(int i = 0; i < busyTime.length; i++)
+                sb.append(" " + i + ": " + (busyTime[i] / 1000000) + "/" + (idleTime[i] / 1000000));
+            state.output.message(sb.toString());
+            }
+        }
+
+    // Returns the ForkJoinPool, building it if it doesn't exist yet or has the wrong number of threads
+    ForkJoinPool getForkJoinPool(EvolutionState state)
+        {
+        if (forkJoinPool == null || forkJoinPool.getParallelism() != state.evalthreads)
+            {
+            if (forkJoinPool != null)
+                forkJoinPool.shutdown();
+            forkJoinPool = new ForkJoinPool(state.evalthreads, new EvaluatorThreadFactory(state.evalthreads), null, false);
+            }
+        return forkJoinPool;
+        }
+        
+    // Computes the smallest range the work-stealing scheduler will hand to a thread for a given subpopulation
+    int computeGrainSize(EvolutionState state, int numinds)
+        {
+        if (chunkSize != C_AUTO) 
+            return chunkSize;
+                
+        // never fewer than MIN_TASKS_PER_THREAD ranges per thread, so stealing has something to work with
+        int maxGrain = Math.max(1, numinds / (state.evalthreads * MIN_TASKS_PER_THREAD));
+        if (costPerIndividual <= 0)  // first generation: we have no idea how expensive individuals are
+            return maxGrain;
+        long grain = Math.round(taskTime / costPerIndividual);
+        return (int)Math.max(1, Math.min(maxGrain, grain));
+        }
+
+    /** Evaluates the population with a work-stealing ForkJoinPool.  Each subpopulation is
+        recursively split in half, forking off the upper half, until ranges are no larger than
+        the grain size; idle threads then steal the forked halves.  One Problem is cloned for each
+        evaluation thread, and each ForkJoinPool thread is always assigned the same thread number,
+        so it consistently uses the same Problem and random number generator. */
+    protected void evaluateWorkStealing(final EvolutionState state)
+        {
+        ForkJoinPool fjp = getForkJoinPool(state);
+        Problem[] probs = new Problem[state.evalthreads];
+        for(int i = 0; i < probs.length; i++)
+            probs[i] = (Problem)(p_problem.clone());
+                
+        ArrayList<Subpopulation> subpops = state.population.subpops;
+        int[] grains = new int[subpops.size()];
+        for(int i = 0; i < grains.length; i++)
+            grains[i] = computeGrainSize(state, subpops.get(i).individuals.size());
+                
+        // We don't invoke() the root, because the calling thread may then help out by running
+        // some ranges itself, and it has no thread number of its own.  Instead we wait on a latch.
+        EvaluationRoot root = new EvaluationRoot(state, probs, grains);
+        fjp.execute(root);
+        while(true)
+            {
+            try { root.done.await(); break; }
+            catch (InterruptedException e) { Thread.interrupted(); }  // ignore
+            }
+                
+        if (root.failure instanceof RuntimeException)
+            throw (RuntimeException)(root.failure);
+        else if (root.failure instanceof Error)
+            throw (Error)(root.failure);
+        else if (root.failure != null)
+            throw new RuntimeException(root.failure);
+        }
+
+    // Assigns each ForkJoinPool thread a distinct thread number in [0, evalthreads), and
+    // refuses to build more threads than that (ForkJoinPool permits a factory to return null).
+    static class EvaluatorThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory
+        {
+        boolean[] taken;
+        
+        EvaluatorThreadFactory(int numThreads) { taken = new boolean[numThreads]; }
+                
+        public synchronized ForkJoinWorkerThread newThread(ForkJoinPool pool)
+            {
+            for(int i = 0; i < taken.length; i++)
+                if (!taken[i])
+                    {
+                    taken[i] = true;
+                    return new EvaluatorThread(pool, this, i);
+                    }
+            return null;
+            }
+                
+        synchronized void release(int threadnum) { taken[threadnum] = false; }
+        }
+        
+    static class EvaluatorThread extends ForkJoinWorkerThread
+        {
+        final EvaluatorThreadFactory factory;
+        final int threadnum;
+                
+        EvaluatorThread(ForkJoinPool pool, EvaluatorThreadFactory factory, int threadnum)
+            {
+            super(pool);
+            this.factory = factory;
+            this.threadnum = threadnum;
+            setDaemon(true);
+            setName("ECJ Evaluation Thread " + threadnum);
+            }
+                
+        protected void onTermination(Throwable exception)
+            {
+            factory.release(threadnum);
+            super.onTermination(exception);
+            }
+        }
+
+    // Forks one EvaluationRange per nonempty subpopulation.  Its completion, which happens only
+    // after every range has finished, opens the latch.  Ranges catch their own exceptions and
+    // hand them to the root, so the root never completes while ranges are still running.
+    class EvaluationRoot extends CountedCompleter<Void>
+        {
+        private static final long serialVersionUID = 1;
+
+        final EvolutionState state;
+        final Problem[] probs;
+        final int[] grains;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Throwable failure = null;
+                
+        EvaluationRoot(EvolutionState state, Problem[] probs, int[] grains)
+            {
+            this.state = state;
+            this.probs = probs;
+            this.grains = grains;
+            }
+                
+        public void compute()
+            {
+            ArrayList<Subpopulation> subpops = state.population.subpops;
+            for(int i = 0; i < subpops.size(); i++)
+                {
+                int size = subpops.get(i).individuals.size();
+                if (size > 0)
+                    {
+                    addToPendingCount(1);
+                    new EvaluationRange(this, this, i, 0, size, grains[i]).fork();
+                    }
+                }
+            tryComplete();
+            }
+                
+        public void onCompletion(CountedCompleter<?> caller)
+            {
+            done.countDown();
+            }
+                
+        synchronized void fail(Throwable e)
+            {
+            if (failure == null)
+                failure = e;
+            }
+        }
+
+    // Splits [from, to) of a subpopulation in half until it's no bigger than the grain, then evaluates it
+    class EvaluationRange extends CountedCompleter<Void>
+        {
+        private static final long serialVersionUID = 1;
+
+        final EvaluationRoot root;
+        final int subpop;
+        final int from;
+        int to;
+        final int grain;
+                
+        EvaluationRange(CountedCompleter<?> parent, EvaluationRoot root, int subpop, int from, int to, int grain)
+            {
+            super(parent);
+            this.root = root;
+            this.subpop = subpop;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            }
+                
+        public void compute()
+            {
+            while (to - from > grain)
+                {
+                int mid = (from + to) >>> 1;
+                addToPendingCount(1);
+                new EvaluationRange(this, root, subpop, mid, to, grain).fork();
+                to = mid;
+                }
+                        
+            int threadnum = ((EvaluatorThread)(Thread.currentThread())).threadnum;
+            int[] numinds = new int[root.state.population.subpops.size()];
+            int[] froms = new int[numinds.length];
+            numinds[subpop] = to - from;
+            froms[subpop] = from;
+                        
+            long start = System.nanoTime();
+            try
+                {
+                if (root.failure == null)  // don't bother if someone has already failed
+                    evalPopChunk(root.state, numinds, froms, threadnum, root.probs[threadnum]);
+                }
+            catch (Throwable e) { root.fail(e); }
+            busyTime[threadnum] += System.nanoTime() - start;  // only this thread writes this slot
+            tryComplete();
+            }
+        }
+
     /** The SimpleEvaluator determines that a run is complete by asking
         each individual in each population if he's optimal; if he 
         finds an individual somewhere that's optimal,
@@ -260,6 +614,10 @@ public class SimpleEvaluator extends Evaluator
         
         ArrayList<Subpopulation> subpops = state.population.subpops;
         int len = subpops.size();
+
+        boolean caching = (cache != null && p instanceof SimpleProblemForm && p.canCacheFitness());
+        ArrayList<Individual> deferred = (caching ? new ArrayList<Individual>() : null);
+        IntBag deferredSubpops = (caching ? new IntBag() : null);
         
         for(int pop=0;pop<len;pop++)
             {
@@ -273,18 +631,46 @@ public class SimpleEvaluator extends Evaluator
                 chunk[i++] = inds.get(x);
 
             // start evaluatin'!
+            int hits = 0;
             if (p instanceof GroupedProblemForm) { // Evaluate the chunk all at once
                 ((GroupedProblemForm)p).evaluate(state, chunk, null, false, null, threadnum);
             }
             else {  // Evaluate each individual in the chunk sequentially
                 assert(p instanceof SimpleProblemForm);
                 for (Individual ind : chunk)
-                    ((SimpleProblemForm)p).evaluate(state, ind, pop, threadnum);
+                    {
+                    if (caching && !ind.evaluated)
+                        {
+                        Fitness fitness = cache.get(state, ind, pop);
+                        if (fitness != null)  // we've seen it before
+                            {
+                            ind.fitness = fitness;
+                            ind.evaluated = true;
+                            hits++;
+                            continue;
+                            }
+                        ((SimpleProblemForm)p).evaluate(state, ind, pop, threadnum);
+                        if (ind.evaluated)
+                            cache.put(state, ind, pop);
+                        else  // the Problem is waiting for finishEvaluating(...)
+                            {
+                            deferred.add(ind);
+                            deferredSubpops.add(pop);
+                            }
+                        }
+                    else ((SimpleProblemForm)p).evaluate(state, ind, pop, threadnum);
+                    }
             }
-            state.incrementEvaluations(upperbound - fp);
+            state.incrementEvaluations(upperbound - fp - hits);
             }
                         
         ((ec.Problem)p).finishEvaluating(state,threadnum);
+
+        // remember the individuals which the Problem didn't finish evaluating until now
+        if (caching)
+            for(int i = 0; i < deferred.size(); i++)
+                if (deferred.get(i).evaluated)
+                    cache.put(state, deferred.get(i), deferredSubpops.get(i));
         }
 
 
@@ -363,7 +749,9 @@ public class SimpleEvaluator extends Evaluator
                         
                 numinds[subpop] = count;
                 from[subpop] = start;
+                long time = System.nanoTime();
                 evalPopChunk(state, numinds, from, threadnum, prob);
+                busyTime[threadnum] += System.nanoTime() - time;
                 }
             }
         }
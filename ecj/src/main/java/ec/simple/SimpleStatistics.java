@@ -35,6 +35,9 @@ import java.io.File;
  * after the last boundary.  This is done by using individualsEvaluatedStatistics(...)
  * to update best-individual-of-generation in addition to doing it in
  * postEvaluationStatistics(...).
+ *
+ * <p>If the Evaluator is a SimpleEvaluator with a FitnessCache, SimpleStatistics also prints the
+ * cache's hits, misses, and evictions so far each generation.
 
  <p><b>Parameters</b><br>
  <table>
@@ -200,6 +203,10 @@ public class SimpleStatistics extends Statistics implements SteadyStateStatistic
                     ((SimpleProblemForm)(state.evaluator.p_problem.clone())).describe(state, best_i[x], x, 0, statisticslog);   
                 }   
             }
+
+        // report on the fitness cache if there is one
+        if (doGeneration && state.evaluator instanceof SimpleEvaluator && ((SimpleEvaluator)(state.evaluator)).cache != null)
+            state.output.println("Fitness Cache: " + ((SimpleEvaluator)(state.evaluator)).cache, statisticslog);
         }
 
     /** Allows MultiObjectiveStatistics etc. to call super.super.finalStatistics(...) without
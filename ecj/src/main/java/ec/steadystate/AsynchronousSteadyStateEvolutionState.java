@@ -0,0 +1,495 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.steadystate;
+import ec.*;
+import ec.eval.MasterProblem;
+import ec.simple.SimpleProblemForm;
+import ec.util.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/*
+ * AsynchronousSteadyStateEvolutionState.java
+ */
+
+/**
+ * An AsynchronousSteadyStateEvolutionState runs Steady-State Evolution asynchronously with several threads
+ * on the same machine.  SteadyStateEvolutionState breeds, evaluates, and inserts one individual at a time,
+ * and can only overlap evaluations when they're farmed out to remote slaves with a MasterProblem.  Here
+ * instead each of <tt>evalthreads</tt> worker threads continuously breeds an individual, evaluates it, and
+ * inserts it into the population, independently of the others: there is no barrier at all, and a slow
+ * evaluation holds up only its own thread.  This is most useful when evaluation times vary a great deal.
+ *
+ * <p>Each worker has its own breeding pipelines and deselectors (cloned from the SteadyStateBreeder), its
+ * own Problem, and its own thread number and random number generator.  The workers' thread numbers start at
+ * <tt>breedthreads</tt>, so the main thread keeps thread 0 and random[0] to itself; generators are added
+ * for the workers as needed, seeded with <tt>seed.</tt><i>n</i> if given, else from random[0].
+ * Workers visit the subpopulations round-robin.  Until a subpopulation is full, workers fill it with new
+ * random individuals rather than breeding; any which are finished after it has filled up compete for a
+ * place like bred individuals do.
+ *
+ * <p>The population is guarded by a read-write lock.  Workers breed while holding the read lock, so any
+ * number can breed at once, and insert their evaluated individuals while holding the write lock, which they
+ * hold only long enough to pick an individual for death with the deselector, replace it (as determined by
+ * <tt>steady.replacement-probability</tt>), and call the steady-state statistics.  Evaluation is done
+ * without any lock.  Whenever an individual is replaced, every worker's breeding pipelines and deselectors
+ * are told so through individualReplaced(...), by the worker itself the next time it breeds.
+ *
+ * <p>A "generation" is still a population's worth of evaluations.  The main thread waits until enough
+ * evaluations have been inserted to finish the generation, then takes the write lock while it does the usual
+ * generation-boundary work (statistics, exchanging, global updates, and checkpointing).  Workers which are
+ * evaluating carry on meanwhile, and are only held up when they next try to breed or insert, so a few more
+ * evaluations than a generation's worth may have been done by the time the main thread gets the lock.
+ * Individuals still being evaluated when a checkpoint is written are not saved in it.
+ *
+ * <p>The state keeps counts of accepted and rejected replacements, of how often a worker had to wait for the
+ * write lock and for how long, and of the evaluations per second during the last generation.  Set
+ * <tt>steady.async.report</tt> to print these each generation.
+ *
+ * <p>The Problem must be a SimpleProblemForm which finishes evaluating individuals immediately, and not a
+ * MasterProblem: use SteadyStateEvolutionState for distributed asynchronous evolution.  The
+ * <tt>steady.empty-at-generation-boundary</tt> option is not supported.
+ *
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><tt>steady.async.report</tt><br>
+ <font size=-1>boolean (default = false)</font></td>
+ <td valign=top>(should throughput and lock contention be printed each generation?)</td></tr>
+ </table>
+ */
+
+public class AsynchronousSteadyStateEvolutionState extends SteadyStateEvolutionState
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final String P_ASYNC = "async";
+    public static final String P_REPORT = "report";
+
+    /** Should throughput and contention be printed each generation? */
+    public boolean report;
+    /** Runs the worker threads. */
+    public ThreadPool pool = new ThreadPool();
+
+    /** The number of evaluated individuals which replaced an individual marked for death. */
+    public long replacements;
+    /** The number of evaluated individuals which failed to replace the individual marked for death. */
+    public long rejections;
+    /** The number of times a worker had to wait for the write lock to insert an individual. */
+    public long contendedInserts;
+    /** Nanoseconds, summed over all workers, spent waiting for the write lock to insert individuals. */
+    public long insertWaitTime;
+    /** Evaluations per second since the most recent generation boundary at which any evaluations had been done. */
+    public double evaluationsPerSecond;
+    /** The thread number (and random number generator) of the first worker: the others follow it. */
+    public int firstWorkerThread;
+
+    // Only exist while the workers are running, and are rebuilt when restoring from a checkpoint
+    transient ReentrantReadWriteLock lock;
+    transient Condition boundary;
+    transient Worker[] workers;
+    transient volatile int result;
+    transient Throwable failure;
+    transient long lastTime;
+    transient long lastEvaluations;
+    // Serializes calls to Statistics made by workers holding only the read lock
+    Object[] statisticsLock = new Object[0];          // Arrays are serializable
+
+    public void setup(final EvolutionState state, final Parameter base)
+        {
+        // EvolutionState sizes its per-thread data by the number of random number generators,
+        // so we have to add ours first
+        firstWorkerThread = breedthreads;
+        addGenerators(breedthreads + evalthreads);
+
+        super.setup(state, base);
+        report = parameters.getBoolean(SteadyStateDefaults.base().push(P_ASYNC).push(P_REPORT), null, false);
+        pool = ThreadPool.create(this, new Parameter(ThreadPool.P_THREADPOOL), ThreadPool.BACKEND_CLASSIC);
+
+        if (!(evaluator.p_problem instanceof SimpleProblemForm) || evaluator.p_problem instanceof MasterProblem)
+            output.fatal("AsynchronousSteadyStateEvolutionState requires a SimpleProblemForm which is not a MasterProblem." +
+                "  For distributed asynchronous evolution use SteadyStateEvolutionState.",
+                new Parameter(P_EVALUATOR).push(Evaluator.P_PROBLEM));
+        if (emptyAtGenerationBoundary)
+            output.fatal("AsynchronousSteadyStateEvolutionState does not support emptying the population at generation boundaries.",
+                SteadyStateDefaults.base().push(P_EMPTY_AT_GEN));
+        }
+
+    // Builds the workers and their pipelines, then starts them.  Called the first time evolve() is called,
+    // and again after restoring from a checkpoint.
+    void startWorkers()
+        {
+        lock = new ReentrantReadWriteLock();
+        boundary = lock.writeLock().newCondition();
+        result = R_NOTDONE;
+        failure = null;
+        lastTime = System.nanoTime();
+        lastEvaluations = evaluations;
+
+        SteadyStateBreeder steadyStateBreeder = (SteadyStateBreeder)breeder;
+        workers = new Worker[evalthreads];
+        for(int i = 0; i < workers.length; i++)
+            {
+            workers[i] = new Worker(i);
+            steadyStateBreeder.sourcesAreProperForm(this, workers[i].bp);
+            output.exitIfErrors();  // because sourcesAreProperForm asks us to
+            }
+        for(int i = 0; i < workers.length; i++)
+            pool.startWithAffinity(workers[i], "ECJ Steady-State Worker " + i, i);
+        }
+
+    // Tells the workers to quit, and waits for them.  We must not hold the lock.
+    void stopWorkers()
+        {
+        if (result == R_NOTDONE)
+            result = R_FAILURE;  // any value other than R_NOTDONE will do
+        pool.joinAll();
+        workers = null;
+        }
+
+    public int evolve()
+        {
+        if (firstTime)
+            {
+            if (statistics instanceof SteadyStateStatisticsForm)
+                ((SteadyStateStatisticsForm)statistics).enteringInitialPopulationStatistics(this);
+            statistics.postInitializationStatistics(this);
+            firstTime = false;
+            }
+        if (workers == null)
+            startWorkers();
+
+        int finished = R_NOTDONE;
+        lock.writeLock().lock();
+        try
+            {
+            // WAIT FOR THE END OF THE GENERATION
+            while(result == R_NOTDONE && failure == null && evaluations < (generation + 1) * (long)generationSize)
+                boundary.awaitUninterruptibly();
+
+            if (failure == null)
+                {
+                statistics.preEvaluationStatistics(this);
+                statistics.postEvaluationStatistics(this);
+                updateThroughput();
+
+                // SHOULD WE QUIT?
+                if (result != R_NOTDONE)
+                    finished = result;
+                else if (numGenerations != UNDEFINED && generation >= numGenerations - 1)
+                    finished = R_FAILURE;
+                else if (evaluator.runComplete != null)
+                    {
+                    output.message(evaluator.runComplete);
+                    finished = R_SUCCESS;
+                    }
+                else
+                    finished = generationBoundary();
+                }
+            }
+        finally
+            {
+            lock.writeLock().unlock();
+            }
+
+        if (failure != null || finished != R_NOTDONE)
+            {
+            stopWorkers();
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException)failure;
+            else if (failure instanceof Error)
+                throw (Error)failure;
+            else if (failure != null)
+                throw new RuntimeException(failure);
+            }
+        return finished;
+        }
+
+    // Does the work at the end of a generation, while holding the write lock
+    int generationBoundary()
+        {
+        // INCREMENT GENERATION AND CHECKPOINT
+        generation++;
+        output.message("Generation " + generation +"\tEvaluations So Far " + evaluations);
+        statistics.generationBoundaryStatistics(this);
+
+        // PRE-BREEDING EXCHANGING
+        statistics.prePreBreedingExchangeStatistics(this);
+        population = exchanger.preBreedingExchangePopulation(this);
+        statistics.postPreBreedingExchangeStatistics(this);
+        String exchangerWantsToShutdown = exchanger.runComplete(this);
+        if (exchangerWantsToShutdown!=null)
+            {
+            output.message(exchangerWantsToShutdown);
+            return R_SUCCESS;
+            }
+
+        // GLOBAL STATE UPDATE
+        evaluator.postEvaluationGlobalUpdate(this);
+
+        // POST-BREEDING EXCHANGING
+        statistics.prePostBreedingExchangeStatistics(this);
+        population = exchanger.postBreedingExchangePopulation(this);
+        statistics.postPostBreedingExchangeStatistics(this);
+
+        if (checkpoint && (generation - 1) % checkpointModulo == 0)
+            {
+            output.message("Checkpointing");
+            statistics.preCheckpointStatistics(this);
+            Checkpoint.setCheckpoint(this);
+            statistics.postCheckpointStatistics(this);
+            }
+
+        return R_NOTDONE;
+        }
+
+    // Computes the evaluations per second since the last generation boundary, and reports if asked to
+    void updateThroughput()
+        {
+        long time = System.nanoTime();
+        if (evaluations > lastEvaluations && time > lastTime)  // otherwise we're catching up on generations already done
+            {
+            evaluationsPerSecond = (evaluations - lastEvaluations) * 1000000000.0 / (time - lastTime);
+            lastTime = time;
+            lastEvaluations = evaluations;
+            }
+
+        if (report)
+            output.message("Asynchronous steady state: " + String.format("%.1f", evaluationsPerSecond) + " evaluations/sec, " +
+                replacements + " replacements, " + rejections + " rejections, " + contendedInserts +
+                " inserts waited " + (insertWaitTime / 1000000) + " ms for the lock");
+        }
+
+    public void finish(int result)
+        {
+        output.message("Total Evaluations " + evaluations);
+        statistics.finalStatistics(this,result);
+        finisher.finishPopulation(this,result);
+        exchanger.closeContacts(this,result);
+        evaluator.closeContacts(this,result);
+        }
+
+    // Inserts an evaluated individual into its subpopulation, while holding the write lock
+    void insert(Individual ind, int subpop, Worker worker)
+        {
+        if (result != R_NOTDONE)  // the run is over
+            return;
+        worker.noteReplacements();    // the deselector must not pick from stale fitnesses
+        evaluator.postEvaluationLocalUpdate(this, ind, subpop);
+        incrementEvaluations(1);
+
+        Subpopulation sp = population.subpops.get(subpop);
+        ArrayList<Individual> inds = sp.individuals;
+        int index = -1;
+        if (inds.size() < sp.initialSize)
+            {
+            inds.add(ind);
+            index = inds.size() - 1;
+            if (inds.size() == sp.initialSize && statistics instanceof SteadyStateStatisticsForm)
+                ((SteadyStateStatisticsForm)statistics).enteringSteadyStateStatistics(subpop, this);
+            }
+        else
+            {
+            // mark individual for death
+            int deadIndividualIndex = worker.deselectors[subpop].produce(subpop, this, worker.threadnum);
+            Individual deadInd = inds.get(deadIndividualIndex);
+
+            // maybe replace dead individual with new individual
+            if (ind.fitness.betterThan(deadInd.fitness) ||
+                random[worker.threadnum].nextDouble() < replacementProbability)
+                {
+                inds.set(deadIndividualIndex, ind);
+                index = deadIndividualIndex;
+                replacements++;
+                for(int i = 0; i < workers.length; i++)
+                    workers[i].replaced.add(new int[] { subpop, deadIndividualIndex });
+                forget(deadInd, subpop);
+                }
+            else
+                {
+                rejections++;
+                forget(ind, subpop);
+                }
+
+            if (statistics instanceof SteadyStateStatisticsForm)
+                ((SteadyStateStatisticsForm)statistics).individualsEvaluatedStatistics(this,
+                    new Individual[]{ind}, new Individual[]{deadInd}, new int[]{subpop}, new int[]{deadIndividualIndex});
+            }
+
+        // SHOULD WE QUIT?
+        if (index >= 0 && ((SteadyStateEvaluator)evaluator).isIdealFitness(this, ind) && quitOnRunComplete)
+            {
+            output.message("Individual " + index + " of subpopulation " + subpop + " has an ideal fitness.");
+            result = R_SUCCESS;
+            }
+        else if (numEvaluations != UNDEFINED && evaluations >= numEvaluations)
+            result = R_FAILURE;
+
+        if (result != R_NOTDONE || evaluations % generationSize == 0)
+            boundary.signal();
+        }
+
+    // Adds an individual to the duplicate hash table unless an equal one is there already.  Returns
+    // whether it was added.
+    @SuppressWarnings("unchecked")
+    boolean remember(Individual ind, int subpop)
+        {
+        synchronized(individualHash[subpop])
+            {
+            if (individualHash[subpop].get(ind) != null)
+                return false;
+            individualHash[subpop].put(ind, ind);
+            return true;
+            }
+        }
+
+    // Removes an individual which has left the population, or failed to enter it, from the duplicate hash table.
+    // If it was a duplicate which was let in anyway, the table holds the other copy instead, which we leave alone.
+    void forget(Individual ind, int subpop)
+        {
+        synchronized(individualHash[subpop])
+            {
+            if (individualHash[subpop].get(ind) == ind)
+                individualHash[subpop].remove(ind);
+            }
+        }
+
+    // Breeds, evaluates, and inserts individuals until the run is over
+    class Worker implements Runnable
+        {
+        final int index;
+        final int threadnum;
+        final BreedingSource[] bp;
+        final SelectionMethod[] deselectors;
+        final SimpleProblemForm problem;
+        // The subpopulations and indices of individuals replaced since we last bred
+        final ConcurrentLinkedQueue<int[]> replaced = new ConcurrentLinkedQueue<int[]>();
+
+        Worker(int index)
+            {
+            AsynchronousSteadyStateEvolutionState state = AsynchronousSteadyStateEvolutionState.this;
+            SteadyStateBreeder steadyStateBreeder = (SteadyStateBreeder)breeder;
+            this.index = index;
+            this.threadnum = firstWorkerThread + index;
+            problem = (SimpleProblemForm)(evaluator.p_problem.clone());
+            bp = new BreedingSource[population.subpops.size()];
+            deselectors = new SelectionMethod[bp.length];
+            for(int pop = 0; pop < bp.length; pop++)
+                {
+                Species species = population.subpops.get(pop).species;
+                if (species.pipe_prototype != null)
+                    {
+                    bp[pop] = (BreedingSource)(species.pipe_prototype.clone());
+                    if (!bp[pop].produces(state, population, pop, threadnum))
+                        output.error("The Breeding Source of subpopulation " + pop + " does not produce individuals of the expected species " + species.getClass().getName() + " and with the expected Fitness class " + species.f_prototype.getClass().getName());
+                    bp[pop].fillStubs(state, null);
+                    bp[pop].prepareToProduce(state, pop, threadnum);
+                    }
+                deselectors[pop] = (SelectionMethod)(steadyStateBreeder.deselectors[pop].clone());
+                deselectors[pop].prepareToProduce(state, pop, threadnum);
+                }
+            }
+
+        public void run()
+            {
+            AsynchronousSteadyStateEvolutionState state = AsynchronousSteadyStateEvolutionState.this;
+            int subpop = index;
+            try
+                {
+                while(result == R_NOTDONE)
+                    {
+                    Individual ind = null;
+                    lock.readLock().lock();
+                    try
+                        {
+                        subpop = (subpop + 1) % population.subpops.size();  // round robin selection
+                        ind = breed(subpop);
+                        }
+                    finally
+                        {
+                        lock.readLock().unlock();
+                        }
+
+                    problem.evaluate(state, ind, subpop, threadnum);
+
+                    long start = System.nanoTime();
+                    if (!lock.writeLock().tryLock())
+                        {
+                        lock.writeLock().lock();
+                        contendedInserts++;
+                        insertWaitTime += System.nanoTime() - start;
+                        }
+                    try
+                        {
+                        insert(ind, subpop, this);
+                        }
+                    finally
+                        {
+                        lock.writeLock().unlock();
+                        }
+                    }
+                }
+            catch (Throwable e)
+                {
+                lock.writeLock().lock();
+                if (failure == null)
+                    failure = e;
+                boundary.signal();
+                lock.writeLock().unlock();
+                }
+            finally
+                {
+                for(int pop = 0; pop < bp.length; pop++)
+                    {
+                    if (bp[pop] != null)
+                        bp[pop].finishProducing(state, pop, threadnum);
+                    deselectors[pop].finishProducing(state, pop, threadnum);
+                    }
+                }
+            }
+
+        // Lets our pipelines and deselectors know what's been replaced since we last looked
+        void noteReplacements()
+            {
+            AsynchronousSteadyStateEvolutionState state = AsynchronousSteadyStateEvolutionState.this;
+            for(int[] r = replaced.poll(); r != null; r = replaced.poll())
+                {
+                if (bp[r[0]] != null)
+                    ((SteadyStateBSourceForm)bp[r[0]]).individualReplaced(state, r[0], threadnum, r[1]);
+                ((SteadyStateBSourceForm)deselectors[r[0]]).individualReplaced(state, r[0], threadnum, r[1]);
+                }
+            }
+
+        // Creates or breeds a new individual for the subpopulation, while holding the read lock
+        Individual breed(int subpop)
+            {
+            AsynchronousSteadyStateEvolutionState state = AsynchronousSteadyStateEvolutionState.this;
+            noteReplacements();
+
+            Subpopulation sp = population.subpops.get(subpop);
+            boolean partiallyFullSubpop = (sp.individuals.size() < sp.initialSize);
+            Individual ind = null;
+            for (int tries=0; tries <= sp.numDuplicateRetries; tries++)  // see Subpopulation
+                {
+                if (partiallyFullSubpop)
+                    ind = sp.species.newIndividual(state, threadnum);
+                else
+                    {
+                    ArrayList<Individual> newind = new ArrayList<Individual>();
+                    bp[subpop].produce(1, 1, subpop, newind, state, threadnum, sp.species.buildMisc(state, subpop, threadnum));
+                    ind = newind.get(0);
+                    synchronized(statisticsLock) { statistics.individualsBredStatistics(state, new Individual[]{ind}); }
+                    }
+
+                if (sp.numDuplicateRetries >= 1 && remember(ind, subpop))
+                    break;
+                }
+            return ind;
+            }
+        }
+    }
@@ -0,0 +1,291 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.util;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/*
+ * AsyncLogWriter.java
+ */
+
+/**
+ * AsyncLogWriter is the asynchronous backend for Output.  When Output is asynchronous, each thread
+ * which prints to a Log appends a record of the text to its own ring buffer, without taking any locks, and returns
+ * immediately.  A single background thread collects the records from all the ring buffers and writes them
+ * to their Logs' writers in batches, flushing each Log once per batch rather than once per line.  Because this
+ * thread does all the writing, it also does all the compressing for gzipped Logs.
+ *
+ * <p>Every record is stamped with a sequence number when it is appended, and records are written strictly in
+ * that order, so each Log receives its text in the same order it would have received it synchronously,
+ * even when it comes from many threads.
+ *
+ * <p>If a thread's ring buffer is full, the thread waits for the background thread to empty it.
+ * drain() waits until everything appended so far has been written and flushed; Output calls it
+ * whenever it flushes or closes its logs, including on a fatal error.
+ *
+ * <p>AsyncLogWriter keeps some statistics: the current and largest <i>queue depth</i> (the number of
+ * records appended but not yet written), the number of records and batches written, and the number of
+ * times a thread had to wait because its ring buffer was full.
+ */
+
+public class AsyncLogWriter
+    {
+    /** The default number of records in each thread's ring buffer. */
+    public static final int DEFAULT_RING_SIZE = 1024;
+    /** How long the background thread sleeps, in nanoseconds, when there's nothing to write. */
+    public static final long IDLE_NANOS = 1000000;
+
+    static final class Record
+        {
+        final long sequence;
+        final Log log;
+        final String text;
+        final boolean newline;
+
+        Record(long sequence, Log log, String text, boolean newline)
+            {
+            this.sequence = sequence;
+            this.log = log;
+            this.text = text;
+            this.newline = newline;
+            }
+        }
+
+    // A single-producer, single-consumer ring buffer belonging to one thread
+    static final class Ring
+        {
+        final Thread owner;
+        final Record[] records;
+        final int mask;
+        volatile long head;         // the next record to read: only changed by the background thread
+        volatile long tail;         // the next record to write: only changed by the owner
+
+        Ring(Thread owner, int size)
+            {
+            this.owner = owner;
+            records = new Record[size];
+            mask = size - 1;
+            }
+        }
+
+    static final Comparator<Record> BY_SEQUENCE = new Comparator<Record>()
+        {
+        public int compare(Record a, Record b)
+            {
+            return (a.sequence < b.sequence ? -1 : (a.sequence > b.sequence ? 1 : 0));
+            }
+        };
+
+    final int ringSize;
+    final ThreadLocal<Ring> ring = new ThreadLocal<Ring>();
+    final List<Ring> rings = new CopyOnWriteArrayList<Ring>();
+    final AtomicLong sequence = new AtomicLong();
+    final Object drained = new Object();
+    final Thread thread;
+
+    volatile long written;
+    volatile boolean sleeping;
+    volatile boolean stopping;
+
+    final AtomicLong maxQueueDepth = new AtomicLong();
+    final AtomicLong stalls = new AtomicLong();
+    volatile long batches;
+
+    /** Builds and starts an AsyncLogWriter with ring buffers of DEFAULT_RING_SIZE. */
+    public AsyncLogWriter()
+        {
+        this(DEFAULT_RING_SIZE);
+        }
+
+    /** Builds and starts an AsyncLogWriter with ring buffers which hold at least <i>ringSize</i> records each. */
+    public AsyncLogWriter(int ringSize)
+        {
+        int size = 1;
+        while(size < ringSize) size <<= 1;
+        this.ringSize = size;
+
+        thread = new Thread(new Runnable() { public void run() { write(); } }, "ECJ Log Writer");
+        thread.setDaemon(true);
+        thread.start();
+        }
+
+    /** Appends a line of text, to be printed to the given log.  */
+    public void println(Log log, String text)
+        {
+        append(log, text, true);
+        }
+
+    /** Appends text, with no '\n', to be printed to the given log.  */
+    public void print(Log log, String text)
+        {
+        append(log, text, false);
+        }
+
+    void append(Log log, String text, boolean newline)
+        {
+        Ring r = ring.get();
+        if (r == null)
+            {
+            r = new Ring(Thread.currentThread(), ringSize);
+            rings.add(r);
+            ring.set(r);
+            }
+
+        long s = sequence.getAndIncrement();
+        long tail = r.tail;
+        if (tail - r.head >= r.records.length)
+            {
+            stalls.incrementAndGet();
+            while(tail - r.head >= r.records.length)
+                {
+                LockSupport.unpark(thread);
+                Thread.yield();
+                }
+            }
+        r.records[(int)(tail & r.mask)] = new Record(s, log, text, newline);
+        r.tail = tail + 1;
+
+        long depth = s + 1 - written;
+        long max = maxQueueDepth.get();
+        while(depth > max && !maxQueueDepth.compareAndSet(max, depth))
+            max = maxQueueDepth.get();
+        if (sleeping) LockSupport.unpark(thread);
+        }
+
+    /** Waits until every record appended before this call has been written and flushed. */
+    public void drain()
+        {
+        if (Thread.currentThread() == thread) return;
+        long target = sequence.get();
+        synchronized(drained)
+            {
+            while(written < target && thread.isAlive())
+                {
+                LockSupport.unpark(thread);
+                try { drained.wait(1); }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); return; }
+                }
+            }
+        }
+
+    /** Drains the records, then stops the background thread.  Nothing more should be appended afterwards. */
+    public void close()
+        {
+        stopping = true;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() == thread) return;
+        boolean joined = false;
+        while(!joined)
+            {
+            try { thread.join(); joined = true; }
+            catch (InterruptedException e) { }
+            }
+        }
+
+    /** Returns the number of records which have been appended but not yet written. */
+    public long getQueueDepth() { return sequence.get() - written; }
+
+    /** Returns the largest queue depth seen so far. */
+    public long getMaxQueueDepth() { return maxQueueDepth.get(); }
+
+    /** Returns the number of records written so far. */
+    public long getRecordsWritten() { return written; }
+
+    /** Returns the number of batches written so far. */
+    public long getBatchesWritten() { return batches; }
+
+    /** Returns the number of times a thread had to wait because its ring buffer was full. */
+    public long getStalls() { return stalls.get(); }
+
+    /** Returns the number of threads which currently have ring buffers. */
+    public int getNumRings() { return rings.size(); }
+
+    /** Resets the maximum queue depth and stall count. */
+    public void resetMetrics()
+        {
+        maxQueueDepth.set(0);
+        stalls.set(0);
+        }
+
+    // moves every published record out of the rings and into pending, and drops the rings of dead threads
+    int collect(PriorityQueue<Record> pending)
+        {
+        int count = 0;
+        for(Ring r : rings)
+            {
+            long head = r.head;
+            long tail = r.tail;
+            if (head == tail)
+                {
+                if (!r.owner.isAlive()) rings.remove(r);
+                continue;
+                }
+            for(long i = head; i < tail; i++)
+                {
+                int index = (int)(i & r.mask);
+                pending.add(r.records[index]);
+                r.records[index] = null;
+                }
+            r.head = tail;
+            count += (int)(tail - head);
+            }
+        return count;
+        }
+
+    // the background thread
+    void write()
+        {
+        PriorityQueue<Record> pending = new PriorityQueue<Record>(ringSize, BY_SEQUENCE);
+        ArrayList<Log> dirty = new ArrayList<Log>();
+        long next = 0;
+        while(true)
+            {
+            boolean stop = stopping;
+            collect(pending);
+
+            // write everything we can in sequence
+            while(!pending.isEmpty() && pending.peek().sequence == next)
+                {
+                Record r = pending.poll();
+                if (r.log.writer != null)
+                    {
+                    if (r.newline) r.log.writer.println(r.text);
+                    else r.log.writer.print(r.text);
+                    if (!dirty.contains(r.log)) dirty.add(r.log);
+                    }
+                next++;
+                }
+
+            if (next > written)
+                {
+                for(int i = 0; i < dirty.size(); i++)
+                    {
+                    Log log = dirty.get(i);
+                    if (log.writer != null) log.writer.flush();
+                    }
+                dirty.clear();
+                batches++;
+                written = next;
+                synchronized(drained) { drained.notifyAll(); }
+                }
+            else if (stop && pending.isEmpty() && next == sequence.get())
+                break;
+            else
+                {
+                sleeping = true;
+                if (pending.isEmpty() && next == sequence.get())
+                    LockSupport.parkNanos(IDLE_NANOS);
+                else Thread.yield();            // someone's in the middle of appending
+                sleeping = false;
+                }
+            }
+        synchronized(drained) { drained.notifyAll(); }
+        }
+    }
@@ -34,6 +34,11 @@ import java.io.*;
  * write the checkpoint files.  Otherwise they will be written in your working
  * directory (where you ran the Java process).
  *
+ * <p>If the EvolutionState has a <tt>checkpointer</tt> (because asynchronous or
+ * incremental checkpointing was asked for), setCheckpoint(...) hands the work
+ * over to it: see ec.util.IncrementalCheckpoint.  restoreFromCheckpoint(...)
+ * reads either kind of checkpoint file.
+ *
  * @author Sean Luke
  * @version 1.1
  */
@@ -45,6 +50,12 @@ public class Checkpoint
 
     public static void setCheckpoint(EvolutionState state)
         {
+        if (state.checkpointer != null)
+            {
+            state.checkpointer.checkpoint(state);
+            return;
+            }
+
         try
             {
             File file = new File("" + state.checkpointPrefix + "." + state.generation + ".gz");
@@ -87,6 +98,15 @@ public class Checkpoint
         throws IOException, ClassNotFoundException, OptionalDataException
     /* must throw something if error -- NEVER return null */
         { 
+        EvolutionState e;
+        File file = new File(checkpoint);
+        if (IncrementalCheckpoint.isManifest(file))
+            {
+            e = IncrementalCheckpoint.restore(file);
+            e.resetFromCheckpoint();
+            return e;
+            }
+
         // load from the file
         ObjectInputStream s = 
             new ObjectInputStream(
@@ -94,7 +114,7 @@ public class Checkpoint
                     new BufferedInputStream (
                         new FileInputStream (checkpoint))));
 
-        EvolutionState e = (EvolutionState) s.readObject();
+        e = (EvolutionState) s.readObject();
         s.close();
 
         // restart from the checkpoint
@@ -0,0 +1,391 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.util;
+
+import ec.*;
+import java.io.*;
+import java.nio.*;
+import java.util.zip.*;
+
+/**
+ * Codec.java
+ *
+
+ <p>A Codec says how individuals are encoded when they're sent over a network, as they are between a
+ MasterProblem and its Slaves and between islands in an IslandExchange, and how the stream they're sent
+ over is compressed.  There are two encodings:
+
+ <ul>
+ <li><b>standard</b>: individuals are written with writeIndividual(...) and read with readIndividual(...).
+ <li><b>compact</b>: individuals are written with writeCompactIndividual(...) and read with readCompactIndividual(...).
+ Vector individuals write their genomes as single arrays of bytes (and BitVectorIndividuals pack eight genes
+ to a byte), and GP individuals write each node as a short id in its function set rather than two ints.  Individuals
+ which don't have a compact form are written in the standard form.
+ </ul>
+
+ <p>... and four kinds of compression:
+
+ <ul>
+ <li><b>none</b>.
+ <li><b>jzlib</b>: deflate using JZLib, as in ECJ's traditional compressed communication.  JZLib must be installed.
+ <li><b>deflate</b>: deflate using java.util.zip, at its fastest setting.
+ <li><b>fast</b>: the LZ77-style byte-oriented compression in FastCompression, which compresses less than deflate but
+ uses much less CPU.
+ </ul>
+
+ <p>The side which opens a connection proposes a Codec with propose(...), and the side which accepts
+ it answers with accept(...), which picks the closest Codec it can support.  Both ends then use the
+ Codec the accepting side picked.
+
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><i>base</i><br>
+ <font size=-1>String, one of: <tt>standard</tt> (default) or <tt>compact</tt></font></td>
+ <td valign=top>(how individuals are encoded)</td></tr>
+
+ <tr><td valign=top><i>base</i>.<tt>compression</tt><br>
+ <font size=-1>String, one of: <tt>none</tt>, <tt>jzlib</tt>, <tt>deflate</tt>, or <tt>fast</tt></font></td>
+ <td valign=top>(how the stream is compressed.  The default depends on the caller.)</td></tr>
+ </table>
+*/
+
+public class Codec implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final String P_COMPRESSION = "compression";
+
+    public static final int CODEC_STANDARD = 0;
+    public static final int CODEC_COMPACT = 1;
+    public static final String[] CODEC_NAMES = { "standard", "compact" };
+
+    public static final int COMPRESSION_NONE = 0;
+    public static final int COMPRESSION_JZLIB = 1;
+    public static final int COMPRESSION_DEFLATE = 2;
+    public static final int COMPRESSION_FAST = 3;
+    public static final String[] COMPRESSION_NAMES = { "none", "jzlib", "deflate", "fast" };
+
+    /** The standard codec, without compression. */
+    public static final Codec STANDARD = new Codec(CODEC_STANDARD, COMPRESSION_NONE);
+
+    /** How individuals are encoded: one of the CODEC_ constants. */
+    public int codec;
+    /** How the stream is compressed: one of the COMPRESSION_ constants. */
+    public int compression;
+
+    public Codec(int codec, int compression)
+        {
+        this.codec = codec;
+        this.compression = compression;
+        }
+
+    /** Loads a Codec from the parameters at <i>base</i>.  If the compression isn't given, it is <i>defaultCompression</i>. */
+    public static Codec load(EvolutionState state, Parameter base, int defaultCompression)
+        {
+        int codec = lookup(state, base, CODEC_NAMES, CODEC_STANDARD);
+        int compression = lookup(state, base.push(P_COMPRESSION), COMPRESSION_NAMES, defaultCompression);
+        return new Codec(codec, compression);
+        }
+
+    static int lookup(EvolutionState state, Parameter parameter, String[] names, int defaultValue)
+        {
+        String name = state.parameters.getString(parameter, null);
+        if (name == null) return defaultValue;
+        for(int i = 0; i < names.length; i++)
+            if (names[i].equalsIgnoreCase(name.trim()))
+                return i;
+        StringBuilder legal = new StringBuilder();
+        for(int i = 0; i < names.length; i++)
+            legal.append(i == 0 ? "" : ", ").append(names[i]);
+        state.output.fatal("Unknown value " + name + ", which must be one of: " + legal, parameter);
+        return defaultValue;
+        }
+
+    public String toString() { return CODEC_NAMES[codec] + "/" + COMPRESSION_NAMES[compression]; }
+
+    public boolean equals(Object other)
+        {
+        return (other instanceof Codec && ((Codec)other).codec == codec && ((Codec)other).compression == compression);
+        }
+
+    public int hashCode() { return codec * 31 + compression; }
+
+
+
+    //// NEGOTIATION
+
+    /** Returns whether this Codec can be used on this machine. */
+    public boolean isSupported()
+        {
+        if (codec < 0 || codec >= CODEC_NAMES.length) return false;
+        if (compression < 0 || compression >= COMPRESSION_NAMES.length) return false;
+        if (compression == COMPRESSION_JZLIB)
+            {
+            try { Class.forName("com.jcraft.jzlib.JZlib"); }
+            catch (ClassNotFoundException e) { return false; }
+            }
+        return true;
+        }
+
+    /** Returns the closest Codec to this one which can be used on this machine: the unsupported parts are
+        replaced with the standard encoding or no compression. */
+    public Codec closestSupported()
+        {
+        int codec = (this.codec >= 0 && this.codec < CODEC_NAMES.length ? this.codec : CODEC_STANDARD);
+        Codec result = new Codec(codec, compression);
+        if (!result.isSupported())
+            result.compression = COMPRESSION_NONE;
+        return result;
+        }
+
+    /** Sends this Codec as a proposal over the raw (uncompressed) streams of a new connection, and returns the Codec
+        the other side accepted. */
+    public Codec propose(InputStream in, OutputStream out) throws IOException
+        {
+        out.write(codec);
+        out.write(compression);
+        out.flush();
+        int codec = in.read();
+        int compression = in.read();
+        if (codec < 0 || compression < 0)
+            throw new EOFException("Connection closed while negotiating a codec");
+        return new Codec(codec, compression);
+        }
+
+    /** Reads a Codec proposed by the other side of a new connection, and answers with, and returns, the closest Codec
+        we support. */
+    public static Codec accept(InputStream in, OutputStream out) throws IOException
+        {
+        int codec = in.read();
+        int compression = in.read();
+        if (codec < 0 || compression < 0)
+            throw new EOFException("Connection closed while negotiating a codec");
+        Codec result = new Codec(codec, compression).closestSupported();
+        out.write(result.codec);
+        out.write(result.compression);
+        out.flush();
+        return result;
+        }
+
+
+
+    //// STREAMS
+
+    /** Wraps a stream in our compression, or returns null if the compression isn't available. */
+    public OutputStream compress(OutputStream out)
+        {
+        switch(compression)
+            {
+            case COMPRESSION_JZLIB: return Output.makeCompressingOutputStream(out);
+            case COMPRESSION_DEFLATE: return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), true);
+            case COMPRESSION_FAST: return new FastCompression.CompressingOutputStream(out);
+            default: return out;
+            }
+        }
+
+    /** Wraps a stream in our decompression, or returns null if the compression isn't available. */
+    public InputStream decompress(InputStream in)
+        {
+        switch(compression)
+            {
+            case COMPRESSION_JZLIB: return Output.makeCompressingInputStream(in);
+            case COMPRESSION_DEFLATE: return new InflaterInputStream(in);
+            case COMPRESSION_FAST: return new FastCompression.DecompressingInputStream(in);
+            default: return in;
+            }
+        }
+
+
+
+    //// INDIVIDUALS
+
+    /** Writes an individual. */
+    public void writeIndividual(EvolutionState state, Individual ind, DataOutput dataOutput) throws IOException
+        {
+        if (codec == CODEC_COMPACT)
+            ind.writeCompactIndividual(state, dataOutput);
+        else ind.writeIndividual(state, dataOutput);
+        }
+
+    /** Reads an individual into an existing one. */
+    public void readIndividual(EvolutionState state, Individual ind, DataInput dataInput) throws IOException
+        {
+        if (codec == CODEC_COMPACT)
+            ind.readCompactIndividual(state, dataInput);
+        else ind.readIndividual(state, dataInput);
+        }
+
+    /** Reads a brand new individual of the given species. */
+    public Individual newIndividual(EvolutionState state, Species species, DataInput dataInput) throws IOException
+        {
+        if (codec == CODEC_COMPACT)
+            return species.newCompactIndividual(state, dataInput);
+        else return species.newIndividual(state, dataInput);
+        }
+
+
+
+    //// BULK ARRAYS
+    //// Each of these writes the array length, then the whole array in a single write(...).
+
+    /** Writes an int in one to five bytes, seven bits at a time, low bits first.  Small non-negative ints take one byte. */
+    public static void writeVarInt(DataOutput dataOutput, int value) throws IOException
+        {
+        while((value & ~0x7F) != 0)
+            {
+            dataOutput.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+            }
+        dataOutput.writeByte(value);
+        }
+
+    /** Reads an int written by writeVarInt(...). */
+    public static int readVarInt(DataInput dataInput) throws IOException
+        {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7)
+            {
+            int b = dataInput.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            }
+        throw new IOException("Malformed variable-length int");
+        }
+
+    // reads an array length and a byte array of length * width bytes
+    static byte[] readBytes(DataInput dataInput, int length, int width) throws IOException
+        {
+        byte[] bytes = new byte[length * width];
+        dataInput.readFully(bytes);
+        return bytes;
+        }
+
+    static int readLength(DataInput dataInput) throws IOException
+        {
+        int length = readVarInt(dataInput);
+        if (length < 0) throw new IOException("Negative array length " + length);
+        return length;
+        }
+
+    public static void writeDoubles(DataOutput dataOutput, double[] values) throws IOException
+        {
+        byte[] bytes = new byte[values.length * 8];
+        ByteBuffer.wrap(bytes).asDoubleBuffer().put(values);
+        writeVarInt(dataOutput, values.length);
+        dataOutput.write(bytes);
+        }
+
+    /** Reads an array written by writeDoubles(...), into <i>values</i> if it's the right length, else into a new array, which is returned. */
+    public static double[] readDoubles(DataInput dataInput, double[] values) throws IOException
+        {
+        int length = readLength(dataInput);
+        if (values == null || values.length != length) values = new double[length];
+        ByteBuffer.wrap(readBytes(dataInput, length, 8)).asDoubleBuffer().get(values);
+        return values;
+        }
+
+    public static void writeFloats(DataOutput dataOutput, float[] values) throws IOException
+        {
+        byte[] bytes = new byte[values.length * 4];
+        ByteBuffer.wrap(bytes).asFloatBuffer().put(values);
+        writeVarInt(dataOutput, values.length);
+        dataOutput.write(bytes);
+        }
+
+    public static float[] readFloats(DataInput dataInput, float[] values) throws IOException
+        {
+        int length = readLength(dataInput);
+        if (values == null || values.length != length) values = new float[length];
+        ByteBuffer.wrap(readBytes(dataInput, length, 4)).asFloatBuffer().get(values);
+        return values;
+        }
+
+    public static void writeLongs(DataOutput dataOutput, long[] values) throws IOException
+        {
+        byte[] bytes = new byte[values.length * 8];
+        ByteBuffer.wrap(bytes).asLongBuffer().put(values);
+        writeVarInt(dataOutput, values.length);
+        dataOutput.write(bytes);
+        }
+
+    public static long[] readLongs(DataInput dataInput, long[] values) throws IOException
+        {
+        int length = readLength(dataInput);
+        if (values == null || values.length != length) values = new long[length];
+        ByteBuffer.wrap(readBytes(dataInput, length, 8)).asLongBuffer().get(values);
+        return values;
+        }
+
+    public static void writeInts(DataOutput dataOutput, int[] values) throws IOException
+        {
+        byte[] bytes = new byte[values.length * 4];
+        ByteBuffer.wrap(bytes).asIntBuffer().put(values);
+        writeVarInt(dataOutput, values.length);
+        dataOutput.write(bytes);
+        }
+
+    public static int[] readInts(DataInput dataInput, int[] values) throws IOException
+        {
+        int length = readLength(dataInput);
+        if (values == null || values.length != length) values = new int[length];
+        ByteBuffer.wrap(readBytes(dataInput, length, 4)).asIntBuffer().get(values);
+        return values;
+        }
+
+    public static void writeShorts(DataOutput dataOutput, short[] values) throws IOException
+        {
+        byte[] bytes = new byte[values.length * 2];
+        ByteBuffer.wrap(bytes).asShortBuffer().put(values);
+        writeVarInt(dataOutput, values.length);
+        dataOutput.write(bytes);
+        }
+
+    public static short[] readShorts(DataInput dataInput, short[] values) throws IOException
+        {
+        int length = readLength(dataInput);
+        if (values == null || values.length != length) values = new short[length];
+        ByteBuffer.wrap(readBytes(dataInput, length, 2)).asShortBuffer().get(values);
+        return values;
+        }
+
+    public static void writeBytes(DataOutput dataOutput, byte[] values) throws IOException
+        {
+        writeVarInt(dataOutput, values.length);
+        dataOutput.write(values);
+        }
+
+    public static byte[] readBytes(DataInput dataInput, byte[] values) throws IOException
+        {
+        int length = readLength(dataInput);
+        if (values == null || values.length != length) values = new byte[length];
+        dataInput.readFully(values);
+        return values;
+        }
+
+    /** Writes an array of booleans packed eight to a byte. */
+    public static void writeBooleans(DataOutput dataOutput, boolean[] values) throws IOException
+        {
+        byte[] bytes = new byte[(values.length + 7) / 8];
+        for(int i = 0; i < values.length; i++)
+            if (values[i])
+                bytes[i >>> 3] |= (byte)(1 << (i & 7));
+        writeVarInt(dataOutput, values.length);
+        dataOutput.write(bytes);
+        }
+
+    public static boolean[] readBooleans(DataInput dataInput, boolean[] values) throws IOException
+        {
+        int length = readLength(dataInput);
+        if (values == null || values.length != length) values = new boolean[length];
+        byte[] bytes = new byte[(length + 7) / 8];
+        dataInput.readFully(bytes);
+        for(int i = 0; i < length; i++)
+            values[i] = ((bytes[i >>> 3] >>> (i & 7)) & 1) != 0;
+        return values;
+        }
+    }
@@ -0,0 +1,140 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.util;
+
+import ec.*;
+import ec.simple.*;
+import ec.vector.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * CodecBenchmark times writing and reading populations through each Codec this machine supports, as
+ * a MasterProblem or IslandExchange would over a socket.  The populations are 1000 DoubleVectorIndividuals of
+ * 100 Gaussian genes, 1000 IntegerVectorIndividuals of 200 genes from 0 to 9, 1000 BitVectorIndividuals of
+ * 1000 genes, and the initial population of the GP regression benchmark (app/regression/benchmark.params).
+ * For each it reports the number of bytes sent, and how many individuals per second, and how many megabytes per
+ * second of the standard uncompressed encoding, can be written and read.  It also checks that every individual
+ * comes back the same.
+ *
+ * <p>Usage: <tt>java ec.util.CodecBenchmark [repetitions]</tt>
+ *
+ * <p>Each measurement is the best of <i>repetitions</i> (default 10) runs.  Compression over a real network
+ * pays off when the time saved sending fewer bytes is more than the time spent compressing them.
+ */
+
+public class CodecBenchmark
+    {
+    public static final int POPULATION = 1000;
+
+    public static void main(String[] args) throws IOException
+        {
+        int repetitions = (args.length > 0 ? Integer.parseInt(args[0]) : 10);
+
+        ParameterDatabase parameters = ec.Evolve.loadParameterDatabase(new String[]
+            {
+            "-from", "app/regression/benchmark.params",
+            "-p", "silent=true",
+            "-p", "seed.0=1",
+            "-p", "pop.subpop.0.size=" + POPULATION,
+            "-p", "eval.problem.type=vladislavleva-8",
+            "-p", "gp.tc.0.fset=vladislavleva-a2",
+            });
+        EvolutionState state = ec.Evolve.initialize(parameters, 0);
+        state.startFresh();
+        MersenneTwisterFast random = state.random[0];
+
+        Individual[] doubles = new Individual[POPULATION];
+        Individual[] ints = new Individual[POPULATION];
+        Individual[] bits = new Individual[POPULATION];
+        for(int i = 0; i < POPULATION; i++)
+            {
+            DoubleVectorIndividual d = new DoubleVectorIndividual();
+            d.genome = new double[100];
+            for(int x = 0; x < d.genome.length; x++) d.genome[x] = random.nextGaussian();
+            doubles[i] = evaluated(d, random);
+            IntegerVectorIndividual n = new IntegerVectorIndividual();
+            n.genome = new int[200];
+            for(int x = 0; x < n.genome.length; x++) n.genome[x] = random.nextInt(10);
+            ints[i] = evaluated(n, random);
+            BitVectorIndividual b = new BitVectorIndividual();
+            b.genome = new boolean[1000];
+            for(int x = 0; x < b.genome.length; x++) b.genome[x] = random.nextBoolean();
+            bits[i] = evaluated(b, random);
+            }
+        Individual[] gp = state.population.subpops.get(0).individuals.toArray(new Individual[0]);
+
+        String[] names = { "double[100]", "int[200] 0-9", "bit[1000]", "GP" };
+        Individual[][] populations = { doubles, ints, bits, gp };
+
+        System.out.println("population\tcodec\tbytes\twrite (inds/s)\twrite (MB/s)\tread (inds/s)\tread (MB/s)");
+        for(int p = 0; p < populations.length; p++)
+            {
+            long standardBytes = -1;
+            for(int codec = 0; codec < Codec.CODEC_NAMES.length; codec++)
+                for(int compression = 0; compression < Codec.COMPRESSION_NAMES.length; compression++)
+                    {
+                    Codec c = new Codec(codec, compression);
+                    if (!c.isSupported()) continue;
+                    long[] result = time(state, c, populations[p], repetitions);
+                    if (standardBytes < 0) standardBytes = result[0];  // Codec.STANDARD comes first
+                    System.out.println(names[p] + "\t" + c + "\t" + result[0] + "\t" +
+                        rate(POPULATION, result[1]) + "\t" + rate(standardBytes / 1000000.0, result[1]) + "\t" +
+                        rate(POPULATION, result[2]) + "\t" + rate(standardBytes / 1000000.0, result[2]));
+                    }
+            }
+        ec.Evolve.cleanup(state);
+        }
+
+    static Individual evaluated(Individual ind, MersenneTwisterFast random)
+        {
+        SimpleFitness fitness = new SimpleFitness();
+        fitness.setFitness(null, random.nextDouble(), false);
+        ind.fitness = fitness;
+        ind.evaluated = true;
+        return ind;
+        }
+
+    static String rate(double amount, long nanos)
+        {
+        return String.format("%.1f", amount / (nanos / 1.0e9));
+        }
+
+    // returns the number of bytes written, and the best times in nanoseconds to write and to read them all
+    static long[] time(EvolutionState state, Codec codec, Individual[] inds, int repetitions) throws IOException
+        {
+        Individual[] copies = new Individual[inds.length];
+        for(int i = 0; i < inds.length; i++)
+            copies[i] = (Individual)(inds[i].clone());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long bestWrite = Long.MAX_VALUE;
+        long bestRead = Long.MAX_VALUE;
+        for(int r = 0; r < repetitions; r++)
+            {
+            bytes.reset();
+            long start = System.nanoTime();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(codec.compress(bytes)));
+            for(int i = 0; i < inds.length; i++)
+                codec.writeIndividual(state, inds[i], out);
+            out.flush();
+            bestWrite = Math.min(bestWrite, System.nanoTime() - start);
+
+            byte[] data = bytes.toByteArray();
+            start = System.nanoTime();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(codec.decompress(new ByteArrayInputStream(data))));
+            for(int i = 0; i < copies.length; i++)
+                codec.readIndividual(state, copies[i], in);
+            bestRead = Math.min(bestRead, System.nanoTime() - start);
+            }
+
+        for(int i = 0; i < inds.length; i++)
+            if (!inds[i].equals(copies[i]) || inds[i].fitness.fitness() != copies[i].fitness.fitness())
+                throw new RuntimeException("Individual " + i + " differs after going through " + codec);
+        return new long[] { bytes.size(), bestWrite, bestRead };
+        }
+    }
@@ -0,0 +1,333 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * FastCompression.java
+ *
+
+ <p>A simple, fast, byte-oriented LZ77 compressor in the style of LZ4, for compressing network traffic when
+ CPU matters more than bandwidth.  It finds repeated sequences of four or more bytes up to 64K back with a
+ single-entry hash table, and makes no attempt at entropy coding, so it compresses much less than deflate
+ but is several times faster at both ends.  Long runs of identical genes or repeated subtrees compress well;
+ random doubles hardly at all.
+
+ <p>A compressed block is a series of <i>sequences</i>.  Each begins with a token byte: its high four bits
+ are the number of literal bytes which follow, and its low four bits are the length of the match after them,
+ less four.  A value of 15 in either means that more length bytes follow, each added on until one is less
+ than 255 (after the literals, for the match).  Then come the literals, then the match's distance back, as two
+ bytes, low byte first.  The last sequence stops after its literals if there's no more data.
+
+ <p>CompressingOutputStream and DecompressingInputStream compress a stream in blocks of up to 64K: each
+ flush() ends a block, so they are suitable for interactive protocols.  Each block is preceded by its
+ uncompressed length and its compressed length (0 if it was stored uncompressed) as two big-endian ints.
+*/
+
+public class FastCompression
+    {
+    public static final int BLOCK_SIZE = 65536;
+    public static final int MIN_MATCH = 4;
+    public static final int MAX_OFFSET = 65535;
+    static final int HASH_LOG = 14;
+    static final int HEADER = 8;
+
+    /** The largest number of bytes compress(...) can produce from <i>length</i> bytes. */
+    public static int maxCompressedLength(int length)
+        {
+        return length + length / 255 + 16;
+        }
+
+    /** Returns a new hash table for compress(...).  Reusing one saves allocating it each time. */
+    public static int[] newTable()
+        {
+        return new int[1 << HASH_LOG];
+        }
+
+    static int readInt(byte[] b, int i)
+        {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | (b[i + 3] << 24);
+        }
+
+    /** Compresses src[0 ... length-1] into dst starting at <i>offset</i>, which must have room for
+        maxCompressedLength(length) bytes, and returns the number of bytes written.  <i>table</i> is
+        from newTable(). */
+    public static int compress(byte[] src, int length, byte[] dst, int offset, int[] table)
+        {
+        Arrays.fill(table, -1);
+        int op = offset;
+        int anchor = 0;
+        int i = 0;
+        int last = length - MIN_MATCH;
+        while(i <= last)
+            {
+            int v = readInt(src, i);
+            int h = (v * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != v)
+                {
+                i += 1 + ((i - anchor) >>> 6);     // skip faster through data which isn't compressing
+                continue;
+                }
+            int len = MIN_MATCH;
+            while(i + len < length && src[ref + len] == src[i + len])
+                len++;
+            op = writeSequence(src, anchor, i - anchor, i - ref, len, dst, op);
+            i += len;
+            anchor = i;
+            }
+        if (anchor < length)
+            op = writeSequence(src, anchor, length - anchor, 0, 0, dst, op);
+        return op - offset;
+        }
+
+    // writes a sequence, with no match if matchLength is 0
+    static int writeSequence(byte[] src, int from, int literals, int distance, int matchLength, byte[] dst, int op)
+        {
+        int m = (matchLength == 0 ? 0 : matchLength - MIN_MATCH);
+        dst[op++] = (byte)((Math.min(literals, 15) << 4) | Math.min(m, 15));
+        if (literals >= 15)
+            op = writeLength(literals - 15, dst, op);
+        System.arraycopy(src, from, dst, op, literals);
+        op += literals;
+        if (matchLength > 0)
+            {
+            dst[op++] = (byte)distance;
+            dst[op++] = (byte)(distance >>> 8);
+            if (m >= 15)
+                op = writeLength(m - 15, dst, op);
+            }
+        return op;
+        }
+
+    static int writeLength(int length, byte[] dst, int op)
+        {
+        while(length >= 255)
+            {
+            dst[op++] = (byte)255;
+            length -= 255;
+            }
+        dst[op++] = (byte)length;
+        return op;
+        }
+
+    /** Decompresses src[offset ... offset+length-1], which must decompress to exactly <i>dstLength</i>
+        bytes, into dst[0 ... dstLength-1].  Throws an IOException if the data is malformed. */
+    public static void decompress(byte[] src, int offset, int length, byte[] dst, int dstLength) throws IOException
+        {
+        int ip = offset;
+        int end = offset + length;
+        int op = 0;
+        try
+            {
+            while(op < dstLength)
+                {
+                int token = src[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15)
+                    {
+                    int b;
+                    do { b = src[ip++] & 0xFF; literals += b; } while(b == 255);
+                    }
+                if (op + literals > dstLength || ip + literals > end)
+                    throw new IOException("Malformed compressed data: literals overrun");
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (op == dstLength) break;
+
+                int distance = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int len = token & 15;
+                if (len == 15)
+                    {
+                    int b;
+                    do { b = src[ip++] & 0xFF; len += b; } while(b == 255);
+                    }
+                len += MIN_MATCH;
+                if (distance == 0 || distance > op || op + len > dstLength)
+                    throw new IOException("Malformed compressed data: bad match");
+                int from = op - distance;
+                if (distance >= len)
+                    System.arraycopy(dst, from, dst, op, len);
+                else for(int x = 0; x < len; x++)    // overlapping: a run
+                         dst[op + x] = dst[from + x];
+                op += len;
+                if (op == dstLength) break;
+                }
+            }
+        catch (ArrayIndexOutOfBoundsException e)
+            {
+            throw new IOException("Malformed compressed data: truncated");
+            }
+        if (ip != end)
+            throw new IOException("Malformed compressed data: " + (end - ip) + " extra bytes");
+        }
+
+
+    /** Compresses a stream in blocks: see FastCompression. */
+    public static class CompressingOutputStream extends FilterOutputStream
+        {
+        byte[] buffer = new byte[BLOCK_SIZE];
+        int count = 0;
+        byte[] compressed = new byte[HEADER + maxCompressedLength(BLOCK_SIZE)];
+        int[] table = newTable();
+
+        public CompressingOutputStream(OutputStream out)
+            {
+            super(out);
+            }
+
+        public void write(int b) throws IOException
+            {
+            if (count == buffer.length) writeBlock();
+            buffer[count++] = (byte)b;
+            }
+
+        public void write(byte[] b, int off, int len) throws IOException
+            {
+            while(len > 0)
+                {
+                if (count == buffer.length) writeBlock();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                }
+            }
+
+        /** Compresses and writes out whatever is buffered as a block, then flushes the underlying stream. */
+        public void flush() throws IOException
+            {
+            writeBlock();
+            out.flush();
+            }
+
+        void writeBlock() throws IOException
+            {
+            if (count == 0) return;
+            int length = compress(buffer, count, compressed, HEADER, table);
+            if (length >= count)  // didn't compress: store it
+                {
+                System.arraycopy(buffer, 0, compressed, HEADER, count);
+                length = count;
+                writeHeader(count, 0);
+                }
+            else writeHeader(count, length);
+            out.write(compressed, 0, HEADER + length);
+            count = 0;
+            }
+
+        void writeHeader(int rawLength, int compressedLength)
+            {
+            for(int i = 0; i < 4; i++)
+                {
+                compressed[i] = (byte)(rawLength >>> (24 - 8 * i));
+                compressed[4 + i] = (byte)(compressedLength >>> (24 - 8 * i));
+                }
+            }
+        }
+
+
+    /** Decompresses a stream written by CompressingOutputStream.  If the underlying stream times out
+        in the middle of a block, nothing is lost: the next read picks up where it left off. */
+    public static class DecompressingInputStream extends FilterInputStream
+        {
+        byte[] buffer = new byte[BLOCK_SIZE];
+        int pos = 0;
+        int limit = 0;
+        byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+        byte[] header = new byte[HEADER];
+        int headerCount = 0;
+        int compressedCount = 0;
+
+        public DecompressingInputStream(InputStream in)
+            {
+            super(in);
+            }
+
+        static int getInt(byte[] b, int i)
+            {
+            return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+            }
+
+        // reads and decompresses the next block.  Returns false at the end of the stream.
+        boolean readBlock() throws IOException
+            {
+            while(headerCount < HEADER)
+                {
+                int n = in.read(header, headerCount, HEADER - headerCount);
+                if (n < 0)
+                    {
+                    if (headerCount == 0) return false;
+                    throw new EOFException("Stream ended in the middle of a compressed block header");
+                    }
+                headerCount += n;
+                }
+            int rawLength = getInt(header, 0);
+            int compressedLength = getInt(header, 4);
+            if (rawLength <= 0 || rawLength > BLOCK_SIZE || compressedLength < 0 || compressedLength > compressed.length)
+                throw new IOException("Malformed compressed block header");
+            int length = (compressedLength == 0 ? rawLength : compressedLength);
+            while(compressedCount < length)
+                {
+                int n = in.read(compressed, compressedCount, length - compressedCount);
+                if (n < 0) throw new EOFException("Stream ended in the middle of a compressed block");
+                compressedCount += n;
+                }
+            if (compressedLength == 0)
+                System.arraycopy(compressed, 0, buffer, 0, rawLength);
+            else decompress(compressed, 0, compressedLength, buffer, rawLength);
+            headerCount = 0;
+            compressedCount = 0;
+            pos = 0;
+            limit = rawLength;
+            return true;
+            }
+
+        public int read() throws IOException
+            {
+            if (pos == limit && !readBlock()) return -1;
+            return buffer[pos++] & 0xFF;
+            }
+
+        public int read(byte[] b, int off, int len) throws IOException
+            {
+            if (len == 0) return 0;
+            if (pos == limit && !readBlock()) return -1;
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(buffer, pos, b, off, n);
+            pos += n;
+            return n;
+            }
+
+        public long skip(long n) throws IOException
+            {
+            long skipped = 0;
+            while(skipped < n)
+                {
+                if (pos == limit && !readBlock()) break;
+                int k = (int)Math.min(n - skipped, limit - pos);
+                pos += k;
+                skipped += k;
+                }
+            return skipped;
+            }
+
+        public int available() throws IOException
+            {
+            return limit - pos;
+            }
+
+        public boolean markSupported() { return false; }
+        }
+    }
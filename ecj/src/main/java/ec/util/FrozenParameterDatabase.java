@@ -0,0 +1,464 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * FrozenParameterDatabase.java
+ */
+
+/**
+ * A FrozenParameterDatabase is an immutable snapshot of a ParameterDatabase and all of its parents, made
+ * with ParameterDatabase.freeze(...).  Ordinary ParameterDatabases are synchronized, and every lookup walks
+ * the tree of parents (marking each database as it goes), so threads which read parameters at the same time
+ * wait on each other.  A FrozenParameterDatabase instead flattens the tree into a single table when it is built,
+ * and its lookups take no locks.
+ *
+ * <p>Each parameter's value is parsed ahead of time as an int, a double, a boolean, and a list of doubles
+ * (for getDoubles(...) and getInts(...)), so the common get methods needn't parse anything either.  Parameters
+ * which are found through <tt>alias</tt> or <tt>default</tt> macros are resolved the first time they are asked
+ * for, and the result (whether found or not) is remembered thereafter.
+ *
+ * <p>Keeping track of which parameters were accessed and gotten (for <tt>print-used-params</tt> and the like)
+ * is optional.  If it's on, each parameter gets its own counters, which threads can update without waiting on each
+ * other; timesAccessed(...) and timesGotten(...) return their counts.  Parameters accessed or gotten in the
+ * original database before it was frozen are listed as well.
+ *
+ * <p>A FrozenParameterDatabase cannot be changed: set(...), remove(...), and adding parents all throw an
+ * UnsupportedOperationException.  If you need to change some parameters, make a new ParameterDatabase and
+ * add the FrozenParameterDatabase to it as a parent.  Lookups in the new database are synchronized as usual,
+ * but once they reach the FrozenParameterDatabase they proceed without locks, so a shared FrozenParameterDatabase
+ * can serve as the parent of many databases in different threads.  This is how MetaProblem builds the parameters
+ * for each of its runs.
+ */
+
+public class FrozenParameterDatabase extends ParameterDatabase
+    {
+    private static final long serialVersionUID = 1;
+
+    /** A parameter's value, pre-parsed. */
+    static final class Entry implements Serializable
+        {
+        private static final long serialVersionUID = 1;
+
+        final String value;
+        final boolean bool;
+        final boolean isInt;
+        final int intValue;
+        final boolean isDouble;
+        final double doubleValue;
+        final double[] doubles;  // null if the value isn't a list of doubles
+
+        Entry(ParameterDatabase database, String value)
+            {
+            this.value = value;
+            bool = !value.equalsIgnoreCase("false");
+
+            int i = 0;
+            boolean ok = (value.length() > 0);
+            if (ok)
+                {
+                try { i = database.parseInt(value); }
+                catch (NumberFormatException e) { ok = false; }
+                }
+            isInt = ok;
+            intValue = i;
+
+            double d = 0;
+            ok = true;
+            try { d = Double.valueOf(value).doubleValue(); }
+            catch (NumberFormatException e) { ok = false; }
+            isDouble = ok;
+            doubleValue = d;
+
+            // the same parsing as getDoublesWithMax(...)
+            double[] bag = new double[0];
+            Scanner scanner = new Scanner(value);
+            while(scanner.hasNextDouble())
+                {
+                bag = Arrays.copyOf(bag, bag.length + 1);
+                bag[bag.length - 1] = scanner.nextDouble();
+                }
+            doubles = (scanner.hasNext() || bag.length == 0 ? null : bag);
+            }
+        }
+
+    static final Entry MISSING = new Entry(null, "");
+
+    /** The database which was frozen. */
+    ParameterDatabase source;
+
+    // the concrete parameters, fixed when frozen
+    HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+    // parameters resolved through macros, or not found, as they are asked for
+    transient ConcurrentHashMap<String, Entry> resolved = new ConcurrentHashMap<String, Entry>();
+
+    boolean trackAccesses;
+    ConcurrentHashMap<String, LongAdder> accessCounts = new ConcurrentHashMap<String, LongAdder>();
+    ConcurrentHashMap<String, LongAdder> getCounts = new ConcurrentHashMap<String, LongAdder>();
+
+    /** Builds a snapshot of the given database and its parents.  If <i>trackAccesses</i> is true, the
+        snapshot counts how often each parameter is accessed and gotten. */
+    @SuppressWarnings("unchecked")  // gotten and accessed are raw Hashtables
+    public FrozenParameterDatabase(ParameterDatabase source, boolean trackAccesses)
+        {
+        super();
+        this.source = source;
+        this.trackAccesses = trackAccesses;
+        synchronized(source)
+            {
+            label = "Frozen " + source.label;
+            directory = source.directory;
+            relativeClass = source.relativeClass;
+            relativePath = source.relativePath;
+
+            Hashtable<String, String> gather = new Hashtable<String, String>();
+            source._list(null, false, "root", gather);
+            Enumeration<String> e = gather.keys();
+            while(e.hasMoreElements())
+                {
+                String key = e.nextElement();
+                String value = gather.get(key).trim();
+                if (value.length() == 0) continue;   // an empty parameter hides any in the parents
+                properties.put(key, value);
+                entries.put(key, new Entry(this, value));
+                }
+
+            gotten.putAll(source.gotten);
+            accessed.putAll(source.accessed);
+            }
+
+        Entry print = entries.get(PRINT_PARAMS);
+        printState = (print == null || print.value.equalsIgnoreCase("false") ? PS_NONE : PS_PRINT_PARAMS);
+        }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+        {
+        in.defaultReadObject();
+        resolved = new ConcurrentHashMap<String, Entry>();
+        }
+
+    /** Returns the database which was frozen. */
+    public ParameterDatabase getSource()
+        {
+        return source;
+        }
+
+    /** Returns whether accesses are being counted. */
+    public boolean getTrackAccesses()
+        {
+        return trackAccesses;
+        }
+
+    /** Returns how many times the given parameter has been accessed (looked up or tested for existence) since
+        the database was frozen, or 0 if accesses are not being counted. */
+    public long timesAccessed(Parameter parameter)
+        {
+        LongAdder count = accessCounts.get(parameter.param);
+        return (count == null ? 0 : count.sum());
+        }
+
+    /** Returns how many times the given parameter has been gotten (looked up and found) since the database
+        was frozen, or 0 if accesses are not being counted. */
+    public long timesGotten(Parameter parameter)
+        {
+        LongAdder count = getCounts.get(parameter.param);
+        return (count == null ? 0 : count.sum());
+        }
+
+    static void count(ConcurrentHashMap<String, LongAdder> counts, String key)
+        {
+        LongAdder count = counts.get(key);
+        if (count == null)
+            {
+            LongAdder newCount = new LongAdder();
+            count = counts.putIfAbsent(key, newCount);
+            if (count == null) count = newCount;
+            }
+        count.increment();
+        }
+
+    /** Returns the entry for the given parameter, resolving macros if need be, or null if there is none. */
+    Entry entry(String parameter)
+        {
+        if (parameter == null) return null;
+        Entry entry = entries.get(parameter);
+        if (entry == null)
+            {
+            entry = resolved.get(parameter);
+            if (entry == null)
+                {
+                String value = super._getParam(parameter);  // resolves alias and default macros, once
+                entry = (value == null ? MISSING : new Entry(this, value));
+                Entry previous = resolved.putIfAbsent(parameter, entry);
+                if (previous != null) entry = previous;
+                }
+            }
+        return (entry == MISSING ? null : entry);
+        }
+
+    /** Looks up the parameter and counts it as accessed, and gotten if it exists. */
+    Entry get(Parameter parameter)
+        {
+        if (parameter == null) return null;
+        Entry entry = entry(parameter.param);
+        if (trackAccesses)
+            {
+            count(accessCounts, parameter.param);
+            if (entry != null) count(getCounts, parameter.param);
+            }
+        return entry;
+        }
+
+
+    //// The lookups all come through here, without locks
+
+    String _getParam(String parameter)
+        {
+        Entry entry = entry(parameter);
+        return (entry == null ? null : entry.value);
+        }
+
+    String _getRecursive(String parameter)
+        {
+        if (parameter == null) return null;
+        Entry entry = entries.get(parameter);
+        return (entry == null ? null : entry.value);
+        }
+
+    String getParam(Parameter parameter)
+        {
+        Entry entry = get(parameter);
+        return (entry == null ? null : entry.value);
+        }
+
+    boolean _exists(Parameter parameter)
+        {
+        if (parameter == null) return false;
+        Entry entry = entry(parameter.param);
+        if (trackAccesses) count(accessCounts, parameter.param);
+        return (entry != null);
+        }
+
+    void uncheck() { }
+
+    public String getString(Parameter parameter, Parameter defaultParameter)
+        {
+        printGotten(parameter, defaultParameter, false);
+        if (_exists(parameter))
+            return getString(parameter);
+        else
+            return getString(defaultParameter);
+        }
+
+    String getString(Parameter parameter)
+        {
+        return getParam(parameter);
+        }
+
+    /** Returns true if parameter exist in the database, without locking
+        @deprecated use exists(Parameter, null)
+    */
+    @Deprecated
+    public boolean exists(Parameter parameter)
+        {
+        return exists(parameter, null);
+        }
+
+    public boolean exists(Parameter parameter, Parameter defaultParameter)
+        {
+        printGotten(parameter, defaultParameter, true);
+        return (_exists(parameter) || _exists(defaultParameter));
+        }
+
+
+    //// Pre-parsed values
+
+    boolean getBoolean(Parameter parameter, boolean defaultValue)
+        {
+        Entry entry = get(parameter);
+        return (entry == null ? defaultValue : entry.bool);
+        }
+
+    int getInt(Parameter parameter) throws NumberFormatException
+        {
+        Entry entry = get(parameter);
+        if (entry == null)
+            throw new NumberFormatException("Integer does not exist for parameter " + parameter);
+        if (!entry.isInt)
+            throw new NumberFormatException("Bad integer (" + entry.value + " ) for parameter " + parameter);
+        return entry.intValue;
+        }
+
+    int getInt(Parameter parameter, int minValue)
+        {
+        Entry entry = get(parameter);
+        if (entry == null || !entry.isInt || entry.intValue < minValue)
+            return minValue - 1;
+        return entry.intValue;
+        }
+
+    int getIntWithDefault(Parameter parameter, int defaultValue)
+        {
+        Entry entry = get(parameter);
+        if (entry == null || !entry.isInt)
+            return defaultValue;
+        return entry.intValue;
+        }
+
+    int getIntWithMax(Parameter parameter, int minValue, int maxValue)
+        {
+        Entry entry = get(parameter);
+        if (entry == null || !entry.isInt || entry.intValue < minValue || entry.intValue > maxValue)
+            return minValue - 1;
+        return entry.intValue;
+        }
+
+    double getDouble(Parameter parameter) throws NumberFormatException
+        {
+        Entry entry = get(parameter);
+        if (entry == null)
+            throw new NumberFormatException("Double does not exist for parameter " + parameter);
+        if (!entry.isDouble)
+            throw new NumberFormatException("Bad double (" + entry.value + " ) for parameter " + parameter);
+        return entry.doubleValue;
+        }
+
+    double getDouble(Parameter parameter, double minValue)
+        {
+        Entry entry = get(parameter);
+        if (entry == null || !entry.isDouble || entry.doubleValue < minValue)
+            return minValue - 1;
+        return entry.doubleValue;
+        }
+
+    double getDouble(Parameter parameter, double minValue, double maxValue)
+        {
+        Entry entry = get(parameter);
+        if (entry == null || !entry.isDouble || entry.doubleValue < minValue || entry.doubleValue > maxValue)
+            return minValue - 1;
+        return entry.doubleValue;
+        }
+
+    double getDoubleWithDefault(Parameter parameter, double defaultValue)
+        {
+        Entry entry = get(parameter);
+        if (entry == null || !entry.isDouble)
+            return defaultValue;
+        return entry.doubleValue;
+        }
+
+    double[] getDoublesWithMax(Parameter parameter, double minValue, double maxValue, int expectedLength)
+        {
+        Entry entry = get(parameter);
+        if (entry == null || entry.doubles == null)
+            return null;
+        double[] doubles = entry.doubles;
+        if (expectedLength != ARRAY_NO_EXPECTED_LENGTH && doubles.length != expectedLength)
+            return null;
+        for(int i = 0; i < doubles.length; i++)
+            if (doubles[i] != doubles[i] || doubles[i] > maxValue || doubles[i] < minValue)
+                return null;
+        return doubles.clone();
+        }
+
+
+    //// Locations are found in the original database
+
+    public ParameterDatabase getLocation(String parameter)
+        {
+        return source.getLocation(parameter);
+        }
+
+    ParameterDatabase _getLocation(String parameter)
+        {
+        return source.getLocation(parameter);
+        }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})  // ParameterDatabase's signature
+    Set _getShadowedValues(Parameter parameter, Set vals)
+        {
+        vals.addAll(source.getShadowedValues(parameter));
+        return vals;
+        }
+
+    File _directoryFor(Parameter parameter)
+        {
+        return source.directoryFor(parameter);
+        }
+
+
+    //// Listing merges in the counts
+
+    // copies the counted parameters into gotten and accessed, for the list methods
+    @SuppressWarnings("unchecked")  // gotten and accessed are raw Hashtables
+    void mergeCounts()
+        {
+        for(String key : accessCounts.keySet())
+            accessed.put(key, Boolean.TRUE);
+        for(String key : getCounts.keySet())
+            gotten.put(key, Boolean.TRUE);
+        }
+
+    public synchronized void listGotten(PrintWriter p)
+        {
+        mergeCounts();
+        super.listGotten(p);
+        }
+
+    public synchronized void listNotGotten(PrintWriter p)
+        {
+        mergeCounts();
+        super.listNotGotten(p);
+        }
+
+    public synchronized void listAccessed(PrintWriter p)
+        {
+        mergeCounts();
+        super.listAccessed(p);
+        }
+
+    public synchronized void listNotAccessed(PrintWriter p)
+        {
+        mergeCounts();
+        super.listNotAccessed(p);
+        }
+
+
+    //// Immutable
+
+    public void set(Parameter parameter, String value)
+        {
+        throw new UnsupportedOperationException("Cannot set " + parameter + " in a FrozenParameterDatabase");
+        }
+
+    public void remove(Parameter parameter)
+        {
+        throw new UnsupportedOperationException("Cannot remove " + parameter + " from a FrozenParameterDatabase");
+        }
+
+    public void removeDeeply(Parameter parameter)
+        {
+        throw new UnsupportedOperationException("Cannot remove " + parameter + " from a FrozenParameterDatabase");
+        }
+
+    public void prependParent(ParameterDatabase database)
+        {
+        throw new UnsupportedOperationException("Cannot add a parent to a FrozenParameterDatabase");
+        }
+
+    public void addParent(ParameterDatabase database)
+        {
+        throw new UnsupportedOperationException("Cannot add a parent to a FrozenParameterDatabase");
+        }
+    }
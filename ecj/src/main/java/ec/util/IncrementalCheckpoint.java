@@ -0,0 +1,665 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+
+package ec.util;
+
+import ec.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * IncrementalCheckpoint.java
+ *
+
+ <p>An IncrementalCheckpoint takes over from Checkpoint.setCheckpoint(...) when checkpointing is asynchronous,
+ incremental, or both.  The EvolutionState builds one in its <tt>checkpointer</tt> variable if either
+ <tt>checkpoint-async</tt> or <tt>checkpoint-incremental</tt> is true.
+
+ <p><b>Asynchronous checkpoints.</b>  The state is always snapshotted on the main thread, by serializing it into
+ memory, so the snapshot is consistent.  But compressing the snapshot and writing it to disk is done in a
+ background thread while evolution carries on.  Only one checkpoint is written at a time: the next checkpoint
+ (or Evolve.cleanup(...)) first waits for the last one to finish.  If a background write fails, a warning is
+ issued when this is discovered, and the next incremental checkpoint is a full one.  An asynchronous but
+ non-incremental checkpoint is an ordinary <i>prefix</i><tt>.</tt><i>generation</i><tt>.gz</tt> file, as
+ written by Checkpoint.
+
+ <p><b>Incremental checkpoints.</b>  An incremental checkpoint breaks the state into parts: each subpopulation's
+ individuals, the Statistics, and everything else (the <i>skeleton</i>).  A part which is identical (by CRC32 checksum)
+ to the one written in the previous checkpoint isn't written again: the new checkpoint simply refers to the
+ earlier file.  The skeleton, which is usually small, is always written.  Every <tt>checkpoint-full-modulo</tt>
+ checkpoints, every part is written afresh, so older checkpoint files may be deleted once a newer full
+ checkpoint exists.  An incremental checkpoint consists of:
+
+ <ul>
+ <li><i>prefix</i><tt>.</tt><i>generation</i><tt>.ckpt</tt>: the manifest, listing the files holding each part
+ and their checksums, followed by the skeleton.  It is written last, so a checkpoint only exists once all its parts do.
+ <li><i>prefix</i><tt>.</tt><i>generation</i><tt>.subpop.</tt><i>n</i><tt>.part</tt>: the individuals of subpopulation <i>n</i>.
+ <li><i>prefix</i><tt>.</tt><i>generation</i><tt>.statistics.part</tt>: the Statistics.
+ </ul>
+
+ <p>Every file is written under a temporary name and then renamed, so a crash never leaves a partial file
+ behind.  Parts are named relative to the manifest, so a directory of checkpoint files may be moved as a whole.
+ Restart from an incremental checkpoint as from any other, by giving its manifest:
+ <tt>java ec.Evolve -checkpoint </tt><i>prefix</i><tt>.</tt><i>generation</i><tt>.ckpt</tt>.  Only the newest
+ copy of each part is read, and the parts are read in parallel.
+
+ <p>Individuals are normally written with Java serialization.  They may instead be written with a Codec, in the
+ <tt>standard</tt> or <tt>compact</tt> encoding, which is much faster and smaller but only keeps what the individual's
+ writeIndividual(...) or writeCompactIndividual(...) keeps.  Every file is compressed with the given compression:
+ by default the <tt>fast</tt> compression in FastCompression, which is several times faster than GZIP.
+
+ <p>Because the individuals and Statistics are serialized separately from the skeleton, any object reachable
+ both from them and from elsewhere in the EvolutionState (other than the EvolutionState itself and the
+ subpopulations' Species) is restored as two separate copies.
+
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><tt>checkpoint-async</tt><br>
+ <font size=-1>bool = <tt>true</tt> or <tt>false</tt> (default)</font></td>
+ <td valign=top>(should checkpoints be compressed and written in a background thread?)</td></tr>
+
+ <tr><td valign=top><tt>checkpoint-incremental</tt><br>
+ <font size=-1>bool = <tt>true</tt> or <tt>false</tt> (default)</font></td>
+ <td valign=top>(should checkpoints only write the parts of the state which have changed?)</td></tr>
+
+ <tr><td valign=top><tt>checkpoint-full-modulo</tt><br>
+ <font size=-1>int &gt;= 1 (default 10)</font></td>
+ <td valign=top>(how many incremental checkpoints are written between full ones, counting the full one)</td></tr>
+
+ <tr><td valign=top><tt>checkpoint-encoding</tt><br>
+ <font size=-1>String, one of: <tt>serialized</tt> (default), <tt>standard</tt>, or <tt>compact</tt></font></td>
+ <td valign=top>(how individuals are written in incremental checkpoints)</td></tr>
+
+ <tr><td valign=top><tt>checkpoint-compression</tt><br>
+ <font size=-1>String, one of: <tt>none</tt>, <tt>jzlib</tt>, <tt>deflate</tt>, or <tt>fast</tt> (default)</font></td>
+ <td valign=top>(how incremental checkpoint files are compressed)</td></tr>
+ </table>
+*/
+
+public class IncrementalCheckpoint
+    {
+    public static final String P_ASYNC = "checkpoint-async";
+    public static final String P_INCREMENTAL = "checkpoint-incremental";
+    public static final String P_FULL_MODULO = "checkpoint-full-modulo";
+    public static final String P_ENCODING = "checkpoint-encoding";
+    public static final String P_COMPRESSION = "checkpoint-compression";
+
+    public static final int ENCODING_SERIALIZED = 0;
+    public static final int ENCODING_STANDARD = 1;
+    public static final int ENCODING_COMPACT = 2;
+    public static final String[] ENCODING_NAMES = { "serialized", "standard", "compact" };
+
+    public static final int DEFAULT_FULL_MODULO = 10;
+
+    /** The first four bytes of a manifest: "ECJI". */
+    public static final int MAGIC = 0x45434A49;
+    public static final int VERSION = 1;
+
+    public static final String MANIFEST_SUFFIX = ".ckpt";
+    public static final String PART_SUFFIX = ".part";
+
+    /** Are checkpoints written in the background? */
+    public boolean async;
+    /** Are checkpoints incremental? */
+    public boolean incremental;
+    /** How many incremental checkpoints are written between full ones. */
+    public int fullModulo;
+    /** How individuals are encoded, one of ENCODING_SERIALIZED, ENCODING_STANDARD, or ENCODING_COMPACT. */
+    public int encoding;
+    /** How files are compressed, one of the Codec.COMPRESSION_... values. */
+    public int compression;
+
+    // The parts the last manifest referred to, and their checksums.  A null file has not been written.
+    String[] subpopFiles = new String[0];
+    long[] subpopChecksums = new long[0];
+    String statisticsFile = null;
+    long statisticsChecksum;
+    // The number of incremental checkpoints written since the last full one
+    int sinceFull = 0;
+
+    ThreadPool pool = new ThreadPool();
+    ThreadPool.Worker pending = null;
+    volatile String failure = null;
+
+    /** Returns true if the parameters ask for asynchronous or incremental checkpointing. */
+    public static boolean isEnabled(ParameterDatabase parameters)
+        {
+        return parameters.getBoolean(new Parameter(P_ASYNC), null, false) ||
+            parameters.getBoolean(new Parameter(P_INCREMENTAL), null, false);
+        }
+
+    public void setup(EvolutionState state)
+        {
+        async = state.parameters.getBoolean(new Parameter(P_ASYNC), null, false);
+        incremental = state.parameters.getBoolean(new Parameter(P_INCREMENTAL), null, false);
+
+        Parameter p = new Parameter(P_FULL_MODULO);
+        fullModulo = state.parameters.getIntWithDefault(p, null, DEFAULT_FULL_MODULO);
+        if (fullModulo < 1)
+            state.output.fatal("The checkpoint full modulo must be an integer >= 1.", p);
+
+        encoding = Codec.lookup(state, new Parameter(P_ENCODING), ENCODING_NAMES, ENCODING_SERIALIZED);
+
+        p = new Parameter(P_COMPRESSION);
+        compression = Codec.lookup(state, p, Codec.COMPRESSION_NAMES, Codec.COMPRESSION_FAST);
+        if (!new Codec(Codec.CODEC_STANDARD, compression).isSupported())
+            state.output.fatal("The checkpoint compression " + Codec.COMPRESSION_NAMES[compression] + " is not available on this machine.", p);
+        }
+
+    /** The Codec used to encode individuals and compress files. */
+    Codec codec()
+        {
+        return new Codec(encoding == ENCODING_COMPACT ? Codec.CODEC_COMPACT : Codec.CODEC_STANDARD, compression);
+        }
+
+    static File file(EvolutionState state, String name)
+        {
+        return new File(state.checkpointDirectory, name);  // a null directory is the working directory
+        }
+
+    /** Writes out a checkpoint of the state, as Checkpoint.setCheckpoint(...) does. */
+    public void checkpoint(EvolutionState state)
+        {
+        waitForPendingWrite(state);
+        final String base = "" + state.checkpointPrefix + "." + state.generation;
+        try
+            {
+            final ArrayList<File> files = new ArrayList<File>();
+            final ArrayList<byte[]> contents = new ArrayList<byte[]>();
+            final String name;
+            if (incremental)
+                {
+                name = base + MANIFEST_SUFFIX;
+                snapshot(state, base, files, contents);
+                }
+            else
+                {
+                name = base + ".gz";
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream s = new ObjectOutputStream(bytes);
+                s.writeObject(state);
+                s.close();
+                files.add(file(state, name));
+                contents.add(bytes.toByteArray());
+                }
+
+            final EvolutionState st = state;
+            Runnable write = new Runnable()
+                {
+                public void run()
+                    {
+                    try
+                        {
+                        for(int i = 0; i < files.size(); i++)
+                            writeFile(files.get(i), contents.get(i), incremental && i == files.size() - 1);
+                        st.output.message("Wrote out checkpoint file " + name);
+                        }
+                    catch (IOException e)
+                        {
+                        failure = "Unable to create the checkpoint file " + name +
+                            " because of an IOException:\n--EXCEPTION--\n" + e + "\n--EXCEPTION-END--\n";
+                        }
+                    }
+                };
+
+            if (async)
+                pending = pool.start(write, "ECJ Checkpoint Writer");
+            else
+                {
+                write.run();
+                waitForPendingWrite(state);
+                }
+            }
+        catch (IOException e)
+            {
+            state.output.warning("Unable to create the checkpoint file " + base + (incremental ? MANIFEST_SUFFIX : ".gz") +
+                " because of an IOException:\n--EXCEPTION--\n" + e + "\n--EXCEPTION-END--\n");
+            forget();
+            }
+        }
+
+    /** Blocks until any checkpoint being written in the background is finished, and reports if it failed. */
+    public void waitForPendingWrite(EvolutionState state)
+        {
+        if (pending != null)
+            {
+            pool.join(pending);
+            pending = null;
+            }
+        if (failure != null)
+            {
+            state.output.warning(failure);
+            failure = null;
+            forget();
+            }
+        }
+
+    /** Waits for any pending checkpoint, then releases the background thread. */
+    public void close(EvolutionState state)
+        {
+        waitForPendingWrite(state);
+        pool.killAll();
+        }
+
+    // Forgets what has been written, so the next incremental checkpoint is a full one
+    void forget()
+        {
+        subpopFiles = new String[0];
+        subpopChecksums = new long[0];
+        statisticsFile = null;
+        sinceFull = 0;
+        }
+
+    // Adds to files and contents the parts of an incremental checkpoint which have changed, followed by the manifest.
+    void snapshot(EvolutionState state, String base, ArrayList<File> files, ArrayList<byte[]> contents) throws IOException
+        {
+        ArrayList<Subpopulation> subpops = (state.population == null ? new ArrayList<Subpopulation>() : state.population.subpops);
+        boolean full = (sinceFull % fullModulo == 0 || subpopFiles.length != subpops.size());
+        String[] newSubpopFiles = new String[subpops.size()];
+        long[] newSubpopChecksums = new long[subpops.size()];
+
+        for(int i = 0; i < subpops.size(); i++)
+            {
+            byte[] part = encodeIndividuals(state, subpops.get(i).individuals);
+            newSubpopChecksums[i] = checksum(part);
+            if (full || subpopFiles[i] == null || subpopChecksums[i] != newSubpopChecksums[i])
+                {
+                newSubpopFiles[i] = base + ".subpop." + i + PART_SUFFIX;
+                files.add(file(state, newSubpopFiles[i]));
+                contents.add(part);
+                }
+            else newSubpopFiles[i] = subpopFiles[i];
+            }
+
+        String newStatisticsFile = null;
+        long newStatisticsChecksum = 0;
+        if (state.statistics != null)
+            {
+            byte[] part = encodeObject(state, state.statistics);
+            newStatisticsChecksum = checksum(part);
+            if (full || statisticsFile == null || statisticsChecksum != newStatisticsChecksum)
+                {
+                newStatisticsFile = base + ".statistics" + PART_SUFFIX;
+                files.add(file(state, newStatisticsFile));
+                contents.add(part);
+                }
+            else newStatisticsFile = statisticsFile;
+            }
+
+        int newSinceFull = (full ? 1 : sinceFull + 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream manifest = new DataOutputStream(bytes);
+        manifest.writeInt(newSinceFull);
+        manifest.writeInt(subpops.size());
+        for(int i = 0; i < subpops.size(); i++)
+            {
+            manifest.writeUTF(newSubpopFiles[i]);
+            manifest.writeLong(newSubpopChecksums[i]);
+            }
+        manifest.writeBoolean(newStatisticsFile != null);
+        if (newStatisticsFile != null)
+            {
+            manifest.writeUTF(newStatisticsFile);
+            manifest.writeLong(newStatisticsChecksum);
+            }
+        byte[] skeleton = encodeSkeleton(state);
+        manifest.writeInt(skeleton.length);
+        manifest.write(skeleton);
+        manifest.close();
+        files.add(file(state, base + MANIFEST_SUFFIX));
+        contents.add(bytes.toByteArray());
+
+        // if this fails in the background, waitForPendingWrite() will forget it again
+        subpopFiles = newSubpopFiles;
+        subpopChecksums = newSubpopChecksums;
+        statisticsFile = newStatisticsFile;
+        statisticsChecksum = newStatisticsChecksum;
+        sinceFull = newSinceFull;
+        }
+
+    static long checksum(byte[] data)
+        {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+        }
+
+    // Compresses and writes out a file under a temporary name, then renames it.  A manifest is preceded by its uncompressed header.
+    // Non-incremental checkpoints are GZIPped, as Checkpoint does.
+    void writeFile(File file, byte[] data, boolean manifest) throws IOException
+        {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream raw = new FileOutputStream(temp);
+        try
+            {
+            if (manifest)
+                {
+                DataOutputStream header = new DataOutputStream(raw);
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeInt(encoding);
+                header.writeInt(compression);
+                header.flush();
+                }
+            OutputStream out = new BufferedOutputStream(incremental ? codec().compress(raw) : new GZIPOutputStream(raw));
+            out.write(data);
+            out.close();
+            }
+        finally
+            {
+            raw.close();
+            }
+        if (file.exists() && !file.delete())
+            throw new IOException("Could not replace the file " + file);
+        if (!temp.renameTo(file))
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+
+
+
+    //// ENCODING
+
+    // The state, with its individuals and statistics removed
+    byte[] encodeSkeleton(EvolutionState state) throws IOException
+        {
+        ArrayList<Subpopulation> subpops = (state.population == null ? new ArrayList<Subpopulation>() : state.population.subpops);
+        List<ArrayList<Individual>> individuals = new ArrayList<ArrayList<Individual>>(subpops.size());
+        Statistics statistics = state.statistics;
+        try
+            {
+            for(int i = 0; i < subpops.size(); i++)
+                {
+                individuals.add(subpops.get(i).individuals);
+                subpops.get(i).individuals = new ArrayList<Individual>();
+                }
+            state.statistics = null;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream s = new ObjectOutputStream(bytes);
+            s.writeObject(state);
+            s.close();
+            return bytes.toByteArray();
+            }
+        finally
+            {
+            for(int i = 0; i < individuals.size(); i++)
+                subpops.get(i).individuals = individuals.get(i);
+            state.statistics = statistics;
+            }
+        }
+
+    byte[] encodeIndividuals(EvolutionState state, ArrayList<Individual> individuals) throws IOException
+        {
+        if (encoding == ENCODING_SERIALIZED)
+            return encodeObject(state, individuals);
+
+        Codec codec = codec();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(individuals.size());
+        for(int i = 0; i < individuals.size(); i++)
+            codec.writeIndividual(state, individuals.get(i), out);
+        out.close();
+        return bytes.toByteArray();
+        }
+
+    byte[] encodeObject(EvolutionState state, Object obj) throws IOException
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream s = new PartOutputStream(bytes, state);
+        s.writeObject(obj);
+        s.close();
+        return bytes.toByteArray();
+        }
+
+    /** Stands in for the EvolutionState, or for a subpopulation's Species, in a serialized part. */
+    static class Reference implements Serializable
+        {
+        private static final long serialVersionUID = 1;
+        // the subpopulation whose Species this is, or -1 for the EvolutionState
+        int subpop;
+        Reference(int subpop) { this.subpop = subpop; }
+        }
+
+    // Replaces the EvolutionState and subpopulation Species with References, so parts don't drag in the whole state
+    static class PartOutputStream extends ObjectOutputStream
+        {
+        EvolutionState state;
+
+        PartOutputStream(OutputStream out, EvolutionState state) throws IOException
+            {
+            super(out);
+            this.state = state;
+            enableReplaceObject(true);
+            }
+
+        protected Object replaceObject(Object obj)
+            {
+            if (obj == state)
+                return new Reference(-1);
+            if (obj instanceof Species && state.population != null)
+                {
+                ArrayList<Subpopulation> subpops = state.population.subpops;
+                for(int i = 0; i < subpops.size(); i++)
+                    if (subpops.get(i).species == obj)
+                        return new Reference(i);
+                }
+            return obj;
+            }
+        }
+
+    // Resolves References back into the EvolutionState and Species of the restored skeleton
+    static class PartInputStream extends ObjectInputStream
+        {
+        EvolutionState state;
+
+        PartInputStream(InputStream in, EvolutionState state) throws IOException
+            {
+            super(in);
+            this.state = state;
+            enableResolveObject(true);
+            }
+
+        protected Object resolveObject(Object obj) throws IOException
+            {
+            if (obj instanceof Reference)
+                {
+                int subpop = ((Reference)obj).subpop;
+                if (subpop == -1)
+                    return state;
+                if (state.population == null || subpop >= state.population.subpops.size())
+                    throw new InvalidObjectException("Checkpoint part refers to nonexistent subpopulation " + subpop);
+                return state.population.subpops.get(subpop).species;
+                }
+            return obj;
+            }
+        }
+
+
+
+    //// RESTORING
+
+    /** Returns true if the given file is an incremental checkpoint manifest. */
+    public static boolean isManifest(File file) throws IOException
+        {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+            {
+            return in.readInt() == MAGIC;
+            }
+        catch (EOFException e)
+            {
+            return false;
+            }
+        finally
+            {
+            in.close();
+            }
+        }
+
+    /** Returns the EvolutionState stored in the incremental checkpoint whose manifest is <i>file</i>.
+        This does not call resetFromCheckpoint() on it. */
+    public static EvolutionState restore(File file) throws IOException, ClassNotFoundException
+        {
+        DataInputStream header = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        final IncrementalCheckpoint format = new IncrementalCheckpoint();
+        final EvolutionState state;
+        final String[] subpopFiles;
+        final long[] subpopChecksums;
+        String statisticsFile = null;
+        long statisticsChecksum = 0;
+        int sinceFull;
+        try
+            {
+            if (header.readInt() != MAGIC)
+                throw new IOException("Not an incremental checkpoint: " + file);
+            int version = header.readInt();
+            if (version != VERSION)
+                throw new IOException("Unknown incremental checkpoint version " + version + " in " + file);
+            format.encoding = header.readInt();
+            format.compression = header.readInt();
+            if (format.encoding < 0 || format.encoding >= ENCODING_NAMES.length || !format.codec().isSupported())
+                throw new IOException("Unknown or unavailable encoding or compression in " + file);
+
+            DataInputStream manifest = new DataInputStream(new BufferedInputStream(format.codec().decompress(header)));
+            sinceFull = manifest.readInt();
+            int numSubpops = manifest.readInt();
+            subpopFiles = new String[numSubpops];
+            subpopChecksums = new long[numSubpops];
+            for(int i = 0; i < numSubpops; i++)
+                {
+                subpopFiles[i] = manifest.readUTF();
+                subpopChecksums[i] = manifest.readLong();
+                }
+            if (manifest.readBoolean())
+                {
+                statisticsFile = manifest.readUTF();
+                statisticsChecksum = manifest.readLong();
+                }
+            byte[] skeleton = new byte[manifest.readInt()];
+            manifest.readFully(skeleton);
+            ObjectInputStream s = new ObjectInputStream(new ByteArrayInputStream(skeleton));
+            state = (EvolutionState) s.readObject();
+            s.close();
+            }
+        finally
+            {
+            header.close();
+            }
+
+        // read the newest copy of each part in parallel
+        final File directory = file.getAbsoluteFile().getParentFile();
+        final int numParts = subpopFiles.length + (statisticsFile == null ? 0 : 1);
+        final String[] partFiles = Arrays.copyOf(subpopFiles, numParts);
+        final long[] partChecksums = Arrays.copyOf(subpopChecksums, numParts);
+        if (statisticsFile != null)
+            {
+            partFiles[numParts - 1] = statisticsFile;
+            partChecksums[numParts - 1] = statisticsChecksum;
+            }
+        final Object[] parts = new Object[numParts];
+        final Exception[] errors = new Exception[numParts];
+        ThreadPool pool = new ThreadPool();
+        ThreadPool.Worker[] workers = new ThreadPool.Worker[numParts];
+        for(int i = 0; i < numParts; i++)
+            {
+            final int part = i;
+            workers[i] = pool.start(new Runnable()
+                {
+                public void run()
+                    {
+                    try
+                        {
+                        parts[part] = format.readPart(state, new File(directory, partFiles[part]), partChecksums[part],
+                            part < subpopFiles.length ? part : -1);
+                        }
+                    catch (Exception e)
+                        {
+                        errors[part] = e;
+                        }
+                    }
+                }, "ECJ Checkpoint Reader");
+            }
+        for(int i = 0; i < numParts; i++)
+            pool.join(workers[i]);
+        pool.killAll();
+        for(int i = 0; i < numParts; i++)
+            {
+            if (errors[i] instanceof IOException) throw (IOException)errors[i];
+            if (errors[i] instanceof ClassNotFoundException) throw (ClassNotFoundException)errors[i];
+            if (errors[i] != null) throw new IOException("Could not read checkpoint part " + partFiles[i], errors[i]);
+            }
+
+        for(int i = 0; i < subpopFiles.length; i++)
+            {
+            @SuppressWarnings("unchecked")      // its checksum shows it is the list we wrote
+            ArrayList<Individual> individuals = (ArrayList<Individual>)parts[i];
+            state.population.subpops.get(i).individuals = individuals;
+            }
+        if (statisticsFile != null)
+            state.statistics = (Statistics)parts[numParts - 1];
+
+        // if we'll keep checkpointing into the same directory, carry on incrementally from here
+        if (state.checkpoint && isEnabled(state.parameters))
+            {
+            IncrementalCheckpoint checkpointer = new IncrementalCheckpoint();
+            checkpointer.setup(state);
+            File checkpointDirectory = (state.checkpointDirectory == null ? new File("") : state.checkpointDirectory);
+            if (checkpointer.incremental && checkpointer.encoding == format.encoding &&
+                directory.getCanonicalFile().equals(checkpointDirectory.getAbsoluteFile().getCanonicalFile()))
+                {
+                checkpointer.subpopFiles = subpopFiles;
+                checkpointer.subpopChecksums = subpopChecksums;
+                checkpointer.statisticsFile = statisticsFile;
+                checkpointer.statisticsChecksum = statisticsChecksum;
+                checkpointer.sinceFull = sinceFull;
+                }
+            state.checkpointer = checkpointer;
+            }
+        return state;
+        }
+
+    // Reads a part, either the individuals of subpopulation <i>subpop</i> or (if subpop is -1) the Statistics
+    Object readPart(EvolutionState state, File file, long checksum, int subpop) throws IOException, ClassNotFoundException
+        {
+        InputStream raw = new FileInputStream(file);
+        byte[] data;
+        try
+            {
+            InputStream in = codec().decompress(new BufferedInputStream(raw));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[65536];
+            int n;
+            while((n = in.read(buffer)) > 0)
+                bytes.write(buffer, 0, n);
+            data = bytes.toByteArray();
+            }
+        finally
+            {
+            raw.close();
+            }
+        if (checksum(data) != checksum)
+            throw new IOException("Checkpoint part " + file + " is corrupt: its checksum does not match its manifest");
+
+        if (subpop == -1 || encoding == ENCODING_SERIALIZED)
+            {
+            ObjectInputStream s = new PartInputStream(new ByteArrayInputStream(data), state);
+            Object obj = s.readObject();
+            s.close();
+            return obj;
+            }
+
+        Codec codec = codec();
+        Species species = state.population.subpops.get(subpop).species;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int size = in.readInt();
+        ArrayList<Individual> individuals = new ArrayList<Individual>(size);
+        for(int i = 0; i < size; i++)
+            individuals.add(codec.newIndividual(state, species, in));
+        return individuals;
+        }
+    }
@@ -60,6 +60,13 @@ import java.util.Enumeration;
  * <p>Output will also store all announcements in memory by default so as to reproduce
  * them if it's restarted from a checkpoint.  You can change this behavior also by
  *
+ * <p>Output is normally synchronous: text is written to a log, and the log is flushed, before the
+ * method which printed it returns, and only one thread may be printing at a time.  If you call
+ * setAsynchronous(true), Output instead hands text to an AsyncLogWriter, which appends it to a
+ * per-thread buffer and writes it to the logs in a background thread.  The text still arrives at
+ * each log in the order it was printed.  flush(), close(), and fatal errors wait until all the text
+ * printed so far has been written.
+ *
  * @author Sean Luke
  * @version 1.0
  */
@@ -83,6 +90,8 @@ public class Output implements Serializable
     boolean store = true;
     String filePrefix = "";
     boolean throwsErrors = false;
+    boolean asynchronous = false;
+    transient volatile AsyncLogWriter async;
 
     /** Total verbosity */
     public static final int V_VERBOSE = 0;
@@ -141,6 +150,13 @@ public class Output implements Serializable
         // just in case
         flush();
         
+        // anything printed from now on is written synchronously
+        if (async != null)
+            {
+            async.close();
+            async = null;
+            }
+
         Enumeration e = logs.elements();
         while(e.hasMoreElements())
             {
@@ -150,9 +166,11 @@ public class Output implements Serializable
             }
         }
 
-    /** Flushes the logs */
+    /** Flushes the logs.  If the Output is asynchronous, first waits for everything printed so far to be written. */
     public synchronized void flush()
         {
+        if (async != null)
+            async.drain();
         Enumeration e = logs.elements();
         while(e.hasMoreElements())
             {
@@ -207,6 +225,33 @@ public class Output implements Serializable
         {
         return store;
         }
+
+    /** Sets whether the Output writes to its logs asynchronously, in a background thread.
+        If the Output is checkpointed, it will be asynchronous again when it is restarted. */
+    public synchronized void setAsynchronous(boolean val)
+        {
+        asynchronous = val;
+        if (val && async == null)
+            async = new AsyncLogWriter();
+        else if (!val && async != null)
+            {
+            async.close();
+            async = null;
+            }
+        }
+
+    /** Returns whether the Output writes to its logs asynchronously. */
+    public boolean isAsynchronous()
+        {
+        return async != null;
+        }
+
+    /** Returns the Output's AsyncLogWriter, whose queue depth and other statistics you may examine,
+        or null if the Output is not asynchronous. */
+    public AsyncLogWriter getAsyncWriter()
+        {
+        return async;
+        }
     
     /** Sets the Output object's general verbosity to <i>v</i>. 
         @deprecated Verbosity no longer has an effect.
@@ -521,7 +566,7 @@ public class Output implements Serializable
         }
 
     /** Posts a system message. */
-    public synchronized void systemMessage(String s)
+    public void systemMessage(String s)
         {
         println(s, V_NO_MESSAGES ,ALL_MESSAGE_LOGS, true);
         }
@@ -604,7 +649,7 @@ public class Output implements Serializable
         }
 
     /** Posts a warning. */
-    public synchronized void warning(String s)
+    public void warning(String s)
         {
         println("WARNING:\n"+s, ALL_MESSAGE_LOGS, true);
         }
@@ -644,7 +689,7 @@ public class Output implements Serializable
 
     
     /** Posts a message. */
-    public synchronized void message(String s)
+    public void message(String s)
         {
         println(s, ALL_MESSAGE_LOGS, true);
         }
@@ -654,6 +699,7 @@ public class Output implements Serializable
     
     public synchronized void reopen(int _log) throws IOException
         {
+        if (async != null) async.drain();
         Log oldlog = (Log)logs.elementAt(_log);
         logs.setElementAt(oldlog.reopen(),_log);
         }
@@ -663,6 +709,7 @@ public class Output implements Serializable
     
     public synchronized void reopen(int[] _logs) throws IOException
         {
+        if (async != null) async.drain();
         for(int x=0;x<_logs.length;x++)
             {
             Log oldlog = (Log)logs.elementAt(_logs[x]);
@@ -677,7 +724,7 @@ public class Output implements Serializable
         @deprecated Verbosity no longer has an effect
     */
 
-    synchronized void println(String s,
+    void println(String s,
         int _verbosity,
         Log log,
         boolean _announcement,
@@ -690,10 +737,15 @@ public class Output implements Serializable
         // if (verbosity >= _verbosity) return;  // don't write it
         if (log.silent) return;  // don't write it
         // now write it
-        log.writer.println(s);
-        // if (flush) 
-        // always flush
-        log.writer.flush();
+        AsyncLogWriter a = async;
+        if (a != null) a.println(log, s);  // the writer flushes
+        else synchronized(this)
+            {
+            log.writer.println(s);
+            // if (flush) 
+            // always flush
+            log.writer.flush();
+            }
         //...and stash it in memory maybe
         if (store && _announcement && !_reposting)
             announcements.addElement(new Announcement(s));
@@ -705,7 +757,7 @@ public class Output implements Serializable
         If the log is NO_LOGS, nothing is printed.
         @deprecated Verbosity no longer has an effect
     */
-    synchronized void println(String s,
+    void println(String s,
         int _verbosity,
         int log,
         boolean _announcement) throws OutputException
@@ -728,7 +780,7 @@ public class Output implements Serializable
     /** Prints a message to a given log.  If log==ALL_MESSAGE_LOGS, posted to all logs which accept announcements. 
         If the log is NO_LOGS, nothing is printed.
     */
-    public synchronized void println(String s,
+    public void println(String s,
         int log,
         boolean _announcement) throws OutputException
         {
@@ -742,7 +794,7 @@ public class Output implements Serializable
         If a log is NO_LOGS, nothing is printed to that log.
         @deprecated Verbosity no longer has an effect
     */
-    public synchronized void println(String s,
+    public void println(String s,
         int _verbosity,
         int[] _logs) throws OutputException
         {
@@ -759,7 +811,7 @@ public class Output implements Serializable
         If the log is NO_LOGS, nothing is printed.
         @deprecated Verbosity no longer has an effect
     */
-    public synchronized void println(String s,
+    public void println(String s,
         int _verbosity,
         int log) throws OutputException
         {
@@ -772,7 +824,7 @@ public class Output implements Serializable
         Prints a non-announcement message to the given logs, with a verbosity of V_NO_GENERAL. 
         If the log is NO_LOGS, nothing is printed.
     */
-    public synchronized void println(String s,
+    public void println(String s,
         int log) throws OutputException
         {
         if (log==NO_LOGS) return;
@@ -784,7 +836,7 @@ public class Output implements Serializable
         certain verbosity. No '\n' is printed.  
         If the log is null, nothing is printed.
     */
-    protected synchronized void print(String s,
+    protected void print(String s,
         int _verbosity,
         Log log) throws OutputException
         {
@@ -794,7 +846,9 @@ public class Output implements Serializable
         //if (verbosity >= _verbosity) return;  // don't write it
         if (log.silent) return;  // don't write it
         // now write it
-        log.writer.print(s);
+        AsyncLogWriter a = async;
+        if (a != null) a.print(log, s);
+        else synchronized(this) { log.writer.print(s); }
         // do not flush until you get a println
         //if (flush) log.writer.flush();
         }
@@ -804,7 +858,7 @@ public class Output implements Serializable
         No '\n' is printed.  
         If the log is NO_LOGS, nothing is printed.
     */
-    public synchronized void print(String s,
+    public void print(String s,
         int _verbosity,
         int log) throws OutputException
         {
@@ -827,7 +881,7 @@ public class Output implements Serializable
         If log==ALL_MESSAGE_LOGS, posted to all logs which accept announcements. No '\n' is printed.  
         If the log is NO_LOGS, nothing is printed.
     */
-    public synchronized void print(String s,
+    public void print(String s,
         int log) throws OutputException
         {
         print(s, V_VERBOSE, log);
@@ -838,7 +892,7 @@ public class Output implements Serializable
         If a log is NO_LOGS, nothing is printed to that log.
         @deprecated Verbosity no longer has any effect 
     */
-    public synchronized void print(String s,
+    public void print(String s,
         int _verbosity,
         int[] _logs) throws OutputException
         {
@@ -853,7 +907,7 @@ public class Output implements Serializable
         with a certain verbosity. No '\n' is printed.  
         If a log is NO_LOGS, nothing is printed to that log.
     */
-    public synchronized void print(String s,
+    public void print(String s,
         int[] _logs) throws OutputException
         {
         print(s, V_VERBOSE, _logs);
@@ -886,6 +940,10 @@ public class Output implements Serializable
 
     public synchronized void restart() throws IOException
         {
+        // the background writer isn't checkpointed
+        if (asynchronous && async == null)
+            async = new AsyncLogWriter();
+
         // restart logs, then repost announcements to them
         int ls = logs.size();
         for(int x=0;x<ls;x++)
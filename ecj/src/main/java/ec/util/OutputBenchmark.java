@@ -0,0 +1,73 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.util;
+import java.io.*;
+
+/**
+ * OutputBenchmark measures how long threads are held up printing to an Output, synchronously and
+ * asynchronously.  Each of several threads prints lines of text, as a Statistics object would, to a
+ * gzipped log file, and the benchmark reports the time until every thread has finished printing, the
+ * time until the text has all been written (after flush()), and for the asynchronous Output the
+ * largest queue depth and the number of times a thread found its buffer full.
+ *
+ * <p>Usage: <tt>java ec.util.OutputBenchmark [lines per thread] [directory]</tt>
+ *
+ * <p>The defaults are 100000 lines per thread, written to the temporary directory.
+ */
+
+public class OutputBenchmark
+    {
+    public static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+    public static void main(String[] args) throws Exception
+        {
+        final int lines = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+        File directory = (args.length > 1 ? new File(args[1]) : new File(System.getProperty("java.io.tmpdir")));
+        System.out.println("Processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("output\tthreads\tprinting (ms)\tflushed (ms)\tmax queue depth\tstalls");
+        for(int async = 0; async < 2; async++)
+            for(int t = 0; t < THREADS.length; t++)
+                {
+                for(int pass = 0; pass < 2; pass++)  // the first pass warms up
+                    {
+                    File file = new File(directory, "OutputBenchmark.stat");
+                    final Output output = new Output(false);
+                    final int log = output.addLog(file, false, true);
+                    output.setAsynchronous(async == 1);
+                    Thread[] threads = new Thread[THREADS[t]];
+                    long start = System.nanoTime();
+                    for(int i = 0; i < threads.length; i++)
+                        {
+                        final int n = i;
+                        threads[i] = new Thread(new Runnable()
+                            {
+                            public void run()
+                                {
+                                for(int j = 0; j < lines; j++)
+                                    output.println("Thread " + n + " Individual " + j + " Fitness: " + (j * 0.001), log);
+                                }
+                            });
+                        threads[i].start();
+                        }
+                    for(int i = 0; i < threads.length; i++)
+                        threads[i].join();
+                    long printed = System.nanoTime();
+                    output.flush();
+                    long flushed = System.nanoTime();
+                    AsyncLogWriter writer = output.getAsyncWriter();
+                    if (pass == 1)
+                        System.out.println((async == 1 ? "async" : "sync") + "\t" + threads.length + "\t" +
+                            String.format("%.1f", (printed - start) / 1.0e6) + "\t" +
+                            String.format("%.1f", (flushed - start) / 1.0e6) + "\t" +
+                            (writer == null ? "-" : "" + writer.getMaxQueueDepth()) + "\t" +
+                            (writer == null ? "-" : "" + writer.getStalls()));
+                    output.close();
+                    new File(file.getPath() + ".gz").delete();
+                    }
+                }
+        }
+    }
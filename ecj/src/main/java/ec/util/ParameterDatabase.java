@@ -2816,6 +2816,14 @@ public class ParameterDatabase implements Serializable
         parents.addElement(database);
         }
 
+    /** Returns an immutable snapshot of this database and its parents, whose lookups take no locks.  If
+        <i>trackAccesses</i> is true, the snapshot keeps count of the parameters accessed and gotten
+        through it.  See FrozenParameterDatabase. */
+    public FrozenParameterDatabase freeze(boolean trackAccesses)
+        {
+        return new FrozenParameterDatabase(this, trackAccesses);
+        }
+
     /** Creates an empty parameter database. */
     public ParameterDatabase() 
         {
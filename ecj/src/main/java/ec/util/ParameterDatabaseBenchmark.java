@@ -0,0 +1,87 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.util;
+import java.io.*;
+
+/**
+ * ParameterDatabaseBenchmark compares the throughput of parameter lookups in an ordinary ParameterDatabase
+ * with those in a FrozenParameterDatabase (with and without counting accesses), when several threads look up
+ * parameters at the same time.  Each thread repeatedly looks up a mix of strings, ints, doubles, and a
+ * parameter found through a <tt>default</tt> macro, in the given parameter file, as a Species or Problem
+ * might if it read its parameters during a run.
+ *
+ * <p>Usage: <tt>java ec.util.ParameterDatabaseBenchmark [parameter file] [lookups per thread]</tt>
+ *
+ * <p>The defaults are ec/app/regression/benchmark.params (loaded from the classpath) and 100000 lookups.
+ */
+
+public class ParameterDatabaseBenchmark
+    {
+    public static final int[] THREADS = { 1, 2, 4, 8, 16 };
+
+    static final Parameter[] LOOKUPS =
+        {
+        new Parameter("pop.subpop.0.size"),
+        new Parameter("generations"),
+        new Parameter("pop.subpop.0.species.pipe.source.0.prob"),
+        new Parameter("gp.koza.xover.maxdepth"),
+        new Parameter("eval.problem"),
+        new Parameter("gp.nc.0.name"),
+        new Parameter("no.such.parameter"),
+        };
+
+    static volatile long sink;
+
+    static void lookup(ParameterDatabase database, int lookups)
+        {
+        long sum = 0;
+        for(int i = 0; i < lookups; i++)
+            {
+            Parameter p = LOOKUPS[i % LOOKUPS.length];
+            switch(i % 3)
+                {
+                case 0: String s = database.getString(p, null); if (s != null) sum += s.length(); break;
+                case 1: sum += database.getIntWithDefault(p, null, 1); break;
+                default: sum += (long) database.getDoubleWithDefault(p, null, 1.0); break;
+                }
+            }
+        sink = sum;
+        }
+
+    static double run(final ParameterDatabase database, int threads, final int lookups) throws InterruptedException
+        {
+        Thread[] t = new Thread[threads];
+        long start = System.nanoTime();
+        for(int i = 0; i < threads; i++)
+            {
+            t[i] = new Thread(new Runnable() { public void run() { lookup(database, lookups); } });
+            t[i].start();
+            }
+        for(int i = 0; i < threads; i++)
+            t[i].join();
+        return threads * (double) lookups / ((System.nanoTime() - start) / 1.0e9);
+        }
+
+    public static void main(String[] args) throws Exception
+        {
+        ParameterDatabase database = (args.length > 0 ?
+            new ParameterDatabase(new File(args[0]), new String[] { "-file", args[0] }) :
+            new ParameterDatabase("app/regression/benchmark.params", ec.Evolve.class));
+        int lookups = (args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+        ParameterDatabase[] databases = { database, database.freeze(false), database.freeze(true) };
+        String[] names = { "ordinary", "frozen", "frozen+tracking" };
+
+        System.out.println("Processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("database\tthreads\tlookups/s");
+        for(int d = 0; d < databases.length; d++)
+            for(int t = 0; t < THREADS.length; t++)
+                {
+                run(databases[d], THREADS[t], lookups);  // warm up
+                System.out.println(names[d] + "\t" + THREADS[t] + "\t" + String.format("%.0f", run(databases[d], THREADS[t], lookups)));
+                }
+        }
+    }
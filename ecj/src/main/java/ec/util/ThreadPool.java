@@ -7,7 +7,9 @@
 
 package ec.util;
 
+import ec.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 /**
@@ -54,6 +56,37 @@ import java.io.*;
  * <p>ThreadPool is java.io.Serializable: but if it is serialized out, it won't serialize
  * out its worker threads, so when it is deserialized back in, the threads will be
  * gone.
+ *
+ * <p><b>Backends.</b>  By default a ThreadPool runs its Runnables on its own hand-built
+ * Workers as described above (the <tt>classic</tt> backend).  It can instead hand them to
+ * a java.util.concurrent ExecutorService of daemon platform threads (the <tt>executor</tt>
+ * backend), in which case joinAll() waits on a java.util.concurrent.Phaser rather than on a
+ * monitor, or start a new virtual thread for each Runnable (the <tt>virtual</tt> backend),
+ * which suits Runnables which spend most of their time waiting on I/O, such as those of
+ * a MasterProblem.  Virtual threads need Java 21 or later: on older Javas the <tt>virtual</tt>
+ * backend quietly uses the <tt>executor</tt> backend instead.  The API is the same for all
+ * three.  Use setBackend(...) to choose a backend before starting any Workers, or create(...)
+ * to build a ThreadPool whose backend is given by a parameter.
+ *
+ * <p><b>Affinity.</b>  startWithAffinity(...) takes a hint that a Runnable would like to run
+ * on the same Worker as the last Runnable started with the same hint: SimpleEvaluator and
+ * SimpleBreeder pass their thread numbers, so evaluation thread <i>i</i> runs on the same
+ * underlying Thread every generation, keeping its caches and ThreadLocals warm.  Only the
+ * <tt>classic</tt> backend honors the hint; the others ignore it.
+ *
+ * <p><b>Metrics.</b>  Every backend keeps track of how many times joinAll() was called, how
+ * long it waited in total, and its <i>barrier latency</i>: the time from when the last
+ * outstanding Runnable finished to when joinAll() returned.  These are the fixed costs paid
+ * at the end of every generation by multithreaded evaluation and breeding.
+ *
+ <p><b>Parameters</b><br>
+ <table>
+ <tr><td valign=top><i>parameter</i><br>
+ <font size=-1>String, one of: <tt>classic</tt>, <tt>executor</tt>, or <tt>virtual</tt></font></td>
+ <td valign=top>(the backend of a ThreadPool built by create(...).  SimpleEvaluator and SimpleBreeder
+ use the parameter <tt>threadpool</tt>, and MasterProblem uses <tt>eval.masterproblem.threadpool</tt>,
+ both defaulting to <tt>classic</tt>)</td></tr>
+ </table>
  */
 
 
@@ -64,37 +97,140 @@ public class ThreadPool implements java.io.Serializable
     /** A Worker is a special kind of object which represents an underlying
         Worker thread usable in the ThreadPool. */
     public interface Worker { public void interrupt(); }
+
+    public static final String P_THREADPOOL = "threadpool";
+
+    public static final int BACKEND_CLASSIC = 0;
+    public static final int BACKEND_EXECUTOR = 1;
+    public static final int BACKEND_VIRTUAL = 2;
+    public static final String[] BACKEND_NAMES = { "classic", "executor", "virtual" };
+
+    // The backend.  This is the only thing which is serialized.
+    int backend = BACKEND_CLASSIC;
         
     // The current collection of available threads in the pool
     // (not including the threads presently working on jobs)
     // This object is transient so it's not written out when serialized
     // out, and so when deserialized it becomes null (which we detect).
     // This is important because Thread is not serializable.
-    LinkedList workers = new LinkedList();
+    LinkedList<Node> workers = new LinkedList<Node>();
     Object workersLock = new Object[0];  // arrays are serializable
         
     // The total number of threads which exist, including those
     // in the pool and those outstanding working on jobs
     int totalWorkers = 0;  // resets to 0 on deserialization
+
+    // Classic workers which last ran with a given affinity hint
+    ArrayList<Node> affinities = new ArrayList<Node>();
+
+    // The executor and virtual backends.  The executor is built when it is first needed.
+    // Each outstanding Task is registered with the phaser, plus one party for joinAll().
+    ExecutorService executor = null;
+    Phaser phaser = new Phaser(1);
+    int outstandingTasks = 0;  // protected by workersLock
+    Object joinLock = new Object[0];
+
+    // Metrics
+    volatile long lastCompletion = 0;
+    long joins = 0;
+    long joinNanos = 0;
+    long latencyNanos = 0;
+    long maxLatencyNanos = 0;
         
     private void writeObject(java.io.ObjectOutputStream stream) throws IOException 
         {
-        // DO NOTHING
-        // This is because we will be rebuilding ALL THREE variables
-        // (workers, workersLock, and totalWorkers) during readObject.
+        // Write only the backend.
+        // This is because we will be rebuilding ALL the other variables
+        // (workers, workersLock, totalWorkers, etc.) during readObject.
         // We can't accomplish this with 'transient' because workersLock has
         // to be actually rebuilt as an object rather than set to null
-        // Further, having an empty writeObject method here prevents Java
+        // Further, not writing them here prevents Java
         // from attempting to serialize these non-transient objects while some
         // thread might be accessing them.
+        stream.writeInt(backend);
         }
 
     private void readObject(java.io.ObjectInputStream stream) throws IOException, ClassNotFoundException
         {
         // REBUILD THE WHOLE INSTANCE
-        workers = new LinkedList();
+        backend = stream.readInt();
+        workers = new LinkedList<Node>();
         workersLock = new Object[0];
         totalWorkers = 0;
+        affinities = new ArrayList<Node>();
+        executor = null;
+        phaser = new Phaser(1);
+        outstandingTasks = 0;
+        joinLock = new Object[0];
+        }
+
+    /** Builds a ThreadPool with the classic backend. */
+    public ThreadPool() { }
+
+    /** Builds a ThreadPool with the given backend. */
+    public ThreadPool(int backend) { setBackend(backend); }
+
+    /** Builds a ThreadPool whose backend is given by <i>parameter</i>, or is <i>defaultBackend</i>
+        if the parameter doesn't exist. */
+    public static ThreadPool create(EvolutionState state, Parameter parameter, int defaultBackend)
+        {
+        return new ThreadPool(Codec.lookup(state, parameter, BACKEND_NAMES, defaultBackend));
+        }
+
+    /** Returns the backend, one of BACKEND_CLASSIC, BACKEND_EXECUTOR, or BACKEND_VIRTUAL. */
+    public int getBackend() { return backend; }
+
+    /** Changes the backend.  This kills any pooled workers, and must not be called while any are outstanding. */
+    public void setBackend(int backend)
+        {
+        if (backend < 0 || backend >= BACKEND_NAMES.length)
+            throw new IllegalArgumentException("No such ThreadPool backend: " + backend);
+        synchronized(workersLock)
+            {
+            if (getOutstandingWorkers() > 0)
+                throw new IllegalStateException("Cannot change the backend of a ThreadPool with outstanding workers");
+            killAll();
+            this.backend = backend;
+            }
+        }
+
+    /** Returns true if this Java has virtual threads. */
+    public static boolean isVirtualThreadsAvailable()
+        {
+        try
+            {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+            }
+        catch (NoSuchMethodException e) { return false; }
+        }
+
+    // Returns the executor for the executor or virtual backends, building it if need be.  Called with workersLock held.
+    ExecutorService executor()
+        {
+        if (executor == null)
+            {
+            if (backend == BACKEND_VIRTUAL)
+                {
+                try
+                    {
+                    executor = (ExecutorService)(Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+                    }
+                catch (Exception e) { }  // no virtual threads: fall back to platform threads
+                }
+            if (executor == null)
+                executor = Executors.newCachedThreadPool(new ThreadFactory()
+                    {
+                    int count = 0;
+                    public synchronized Thread newThread(Runnable r)
+                        {
+                        Thread thread = new Thread(r, "ECJ ThreadPool Executor Thread " + (count++));
+                        thread.setDaemon(true);
+                        return thread;
+                        }
+                    });
+            }
+        return executor;
         }
 
 
@@ -104,12 +240,39 @@ public class ThreadPool implements java.io.Serializable
     /** Start a thread on the given Runnable with a given thread name (for debugging purposes). */
     public Worker start(Runnable run, String name)
         {
+        return startWithAffinity(run, name, -1);
+        }
+
+    /** Start a thread on the given Runnable with a given thread name (for debugging purposes),
+        preferably on the same Worker as the last Runnable started with the same <i>affinity</i> hint.
+        The hint should be a small integer >= 0, such as a thread number, or -1 if there is none. */
+    public Worker startWithAffinity(Runnable run, String name, int affinity)
+        {
+        if (backend != BACKEND_CLASSIC)
+            return startTask(run, name);
+
         Node node;
         // ensure we have at least one thread
         synchronized(workersLock) 
             {
             // if (workers == null) workers = new LinkedList();  // deserialized
-            if (workers.isEmpty())
+            Node preferred = null;
+            if (affinity >= 0 && affinity < affinities.size())
+                preferred = affinities.get(affinity);
+            Node unclaimed = null;  // a pooled worker which no other affinity is using
+            if (affinity >= 0 && (preferred == null || !workers.contains(preferred)))
+                for(Node n : workers)
+                    if (!affinities.contains(n)) { unclaimed = n; break; }
+            if (preferred != null && workers.remove(preferred))
+                {
+                node = preferred;
+                }
+            else if (unclaimed != null)
+                {
+                workers.remove(unclaimed);
+                node = unclaimed;
+                }
+            else if (workers.isEmpty() || affinity >= 0)  // new affinities get new workers rather than take others'
                 {
                 node = new Node(name + " (" + totalWorkers + ")");
                 node.thread.start();  // build a new thread
@@ -117,7 +280,12 @@ public class ThreadPool implements java.io.Serializable
                 }
             else  // pull a thread
                 {
-                node = (Node)(workers.remove());  // removes from end
+                node = workers.remove();  // removes from end
+                }
+            if (affinity >= 0)
+                {
+                while(affinities.size() <= affinity) affinities.add(null);
+                affinities.set(affinity, node);
                 }
             }
                         
@@ -164,10 +332,30 @@ public class ThreadPool implements java.io.Serializable
             }
         }
         
-    /** Returns the total number of workers, both pooled and outstanding (working on something). */
+    // Starts a Task on the executor or virtual backend
+    Worker startTask(Runnable run, String name)
+        {
+        Task task = new Task(run, name);
+        synchronized(workersLock)
+            {
+            outstandingTasks++;
+            phaser.register();
+            executor().execute(task);
+            }
+        return task;
+        }
+
+    /** Returns the total number of workers, both pooled and outstanding (working on something).
+        For the executor backend, this is the number of threads the executor presently has; for the virtual
+        backend, which doesn't pool, it is the number of outstanding workers. */
     public int getTotalWorkers()
         {
-        synchronized(workersLock) { return totalWorkers; }
+        synchronized(workersLock) 
+            {
+            if (backend == BACKEND_CLASSIC) return totalWorkers;
+            if (executor instanceof ThreadPoolExecutor) return Math.max(outstandingTasks, ((ThreadPoolExecutor)executor).getPoolSize());
+            return outstandingTasks;
+            }
         }
                 
     /** Returns the total number of pooled workers (those not working on something right now). */
@@ -176,6 +364,7 @@ public class ThreadPool implements java.io.Serializable
         synchronized(workersLock) 
             {
             // if (workers == null) workers = new LinkedList();  // deserialized
+            if (backend != BACKEND_CLASSIC) return getTotalWorkers() - outstandingTasks;
             return workers.size();
             }
         }
@@ -191,6 +380,7 @@ public class ThreadPool implements java.io.Serializable
         terminated.  Returns true if the worker was working on the provided Runnable, else false. */
     public boolean join(Worker thread, Runnable run)
         {
+        if (thread instanceof Task) return ((Task)thread).join(run);
         return ((Node)thread).joinRunnable(run);
         }
         
@@ -199,13 +389,35 @@ public class ThreadPool implements java.io.Serializable
         on some Runnable, else false.  */
     public boolean join(Worker thread)
         {
+        if (thread instanceof Task) return ((Task)thread).join(null);
         return ((Node)thread).joinRunnable();
         }
         
     /** Waits until there are no outstanding workers: all pool workers are in the pool. */
     public void joinAll()
         {
-        synchronized(workersLock)
+        long start = System.nanoTime();
+        awaitAll();
+        recordJoin(start, System.nanoTime());
+        }
+
+    // joinAll() without the metrics
+    void awaitAll()
+        {
+        if (backend != BACKEND_CLASSIC)
+            {
+            // one joiner at a time arrives as the extra party, and waits for every outstanding Task to arrive too
+            synchronized(joinLock)
+                {
+                int phase = phaser.arrive();
+                while(true)
+                    {
+                    try { phaser.awaitAdvanceInterruptibly(phase); break; }
+                    catch (InterruptedException e) { Thread.interrupted(); }  // ignore
+                    }
+                }
+            }
+        else synchronized(workersLock)
             {
             // if (workers == null) workers = new LinkedList();  // deserialized
             while (totalWorkers > workers.size())  // there are still outstanding workers
@@ -213,6 +425,38 @@ public class ThreadPool implements java.io.Serializable
                 catch (InterruptedException e) { Thread.interrupted(); }  // ignore
             }
         }
+
+    void recordJoin(long start, long end)
+        {
+        long latency = end - Math.max(start, lastCompletion);
+        synchronized(joinLock)
+            {
+            joins++;
+            joinNanos += end - start;
+            latencyNanos += latency;
+            if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+            }
+        }
+
+    /** Returns the number of times joinAll() has been called since the metrics were last reset. */
+    public long getJoinCount() { synchronized(joinLock) { return joins; } }
+
+    /** Returns the total time, in nanoseconds, spent waiting in joinAll() since the metrics were last reset. */
+    public long getTotalJoinNanos() { synchronized(joinLock) { return joinNanos; } }
+
+    /** Returns the total barrier latency, in nanoseconds, of every joinAll() since the metrics were last reset:
+        that is, the time from when the last outstanding Runnable finished (or joinAll() was called, whichever was
+        later) to when joinAll() returned. */
+    public long getTotalBarrierLatencyNanos() { synchronized(joinLock) { return latencyNanos; } }
+
+    /** Returns the largest barrier latency, in nanoseconds, of any joinAll() since the metrics were last reset. */
+    public long getMaxBarrierLatencyNanos() { synchronized(joinLock) { return maxLatencyNanos; } }
+
+    /** Resets the joinAll() metrics. */
+    public void resetMetrics()
+        {
+        synchronized(joinLock) { joins = 0; joinNanos = 0; latencyNanos = 0; maxLatencyNanos = 0; }
+        }
         
     /** Kills all unused workers in the pool.  This can be used to reduce the pool
         to a manageable size if the number of workers in it has grown too large
@@ -222,10 +466,23 @@ public class ThreadPool implements java.io.Serializable
         {
         synchronized(workersLock)
             {
+            if (backend != BACKEND_CLASSIC)
+                {
+                // an executor can't kill just its idle threads, but it has none outstanding only when
+                // called from killAll() or setBackend(), so shut it down
+                if (executor != null && outstandingTasks == 0)
+                    {
+                    executor.shutdown();
+                    executor = null;
+                    }
+                return;
+                }
             // if (workers == null) workers = new LinkedList();  // deserialized
             while(!workers.isEmpty())
                 {
-                Node node = (Node)(workers.remove()); // removes from front
+                Node node = workers.remove(); // removes from front
+                for(int i = affinities.indexOf(node); i >= 0; i = affinities.indexOf(node))
+                    affinities.set(i, null);  // forget its affinities
                 synchronized(node) { node.die = true; node.notify(); }  // reel it in
                 try { node.thread.join(); }
                 catch (InterruptedException e) { Thread.interrupted(); } // ignore
@@ -240,9 +497,26 @@ public class ThreadPool implements java.io.Serializable
         ThreadPool after calling this function; but it will have to build new workers. */
     public void killAll()
         {
+        if (backend != BACKEND_CLASSIC)
+            {
+            // wait outside the lock, as finishing Tasks need it.  If someone started a new
+            // Task in the meantime, the executor can't be shut down yet, so wait again.
+            while(true)
+                {
+                awaitAll();
+                synchronized(workersLock)
+                    {
+                    if (outstandingTasks == 0)
+                        {
+                        killPooled();
+                        return;
+                        }
+                    }
+                }
+            }
         synchronized(workersLock)
             {
-            joinAll();
+            awaitAll();
             killPooled();
             }
         }
@@ -341,6 +615,7 @@ public class ThreadPool implements java.io.Serializable
                     toRun.run();  // do the job
                     }
                 catch (Exception e) { e.printStackTrace(); Thread.interrupted(); } // resets interrupted flag.  Note ANY exception.
+                lastCompletion = System.nanoTime();
 
                 // add myself back in the list
                 synchronized(workersLock)
@@ -360,6 +635,65 @@ public class ThreadPool implements java.io.Serializable
             }
         }
         
+    // This is the underlying class for Worker in the executor and virtual backends.
+    class Task implements Runnable, Worker
+        {
+        Runnable toRun;
+        String name;
+        Thread thread = null;   // the thread running me, if any
+        boolean done = false;
+
+        Task(Runnable toRun, String name) { this.toRun = toRun; this.name = name; }
+
+        public synchronized void interrupt()
+            {
+            if (thread != null) thread.interrupt();
+            }
+
+        // joins on my runnable if it is r (or r is null) and I'm not done
+        synchronized boolean join(Runnable r)
+            {
+            if ((r != null && r != toRun) || done) return false;
+            while(!done)
+                {
+                try { wait(); }
+                catch (InterruptedException e) { return true; }
+                }
+            return true;
+            }
+
+        public void run()
+            {
+            Thread current = Thread.currentThread();
+            String oldName = current.getName();
+            current.setName(name);
+            synchronized(this) { thread = current; }
+            try
+                {
+                toRun.run();  // do the job
+                }
+            catch (Exception e) { e.printStackTrace(); } // Note ANY exception.
+            finally
+                {
+                synchronized(this)
+                    {
+                    thread = null;
+                    done = true;
+                    notifyAll();  // let join know I'm done
+                    }
+                Thread.interrupted();  // resets interrupted flag
+                current.setName(oldName);
+                lastCompletion = System.nanoTime();
+                synchronized(workersLock)
+                    {
+                    outstandingTasks--;
+                    workersLock.notifyAll();  // let start(..., maximumOutstandingWorkers, ...) know
+                    }
+                phaser.arriveAndDeregister();  // let joinAll know
+                }
+            }
+        }
+
     public static void main(String[] args)
         {
         ThreadPool p = new ThreadPool();
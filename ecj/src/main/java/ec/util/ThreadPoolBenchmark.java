@@ -0,0 +1,88 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+
+package ec.util;
+
+/**
+ * ThreadPoolBenchmark measures the fixed cost of forking and joining threads once a generation, as
+ * SimpleEvaluator and SimpleBreeder do, for each ThreadPool backend.  Each "generation" starts one
+ * Runnable per thread, each of which "evaluates" its share of a small population (a few hundred
+ * floating-point operations per individual), then calls joinAll().  It reports the mean time per
+ * generation, the same work done in a single thread with no pool, and the mean and largest barrier
+ * latency: how long after the last Runnable finished joinAll() returned.
+ *
+ * <p>Usage: <tt>java ec.util.ThreadPoolBenchmark [generations] [population size]</tt>
+ *
+ * <p>The defaults are 10000 generations of 100 individuals.  If this Java has no virtual threads, the
+ * <tt>virtual</tt> backend falls back to platform threads, which is noted in the output.
+ */
+
+public class ThreadPoolBenchmark
+    {
+    public static final int[] THREADS = { 1, 2, 4, 8, 16 };
+    public static final int WORK = 200;
+
+    static volatile double sink;
+
+    // evaluates individuals [from, to)
+    static double evaluate(int from, int to)
+        {
+        double sum = 0;
+        for(int i = from; i < to; i++)
+            {
+            double x = i;
+            for(int j = 0; j < WORK; j++)
+                x = x * 0.999 + 1.0 / (j + 1);
+            sum += x;
+            }
+        return sum;
+        }
+
+    public static void main(String[] args)
+        {
+        int generations = (args.length > 0 ? Integer.parseInt(args[0]) : 10000);
+        final int size = (args.length > 1 ? Integer.parseInt(args[1]) : 100);
+        System.out.println("Processors: " + Runtime.getRuntime().availableProcessors() +
+            "  Virtual threads: " + (ThreadPool.isVirtualThreadsAvailable() ? "yes" : "no (the virtual backend uses platform threads)"));
+
+        // the same work, in one thread with no pool
+        for(int g = 0; g < generations; g++) sink = evaluate(0, size);  // warm up
+        long start = System.nanoTime();
+        for(int g = 0; g < generations; g++) sink = evaluate(0, size);
+        System.out.println("no pool: " + String.format("%.2f", (System.nanoTime() - start) / 1000.0 / generations) + " us/generation\n");
+
+        System.out.println("backend\tthreads\tus/generation\tmean latency (us)\tmax latency (us)");
+        for(int b = 0; b < ThreadPool.BACKEND_NAMES.length; b++)
+            for(int t = 0; t < THREADS.length; t++)
+                {
+                final int threads = THREADS[t];
+                ThreadPool pool = new ThreadPool(b);
+                for(int pass = 0; pass < 2; pass++)  // the first pass warms up
+                    {
+                    pool.resetMetrics();
+                    start = System.nanoTime();
+                    for(int g = 0; g < generations; g++)
+                        {
+                        for(int i = 0; i < threads; i++)
+                            {
+                            final int from = size * i / threads;
+                            final int to = size * (i + 1) / threads;
+                            pool.startWithAffinity(new Runnable() { public void run() { sink = evaluate(from, to); } },
+                                "Benchmark Thread " + i, i);
+                            }
+                        pool.joinAll();
+                        }
+                    long total = System.nanoTime() - start;
+                    if (pass == 1)
+                        System.out.println(ThreadPool.BACKEND_NAMES[b] + "\t" + threads + "\t" +
+                            String.format("%.2f", total / 1000.0 / generations) + "\t" +
+                            String.format("%.2f", pool.getTotalBarrierLatencyNanos() / 1000.0 / pool.getJoinCount()) + "\t" +
+                            String.format("%.2f", pool.getMaxBarrierLatencyNanos() / 1000.0));
+                    }
+                pool.killAll();
+                }
+        }
+    }
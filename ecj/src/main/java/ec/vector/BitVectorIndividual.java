@@ -362,6 +362,19 @@ public class BitVectorIndividual extends VectorIndividual
             genome[x] = dataInput.readBoolean();
         }
 
+    /** Writes the genome packed eight genes to a byte. */
+    public void writeCompactGenotype(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        Codec.writeBooleans(dataOutput, genome);
+        }
+
+    public void readCompactGenotype(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        genome = Codec.readBooleans(dataInput, genome);
+        }
+
     /** Implements distance as hamming distance. */
     public double distanceTo(Individual otherInd)
         {
@@ -436,6 +436,18 @@ public class ByteVectorIndividual extends VectorIndividual
             genome[x] = dataInput.readByte();
         }
 
+    public void writeCompactGenotype(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        Codec.writeBytes(dataOutput, genome);
+        }
+
+    public void readCompactGenotype(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        genome = Codec.readBytes(dataInput, genome);
+        }
+
     /** Clips each gene value to be within its specified [min,max] range. */
     public void clamp() 
         {
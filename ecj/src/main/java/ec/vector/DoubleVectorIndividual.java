@@ -737,6 +737,18 @@ public class DoubleVectorIndividual extends VectorIndividual
             genome[x] = dataInput.readDouble();
         }
 
+    public void writeCompactGenotype(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        Codec.writeDoubles(dataOutput, genome);
+        }
+
+    public void readCompactGenotype(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        genome = Codec.readDoubles(dataInput, genome);
+        }
+
     /** Clips each gene value to be within its specified [min,max] range.  
         NaN is presently considered in range but the behavior of this method
         should be assumed to be unspecified on encountering NaN. */
@@ -729,6 +729,18 @@ public class FloatVectorIndividual extends VectorIndividual
             genome[x] = dataInput.readFloat();
         }
 
+    public void writeCompactGenotype(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        Codec.writeFloats(dataOutput, genome);
+        }
+
+    public void readCompactGenotype(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        genome = Codec.readFloats(dataInput, genome);
+        }
+
     /** Clips each gene value to be within its specified [min,max] range.  
         NaN is presently considered in range but the behavior of this method
         should be assumed to be unspecified on encountering NaN. */
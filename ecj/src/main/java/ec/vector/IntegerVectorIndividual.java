@@ -433,6 +433,18 @@ public class IntegerVectorIndividual extends VectorIndividual
             genome[x] = dataInput.readInt();
         }
 
+    public void writeCompactGenotype(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        Codec.writeInts(dataOutput, genome);
+        }
+
+    public void readCompactGenotype(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        genome = Codec.readInts(dataInput, genome);
+        }
+
     /** Clips each gene value to be within its specified [min,max] range. */
     public void clamp() 
         {
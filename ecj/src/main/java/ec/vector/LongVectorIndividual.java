@@ -472,6 +472,18 @@ public class LongVectorIndividual extends VectorIndividual
             genome[x] = dataInput.readLong();
         }
 
+    public void writeCompactGenotype(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        Codec.writeLongs(dataOutput, genome);
+        }
+
+    public void readCompactGenotype(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        genome = Codec.readLongs(dataInput, genome);
+        }
+
     /** Clips each gene value to be within its specified [min,max] range. */
     public void clamp() 
         {
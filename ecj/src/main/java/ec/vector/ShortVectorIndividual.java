@@ -434,6 +434,18 @@ public class ShortVectorIndividual extends VectorIndividual
             genome[x] = dataInput.readShort();
         }
 
+    public void writeCompactGenotype(final EvolutionState state,
+        final DataOutput dataOutput) throws IOException
+        {
+        Codec.writeShorts(dataOutput, genome);
+        }
+
+    public void readCompactGenotype(final EvolutionState state,
+        final DataInput dataInput) throws IOException
+        {
+        genome = Codec.readShorts(dataInput, genome);
+        }
+
     /** Clips each gene value to be within its specified [min,max] range. */
     public void clamp() 
         {
@@ -0,0 +1,29 @@
+#!/usr/bin/env python3
+#
+# An example of a persistent worker for CommandProblem (mode = persistent) which
+# encodes the same fitness function as spheroid.sh.  It answers batches of genomes,
+# in either the text or the binary encoding, until its stdin is closed.
+#
+import struct
+import sys
+
+stdin = sys.stdin.buffer
+stdout = sys.stdout.buffer
+
+while True:
+    header = stdin.readline().split()
+    if not header:
+        break
+    n = int(header[1])
+    if header[0] == b'B':
+        length = int(header[2])
+        fitnesses = []
+        for i in range(n):
+            genome = struct.unpack('>%dd' % length, stdin.read(8 * length))
+            fitnesses.append(sum(x * x for x in genome))
+        stdout.write(struct.pack('>%dd' % n, *fitnesses))
+    else:
+        for i in range(n):
+            genome = stdin.readline().decode().split(',')
+            stdout.write(('%r\n' % sum(float(x) ** 2 for x in genome)).encode())
+    stdout.flush()
@@ -0,0 +1,139 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec;
+
+import ec.simple.SimpleProblemForm;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import java.io.File;
+import java.util.Scanner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Runs jobs in parallel with JobScheduler.
+ */
+public class JobSchedulerTest
+    {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ParameterDatabase parameters(String... extra)
+        {
+        ParameterDatabase parameters = new ParameterDatabase();
+        for (int i = 0; i < extra.length; i += 2)
+            parameters.set(new Parameter(extra[i]), extra[i + 1]);
+        return parameters;
+        }
+
+    @Test
+    public void testDetermineParallelJobs()
+        {
+        int cores = Runtime.getRuntime().availableProcessors();
+        assertEquals(1, JobScheduler.determineParallelJobs(parameters(), 10));
+        assertEquals(4, JobScheduler.determineParallelJobs(parameters("parallel-jobs", "4"), 10));
+        assertEquals(3, JobScheduler.determineParallelJobs(parameters("parallel-jobs", "4"), 3));
+        assertEquals(Math.min(cores, 1000), JobScheduler.determineParallelJobs(parameters("parallel-jobs", "auto", "evalthreads", "auto"), 1000));
+        assertEquals(Math.max(1, cores / 1000), JobScheduler.determineParallelJobs(parameters("parallel-jobs", "auto", "evalthreads", "1000"), 1000));
+        }
+
+    @Test
+    public void testCopyParameters()
+        {
+        ParameterDatabase parameters = parameters("evalthreads", "auto", "breedthreads", "1", "seed.0", "7");
+        JobScheduler scheduler = new JobScheduler(new String[0], parameters, 10, 2);
+        scheduler.threadsPerJob = 3;
+        ParameterDatabase copy = scheduler.copyParameters(0);
+        assertNotSame(parameters, copy);
+        assertEquals("3", copy.getString(new Parameter("evalthreads"), null));
+        assertEquals("1", copy.getString(new Parameter("breedthreads"), null));
+        assertEquals("7", copy.getString(new Parameter("seed.0"), null));
+        assertEquals("time", copy.getString(new Parameter("seed.1"), null));
+        assertEquals("time", copy.getString(new Parameter("seed.2"), null));
+
+        // each job's copy is its own
+        copy.set(new Parameter("seed.0"), "8");
+        assertEquals("7", scheduler.copyParameters(1).getString(new Parameter("seed.0"), null));
+        assertEquals("auto", parameters.getString(new Parameter("evalthreads"), null));
+        }
+
+    /** Parallel jobs produce the same results as the same jobs run one after another. */
+    @Test
+    public void testRun() throws Exception
+        {
+        File directory = folder.getRoot();
+        String[] args =
+            {
+            "-from", "app/regression/benchmark.params",
+            "-p", "silent=true",
+            "-p", "seed.0=1",
+            "-p", "generations=3",
+            "-p", "pop.subpop.0.size=50",
+            "-p", "stat.file=" + new File(directory, "out.stat").getAbsolutePath(),
+            "-p", "job-summary=" + new File(directory, "summary.txt").getAbsolutePath(),
+            };
+        ParameterDatabase parameters = Evolve.loadParameterDatabase(args);
+        JobScheduler scheduler = new JobScheduler(args, parameters, 3, 2);
+        scheduler.run(0);
+        for (int job = 0; job < 3; job++)
+            assertEquals("done", scheduler.result[job]);
+
+        // job 1 again, on its own
+        EvolutionState state = Evolve.initialize(Evolve.loadParameterDatabase(args), 1);
+        state.output.setFilePrefix("single.");
+        state.run(EvolutionState.C_STARTED_FRESH);
+        Evolve.cleanup(state);
+        assertEquals(read(new File(directory, "single.out.stat")), read(new File(directory, "job.1.out.stat")));
+
+        String summary = read(new File(directory, "summary.txt"));
+        assertTrue(summary.startsWith("job\twall (s)\tcpu (s)\tresult"));
+        assertTrue(summary.contains("\n2\t"));
+        }
+
+    /** Fails every evaluation. */
+    public static class FailingProblem extends Problem implements SimpleProblemForm
+        {
+        private static final long serialVersionUID = 1;
+
+        public void evaluate(EvolutionState state, Individual ind, int subpopulation, int threadnum)
+            {
+            throw new IllegalStateException("evaluation failed");
+            }
+        }
+
+    /** A job which throws is recorded as failed, with its exception, and doesn't stop the other jobs. */
+    @Test
+    public void testRunFailure() throws Exception
+        {
+        String[] args =
+            {
+            "-from", "app/ecsuite/ecsuite.params",
+            "-p", "silent=true",
+            "-p", "seed.0=1",
+            "-p", "generations=3",
+            "-p", "stat=ec.Statistics",
+            "-p", "eval.problem=" + FailingProblem.class.getName(),
+            };
+        ParameterDatabase parameters = Evolve.loadParameterDatabase(args);
+        JobScheduler scheduler = new JobScheduler(args, parameters, 2, 2);
+        scheduler.run(0);
+        for (int job = 0; job < 2; job++)
+            {
+            assertTrue(scheduler.result[job].startsWith("failed: "));
+            assertNotNull(scheduler.failure[job]);
+            }
+        }
+
+    private static String read(File file) throws Exception
+        {
+        Scanner scanner = new Scanner(file).useDelimiter("\\A");
+        String text = scanner.next();
+        scanner.close();
+        return text;
+        }
+    }
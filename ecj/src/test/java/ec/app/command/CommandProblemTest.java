@@ -0,0 +1,178 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.app.command;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.simple.SimpleFitness;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import ec.vector.DoubleVectorIndividual;
+import java.io.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Evaluates genomes with SpheroidWorker, forking it per batch and keeping it running in a CommandWorkerPool.
+ */
+public class CommandProblemTest
+    {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final double[][] GENOMES = { { 1, 2 }, { 3, 4 }, { 0.5, -0.25 } };
+    private static final double[] FITNESSES = { 5, 25, 0.3125 };
+
+    @Before
+    public void setUp()
+        {
+        assumeTrue(File.separatorChar == '/');  // the commands are shell scripts
+        }
+
+    private File script(String name, String body) throws IOException
+        {
+        File file = new File(folder.getRoot(), name);
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        out.println("#!/bin/sh");
+        out.println(body);
+        out.close();
+        assertTrue(file.setExecutable(true));
+        return file;
+        }
+
+    private File worker(long delay) throws IOException
+        {
+        return script("worker" + delay + ".sh", "exec java -cp '" + System.getProperty("java.class.path") +
+            "' ec.app.command.SpheroidWorker " + delay);
+        }
+
+    private CommandWorkerPool pool(File command, boolean binary, long timeout, int retries)
+        {
+        ProcessBuilder builder = new ProcessBuilder(command.getPath());
+        builder.redirectError(ProcessBuilder.Redirect.appendTo(new File(folder.getRoot(), "err.txt")));
+        return new CommandWorkerPool(builder, 1, binary, timeout, retries);
+        }
+
+    @Test(timeout = 60000)
+    public void testEncodings() throws Exception
+        {
+        File command = worker(0);
+        for (int binary = 0; binary < 2; binary++)
+            {
+            CommandWorkerPool pool = pool(command, binary == 1, 0, 0);
+            for (int batch = 0; batch < 3; batch++)
+                assertArrayEquals(FITNESSES, pool.evaluate(GENOMES), 0);
+            assertEquals(3, pool.getBatches());
+            assertEquals(0, pool.getRestarts());
+            pool.close();
+            }
+        }
+
+    /** A binary batch of genomes of different lengths is refused without upsetting the worker. */
+    @Test(timeout = 60000)
+    public void testUnequalLengths() throws Exception
+        {
+        CommandWorkerPool pool = pool(worker(0), true, 0, 0);
+        assertArrayEquals(FITNESSES, pool.evaluate(GENOMES), 0);
+        try
+            {
+            pool.evaluate(new double[][] { { 1, 2 }, { 1, 2, 3 } });
+            fail("genomes of different lengths can't be sent in binary");
+            }
+        catch (IllegalArgumentException e) { }
+        assertArrayEquals(FITNESSES, pool.evaluate(GENOMES), 0);
+        assertEquals(0, pool.getRestarts());
+        pool.close();
+        }
+
+    @Test(timeout = 60000)
+    public void testRestart() throws Exception
+        {
+        // answers one batch of one genome, then exits
+        File command = script("once.sh", "read header; read genome; echo 7.0");
+        CommandWorkerPool pool = pool(command, false, 0, 1);
+        double[][] genome = { { 1, 2 } };
+        assertEquals(7.0, pool.evaluate(genome)[0], 0);
+        assertEquals(7.0, pool.evaluate(genome)[0], 0);
+        assertEquals(1, pool.getRestarts());
+        pool.close();
+
+        // never answers properly
+        pool = pool(script("crash.sh", "exit 1"), false, 0, 2);
+        try
+            {
+            pool.evaluate(genome);
+            fail("a worker which always fails should give up");
+            }
+        catch (IOException e) { }
+        assertEquals(3, pool.getRestarts());
+        pool.close();
+        }
+
+    @Test(timeout = 60000)
+    public void testTimeout() throws Exception
+        {
+        CommandWorkerPool pool = pool(worker(5000), true, 200, 0);
+        long start = System.currentTimeMillis();
+        try
+            {
+            pool.evaluate(GENOMES);
+            fail("a slow worker should time out");
+            }
+        catch (IOException e) { }
+        assertTrue(System.currentTimeMillis() - start < 4000);
+        assertEquals(1, pool.getRestarts());
+        pool.close();
+        }
+
+    @Test(timeout = 60000)
+    public void testProblem() throws Exception
+        {
+        File command = worker(0);
+        for (int mode = 0; mode < 2; mode++)
+            {
+            EvolutionState state = new EvolutionState();
+            state.output = Evolve.buildOutput();
+            state.output.setThrowsErrors(true);
+            state.output.getLog(0).silent = true;
+            state.output.getLog(1).silent = true;
+            state.parameters = new ParameterDatabase();
+            state.evalthreads = 2;
+            Parameter base = new Parameter("problem");
+            state.parameters.set(base.push(CommandProblem.P_COMMAND), command.getPath());
+            state.parameters.set(base.push(CommandProblem.P_ERROR_FILE), new File(folder.getRoot(), "err.txt").getPath());
+            if (mode == 1)
+                {
+                state.parameters.set(base.push(CommandProblem.P_MODE), "persistent");
+                state.parameters.set(base.push(CommandProblem.P_ENCODING), "binary");
+                }
+            CommandProblem problem = new CommandProblem();
+            problem.setup(state, base);
+            assertEquals(mode == 1, problem.persistent);
+            if (mode == 1) assertEquals(2, problem.pool.getSize());
+
+            Individual[] individuals = new Individual[GENOMES.length];
+            for (int i = 0; i < individuals.length; i++)
+                {
+                DoubleVectorIndividual ind = new DoubleVectorIndividual();
+                ind.genome = GENOMES[i].clone();
+                individuals[i] = ind;
+                }
+            ((CommandProblem)(problem.clone())).evaluate(state, individuals, null, false, null, 0);
+            for (int i = 0; i < individuals.length; i++)
+                {
+                assertTrue(individuals[i].evaluated);
+                assertEquals(FITNESSES[i], ((SimpleFitness)(individuals[i].fitness)).fitness(), 1e-9);
+                }
+            problem.closeContacts(state, EvolutionState.R_SUCCESS);
+            }
+        }
+    }
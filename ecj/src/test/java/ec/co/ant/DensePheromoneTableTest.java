@@ -0,0 +1,189 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.co.ant;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.app.knapsack.KnapsackComponent;
+import ec.app.tsp.TSPGraph.TSPComponent;
+import ec.app.tsp.TSPIndividual;
+import ec.app.tsp.TSPProblem;
+import ec.simple.SimpleEvaluator;
+import ec.simple.SimpleEvolutionState;
+import ec.simple.SimpleFitness;
+import ec.util.MersenneTwisterFast;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for DensePheromoneTable, and for the update rules which have special cases for it.
+ */
+public class DensePheromoneTableTest
+    {
+    private final static Parameter BASE = new Parameter("base");
+    private final static Parameter PROBLEM_BASE = new Parameter("prob");
+    private EvolutionState state;
+    private TSPProblem problem;
+
+    @Before
+    public void setUp()
+        {
+        state = new SimpleEvolutionState();
+        state.parameters = new ParameterDatabase();
+        state.parameters.set(PROBLEM_BASE.push(TSPProblem.P_FILE), "src/main/resources/ec/app/tsp/berlin52.tsp");
+        state.output = Evolve.buildOutput();
+        state.output.getLog(0).silent = true;
+        state.output.getLog(1).silent = true;
+        state.output.setThrowsErrors(true);
+        state.random = new MersenneTwisterFast[] { new MersenneTwisterFast(1) };
+        state.evaluator = new SimpleEvaluator();
+        problem = new TSPProblem();
+        problem.setup(state, PROBLEM_BASE);
+        state.evaluator.p_problem = problem;
+        }
+
+    private DensePheromoneTable table()
+        {
+        final DensePheromoneTable table = new DensePheromoneTable();
+        table.setup(state, BASE);
+        return table;
+        }
+
+    @Test
+    public void testSetup()
+        {
+        DensePheromoneTable table = table();
+        assertEquals(52*52, table.size());
+        for (int i = 0; i < table.size(); i++)
+            assertTrue(table.get(i) > 0.0 && table.get(i) <= 0.000001);
+
+        state.parameters.set(BASE.push(DensePheromoneTable.P_INITIALIZE_WITH_NOISE), "false");
+        state.parameters.set(BASE.push(DensePheromoneTable.P_INITIAL_CONCENTRATION), "0.5");
+        table = table();
+        for (int i = 0; i < table.size(); i++)
+            assertEquals(0.5, table.get(i), 0.0);
+        assertTrue(table.repOK());
+        }
+
+    /** Components are found by their ids. */
+    @Test
+    public void testGetSet()
+        {
+        final DensePheromoneTable table = table();
+        final TSPComponent c = problem.getComponent(3, 7);
+        assertEquals(3*52 + 7, c.id());
+        final long version = table.version();
+        table.set(c, 2.5);
+        assertTrue(table.version() > version);
+        assertEquals(2.5, table.get(state, c, 0), 0.0);
+        assertEquals(2.5, table.get(3*52 + 7), 0.0);
+        assertNotEquals(2.5, table.get(state, problem.getComponent(7, 3), 0), 0.0);
+        }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoID()
+        {
+        table().set(new KnapsackComponent(1.0, 1.0), 2.0);
+        }
+
+    @Test
+    public void testEvaporate()
+        {
+        state.parameters.set(BASE.push(DensePheromoneTable.P_INITIALIZE_WITH_NOISE), "false");
+        state.parameters.set(BASE.push(DensePheromoneTable.P_INITIAL_CONCENTRATION), "1.0");
+        final DensePheromoneTable table = table();
+        table.set(0, 0.1);
+        table.evaporate(0.25, 0.5);
+        assertEquals(0.5, table.get(0), 0.0);
+        for (int i = 1; i < table.size(); i++)
+            assertEquals(0.75, table.get(i), 0.0);
+        final double[] values = new double[table.size()];
+        table.copyTo(values);
+        assertEquals(0.5, values[0], 0.0);
+        assertEquals(0.75, values[values.length - 1], 0.0);
+        }
+
+    /** Deposits from many threads at once are never lost. */
+    @Test
+    public void testConcurrentDeposits() throws InterruptedException
+        {
+        state.parameters.set(BASE.push(DensePheromoneTable.P_INITIALIZE_WITH_NOISE), "false");
+        state.parameters.set(BASE.push(DensePheromoneTable.P_INITIAL_CONCENTRATION), "0.0");
+        final DensePheromoneTable table = table();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+            {
+            threads[t] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    for (int i = 0; i < 20000; i++)
+                        table.deposit(i % 100, 1.0);
+                    }
+                });
+            threads[t].start();
+            }
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+        for (int i = 0; i < 100; i++)
+            assertEquals(800.0, table.get(i), 0.0);
+        }
+
+    private List<TSPIndividual> ants()
+        {
+        final List<TSPIndividual> ants = new ArrayList<TSPIndividual>();
+        for (int a = 0; a < 3; a++)
+            {
+            final TSPIndividual ind = new TSPIndividual();
+            ind.fitness = new SimpleFitness();
+            int from = a;
+            for (int to = 0; to < 52; to++)
+                if (to != a)
+                    {
+                    ind.add(state, problem.getComponent(from, to));
+                    from = to;
+                    }
+            ((SimpleFitness)ind.fitness).setFitness(state, 1.0/(a + 1), false);
+            ants.add(ind);
+            }
+        return ants;
+        }
+
+    /** The update rules do the same thing to a DensePheromoneTable as to a SimplePheromoneTable. */
+    @Test
+    public void testUpdateRules()
+        {
+        state.parameters.set(BASE.push(DensePheromoneTable.P_INITIALIZE_WITH_NOISE), "false");
+        state.parameters.set(BASE.push(DensePheromoneTable.P_INITIAL_CONCENTRATION), "0.25");
+        state.parameters.set(BASE.push(AntSystemUpdateRule.P_DECAY_RATE), "0.1");
+        state.parameters.set(BASE.push(AntSystemUpdateRule.P_DEPOSIT_RULE), "ANT_CYCLE");
+        state.parameters.set(BASE.push(MaxMinUpdateRule.P_RHO), "0.2");
+        state.parameters.set(BASE.push(MaxMinUpdateRule.P_BEST_STRATEGY), "ITERATION_BEST");
+        state.parameters.set(BASE.push(MaxMinUpdateRule.P_MIN), "0.24");
+        state.parameters.set(BASE.push(MaxMinUpdateRule.P_MAX), "10");
+
+        final UpdateRule[] rules = new UpdateRule[] { new AntSystemUpdateRule(), new MaxMinUpdateRule() };
+        for (final UpdateRule rule : rules)
+            {
+            rule.setup(state, BASE);
+            final DensePheromoneTable dense = table();
+            final SimplePheromoneTable simple = new SimplePheromoneTable();
+            simple.setup(state, BASE);
+            for (int g = 0; g < 3; g++)
+                {
+                rule.updatePheromones(state, dense, ants());
+                rule.updatePheromones(state, simple, ants());
+                }
+            for (final TSPComponent c : problem.getAllComponents())
+                assertEquals(simple.get(state, c, 0), dense.get(state, c, 0), 1e-12);
+            }
+        }
+    }
@@ -0,0 +1,202 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.co.ant;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.app.tsp.TSPGraph.TSPComponent;
+import ec.app.tsp.TSPIndividual;
+import ec.app.tsp.TSPProblem;
+import ec.co.ConstructiveIndividual;
+import ec.simple.SimpleEvaluator;
+import ec.simple.SimpleEvolutionState;
+import ec.util.MersenneTwisterFast;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for TourConstructionRule, and for building ants in parallel with ConstructiveBreeder.
+ */
+public class TourConstructionRuleTest
+    {
+    private final static Parameter BASE = new Parameter("base");
+    private final static Parameter PROBLEM_BASE = new Parameter("prob");
+    private final static Parameter PHEROMONE_BASE = new Parameter("pheromones");
+    private EvolutionState state;
+    private TSPProblem problem;
+
+    @Before
+    public void setUp()
+        {
+        state = new SimpleEvolutionState();
+        state.parameters = new ParameterDatabase();
+        state.parameters.set(PROBLEM_BASE.push(TSPProblem.P_FILE), "src/main/resources/ec/app/tsp/berlin52.tsp");
+        state.parameters.set(PHEROMONE_BASE.push(DensePheromoneTable.P_INITIALIZE_WITH_NOISE), "false");
+        state.parameters.set(PHEROMONE_BASE.push(DensePheromoneTable.P_INITIAL_CONCENTRATION), "1.0");
+        state.output = Evolve.buildOutput();
+        state.output.getLog(0).silent = true;
+        state.output.getLog(1).silent = true;
+        state.output.setThrowsErrors(true);
+        state.random = new MersenneTwisterFast[] { new MersenneTwisterFast(1) };
+        state.evaluator = new SimpleEvaluator();
+        problem = new TSPProblem();
+        problem.setup(state, PROBLEM_BASE);
+        state.evaluator.p_problem = problem;
+        }
+
+    private TourConstructionRule rule(final String candidates, final String probBest)
+        {
+        state.parameters.set(BASE.push(TourConstructionRule.P_CANDIDATES), candidates);
+        state.parameters.set(BASE.push(TourConstructionRule.P_PROB_BEST), probBest);
+        final TourConstructionRule rule = new TourConstructionRule();
+        rule.setup(state, BASE);
+        return rule;
+        }
+
+    private DensePheromoneTable table()
+        {
+        final DensePheromoneTable table = new DensePheromoneTable();
+        table.setup(state, PHEROMONE_BASE);
+        return table;
+        }
+
+    private static int[] tour(final ConstructiveIndividual ind)
+        {
+        final List<TSPComponent> edges = ((TSPIndividual)ind).getComponents();
+        final int[] tour = new int[edges.size() + 1];
+        tour[0] = edges.get(0).from();
+        for (int i = 0; i < edges.size(); i++)
+            {
+            assertEquals(tour[i], edges.get(i).from());
+            tour[i + 1] = edges.get(i).to();
+            }
+        return tour;
+        }
+
+    /** Ants visit every city once, with or without candidate lists. */
+    @Test
+    public void testCompleteTours()
+        {
+        final String[][] settings = new String[][] { { "5", "0.0" }, { "0", "0.0" }, { "5", "0.5" }, { "51", "0.0" } };
+        for (final String[] setting : settings)
+            {
+            final TourConstructionRule rule = rule(setting[0], setting[1]);
+            final DensePheromoneTable table = table();
+            for (int a = 0; a < 20; a++)
+                {
+                final ConstructiveIndividual ind = rule.constructSolution(state, new TSPIndividual(), table, 0);
+                assertEquals(51, ind.size());
+                assertTrue(problem.isCompleteSolution(ind));
+                }
+            }
+        }
+
+    /** The candidates of each city are its nearest neighbors, nearest first. */
+    @Test
+    public void testCandidates()
+        {
+        final TourConstructionRule rule = rule("8", "0.0");
+        for (int i = 0; i < 52; i++)
+            {
+            final int[] candidates = rule.getCandidates(i);
+            assertEquals(8, candidates.length);
+            double furthest = 0;
+            for (int k = 0; k < candidates.length; k++)
+                {
+                final double d = problem.getComponent(i, candidates[k]).distance();
+                assertTrue(candidates[k] != i);
+                assertTrue(d >= furthest);
+                furthest = d;
+                }
+            for (int j = 0; j < 52; j++)
+                {
+                boolean isCandidate = false;
+                for (int k = 0; k < candidates.length; k++)
+                    isCandidate |= (candidates[k] == j);
+                if (j != i && !isCandidate)
+                    assertTrue(problem.getComponent(i, j).distance() >= furthest);
+                }
+            }
+        assertEquals(51, rule("0", "0.0").getCandidates(0).length);
+        }
+
+    /** With equal pheromones and prob-best = 1, an ant always moves to the nearest unvisited city. */
+    @Test
+    public void testGreedy()
+        {
+        final TourConstructionRule rule = rule("5", "1.0");
+        final int[] tour = tour(rule.constructSolution(state, new TSPIndividual(), table(), 0));
+        final boolean[] visited = new boolean[52];
+        for (int i = 0; i < tour.length - 1; i++)
+            {
+            visited[tour[i]] = true;
+            double nearest = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < 52; j++)
+                if (!visited[j])
+                    nearest = Math.min(nearest, problem.getComponent(tour[i], j).distance());
+            assertEquals(nearest, problem.getComponent(tour[i], tour[i + 1]).distance(), 0.0);
+            }
+        }
+
+    /** The choice table is rebuilt only when the pheromones change. */
+    @Test
+    public void testChoiceTable()
+        {
+        final TourConstructionRule rule = rule("5", "0.0");
+        final DensePheromoneTable table = table();
+        final double[] choice = rule.choiceTable(table);
+        assertSame(choice, rule.choiceTable(table));
+        final TSPComponent c = problem.getComponent(2, 9);
+        assertEquals(Math.pow(c.desirability(), 2.0), choice[c.id()], 1e-15);
+
+        table.set(c, 3.0);
+        final double[] updated = rule.choiceTable(table);
+        assertNotSame(choice, updated);
+        assertEquals(3.0 * Math.pow(c.desirability(), 2.0), updated[c.id()], 1e-15);
+        }
+
+    private static EvolutionState aco(final int breedthreads)
+        {
+        final ParameterDatabase parameters = Evolve.loadParameterDatabase(new String[]
+            {
+            "-from", "app/tsp/dense.params",
+            "-p", "silent=true",
+            "-p", "stat=ec.Statistics",
+            "-p", "seed.0=1", "-p", "seed.1=2", "-p", "seed.2=3",
+            "-p", "breedthreads=" + breedthreads,
+            "-p", "pop.subpop.0.size=12",
+            "-p", "eval.problem.file=$src/main/resources/ec/app/tsp/berlin52.tsp",
+            });
+        final EvolutionState state = Evolve.initialize(parameters, 0);
+        state.startFresh();
+        state.evolve();
+        return state;
+        }
+
+    /** Several breeding threads build complete tours, and build the same ones every time. */
+    @Test
+    public void testParallelBreeding()
+        {
+        final EvolutionState first = aco(3);
+        final EvolutionState second = aco(3);
+        final ArrayList<Individual> inds = first.population.subpops.get(0).individuals;
+        assertEquals(12, inds.size());
+        for (int i = 0; i < inds.size(); i++)
+            {
+            assertTrue(((TSPProblem)first.evaluator.p_problem).isCompleteSolution((ConstructiveIndividual)inds.get(i)));
+            // TSPComponents from different graphs are never equal, so compare the tours as strings
+            assertEquals(inds.get(i).toString(), second.population.subpops.get(0).individuals.get(i).toString());
+            }
+        Evolve.cleanup(first);
+        Evolve.cleanup(second);
+        }
+    }
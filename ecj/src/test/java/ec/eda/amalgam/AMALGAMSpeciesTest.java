@@ -0,0 +1,165 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.eda.amalgam;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.Subpopulation;
+import ec.simple.SimpleFitness;
+import ec.util.MersenneTwisterFast;
+import ec.util.Output;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import ec.vector.DoubleVectorIndividual;
+import ec.vector.FloatVectorSpecies;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+import org.ejml.ops.RandomMatrices;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks AMALGAMSpecies' matrix kernels against EJML's, its sort against compareIndividuals(...),
+ * and its batched sampling.
+ */
+public class AMALGAMSpeciesTest
+    {
+    private final static Parameter BASE = new Parameter("base");
+    private EvolutionState state;
+
+    @Before
+    public void setUp()
+        {
+        state = new EvolutionState();
+        state.output = Evolve.buildOutput();
+        state.output.setThrowsErrors(true);
+        state.output.getLog(0).silent = true;
+        state.output.getLog(1).silent = true;
+        state.parameters = new ParameterDatabase();
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_INDIVIDUAL), DoubleVectorIndividual.class.getCanonicalName());
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_FITNESS), SimpleFitness.class.getCanonicalName());
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_GENOMESIZE), "5");
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_MINGENE), "-1");
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_MAXGENE), "1");
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_MUTATIONPROB), "0");
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_PIPE), "ec.breed.InitializationPipeline");
+        state.random = new MersenneTwisterFast[] { new MersenneTwisterFast(1) };
+        }
+
+    private AMALGAMSpecies species()
+        {
+        AMALGAMSpecies species = new AMALGAMSpecies();
+        species.setup(state, BASE);
+        return species;
+        }
+
+    private void assertMatrixEquals(DenseMatrix64F expected, DenseMatrix64F actual)
+        {
+        assertEquals(expected.numRows, actual.numRows);
+        assertEquals(expected.numCols, actual.numCols);
+        for(int i = 0; i < expected.data.length; i++)
+            assertEquals(expected.data[i], actual.data[i], 1e-9);
+        }
+
+    @Test
+    public void testMultInner()
+        {
+        // big enough for several blocks, and not a multiple of the block size
+        java.util.Random random = new java.util.Random(1);
+        DenseMatrix64F a = RandomMatrices.createRandom(50, AMALGAMSpecies.BLOCK_SIZE * 2 + 3, random);
+        DenseMatrix64F expected = new DenseMatrix64F(a.numCols, a.numCols);
+        CommonOps.multTransA(a, a, expected);
+        DenseMatrix64F c = new DenseMatrix64F(a.numCols, a.numCols);
+        CommonOps.fill(c, 7);    // should be overwritten
+        AMALGAMSpecies.multInner(a, c);
+        assertMatrixEquals(expected, c);
+        }
+
+    @Test
+    public void testMultLower()
+        {
+        java.util.Random random = new java.util.Random(1);
+        DenseMatrix64F l = RandomMatrices.createRandom(40, 40, random);
+        for(int i = 0; i < 40; i++)
+            for(int j = i + 1; j < 40; j++)
+                l.set(i, j, 0);
+        DenseMatrix64F b = RandomMatrices.createRandom(40, 17, random);
+        DenseMatrix64F expected = new DenseMatrix64F(40, 17);
+        CommonOps.mult(l, b, expected);
+        DenseMatrix64F c = new DenseMatrix64F(40, 17);
+        CommonOps.fill(c, 7);
+        AMALGAMSpecies.multLower(l, b, c);
+        assertMatrixEquals(expected, c);
+        }
+
+    @Test
+    public void testSortIndividuals()
+        {
+        final AMALGAMSpecies species = species();
+        Subpopulation subpop = new Subpopulation();
+        subpop.individuals = new ArrayList<Individual>();
+        MersenneTwisterFast random = state.random[0];
+        for(int i = 0; i < 100; i++)
+            {
+            DoubleVectorIndividual ind = (DoubleVectorIndividual)(species.newIndividual(state, 0));
+            for(int j = 0; j < ind.genome.length; j++)
+                if (random.nextBoolean(0.1))
+                    ind.genome[j] = 2;          // out of bounds
+            ((SimpleFitness)(ind.fitness)).setFitness(state, random.nextInt(10), false);     // lots of ties
+            subpop.individuals.add(ind);
+            }
+        species.computeConstraintViolations(state, subpop);
+
+        ArrayList<Individual> expected = new ArrayList<Individual>(subpop.individuals);
+        Collections.sort(expected, new Comparator<Individual>()
+                {
+                public int compare(Individual a, Individual b)
+                    {
+                    return species.compareIndividuals(a, b);
+                    }
+            });
+        species.sortIndividuals(subpop);
+        for(int i = 0; i < expected.size(); i++)
+            assertSame(expected.get(i), subpop.individuals.get(i));
+        }
+
+    @Test
+    public void testNewIndividuals()
+        {
+        // a wide distribution, so most batched samples break the bounds and must be regenerated
+        AMALGAMSpecies species = species();
+        species.firstGeneration = false;
+        CommonOps.setIdentity(species.choleskyLower);
+        CommonOps.scale(2.0, species.choleskyLower);
+
+        ArrayList<Individual> inds = new ArrayList<Individual>();
+        for(int i = 0; i < 30; i++)
+            inds.add(null);
+        species.newIndividuals(state, 0, inds, 1);
+        assertNull(inds.get(0));
+        for(int i = 1; i < inds.size(); i++)
+            {
+            double[] genome = ((DoubleVectorIndividual)(inds.get(i))).genome;
+            assertEquals(5, genome.length);
+            for(int j = 0; j < genome.length; j++)
+                assertTrue(genome[j] >= -1 && genome[j] <= 1);
+            for(int k = 1; k < i; k++)
+                assertNotSame(inds.get(k), inds.get(i));
+            }
+        }
+
+    @Test (expected = Output.OutputExitException.class)
+    public void testNegativeMaxResamples()
+        {
+        state.parameters.set(BASE.push(AMALGAMSpecies.P_MAX_RESAMPLES), "-1");
+        species();
+        }
+    }
@@ -0,0 +1,148 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.eda.cmaes;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.simple.SimpleFitness;
+import ec.simple.SimpleStatistics;
+import ec.util.MersenneTwisterFast;
+import ec.util.Output;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import ec.vector.DoubleVectorIndividual;
+import ec.vector.FloatVectorSpecies;
+import java.util.ArrayList;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Sets up CMAESSpecies in each of its modes, and runs each of them on the sphere function.
+ */
+public class CMAESSpeciesTest
+    {
+    private final static Parameter BASE = new Parameter("base");
+    private EvolutionState state;
+
+    @Before
+    public void setUp()
+        {
+        state = new EvolutionState();
+        state.output = Evolve.buildOutput();
+        state.output.setThrowsErrors(true);
+        state.output.getLog(0).silent = true;
+        state.output.getLog(1).silent = true;
+        state.parameters = new ParameterDatabase();
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_INDIVIDUAL), DoubleVectorIndividual.class.getCanonicalName());
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_FITNESS), SimpleFitness.class.getCanonicalName());
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_GENOMESIZE), "20");
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_MINGENE), "-1");
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_MAXGENE), "1");
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_MUTATIONPROB), "0");
+        state.parameters.set(BASE.push(FloatVectorSpecies.P_PIPE), "ec.breed.InitializationPipeline");
+        state.parameters.set(BASE.push(CMAESSpecies.P_MEAN), CMAESSpecies.V_ZERO);
+        state.random = new MersenneTwisterFast[] { new MersenneTwisterFast(1) };
+        }
+
+    private CMAESSpecies species(String mode)
+        {
+        state.parameters.set(BASE.push(CMAESSpecies.P_MODE), mode);
+        CMAESSpecies species = new CMAESSpecies();
+        species.setup(state, BASE);
+        return species;
+        }
+
+    @Test
+    public void testSep()
+        {
+        CMAESSpecies full = species(CMAESSpecies.V_FULL);
+        CMAESSpecies sep = species(CMAESSpecies.V_SEP);
+        assertEquals(CMAESSpecies.MODE_SEP, sep.mode);
+        assertNull(sep.c);
+        assertNull(sep.sbd);
+        assertEquals(20, sep.diagC.length);
+        assertEquals(full.c1 * 22 / 3.0, sep.c1, 1e-12);       // sep learns faster
+        CMAESSpecies copy = (CMAESSpecies)(sep.clone());
+        assertNotSame(sep.diagC, copy.diagC);
+        }
+
+    @Test
+    public void testLM()
+        {
+        CMAESSpecies lm = species(CMAESSpecies.V_LM);
+        assertEquals(CMAESSpecies.MODE_LM, lm.mode);
+        assertNull(lm.c);
+        assertEquals(4 + (int)Math.floor(3 * Math.log(20)), lm.memory);
+        assertEquals(0, lm.numDirections);
+        assertEquals(Math.min(1.0, 2.0 * lm.lambda / 20), lm.cs, 1e-12);
+        }
+
+    @Test (expected = Output.OutputExitException.class)
+    public void testLMNeedsIdentity()
+        {
+        state.parameters.set(BASE.push(CMAESSpecies.P_COVARIANCE), CMAESSpecies.V_SCALED);
+        species(CMAESSpecies.V_LM);
+        }
+
+    @Test (expected = Output.OutputExitException.class)
+    public void testUnknownMode()
+        {
+        species("diagonal");
+        }
+
+    @Test
+    public void testNewIndividuals()
+        {
+        // with sigma 1 and genes in [-1, 1], most batched samples break the bounds and must be regenerated
+        CMAESSpecies full = species(CMAESSpecies.V_FULL);
+        ArrayList<Individual> inds = new ArrayList<Individual>();
+        for(int i = 0; i < full.lambda; i++)
+            inds.add(null);
+        full.newIndividuals(state, 0, inds);
+        for(int i = 0; i < full.lambda; i++)
+            {
+            double[] genome = ((DoubleVectorIndividual)(inds.get(i))).genome;
+            assertEquals(20, genome.length);
+            for(int j = 0; j < genome.length; j++)
+                assertTrue(genome[j] >= -1 && genome[j] <= 1);
+            for(int k = 0; k < i; k++)
+                assertNotSame(inds.get(k), inds.get(i));
+            }
+        }
+
+    private double run(String mode) throws Exception
+        {
+        ParameterDatabase parameters = new ParameterDatabase("cmaes.params", CMAESSpecies.class);
+        parameters.set(new Parameter(Evolve.P_SILENT), "true");
+        parameters.set(new Parameter("stat.silent"), "true");
+        parameters.set(new Parameter("generations"), "400");
+        parameters.set(new Parameter("seed.0"), "1");
+        parameters.set(new Parameter("eval.problem"), "ec.app.ecsuite.ECSuite");
+        parameters.set(new Parameter("eval.problem.type"), "sphere");
+        Parameter species = new Parameter("pop.subpop.0.species");
+        parameters.set(species.push("fitness"), "ec.simple.SimpleFitness");
+        parameters.set(species.push("genome-size"), "20");
+        parameters.set(species.push("min-gene"), "-5.12");
+        parameters.set(species.push("max-gene"), "5.12");
+        parameters.set(species.push(CMAESSpecies.P_MODE), mode);
+
+        EvolutionState state = Evolve.initialize(parameters, 0);
+        state.output.setThrowsErrors(true);
+        state.run(EvolutionState.C_STARTED_FRESH);
+        return ((SimpleStatistics)(state.statistics)).getBestSoFar()[0].fitness.fitness();
+        }
+
+    @Test
+    public void testSphere() throws Exception
+        {
+        // ECSuite's fitness is the negated sphere
+        assertTrue(run(CMAESSpecies.V_FULL) > -1e-10);
+        assertTrue(run(CMAESSpecies.V_SEP) > -1e-10);
+        assertTrue(run(CMAESSpecies.V_LM) > -1e-10);
+        }
+    }
@@ -0,0 +1,270 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.eval;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.Problem;
+import ec.simple.SimpleFitness;
+import ec.util.Codec;
+import ec.util.ParameterDatabase;
+import ec.vector.DoubleVectorIndividual;
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Drives an AsyncSlaveMonitor with fake slaves, which speak the slave protocol over real
+ * sockets and set each individual's fitness to the sum of its genome.
+ */
+public class AsyncSlaveMonitorTest
+    {
+    private EvolutionState state;
+    private MasterProblem problem;
+    private AsyncSlaveMonitor monitor;
+    private final List<Thread> slaves = new ArrayList<Thread>();
+
+    @Before
+    public void setUp()
+        {
+        state = new EvolutionState();
+        state.output = Evolve.buildOutput();
+        state.output.setThrowsErrors(true);
+        state.output.getLog(0).silent = true;
+        state.output.getLog(1).silent = true;
+        state.parameters = new ParameterDatabase();
+        state.parameters.set(new ec.util.Parameter(SlaveMonitor.P_EVALMASTERPORT), "0");
+        state.parameters.set(new ec.util.Parameter(SlaveMonitor.P_MAXIMUMNUMBEROFCONCURRENTJOBSPERSLAVE), "3");
+
+        problem = new MasterProblem();
+        problem.problem = new Problem() { };
+        problem.jobSize = 1;
+        problem.async = true;
+        }
+
+    @After
+    public void tearDown() throws InterruptedException
+        {
+        if (monitor != null)
+            monitor.shutdown();
+        for (Thread slave : slaves)
+            slave.join(5000);
+        }
+
+    private void start()
+        {
+        monitor = new AsyncSlaveMonitor(state, false, problem);
+        problem.monitor = monitor;
+        }
+
+    /** Starts a fake slave which takes <i>delay</i> milliseconds per job, or never answers if delay is negative,
+        and waits until it has connected. */
+    private void slave(final String name, final long delay)
+        {
+        final int port = monitor.servSock.getLocalPort();
+        Thread thread = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    Socket socket = new Socket("localhost", port);
+                    InputStream raw = socket.getInputStream();
+                    OutputStream rawOut = socket.getOutputStream();
+                    Codec codec = Codec.STANDARD;
+                    if (raw.read() == Slave.V_NEGOTIATECODEC)     // else no compression
+                        codec = Codec.accept(raw, rawOut);
+                    DataInputStream in = new DataInputStream(codec.decompress(raw));
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(codec.compress(rawOut)));
+                    in.readInt();   // slave number
+                    out.writeUTF(name);
+                    out.flush();
+                    in.readInt();   // random seed
+                    while (true)
+                        {
+                        byte type = in.readByte();
+                        if (type == Slave.V_SHUTDOWN) break;
+                        assertEquals(Slave.V_EVALUATESIMPLE, type);
+                        int n = in.readInt();
+                        for (int i = 0; i < n; i++)
+                            in.readInt();
+                        DoubleVectorIndividual[] inds = new DoubleVectorIndividual[n];
+                        for (int i = 0; i < n; i++)
+                            {
+                            inds[i] = individual(0);
+                            codec.readIndividual(state, inds[i], in);
+                            in.readBoolean();
+                            }
+                        if (delay < 0)
+                            while (in.read() >= 0) { }     // hang until the master closes the socket
+                        Thread.sleep(delay);
+                        for (int i = 0; i < n; i++)
+                            {
+                            double sum = 0;
+                            for (double d : inds[i].genome)
+                                sum += d;
+                            ((SimpleFitness)inds[i].fitness).setFitness(state, sum, false);
+                            inds[i].evaluated = true;
+                            out.writeByte(Slave.V_FITNESS);
+                            out.writeBoolean(inds[i].evaluated);
+                            inds[i].fitness.writeFitness(state, out);
+                            }
+                        out.flush();
+                        }
+                    socket.close();
+                    }
+                catch (Exception e) { }     // the master went away, or we were interrupted
+                }
+            });
+        thread.setDaemon(true);
+        int connected = monitor.connections.size();
+        thread.start();
+        slaves.add(thread);
+        while (monitor.connections.size() == connected)
+            Thread.yield();
+        }
+
+    private static DoubleVectorIndividual individual(double value)
+        {
+        DoubleVectorIndividual ind = new DoubleVectorIndividual();
+        ind.genome = new double[] { value, 1 };
+        ind.fitness = new SimpleFitness();
+        return ind;
+        }
+
+    private static void assertEvaluated(Individual[] inds)
+        {
+        for (int i = 0; i < inds.length; i++)
+            {
+            assertTrue(inds[i].evaluated);
+            assertEquals(((DoubleVectorIndividual)inds[i]).genome[0] + 1, inds[i].fitness.fitness(), 0);
+            }
+        }
+
+    @Test(timeout = 20000)
+    public void testCallbacksOutOfOrder()
+        {
+        state.parameters.set(new ec.util.Parameter(AsyncSlaveMonitor.P_SPECULATION), "0");
+        start();
+        slave("fast", 1);
+        slave("slow", 300);
+
+        final int jobs = 30;
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        Individual[] inds = new Individual[jobs];
+        for (int i = 0; i < jobs; i++)
+            {
+            inds[i] = individual(i);
+            final int job = i;
+            problem.evaluate(state, new Individual[] { inds[i] }, new int[] { 0 }, 0, new Job.Callback()
+                {
+                public void finished(EvolutionState state, Individual[] inds, int[] subpopulations)
+                    {
+                    assertTrue(inds[0].evaluated);
+                    order.add(job);
+                    }
+                });
+            }
+        monitor.waitForAllSlavesToFinishEvaluating(state);
+
+        assertEvaluated(inds);
+        assertEquals(jobs, order.size());
+        List<Integer> sorted = new ArrayList<Integer>(order);
+        Collections.sort(sorted);
+        assertNotEquals(sorted, order);     // the slow slave's jobs came back late
+        assertEquals(0, monitor.getSpeculativeJobs());
+        }
+
+    @Test(timeout = 20000)
+    public void testSpeculation()
+        {
+        start();
+        slave("fast", 1);
+        slave("hung", -1);
+
+        // batch mode: the hung slave holds on to its jobs, so they can only be finished by copies
+        problem.prepareToEvaluate(state, 0);
+        Individual[] inds = new Individual[40];
+        for (int i = 0; i < inds.length; i++)
+            {
+            inds[i] = individual(i);
+            problem.evaluate(state, inds[i], 0, 0);
+            }
+        problem.finishEvaluating(state, 0);
+
+        assertEvaluated(inds);
+        assertTrue(monitor.getSpeculativeWins() > 0);
+        assertEquals(monitor.getSpeculativeWins(), monitor.getSpeculativeJobs());
+        }
+
+    @Test(timeout = 20000)
+    public void testWaitsForOwnJobOnly()
+        {
+        state.parameters.set(new ec.util.Parameter(AsyncSlaveMonitor.P_SPECULATION), "0");
+        start();
+        slave("hung", -1);
+
+        // the hung slave takes the first three jobs, but a non-batch evaluation still returns once its own is done
+        for (int i = 0; i < 3; i++)
+            problem.evaluate(state, new Individual[] { individual(i) }, new int[] { 0 }, 0, null);
+        while (monitor.connections.get(0).numJobs() < 3)
+            Thread.yield();
+        slave("fast", 1);
+        Individual ind = individual(10);
+        problem.evaluate(state, ind, 0, 0);
+        assertEvaluated(new Individual[] { ind });
+        }
+    
+    @Test(timeout = 20000)
+    public void testNegotiatedCodec()
+        {
+        state.parameters.set(new ec.util.Parameter(SlaveMonitor.P_EVALCODEC), "compact");
+        state.parameters.set(new ec.util.Parameter(SlaveMonitor.P_EVALCODEC).push(Codec.P_COMPRESSION), "fast");
+        start();
+        slave("fast", 1);
+        assertEquals(new Codec(Codec.CODEC_COMPACT, Codec.COMPRESSION_FAST), monitor.connections.get(0).codec);
+
+        problem.prepareToEvaluate(state, 0);
+        Individual[] inds = new Individual[20];
+        for (int i = 0; i < inds.length; i++)
+            {
+            inds[i] = individual(i);
+            problem.evaluate(state, inds[i], 0, 0);
+            }
+        problem.finishEvaluating(state, 0);
+        assertEvaluated(inds);
+        }
+    
+    @Test(timeout = 20000)
+    public void testWaitUntilFinishedInterrupted() throws InterruptedException
+        {
+        final Job job = new Job();
+        final boolean[] interrupted = new boolean[1];
+        Thread waiter = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                job.waitUntilFinished();
+                interrupted[0] = Thread.currentThread().isInterrupted();
+                }
+            });
+        waiter.start();
+        waiter.interrupt();
+        waiter.join(200);
+        assertTrue(waiter.isAlive());       // an interrupt doesn't end the wait
+        job.finish(state);
+        waiter.join();
+        assertTrue(job.isFinished());
+        assertTrue(interrupted[0]);          // but the interrupt isn't lost
+        }
+    }
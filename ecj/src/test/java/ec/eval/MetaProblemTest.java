@@ -0,0 +1,105 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.eval;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.util.ParameterDatabase;
+import ec.util.ThreadPool;
+import java.io.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Runs a small meta-EA over ECSuite with parallel base-level runs, racing, and the fitness cache.
+ */
+public class MetaProblemTest
+    {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final File RESOURCES = new File("src/main/resources/ec");
+
+    private File write(String name, String[] lines) throws IOException
+        {
+        File file = new File(folder.getRoot(), name);
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        for (int i = 0; i < lines.length; i++)
+            out.println(lines[i]);
+        out.close();
+        return file;
+        }
+
+    private MetaProblem run(String[] extra) throws IOException
+        {
+        write("base.params", new String[] {
+            "parent.0 = " + new File(RESOURCES, "app/ecsuite/ecsuite.params").getAbsolutePath(),
+            "silent = true",
+            "generations = 3",
+            "pop.subpop.0.size = 10",
+            "pop.subpop.0.species.genome-size = 5",
+            "stat.file = " + new File(folder.getRoot(), "base.stat").getAbsolutePath(),
+            });
+        String[] lines = {
+            "parent.0 = " + new File(RESOURCES, "app/ecsuite/meta.params").getAbsolutePath(),
+            "silent = true",
+            "evalthreads = 2",
+            "seed.0 = 1",
+            "seed.1 = 2",
+            "generations = 3",
+            "pop.subpop.0.size = 8",
+            "breed.elite-frac.0 = 0.25",
+            "pop.subpop.0.species.genome-size = 2",
+            "eval.problem.num-params = 2",
+            "eval.problem.file = base.params",
+            "eval.problem.set-random = true",
+            "eval.problem.runs = 4",
+            "stat.file = " + new File(folder.getRoot(), "meta.stat").getAbsolutePath(),
+            };
+        String[] all = new String[lines.length + extra.length];
+        System.arraycopy(lines, 0, all, 0, lines.length);
+        System.arraycopy(extra, 0, all, lines.length, extra.length);
+        File file = write("meta.params", all);
+
+        ParameterDatabase parameters = new ParameterDatabase(file, new String[] { "-file", file.getPath() });
+        EvolutionState state = Evolve.initialize(parameters, 0);
+        state.output.setThrowsErrors(true);
+        state.run(EvolutionState.C_STARTED_FRESH);
+        MetaProblem problem = (MetaProblem)(state.evaluator.p_problem);
+        assertNotNull(problem.bestUnderlyingIndividual[0]);
+        Evolve.cleanup(state);
+        return problem;
+        }
+
+    @Test(timeout = 120000)
+    public void testSerial() throws Exception
+        {
+        MetaProblem problem = run(new String[0]);
+        assertNull(problem.pool);
+        assertEquals(0, problem.cacheHits.get());
+        assertEquals(0, problem.runsSkipped.get());
+        }
+
+    @Test(timeout = 120000)
+    public void testParallelRacingCache() throws Exception
+        {
+        MetaProblem problem = run(new String[] {
+            "eval.problem.run-threads = 3",
+            "eval.problem.threadpool = executor",
+            "eval.problem.race = true",
+            "eval.problem.race.min-runs = 1",
+            "eval.problem.race.eta = 2",
+            "eval.problem.cache = true",
+            });
+        assertNotNull(problem.pool);
+        assertEquals(ThreadPool.BACKEND_EXECUTOR, problem.pool.getBackend());
+        assertTrue(problem.cacheHits.get() > 0);
+        assertTrue(problem.runsSkipped.get() > 0);
+        assertEquals(8 * 3, problem.fitnessCache.size() + problem.cacheHits.get());    // every individual, every generation
+        }
+    }
@@ -0,0 +1,127 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.exchange;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.util.Codec;
+import ec.util.ParameterDatabase;
+import java.io.*;
+import java.net.ServerSocket;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the 2-Island-Server example in this process, with both islands in their own threads.
+ */
+public class IslandExchangeTest
+    {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final File EXAMPLE = new File("src/main/resources/ec/exchange/2-Island-Server");
+
+    private static int freePort() throws IOException
+        {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+        }
+
+    private EvolutionState island(String name, String[] parents, int serverPort, String transport, String codec) throws IOException
+        {
+        File file = new File(folder.getRoot(), name + ".params");
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        for (int i = 0; i < parents.length; i++)
+            out.println("parent." + i + " = " + new File(EXAMPLE, parents[i]).getAbsolutePath());
+        out.println("silent = true");
+        out.println("generations = 8");
+        out.println("pop.subpop.0.size = 50");
+        out.println("exch.server-port = " + serverPort);
+        out.println("exch.client-port = " + freePort());
+        out.println("exch.transport = " + transport);
+        out.println("exch.codec = " + codec);
+        out.println("exch.chatty = false");
+        out.println("stat.file = " + new File(folder.getRoot(), name + ".stat").getAbsolutePath());
+        out.close();
+        EvolutionState state = Evolve.initialize(new ParameterDatabase(file, new String[] { "-file", file.getPath() }), 0);
+        state.output.setThrowsErrors(true);
+        return state;
+        }
+
+    private IslandExchange[] run(String transport, String codec) throws Exception
+        {
+        int serverPort = freePort();
+        final EvolutionState minoa = island("minoa", new String[] { "minoa.params", "server.params" }, serverPort, transport, codec);
+        final EvolutionState crete = island("crete", new String[] { "crete.params" }, serverPort, transport, codec);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[2];
+        final EvolutionState[] states = { minoa, crete };
+        for (int i = 0; i < 2; i++)
+            {
+            final EvolutionState state = states[i];
+            threads[i] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    try { state.run(EvolutionState.C_STARTED_FRESH); }
+                    catch (Throwable e) { failure[0] = e; }
+                    }
+                });
+            threads[i].start();
+            Thread.sleep(500);  // the server, on Minoa, has to be up before Crete asks it for the topology
+            }
+        for (int i = 0; i < 2; i++)
+            threads[i].join();
+        if (failure[0] != null) throw new AssertionError(failure[0]);
+        return new IslandExchange[] { (IslandExchange)(minoa.exchanger), (IslandExchange)(crete.exchanger) };
+        }
+
+    @Test(timeout = 120000)
+    public void testNIO() throws Exception
+        {
+        IslandExchange[] islands = run("nio", "standard");
+        for (int i = 0; i < islands.length; i++)
+            {
+            assertNotNull(islands[i].transport);
+            assertNull(islands[i].mailbox);
+            long sent = 0;
+            long received = 0;
+            for (IslandExchangeTransport.Link link : islands[i].transport.getLinks())
+                if (link.outgoing) sent += link.getMigrants();
+                else received += link.getMigrants();
+            assertEquals(4, sent);          // each island sends 4 migrants once in 8 generations
+            assertEquals(4, received);
+            }
+        }
+
+    @Test(timeout = 120000)
+    public void testBlocking() throws Exception
+        {
+        IslandExchange[] islands = run("blocking", "standard");
+        for (int i = 0; i < islands.length; i++)
+            {
+            assertNull(islands[i].transport);
+            assertNotNull(islands[i].mailbox);
+            assertEquals(Codec.STANDARD, islands[i].outCodecs[0]);  // without negotiating
+            }
+        }
+
+    @Test(timeout = 120000)
+    public void testBlockingNegotiated() throws Exception
+        {
+        IslandExchange[] islands = run("blocking", "compact");
+        Codec compact = new Codec(Codec.CODEC_COMPACT, Codec.COMPRESSION_NONE);
+        for (int i = 0; i < islands.length; i++)
+            {
+            assertEquals(compact, islands[i].outCodecs[0]);
+            assertEquals(compact, islands[i].mailbox.codecs[0]);
+            }
+        }
+    }
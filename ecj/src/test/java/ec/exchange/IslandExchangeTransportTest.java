@@ -0,0 +1,169 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.exchange;
+
+import ec.Evolve;
+import ec.util.Codec;
+import ec.util.Output;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Sends frames of migrants between IslandExchangeTransports on this machine.
+ */
+public class IslandExchangeTransportTest
+    {
+    private Output output;
+    private ArrayList<IslandExchangeTransport> transports = new ArrayList<IslandExchangeTransport>();
+
+    @Before
+    public void setUp()
+        {
+        output = Evolve.buildOutput();
+        output.getLog(0).silent = true;
+        output.getLog(1).silent = true;
+        }
+
+    @After
+    public void tearDown()
+        {
+        for (IslandExchangeTransport transport : transports)
+            transport.shutDown();
+        }
+
+    private IslandExchangeTransport transport(int port, int mailboxCapacity, int outboundCapacity, String id) throws Exception
+        {
+        IslandExchangeTransport transport = new IslandExchangeTransport(output, port, 2, mailboxCapacity, outboundCapacity, id, true);
+        transport.start();
+        transports.add(transport);
+        return transport;
+        }
+
+    private static IslandExchangeTransport.Frame frame(int subpop, int count, int tag)
+        {
+        byte[] payload = new byte[1000 + tag];
+        for (int i = 0; i < payload.length; i++)
+            payload[i] = (byte)(tag + i);
+        return new IslandExchangeTransport.Frame(subpop, count, Codec.STANDARD, payload);
+        }
+
+    // waits for the mailbox to hold the given number of frames for the subpopulation, and returns them
+    private static ArrayList<IslandExchangeTransport.Frame> await(IslandExchangeTransport transport, int subpop, int frames) throws Exception
+        {
+        ArrayList<IslandExchangeTransport.Frame> received = new ArrayList<IslandExchangeTransport.Frame>();
+        for (int i = 0; i < 1000 && received.size() < frames; i++)
+            {
+            received.addAll(transport.receive(subpop));
+            if (received.size() < frames) Thread.sleep(10);
+            }
+        return received;
+        }
+
+    @Test(timeout = 20000)
+    public void testSend() throws Exception
+        {
+        IslandExchangeTransport crete = transport(0, 100, 16, "Crete");
+        IslandExchangeTransport minoa = transport(0, 100, 16, "Minoa");
+        IslandExchangeTransport.Link link = minoa.connect("localhost", crete.getPort(), new Codec(Codec.CODEC_COMPACT, Codec.COMPRESSION_DEFLATE));
+        for (int i = 0; i < 3; i++)
+            {
+            assertTrue(minoa.send(link, frame(0, 5, i)));
+            assertTrue(minoa.send(link, frame(1, 5, i + 10)));
+            }
+
+        ArrayList<IslandExchangeTransport.Frame> zero = await(crete, 0, 3);
+        ArrayList<IslandExchangeTransport.Frame> one = await(crete, 1, 3);
+        assertEquals(3, zero.size());
+        assertEquals(3, one.size());
+        for (int i = 0; i < 3; i++)
+            {
+            assertArrayEquals(frame(0, 5, i).payload, zero.get(i).payload);
+            assertArrayEquals(frame(1, 5, i + 10).payload, one.get(i).payload);
+            assertEquals(5, zero.get(i).count);
+            assertEquals("Minoa", zero.get(i).link.getId());
+            }
+
+        // the mailbox accepted the codec we proposed, and said who it is
+        assertTrue(link.isConnected());
+        assertEquals("Crete", link.getId());
+        assertEquals(new Codec(Codec.CODEC_COMPACT, Codec.COMPRESSION_DEFLATE), link.getCodec());
+        assertEquals(6, link.getFrames());
+        assertEquals(30, link.getMigrants());
+        assertEquals(0, link.getDropped());
+        assertTrue(link.getBytes() > 6 * 1000);
+        assertTrue(link.getMaxLatency() >= link.getMeanLatency());
+
+        IslandExchangeTransport.Link incoming = crete.getLinks().get(0);
+        assertFalse(incoming.outgoing);
+        assertEquals(30, incoming.getMigrants());
+        }
+
+    @Test(timeout = 20000)
+    public void testMailboxCapacity() throws Exception
+        {
+        IslandExchangeTransport crete = transport(0, 4, 16, "Crete");
+        IslandExchangeTransport minoa = transport(0, 4, 16, "Minoa");
+        IslandExchangeTransport.Link link = minoa.connect("localhost", crete.getPort(), Codec.STANDARD);
+        for (int i = 0; i < 3; i++)
+            minoa.send(link, frame(0, 3, i));
+        for (int i = 0; i < 1000 && (crete.getLinks().size() == 0 || crete.getLinks().get(0).getFrames() < 3); i++)
+            Thread.sleep(10);
+
+        // 9 migrants came, but we only need the last two frames to have 4
+        ArrayList<IslandExchangeTransport.Frame> received = crete.receive(0);
+        assertEquals(2, received.size());
+        assertArrayEquals(frame(0, 3, 1).payload, received.get(0).payload);
+        assertArrayEquals(frame(0, 3, 2).payload, received.get(1).payload);
+        assertEquals(1, crete.getLinks().get(0).getDropped());
+        }
+
+    @Test(timeout = 20000)
+    public void testLateJoin() throws Exception
+        {
+        // find a free port, and send to it before anyone is listening
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+
+        IslandExchangeTransport minoa = transport(0, 100, 3, "Minoa");
+        IslandExchangeTransport.Link link = minoa.connect("localhost", port, Codec.STANDARD);
+        for (int i = 0; i < 5; i++)
+            assertTrue(minoa.send(link, frame(0, 1, i)));
+        Thread.sleep(200);
+        assertFalse(link.isConnected());
+        assertEquals(3, link.getQueued());
+        assertEquals(2, link.getDropped());         // the outbound queue only holds 3
+
+        // the island turns up, and gets the 3 most recent frames
+        IslandExchangeTransport crete = transport(port, 100, 16, "Crete");
+        ArrayList<IslandExchangeTransport.Frame> received = await(crete, 0, 3);
+        assertEquals(3, received.size());
+        for (int i = 0; i < 3; i++)
+            assertArrayEquals(frame(0, 1, i + 2).payload, received.get(i).payload);
+
+        // it goes down and comes back up, and gets the frames sent while it was down
+        crete.shutDown();
+        Thread.sleep(200);
+        minoa.send(link, frame(0, 1, 7));
+        crete = transport(port, 100, 16, "Crete");
+        received = await(crete, 0, 1);
+        assertEquals(1, received.size());
+        assertArrayEquals(frame(0, 1, 7).payload, received.get(0).payload);
+        }
+
+    @Test
+    public void testUnknownIsland() throws Exception
+        {
+        IslandExchangeTransport minoa = transport(0, 100, 3, "Minoa");
+        IslandExchangeTransport.Link link = minoa.connect(" ", -1, Codec.STANDARD);
+        assertFalse(minoa.send(link, frame(0, 1, 0)));
+        assertEquals(1, link.getDropped());
+        }
+    }
@@ -0,0 +1,153 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.exchange;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.util.Output;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import ec.vector.DoubleVectorIndividual;
+import java.io.*;
+import java.util.ArrayList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Runs islands of ECSuite in the same process, passing migrants through their mailboxes.
+ */
+public class SharedMemoryExchangeTest
+    {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final File RESOURCES = new File("src/main/resources/ec");
+
+    private File write(String[] extra) throws IOException
+        {
+        String[] lines = {
+            "parent.0 = " + new File(RESOURCES, "app/ecsuite/ecsuite.params").getAbsolutePath(),
+            "silent = true",
+            "generations = 10",
+            "pop.subpop.0.size = 20",
+            "pop.subpop.0.species.genome-size = 5",
+            "stat.file = " + new File(folder.getRoot(), "out.stat").getAbsolutePath(),
+            "exch = ec.exchange.SharedMemoryExchange",
+            "exch.chatty = false",
+            "exch.select = ec.select.TournamentSelection",
+            "exch.size = 2",
+            "exch.mod = 2",
+            "exch.start = 1",
+            "exch.mailbox-capacity = 19",
+            "exch.num-islands = 3",
+            "exch.island.0.id = A",
+            "exch.island.0.num-mig = 1",
+            "exch.island.0.mig.0 = B",
+            "exch.island.1.id = B",
+            "exch.island.1.num-mig = 1",
+            "exch.island.1.mig.0 = C",
+            "exch.island.2.id = C",
+            "exch.island.2.num-mig = 2",
+            "exch.island.2.mig.0 = A",
+            "exch.island.2.mig.1 = B",
+            "exch.island.2.mod = 3",
+            };
+        File file = new File(folder.getRoot(), "islands.params");
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        for (int i = 0; i < lines.length; i++)
+            out.println(lines[i]);
+        for (int i = 0; i < extra.length; i++)
+            out.println(extra[i]);
+        out.close();
+        return file;
+        }
+
+    @Test(timeout = 60000)
+    public void testRing() throws Exception
+        {
+        File file = write(new String[0]);
+        EvolutionState[] states = SharedMemoryExchange.runIslands(new String[] { "-file", file.getPath() });
+        assertEquals(3, states.length);
+
+        // islands send on generations 1, 3, 5, 7, 9 (every 2) or 1, 4, 7 (every 3) -- 2 migrants at a time
+        long[] expected = { 3 * 2, 5 * 2 + 3 * 2, 5 * 2 };
+        for (int i = 0; i < states.length; i++)
+            {
+            SharedMemoryExchange exchanger = (SharedMemoryExchange)(states[i].exchanger);
+            assertEquals("" + (char)('A' + i), exchanger.ownId);
+            assertEquals(expected[i], exchanger.mailbox.getReceived());
+            assertEquals(0, exchanger.mailbox.getDropped());
+            assertTrue(new File(folder.getRoot(), exchanger.ownId + ".out.stat").exists());
+            }
+
+        // each island had its own seeds
+        assertFalse(states[0].random[0].nextLong() == states[1].random[0].nextLong());
+        // and the archipelago is gone
+        assertNotSame(((SharedMemoryExchange)(states[0].exchanger)).archipelago, SharedMemoryExchange.getArchipelago(((SharedMemoryExchange)(states[0].exchanger)).archipelagoName));
+        }
+
+    @Test
+    public void testMailbox()
+        {
+        SharedMemoryExchange.Mailbox mailbox = new SharedMemoryExchange.Mailbox("A", 2, 3);
+        Individual[] inds = new Individual[5];
+        for (int i = 0; i < inds.length; i++)
+            {
+            inds[i] = new DoubleVectorIndividual();
+            mailbox.offer(0, inds[i]);
+            }
+        mailbox.offer(1, inds[0]);
+
+        // only the three most recent are kept
+        ArrayList<Individual> received = mailbox.drain(0);
+        assertEquals(3, received.size());
+        for (int i = 0; i < 3; i++)
+            assertSame(inds[i + 2], received.get(i));
+        assertEquals(0, mailbox.drain(0).size());
+        assertEquals(1, mailbox.drain(1).size());
+        assertEquals(6, mailbox.getReceived());
+        assertEquals(2, mailbox.getDropped());
+        }
+
+    @Test(timeout = 60000)
+    public void testFound() throws Exception
+        {
+        File file = write(new String[] { "exch.id = A", "exch.archipelago = found" });
+        ParameterDatabase parameters = new ParameterDatabase(file, new String[] { "-file", file.getPath() });
+        EvolutionState state = Evolve.initialize(parameters, 0);
+        state.output.setThrowsErrors(true);
+        state.startFresh();
+        SharedMemoryExchange exchanger = (SharedMemoryExchange)(state.exchanger);
+        assertNull(exchanger.runComplete(state));
+
+        // another island found the ideal individual
+        SharedMemoryExchange.getArchipelago("found").setFound("C");
+        assertNotNull(exchanger.runComplete(state));
+        state.quitOnRunComplete = false;
+        assertNull(exchanger.runComplete(state));
+
+        // our own island's migrants go to B's mailbox, which B will find when it joins
+        state.generation = 1;
+        exchanger.preBreedingExchangePopulation(state);
+        assertEquals(2, SharedMemoryExchange.getArchipelago("found").getMailbox("B", 1, 19).getReceived());
+        SharedMemoryExchange.removeArchipelago("found");
+        }
+
+    @Test(expected = Output.OutputExitException.class)
+    public void testUnknownIsland() throws Exception
+        {
+        File file = write(new String[] { "exch.id = D" });
+        ParameterDatabase parameters = new ParameterDatabase(file, new String[] { "-file", file.getPath() });
+        EvolutionState state = Evolve.initialize(parameters, 0);
+        state.output.setThrowsErrors(true);
+        state.output.getLog(0).silent = state.output.getLog(1).silent = true;
+        state.exchanger = new SharedMemoryExchange();
+        state.exchanger.setup(state, new Parameter(EvolutionState.P_EXCHANGER));
+        }
+    }
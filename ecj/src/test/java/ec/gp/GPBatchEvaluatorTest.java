@@ -0,0 +1,139 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.gp;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.app.regression.Benchmarks;
+import ec.app.regression.func.*;
+import ec.gp.koza.KozaFitness;
+import ec.util.ParameterDatabase;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that trees evaluated on all fitness cases at once compute the same values
+ * as trees evaluated one fitness case at a time.
+ */
+public class GPBatchEvaluatorTest
+    {
+    static GPNode node(GPNode node, GPNode... children)
+        {
+        return GPCompilerTest.node(node, children);
+        }
+
+    static GPNode constant(double value)
+        {
+        return GPCompilerTest.constant(value);
+        }
+
+    /** Protected operators, ERCs, and variables give the same values as their eval(...) methods. */
+    @Test
+    public void testOperators()
+        {
+        GPBatchEvaluator batch = new GPBatchEvaluator();
+        double[][] variables = { { 3.0, -2.0, 0.0 }, { 4.0, 0.0, 1.0 } };
+
+        // (+ (% x1 x2) (* (rlog x1) 0.5))
+        GPNode tree = node(new Add(),
+            node(new Div(), node(new X1()), node(new X2())),
+            node(new Mul(), node(new Log(), node(new X1())), constant(0.5)));
+        double[] results = batch.evaluate(tree, variables, 3, null);
+        assertEquals(0.75 + Math.log(3.0) * 0.5, results[0], 0.0);
+        assertEquals(1.0 + Math.log(2.0) * 0.5, results[1], 0.0);
+        assertEquals(0.0, results[2], 0.0);
+
+        // (cube (square x3)) with only two variables:  x3 is 0
+        tree = node(new Cube(), node(new Square(), node(new X3())));
+        results = batch.evaluate(tree, variables, 3, null);
+        for (int i = 0; i < 3; i++)
+            assertEquals(0.0, results[i], 0.0);
+        }
+
+    /** Nodes which aren't GPBatchEvaluable are handed to the Interpreter, one case at a time. */
+    @Test
+    public void testFallback()
+        {
+        GPCompiledTree.Interpreter interpreter = new GPCompiledTree.Interpreter()
+            {
+            public double interpret(GPNode node, double[] variables)
+                {
+                assertTrue(node instanceof GPCompilerTest.Twice);
+                return variables[0] * 2;  // what (twice x1) would do
+                }
+            };
+
+        GPBatchEvaluator batch = new GPBatchEvaluator();
+        GPNode tree = node(new Add(), node(new GPCompilerTest.Twice(), node(new X1())), node(new X1()));
+        double[] results = batch.evaluate(tree, new double[][] { { 1.0, 5.0 } }, 2, interpreter);
+        assertEquals(3.0, results[0], 0.0);
+        assertEquals(15.0, results[1], 0.0);
+        }
+
+    /** Scratch space grows when needed, and clones don't share it. */
+    @Test
+    public void testScratchSpace()
+        {
+        GPBatchEvaluator batch = new GPBatchEvaluator();
+        GPNode tree = node(new Sub(), node(new X1()), node(new Neg(), node(new X2())));
+        double[] small = batch.evaluate(tree, new double[][] { { 1.0 }, { 2.0 } }, 1, null);
+        assertEquals(3.0, small[0], 0.0);
+        assertSame(small, batch.evaluate(tree, new double[][] { { 5.0 }, { 5.0 } }, 1, null));
+
+        double[][] variables = new double[2][100];
+        for (int i = 0; i < 100; i++)
+            {
+            variables[0][i] = i;
+            variables[1][i] = -i;
+            }
+        double[] big = batch.evaluate(tree, variables, 100, null);
+        for (int i = 0; i < 100; i++)
+            assertEquals(0.0, big[i], 0.0);
+
+        GPBatchEvaluator other = (GPBatchEvaluator)(batch.clone());
+        assertNotSame(big, other.evaluate(tree, variables, 100, null));
+        }
+
+    /** Benchmarks computes the same fitnesses whether or not it evaluates its trees in batches. */
+    @Test
+    public void testBenchmarks()
+        {
+        ParameterDatabase parameters = Evolve.loadParameterDatabase(new String[]
+            {
+            "-from", "app/regression/benchmark.params",
+            "-p", "silent=true",
+            "-p", "seed.0=1",
+            "-p", "pop.subpop.0.size=200",
+            "-p", "eval.problem.type=pagie-1",
+            "-p", "gp.tc.0.fset=koza2",
+            "-p", "eval.problem.batch=true",
+            });
+        EvolutionState state = Evolve.initialize(parameters, 0);
+        state.startFresh();
+
+        Benchmarks problem = (Benchmarks)(state.evaluator.p_problem);
+        GPBatchEvaluator batch = problem.batch;
+        assertNotNull(batch);
+        assertNotNull(problem.trainingColumns);
+        ArrayList<Individual> inds = state.population.subpops.get(0).individuals;
+        for (Individual ind : inds)
+            {
+            problem.batch = null;
+            ind.evaluated = false;
+            problem.evaluate(state, ind, 0, 0);
+            double interpreted = ((KozaFitness)ind.fitness).standardizedFitness();
+
+            problem.batch = batch;
+            ind.evaluated = false;
+            problem.evaluate(state, ind, 0, 0);
+            assertEquals(interpreted, ((KozaFitness)ind.fitness).standardizedFitness(), 0.0);
+            }
+        }
+    }
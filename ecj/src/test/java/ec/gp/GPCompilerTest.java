@@ -0,0 +1,151 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.gp;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.Problem;
+import ec.app.regression.Benchmarks;
+import ec.app.regression.RegressionData;
+import ec.app.regression.func.*;
+import ec.gp.koza.KozaFitness;
+import ec.util.ParameterDatabase;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that compiled GP trees compute the same values as interpreted ones.
+ */
+public class GPCompilerTest
+    {
+    /** A node which doubles its child, and which can't be compiled. */
+    public static class Twice extends GPNode
+        {
+        public String toString() { return "twice"; }
+        public int expectedChildren() { return 1; }
+        public void eval(EvolutionState state, int thread, GPData input, ADFStack stack, GPIndividual individual, Problem problem)
+            {
+            children[0].eval(state, thread, input, stack, individual, problem);
+            ((RegressionData)input).x *= 2;
+            }
+        }
+
+    static GPNode node(GPNode node, GPNode... children)
+        {
+        node.children = children;
+        for (int i = 0; i < children.length; i++)
+            {
+            children[i].parent = node;
+            children[i].argposition = (byte)i;
+            }
+        return node;
+        }
+
+    static GPNode constant(double value)
+        {
+        RegERC erc = new RegERC();
+        erc.children = new GPNode[0];
+        erc.value = value;
+        return erc;
+        }
+
+    /** Protected operators and ERCs compile to the same values as their eval(...) methods. */
+    @Test
+    public void testOperators()
+        {
+        GPCompiler compiler = new GPCompiler();
+        // (+ (% x1 (- x2 x2)) (* (rlog 0.0) (neg 0.0)))  ==  1 + (0 * -0.0) == 1
+        GPNode tree = node(new Add(),
+            node(new Div(), node(new X1()), node(new Sub(), node(new X2()), node(new X2()))),
+            node(new Mul(), node(new Log(), constant(0.0)), node(new Neg(), constant(0.0))));
+        GPCompiledTree compiled = compiler.compile(null, tree);
+        assertNotNull(compiled);
+        assertEquals(0, compiled.uncompiled.length);
+        assertEquals(1.0, compiled.eval(new double[] { 3.0, 4.0 }, null), 0.0);
+        
+        // (cube (square x3)) with only two variables:  x3 is 0
+        tree = node(new Cube(), node(new Square(), node(new X3())));
+        assertEquals(0.0, compiler.compile(null, tree).eval(new double[] { 3.0, 4.0 }, null), 0.0);
+        tree = node(new Cube(), node(new Square(), node(new X2())));
+        assertEquals(4096.0, compiler.compile(null, tree).eval(new double[] { 3.0, 4.0 }, null), 0.0);
+        }
+
+    /** Nodes which aren't GPCompilable are handed to the Interpreter. */
+    @Test
+    public void testFallback()
+        {
+        final RegressionData data = new RegressionData();
+        GPCompiledTree.Interpreter interpreter = new GPCompiledTree.Interpreter()
+            {
+            public double interpret(GPNode node, double[] variables)
+                {
+                assertTrue(node instanceof Twice);
+                data.x = variables[0] * 2;  // what (twice x1) would do
+                return data.x;
+                }
+            };
+
+        GPCompiler compiler = new GPCompiler();
+        GPNode tree = node(new Add(), node(new Twice(), node(new X1())), node(new X1()));
+        GPCompiledTree compiled = compiler.compile(null, tree);
+        assertEquals(1, compiled.uncompiled.length);
+        assertEquals(15.0, compiled.eval(new double[] { 5.0 }, interpreter), 0.0);
+
+        // a root that isn't compilable isn't compiled at all
+        assertNull(compiler.compile(null, node(new Twice(), node(new X1()))));
+        }
+
+    /** Equal trees share one compiled tree, even if they are different objects. */
+    @Test
+    public void testCache()
+        {
+        GPCompiler compiler = new GPCompiler();
+        GPNode tree1 = node(new Add(), node(new X1()), constant(0.5));
+        GPNode tree2 = node(new Add(), node(new X1()), constant(0.5));
+        GPNode tree3 = node(new Add(), node(new X1()), constant(0.25));
+        GPCompiledTree compiled = compiler.compile(null, tree1);
+        assertSame(compiled, compiler.compile(null, tree2));
+        assertNotSame(compiled, compiler.compile(null, tree3));
+        assertEquals(1, compiler.hits);
+        assertEquals(2, compiler.misses);
+        }
+
+    /** Benchmarks computes the same fitnesses whether or not it compiles its trees. */
+    @Test
+    public void testBenchmarks()
+        {
+        ParameterDatabase parameters = Evolve.loadParameterDatabase(new String[]
+            {
+            "-from", "app/regression/benchmark.params",
+            "-p", "silent=true",
+            "-p", "seed.0=1",
+            "-p", "pop.subpop.0.size=200",
+            "-p", "eval.problem.type=keijzer-6",
+            "-p", "gp.tc.0.fset=keijzer1",
+            });
+        EvolutionState state = Evolve.initialize(parameters, 0);
+        state.startFresh();
+
+        Benchmarks problem = (Benchmarks)(state.evaluator.p_problem);
+        ArrayList<Individual> inds = state.population.subpops.get(0).individuals;
+        for (Individual ind : inds)
+            {
+            problem.compiler = null;
+            ind.evaluated = false;
+            problem.evaluate(state, ind, 0, 0);
+            double interpreted = ((KozaFitness)ind.fitness).standardizedFitness();
+
+            problem.compiler = new GPCompiler();
+            ind.evaluated = false;
+            problem.evaluate(state, ind, 0, 0);
+            assertEquals(interpreted, ((KozaFitness)ind.fitness).standardizedFitness(), 0.0);
+            }
+        }
+    }
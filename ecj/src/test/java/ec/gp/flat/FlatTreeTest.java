@@ -0,0 +1,219 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.gp.flat;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.gp.GPIndividual;
+import ec.gp.GPNode;
+import ec.gp.koza.KozaFitness;
+import ec.util.MersenneTwisterFast;
+import ec.util.ParameterDatabase;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks FlatTrees against the GPNode trees they are built from, and FlatCrossoverPipeline
+ * against CrossoverPipeline.
+ */
+public class FlatTreeTest
+    {
+    private EvolutionState state;
+
+    @After
+    public void tearDown()
+        {
+        if (state != null)
+            Evolve.cleanup(state);
+        }
+
+    // Sets up a regression problem whose function set has ERCs, with an initial population
+    static EvolutionState setup(boolean flat, int popsize)
+        {
+        ArrayList<String> args = new ArrayList<String>();
+        String[] common = new String[]
+            {
+            "-from", "app/regression/benchmark.params",
+            "-p", "silent=true",
+            "-p", "seed.0=3",
+            "-p", "pop.subpop.0.size=" + popsize,
+            "-p", "gp.koza.half.min-depth=2",
+            "-p", "gp.koza.half.max-depth=8",
+            };
+        for(int i = 0; i < common.length; i++)
+            args.add(common[i]);
+        if (flat)
+            {
+            args.add("-p"); args.add("pop.subpop.0.species.ind.tree.0=ec.gp.flat.FlatGPTree");
+            args.add("-p"); args.add("pop.subpop.0.species.pipe.source.0=ec.gp.flat.FlatCrossoverPipeline");
+            }
+        ParameterDatabase parameters = Evolve.loadParameterDatabase(args.toArray(new String[args.size()]));
+        EvolutionState state = Evolve.initialize(parameters, 0);
+        state.startFresh();
+        return state;
+        }
+
+    static FlatGPTree tree(EvolutionState state, int i)
+        {
+        return (FlatGPTree)(((GPIndividual)(state.population.subpops.get(0).individuals.get(i))).trees[0]);
+        }
+
+    /** Every node is where nodeInPosition(...) says it is, with the right size, depth, height, and parent. */
+    @Test
+    public void testEncode()
+        {
+        state = setup(true, 50);
+        boolean sawERC = false;
+        for(int i = 0; i < 50; i++)
+            {
+            FlatGPTree tree = tree(state, i);
+            FlatTree flat = tree.flat(state);
+            assertTrue(tree.hasFlat());
+            assertSame(flat, tree.flat(state));
+            assertEquals(tree.child.numNodes(GPNode.NODESEARCH_ALL), flat.numNodes(GPNode.NODESEARCH_ALL));
+            assertEquals(tree.child.numNodes(GPNode.NODESEARCH_TERMINALS), flat.numNodes(GPNode.NODESEARCH_TERMINALS));
+            assertEquals(tree.child.numNodes(GPNode.NODESEARCH_NONTERMINALS), flat.numNodes(GPNode.NODESEARCH_NONTERMINALS));
+            for(int p = 0; p < flat.program.length; p++)
+                {
+                GPNode node = tree.child.nodeInPosition(p, GPNode.NODESEARCH_ALL);
+                assertTrue(node.nodeEquals(flat.node(p)));
+                assertEquals(node.children.length, flat.arity(p));
+                assertEquals(node.numNodes(GPNode.NODESEARCH_ALL), flat.sizes[p]);
+                assertEquals(node.depth(), flat.height(p));
+                assertEquals(node.atDepth(), flat.depth(p));
+                assertEquals(p, FlatTree.position(tree.child, node));
+                if (p == 0) assertEquals(-1, flat.parent(p));
+                else
+                    {
+                    assertEquals(FlatTree.position(tree.child, (GPNode)(node.parent)), flat.parent(p));
+                    assertEquals(node.argposition, flat.argposition(p));
+                    }
+                if (node instanceof ec.gp.ERC)
+                    {
+                    sawERC = true;
+                    assertNotSame(node, flat.node(p));
+                    }
+                }
+            }
+        assertTrue(sawERC);
+        }
+
+    /** Decoding gives back the same tree, and the hash codes are the same. */
+    @Test
+    public void testDecode()
+        {
+        state = setup(true, 50);
+        for(int i = 0; i < 50; i++)
+            {
+            FlatGPTree tree = tree(state, i);
+            FlatTree flat = tree.flat(state);
+            GPNode decoded = flat.decode();
+            assertTrue(decoded.rootedTreeEquals(tree.child));
+            assertEquals(tree.child.rootedTreeHashCode(), flat.treeHashCode());
+            assertEquals(tree.child.rootedTreeHashCode(), tree.treeHashCode());
+
+            // the decoded tree is a copy
+            for(int p = 0; p < flat.program.length; p++)
+                {
+                GPNode node = decoded.nodeInPosition(p, GPNode.NODESEARCH_ALL);
+                assertNotSame(flat.node(p), node);
+                if (p > 0) assertSame(node, ((GPNode)(node.parent)).children[node.argposition]);
+                }
+
+            FlatGPTree other = (FlatGPTree)(tree.lightClone());
+            other.setFlat(flat);
+            assertSame(other, other.child.parent);
+            assertTrue(tree.treeEquals(other));
+            assertTrue(flat.treeEquals(FlatTree.encode(state, tree.table, decoded)));
+            }
+        }
+
+    /** Replacing a subtree gives the same tree as cloneReplacing(...). */
+    @Test
+    public void testReplace()
+        {
+        state = setup(true, 50);
+        MersenneTwisterFast random = state.random[0];
+        for(int i = 0; i < 200; i++)
+            {
+            FlatGPTree tree1 = tree(state, random.nextInt(50));
+            FlatGPTree tree2 = tree(state, random.nextInt(50));
+            FlatTree flat1 = tree1.flat(state);
+            FlatTree flat2 = tree2.flat(state);
+            int p1 = random.nextInt(flat1.program.length);
+            int p2 = random.nextInt(flat2.program.length);
+
+            FlatTree replaced = flat1.replace(p1, flat2, p2);
+            GPNode expected = tree1.child.cloneReplacing(
+                tree2.child.nodeInPosition(p2, GPNode.NODESEARCH_ALL),
+                tree1.child.nodeInPosition(p1, GPNode.NODESEARCH_ALL));
+            assertTrue(replaced.decode().rootedTreeEquals(expected));
+            assertEquals(expected.rootedTreeHashCode(), replaced.treeHashCode());
+            for(int p = 0; p < replaced.program.length; p++)
+                assertEquals(expected.nodeInPosition(p, GPNode.NODESEARCH_ALL).numNodes(GPNode.NODESEARCH_ALL), replaced.sizes[p]);
+            }
+        }
+
+    /** Clones don't keep the FlatTree, since they may be modified in place. */
+    @Test
+    public void testClone()
+        {
+        state = setup(true, 10);
+        FlatGPTree tree = tree(state, 0);
+        tree.flat(state);
+        FlatGPTree clone = (FlatGPTree)(tree.clone());
+        assertFalse(clone.hasFlat());
+        assertTrue(clone.treeEquals(tree));
+
+        FlatGPTree shared = (FlatGPTree)(tree.clone());
+        shared.shareFlat(tree);
+        assertSame(tree.flat(state), shared.flat(state));
+        shared.child = tree.child.cloneReplacing();
+        assertFalse(shared.hasFlat());
+        }
+
+    /** FlatCrossoverPipeline breeds the same individuals as CrossoverPipeline. */
+    @Test
+    public void testSameAsCrossoverPipeline()
+        {
+        EvolutionState pointer = setup(false, 200);
+        state = setup(true, 200);
+        for(int g = 0; g < 5; g++)
+            {
+            breed(pointer, g);
+            breed(state, g);
+            ArrayList<Individual> expected = pointer.population.subpops.get(0).individuals;
+            ArrayList<Individual> actual = state.population.subpops.get(0).individuals;
+            assertEquals(expected.size(), actual.size());
+            for(int i = 0; i < expected.size(); i++)
+                {
+                GPNode a = ((GPIndividual)(expected.get(i))).trees[0].child;
+                GPNode b = ((GPIndividual)(actual.get(i))).trees[0].child;
+                assertTrue(a.rootedTreeEquals(b));
+                }
+            }
+        Evolve.cleanup(pointer);
+        }
+
+    static void breed(EvolutionState state, int generation)
+        {
+        Random random = new Random(generation);
+        ArrayList<Individual> inds = state.population.subpops.get(0).individuals;
+        for(int i = 0; i < inds.size(); i++)
+            {
+            ((KozaFitness)(inds.get(i).fitness)).setStandardizedFitness(state, random.nextDouble());
+            inds.get(i).evaluated = true;
+            }
+        state.population = state.breeder.breedPopulation(state);
+        state.generation++;
+        }
+    }
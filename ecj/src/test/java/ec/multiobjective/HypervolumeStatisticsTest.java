@@ -8,6 +8,7 @@ package ec.multiobjective;
 import ec.EvolutionState;
 import ec.Evolve;
 import ec.Individual;
+import ec.util.MersenneTwisterFast;
 import ec.util.Output;
 import ec.util.Parameter;
 import ec.util.ParameterDatabase;
@@ -299,6 +300,68 @@ public class HypervolumeStatisticsTest
         assertEquals(20.0, instance.inclusiveHypervolume(ind), 0.0);
         }
     
+    /** Error out on an unknown algorithm. */
+    @Test (expected = Output.OutputExitException.class)
+    public void testSetupAlgorithm()
+        {
+        state.parameters.set(BASE.push(HypervolumeStatistics.P_ALGORITHM), "unknown");
+        final HypervolumeStatistics instance = new HypervolumeStatistics();
+        instance.setup(state, BASE);
+        }
+
+    /** Incremental hypervolumes of a front which changes a little each generation match
+     * hypervolumes computed from scratch. */
+    @Test
+    public void testIncrementalHypervolume()
+        {
+        state.parameters.set(BASE.push(HypervolumeStatistics.P_REFERENCE_POINT), "0 0 0 0");
+        final HypervolumeStatistics instance = new HypervolumeStatistics();
+        instance.setup(state, BASE);
+        assertFalse(instance.incremental);
+        state.parameters.set(BASE.push(HypervolumeStatistics.P_INCREMENTAL), "true");
+        instance.setup(state, BASE);
+        assertTrue(instance.incremental);
+
+        final MersenneTwisterFast random = new MersenneTwisterFast(1);
+        final ArrayList<Individual> front = new ArrayList<Individual>();
+        for (int generation = 0; generation < 30; generation++)
+            {
+            final int removals = (generation == 0 ? 0 : random.nextInt(3));
+            for (int i = 0; i < removals; i++)
+                front.remove(random.nextInt(front.size()));
+            final int additions = (generation == 0 ? 40 : random.nextInt(4));
+            for (int i = 0; i < additions; i++)
+                front.add(createIndForPoint(new double[] { 1 + random.nextInt(9), 1 + random.nextInt(9), 1 + random.nextInt(9), 1 + random.nextInt(9) }));
+            assertEquals(HypervolumeStatistics.hypervolume(front, instance.getReferencePoint()), instance.hypervolume(state, 0, front), 1E-9);
+            }
+        }
+
+    /** The Monte Carlo estimate of the hypervolume of five 4-D points is within its bound. */
+    @Test
+    public void testMonteCarloHypervolume()
+        {
+        state.parameters.set(BASE.push(HypervolumeStatistics.P_REFERENCE_POINT), "0 0 0 0");
+        state.parameters.set(BASE.push(HypervolumeStatistics.P_ALGORITHM), HypervolumeStatistics.V_MONTE_CARLO);
+        state.parameters.set(BASE.push(HypervolumeStatistics.P_ERROR), "0.001");
+        state.parameters.set(BASE.push(HypervolumeStatistics.P_CONFIDENCE), "0.999");
+        state.random = new MersenneTwisterFast[] { new MersenneTwisterFast(1) };
+        final ArrayList<Individual> paretoFront = new ArrayList<Individual>() {{
+                add(createIndForPoint(new double[] { 4, 5, 6, 7}));
+                add(createIndForPoint(new double[] { 7, 5, 6, 4}));
+                add(createIndForPoint(new double[] { 6, 8, 5, 7}));
+                add(createIndForPoint(new double[] { 1, 1, 10, 1}));
+                add(createIndForPoint(new double[] { 10, 1, 1, 1}));
+        }};
+        final HypervolumeStatistics instance = new HypervolumeStatistics();
+        instance.setup(state, BASE);
+        assertTrue(instance.monteCarlo);
+        assertEquals(1987.0, instance.hypervolume(state, 0, paretoFront), 0.001 * 10 * 8 * 10 * 7);
+        // the samples don't come from the state's generator
+        assertEquals(new MersenneTwisterFast(1).nextInt(), state.random[0].nextInt());
+        // hypervolume(...) without the EvolutionState is always exact
+        assertEquals(1987.0, instance.hypervolume(paretoFront), 0.0);
+        }
+    
     private static Individual createIndForPoint(final double[] fitnesses)
         {
         final boolean[] maximize = new boolean[fitnesses.length];
@@ -0,0 +1,145 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.multiobjective;
+
+import ec.util.MersenneTwisterFast;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the hypervolume algorithms.  Points with small integer coordinates
+ * let us compute the exact hypervolume by counting unit cells.
+ */
+public class HypervolumeTest
+    {
+    private final static int RANGE = 5;
+
+    /** Random points with coordinates in 0 ... RANGE - 1. */
+    private static double[] randomPoints(final MersenneTwisterFast random, final int n, final int m)
+        {
+        final double[] points = new double[n * m];
+        for (int i = 0; i < points.length; i++)
+            points[i] = random.nextInt(RANGE);
+        return points;
+        }
+
+    private static double[] reference(final int m)
+        {
+        final double[] reference = new double[m];
+        Arrays.fill(reference, RANGE);
+        return reference;
+        }
+
+    /** Counts the unit cells, between the origin and the reference point, which are dominated by some point. */
+    private static double countCells(final double[] points, final int n, final int m)
+        {
+        final int[] cell = new int[m];
+        int count = 0;
+        while (true)
+            {
+            for (int i = 0; i < n; i++)
+                {
+                boolean dominates = true;
+                for (int o = 0; o < m; o++)
+                    if (points[i * m + o] > cell[o])
+                        { dominates = false; break; }
+                if (dominates)
+                    { count++; break; }
+                }
+            int o = 0;
+            while (o < m && ++cell[o] == RANGE)
+                cell[o++] = 0;
+            if (o == m)
+                return count;
+            }
+        }
+
+    @Test
+    public void testExactMatchesCellCount()
+        {
+        final MersenneTwisterFast random = new MersenneTwisterFast(1);
+        for (int m = 1; m <= 6; m++)
+            for (int trial = 0; trial < 20; trial++)
+                {
+                final int n = 1 + random.nextInt(30);
+                final double[] points = randomPoints(random, n, m);
+                final double[] copy = points.clone();
+                assertEquals("m=" + m + " n=" + n, countCells(points, n, m), Hypervolume.exact(points, n, m, reference(m)), 1E-9);
+                assertArrayEquals(copy, points, 0.0);
+                }
+        }
+
+    @Test
+    public void testExactOnBoundary()
+        {
+        // points on the boundary of the reference box enclose nothing
+        final double[] points = { 5, 0, 0,   2, 2, 2,   0, 5, 5 };
+        assertEquals(27.0, Hypervolume.exact(points, 3, 3, reference(3)), 0.0);
+        assertEquals(0.0, Hypervolume.exact(new double[0], 0, 3, reference(3)), 0.0);
+        }
+
+    @Test
+    public void testExclusive()
+        {
+        final MersenneTwisterFast random = new MersenneTwisterFast(2);
+        for (int m = 2; m <= 5; m++)
+            for (int trial = 0; trial < 10; trial++)
+                {
+                final int n = 2 + random.nextInt(20);
+                final double[] points = randomPoints(random, n, m);
+                final double all = Hypervolume.exact(points, n, m, reference(m));
+                for (int i = 0; i < n; i++)
+                    {
+                    final double[] others = new double[(n - 1) * m];
+                    System.arraycopy(points, 0, others, 0, i * m);
+                    System.arraycopy(points, (i + 1) * m, others, i * m, (n - 1 - i) * m);
+                    assertEquals(all - Hypervolume.exact(others, n - 1, m, reference(m)),
+                        Hypervolume.exclusive(points, n, m, i, reference(m)), 1E-9);
+                    }
+                }
+        }
+
+    @Test
+    public void testNondominated()
+        {
+        final double[] points = { 1, 3,   2, 2,   1, 3,   3, 3,   3, 1,   2, 4 };
+        final int size = Hypervolume.nondominated(points, 6, 2);
+        assertEquals(3, size);
+        assertArrayEquals(new double[] { 1, 3,   2, 2,   3, 1 }, Arrays.copyOf(points, size * 2), 0.0);
+        }
+
+    @Test
+    public void testSamples()
+        {
+        // ln(2 / 0.01) / (2 * 0.01^2) = 26491.6
+        assertEquals(26492, Hypervolume.samples(0.01, 0.99));
+        }
+
+    @Test
+    public void testMonteCarloWithinBound()
+        {
+        final MersenneTwisterFast random = new MersenneTwisterFast(3);
+        final double error = 0.01;
+        final int samples = Hypervolume.samples(error, 0.999);
+        for (int m = 2; m <= 6; m++)
+            {
+            final int n = 40;
+            final double[] points = randomPoints(random, n, m);
+            double box = 1.0;
+            for (int o = 0; o < m; o++)
+                {
+                double low = RANGE;
+                for (int i = 0; i < n; i++)
+                    low = Math.min(low, points[i * m + o]);
+                box *= RANGE - low;
+                }
+            final double exact = Hypervolume.exact(points, n, m, reference(m));
+            final double estimate = Hypervolume.monteCarlo(points, n, m, reference(m), samples, random);
+            assertEquals("m=" + m, exact, estimate, error * box);
+            }
+        }
+    }
@@ -0,0 +1,126 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.multiobjective;
+
+import ec.Individual;
+import ec.util.MersenneTwisterFast;
+import ec.util.ThreadPool;
+import ec.vector.DoubleVectorIndividual;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that every non-dominated sorting algorithm ranks individuals the same way as
+ * peeling off Pareto fronts one at a time with MultiObjectiveFitness.partitionIntoParetoFront(...).
+ */
+public class NonDominatedSortingTest
+    {
+    private static Individual createIndForPoint(final double[] fitnesses, final boolean[] maximize)
+        {
+        final DoubleVectorIndividual ind = new DoubleVectorIndividual();
+        ind.genome = fitnesses;
+        final MultiObjectiveFitness fitness = new MultiObjectiveFitness();
+        fitness.objectives = fitnesses;
+        fitness.maximize = maximize;
+        ind.fitness = fitness;
+        return ind;
+        }
+
+    /** Random individuals.  Objectives are drawn from only a few values, so there are many ties. */
+    private static ArrayList<Individual> population(final MersenneTwisterFast random, final int n, final int m, final int values)
+        {
+        final boolean[] maximize = new boolean[m];
+        for (int x = 0; x < m; x++)
+            maximize[x] = random.nextBoolean();
+        final ArrayList<Individual> inds = new ArrayList<Individual>();
+        for (int i = 0; i < n; i++)
+            {
+            final double[] objectives = new double[m];
+            for (int x = 0; x < m; x++)
+                objectives[x] = random.nextInt(values);
+            inds.add(createIndForPoint(objectives, maximize));
+            }
+        return inds;
+        }
+
+    /** The ranks found by repeatedly removing the Pareto front. */
+    private static int[] peel(ArrayList<Individual> inds)
+        {
+        final IdentityHashMap<Individual, Integer> index = new IdentityHashMap<Individual, Integer>();  // individuals with equal genomes are equals()
+        for (int i = 0; i < inds.size(); i++)
+            index.put(inds.get(i), i);
+        final int[] ranks = new int[inds.size()];
+        for (int rank = 0; inds.size() > 0; rank++)
+            {
+            final ArrayList<Individual> front = new ArrayList<Individual>();
+            final ArrayList<Individual> nonFront = new ArrayList<Individual>();
+            MultiObjectiveFitness.partitionIntoParetoFront(inds, front, nonFront);
+            for (Individual ind : front)
+                ranks[index.get(ind)] = rank;
+            inds = nonFront;
+            }
+        return ranks;
+        }
+
+    @Test
+    public void testAlgorithmsAgree()
+        {
+        final MersenneTwisterFast random = new MersenneTwisterFast(1);
+        final ThreadPool pool = new ThreadPool();
+        final int[] sizes = { 1, 2, 17, 150, 400 };
+        for (int m = 1; m <= 6; m++)
+            for (final int n : sizes)
+                for (final int values : new int[] { 3, 20, 1000 })
+                    {
+                    final ArrayList<Individual> inds = population(random, n, m, values);
+                    final int[] expected = peel(inds);
+                    final double[] matrix = NonDominatedSorting.objectiveMatrix(inds);
+                    for (int algorithm = 0; algorithm < NonDominatedSorting.SORT_NAMES.length; algorithm++)
+                        assertArrayEquals(NonDominatedSorting.SORT_NAMES[algorithm] + " with n=" + n + " m=" + m + " values=" + values,
+                            expected, NonDominatedSorting.rank(matrix, n, m, algorithm, null, 1));
+                    assertArrayEquals("parallel deb with n=" + n + " m=" + m + " values=" + values,
+                        expected, NonDominatedSorting.rank(matrix, n, m, NonDominatedSorting.SORT_DEB, pool, 3));
+                    }
+        pool.killAll();
+        }
+
+    @Test
+    public void testPartitionIntoRanks()
+        {
+        final ArrayList<Individual> inds = population(new MersenneTwisterFast(2), 300, 3, 10);
+        final int[] expected = peel(inds);
+        final IdentityHashMap<Individual, Integer> index = new IdentityHashMap<Individual, Integer>();
+        for (int i = 0; i < inds.size(); i++)
+            index.put(inds.get(i), i);
+        final ArrayList<ArrayList<Individual>> ranks = MultiObjectiveFitness.partitionIntoRanks(inds);
+        int count = 0;
+        for (int rank = 0; rank < ranks.size(); rank++)
+            {
+            assertTrue(ranks.get(rank).size() > 0);
+            int previous = -1;
+            for (final Individual ind : ranks.get(rank))
+                {
+                final int i = index.get(ind);
+                assertEquals(rank, expected[i]);
+                assertTrue(i > previous);   // in their original order
+                previous = i;
+                count++;
+                }
+            }
+        assertEquals(inds.size(), count);
+        assertArrayEquals(expected, MultiObjectiveFitness.getRankings(inds));
+        }
+
+    @Test
+    public void testAlgorithmNames()
+        {
+        assertEquals(NonDominatedSorting.SORT_ENS_BS, NonDominatedSorting.algorithm("ens-bs"));
+        assertEquals(NonDominatedSorting.SORT_DIVIDE_AND_CONQUER, NonDominatedSorting.algorithm("divide-and-conquer"));
+        assertEquals(-1, NonDominatedSorting.algorithm("bogus"));
+        }
+    }
@@ -217,7 +217,11 @@ public class SPEA2BreederTest
         assertTrue(state.population.subpops.get(0).individuals.containsAll(expectedArchive));
         }
     
-    /** Build an archive of size 2 with the default k. */
+    /** Build an archive of size 2 with the default k.
+     * 
+     * Truncating the front, (75, 0.4) goes first: it and (50, 0.5) are the
+     * closest pair, and its second-nearest neighbor is nearer.  Then (80, 0.2)
+     * and (100, 0.05) are the closest pair, and (80, 0.2) is nearer to (50, 0.5). */
     @Test
     public void testLoadElites6()
         {
@@ -230,7 +234,7 @@ public class SPEA2BreederTest
         
         final List<Individual> expectedArchive = new ArrayList<Individual>() {{
            add(createTestIndividual(new double[] { 50, 0.5}, 0));
-           add(createTestIndividual(new double[] { 75, 0.4}, 1));
+           add(createTestIndividual(new double[] { 100, 0.05}, 3));
         }};
         
         assertEquals(2, newpop.subpops.get(0).individuals.size());
@@ -375,6 +379,89 @@ public class SPEA2BreederTest
             }
         }
     
+    /** Truncation removes the same individuals as the naive algorithm, which recomputes
+     * and sorts every member's distances to the rest of the archive at every step. */
+    @Test
+    public void testTruncate()
+        {
+        final SPEA2Breeder instance = new SPEA2Breeder();
+        instance.setup(state, BASE);
+        final MersenneTwisterFast random = new MersenneTwisterFast(1);
+        for (int trial = 0; trial < 20; trial++)
+            {
+            final ArrayList<Individual> archive = new ArrayList<Individual>();
+            final int size = 10 + random.nextInt(40);
+            for (int i = 0; i < size; i++)
+                {
+                // a coarse grid, so there are ties
+                final double x = random.nextInt(20) * 5;
+                archive.add(createTestIndividual(new double[] { x, 0.5 - x / 200 + random.nextInt(5) * 0.01 }, i));
+                }
+            final int archiveSize = 1 + random.nextInt(size - 1);
+            final ArrayList<Individual> truncated = instance.truncate(state, archive, archiveSize);
+            assertEquals(archiveSize, truncated.size());
+            assertEquals(naiveTruncate(archive, archiveSize), truncated);
+            }
+        }
+    
+    private static ArrayList<Individual> naiveTruncate(final ArrayList<Individual> archive, final int archiveSize)
+        {
+        final ArrayList<Individual> result = new ArrayList<Individual>(archive);
+        while (result.size() > archiveSize)
+            {
+            double[] closest = null;
+            int closestIndex = -1;
+            for (int i = 0; i < result.size(); i++)
+                {
+                final double[] d = new double[result.size() - 1];
+                int c = 0;
+                for (int j = 0; j < result.size(); j++)
+                    if (j != i)
+                        d[c++] = ((MultiObjectiveFitness)result.get(i).fitness).sumSquaredObjectiveDistance((MultiObjectiveFitness)result.get(j).fitness, true);
+                java.util.Arrays.sort(d);
+                int cmp = 0;
+                for (int k = 0; closest != null && k < d.length && cmp == 0; k++)
+                    cmp = Double.compare(d[k], closest[k]);
+                if (closest == null || cmp < 0)
+                    {
+                    closest = d;
+                    closestIndex = i;
+                    }
+                }
+            result.remove(closestIndex);
+            }
+        return result;
+        }
+    
+    /** Fitnesses come out the same when computed with several breed threads. */
+    @Test
+    public void testLoadElitesFitnessesThreaded()
+        {
+        state.population = getTestPopulation();
+        SPEA2Breeder instance = new SPEA2Breeder();
+        instance.setup(state, BASE);
+        instance.loadElites(state, state.population.emptyClone());
+        final List<Individual> serial = state.population.subpops.get(0).individuals;
+        
+        state.breedthreads = 4;
+        state.random = new MersenneTwisterFast[] { new MersenneTwisterFast(1), new MersenneTwisterFast(2), new MersenneTwisterFast(3), new MersenneTwisterFast(4) };
+        state.population = getTestPopulation();
+        instance = new SPEA2Breeder();
+        instance.setup(state, BASE);
+        instance.loadElites(state, state.population.emptyClone());
+        final List<Individual> threaded = state.population.subpops.get(0).individuals;
+        
+        assertEquals(serial, threaded);
+        for (int i = 0; i < serial.size(); i++)
+            {
+            final SPEA2MultiObjectiveFitness a = (SPEA2MultiObjectiveFitness)serial.get(i).fitness;
+            final SPEA2MultiObjectiveFitness b = (SPEA2MultiObjectiveFitness)threaded.get(i).fitness;
+            assertEquals(a.strength, b.strength, 0.0);
+            assertEquals(a.kthNNDistance, b.kthNNDistance, 0.0);
+            assertEquals(a.fitness, b.fitness, 0.0);
+            }
+        }
+    
     /** Throw an exception if we try to call loadElites() twice in a row. */
     @Test (expected = Output.OutputExitException.class)
     public void testLoadElitesBadState()
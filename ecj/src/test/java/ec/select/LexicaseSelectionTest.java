@@ -83,6 +83,122 @@ public class LexicaseSelectionTest
         assertFalse(chiSquared > 6.635);
         }
     
+    @Test
+    public void testProducePrepared()
+        {
+        final LexicaseSelection instance = new LexicaseSelection();
+        instance.setup(state, BASE);
+        state.population.subpops.get(0).individuals = getPopulation1();
+        instance.prepareToProduce(state, 0, 0);
+        
+        assertEquals(7, instance.numIndividuals);
+        assertEquals(2, instance.numCases);
+        assertEquals(0.0, instance.errors[0], 0.0);           // individual 0, case 0
+        assertEquals(0.1, instance.errors[7 + 6], 0.0);       // individual 6, case 1
+        for (int i = 0; i < 100; i++)
+            {
+            final int result = instance.produce(0, state, 0);
+            assertTrue(result == 0 || result == 6);
+            }
+        instance.finishProducing(state, 0, 0);
+        }
+    
+    @Test
+    public void testEpsilon()
+        {
+        state.parameters.set(BASE.push(LexicaseSelection.P_EPSILON), "true");
+        final LexicaseSelection instance = new LexicaseSelection();
+        instance.setup(state, BASE);
+        state.population.subpops.get(0).individuals = getPopulation1();
+        instance.prepareToProduce(state, 0, 0);
+        
+        // median absolute deviations of the two cases
+        assertEquals(10.0, instance.epsilons[0], 1e-12);
+        assertEquals(0.03, instance.epsilons[1], 1e-12);
+        
+        // Case 0 first: individuals 0, 1, and 2 are within 10 of the best, then 1 and 2
+        // are within 0.03 of the best of those on case 1.  Case 1 first: only 6 is within
+        // 0.03 of the best.
+        final int N = 1000;
+        final int[] counts = new int[7];
+        for (int i = 0; i < N; i++)
+            counts[instance.produce(0, state, 0)]++;
+        assertTrue(counts[1] > 0);
+        assertTrue(counts[2] > 0);
+        assertTrue(counts[6] > 0);
+        assertEquals(N, counts[1] + counts[2] + counts[6]);
+        }
+    
+    @Test
+    public void testDownsample()
+        {
+        state.parameters.set(BASE.push(LexicaseSelection.P_DOWNSAMPLE), "0.5");
+        final LexicaseSelection instance = new LexicaseSelection();
+        instance.setup(state, BASE);
+        state.population.subpops.get(0).individuals = getPopulation1();
+        
+        // With only one of the two cases in use, each generation always picks the same individual
+        for (int gen = 0; gen < 20; gen++)
+            {
+            state.generation = gen;
+            instance.prepareToProduce(state, 0, 0);
+            final int first = instance.produce(0, state, 0);
+            assertTrue(first == 0 || first == 6);
+            for (int i = 0; i < 20; i++)
+                assertEquals(first, instance.produce(0, state, 0));
+            instance.finishProducing(state, 0, 0);
+            }
+        }
+    
+    @Test
+    public void testDownsampleSharedByThreads()
+        {
+        state.parameters.set(BASE.push(LexicaseSelection.P_DOWNSAMPLE), "0.5");
+        final LexicaseSelection prototype = new LexicaseSelection();
+        prototype.setup(state, BASE);
+        state.population.subpops.get(0).individuals = getPopulation1();
+        state.random = new MersenneTwisterFast[] { new MersenneTwisterFast(1), new MersenneTwisterFast(2) };
+        
+        // Every thread's clone selects on the same case within a generation
+        for (int gen = 0; gen < 20; gen++)
+            {
+            state.generation = gen;
+            final LexicaseSelection a = (LexicaseSelection)(prototype.clone());
+            final LexicaseSelection b = (LexicaseSelection)(prototype.clone());
+            a.prepareToProduce(state, 0, 0);
+            b.prepareToProduce(state, 0, 1);
+            assertEquals(1, a.numCasesUsed);
+            assertEquals(a.cases[0], b.cases[0]);
+            assertEquals(a.produce(0, state, 0), b.produce(0, state, 1));
+            }
+        }
+    
+    @Test(expected = ec.util.Output.OutputExitException.class)
+    public void testBadDownsample()
+        {
+        state.parameters.set(BASE.push(LexicaseSelection.P_DOWNSAMPLE), "1.5");
+        new LexicaseSelection().setup(state, BASE);
+        }
+    
+    @Test
+    public void testNaN()
+        {
+        final LexicaseSelection instance = new LexicaseSelection();
+        instance.setup(state, BASE);
+        // trials which are Doubles are higher-is-better
+        final Individual nan = createTestIndividual(new double[0], 0);
+        nan.fitness.trials.add(Double.NaN);
+        nan.fitness.trials.add(Double.NaN);
+        final Individual bad = createTestIndividual(new double[0], 1);
+        bad.fitness.trials.add(-1000.0);
+        bad.fitness.trials.add(-1000.0);
+        state.population.subpops.get(0).individuals = new ArrayList<Individual>();
+        state.population.subpops.get(0).individuals.add(nan);
+        state.population.subpops.get(0).individuals.add(bad);
+        for (int i = 0; i < 100; i++)
+            assertEquals(1, instance.produce(0, state, 0));
+        }
+    
     private ArrayList<Individual> getPopulation1()
         {
         return new ArrayList<Individual>() {{
@@ -0,0 +1,246 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.simple;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Fitness;
+import ec.Individual;
+import ec.Population;
+import ec.Problem;
+import ec.Subpopulation;
+import ec.util.MersenneTwisterFast;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import ec.vector.DoubleVectorIndividual;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for FitnessCache, OffHeapFitnessCache, and their use by SimpleEvaluator.
+ */
+public class FitnessCacheTest
+    {
+    private final static Parameter BASE = new Parameter("base");
+    private EvolutionState state;
+
+    /** Sets the fitness of an individual to its first gene, and counts evaluations. */
+    public static class CountingProblem extends Problem implements SimpleProblemForm
+        {
+        private static final long serialVersionUID = 1;
+        public static int evaluations;
+
+        public void evaluate(EvolutionState state, Individual ind, int subpopulation, int threadnum)
+            {
+            if (ind.evaluated) return;
+            evaluations++;
+            ((SimpleFitness)(ind.fitness)).setFitness(state, ((DoubleVectorIndividual)ind).genome[0], false);
+            ind.evaluated = true;
+            }
+        }
+
+    /** A CountingProblem which doesn't let its fitnesses be cached. */
+    public static class NoisyProblem extends CountingProblem
+        {
+        private static final long serialVersionUID = 1;
+        public boolean canCacheFitness() { return false; }
+        }
+
+    @Before
+    public void setUp()
+        {
+        state = new EvolutionState();
+        state.output = Evolve.buildOutput();
+        state.output.setThrowsErrors(true);
+        state.output.getLog(0).silent = true;
+        state.output.getLog(1).silent = true;
+        state.parameters = new ParameterDatabase();
+        state.evalthreads = 1;
+        state.random = new MersenneTwisterFast[] { new MersenneTwisterFast(1) };
+        state.parameters.set(BASE.push(SimpleEvaluator.P_PROBLEM), CountingProblem.class.getName());
+        CountingProblem.evaluations = 0;
+        }
+
+    private DoubleVectorIndividual individual(double gene, boolean evaluated)
+        {
+        DoubleVectorIndividual ind = new DoubleVectorIndividual();
+        ind.genome = new double[] { gene, 0.5 };
+        ind.fitness = new SimpleFitness();
+        ind.fitness.setup(state, new Parameter(""));
+        if (evaluated)
+            {
+            ((SimpleFitness)(ind.fitness)).setFitness(state, gene, false);
+            ind.evaluated = true;
+            }
+        return ind;
+        }
+
+    private FitnessCache cache(boolean offHeap, String size)
+        {
+        FitnessCache cache = (offHeap ? new OffHeapFitnessCache() : new FitnessCache());
+        state.parameters.set(BASE.push(offHeap ? OffHeapFitnessCache.P_BYTES : FitnessCache.P_SIZE), size);
+        cache.setup(state, BASE);
+        return cache;
+        }
+
+    private void testHitsAndMisses(FitnessCache cache)
+        {
+        DoubleVectorIndividual ind = individual(3, true);
+        cache.put(state, ind, 0);
+        ((SimpleFitness)(ind.fitness)).setFitness(state, 4, false);   // the cache has its own copy
+
+        Fitness fitness = cache.get(state, individual(3, false), 0);
+        assertNotNull(fitness);
+        assertEquals(3, fitness.fitness(), 0);
+        assertNotSame(fitness, cache.get(state, individual(3, false), 0));
+        assertNull(cache.get(state, individual(5, false), 0));
+        assertNull(cache.get(state, individual(3, false), 1));
+        assertEquals(2, cache.hits.sum());
+        assertEquals(2, cache.misses.sum());
+        assertEquals(1, cache.entries());
+
+        cache.clear();
+        assertEquals(0, cache.entries());
+        assertNull(cache.get(state, individual(3, false), 0));
+        }
+
+    @Test
+    public void testHitsAndMisses()
+        {
+        testHitsAndMisses(cache(false, "100"));
+        }
+
+    @Test
+    public void testOffHeapHitsAndMisses()
+        {
+        testHitsAndMisses(cache(true, "1024"));
+        }
+
+    /** A full cache forgets the least recently used individual in the segment. */
+    @Test
+    public void testEviction()
+        {
+        FitnessCache cache = cache(false, "" + (FitnessCache.SEGMENTS * 2));
+        for(int i = 0; i < 1000; i++)
+            cache.put(state, individual(i, true), 0);
+        assertTrue(cache.entries() <= FitnessCache.SEGMENTS * 2);
+        assertEquals(1000 - cache.entries(), cache.evictions.sum());
+        assertNotNull(cache.get(state, individual(999, false), 0));
+        assertNull(cache.get(state, individual(0, false), 0));
+        }
+
+    /** Lots of individuals wrap around the rings many times, and every hit is right. */
+    @Test
+    public void testOffHeapWrap()
+        {
+        FitnessCache cache = cache(true, "" + (FitnessCache.SEGMENTS * 1024));
+        MersenneTwisterFast random = state.random[0];
+        for(int i = 0; i < 20000; i++)
+            {
+            int gene = random.nextInt(2000);
+            Fitness fitness = cache.get(state, individual(gene, false), i % 2);
+            if (fitness != null)
+                assertEquals(gene, fitness.fitness(), 0);
+            else cache.put(state, individual(gene, true), i % 2);
+            }
+        assertTrue(cache.hits.sum() > 0);
+        assertTrue(cache.evictions.sum() > 0);
+        assertEquals(20000, cache.hits.sum() + cache.misses.sum());
+        assertTrue(cache.entries() < 4000);
+        }
+
+    @Test(expected = ec.util.Output.OutputExitException.class)
+    public void testBadSize()
+        {
+        cache(false, "0");
+        }
+
+    private SimpleEvaluator evaluator()
+        {
+        state.parameters.set(BASE.push(SimpleEvaluator.P_CACHE), "true");
+        SimpleEvaluator evaluator = new SimpleEvaluator();
+        evaluator.setup(state, BASE);
+
+        // two subpopulations of 100 individuals with only 10 different genomes between them
+        state.population = new Population();
+        state.population.subpops = new ArrayList<Subpopulation>();
+        for(int i = 0; i < 2; i++)
+            {
+            Subpopulation subpop = new Subpopulation();
+            subpop.individuals = new ArrayList<Individual>();
+            for(int j = 0; j < 100; j++)
+                subpop.individuals.add(individual(j % 10, false));
+            state.population.subpops.add(subpop);
+            }
+        return evaluator;
+        }
+
+    private void reevaluate(SimpleEvaluator evaluator)
+        {
+        for(Subpopulation subpop : state.population.subpops)
+            for(Individual ind : subpop.individuals)
+                ind.evaluated = false;
+        evaluator.evaluatePopulation(state);
+        for(Subpopulation subpop : state.population.subpops)
+            for(Individual ind : subpop.individuals)
+                {
+                assertTrue(ind.evaluated);
+                assertEquals(((DoubleVectorIndividual)ind).genome[0], ind.fitness.fitness(), 0);
+                }
+        }
+
+    /** Each genome is evaluated once per subpopulation, and only real evaluations are counted. */
+    @Test
+    public void testEvaluator()
+        {
+        SimpleEvaluator evaluator = evaluator();
+        assertNotNull(evaluator.cache);
+        reevaluate(evaluator);
+        reevaluate(evaluator);
+        assertEquals(20, CountingProblem.evaluations);
+        assertEquals(20, state.evaluations);
+        assertEquals(380, evaluator.cache.hits.sum());
+        }
+
+    @Test
+    public void testOffHeapEvaluator()
+        {
+        state.parameters.set(BASE.push(SimpleEvaluator.P_CACHE).push(SimpleEvaluator.P_OFF_HEAP), "true");
+        SimpleEvaluator evaluator = evaluator();
+        assertTrue(evaluator.cache instanceof OffHeapFitnessCache);
+        reevaluate(evaluator);
+        reevaluate(evaluator);
+        assertEquals(20, CountingProblem.evaluations);
+        }
+
+    /** Problems can refuse to have their fitnesses cached. */
+    @Test
+    public void testNoisyProblem()
+        {
+        state.parameters.set(BASE.push(SimpleEvaluator.P_PROBLEM), NoisyProblem.class.getName());
+        SimpleEvaluator evaluator = evaluator();
+        reevaluate(evaluator);
+        reevaluate(evaluator);
+        assertEquals(400, CountingProblem.evaluations);
+        assertEquals(0, evaluator.cache.hits.sum() + evaluator.cache.misses.sum());
+        }
+
+    /** There's no cache if individuals are evaluated several times. */
+    @Test
+    public void testNumTests()
+        {
+        state.parameters.set(BASE.push(SimpleEvaluator.P_NUM_TESTS), "2");
+        state.parameters.set(BASE.push(SimpleEvaluator.P_MERGE), SimpleEvaluator.V_MEAN);
+        state.parameters.set(BASE.push(SimpleEvaluator.P_CACHE), "true");
+        SimpleEvaluator evaluator = new SimpleEvaluator();
+        evaluator.setup(state, BASE);
+        assertNull(evaluator.cache);
+        }
+    }
@@ -0,0 +1,122 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.simple;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.util.ParameterDatabase;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for PipelinedEvolutionState.
+ */
+public class PipelinedEvolutionStateTest
+    {
+    private static EvolutionState run(final String state, final int breedthreads, final int evalthreads, final String... extra)
+        {
+        final ArrayList<String> args = new ArrayList<String>();
+        final String[] base = new String[]
+            {
+            "-from", "app/ecsuite/ecsuite.params",
+            "-p", "state=" + state,
+            "-p", "silent=true",
+            "-p", "stat=ec.Statistics",
+            "-p", "seed.0=1", "-p", "seed.1=2", "-p", "seed.2=3", "-p", "seed.3=4",
+            "-p", "breedthreads=" + breedthreads,
+            "-p", "evalthreads=" + evalthreads,
+            "-p", "generations=6",
+            "-p", "pop.subpop.0.size=60",
+            "-p", "pop.subpop.0.species.genome-size=10",
+            };
+        for (final String s : base)
+            args.add(s);
+        for (final String s : extra)
+            {
+            args.add("-p");
+            args.add(s);
+            }
+        final ParameterDatabase parameters = Evolve.loadParameterDatabase(args.toArray(new String[0]));
+        final EvolutionState evolutionState = Evolve.initialize(parameters, 0);
+        evolutionState.run(EvolutionState.C_STARTED_FRESH);
+        return evolutionState;
+        }
+
+    private static void assertSamePopulation(final EvolutionState expected, final EvolutionState actual)
+        {
+        final ArrayList<Individual> e = expected.population.subpops.get(0).individuals;
+        final ArrayList<Individual> a = actual.population.subpops.get(0).individuals;
+        assertEquals(e.size(), a.size());
+        for (int i = 0; i < e.size(); i++)
+            {
+            assertTrue(a.get(i).evaluated);
+            assertEquals(e.get(i), a.get(i));
+            assertEquals(e.get(i).fitness.fitness(), a.get(i).fitness.fitness(), 0.0);
+            }
+        }
+
+    /** A deterministic problem evolves exactly as it does under SimpleEvolutionState. */
+    @Test
+    public void testSameAsSimple()
+        {
+        final EvolutionState simple = run("ec.simple.SimpleEvolutionState", 1, 1);
+        final EvolutionState pipelined = run("ec.simple.PipelinedEvolutionState", 1, 1);
+        assertTrue(((PipelinedEvolutionState)pipelined).pipelining);
+        assertEquals(5, pipelined.generation);
+        assertEquals(simple.evaluations, pipelined.evaluations);
+        assertSamePopulation(simple, pipelined);
+        }
+
+    /** Several breeding and evaluation threads, and elites which must be reevaluated, change nothing either. */
+    @Test
+    public void testThreadsAndElites()
+        {
+        final String[] extra = new String[] { "breed.elite.0=3", "breed.reevaluate-elites.0=true" };
+        final EvolutionState simple = run("ec.simple.SimpleEvolutionState", 2, 1, extra);
+        final PipelinedEvolutionState pipelined = (PipelinedEvolutionState)run("ec.simple.PipelinedEvolutionState", 2, 2, extra);
+        assertSamePopulation(simple, pipelined);
+        assertEquals(60 * 6, pipelined.evaluations);
+        assertEquals(2, pipelined.firstEvaluationThread);
+        assertTrue(pipelined.random.length >= 4);
+        assertEquals(2, pipelined.busyTime.length);
+        }
+
+    /** The incremental statistics agree with the final population. */
+    @Test
+    public void testIncrementalStatistics()
+        {
+        final PipelinedEvolutionState state = (PipelinedEvolutionState)run("ec.simple.PipelinedEvolutionState", 1, 1);
+        final ArrayList<Individual> inds = state.population.subpops.get(0).individuals;
+        assertEquals(inds.size(), state.numEvaluated[0]);
+        double mean = 0;
+        Individual best = inds.get(0);
+        for (final Individual ind : inds)
+            {
+            mean += ind.fitness.fitness() / inds.size();
+            if (ind.fitness.betterThan(best.fitness))
+                best = ind;
+            }
+        assertEquals(mean, state.meanFitness[0], 1e-9);
+        assertEquals(best.fitness.fitness(), state.bestOfGeneration[0].fitness.fitness(), 0.0);
+        assertTrue(state.breedTime > 0);
+        assertTrue(state.evaluationTime > 0);
+        assertTrue(state.overlapTime <= state.busyTime[0]);
+        }
+
+    /** Evaluating each individual more than once can't be pipelined, so the state falls back to SimpleEvolutionState. */
+    @Test
+    public void testFallback()
+        {
+        final PipelinedEvolutionState state = (PipelinedEvolutionState)run("ec.simple.PipelinedEvolutionState", 1, 1,
+            "eval.num-tests=2", "eval.merge=mean");
+        assertFalse(state.pipelining);
+        assertEquals(5, state.generation);
+        }
+    }
@@ -0,0 +1,135 @@
+/*
+  Copyright 2018 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.simple;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.Population;
+import ec.Subpopulation;
+import ec.util.Parameter;
+import ec.util.ParameterDatabase;
+import ec.vector.DoubleVectorIndividual;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for the multithreaded schedulers of SimpleEvaluator.
+ */
+public class SimpleEvaluatorTest
+    {
+    private final static Parameter BASE = new Parameter("base");
+    private EvolutionState state;
+
+    @Before
+    public void setUp()
+        {
+        // Boiler plate
+        state = new EvolutionState();
+        state.output = Evolve.buildOutput();
+        state.output.setThrowsErrors(true);
+        state.output.getLog(0).silent = true;
+        state.output.getLog(1).silent = true;
+        state.parameters = new ParameterDatabase();
+        state.evalthreads = 4;
+
+        // Parameters for our constructor
+        state.parameters.set(BASE.push(SimpleEvaluator.P_PROBLEM), "ec.test.StubGroupedProblem");
+        }
+
+    @Test
+    public void testDefaultScheduler()
+        {
+        SimpleEvaluator instance = new SimpleEvaluator();
+        instance.setup(state, BASE);
+        assertEquals(SimpleEvaluator.SCHEDULER_POOL, instance.scheduler);
+        }
+
+    @Test(expected = ec.util.Output.OutputExitException.class)
+    public void testBadScheduler()
+        {
+        state.parameters.set(BASE.push(SimpleEvaluator.P_SCHEDULER), "round-robin");
+        SimpleEvaluator instance = new SimpleEvaluator();
+        instance.setup(state, BASE);
+        }
+
+    /** The work-stealing scheduler should evaluate every individual of every subpopulation exactly once. */
+    @Test
+    public void testWorkStealingEvaluate()
+        {
+        state.parameters.set(BASE.push(SimpleEvaluator.P_SCHEDULER), SimpleEvaluator.V_WORK_STEALING);
+        SimpleEvaluator instance = new SimpleEvaluator();
+        instance.setup(state, BASE);
+        assertEquals(SimpleEvaluator.SCHEDULER_WORK_STEALING, instance.scheduler);
+
+        state.population = getPopulation(new int[] { 1000, 3, 0, 17 });
+        for (int generation = 0; generation < 3; generation++)
+            {
+            for (final Subpopulation subpop : state.population.subpops)
+                for (final Individual ind : subpop.individuals)
+                    ind.evaluated = false;
+            state.evaluations = 0;
+            
+            instance.evaluatePopulation(state);
+
+            for (final Subpopulation subpop : state.population.subpops)
+                for (final Individual ind : subpop.individuals)
+                    {
+                    assertTrue(ind.evaluated);
+                    assertEquals(ind.fitness.fitness(), ((DoubleVectorIndividual)ind).genome[0], 0.00001);
+                    }
+            assertEquals(1020, state.evaluations);
+            assertEquals(state.evalthreads, instance.busyTime.length);
+            assertEquals(state.evalthreads, instance.idleTime.length);
+            assertTrue(instance.costPerIndividual > 0);
+            }
+        }
+
+    /** A grain size is never smaller than 1, and leaves several ranges for each thread to steal. */
+    @Test
+    public void testGrainSize()
+        {
+        SimpleEvaluator instance = new SimpleEvaluator();
+        instance.setup(state, BASE);
+        assertEquals(1, instance.computeGrainSize(state, 3));
+        assertEquals(1000 / (4 * SimpleEvaluator.MIN_TASKS_PER_THREAD), instance.computeGrainSize(state, 1000));
+        
+        instance.costPerIndividual = instance.taskTime * 10;  // very expensive individuals
+        assertEquals(1, instance.computeGrainSize(state, 1000));
+        instance.costPerIndividual = instance.taskTime / 20.0;  // very cheap individuals
+        assertEquals(20, instance.computeGrainSize(state, 1000));
+        }
+    
+    /** Create a test population of real-vector individuals with the given subpopulation sizes. */
+    private Population getPopulation(int[] sizes)
+        {
+        final Population pop = new Population();
+        pop.subpops = new ArrayList<Subpopulation>();
+        for (int i = 0; i < sizes.length; i++)
+            {
+            final Subpopulation subpop = new Subpopulation();
+            subpop.individuals = new ArrayList<>();
+            for (int j = 0; j < sizes[i]; j++)
+                subpop.individuals.add(createTestIndividual(new double[] { i * 10000 + j, 0.5 }));
+            pop.subpops.add(subpop);
+            }
+        return pop;
+        }
+
+    /** Create a DoubleVectorIndividual with the given genome. */
+    private Individual createTestIndividual(final double[] genome)
+        {
+        final DoubleVectorIndividual ind = new DoubleVectorIndividual();
+        ind.genome = genome;
+        ind.fitness = new SimpleFitness();
+        ind.fitness.setup(state, new Parameter(""));
+        return ind;
+        }
+    }
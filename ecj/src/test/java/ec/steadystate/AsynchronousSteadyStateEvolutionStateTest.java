@@ -0,0 +1,125 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.steadystate;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.Problem;
+import ec.simple.SimpleFitness;
+import ec.simple.SimpleProblemForm;
+import ec.util.ParameterDatabase;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Tests for AsynchronousSteadyStateEvolutionState.
+ */
+public class AsynchronousSteadyStateEvolutionStateTest
+    {
+    /** Gives every individual an ideal fitness. */
+    public static class IdealProblem extends Problem implements SimpleProblemForm
+        {
+        private static final long serialVersionUID = 1;
+
+        public void evaluate(final EvolutionState state, final Individual ind, final int subpopulation, final int threadnum)
+            {
+            ((SimpleFitness)(ind.fitness)).setFitness(state, 1.0, true);
+            ind.evaluated = true;
+            }
+        }
+
+    private static AsynchronousSteadyStateEvolutionState run(final int threads, final String... extra)
+        {
+        final ArrayList<String> args = new ArrayList<String>();
+        final String[] base = new String[]
+            {
+            "-from", "app/ecsuite/steady.params",
+            "-p", "state=ec.steadystate.AsynchronousSteadyStateEvolutionState",
+            "-p", "silent=true",
+            "-p", "stat=ec.Statistics",
+            "-p", "seed.0=1", "-p", "seed.1=2", "-p", "seed.2=3", "-p", "seed.3=4",
+            "-p", "evalthreads=" + threads,
+            "-p", "pop.subpop.0.size=50",
+            "-p", "pop.subpop.0.species.genome-size=10",
+            };
+        for (final String s : base)
+            args.add(s);
+        for (final String s : extra)
+            {
+            args.add("-p");
+            args.add(s);
+            }
+        final ParameterDatabase parameters = Evolve.loadParameterDatabase(args.toArray(new String[0]));
+        final EvolutionState state = Evolve.initialize(parameters, 0);
+        state.run(EvolutionState.C_STARTED_FRESH);
+        return (AsynchronousSteadyStateEvolutionState)state;
+        }
+
+    private static void assertFullPopulation(final AsynchronousSteadyStateEvolutionState state)
+        {
+        final ArrayList<Individual> inds = state.population.subpops.get(0).individuals;
+        assertEquals(50, inds.size());
+        for (final Individual ind : inds)
+            assertTrue(ind.evaluated);
+        // no individual was inserted twice
+        final Set<Individual> distinct = Collections.newSetFromMap(new IdentityHashMap<Individual, Boolean>());
+        distinct.addAll(inds);
+        assertEquals(50, distinct.size());
+        }
+
+    /** The run stops after exactly the requested number of evaluations, and every evaluation after the
+        population has filled up is either a replacement or a rejection. */
+    @Test
+    public void testEvaluations()
+        {
+        final AsynchronousSteadyStateEvolutionState state = run(4, "evaluations=3000", "steady.replacement-probability=0.5");
+        assertEquals(3000, state.evaluations);
+        assertEquals(3000 - 50, state.replacements + state.rejections);
+        assertTrue(state.rejections > 0);
+        assertFullPopulation(state);
+        // the workers don't share the main thread's generator
+        assertEquals(1, state.firstWorkerThread);
+        assertEquals(5, state.random.length);
+        }
+
+    /** Runs of a number of generations end at that generation, with at least that many generations' worth of evaluations. */
+    @Test
+    public void testGenerations()
+        {
+        final AsynchronousSteadyStateEvolutionState state = run(3, "generations=20");
+        assertEquals(19, state.generation);
+        assertTrue(state.evaluations >= 20 * 50);
+        assertTrue(state.evaluationsPerSecond > 0);
+        assertFullPopulation(state);
+        }
+
+    /** A single worker thread works as well. */
+    @Test
+    public void testOneThread()
+        {
+        final AsynchronousSteadyStateEvolutionState state = run(1, "evaluations=1000");
+        assertEquals(1000, state.evaluations);
+        assertEquals(0, state.contendedInserts);
+        assertFullPopulation(state);
+        }
+    
+    /** An ideal individual ends the run even while the population is still filling up. */
+    @Test
+    public void testIdealWhileFilling()
+        {
+        final AsynchronousSteadyStateEvolutionState state = run(4, "evaluations=3000",
+            "eval.problem=" + IdealProblem.class.getName());
+        assertTrue(state.evaluations < 50);
+        assertTrue(state.population.subpops.get(0).individuals.size() < 50);
+        }
+    }
@@ -0,0 +1,116 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.util;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Prints to an asynchronous Output from several threads.
+ */
+public class AsyncLogWriterTest
+    {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Output output(StringWriter text)
+        {
+        Output output = new Output(false);
+        output.setThrowsErrors(true);
+        output.addLog(text, null, true, false);
+        output.setAsynchronous(true);
+        return output;
+        }
+
+    @Test(timeout = 20000)
+    public void testOrderPerThread() throws Exception
+        {
+        StringWriter text = new StringWriter();
+        final Output output = output(text);
+        final int lines = 5000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+            {
+            final int n = t;
+            threads[t] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    for (int i = 0; i < lines; i++)
+                        output.println(n + ":" + i, 0);
+                    }
+                });
+            threads[t].start();
+            }
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+        output.flush();
+
+        // flush() has written everything, and each thread's lines are in order
+        AsyncLogWriter writer = output.getAsyncWriter();
+        assertEquals(0, writer.getQueueDepth());
+        assertEquals(threads.length * lines, writer.getRecordsWritten());
+        assertTrue(writer.getMaxQueueDepth() > 0);
+        int[] next = new int[threads.length];
+        BufferedReader reader = new BufferedReader(new StringReader(text.toString()));
+        String line;
+        int count = 0;
+        while ((line = reader.readLine()) != null)
+            {
+            String[] parts = line.split(":");
+            int t = Integer.parseInt(parts[0]);
+            assertEquals(next[t]++, Integer.parseInt(parts[1]));
+            count++;
+            }
+        assertEquals(threads.length * lines, count);
+        output.close();
+        assertFalse(output.isAsynchronous());
+        }
+
+    @Test(timeout = 20000)
+    public void testSmallRings() throws Exception
+        {
+        AsyncLogWriter writer = new AsyncLogWriter(2);
+        StringWriter text = new StringWriter();
+        Log log = new Log(text, null, false, false);
+        for (int i = 0; i < 1000; i++)
+            writer.println(log, "" + i);
+        writer.drain();
+        assertEquals(1000, writer.getRecordsWritten());
+        writer.close();
+        BufferedReader reader = new BufferedReader(new StringReader(text.toString()));
+        for (int i = 0; i < 1000; i++)
+            assertEquals("" + i, reader.readLine());
+        assertNull(reader.readLine());
+        }
+
+    @Test(timeout = 20000)
+    public void testFatalDrains() throws Exception
+        {
+        File file = new File(folder.getRoot(), "out.stat");
+        Output output = new Output(true);
+        output.setThrowsErrors(true);
+        int log = output.addLog(file, false, true);
+        output.setAsynchronous(true);
+        for (int i = 0; i < 100; i++)
+            output.println("line " + i, log);
+        try
+            {
+            output.fatal("stop");
+            fail("fatal should throw");
+            }
+        catch (Output.OutputExitException e) { }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file + ".gz"))));
+        for (int i = 0; i < 100; i++)
+            assertEquals("line " + i, reader.readLine());
+        reader.close();
+        }
+    }
@@ -0,0 +1,228 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.util;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import ec.gp.GPIndividual;
+import ec.simple.SimpleFitness;
+import ec.vector.*;
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Sends individuals through each Codec and checks they come back the same.
+ */
+public class CodecTest
+    {
+    private EvolutionState state;
+
+    @Before
+    public void setUp()
+        {
+        state = new EvolutionState();
+        state.output = Evolve.buildOutput();
+        state.output.setThrowsErrors(true);
+        state.output.getLog(0).silent = true;
+        state.output.getLog(1).silent = true;
+        state.parameters = new ParameterDatabase();
+        }
+
+    /** Every codec this machine supports. */
+    private static ArrayList<Codec> codecs()
+        {
+        ArrayList<Codec> codecs = new ArrayList<Codec>();
+        for (int codec = 0; codec < Codec.CODEC_NAMES.length; codec++)
+            for (int compression = 0; compression < Codec.COMPRESSION_NAMES.length; compression++)
+                {
+                Codec c = new Codec(codec, compression);
+                if (c.isSupported()) codecs.add(c);
+                }
+        return codecs;
+        }
+
+    /** Writes the individuals with the codec, reads them back into the blanks, and returns the bytes sent. */
+    private int roundTrip(Codec codec, Individual[] inds, Individual[] blanks) throws IOException
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(codec.compress(bytes));
+        for (int i = 0; i < inds.length; i++)
+            codec.writeIndividual(state, inds[i], out);
+        out.flush();
+        DataInputStream in = new DataInputStream(codec.decompress(new ByteArrayInputStream(bytes.toByteArray())));
+        for (int i = 0; i < inds.length; i++)
+            {
+            codec.readIndividual(state, blanks[i], in);
+            assertEquals(codec.toString(), inds[i], blanks[i]);
+            assertEquals(inds[i].evaluated, blanks[i].evaluated);
+            assertEquals(inds[i].fitness.fitness(), blanks[i].fitness.fitness(), 0);
+            }
+        return bytes.size();
+        }
+
+    private static <T extends Individual> T withFitness(T ind, double fitness)
+        {
+        SimpleFitness f = new SimpleFitness();
+        f.setFitness(null, fitness, false);
+        ind.fitness = f;
+        ind.evaluated = true;
+        return ind;
+        }
+
+    @Test
+    public void testVectors() throws Exception
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(1);
+        DoubleVectorIndividual d = new DoubleVectorIndividual();
+        d.genome = new double[100];
+        FloatVectorIndividual f = new FloatVectorIndividual();
+        f.genome = new float[33];
+        IntegerVectorIndividual n = new IntegerVectorIndividual();
+        n.genome = new int[50];
+        LongVectorIndividual l = new LongVectorIndividual();
+        l.genome = new long[7];
+        ShortVectorIndividual s = new ShortVectorIndividual();
+        s.genome = new short[10];
+        ByteVectorIndividual b = new ByteVectorIndividual();
+        b.genome = new byte[0];
+        BitVectorIndividual bits = new BitVectorIndividual();
+        bits.genome = new boolean[77];
+        for (int i = 0; i < d.genome.length; i++) d.genome[i] = random.nextGaussian();
+        for (int i = 0; i < f.genome.length; i++) f.genome[i] = random.nextFloat();
+        for (int i = 0; i < n.genome.length; i++) n.genome[i] = random.nextInt();
+        for (int i = 0; i < l.genome.length; i++) l.genome[i] = random.nextLong();
+        for (int i = 0; i < s.genome.length; i++) s.genome[i] = (short) random.nextInt();
+        for (int i = 0; i < bits.genome.length; i++) bits.genome[i] = random.nextBoolean();
+        Individual[] inds = { withFitness(d, 1), withFitness(f, 2), withFitness(n, 3), withFitness(l, 4),
+                              withFitness(s, 5), withFitness(b, 6), withFitness(bits, 7) };
+
+        for (Codec codec : codecs())
+            {
+            Individual[] blanks = new Individual[inds.length];
+            for (int i = 0; i < inds.length; i++)
+                {
+                blanks[i] = withFitness((Individual) inds[i].getClass().newInstance(), 0);
+                blanks[i].evaluated = false;
+                }
+            roundTrip(codec, inds, blanks);
+            }
+        }
+
+    @Test
+    public void testBitsArePacked() throws IOException
+        {
+        BitVectorIndividual bits = new BitVectorIndividual();
+        bits.genome = new boolean[800];
+        for (int i = 0; i < bits.genome.length; i += 3) bits.genome[i] = true;
+        Individual[] inds = { withFitness(bits, 1) };
+        Individual[] blanks = { withFitness(new BitVectorIndividual(), 0) };
+        int standard = roundTrip(Codec.STANDARD, inds, blanks);
+        int compact = roundTrip(new Codec(Codec.CODEC_COMPACT, Codec.COMPRESSION_NONE), inds, blanks);
+        assertTrue(compact < standard / 5);
+        }
+
+    @Test
+    public void testLoad()
+        {
+        Parameter base = new Parameter("eval.codec");
+        assertEquals(Codec.STANDARD, Codec.load(state, base, Codec.COMPRESSION_NONE));
+        state.parameters.set(base, "compact");
+        state.parameters.set(base.push(Codec.P_COMPRESSION), "fast");
+        assertEquals(new Codec(Codec.CODEC_COMPACT, Codec.COMPRESSION_FAST), Codec.load(state, base, Codec.COMPRESSION_NONE));
+        state.parameters.set(base.push(Codec.P_COMPRESSION), "lz77");
+        try
+            {
+            Codec.load(state, base, Codec.COMPRESSION_NONE);
+            fail("an unknown compression should be fatal");
+            }
+        catch (Exception e) { }  // the Output throws errors
+        }
+
+    @Test(timeout = 10000)
+    public void testNegotiation() throws Exception
+        {
+        // the accepting side falls back to what it supports
+        assertEquals(new Codec(Codec.CODEC_STANDARD, Codec.COMPRESSION_DEFLATE), new Codec(7, Codec.COMPRESSION_DEFLATE).closestSupported());
+        assertEquals(new Codec(Codec.CODEC_COMPACT, Codec.COMPRESSION_NONE), new Codec(Codec.CODEC_COMPACT, 9).closestSupported());
+
+        // negotiate over a real socket, then send an individual through the agreed codec
+        final ServerSocket server = new ServerSocket(0);
+        final Object[] received = new Object[1];
+        Thread acceptor = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    Socket socket = server.accept();
+                    Codec codec = Codec.accept(socket.getInputStream(), socket.getOutputStream());
+                    DataInputStream in = new DataInputStream(codec.decompress(socket.getInputStream()));
+                    DoubleVectorIndividual ind = withFitness(new DoubleVectorIndividual(), 0);
+                    codec.readIndividual(state, ind, in);
+                    received[0] = ind;
+                    socket.close();
+                    }
+                catch (IOException e) { received[0] = e; }
+                }
+            });
+        acceptor.start();
+
+        Socket socket = new Socket("localhost", server.getLocalPort());
+        Codec proposed = new Codec(Codec.CODEC_COMPACT, Codec.COMPRESSION_FAST);
+        Codec agreed = proposed.propose(socket.getInputStream(), socket.getOutputStream());
+        assertEquals(proposed, agreed);
+        DoubleVectorIndividual ind = withFitness(new DoubleVectorIndividual(), 3);
+        ind.genome = new double[] { 1, 2, 3 };
+        DataOutputStream out = new DataOutputStream(agreed.compress(socket.getOutputStream()));
+        agreed.writeIndividual(state, ind, out);
+        out.flush();
+        acceptor.join();
+        socket.close();
+        server.close();
+        assertEquals(ind, received[0]);
+        }
+
+    @Test
+    public void testGP() throws IOException
+        {
+        ParameterDatabase parameters = Evolve.loadParameterDatabase(new String[]
+            {
+            "-from", "app/regression/benchmark.params",
+            "-p", "silent=true",
+            "-p", "seed.0=1",
+            "-p", "pop.subpop.0.size=100",
+            "-p", "eval.problem.type=vladislavleva-8",
+            "-p", "gp.tc.0.fset=vladislavleva-a2",
+            });
+        EvolutionState state = Evolve.initialize(parameters, 0);
+        state.startFresh();
+        ArrayList<Individual> population = state.population.subpops.get(0).individuals;
+        Individual[] inds = population.toArray(new Individual[0]);
+
+        for (Codec codec : codecs())
+            {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(codec.compress(bytes));
+            for (int i = 0; i < inds.length; i++)
+                codec.writeIndividual(state, inds[i], out);
+            out.flush();
+            DataInputStream in = new DataInputStream(codec.decompress(new ByteArrayInputStream(bytes.toByteArray())));
+            for (int i = 0; i < inds.length; i++)
+                {
+                GPIndividual ind = (GPIndividual) codec.newIndividual(state, inds[i].species, in);
+                assertEquals(codec.toString(), inds[i], ind);
+                assertEquals(inds[i].size(), ind.size());
+                }
+            }
+        Evolve.cleanup(state);
+        }
+    }
@@ -0,0 +1,150 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.util;
+
+import java.io.*;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Round-trips data through FastCompression, both as blocks and as streams.
+ */
+public class FastCompressionTest
+    {
+    private static byte[] roundTrip(byte[] data)
+        {
+        byte[] compressed = new byte[FastCompression.maxCompressedLength(data.length)];
+        int length = FastCompression.compress(data, data.length, compressed, 0, FastCompression.newTable());
+        assertTrue(length <= compressed.length);
+        byte[] result = new byte[data.length];
+        try
+            {
+            FastCompression.decompress(compressed, 0, length, result, data.length);
+            }
+        catch (IOException e) { fail(e.toString()); }
+        assertArrayEquals(data, result);
+        return Arrays.copyOf(compressed, length);
+        }
+
+    @Test
+    public void testRandom()
+        {
+        MersenneTwisterFast random = new MersenneTwisterFast(1);
+        for (int length : new int[] { 0, 1, 3, 4, 5, 15, 16, 300, 65536 })
+            {
+            byte[] data = new byte[length];
+            for (int i = 0; i < length; i++)
+                data[i] = (byte) random.nextInt();
+            roundTrip(data);
+            }
+        }
+
+    @Test
+    public void testRepetitive()
+        {
+        // long runs, and a short repeated pattern, which both need overlapping matches and long lengths
+        byte[] zeros = new byte[10000];
+        assertTrue(roundTrip(zeros).length < 100);
+
+        byte[] pattern = new byte[20000];
+        for (int i = 0; i < pattern.length; i++)
+            pattern[i] = (byte) (i % 7);
+        assertTrue(roundTrip(pattern).length < 200);
+
+        // a mix of literals and matches
+        MersenneTwisterFast random = new MersenneTwisterFast(2);
+        byte[] mixed = new byte[50000];
+        for (int i = 0; i < mixed.length; i++)
+            mixed[i] = (byte) (random.nextInt(10) < 7 ? i / 100 : random.nextInt());
+        roundTrip(mixed);
+        }
+
+    @Test(expected = IOException.class)
+    public void testMalformed() throws IOException
+        {
+        byte[] data = new byte[1000];
+        byte[] compressed = roundTrip(data);
+        FastCompression.decompress(compressed, 0, compressed.length - 1, new byte[data.length], data.length);
+        }
+
+    @Test
+    public void testStreams() throws IOException
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new FastCompression.CompressingOutputStream(bytes));
+        MersenneTwisterFast random = new MersenneTwisterFast(3);
+        out.writeUTF("hello");
+        out.flush();
+        for (int i = 0; i < 100000; i++)
+            out.writeInt(i % 1000);
+        for (int i = 0; i < 1000; i++)
+            out.writeDouble(random.nextDouble());
+        out.flush();
+        out.writeUTF("goodbye");
+        out.flush();
+        assertTrue(bytes.size() < 400000 / 2);
+
+        DataInputStream in = new DataInputStream(new FastCompression.DecompressingInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        random = new MersenneTwisterFast(3);
+        assertEquals("hello", in.readUTF());
+        for (int i = 0; i < 100000; i++)
+            assertEquals(i % 1000, in.readInt());
+        for (int i = 0; i < 1000; i++)
+            assertEquals(random.nextDouble(), in.readDouble(), 0);
+        assertEquals("goodbye", in.readUTF());
+        assertEquals(-1, in.read());
+        }
+
+    /** Reading resumes properly if the underlying stream gives out in the middle of a block. */
+    @Test
+    public void testInterruptedStream() throws IOException
+        {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new FastCompression.CompressingOutputStream(bytes));
+        for (int i = 0; i < 1000; i++)
+            out.writeInt(i);
+        out.flush();
+        final byte[] data = bytes.toByteArray();
+
+        // a stream which times out every third read, and returns at most 5 bytes at a time
+        InputStream flaky = new InputStream()
+            {
+            int pos = 0;
+            int reads = 0;
+            public int read() throws IOException
+                {
+                byte[] b = new byte[1];
+                return (read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF);
+                }
+            public int read(byte[] b, int off, int len) throws IOException
+                {
+                if (++reads % 3 == 0) throw new java.net.SocketTimeoutException();
+                if (pos == data.length) return -1;
+                int n = Math.min(Math.min(len, 5), data.length - pos);
+                System.arraycopy(data, pos, b, off, n);
+                pos += n;
+                return n;
+                }
+            };
+        FastCompression.DecompressingInputStream in = new FastCompression.DecompressingInputStream(flaky);
+        int i = 0;
+        byte[] result = new byte[4000];
+        while (i < result.length)
+            {
+            try
+                {
+                int n = in.read(result, i, result.length - i);
+                assertTrue(n > 0);
+                i += n;
+                }
+            catch (java.net.SocketTimeoutException e) { }  // try again
+            }
+        DataInputStream check = new DataInputStream(new ByteArrayInputStream(result));
+        for (int x = 0; x < 1000; x++)
+            assertEquals(x, check.readInt());
+        }
+    }
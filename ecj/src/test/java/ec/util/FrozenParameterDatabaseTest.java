@@ -0,0 +1,158 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.util;
+
+import java.io.*;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares FrozenParameterDatabase lookups with the ParameterDatabase it was frozen from.
+ */
+public class FrozenParameterDatabaseTest
+    {
+    private ParameterDatabase params;
+
+    private static final String[] KEYS =
+        {
+        "a.b.c.d", "a.b.c.e.f", "a.b.x", "hello", "x.y.z", "q.r.s", "t.u.v", "shadowed", "empty",
+        "int", "hex", "double", "list", "bad", "missing", "a.b.c.missing"
+        };
+
+    @Before
+    public void setUp()
+        {
+        params = new ParameterDatabase();
+        params.set(new Parameter("a.b.default"), "def");
+        params.set(new Parameter("a.b.c.alias"), "ali");
+        params.set(new Parameter("ali.d"), "abcd");
+        params.set(new Parameter("ali.e.f"), "abcef");
+        params.set(new Parameter("def.x"), "defx");
+        params.set(new Parameter("q.r.alias"), "alias-value-in-parent");
+        params.set(new Parameter("alias-value-in-child.v"), "eggs");
+        params.set(new Parameter("hello"), " world ");
+        params.set(new Parameter("shadowed"), "child");
+        params.set(new Parameter("empty"), " ");
+        params.set(new Parameter("int"), "42");
+        params.set(new Parameter("hex"), "x1F");
+        params.set(new Parameter("double"), "2.5");
+        params.set(new Parameter("list"), "1 2.5 3");
+        params.set(new Parameter("bad"), "1 two");
+
+        ParameterDatabase parent = new ParameterDatabase();
+        parent.set(new Parameter("x.y.alias"), "alias-in-parent");
+        parent.set(new Parameter("alias-in-parent.z"), "spinach");
+        parent.set(new Parameter("alias-value-in-parent.s"), "toast");
+        parent.set(new Parameter("t.u.alias"), "alias-value-in-child");
+        parent.set(new Parameter("shadowed"), "parent");
+        parent.set(new Parameter("empty"), "hidden");
+        params.addParent(parent);
+        }
+
+    @Test
+    public void testSameValues()
+        {
+        FrozenParameterDatabase frozen = params.freeze(false);
+        for (int i = 0; i < KEYS.length; i++)
+            {
+            Parameter p = new Parameter(KEYS[i]);
+            assertEquals(KEYS[i], params.getString(p, null), frozen.getString(p, null));
+            assertEquals(KEYS[i], params.exists(p, null), frozen.exists(p, null));
+            assertEquals(KEYS[i], params.getInt(p, null, 0), frozen.getInt(p, null, 0));
+            assertEquals(KEYS[i], params.getIntWithDefault(p, null, -7), frozen.getIntWithDefault(p, null, -7));
+            assertEquals(KEYS[i], params.getDoubleWithDefault(p, null, -7), frozen.getDoubleWithDefault(p, null, -7), 0);
+            assertEquals(KEYS[i], params.getDouble(p, null, 0.0, 10.0), frozen.getDouble(p, null, 0.0, 10.0), 0);
+            assertEquals(KEYS[i], params.getBoolean(p, null, true), frozen.getBoolean(p, null, true));
+            assertArrayEquals(KEYS[i], params.getDoublesUnconstrained(p, null), frozen.getDoublesUnconstrained(p, null), 0);
+            assertArrayEquals(KEYS[i], params.getIntsUnconstrained(p, null), frozen.getIntsUnconstrained(p, null));
+            }
+        assertEquals("spinach", frozen.getString(new Parameter("x.y.z"), null));
+        assertEquals("child", frozen.getString(new Parameter("shadowed"), null));
+        assertNull(frozen.getString(new Parameter("empty"), null));
+        assertEquals(31, frozen.getInt(new Parameter("hex"), null));
+        assertArrayEquals(new double[] { 1, 2.5, 3 }, frozen.getDoublesUnconstrained(new Parameter("list"), null), 0);
+        assertNull(frozen.getDoubles(new Parameter("list"), null, 0, 2));
+        }
+
+    @Test
+    public void testOverlay()
+        {
+        FrozenParameterDatabase frozen = params.freeze(false);
+        try
+            {
+            frozen.set(new Parameter("int"), "3");
+            fail("a frozen database can't be changed");
+            }
+        catch (UnsupportedOperationException e) { }
+
+        ParameterDatabase overlay = new ParameterDatabase();
+        overlay.addParent(frozen);
+        overlay.set(new Parameter("int"), "3");
+        assertEquals(3, overlay.getInt(new Parameter("int"), null));
+        assertEquals(42, frozen.getInt(new Parameter("int"), null));
+        assertEquals("abcd", overlay.getString(new Parameter("a.b.c.d"), null));
+        assertEquals("spinach", overlay.getString(new Parameter("x.y.z"), null));
+        assertSame(frozen.getSource(), frozen.getLocation(new Parameter("int")));
+        }
+
+    @Test
+    public void testTracking() throws Exception
+        {
+        params.getString(new Parameter("hello"), null);
+        FrozenParameterDatabase frozen = params.freeze(true);
+        Parameter p = new Parameter("int");
+        for (int i = 0; i < 5; i++)
+            frozen.getInt(p, null, 0);
+        frozen.exists(new Parameter("missing"), null);
+        assertEquals(10, frozen.timesAccessed(p));     // each get tests for existence first
+        assertEquals(5, frozen.timesGotten(p));
+        assertEquals(1, frozen.timesAccessed(new Parameter("missing")));
+        assertEquals(0, frozen.timesGotten(new Parameter("missing")));
+        assertEquals(0, params.freeze(false).timesAccessed(p));
+
+        StringWriter text = new StringWriter();
+        frozen.listGotten(new PrintWriter(text));
+        assertTrue(text.toString().contains("int = 42"));
+        assertTrue(text.toString().contains("hello = world"));
+
+        // serialized and back
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(frozen);
+        out.close();
+        FrozenParameterDatabase copy = (FrozenParameterDatabase)
+            new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals("abcd", copy.getString(new Parameter("a.b.c.d"), null));
+        assertEquals(5, copy.timesGotten(p));
+        }
+
+    @Test(timeout = 20000)
+    public void testThreads() throws Exception
+        {
+        final FrozenParameterDatabase frozen = params.freeze(true);
+        final boolean[] wrong = new boolean[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+            {
+            threads[t] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    for (int i = 0; i < 10000; i++)
+                        if (!"abcef".equals(frozen.getString(new Parameter("a.b.c.e.f"), null)) ||
+                            frozen.getInt(new Parameter("int"), null, 0) != 42)
+                            wrong[0] = true;
+                    }
+                });
+            threads[t].start();
+            }
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+        assertFalse(wrong[0]);
+        assertEquals(40000, frozen.timesGotten(new Parameter("int")));
+        }
+    }
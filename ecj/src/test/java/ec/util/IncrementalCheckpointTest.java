@@ -0,0 +1,176 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.util;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import ec.Individual;
+import java.io.File;
+import java.util.ArrayList;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Writes asynchronous and incremental checkpoints of a GP run and restores them.
+ */
+public class IncrementalCheckpointTest
+    {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ArrayList<EvolutionState> states = new ArrayList<EvolutionState>();
+
+    private EvolutionState start(String... extra) throws Exception
+        {
+        File directory = folder.getRoot();
+        ArrayList<String> args = new ArrayList<String>();
+        String[] common =
+            {
+            "-from", "app/regression/benchmark.params",
+            "-p", "silent=true",
+            "-p", "seed.0=1",
+            "-p", "pop.subpop.0.size=50",
+            "-p", "eval.problem.type=vladislavleva-8",
+            "-p", "gp.tc.0.fset=vladislavleva-a2",
+            "-p", "stat.file=" + new File(directory, "out.stat").getAbsolutePath(),
+            "-p", "checkpoint=true",
+            "-p", "checkpoint-prefix=ec",
+            "-p", "checkpoint-directory=" + directory.getAbsolutePath(),
+            };
+        for (String s : common) args.add(s);
+        for (String s : extra) { args.add("-p"); args.add(s); }
+        ParameterDatabase parameters = Evolve.loadParameterDatabase(args.toArray(new String[0]));
+        EvolutionState state = Evolve.initialize(parameters, 0);
+        state.startFresh();
+        states.add(state);
+        return state;
+        }
+
+    @After
+    public void tearDown()
+        {
+        for (EvolutionState state : states)
+            Evolve.cleanup(state);
+        }
+
+    private File file(String name)
+        {
+        return new File(folder.getRoot(), name);
+        }
+
+    private static void assertSamePopulation(EvolutionState expected, EvolutionState actual)
+        {
+        ArrayList<Individual> a = expected.population.subpops.get(0).individuals;
+        ArrayList<Individual> b = actual.population.subpops.get(0).individuals;
+        assertEquals(a.size(), b.size());
+        for (int i = 0; i < a.size(); i++)
+            {
+            assertEquals(a.get(i), b.get(i));
+            assertSame(actual.population.subpops.get(0).species, b.get(i).species);
+            }
+        }
+
+    @Test
+    public void testAsync() throws Exception
+        {
+        EvolutionState state = start("checkpoint-async=true");
+        assertNotNull(state.checkpointer);
+        Checkpoint.setCheckpoint(state);
+        state.checkpointer.waitForPendingWrite(state);
+        assertTrue(file("ec.0.gz").exists());
+
+        EvolutionState restored = Checkpoint.restoreFromCheckpoint(file("ec.0.gz").getPath());
+        states.add(restored);
+        assertSamePopulation(state, restored);
+        }
+
+    @Test
+    public void testIncremental() throws Exception
+        {
+        EvolutionState state = start("checkpoint-incremental=true", "checkpoint-async=true", "checkpoint-full-modulo=3");
+        Checkpoint.setCheckpoint(state);
+
+        // nothing changed: only the manifest is written
+        state.generation = 1;
+        Checkpoint.setCheckpoint(state);
+        state.checkpointer.waitForPendingWrite(state);
+        assertTrue(file("ec.0.subpop.0.part").exists());
+        assertTrue(file("ec.0.statistics.part").exists());
+        assertTrue(file("ec.1.ckpt").exists());
+        assertFalse(file("ec.1.subpop.0.part").exists());
+        assertFalse(file("ec.1.statistics.part").exists());
+
+        // a changed subpopulation is written again
+        ArrayList<Individual> individuals = state.population.subpops.get(0).individuals;
+        individuals.set(0, individuals.get(1));
+        state.generation = 2;
+        Checkpoint.setCheckpoint(state);
+        state.checkpointer.waitForPendingWrite(state);
+        assertTrue(file("ec.2.subpop.0.part").exists());
+        assertFalse(file("ec.2.statistics.part").exists());
+
+        // every third checkpoint is full
+        state.generation = 3;
+        Checkpoint.setCheckpoint(state);
+        state.checkpointer.waitForPendingWrite(state);
+        assertTrue(file("ec.3.subpop.0.part").exists());
+        assertTrue(file("ec.3.statistics.part").exists());
+
+        // restoring from a delta reads parts from earlier checkpoints
+        EvolutionState restored = Checkpoint.restoreFromCheckpoint(file("ec.1.ckpt").getPath());
+        states.add(restored);
+        assertEquals(1, restored.generation);
+        assertNotNull(restored.statistics);
+        assertNotNull(restored.checkpointer);
+        assertFalse(restored.population.subpops.get(0).individuals.isEmpty());
+
+        restored = Checkpoint.restoreFromCheckpoint(file("ec.2.ckpt").getPath());
+        states.add(restored);
+        assertSamePopulation(state, restored);
+
+        // a restored run carries on incrementally
+        restored = Checkpoint.restoreFromCheckpoint(file("ec.3.ckpt").getPath());
+        states.add(restored);
+        restored.generation = 4;
+        Checkpoint.setCheckpoint(restored);
+        restored.checkpointer.waitForPendingWrite(restored);
+        assertTrue(file("ec.4.ckpt").exists());
+        assertFalse(file("ec.4.subpop.0.part").exists());
+        }
+
+    @Test
+    public void testCodecEncoding() throws Exception
+        {
+        EvolutionState state = start("checkpoint-incremental=true", "checkpoint-encoding=compact", "checkpoint-compression=deflate");
+        Checkpoint.setCheckpoint(state);
+        assertTrue(file("ec.0.ckpt").exists());
+        EvolutionState restored = Checkpoint.restoreFromCheckpoint(file("ec.0.ckpt").getPath());
+        states.add(restored);
+        assertSamePopulation(state, restored);
+        }
+
+    @Test
+    public void testCorruptPart() throws Exception
+        {
+        EvolutionState state = start("checkpoint-incremental=true", "checkpoint-compression=none");
+        Checkpoint.setCheckpoint(state);
+        java.io.RandomAccessFile part = new java.io.RandomAccessFile(file("ec.0.subpop.0.part"), "rw");
+        part.seek(part.length() / 2);
+        int b = part.read();
+        part.seek(part.length() / 2);
+        part.write(b ^ 0xFF);
+        part.close();
+        try
+            {
+            Checkpoint.restoreFromCheckpoint(file("ec.0.ckpt").getPath());
+            fail("a corrupt part should not be restored");
+            }
+        catch (java.io.IOException e) { }
+        }
+    }
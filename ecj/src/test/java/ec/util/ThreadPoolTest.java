@@ -0,0 +1,178 @@
+/*
+  Copyright 2019 by Sean Luke and George Mason University
+  Licensed under the Academic Free License version 3.0
+  See the file "LICENSE" for more information
+*/
+package ec.util;
+
+import ec.EvolutionState;
+import ec.Evolve;
+import java.io.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs Runnables on each ThreadPool backend.
+ */
+public class ThreadPoolTest
+    {
+    @Test(timeout = 20000)
+    public void testJoinAll()
+        {
+        for (int backend = 0; backend < ThreadPool.BACKEND_NAMES.length; backend++)
+            {
+            ThreadPool pool = new ThreadPool(backend);
+            final AtomicInteger count = new AtomicInteger();
+            for (int generation = 0; generation < 50; generation++)
+                {
+                for (int i = 0; i < 8; i++)
+                    pool.startWithAffinity(new Runnable()
+                        {
+                        public void run()
+                            {
+                            try { Thread.sleep(1); } catch (InterruptedException e) { }
+                            count.incrementAndGet();
+                            }
+                        }, "Test Thread " + i, i);
+                pool.joinAll();
+                assertEquals(ThreadPool.BACKEND_NAMES[backend], (generation + 1) * 8, count.get());
+                assertEquals(0, pool.getOutstandingWorkers());
+                }
+            assertEquals(50, pool.getJoinCount());
+            assertTrue(pool.getTotalJoinNanos() >= pool.getTotalBarrierLatencyNanos());
+            assertTrue(pool.getTotalBarrierLatencyNanos() >= pool.getMaxBarrierLatencyNanos());
+            pool.resetMetrics();
+            assertEquals(0, pool.getJoinCount());
+            pool.killAll();
+            }
+        }
+
+    @Test(timeout = 20000)
+    public void testJoinAndMaximum() throws Exception
+        {
+        for (int backend = 0; backend < ThreadPool.BACKEND_NAMES.length; backend++)
+            {
+            ThreadPool pool = new ThreadPool(backend);
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger maxRunning = new AtomicInteger();
+            Runnable[] runs = new Runnable[20];
+            ThreadPool.Worker[] workers = new ThreadPool.Worker[runs.length];
+            for (int i = 0; i < runs.length; i++)
+                {
+                runs[i] = new Runnable()
+                    {
+                    public void run()
+                        {
+                        int r = running.incrementAndGet();
+                        synchronized (maxRunning) { maxRunning.set(Math.max(maxRunning.get(), r)); }
+                        try { Thread.sleep(2); } catch (InterruptedException e) { }
+                        running.decrementAndGet();
+                        }
+                    };
+                workers[i] = pool.start(runs[i], 3, "Test Thread");
+                }
+            for (int i = 0; i < runs.length; i++)
+                pool.join(workers[i], runs[i]);
+            assertEquals(0, running.get());
+            assertTrue(ThreadPool.BACKEND_NAMES[backend], maxRunning.get() <= 3);
+            pool.killAll();
+            }
+        }
+
+    @Test(timeout = 20000)
+    public void testKillAllWhileStarting() throws Exception
+        {
+        // Tasks on the executor and virtual backends need the lock to finish, so killAll() mustn't hold it while it waits
+        for (int backend = ThreadPool.BACKEND_EXECUTOR; backend < ThreadPool.BACKEND_NAMES.length; backend++)
+            {
+            final ThreadPool pool = new ThreadPool(backend);
+            final AtomicInteger count = new AtomicInteger();
+            final AtomicBoolean stop = new AtomicBoolean();
+            final Runnable run = new Runnable()
+                {
+                public void run()
+                    {
+                    try { Thread.sleep(1); } catch (InterruptedException e) { }
+                    count.incrementAndGet();
+                    }
+                };
+            Thread starter = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    while(!stop.get())
+                        pool.start(run, 4, "Test Thread");
+                    }
+                });
+            starter.start();
+            for (int i = 0; i < 20; i++)  // Tasks keep finishing and starting while we kill
+                {
+                int c = count.get();
+                while(count.get() == c) Thread.sleep(1);
+                pool.killAll();
+                }
+            stop.set(true);
+            starter.join();
+            pool.killAll();
+            assertEquals(ThreadPool.BACKEND_NAMES[backend], 0, pool.getOutstandingWorkers());
+            }
+        }
+
+    @Test
+    public void testAffinity()
+        {
+        ThreadPool pool = new ThreadPool();
+        final Thread[] threads = new Thread[4];
+        final boolean[] moved = new boolean[1];
+        for (int generation = 0; generation < 10; generation++)
+            {
+            for (int i = 0; i < threads.length; i++)
+                {
+                final int n = i;
+                final int g = generation;
+                pool.startWithAffinity(new Runnable()
+                    {
+                    public void run()
+                        {
+                        if (g == 0) threads[n] = Thread.currentThread();
+                        else if (threads[n] != Thread.currentThread()) moved[0] = true;
+                        }
+                    }, "Test Thread " + i, i);
+                }
+            pool.joinAll();
+            }
+        assertFalse(moved[0]);
+        assertEquals(4, pool.getTotalWorkers());
+        pool.killAll();
+        }
+
+    @Test
+    public void testCreateAndSerialize() throws Exception
+        {
+        EvolutionState state = new EvolutionState();
+        state.output = Evolve.buildOutput();
+        state.output.setThrowsErrors(true);
+        state.output.getLog(0).silent = true;
+        state.output.getLog(1).silent = true;
+        state.parameters = new ParameterDatabase();
+        Parameter p = new Parameter(ThreadPool.P_THREADPOOL);
+        assertEquals(ThreadPool.BACKEND_CLASSIC, ThreadPool.create(state, p, ThreadPool.BACKEND_CLASSIC).getBackend());
+        state.parameters.set(p, "executor");
+        ThreadPool pool = ThreadPool.create(state, p, ThreadPool.BACKEND_CLASSIC);
+        assertEquals(ThreadPool.BACKEND_EXECUTOR, pool.getBackend());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(pool);
+        out.close();
+        ThreadPool copy = (ThreadPool) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(ThreadPool.BACKEND_EXECUTOR, copy.getBackend());
+        final boolean[] ran = new boolean[1];
+        copy.start(new Runnable() { public void run() { ran[0] = true; } });
+        copy.joinAll();
+        assertTrue(ran[0]);
+        copy.killAll();
+        }
+    }